@@ -24,6 +24,7 @@ package org.opennms.core.cache;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -104,6 +105,12 @@ public class Cache<K, V> {
         }
     }
 
+    public void invalidateIf(Predicate<K> predicate) {
+        if (delegate != null) {
+            delegate.asMap().keySet().removeIf(predicate);
+        }
+    }
+
     public void refresh(K key) {
         if (delegate != null) {
             delegate.refresh(key);
@@ -66,6 +66,9 @@ public abstract class NativeDatagramSocket implements AutoCloseable {
     public static final int IP_MTU_DISCOVER = 10;
     public static final int IPV6_DONTFRAG = 62;
 
+    public static final int SOL_SOCKET = Platform.isLinux() ? 1 : 0xffff;
+    public static final int SO_RCVBUF = Platform.isLinux() ? 8 : 0x1002;
+
     // platform-specific  :/
     // public static final int IPV6_TCLASS = 36;
 
@@ -134,6 +137,19 @@ public abstract class NativeDatagramSocket implements AutoCloseable {
         }
     }
 
+    public void setReceiveBufferSize(final int size) throws IOException {
+        final int socket = getSock();
+        if (socket < 0) {
+            throw new IOException("Invalid socket!");
+        }
+        final IntByReference bufferSize = new IntByReference(size);
+        try {
+            setsockopt(socket, SOL_SOCKET, SO_RCVBUF, bufferSize.getPointer(), Integer.BYTES);
+        } catch (final LastErrorException e) {
+            throw new IOException("setsockopt: " + strerror(e.getErrorCode()));
+        }
+    }
+
     public abstract int getSock();
     public abstract void allowFragmentation(boolean frag) throws IOException;
     public abstract void setTrafficClass(int tc) throws IOException;
@@ -23,6 +23,7 @@ package org.opennms.netmgt.snmp;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -234,12 +235,71 @@ public class AggregateTracker extends CollectionTracker {
     }
 
     public AggregateTracker(Collectable[] children, CollectionTracker parent) {
+        this(children, parent, true);
+    }
+
+    private AggregateTracker(Collectable[] children, CollectionTracker parent, boolean adoptChildren) {
         super(parent);
         
         m_children = new CollectionTracker[children.length];
         for (int i = 0; i < m_children.length; i++) {
             m_children[i] = children[i].getCollectionTracker();
-            m_children[i].setParent(this);
+            if (adoptChildren) {
+                m_children[i].setParent(this);
+            }
+        }
+    }
+
+    /**
+     * Creates a tracker that walks the given trackers together without adopting
+     * them. The trackers keep their parents, so their results and errors are
+     * still reported through their own trees, and each of them can be used on its
+     * own once the walk has completed.
+     */
+    public static AggregateTracker combine(List<? extends Collectable> trackers) {
+        return new AggregateTracker(trackers.toArray(new Collectable[trackers.size()]), null, false);
+    }
+
+    /**
+     * Splits the given tracker into at most the given number of trackers that
+     * can be walked independently of each other.
+     *
+     * The leaves of the tree of aggregate trackers are spread over the returned
+     * trackers. The leaves keep their parents, so their results and errors are
+     * still reported through the original tree.
+     *
+     * @return the given tracker if it can't be split
+     */
+    public static List<CollectionTracker> split(CollectionTracker tracker, int count) {
+        final List<CollectionTracker> leaves = new ArrayList<>();
+        addLeaves(tracker, leaves);
+        if (count <= 1 || leaves.size() <= 1) {
+            return Collections.singletonList(tracker);
+        }
+
+        final int n = Math.min(count, leaves.size());
+        final List<List<Collectable>> groups = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            groups.get(i % n).add(leaves.get(i));
+        }
+
+        final List<CollectionTracker> trackers = new ArrayList<>(n);
+        for (final List<Collectable> group : groups) {
+            trackers.add(new AggregateTracker(group.toArray(new Collectable[group.size()]), tracker, false));
+        }
+        return trackers;
+    }
+
+    private static void addLeaves(CollectionTracker tracker, List<CollectionTracker> leaves) {
+        if (tracker instanceof AggregateTracker) {
+            for (final CollectionTracker child : ((AggregateTracker)tracker).m_children) {
+                addLeaves(child, leaves);
+            }
+        } else {
+            leaves.add(tracker);
         }
     }
     
@@ -0,0 +1,73 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+/**
+ * The limits and statistics of the access to a single SNMP agent, exported
+ * through JMX by the {@link SnmpAgentAccessManager}.
+ */
+public interface SnmpAgentAccessMXBean {
+
+    String getLocation();
+
+    String getHostAddress();
+
+    int getPort();
+
+    int getMaxConcurrent();
+
+    double getMaxRequestsPerSecond();
+
+    /**
+     * @return the number of operations that are running
+     */
+    int getActive();
+
+    /**
+     * @return the number of operations that wait for a slot
+     */
+    int getQueued();
+
+    long getOperations();
+
+    /**
+     * @return the number of operations that had to wait for a slot
+     */
+    long getWaits();
+
+    long getWaitTimeMillis();
+
+    /**
+     * @return the number of requests that were delayed by the rate limit
+     */
+    long getThrottledRequests();
+
+    long getThrottleTimeMillis();
+
+    long getResponses();
+
+    double getAverageLatencyMillis();
+
+    double getMaxLatencyMillis();
+
+    long getTimeouts();
+}
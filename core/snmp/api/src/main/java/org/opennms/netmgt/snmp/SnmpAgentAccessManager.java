@@ -0,0 +1,814 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Coordinates the access to the SNMP agents of everything that runs in this
+ * JVM, so fragile agents are not overwhelmed when several daemons query them
+ * at the same time.
+ *
+ * For every agent, identified by its location, address and port, the manager
+ * limits the number of walks and requests that run concurrently and the rate
+ * at which requests are sent. Operations that have to wait are queued per
+ * client, the daemon that issued them, and the clients take turns when a slot
+ * frees up so a daemon with many queued operations does not starve the others.
+ * Neither limit is enforced by default:
+ * <ul>
+ * <li>org.opennms.netmgt.snmp.agentAccess.maxConcurrent - operations per agent, 0 for no limit</li>
+ * <li>org.opennms.netmgt.snmp.agentAccess.maxRequestsPerSecond - requests per agent, 0 for no limit</li>
+ * </ul>
+ * The limits of single agents can be changed with {@link #setLimits(AgentKey, int, double)}.
+ *
+ * Agents are only tracked when a limit applies to them, or when
+ * org.opennms.netmgt.snmp.agentAccess.statistics is set. The latency of the
+ * responses and the timeouts of the tracked agents are counted and exported
+ * through JMX as {@link SnmpAgentAccessMXBean}s, unless
+ * org.opennms.netmgt.snmp.agentAccess.jmx is false. Agents that were not
+ * accessed for org.opennms.netmgt.snmp.agentAccess.idleTimeout milliseconds
+ * are dropped along with their statistics.
+ */
+public class SnmpAgentAccessManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpAgentAccessManager.class);
+
+    public static final int DEFAULT_MAX_CONCURRENT = Integer.getInteger("org.opennms.netmgt.snmp.agentAccess.maxConcurrent", 0);
+
+    public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = Double.parseDouble(System.getProperty("org.opennms.netmgt.snmp.agentAccess.maxRequestsPerSecond", "0"));
+
+    public static final boolean DEFAULT_TRACK_STATISTICS = Boolean.getBoolean("org.opennms.netmgt.snmp.agentAccess.statistics");
+
+    public static final long DEFAULT_IDLE_TIMEOUT = Long.getLong("org.opennms.netmgt.snmp.agentAccess.idleTimeout", TimeUnit.MINUTES.toMillis(15));
+
+    public static final String JMX_DOMAIN = "org.opennms.netmgt.snmp";
+
+    /**
+     * The MDC key the daemons put their name under, see org.opennms.core.logging.Logging.PREFIX_KEY.
+     */
+    private static final String CLIENT_MDC_KEY = "prefix";
+
+    private static final String DEFAULT_CLIENT = "default";
+
+    /**
+     * The location of OpenNMS itself, see org.opennms.core.utils.LocationUtils.DEFAULT_LOCATION_NAME.
+     */
+    private static final String DEFAULT_LOCATION = "Default";
+
+    private static final SnmpAgentAccessManager INSTANCE = new SnmpAgentAccessManager(DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_REQUESTS_PER_SECOND,
+            DEFAULT_TRACK_STATISTICS, DEFAULT_IDLE_TIMEOUT, Boolean.parseBoolean(System.getProperty("org.opennms.netmgt.snmp.agentAccess.jmx", "true")));
+
+    private static final Ticket UNTRACKED = new Ticket(null);
+
+    private static final ThreadLocal<String> CLIENT = new ThreadLocal<>();
+
+    private static volatile String s_localLocation = DEFAULT_LOCATION;
+
+    private final int m_maxConcurrent;
+    private final double m_maxRequestsPerSecond;
+    private final boolean m_trackStatistics;
+    private final long m_idleTimeoutNanos;
+    private final boolean m_registerMBeans;
+
+    private final Map<AgentKey, AgentAccess> m_agents = new ConcurrentHashMap<>();
+    private final Map<AgentKey, double[]> m_limits = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService m_executor;
+    private boolean m_evictionScheduled = false;
+
+    /**
+     * Identifies an agent by the location it is reached from, its address and its port.
+     */
+    public static final class AgentKey {
+        private final String m_location;
+        private final InetAddress m_address;
+        private final int m_port;
+
+        public AgentKey(String location, InetAddress address, int port) {
+            m_location = Objects.requireNonNull(location);
+            m_address = Objects.requireNonNull(address);
+            m_port = port;
+        }
+
+        /**
+         * @return the key of the agent the configuration points to, as seen from the location of this JVM
+         */
+        public static AgentKey of(SnmpAgentConfig agentConfig) {
+            return agentConfig.getAddress() == null ? null : new AgentKey(SnmpAgentAccessManager.getLocation(), agentConfig.getAddress(), agentConfig.getPort());
+        }
+
+        public String getLocation() {
+            return m_location;
+        }
+
+        public InetAddress getAddress() {
+            return m_address;
+        }
+
+        public int getPort() {
+            return m_port;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof AgentKey)) {
+                return false;
+            }
+            final AgentKey that = (AgentKey) obj;
+            return m_port == that.m_port && m_address.equals(that.m_address) && m_location.equals(that.m_location);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_location, m_address, m_port);
+        }
+
+        @Override
+        public String toString() {
+            return InetAddrUtils.str(m_address) + ":" + m_port + "@" + m_location;
+        }
+    }
+
+    /**
+     * A slot of an agent, held by an operation until it is released.
+     */
+    public static final class Ticket {
+        private final AgentAccess m_agent;
+        private boolean m_released = false;
+
+        private Ticket(AgentAccess agent) {
+            m_agent = agent;
+        }
+
+        /**
+         * @return the agent the ticket was issued for or null if the access was not tracked
+         */
+        public AgentAccess getAgent() {
+            return m_agent;
+        }
+
+        /**
+         * Frees the slot for the next operation. Can be called more than once.
+         */
+        public void release() {
+            if (m_agent == null) {
+                return;
+            }
+            synchronized (m_agent) {
+                if (m_released) {
+                    return;
+                }
+                m_released = true;
+            }
+            m_agent.release();
+        }
+    }
+
+    /**
+     * The limits, queues and statistics of a single agent.
+     */
+    public final class AgentAccess implements SnmpAgentAccessMXBean {
+        private final AgentKey m_key;
+
+        private int m_maxConcurrent;
+        private long m_requestIntervalNanos;
+
+        private int m_active = 0;
+        private int m_queued = 0;
+        private final Map<String, Deque<Runnable>> m_queues = new LinkedHashMap<>();
+        private long m_nextRequestNanos;
+        private long m_lastUsedNanos;
+        private boolean m_evicted = false;
+
+        private long m_operations = 0;
+        private long m_waits = 0;
+        private long m_waitNanos = 0;
+        private long m_throttledRequests = 0;
+        private long m_throttleNanos = 0;
+        private long m_responses = 0;
+        private long m_latencyNanos = 0;
+        private long m_maxLatencyNanos = 0;
+        private long m_timeouts = 0;
+
+        private AgentAccess(AgentKey key) {
+            m_key = key;
+            m_nextRequestNanos = System.nanoTime();
+            m_lastUsedNanos = m_nextRequestNanos;
+            final double[] limits = m_limits.get(key);
+            if (limits != null) {
+                setLimits((int)limits[0], limits[1]);
+            } else {
+                setLimits(SnmpAgentAccessManager.this.m_maxConcurrent, SnmpAgentAccessManager.this.m_maxRequestsPerSecond);
+            }
+        }
+
+        public AgentKey getKey() {
+            return m_key;
+        }
+
+        public InetAddress getAddress() {
+            return m_key.getAddress();
+        }
+
+        @Override
+        public String getLocation() {
+            return m_key.getLocation();
+        }
+
+        @Override
+        public String getHostAddress() {
+            return InetAddrUtils.str(m_key.getAddress());
+        }
+
+        @Override
+        public int getPort() {
+            return m_key.getPort();
+        }
+
+        private ObjectName getObjectName() throws JMException {
+            final Hashtable<String, String> properties = new Hashtable<>();
+            properties.put("type", "AgentAccess");
+            properties.put("location", ObjectName.quote(m_key.getLocation()));
+            properties.put("address", ObjectName.quote(getHostAddress()));
+            properties.put("port", Integer.toString(m_key.getPort()));
+            return new ObjectName(JMX_DOMAIN, properties);
+        }
+
+        private synchronized void setLimits(int maxConcurrent, double maxRequestsPerSecond) {
+            m_maxConcurrent = maxConcurrent;
+            m_requestIntervalNanos = maxRequestsPerSecond > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond) : 0;
+            // Run what the new limit allows
+            while (m_queued > 0 && (m_maxConcurrent < 1 || m_active < m_maxConcurrent)) {
+                runNext();
+            }
+        }
+
+        /**
+         * @return false if the agent was evicted and the operation was not accepted
+         */
+        private boolean submit(String client, Consumer<Ticket> operation) {
+            final Ticket ticket = new Ticket(this);
+            synchronized (this) {
+                if (m_evicted) {
+                    return false;
+                }
+                m_lastUsedNanos = System.nanoTime();
+                m_operations++;
+                if (m_maxConcurrent > 0 && m_active >= m_maxConcurrent) {
+                    final long queuedAt = m_lastUsedNanos;
+                    m_queued++;
+                    m_waits++;
+                    m_queues.computeIfAbsent(client == null ? DEFAULT_CLIENT : client, k -> new ArrayDeque<>()).add(() -> {
+                        synchronized (this) {
+                            m_waitNanos += System.nanoTime() - queuedAt;
+                        }
+                        operation.accept(ticket);
+                    });
+                    LOG.debug("Queued an operation of {} for {}, {} operations are queued", client, m_key, m_queued);
+                    return true;
+                }
+                m_active++;
+            }
+            operation.accept(ticket);
+            return true;
+        }
+
+        private void release() {
+            synchronized (this) {
+                m_active--;
+                m_lastUsedNanos = System.nanoTime();
+                if (m_queued > 0) {
+                    runNext();
+                }
+            }
+        }
+
+        /**
+         * Hands the next queued operation to the executor, taking the clients in turn.
+         */
+        private void runNext() {
+            final Iterator<Map.Entry<String, Deque<Runnable>>> it = m_queues.entrySet().iterator();
+            final Map.Entry<String, Deque<Runnable>> entry = it.next();
+            final Runnable operation = entry.getValue().poll();
+            // Move the client to the end of the line
+            it.remove();
+            if (!entry.getValue().isEmpty()) {
+                m_queues.put(entry.getKey(), entry.getValue());
+            }
+            m_queued--;
+            m_active++;
+            getExecutor().execute(operation);
+        }
+
+        /**
+         * Evicts the agent if nothing accessed it since the given time. The
+         * agent is removed from JMX before anyone can see it was evicted, so
+         * its replacement can be registered under the same name.
+         *
+         * @return true if the agent was evicted
+         */
+        private synchronized boolean evictIfIdleSince(long idleSinceNanos) {
+            if (m_active > 0 || m_queued > 0 || m_lastUsedNanos - idleSinceNanos > 0) {
+                return false;
+            }
+            m_evicted = true;
+            unregister(this);
+            return true;
+        }
+
+        private synchronized boolean isEvicted() {
+            return m_evicted;
+        }
+
+        /**
+         * Reserves the next request slot of the agent.
+         *
+         * @return the time in nanoseconds the caller has to wait before sending the request
+         */
+        public synchronized long reserveRequest() {
+            if (m_requestIntervalNanos < 1) {
+                return 0;
+            }
+            final long now = System.nanoTime();
+            final long sendAt = m_nextRequestNanos - now > 0 ? m_nextRequestNanos : now;
+            m_nextRequestNanos = sendAt + m_requestIntervalNanos;
+            final long delay = sendAt - now;
+            if (delay > 0) {
+                m_throttledRequests++;
+                m_throttleNanos += delay;
+            }
+            return delay;
+        }
+
+        public synchronized void recordResponse(long latencyNanos) {
+            m_responses++;
+            m_latencyNanos += latencyNanos;
+            if (latencyNanos > m_maxLatencyNanos) {
+                m_maxLatencyNanos = latencyNanos;
+            }
+        }
+
+        public synchronized void recordTimeout() {
+            m_timeouts++;
+        }
+
+        @Override
+        public synchronized int getMaxConcurrent() {
+            return m_maxConcurrent;
+        }
+
+        @Override
+        public synchronized double getMaxRequestsPerSecond() {
+            return m_requestIntervalNanos > 0 ? (double)TimeUnit.SECONDS.toNanos(1) / m_requestIntervalNanos : 0;
+        }
+
+        @Override
+        public synchronized int getActive() {
+            return m_active;
+        }
+
+        @Override
+        public synchronized int getQueued() {
+            return m_queued;
+        }
+
+        @Override
+        public synchronized long getOperations() {
+            return m_operations;
+        }
+
+        @Override
+        public synchronized long getWaits() {
+            return m_waits;
+        }
+
+        @Override
+        public synchronized long getWaitTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(m_waitNanos);
+        }
+
+        @Override
+        public synchronized long getThrottledRequests() {
+            return m_throttledRequests;
+        }
+
+        @Override
+        public synchronized long getThrottleTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(m_throttleNanos);
+        }
+
+        @Override
+        public synchronized long getResponses() {
+            return m_responses;
+        }
+
+        @Override
+        public synchronized double getAverageLatencyMillis() {
+            return m_responses > 0 ? (double)m_latencyNanos / m_responses / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+        }
+
+        @Override
+        public synchronized double getMaxLatencyMillis() {
+            return (double)m_maxLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public synchronized long getTimeouts() {
+            return m_timeouts;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "AgentAccess[agent=" + m_key
+                    + ", active=" + m_active
+                    + ", queued=" + m_queued
+                    + ", operations=" + m_operations
+                    + ", waits=" + m_waits
+                    + ", throttledRequests=" + m_throttledRequests
+                    + ", responses=" + m_responses
+                    + ", averageLatencyMillis=" + getAverageLatencyMillis()
+                    + ", timeouts=" + m_timeouts + "]";
+        }
+    }
+
+    /**
+     * @param maxConcurrent default number of operations that run concurrently per agent, 0 for no limit
+     * @param maxRequestsPerSecond default number of requests sent per agent and second, 0 for no limit
+     */
+    public SnmpAgentAccessManager(int maxConcurrent, double maxRequestsPerSecond) {
+        this(maxConcurrent, maxRequestsPerSecond, DEFAULT_TRACK_STATISTICS, DEFAULT_IDLE_TIMEOUT, false);
+    }
+
+    /**
+     * @param maxConcurrent default number of operations that run concurrently per agent, 0 for no limit
+     * @param maxRequestsPerSecond default number of requests sent per agent and second, 0 for no limit
+     * @param trackStatistics track the agents that no limit applies to
+     * @param idleTimeout time in milliseconds after which an agent that was not accessed is dropped, 0 to keep the agents
+     * @param registerMBeans export the agents through JMX
+     */
+    public SnmpAgentAccessManager(int maxConcurrent, double maxRequestsPerSecond, boolean trackStatistics, long idleTimeout, boolean registerMBeans) {
+        m_maxConcurrent = maxConcurrent;
+        m_maxRequestsPerSecond = maxRequestsPerSecond;
+        m_trackStatistics = trackStatistics;
+        m_idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, idleTimeout));
+        m_registerMBeans = registerMBeans;
+    }
+
+    public static SnmpAgentAccessManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the action on behalf of the given client. Used where the operations
+     * are issued for someone else, like the RPC module that runs the requests
+     * of the daemons on a Minion.
+     *
+     * @param client the client the operations started by the action are queued under, null to keep the current one
+     */
+    public static <T> T callAs(String client, Supplier<T> action) {
+        final String previous = CLIENT.get();
+        if (client != null) {
+            CLIENT.set(client);
+        }
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CLIENT.remove();
+            } else {
+                CLIENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return the client the operations of the calling thread are queued under,
+     *   the daemon the thread belongs to unless set with {@link #callAs(String, Supplier)}
+     */
+    public static String getClient() {
+        final String client = CLIENT.get();
+        if (client != null) {
+            return client;
+        }
+        final String prefix = MDC.get(CLIENT_MDC_KEY);
+        return prefix == null ? DEFAULT_CLIENT : prefix;
+    }
+
+    /**
+     * @return the location the agents are accessed from
+     */
+    public static String getLocation() {
+        return s_localLocation;
+    }
+
+    /**
+     * Sets the location the agents are accessed from. Defaults to the location of
+     * OpenNMS itself, the RPC module sets it on a Minion as it only runs the
+     * requests of its own location.
+     */
+    public static void setLocation(String location) {
+        if (location != null) {
+            s_localLocation = location;
+        }
+    }
+
+    private boolean isTracked(AgentKey key) {
+        return m_trackStatistics || m_maxConcurrent > 0 || m_maxRequestsPerSecond > 0 || m_limits.containsKey(key);
+    }
+
+    /**
+     * @return the agent or null if the key is null or the agent is not tracked
+     */
+    public AgentAccess getAgent(AgentKey key) {
+        if (key == null || !isTracked(key)) {
+            return null;
+        }
+        while (true) {
+            final AgentAccess agent = m_agents.get(key);
+            if (agent != null) {
+                if (!agent.isEvicted()) {
+                    return agent;
+                }
+                // Dropped while idle, replace it
+                m_agents.remove(key, agent);
+                continue;
+            }
+            final AgentAccess created = new AgentAccess(key);
+            if (m_agents.putIfAbsent(key, created) == null) {
+                register(created);
+                scheduleEviction();
+                return created;
+            }
+        }
+    }
+
+    public Collection<AgentAccess> getAgents() {
+        return new ArrayList<>(m_agents.values());
+    }
+
+    /**
+     * Overrides the default limits for a single agent.
+     */
+    public void setLimits(AgentKey key, int maxConcurrent, double maxRequestsPerSecond) {
+        m_limits.put(Objects.requireNonNull(key), new double[] { maxConcurrent, maxRequestsPerSecond });
+        getAgent(key).setLimits(maxConcurrent, maxRequestsPerSecond);
+    }
+
+    /**
+     * Runs the operation as soon as the agent has a free slot. The operation
+     * runs on the calling thread when a slot is free and on a thread of the
+     * manager otherwise. It must release the ticket it is given when it is done.
+     *
+     * @param key the agent, the operation runs right away and isn't tracked if null or the agent is not tracked
+     * @param client the client the operation is queued under
+     * @param operation the operation
+     */
+    public void submit(AgentKey key, String client, Consumer<Ticket> operation) {
+        while (true) {
+            final AgentAccess agent = getAgent(key);
+            if (agent == null) {
+                operation.accept(UNTRACKED);
+                return;
+            }
+            if (agent.submit(client, operation)) {
+                return;
+            }
+            // The agent was dropped while idle, start over with a new one
+            m_agents.remove(key, agent);
+        }
+    }
+
+    /**
+     * Waits for a free slot of the agent.
+     */
+    public Ticket acquire(AgentKey key, String client) throws InterruptedException {
+        final CompletableFuture<Ticket> future = new CompletableFuture<>();
+        submit(key, client, future::complete);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // Give the slot back as soon as we get it
+            future.thenAccept(Ticket::release);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sends a synchronous request to the agent once the limits allow it.
+     *
+     * @param request sends the request and returns the response or null if the agent did not respond
+     * @return the response or null if the agent did not respond or the caller was interrupted
+     */
+    public <T> T call(AgentKey key, String client, Supplier<T> request) {
+        final Ticket ticket;
+        try {
+            ticket = acquire(key, client);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.debug("Interrupted while waiting to send a request of {} to {}", client, key);
+            return null;
+        }
+        try {
+            final AgentAccess agent = ticket.getAgent();
+            if (agent == null) {
+                return request.get();
+            }
+            final long delay = agent.reserveRequest();
+            if (delay > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            final long start = System.nanoTime();
+            final T response = request.get();
+            if (response == null || response instanceof Object[] && isEmptyResponse((Object[])response)) {
+                agent.recordTimeout();
+            } else {
+                agent.recordResponse(System.nanoTime() - start);
+            }
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.debug("Interrupted while waiting to send a request of {} to {}", client, key);
+            return null;
+        } finally {
+            ticket.release();
+        }
+    }
+
+    /**
+     * Sends an asynchronous request to the agent once the limits allow it.
+     * The request holds the slot until the returned future completes.
+     */
+    public <T> CompletableFuture<T> callAsync(AgentKey key, String client, Supplier<CompletableFuture<T>> request) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        submit(key, client, ticket -> {
+            final AgentAccess agent = ticket.getAgent();
+            final Runnable send = () -> {
+                final long start = System.nanoTime();
+                final CompletableFuture<T> future;
+                try {
+                    future = request.get();
+                } catch (Throwable t) {
+                    ticket.release();
+                    result.completeExceptionally(t);
+                    return;
+                }
+                future.whenComplete((response, t) -> {
+                    if (agent != null) {
+                        if (t == null) {
+                            agent.recordResponse(System.nanoTime() - start);
+                        } else if (isTimeout(t)) {
+                            agent.recordTimeout();
+                        }
+                    }
+                    ticket.release();
+                    if (t != null) {
+                        result.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                    } else {
+                        result.complete(response);
+                    }
+                });
+            };
+            schedule(agent, send);
+        });
+        return result;
+    }
+
+    /**
+     * Runs the task once the rate limit of the agent allows another request.
+     */
+    public void schedule(AgentAccess agent, Runnable task) {
+        final long delay = agent == null ? 0 : agent.reserveRequest();
+        if (delay > 0) {
+            schedule(task, delay);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs the task on a thread of the manager after the given delay.
+     *
+     * @param delay the delay in nanoseconds
+     */
+    public void schedule(Runnable task, long delay) {
+        getExecutor().schedule(task, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Drops the agents that were not accessed within the idle timeout.
+     */
+    void evictIdleAgents() {
+        final long idleSince = System.nanoTime() - m_idleTimeoutNanos;
+        for (final AgentAccess agent : m_agents.values()) {
+            if (agent.evictIfIdleSince(idleSince)) {
+                m_agents.remove(agent.getKey(), agent);
+                LOG.debug("Dropped idle agent {}", agent);
+            }
+        }
+    }
+
+    private synchronized void scheduleEviction() {
+        if (m_evictionScheduled || m_idleTimeoutNanos < 1) {
+            return;
+        }
+        m_evictionScheduled = true;
+        final long period = Math.max(TimeUnit.SECONDS.toNanos(1), m_idleTimeoutNanos / 2);
+        getExecutor().scheduleWithFixedDelay(this::evictIdleAgents, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    private void register(AgentAccess agent) {
+        if (!m_registerMBeans) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(agent, SnmpAgentAccessMXBean.class, true), agent.getObjectName());
+        } catch (JMException e) {
+            LOG.warn("Failed to export the statistics of agent {} through JMX", agent.getKey(), e);
+        }
+    }
+
+    private void unregister(AgentAccess agent) {
+        if (!m_registerMBeans) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(agent.getObjectName());
+        } catch (JMException e) {
+            LOG.debug("Failed to remove the statistics of agent {} from JMX", agent.getKey(), e);
+        }
+    }
+
+    private static boolean isEmptyResponse(Object[] response) {
+        return response.length == 0 || response.length == 1 && response[0] == null;
+    }
+
+    private static boolean isTimeout(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SnmpAgentTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (m_executor == null) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                final Thread t = new Thread(r, "SnmpAgentAccess");
+                t.setDaemon(true);
+                return t;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            m_executor = executor;
+        }
+        return m_executor;
+    }
+}
@@ -27,10 +27,23 @@ public class SnmpInstId extends SnmpObjId {
     
     public static final SnmpInstId INST_ZERO = new SnmpInstId(0);
 
+    private static final SnmpInstId[] CACHED_INSTANCES = new SnmpInstId[1024];
+
+    static {
+        CACHED_INSTANCES[0] = INST_ZERO;
+        for (int i = 1; i < CACHED_INSTANCES.length; i++) {
+            CACHED_INSTANCES[i] = new SnmpInstId(i);
+        }
+    }
+
     public SnmpInstId(int[] instanceIds) {
         super(instanceIds);
     }
 
+    SnmpInstId(int[] instanceIds, boolean clone) {
+        super(instanceIds, clone);
+    }
+
     public SnmpInstId(String instance) {
         super(instance);
     }
@@ -43,6 +56,18 @@ public class SnmpInstId extends SnmpObjId {
         super(new int[] { instance }, false);
     }
     
+    /**
+     * Returns the single index instance for the given value. Instances are
+     * immutable so the common ones are shared rather than allocated for
+     * every row of a walk.
+     */
+    public static SnmpInstId valueOf(int instance) {
+        if (instance >= 0 && instance < CACHED_INSTANCES.length) {
+            return CACHED_INSTANCES[instance];
+        }
+        return new SnmpInstId(instance);
+    }
+
     @Override
     protected boolean addPrefixDotInToString() {
         return false;
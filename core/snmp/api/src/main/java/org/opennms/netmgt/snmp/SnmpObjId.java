@@ -246,9 +246,14 @@ public class SnmpObjId implements Comparable<SnmpObjId> {
     public SnmpInstId getInstance(SnmpObjId base) {
         if (!base.isPrefixOf(this)) return null;
         
-        int[] instanceIds = new int[length() - base.length()];
+        final int instanceLength = length() - base.length();
+        if (instanceLength == 1) {
+            // Most table instances are a single index, share the common ones
+            return SnmpInstId.valueOf(m_ids[base.length()]);
+        }
+        int[] instanceIds = new int[instanceLength];
         System.arraycopy(m_ids, base.length(), instanceIds, 0, instanceIds.length);
-        return new SnmpInstId(instanceIds);
+        return new SnmpInstId(instanceIds, false);
     }
 
     public int length() {
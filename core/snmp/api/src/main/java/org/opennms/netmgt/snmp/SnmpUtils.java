@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,39 +79,50 @@ public abstract class SnmpUtils {
     }
     
     public static SnmpValue get(SnmpAgentConfig agentConfig, SnmpObjId oid) {
-        return getStrategy().get(agentConfig, oid);
+        return call(agentConfig, () -> getStrategy().get(agentConfig, oid));
     }
     
     public static SnmpValue[] get(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
-        return getStrategy().get(agentConfig, oids);
+        return call(agentConfig, () -> getStrategy().get(agentConfig, oids));
     }
 
     public static CompletableFuture<SnmpValue[]> getAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
-        return getStrategy().getAsync(agentConfig, oids);
+        return callAsync(agentConfig, () -> getStrategy().getAsync(agentConfig, oids));
     }
 
     public static CompletableFuture<SnmpValue[]> setAsync(SnmpAgentConfig agentConfig, SnmpObjId[] oids, SnmpValue[] values) {
-        return getStrategy().setAsync(agentConfig, oids, values);
+        return callAsync(agentConfig, () -> getStrategy().setAsync(agentConfig, oids, values));
     }
 
     public static SnmpValue getNext(SnmpAgentConfig agentConfig, SnmpObjId oid) {
-        return getStrategy().getNext(agentConfig, oid);
+        return call(agentConfig, () -> getStrategy().getNext(agentConfig, oid));
     }
     
     public static SnmpValue[] getNext(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
-        return getStrategy().getNext(agentConfig, oids);
+        return call(agentConfig, () -> getStrategy().getNext(agentConfig, oids));
     }
     
     public static SnmpValue[] getBulk(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
-        return getStrategy().getBulk(agentConfig, oids);
+        return call(agentConfig, () -> getStrategy().getBulk(agentConfig, oids));
     }
 
     public static SnmpValue set(final SnmpAgentConfig agentConfig, final SnmpObjId oid, final SnmpValue value) {
-    	return getStrategy().set(agentConfig, oid, value);
+        return call(agentConfig, () -> getStrategy().set(agentConfig, oid, value));
     }
 
     public static SnmpValue[] set(final SnmpAgentConfig agentConfig, final SnmpObjId[] oids, final SnmpValue[] values) {
-    	return getStrategy().set(agentConfig, oids, values);
+        return call(agentConfig, () -> getStrategy().set(agentConfig, oids, values));
+    }
+
+    /**
+     * Sends the request once the {@link SnmpAgentAccessManager} lets the calling daemon access the agent.
+     */
+    private static <T> T call(SnmpAgentConfig agentConfig, Supplier<T> request) {
+        return SnmpAgentAccessManager.getInstance().call(SnmpAgentAccessManager.AgentKey.of(agentConfig), SnmpAgentAccessManager.getClient(), request);
+    }
+
+    private static <T> CompletableFuture<T> callAsync(SnmpAgentConfig agentConfig, Supplier<CompletableFuture<T>> request) {
+        return SnmpAgentAccessManager.getInstance().callAsync(SnmpAgentAccessManager.AgentKey.of(agentConfig), SnmpAgentAccessManager.getClient(), request);
     }
 
     public static Properties getConfig() {
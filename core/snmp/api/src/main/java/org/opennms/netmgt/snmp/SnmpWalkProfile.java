@@ -0,0 +1,190 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.Objects;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * What the walkers learned about an agent: the largest PDUs it answers
+ * without a tooBig error, the max-repetitions that fill its responses, and
+ * counters that show how the walks performed.
+ *
+ * The profiles are kept in memory, one per agent address, port and SNMP
+ * version, and a walk of the same agent starts with the settings the previous
+ * walk ended with. At most org.opennms.netmgt.snmp.adaptiveWalk.maxProfiles
+ * profiles are kept, the least recently used ones are dropped first.
+ */
+public class SnmpWalkProfile {
+
+    public static final int MAX_PROFILES = Integer.getInteger("org.opennms.netmgt.snmp.adaptiveWalk.maxProfiles", 10000);
+
+    /**
+     * Identifies the agent a profile belongs to. Agents that share an
+     * address but listen on different ports, or that are walked with
+     * different SNMP versions, get profiles of their own.
+     */
+    public static final class Key {
+        private final InetAddress m_address;
+        private final int m_port;
+        private final int m_version;
+
+        public Key(InetAddress address, int port, int version) {
+            m_address = Objects.requireNonNull(address);
+            m_port = port;
+            m_version = version;
+        }
+
+        public InetAddress getAddress() {
+            return m_address;
+        }
+
+        public int getPort() {
+            return m_port;
+        }
+
+        public int getVersion() {
+            return m_version;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return m_port == that.m_port
+                    && m_version == that.m_version
+                    && m_address.equals(that.m_address);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_address, m_port, m_version);
+        }
+
+        @Override
+        public String toString() {
+            return m_address.getHostAddress() + ":" + m_port + "/v" + m_version;
+        }
+    }
+
+    private static final LoadingCache<Key, SnmpWalkProfile> s_profiles = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PROFILES)
+            .build(new CacheLoader<Key, SnmpWalkProfile>() {
+                @Override
+                public SnmpWalkProfile load(Key key) {
+                    return new SnmpWalkProfile(key);
+                }
+            });
+
+    private final Key m_key;
+
+    private volatile int m_maxVarsPerPdu = 0;
+    private volatile int m_maxRepetitions = 0;
+
+    private long m_walks = 0;
+    private long m_pdus = 0;
+    private long m_tooBigErrors = 0;
+    private long m_walkTimeMillis = 0;
+
+    private SnmpWalkProfile(Key key) {
+        m_key = key;
+    }
+
+    public static SnmpWalkProfile get(Key key) {
+        return s_profiles.getUnchecked(key);
+    }
+
+    public static long size() {
+        return s_profiles.size();
+    }
+
+    public static void clear() {
+        s_profiles.invalidateAll();
+    }
+
+    public Key getKey() {
+        return m_key;
+    }
+
+    public InetAddress getAddress() {
+        return m_key.getAddress();
+    }
+
+    /**
+     * @return the learned max-vars-per-pdu or 0 if nothing was learned yet
+     */
+    public int getMaxVarsPerPdu() {
+        return m_maxVarsPerPdu;
+    }
+
+    /**
+     * @return the learned max-repetitions or 0 if nothing was learned yet
+     */
+    public int getMaxRepetitions() {
+        return m_maxRepetitions;
+    }
+
+    synchronized void update(int maxVarsPerPdu, int maxRepetitions, int pdus, int tooBigErrors, long walkTimeMillis) {
+        m_maxVarsPerPdu = maxVarsPerPdu;
+        m_maxRepetitions = maxRepetitions;
+        m_walks++;
+        m_pdus += pdus;
+        m_tooBigErrors += tooBigErrors;
+        m_walkTimeMillis += walkTimeMillis;
+    }
+
+    public synchronized long getWalks() {
+        return m_walks;
+    }
+
+    public synchronized long getPdus() {
+        return m_pdus;
+    }
+
+    public synchronized long getTooBigErrors() {
+        return m_tooBigErrors;
+    }
+
+    public synchronized long getWalkTimeMillis() {
+        return m_walkTimeMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SnmpWalkProfile[agent=" + m_key
+                + ", maxVarsPerPdu=" + m_maxVarsPerPdu
+                + ", maxRepetitions=" + m_maxRepetitions
+                + ", walks=" + m_walks
+                + ", pdus=" + m_pdus
+                + ", tooBigErrors=" + m_tooBigErrors
+                + ", walkTimeMillis=" + m_walkTimeMillis + "]";
+    }
+}
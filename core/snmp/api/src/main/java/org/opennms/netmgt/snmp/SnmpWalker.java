@@ -22,11 +22,35 @@
 package org.opennms.netmgt.snmp;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public abstract class SnmpWalker implements AutoCloseable {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpWalker.class);
+
+    /**
+     * When enabled the walkers tune max-repetitions and max-vars-per-pdu per
+     * agent, based on the size of the responses and on tooBig errors, and the
+     * next walk of the agent starts with what the previous walk learned.
+     * The learned values never exceed the configured ones.
+     */
+    public static final String ADAPTIVE_PROPERTY = "org.opennms.netmgt.snmp.adaptiveWalk";
+
+    public static final String ADAPTIVE_MAX_REPETITIONS_PROPERTY = "org.opennms.netmgt.snmp.adaptiveWalk.maxRepetitions";
+
+    /**
+     * Number of requests a walker keeps in flight, each one for a different
+     * set of columns. Only used by the strategies that support pipelining.
+     */
+    public static final String PIPELINE_WINDOW_PROPERTY = "org.opennms.netmgt.snmp.walkPipelineWindow";
+
     protected abstract static class WalkerPduBuilder extends PduBuilder {
         protected WalkerPduBuilder(int maxVarsPerPdu) {
             super(maxVarsPerPdu);
@@ -34,16 +58,45 @@ public abstract class SnmpWalker implements AutoCloseable {
         
         public abstract void reset();
     }
-    
+
+    /**
+     * A part of the tracker that is walked independently of the other parts,
+     * with its own request in flight.
+     */
+    protected static final class WalkerLane {
+        private final CollectionTracker m_tracker;
+        private WalkerPduBuilder m_pduBuilder;
+        private ResponseProcessor m_responseProcessor;
+        private boolean m_done = false;
+        private long m_sentAt;
+
+        private WalkerLane(CollectionTracker tracker) {
+            m_tracker = tracker;
+        }
+    }
+
     private final String m_name;
     private final CollectionTracker m_tracker;
 
     private final CountDownLatch m_signal;
 
     private final InetAddress m_address;
+    private final SnmpWalkProfile.Key m_profileKey;
+    private final boolean m_adaptive;
+    private final int m_adaptiveMaxRepetitions;
+    private final int m_pipelineWindow;
+    private final SnmpAgentAccessManager.AgentKey m_agentKey;
+    private final String m_client;
+    private volatile SnmpAgentAccessManager.AgentAccess m_agentAccess;
+    private volatile SnmpAgentAccessManager.Ticket m_ticket;
     private WalkerPduBuilder m_pduBuilder;
-    private ResponseProcessor m_responseProcessor;
+    private final List<WalkerLane> m_lanes = new ArrayList<>(1);
     private final int m_maxVarsPerPdu;
+    private int m_maxRepetitions;
+    private boolean m_finished = false;
+    private int m_pdus = 0;
+    private int m_tooBigErrors = 0;
+    private long m_startTime;
     private boolean m_error = false;
     private String m_errorMessage = "";
     private Throwable m_errorThrowable = null;
@@ -51,15 +104,43 @@ public abstract class SnmpWalker implements AutoCloseable {
     private SnmpWalkCallback m_callback;
 
     protected SnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
+        this(address, SnmpConfiguration.DEFAULT_PORT, SnmpConfiguration.DEFAULT_VERSION, name, maxVarsPerPdu, maxRepetitions, maxRetries, tracker);
+    }
+
+    /**
+     * @param port the port of the agent, used along with the address and version to look up what previous walks learned
+     * @param version the SNMP version of the walk, as numbered by the strategy
+     */
+    protected SnmpWalker(InetAddress address, int port, int version, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
         m_address = address;
+        m_profileKey = address == null ? null : new SnmpWalkProfile.Key(address, port, version);
+        m_adaptive = Boolean.getBoolean(ADAPTIVE_PROPERTY);
+        // Growing max-repetitions never goes past what the agent is configured with
+        m_adaptiveMaxRepetitions = Math.max(1, Math.min(maxRepetitions, Integer.getInteger(ADAPTIVE_MAX_REPETITIONS_PROPERTY, 64)));
+        m_pipelineWindow = Integer.getInteger(PIPELINE_WINDOW_PROPERTY, 1);
+        m_agentKey = address == null ? null : new SnmpAgentAccessManager.AgentKey(SnmpAgentAccessManager.getLocation(), address, port);
+        // The walk is queued under the daemon that created it
+        m_client = SnmpAgentAccessManager.getClient();
         m_signal = new CountDownLatch(1);
         
         m_name = name;
 
         m_tracker = tracker;
-        m_tracker.setMaxRepetitions(maxRepetitions);
         m_tracker.setMaxRetries(maxRetries);
-        
+
+        if (m_adaptive && m_profileKey != null) {
+            // start where the last walk of this agent left off, within the configured limits
+            final SnmpWalkProfile profile = SnmpWalkProfile.get(m_profileKey);
+            if (profile.getMaxVarsPerPdu() > 0) {
+                maxVarsPerPdu = Math.min(maxVarsPerPdu, profile.getMaxVarsPerPdu());
+            }
+            if (profile.getMaxRepetitions() > 0) {
+                maxRepetitions = Math.min(maxRepetitions, profile.getMaxRepetitions());
+            }
+        }
+        m_maxRepetitions = maxRepetitions;
+        m_tracker.setMaxRepetitions(maxRepetitions);
+
         m_maxVarsPerPdu = maxVarsPerPdu;
     }
 
@@ -74,11 +155,50 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
-    
+
+    /**
+     * Strategies that can have several requests in flight for the same walk,
+     * and that pass the lane to {@link #processErrors(WalkerLane, int, int)}
+     * and {@link #processResponse(WalkerLane, SnmpObjId, SnmpValue)}, return true.
+     */
+    protected boolean supportsPipelining() {
+        return false;
+    }
+
+    /**
+     * Starts the walk as soon as the {@link SnmpAgentAccessManager} lets it
+     * access the agent.
+     */
     public void start() {
-        m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
+        SnmpAgentAccessManager.getInstance().submit(m_agentKey, m_client, ticket -> {
+            m_ticket = ticket;
+            m_agentAccess = ticket.getAgent();
+            doStart();
+        });
+    }
+
+    private void doStart() {
+        m_startTime = System.currentTimeMillis();
+        final List<CollectionTracker> trackers = supportsPipelining()
+                ? AggregateTracker.split(m_tracker, m_pipelineWindow)
+                : Collections.singletonList(m_tracker);
+        for (final CollectionTracker tracker : trackers) {
+            final WalkerLane lane = new WalkerLane(tracker);
+            lane.m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
+            m_lanes.add(lane);
+        }
+        m_pduBuilder = m_lanes.get(0).m_pduBuilder;
         try {
-            buildAndSendNextPdu();
+            if (m_lanes.size() == 1) {
+                buildAndSendNextPdu();
+            } else {
+                LOG.debug("Walking {} for {} with {} requests in flight", getName(), m_address, m_lanes.size());
+                synchronized (this) {
+                    for (final WalkerLane lane : m_lanes) {
+                        buildAndSendNextPdu(lane);
+                    }
+                }
+            }
         } catch (Throwable e) {
             handleFatalError(e);
         }
@@ -89,17 +209,60 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     protected void buildAndSendNextPdu() throws SnmpException {
-        if (m_tracker.isFinished()) {
+        buildAndSendNextPdu(m_lanes.get(0));
+    }
+
+    protected void buildAndSendNextPdu(WalkerLane lane) throws SnmpException {
+        if (m_finished) {
+            return;
+        }
+        if (lane.m_tracker.isFinished()) {
+            lane.m_done = true;
+            for (final WalkerLane other : m_lanes) {
+                if (!other.m_done) {
+                    return;
+                }
+            }
             handleDone();
         } else {
-            m_pduBuilder.reset();
-            m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
-            sendNextPdu(m_pduBuilder);
+            lane.m_pduBuilder.reset();
+            lane.m_responseProcessor = lane.m_tracker.buildNextPdu(lane.m_pduBuilder);
+            m_pdus++;
+            final long delay = m_agentAccess == null ? 0 : m_agentAccess.reserveRequest();
+            if (delay > 0) {
+                // Hold the request back until the agent's request rate allows it
+                SnmpAgentAccessManager.getInstance().schedule(() -> sendDelayedPdu(lane), delay);
+            } else {
+                lane.m_sentAt = System.nanoTime();
+                sendNextPdu(lane.m_pduBuilder, lane);
+            }
+        }
+    }
+
+    private void sendDelayedPdu(WalkerLane lane) {
+        try {
+            synchronized (this) {
+                if (m_finished) {
+                    return;
+                }
+                lane.m_sentAt = System.nanoTime();
+                sendNextPdu(lane.m_pduBuilder, lane);
+            }
+        } catch (Throwable e) {
+            handleFatalError(e);
         }
     }
 
     protected abstract void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException;
 
+    /**
+     * Sends the next request of the given lane. Strategies that support
+     * pipelining must override this and hand the lane back along with the response.
+     */
+    protected void sendNextPdu(WalkerPduBuilder pduBuilder, WalkerLane lane) throws SnmpException {
+        sendNextPdu(pduBuilder);
+    }
+
     protected void handleDone() {
         finish();
     }
@@ -140,11 +303,17 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
     
     protected void handleTimeout(String msg) {
+        if (m_agentAccess != null) {
+            m_agentAccess.recordTimeout();
+        }
         m_tracker.setTimedOut(true);
         processError("Timeout retrieving", msg, new SnmpAgentTimeoutException(getName(), m_address));
     }
 
     private void processError(String reason, String cause, Throwable t) {
+        if (m_finished) {
+            return;
+        }
         String logMessage = reason + " " + getName() + " for " + m_address + ": " + cause;
 
         m_error = true;
@@ -155,6 +324,17 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     private void finish() {
+        synchronized (this) {
+            if (m_finished) {
+                return;
+            }
+            m_finished = true;
+        }
+        final SnmpAgentAccessManager.Ticket ticket = m_ticket;
+        if (ticket != null) {
+            ticket.release();
+        }
+        updateProfile();
         signal();
         // Trigger the callback after the latch was decreased and the session was closed.
         if (m_callback != null) {
@@ -201,17 +381,85 @@ public abstract class SnmpWalker implements AutoCloseable {
     
     // processErrors returns true if we need to retry the request and false otherwise
     protected boolean processErrors(int errorStatus, int errorIndex) throws SnmpException {
-        return m_responseProcessor.processErrors(errorStatus, errorIndex);
+        return processErrors(m_lanes.get(0), errorStatus, errorIndex);
     }
-    
+
+    protected boolean processErrors(WalkerLane lane, int errorStatus, int errorIndex) throws SnmpException {
+        if (m_agentAccess != null) {
+            m_agentAccess.recordResponse(System.nanoTime() - lane.m_sentAt);
+        }
+        if (ErrorStatus.fromStatus(errorStatus) == ErrorStatus.TOO_BIG) {
+            m_tooBigErrors++;
+            if (m_adaptive && m_maxRepetitions > 1) {
+                setMaxRepetitions(m_maxRepetitions / 2);
+            }
+        }
+        return lane.m_responseProcessor.processErrors(errorStatus, errorIndex);
+    }
+
     protected void processResponse(SnmpObjId receivedOid, SnmpValue val) throws SnmpException {
-        m_responseProcessor.processResponse(receivedOid, val);
+        processResponse(m_lanes.get(0), receivedOid, val);
+    }
+
+    protected void processResponse(WalkerLane lane, SnmpObjId receivedOid, SnmpValue val) throws SnmpException {
+        lane.m_responseProcessor.processResponse(receivedOid, val);
+    }
+
+    /**
+     * Lets the walker tune max-repetitions to what the agent actually returns.
+     *
+     * When the agent answers a GETBULK with fewer rows than requested it limits
+     * the size of its responses, so the following requests ask for as many
+     * rows as it returned. When the responses are full the walker asks for
+     * more rows, up to org.opennms.netmgt.snmp.adaptiveWalk.maxRepetitions
+     * or the configured max-repetitions, whichever is lower.
+     *
+     * @param requestSize number of varbinds in the request
+     * @param nonRepeaters number of non-repeaters in the request
+     * @param maxRepetitions max-repetitions of the request or 0 if it wasn't a GETBULK
+     * @param responseSize number of varbinds in the response
+     */
+    protected void recordResponse(int requestSize, int nonRepeaters, int maxRepetitions, int responseSize) {
+        final int repeaters = requestSize - nonRepeaters;
+        if (!m_adaptive || maxRepetitions < 1 || repeaters < 1) {
+            return;
+        }
+        if (responseSize < nonRepeaters + repeaters * maxRepetitions) {
+            setMaxRepetitions(Math.max(1, (responseSize - nonRepeaters) / repeaters));
+        } else if (maxRepetitions >= m_maxRepetitions && m_maxRepetitions < m_adaptiveMaxRepetitions) {
+            setMaxRepetitions(Math.min(m_adaptiveMaxRepetitions, Math.max(m_maxRepetitions + 1, m_maxRepetitions * 3 / 2)));
+        }
+    }
+
+    private void setMaxRepetitions(int maxRepetitions) {
+        if (maxRepetitions != m_maxRepetitions) {
+            LOG.debug("Changing max-repetitions for {} from {} to {}", m_address, m_maxRepetitions, maxRepetitions);
+            m_maxRepetitions = maxRepetitions;
+            m_tracker.setMaxRepetitions(maxRepetitions);
+        }
+    }
+
+    private void updateProfile() {
+        if (m_profileKey == null || m_lanes.isEmpty()) {
+            return;
+        }
+        int maxVarsPerPdu = m_maxVarsPerPdu;
+        for (final WalkerLane lane : m_lanes) {
+            maxVarsPerPdu = Math.min(maxVarsPerPdu, lane.m_pduBuilder.getMaxVarsPerPdu());
+        }
+        final SnmpWalkProfile profile = SnmpWalkProfile.get(m_profileKey);
+        profile.update(maxVarsPerPdu, m_maxRepetitions, m_pdus, m_tooBigErrors, System.currentTimeMillis() - m_startTime);
+        LOG.debug("Finished walking {} with {} requests: {}", getName(), m_pdus, profile);
     }
 
     protected final InetAddress getAddress() {
         return m_address;
     }
 
+    public final int getMaxRepetitions() {
+        return m_maxRepetitions;
+    }
+
     public final String getErrorMessage() {
         return m_errorMessage;
     }
@@ -0,0 +1,95 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.proxy.WalkRequest;
+import org.opennms.netmgt.snmp.proxy.WalkResponse;
+
+public class AggregateTrackerTest {
+
+    @Test
+    public void canSplitIntoIndependentTrackers() {
+        final GatheringTracker gatherer = new GatheringTracker();
+        final ColumnTracker ifDescr = new ColumnTracker(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2"));
+        final ColumnTracker ifType = new ColumnTracker(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.3"));
+        final ColumnTracker ifName = new ColumnTracker(SnmpObjId.get(".1.3.6.1.2.1.31.1.1.1.1"));
+        final AggregateTracker ifTable = new AggregateTracker(Arrays.<Collectable>asList(ifDescr, ifType));
+        final AggregateTracker root = new AggregateTracker(Arrays.<Collectable>asList(ifTable, ifName), gatherer);
+
+        // Nothing to split
+        assertEquals(1, AggregateTracker.split(root, 1).size());
+        assertSame(root, AggregateTracker.split(root, 1).get(0));
+
+        // No more trackers than leaves
+        final List<CollectionTracker> trackers = AggregateTracker.split(root, 8);
+        assertEquals(3, trackers.size());
+
+        // The leaves keep reporting to their original parents
+        assertSame(ifTable, ifDescr.getParent());
+        assertSame(root, ifName.getParent());
+        ifName.storeResult(new SnmpResult(SnmpObjId.get(".1.3.6.1.2.1.31.1.1.1"), new SnmpInstId(1), null));
+        assertEquals(1, gatherer.getResults().size());
+
+        // The split trackers finish with their leaves
+        assertFalse(root.isFinished());
+        ifDescr.setFinished(true);
+        assertTrue(trackers.get(0).isFinished());
+        assertFalse(root.isFinished());
+    }
+
+    @Test
+    public void canCombineWithoutAdopting() {
+        final GatheringTracker gathererA = new GatheringTracker();
+        final GatheringTracker gathererB = new GatheringTracker();
+        final SingleInstanceTracker sysName = new SingleInstanceTracker(SnmpObjId.get(".1.3.6.1.2.1.1.5"), new SnmpInstId(0), gathererA);
+        final SingleInstanceTracker sysUpTime = new SingleInstanceTracker(SnmpObjId.get(".1.3.6.1.2.1.1.3"), new SnmpInstId(0), gathererB);
+
+        final AggregateTracker combined = AggregateTracker.combine(Arrays.asList(sysName, sysUpTime));
+        assertSame(gathererA, sysName.getParent());
+        assertSame(gathererB, sysUpTime.getParent());
+
+        // Answer every request, the correlation ids route the results back to their trackers
+        final List<WalkResponse> responses = new ArrayList<>();
+        for (final WalkRequest request : combined.getWalkRequests()) {
+            responses.add(new WalkResponse(Collections.singletonList(new SnmpResult(request.getBaseOid(), new SnmpInstId(request.getInstance()), null)),
+                    request.getCorrelationId()));
+        }
+        combined.handleWalkResponses(responses);
+
+        assertTrue(combined.isFinished());
+        assertEquals(1, gathererA.getResults().size());
+        assertEquals(SnmpObjId.get(".1.3.6.1.2.1.1.5"), gathererA.getResults().get(0).getBase());
+        assertEquals(1, gathererB.getResults().size());
+        assertEquals(SnmpObjId.get(".1.3.6.1.2.1.1.3"), gathererB.getResults().get(0).getBase());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpAgentAccessManager.AgentKey;
+
+public class SnmpAgentAccessManagerTest {
+
+    @Test
+    public void canLimitConcurrencyAndTakeClientsInTurn() throws Exception {
+        final SnmpAgentAccessManager manager = new SnmpAgentAccessManager(1, 0);
+        final AgentKey agent = agent("192.0.2.1");
+
+        final List<SnmpAgentAccessManager.Ticket> tickets = Collections.synchronizedList(new ArrayList<>());
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(5);
+
+        // The first operation gets the slot, the others have to wait
+        manager.submit(agent, "collectd", tickets::add);
+        for (final String client : Arrays.asList("collectd", "collectd", "collectd", "enlinkd")) {
+            manager.submit(agent, client, ticket -> {
+                order.add(client);
+                done.countDown();
+                ticket.release();
+            });
+        }
+        assertEquals(1, manager.getAgent(agent).getActive());
+        assertEquals(4, manager.getAgent(agent).getQueued());
+
+        tickets.get(0).release();
+        // Releasing twice must not free another slot
+        tickets.get(0).release();
+        done.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // Enlinkd does not have to wait for all of the walks of collectd
+        assertEquals(Arrays.asList("collectd", "enlinkd", "collectd", "collectd"), order);
+        assertEquals(5, manager.getAgent(agent).getOperations());
+        assertEquals(4, manager.getAgent(agent).getWaits());
+        waitForIdle(manager.getAgent(agent));
+    }
+
+    @Test
+    public void canLimitRequestRate() throws Exception {
+        final SnmpAgentAccessManager manager = new SnmpAgentAccessManager(0, 0);
+        final AgentKey agent = agent("192.0.2.2");
+        manager.setLimits(agent, 0, 20);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            final int value = i;
+            assertEquals(Integer.valueOf(value), manager.call(agent, "get", () -> Integer.valueOf(value)));
+        }
+        // The first request goes out right away, the others 50ms apart
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(190));
+        assertEquals(4, manager.getAgent(agent).getThrottledRequests());
+        assertEquals(5, manager.getAgent(agent).getResponses());
+    }
+
+    @Test
+    public void canCountTimeouts() throws Exception {
+        final SnmpAgentAccessManager manager = new SnmpAgentAccessManager(0, 0, true, 0, false);
+        final AgentKey agent = agent("192.0.2.3");
+
+        assertNull(manager.call(agent, "get", () -> null));
+        final CompletableFuture<Object> future = manager.callAsync(agent, "getAsync", () -> {
+            final CompletableFuture<Object> f = new CompletableFuture<>();
+            f.completeExceptionally(new SnmpAgentTimeoutException("test", agent.getAddress()));
+            return f;
+        });
+        assertTrue(future.isCompletedExceptionally());
+
+        assertEquals(2, manager.getAgent(agent).getTimeouts());
+        assertEquals(0, manager.getAgent(agent).getResponses());
+        assertEquals(0, manager.getAgent(agent).getActive());
+    }
+
+    @Test
+    public void canSkipTrackingWithoutLimits() throws Exception {
+        final SnmpAgentAccessManager manager = new SnmpAgentAccessManager(0, 0, false, 0, false);
+        final AgentKey agent = agent("192.0.2.4");
+
+        assertEquals("value", manager.call(agent, "get", () -> "value"));
+        assertNull(manager.getAgent(agent));
+        assertTrue(manager.getAgents().isEmpty());
+
+        // Limiting a single agent tracks that agent only
+        manager.setLimits(agent, 1, 0);
+        assertNotNull(manager.getAgent(agent));
+        assertNull(manager.getAgent(agent("192.0.2.5")));
+        assertEquals(1, manager.getAgents().size());
+    }
+
+    @Test
+    public void canKeyAgentsByLocationAddressAndPort() throws Exception {
+        final SnmpAgentAccessManager manager = new SnmpAgentAccessManager(1, 0, false, 0, false);
+        final InetAddress address = InetAddress.getByName("192.0.2.6");
+
+        final SnmpAgentAccessManager.Ticket ticket = manager.acquire(new AgentKey("Default", address, 161), "collectd");
+        // The same address on another port or at another location is another agent
+        manager.acquire(new AgentKey("Default", address, 1161), "collectd").release();
+        manager.acquire(new AgentKey("Remote", address, 161), "collectd").release();
+        assertEquals(3, manager.getAgents().size());
+        assertEquals(1, manager.getAgent(new AgentKey("Default", address, 161)).getActive());
+        ticket.release();
+    }
+
+    @Test
+    public void canEvictIdleAgents() throws Exception {
+        final SnmpAgentAccessManager manager = new SnmpAgentAccessManager(1, 0, false, 1, true);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final AgentKey key = agent("192.0.2.7");
+        final ObjectName name = new ObjectName("org.opennms.netmgt.snmp:type=AgentAccess,location=\"Default\",address=\"192.0.2.7\",port=161");
+
+        final SnmpAgentAccessManager.Ticket ticket = manager.acquire(key, "collectd");
+        final SnmpAgentAccessManager.AgentAccess agent = ticket.getAgent();
+        // The statistics are exported through JMX
+        assertTrue(server.isRegistered(name));
+        assertEquals(1, server.getAttribute(name, "Active"));
+        assertEquals(1L, server.getAttribute(name, "Operations"));
+
+        // Agents that are in use are kept
+        Thread.sleep(10);
+        manager.evictIdleAgents();
+        assertSame(agent, manager.getAgent(key));
+
+        ticket.release();
+        Thread.sleep(10);
+        manager.evictIdleAgents();
+        assertTrue(manager.getAgents().isEmpty());
+        assertFalse(server.isRegistered(name));
+
+        // The next access starts over with a new agent
+        manager.acquire(key, "collectd").release();
+        assertNotSame(agent, manager.getAgent(key));
+        assertTrue(server.isRegistered(name));
+
+        Thread.sleep(10);
+        manager.evictIdleAgents();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void canQueueUnderTheCallingDaemon() throws Exception {
+        assertEquals("default", SnmpAgentAccessManager.getClient());
+        assertEquals("enlinkd", SnmpAgentAccessManager.callAs("enlinkd", () -> {
+            assertEquals("provisiond", SnmpAgentAccessManager.callAs("provisiond", SnmpAgentAccessManager::getClient));
+            return SnmpAgentAccessManager.getClient();
+        }));
+        assertEquals("default", SnmpAgentAccessManager.getClient());
+        assertEquals(agent("192.0.2.8"), AgentKey.of(new SnmpAgentConfig(InetAddress.getByName("192.0.2.8"))));
+    }
+
+    private static AgentKey agent(String address) throws Exception {
+        return new AgentKey("Default", InetAddress.getByName(address), 161);
+    }
+
+    private static void waitForIdle(SnmpAgentAccessManager.AgentAccess agent) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 5000;
+        while (agent.getActive() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, agent.getActive());
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnmpWalkerTest {
+
+    private static final SnmpObjId[] COLUMNS = {
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.3"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.5"),
+            SnmpObjId.get(".1.3.6.1.2.1.2.2.1.7")
+    };
+
+    private static final int ROWS = 20;
+
+    private final ExecutorService m_executor = Executors.newCachedThreadPool();
+
+    private InetAddress m_address;
+
+    @Before
+    public void setUp() throws Exception {
+        m_address = InetAddress.getByName("127.0.0.1");
+        SnmpWalkProfile.clear();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(SnmpWalker.ADAPTIVE_PROPERTY);
+        System.clearProperty(SnmpWalker.PIPELINE_WINDOW_PROPERTY);
+        SnmpWalkProfile.clear();
+        m_executor.shutdownNow();
+    }
+
+    @Test
+    public void canBackOffOnTooBig() throws Exception {
+        System.setProperty(SnmpWalker.ADAPTIVE_PROPERTY, "true");
+
+        // The agent can't answer more than 12 varbinds at once
+        final FakeAgent agent = new FakeAgent(12, 0);
+        final GatheringTracker gatherer = new GatheringTracker();
+        final FakeAgentWalker walker = new FakeAgentWalker(agent, 161, 4, 10, false, newTracker(gatherer));
+        walk(walker);
+
+        assertEquals(COLUMNS.length * ROWS, gatherer.getResults().size());
+        assertTrue(agent.getTooBigResponses() > 0);
+
+        final SnmpWalkProfile profile = SnmpWalkProfile.get(new SnmpWalkProfile.Key(m_address, 161, SnmpConfiguration.VERSION2C));
+        assertEquals(1, profile.getWalks());
+        assertEquals(agent.getTooBigResponses(), profile.getTooBigErrors());
+        assertTrue(profile.getMaxVarsPerPdu() < 4);
+        assertTrue(profile.getMaxVarsPerPdu() * profile.getMaxRepetitions() <= 12);
+
+        // The next walk starts with what was learned and doesn't hit the limit anymore
+        final FakeAgent sameAgent = new FakeAgent(12, 0);
+        final GatheringTracker otherGatherer = new GatheringTracker();
+        walk(new FakeAgentWalker(sameAgent, 161, 4, 10, false, newTracker(otherGatherer)));
+        assertEquals(COLUMNS.length * ROWS, otherGatherer.getResults().size());
+        assertTrue(sameAgent.getTooBigResponses() < agent.getTooBigResponses());
+    }
+
+    @Test
+    public void canClampLearnedMaxRepetitionsToConfiguration() throws Exception {
+        System.setProperty(SnmpWalker.ADAPTIVE_PROPERTY, "true");
+
+        final FakeAgent agent = new FakeAgent(Integer.MAX_VALUE, 0);
+        walk(new FakeAgentWalker(agent, 161, 4, 20, false, newTracker(new GatheringTracker())));
+        assertEquals(20, SnmpWalkProfile.get(new SnmpWalkProfile.Key(m_address, 161, SnmpConfiguration.VERSION2C)).getMaxRepetitions());
+
+        // The configuration was lowered after the first walk
+        final FakeAgent sameAgent = new FakeAgent(Integer.MAX_VALUE, 0);
+        final GatheringTracker gatherer = new GatheringTracker();
+        final FakeAgentWalker walker = new FakeAgentWalker(sameAgent, 161, 4, 5, false, newTracker(gatherer));
+        assertEquals(5, walker.getMaxRepetitions());
+        walk(walker);
+
+        assertEquals(COLUMNS.length * ROWS, gatherer.getResults().size());
+        assertEquals(5, sameAgent.getLargestMaxRepetitions());
+        assertEquals(5, walker.getMaxRepetitions());
+    }
+
+    @Test
+    public void canKeepProfilesPerAgent() throws Exception {
+        System.setProperty(SnmpWalker.ADAPTIVE_PROPERTY, "true");
+
+        walk(new FakeAgentWalker(new FakeAgent(12, 0), 161, 4, 10, false, newTracker(new GatheringTracker())));
+        walk(new FakeAgentWalker(new FakeAgent(Integer.MAX_VALUE, 0), 1161, 4, 10, false, newTracker(new GatheringTracker())));
+
+        final SnmpWalkProfile limited = SnmpWalkProfile.get(new SnmpWalkProfile.Key(m_address, 161, SnmpConfiguration.VERSION2C));
+        final SnmpWalkProfile unlimited = SnmpWalkProfile.get(new SnmpWalkProfile.Key(m_address, 1161, SnmpConfiguration.VERSION2C));
+        assertNotSame(limited, unlimited);
+        assertTrue(limited.getTooBigErrors() > 0);
+        assertEquals(0, unlimited.getTooBigErrors());
+        assertEquals(10, unlimited.getMaxRepetitions());
+        assertEquals(4, unlimited.getMaxVarsPerPdu());
+    }
+
+    @Test
+    public void canPipelineRequests() throws Exception {
+        System.setProperty(SnmpWalker.PIPELINE_WINDOW_PROPERTY, "4");
+
+        final FakeAgent agent = new FakeAgent(Integer.MAX_VALUE, 20);
+        final GatheringTracker gatherer = new GatheringTracker();
+        final FakeAgentWalker walker = new FakeAgentWalker(agent, 161, 4, 5, true, newTracker(gatherer));
+        walk(walker);
+
+        assertEquals(COLUMNS.length * ROWS, gatherer.getResults().size());
+        assertEquals(COLUMNS.length, agent.getMaxInFlight());
+        // Every column is walked in a request of its own
+        assertEquals(1, agent.getLargestRequest());
+    }
+
+    @Test
+    public void canWalkWithoutPipelining() throws Exception {
+        System.setProperty(SnmpWalker.PIPELINE_WINDOW_PROPERTY, "4");
+
+        final FakeAgent agent = new FakeAgent(Integer.MAX_VALUE, 5);
+        final GatheringTracker gatherer = new GatheringTracker();
+        walk(new FakeAgentWalker(agent, 161, 4, 5, false, newTracker(gatherer)));
+
+        assertEquals(COLUMNS.length * ROWS, gatherer.getResults().size());
+        assertEquals(1, agent.getMaxInFlight());
+        assertEquals(COLUMNS.length, agent.getLargestRequest());
+    }
+
+    private static CollectionTracker newTracker(GatheringTracker gatherer) {
+        final List<Collectable> columns = new ArrayList<>(COLUMNS.length);
+        for (final SnmpObjId column : COLUMNS) {
+            columns.add(new ColumnTracker(column));
+        }
+        return new AggregateTracker(columns, gatherer);
+    }
+
+    private static void walk(SnmpWalker walker) throws InterruptedException {
+        walker.start();
+        assertTrue("walk timed out", walker.waitFor(10000));
+        assertFalse(walker.getErrorMessage(), walker.failed());
+    }
+
+    /**
+     * Answers GETBULK requests for an ifTable with four columns, refusing
+     * responses with more varbinds than the given limit with a tooBig error.
+     */
+    private static final class FakeAgent {
+        private final TreeMap<SnmpObjId, SnmpValue> m_mib = new TreeMap<>();
+        private final int m_maxResponseSize;
+        private final long m_delay;
+        private final AtomicInteger m_inFlight = new AtomicInteger();
+        private int m_maxInFlight = 0;
+        private int m_largestRequest = 0;
+        private int m_largestMaxRepetitions = 0;
+        private int m_tooBigResponses = 0;
+
+        private FakeAgent(int maxResponseSize, long delay) {
+            m_maxResponseSize = maxResponseSize;
+            m_delay = delay;
+            for (final SnmpObjId column : COLUMNS) {
+                for (int row = 1; row <= ROWS; row++) {
+                    m_mib.put(SnmpObjId.get(column, new SnmpInstId(row)), new FakeValue(false));
+                }
+            }
+            m_mib.put(SnmpObjId.get(".1.3.6.1.2.1.31.1.1.1.1.1"), new FakeValue(false));
+        }
+
+        private synchronized void requestSent(FakePduBuilder request) {
+            m_maxInFlight = Math.max(m_maxInFlight, m_inFlight.incrementAndGet());
+            m_largestRequest = Math.max(m_largestRequest, request.m_oids.size());
+            m_largestMaxRepetitions = Math.max(m_largestMaxRepetitions, request.m_maxRepetitions);
+        }
+
+        private Map.Entry<SnmpObjId, SnmpValue> next(SnmpObjId oid) {
+            final Map.Entry<SnmpObjId, SnmpValue> next = m_mib.higherEntry(oid);
+            return next != null ? next : new AbstractMap.SimpleEntry<>(oid, new FakeValue(true));
+        }
+
+        /**
+         * @return the varbinds of the response or null for a tooBig error
+         */
+        private synchronized List<Map.Entry<SnmpObjId, SnmpValue>> answer(FakePduBuilder request) {
+            m_inFlight.decrementAndGet();
+            final List<Map.Entry<SnmpObjId, SnmpValue>> response = new ArrayList<>();
+            for (int i = 0; i < request.m_nonRepeaters; i++) {
+                response.add(next(request.m_oids.get(i)));
+            }
+            final List<SnmpObjId> repeaters = new ArrayList<>(request.m_oids.subList(request.m_nonRepeaters, request.m_oids.size()));
+            for (int rep = 0; rep < Math.max(1, request.m_maxRepetitions); rep++) {
+                for (int i = 0; i < repeaters.size(); i++) {
+                    final Map.Entry<SnmpObjId, SnmpValue> next = next(repeaters.get(i));
+                    response.add(next);
+                    repeaters.set(i, next.getKey());
+                }
+            }
+            if (response.size() > m_maxResponseSize) {
+                m_tooBigResponses++;
+                return null;
+            }
+            return response;
+        }
+
+        private synchronized int getMaxInFlight() {
+            return m_maxInFlight;
+        }
+
+        private synchronized int getLargestRequest() {
+            return m_largestRequest;
+        }
+
+        private synchronized int getLargestMaxRepetitions() {
+            return m_largestMaxRepetitions;
+        }
+
+        private synchronized int getTooBigResponses() {
+            return m_tooBigResponses;
+        }
+    }
+
+    private static final class FakePduBuilder extends SnmpWalker.WalkerPduBuilder {
+        private final List<SnmpObjId> m_oids = new ArrayList<>();
+        private int m_nonRepeaters = 0;
+        private int m_maxRepetitions = 0;
+
+        private FakePduBuilder(int maxVarsPerPdu) {
+            super(maxVarsPerPdu);
+        }
+
+        @Override
+        public void reset() {
+            m_oids.clear();
+            m_nonRepeaters = 0;
+            m_maxRepetitions = 0;
+        }
+
+        @Override
+        public void addOid(SnmpObjId snmpObjId) {
+            m_oids.add(snmpObjId);
+        }
+
+        @Override
+        public void setNonRepeaters(int numNonRepeaters) {
+            m_nonRepeaters = numNonRepeaters;
+        }
+
+        @Override
+        public void setMaxRepetitions(int maxRepetitions) {
+            m_maxRepetitions = maxRepetitions;
+        }
+    }
+
+    /**
+     * Walks the {@link FakeAgent}, answering every request on another thread
+     * the way the strategies answer them from their sessions.
+     */
+    private final class FakeAgentWalker extends SnmpWalker {
+        private final FakeAgent m_agent;
+        private final boolean m_pipelining;
+
+        private FakeAgentWalker(FakeAgent agent, int port, int maxVarsPerPdu, int maxRepetitions, boolean pipelining, CollectionTracker tracker) {
+            super(m_address, port, SnmpConfiguration.VERSION2C, "test", maxVarsPerPdu, maxRepetitions, 0, tracker);
+            m_agent = agent;
+            m_pipelining = pipelining;
+        }
+
+        @Override
+        protected WalkerPduBuilder createPduBuilder(int maxVarsPerPdu) {
+            return new FakePduBuilder(maxVarsPerPdu);
+        }
+
+        @Override
+        protected boolean supportsPipelining() {
+            return m_pipelining;
+        }
+
+        @Override
+        protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
+            sendNextPdu(pduBuilder, null);
+        }
+
+        @Override
+        protected void sendNextPdu(WalkerPduBuilder pduBuilder, WalkerLane lane) throws SnmpException {
+            // The builder is reused for the next request, so the request is copied
+            final FakePduBuilder request = new FakePduBuilder(pduBuilder.getMaxVarsPerPdu());
+            request.m_oids.addAll(((FakePduBuilder)pduBuilder).m_oids);
+            request.m_nonRepeaters = ((FakePduBuilder)pduBuilder).m_nonRepeaters;
+            request.m_maxRepetitions = ((FakePduBuilder)pduBuilder).m_maxRepetitions;
+            m_agent.requestSent(request);
+            m_executor.execute(() -> {
+                try {
+                    if (m_agent.m_delay > 0) {
+                        Thread.sleep(m_agent.m_delay);
+                    }
+                    final List<Map.Entry<SnmpObjId, SnmpValue>> response = m_agent.answer(request);
+                    synchronized (this) {
+                        handleResponse(request, response, lane);
+                    }
+                } catch (Throwable e) {
+                    handleFatalError(e);
+                }
+            });
+        }
+
+        private void handleResponse(FakePduBuilder request, List<Map.Entry<SnmpObjId, SnmpValue>> response, WalkerLane lane) throws SnmpException {
+            final int errorStatus = response == null ? ErrorStatus.TOO_BIG.ordinal() : ErrorStatus.NO_ERROR.ordinal();
+            if (!(lane == null ? processErrors(errorStatus, 0) : processErrors(lane, errorStatus, 0))) {
+                recordResponse(request.m_oids.size(), request.m_nonRepeaters, request.m_maxRepetitions, response.size());
+                for (final Map.Entry<SnmpObjId, SnmpValue> varBind : response) {
+                    if (lane == null) {
+                        processResponse(varBind.getKey(), varBind.getValue());
+                    } else {
+                        processResponse(lane, varBind.getKey(), varBind.getValue());
+                    }
+                }
+            }
+            if (lane == null) {
+                buildAndSendNextPdu();
+            } else {
+                buildAndSendNextPdu(lane);
+            }
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+    private static final class FakeValue extends AbstractSnmpValue {
+        private final boolean m_endOfMib;
+
+        private FakeValue(boolean endOfMib) {
+            m_endOfMib = endOfMib;
+        }
+
+        @Override
+        public boolean isEndOfMib() {
+            return m_endOfMib;
+        }
+
+        @Override
+        public boolean isError() {
+            return m_endOfMib;
+        }
+
+        @Override
+        public boolean isNull() {
+            return false;
+        }
+
+        @Override
+        public boolean isDisplayable() {
+            return true;
+        }
+
+        @Override
+        public boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        public int toInt() {
+            return 1;
+        }
+
+        @Override
+        public String toDisplayString() {
+            return "1";
+        }
+
+        @Override
+        public InetAddress toInetAddress() {
+            return null;
+        }
+
+        @Override
+        public long toLong() {
+            return 1;
+        }
+
+        @Override
+        public BigInteger toBigInteger() {
+            return BigInteger.ONE;
+        }
+
+        @Override
+        public String toHexString() {
+            return "01";
+        }
+
+        @Override
+        public int getType() {
+            return m_endOfMib ? SNMP_END_OF_MIB : SNMP_INT32;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return new byte[] { 1 };
+        }
+
+        @Override
+        public SnmpObjId toSnmpObjId() {
+            return null;
+        }
+    }
+}
@@ -169,7 +169,7 @@ public class JoeSnmpWalker extends SnmpWalker {
     private JoeSnmpAgentConfig m_agentConfig;
 
     public JoeSnmpWalker(JoeSnmpAgentConfig agentConfig, String name, CollectionTracker tracker) {
-        super(agentConfig.getAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
+        super(agentConfig.getAddress(), agentConfig.getPort(), agentConfig.getVersion(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
         m_agentConfig = agentConfig;
         m_peer = getPeer(agentConfig);
         m_handler = new JoeSnmpResponseHandler();
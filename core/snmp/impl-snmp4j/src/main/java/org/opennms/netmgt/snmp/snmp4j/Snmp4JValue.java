@@ -58,27 +58,26 @@ public class Snmp4JValue extends AbstractSnmpValue {
         }
     }
     
-    Snmp4JValue(final int syntax, final byte[] initialBytes) {
-        final byte[] bytes = initialBytes == null ? null : initialBytes.clone();
+    Snmp4JValue(final int syntax, final byte[] bytes) {
         switch (syntax) {
         case SMIConstants.SYNTAX_INTEGER: {
-            m_value = new Integer32(new BigInteger(bytes).intValue());
+            m_value = new Integer32((int)decodeLong(bytes));
             break;
         }
         case SMIConstants.SYNTAX_COUNTER32: {
-            m_value = new Counter32(new BigInteger(bytes).longValue());
+            m_value = new Counter32(decodeLong(bytes));
             break;
         }
         case SMIConstants.SYNTAX_COUNTER64: {
-            m_value = new Counter64(new BigInteger(bytes).longValue());
+            m_value = new Counter64(decodeLong(bytes));
             break;
         }
         case SMIConstants.SYNTAX_TIMETICKS: {
-            m_value = new TimeTicks(new BigInteger(bytes).longValue());
+            m_value = new TimeTicks(decodeLong(bytes));
             break;
         }
         case SMIConstants.SYNTAX_UNSIGNED_INTEGER32: {
-            m_value = new UnsignedInteger32(new BigInteger(bytes).longValue());
+            m_value = new UnsignedInteger32(decodeLong(bytes));
             break;
         }
         case SMIConstants.SYNTAX_IPADDRESS: {
@@ -94,11 +93,11 @@ public class Snmp4JValue extends AbstractSnmpValue {
             break;
         }
         case SMIConstants.SYNTAX_OCTET_STRING: {
-            m_value = new OctetString(bytes);
+            m_value = new OctetString(bytes == null ? null : bytes.clone());
             break;
         }
         case SMIConstants.SYNTAX_OPAQUE: {
-            m_value = new OpaqueExt(bytes);
+            m_value = new OpaqueExt(bytes == null ? null : bytes.clone());
             break;
         }
         case SMIConstants.EXCEPTION_END_OF_MIB_VIEW: {
@@ -126,6 +125,23 @@ public class Snmp4JValue extends AbstractSnmpValue {
 
     }
     
+    /**
+     * Decodes the big-endian two's-complement representation written by
+     * {@link #getBytes()}. Equivalent to {@code new BigInteger(bytes).longValue()}
+     * without allocating the intermediate {@link BigInteger}.
+     */
+    static long decodeLong(final byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            // Keep the exceptions thrown for malformed values
+            return new BigInteger(bytes).longValue();
+        }
+        long value = bytes[0];
+        for (int i = 1; i < bytes.length; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+
     @Override
     public byte[] getBytes() {
         switch (m_value.getSyntax()) {
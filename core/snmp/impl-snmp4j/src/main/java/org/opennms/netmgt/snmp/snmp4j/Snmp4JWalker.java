@@ -128,25 +128,30 @@ public class Snmp4JWalker extends SnmpWalker {
      */
     public class Snmp4JResponseListener implements ResponseListener {
 
-        private void processResponse(final PDU response) throws SnmpException {
+        private void processResponse(final PDU request, final PDU response, final WalkerLane lane) throws SnmpException {
             try {
                 LOG.debug("Received a tracker PDU of type {} from {} of size {}, errorStatus = {}, errorStatusText = {}, errorIndex = {}", PDU.getTypeString(response.getType()), getAddress(), response.size(), response.getErrorStatus(), response.getErrorStatusText(), response.getErrorIndex());
                 if (response.getType() == PDU.REPORT) {
                     handleAuthError("A REPORT PDU was returned from the agent.  This is most likely an authentication problem.  Please check the config");
                 } else {
-                    if (!processErrors(response.getErrorStatus(), response.getErrorIndex())) {
+                    if (!processLaneErrors(lane, response.getErrorStatus(), response.getErrorIndex())) {
                         if (response.size() == 0) { // NMS-6484
                             handleError("A PDU with no errors and 0 varbinds was returned from the agent at " + getAddress() + ". This seems to be related with a broken SNMP agent.");
                         } else {
+                            if (request != null && request.getType() == PDU.GETBULK) {
+                                recordResponse(request.size(), request.getNonRepeaters(), request.getMaxRepetitions(), response.size());
+                            }
                             for (int i = 0; i < response.size(); i++) {
                                 final VariableBinding vb = response.get(i);
-                                final SnmpObjId receivedOid = SnmpObjId.get(vb.getOid().getValue());
+                                // The response PDU is discarded once it is processed so the
+                                // OID array can be wrapped instead of copied
+                                final SnmpObjId receivedOid = new SnmpObjId(vb.getOid().getValue(), false);
                                 final SnmpValue val = new Snmp4JValue(vb.getVariable());
-                                Snmp4JWalker.this.processResponse(receivedOid, val);
+                                processLaneResponse(lane, receivedOid, val);
                             }
                         }
                     }
-                    buildAndSendNextPdu();
+                    buildAndSendNextLanePdu(lane);
                 }
             } catch (final RuntimeException|SnmpException e) {
                 handleFatalError(e);
@@ -156,7 +161,19 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            final Snmp session = m_session;
+            if (session != null) {
+                session.cancel(responseEvent.getRequest(), this);
+            }
+
+            // Responses to the requests of the different lanes may arrive concurrently
+            synchronized (Snmp4JWalker.this) {
+                handleResponse(responseEvent);
+            }
+        }
+
+        private void handleResponse(ResponseEvent responseEvent) {
+            final WalkerLane lane = getLane(responseEvent);
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -170,7 +187,7 @@ public class Snmp4JWalker extends SnmpWalker {
             // If we have a PDU in the response, process it
             } else {
                 try {
-                    processResponse(responseEvent.getResponse());
+                    processResponse(responseEvent.getRequest(), responseEvent.getResponse(), lane);
                 } catch (final SnmpException e) {
                     handleFatalError(e);
                 }
@@ -181,13 +198,37 @@ public class Snmp4JWalker extends SnmpWalker {
         
     }
     
+    private WalkerLane getLane(ResponseEvent responseEvent) {
+        return (WalkerLane)responseEvent.getUserObject();
+    }
+
+    private boolean processLaneErrors(WalkerLane lane, int errorStatus, int errorIndex) throws SnmpException {
+        return lane == null ? processErrors(errorStatus, errorIndex) : super.processErrors(lane, errorStatus, errorIndex);
+    }
+
+    private void processLaneResponse(WalkerLane lane, SnmpObjId receivedOid, SnmpValue val) throws SnmpException {
+        if (lane == null) {
+            processResponse(receivedOid, val);
+        } else {
+            super.processResponse(lane, receivedOid, val);
+        }
+    }
+
+    private void buildAndSendNextLanePdu(WalkerLane lane) throws SnmpException {
+        if (lane == null) {
+            buildAndSendNextPdu();
+        } else {
+            super.buildAndSendNextPdu(lane);
+        }
+    }
+
     private Snmp m_session;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
-        super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
+        super(agentConfig.getInetAddress(), agentConfig.getPort(), agentConfig.getVersion(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
         
         m_agentConfig = agentConfig;
         
@@ -210,8 +251,18 @@ public class Snmp4JWalker extends SnmpWalker {
                 : (WalkerPduBuilder)new GetBulkBuilder(maxVarsPerPdu));
     }
 
+        @Override
+    protected boolean supportsPipelining() {
+        return true;
+    }
+
         @Override
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
+        sendNextPdu(pduBuilder, null);
+    }
+
+        @Override
+    protected void sendNextPdu(WalkerPduBuilder pduBuilder, WalkerLane lane) throws SnmpException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         try {
             if (m_session == null) {
@@ -226,7 +277,7 @@ public class Snmp4JWalker extends SnmpWalker {
 
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
         try {
-            m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+            m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, lane, m_listener);
         } catch (final IOException e) {
             LOG.debug("Failed to send pdu of size {}", snmp4JPduBuilder.getPdu().size(), e);
             close();
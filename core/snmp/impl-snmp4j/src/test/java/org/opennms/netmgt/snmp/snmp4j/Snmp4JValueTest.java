@@ -0,0 +1,71 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpValue;
+
+public class Snmp4JValueTest {
+
+    private static final long[] VALUES = new long[] {
+        0L, 1L, -1L, 127L, 128L, -128L, -129L, 255L, 256L,
+        Integer.MAX_VALUE, Integer.MIN_VALUE, 4294967295L,
+        Long.MAX_VALUE, Long.MIN_VALUE
+    };
+
+    @Test
+    public void canDecodeLikeBigInteger() {
+        for (final long value : VALUES) {
+            final byte[] bytes = BigInteger.valueOf(value).toByteArray();
+            assertEquals(new BigInteger(bytes).longValue(), Snmp4JValue.decodeLong(bytes));
+        }
+        // Unsigned 64 bit values are encoded with a leading zero byte
+        final byte[] bytes = new BigInteger("18446744073709551615").toByteArray();
+        assertEquals(9, bytes.length);
+        assertEquals(new BigInteger(bytes).longValue(), Snmp4JValue.decodeLong(bytes));
+    }
+
+    @Test(expected=NumberFormatException.class)
+    public void cannotDecodeEmptyValue() {
+        Snmp4JValue.decodeLong(new byte[0]);
+    }
+
+    @Test
+    public void canRoundTripNumericValues() {
+        final Snmp4JValueFactory factory = new Snmp4JValueFactory();
+        assertRoundTrip(factory.getInt32(-42));
+        assertRoundTrip(factory.getCounter32(4294967295L));
+        assertRoundTrip(factory.getCounter64(new BigInteger("18446744073709551615")));
+        assertRoundTrip(factory.getGauge32(123456789L));
+        assertRoundTrip(factory.getTimeTicks(987654321L));
+    }
+
+    private static void assertRoundTrip(final SnmpValue value) {
+        final SnmpValue decoded = new Snmp4JValue(value.getType(), value.getBytes());
+        assertEquals(value.getType(), decoded.getType());
+        assertEquals(value.toBigInteger(), decoded.toBigInteger());
+    }
+}
@@ -154,6 +154,19 @@ public class SnmpObjIdTest extends TestCase {
         assertEquals("9.8.7.6", instance.toString());
     }
     
+    public void testSingleIndexInstance() {
+        SnmpObjId base = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+
+        SnmpInstId small = SnmpObjId.get(base, "3").getInstance(base);
+        assertEquals(new SnmpInstId(3), small);
+        assertSame(small, SnmpObjId.get(base, "3").getInstance(base));
+        assertSame(SnmpInstId.INST_ZERO, SnmpObjId.get(base, "0").getInstance(base));
+
+        SnmpInstId large = SnmpObjId.get(base, "100000").getInstance(base);
+        assertEquals(new SnmpInstId(100000), large);
+        assertEquals(100000, large.toInt());
+    }
+
     public void testDecrement() {
         SnmpObjId oid = SnmpObjId.get(".1.3.5.7");
         assertEquals(SnmpObjId.get(".1.3.5.6"), oid.decrement());
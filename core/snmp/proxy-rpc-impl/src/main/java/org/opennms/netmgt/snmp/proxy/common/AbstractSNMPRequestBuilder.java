@@ -28,6 +28,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.rpc.api.RpcRequest;
 import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.SnmpAgentAccessManager;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
 
@@ -89,6 +90,7 @@ public abstract class AbstractSNMPRequestBuilder<T> implements SNMPRequestBuilde
         snmpRequestDTO.setSystemId(systemId);
         snmpRequestDTO.setAgent(agent);
         snmpRequestDTO.setDescription(description);
+        snmpRequestDTO.setClient(SnmpAgentAccessManager.getClient());
         snmpRequestDTO.setGetRequests(gets);
         snmpRequestDTO.setWalkRequests(walks);
         snmpRequestDTO.setSetRequests(sets);
@@ -40,6 +40,7 @@ import org.opennms.netmgt.snmp.Collectable;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.ColumnTracker;
 import org.opennms.netmgt.snmp.SingleInstanceTracker;
+import org.opennms.netmgt.snmp.SnmpAgentAccessManager;
 import org.opennms.netmgt.snmp.SnmpInstId;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpResult;
@@ -78,6 +79,13 @@ public class SnmpProxyRpcModule extends AbstractXmlRpcModule<SnmpRequestDTO, Snm
 
     @Override
     public CompletableFuture<SnmpMultiResponseDTO> execute(SnmpRequestDTO request) {
+        // Requests are only run at their own location, queue the walks and requests
+        // under the daemon that issued them
+        SnmpAgentAccessManager.setLocation(request.getLocation());
+        return SnmpAgentAccessManager.callAs(request.getClient(), () -> doExecute(request));
+    }
+
+    private CompletableFuture<SnmpMultiResponseDTO> doExecute(SnmpRequestDTO request) {
         if (request.getAgent() != null &&
                 request.getAgent().getAddress().isLoopbackAddress() &&
                 !LocationUtils.DEFAULT_LOCATION_NAME.equals(request.getLocation()) &&
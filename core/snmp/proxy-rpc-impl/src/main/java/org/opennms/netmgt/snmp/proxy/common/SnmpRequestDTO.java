@@ -55,6 +55,9 @@ public class SnmpRequestDTO implements RpcRequest {
     @XmlAttribute(name="description")
     private String description;
 
+    @XmlAttribute(name="client")
+    private String client;
+
     @XmlElement(name="get")
     private List<SnmpGetRequestDTO> gets = new ArrayList<>(0);
 
@@ -128,6 +131,18 @@ public class SnmpRequestDTO implements RpcRequest {
         this.description = description;
     }
 
+    /**
+     * @return the daemon that issued the request, the requests of the daemons
+     *   take turns when they wait for the same agent
+     */
+    public String getClient() {
+        return client;
+    }
+
+    public void setClient(String client) {
+        this.client = client;
+    }
+
     public Long getTimeToLive() {
         return timeToLive;
     }
@@ -157,7 +172,7 @@ public class SnmpRequestDTO implements RpcRequest {
 
     @Override
     public int hashCode() {
-        return Objects.hash(location, systemId, agent, gets, walks, sets, description, timeToLive);
+        return Objects.hash(location, systemId, agent, gets, walks, sets, description, client, timeToLive);
     }
 
     @Override
@@ -176,6 +191,7 @@ public class SnmpRequestDTO implements RpcRequest {
                 && Objects.equals(this.walks, other.walks)
                 && Objects.equals(this.sets, other.sets)
                 && Objects.equals(this.description, other.description)
+                && Objects.equals(this.client, other.client)
                 && Objects.equals(this.timeToLive, other.timeToLive);
     }
 }
@@ -24,7 +24,7 @@ package org.opennms.features.alarms.history.elastic;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -34,6 +34,8 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
@@ -50,6 +52,12 @@ import org.opennms.core.cache.Cache;
 import org.opennms.core.cache.CacheBuilder;
 import org.opennms.core.cache.CacheConfig;
 import org.opennms.core.time.PseudoClock;
+import org.opennms.features.elastic.client.bulk.BulkDocument;
+import org.opennms.features.elastic.client.bulk.BulkIndexResult;
+import org.opennms.features.elastic.client.bulk.BulkIndexer;
+import org.opennms.features.elastic.client.bulk.BulkIndexerConfig;
+import org.opennms.features.elastic.client.bulk.BulkRequestException;
+import org.opennms.features.elastic.client.model.BulkResponse;
 import org.opennms.features.alarms.history.elastic.dto.AlarmDocumentDTO;
 import org.opennms.features.alarms.history.elastic.dto.AlarmDocumentFactory;
 import org.opennms.features.alarms.history.elastic.dto.NodeDocumentDTO;
@@ -59,8 +67,6 @@ import org.opennms.features.alarms.history.elastic.tasks.IndexAlarmsTask;
 import org.opennms.features.alarms.history.elastic.tasks.Task;
 import org.opennms.features.alarms.history.elastic.tasks.TaskVisitor;
 import org.opennms.features.jest.client.JestClientWithCircuitBreaker;
-import org.opennms.features.jest.client.bulk.BulkException;
-import org.opennms.features.jest.client.bulk.BulkRequest;
 import org.opennms.features.jest.client.bulk.BulkWrapper;
 import org.opennms.features.jest.client.bulk.FailedItem;
 import org.opennms.features.jest.client.index.IndexSelector;
@@ -82,6 +88,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 
 import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
 import io.searchbox.core.Index;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
@@ -91,14 +98,20 @@ import io.searchbox.core.search.aggregation.TopHitsAggregation;
  * Indexes alarms in Elasticsearch by listening for alarm state changes via the {@link AlarmLifecycleListener}.
  *
  * In order to avoid blocking the callbacks issued via the {@link AlarmLifecycleListener} interface while we communicate
- * with ES, the callbacks create tasks which are added to a queue. Tasks on this queue are then handled by a worker thread
- * and processed in the same order as which they were added.
+ * with ES, the callbacks create tasks which are added to a queue. The work is sharded by alarm id over several queues,
+ * each handled by its own worker thread, so the tasks of a given alarm are processed in the same order as which they
+ * were added.
+ *
+ * Only alarms whose interesting fields changed are mapped and indexed. Unchanged alarms are recognized by comparing
+ * a hash of their state, see {@link IndexedAlarmState}, which keeps snapshot handling cheap for alarms which did not
+ * change.
  */
-public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
+public class ElasticAlarmIndexer implements AlarmLifecycleListener {
     private static final Logger LOG = LoggerFactory.getLogger(ElasticAlarmIndexer.class);
     private static final Gson gson = new Gson();
 
     public static final int DEFAULT_TASK_QUEUE_CAPACITY = 5000;
+    public static final int DEFAULT_NUM_WORKERS = 4;
     public static final String INDEX_NAME = "opennms-alarms";
 
     private final AlarmCallbackStateTracker stateTracker = new AlarmCallbackStateTracker();
@@ -106,11 +119,10 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
 
     private final JestClientWithCircuitBreaker client;
     private final TemplateInitializer templateInitializer;
-    private final LinkedBlockingDeque<Task> taskQueue;
+    private final List<LinkedBlockingDeque<Task>> taskQueues;
     private final IndexStrategy indexStrategy;
     private final IndexSelector indexSelector;
 
-    private int bulkRetryCount = 3;
     private int batchSize = 200;
     private boolean usePseudoClock = false;
     private boolean indexAllUpdates = false;
@@ -129,10 +141,9 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
 
     private final List<AlarmDocumentDTO> alarmDocumentsToIndex = new LinkedList<>();
 
-    private Map<Integer, AlarmDocumentDTO> alarmDocumentsById = new LinkedHashMap<>();
-    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
-            .setNameFormat("ElasticAlarmIndexer")
-            .build());
+    private final Map<Integer, IndexedAlarmState> indexedAlarmStates = new HashMap<>();
+    private final ExecutorService executor;
+    private final AtomicLong lastBulkDeleteWithNoChanges = new AtomicLong(-1);
     private final AtomicBoolean stopped = new AtomicBoolean(false);
     private java.util.Timer timer;
     private final Function<OnmsAlarm, AlarmDocumentDTO> documentMapper;
@@ -142,13 +153,28 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
 
     private final IndexSettings indexSettings;
 
+    private final MetricRegistry metrics;
+
+    /**
+     * Splits the documents of a task into bulks sized by bytes, sends them concurrently and retries failed items.
+     * Created on first use, after all properties have been set.
+     */
+    private final BulkIndexerConfig bulkIndexerConfig = new BulkIndexerConfig();
+    private BulkIndexer<BulkDocument<AlarmDocumentDTO>> bulkIndexer;
+
     public ElasticAlarmIndexer(MetricRegistry metrics, JestClientWithCircuitBreaker client, TemplateInitializer templateInitializer) {
         this(metrics, client, templateInitializer, new CacheConfig("nodes-for-alarms-in-es"), DEFAULT_TASK_QUEUE_CAPACITY, IndexStrategy.MONTHLY, new IndexSettings());
     }
 
     public ElasticAlarmIndexer(MetricRegistry metrics, JestClientWithCircuitBreaker client, TemplateInitializer templateInitializer, CacheConfig nodeCacheConfig, int taskQueueCapacity, IndexStrategy indexStrategy, IndexSettings indexSettings) {
+        this(metrics, client, templateInitializer, nodeCacheConfig, taskQueueCapacity, indexStrategy, indexSettings, DEFAULT_NUM_WORKERS);
+    }
+
+    public ElasticAlarmIndexer(MetricRegistry metrics, JestClientWithCircuitBreaker client, TemplateInitializer templateInitializer, CacheConfig nodeCacheConfig, int taskQueueCapacity, IndexStrategy indexStrategy, IndexSettings indexSettings, int numWorkers) {
         this.client = Objects.requireNonNull(client);
         this.templateInitializer = Objects.requireNonNull(templateInitializer);
+        this.metrics = Objects.requireNonNull(metrics);
+        bulkIndexerConfig.setMaxRetries(3);
         //noinspection unchecked
         Cache<Integer, Optional<NodeDocumentDTO>> nodeInfoCache = new CacheBuilder<>()
                 .withConfig(nodeCacheConfig)
@@ -161,8 +187,17 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
         MapStructDocumentImpl documentImpl = new MapStructDocumentImpl(nodeInfoCache, this::getCurrentTimeMillis);
         documentMapper = documentImpl;
         documentFactory = documentImpl;
-        taskQueue = new LinkedBlockingDeque<>(taskQueueCapacity);
-        alarmsToESMetrics = new ElasticAlarmMetrics(metrics, taskQueue);
+        // The capacity is shared by all of the shards
+        final int shards = Math.max(1, numWorkers);
+        final int shardCapacity = Math.max(1, (taskQueueCapacity + shards - 1) / shards);
+        taskQueues = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            taskQueues.add(new LinkedBlockingDeque<>(shardCapacity));
+        }
+        executor = Executors.newFixedThreadPool(shards, new ThreadFactoryBuilder()
+                .setNameFormat("ElasticAlarmIndexer-%d")
+                .build());
+        alarmsToESMetrics = new ElasticAlarmMetrics(metrics, taskQueues);
         this.indexStrategy = Objects.requireNonNull(indexStrategy);
         this.indexSettings = Objects.requireNonNull(indexSettings);
         this.indexSelector = new IndexSelector(indexSettings, INDEX_NAME, indexStrategy, 0);
@@ -172,7 +207,9 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
         if (stopped.get()) {
             throw new IllegalStateException("Already destroyed.");
         }
-        executor.execute(this);
+        for (final LinkedBlockingDeque<Task> taskQueue : taskQueues) {
+            executor.execute(() -> runWorker(taskQueue));
+        }
         timer = new java.util.Timer("ElasticAlarmIndexer");
         timer.schedule(new TimerTask() {
             @Override
@@ -190,11 +227,14 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
         stopped.set(true);
         timer.cancel();
         executor.shutdown();
+        synchronized (this) {
+            if (bulkIndexer != null) {
+                bulkIndexer.close();
+            }
+        }
     }
 
-    @Override
-    public void run() {
-        final AtomicLong lastbulkDeleteWithNoChanges = new AtomicLong(-1);
+    private void runWorker(BlockingQueue<Task> taskQueue) {
         templateInitializer.initialize();
         while(!stopped.get()) {
             try {
@@ -231,8 +271,8 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
                         // we can safely reduce the window size and only evaluate documents that were added
                         // after this time in subsequent queries in order to help reduce the workload
                         long includeUpdatesAfter = Math.max(time - lookbackPeriodMs, 0);
-                        if (lastbulkDeleteWithNoChanges.get() > 0) {
-                            includeUpdatesAfter = lastbulkDeleteWithNoChanges.get();
+                        if (lastBulkDeleteWithNoChanges.get() > 0) {
+                            includeUpdatesAfter = lastBulkDeleteWithNoChanges.get();
                         }
                         LOG.debug("Marking documents without ids in: {} as deleted for time: {}", alarmIdsToKeep, time);
                         try (final Timer.Context ctx = alarmsToESMetrics.getBulkDeleteTimer().time()) {
@@ -297,7 +337,7 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
                             } else {
                                 LOG.debug("Did not find any extraneous alarms that need to be deleted.");
                                 // Save the current time
-                                lastbulkDeleteWithNoChanges.set(time);
+                                lastBulkDeleteWithNoChanges.set(time);
                             }
                         }
 
@@ -313,40 +353,77 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
         }
     }
 
+    /**
+     * Indexes the given documents and waits for them to be persisted, so that tasks are still completed in order.
+     */
     public void bulkInsert(List<AlarmDocumentDTO> alarmDocuments) throws PersistenceException, IOException {
-        final BulkRequest<AlarmDocumentDTO> bulkRequest = new BulkRequest<>(client, alarmDocuments, (documents) -> {
-            final Bulk.Builder bulkBuilder = new Bulk.Builder();
-            for (AlarmDocumentDTO alarmDocument : alarmDocuments) {
-                final String index = indexStrategy.getIndex(indexSettings, INDEX_NAME, Instant.ofEpochMilli(alarmDocument.getUpdateTime()));
-                final Index.Builder indexBuilder = new Index.Builder(alarmDocument)
-                        .index(index);
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("Adding index action on index: {} with payload: {}",
-                            index, gson.toJson(alarmDocument));
-                }
-                bulkBuilder.addAction(indexBuilder.build());
+        final List<BulkDocument<AlarmDocumentDTO>> documents = new ArrayList<>(alarmDocuments.size());
+        for (AlarmDocumentDTO alarmDocument : alarmDocuments) {
+            final String index = indexStrategy.getIndex(indexSettings, INDEX_NAME, Instant.ofEpochMilli(alarmDocument.getUpdateTime()));
+            final BulkDocument<AlarmDocumentDTO> document = BulkDocument.index(index, null, alarmDocument, gson);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Adding index action on index: {} with payload: {}",
+                        index, document.getOperation().getSource());
             }
-            return new BulkWrapper(bulkBuilder);
-        }, bulkRetryCount);
+            documents.add(document);
+        }
 
+        final BulkIndexResult<BulkDocument<AlarmDocumentDTO>> result;
         try {
-            // the bulk request considers retries
-            bulkRequest.execute();
-        } catch (BulkException ex) {
-            final List<FailedItem<AlarmDocumentDTO>> failedItems;
-            if (ex.getBulkResult() != null) {
-                //noinspection unchecked
-                failedItems = ex.getBulkResult().getFailedItems();
-            } else {
-                failedItems = Collections.emptyList();
-            }
-            throw new PersistenceException(ex.getMessage(), failedItems);
-        } catch (IOException ex) {
+            // the bulk indexer considers retries
+            result = getBulkIndexer().submit(documents).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing alarm documents.", ex);
+        } catch (ExecutionException ex) {
             LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
-            throw ex;
+            throw new IOException(ex.getCause());
+        }
+
+        if (result.hasFailures()) {
+            final List<FailedItem<AlarmDocumentDTO>> failedItems = new ArrayList<>(result.getFailedItems().size());
+            int i = 0;
+            for (BulkIndexResult.FailedItem<BulkDocument<AlarmDocumentDTO>> item : result.getFailedItems()) {
+                failedItems.add(new FailedItem<>(i++, item.getItem().getDocument(), new Exception(item.getError())));
+            }
+            throw new PersistenceException(String.format("Failed to index %d of %d alarm documents.",
+                    failedItems.size(), documents.size()), failedItems);
         }
     }
 
+    private synchronized BulkIndexer<BulkDocument<AlarmDocumentDTO>> getBulkIndexer() {
+        if (bulkIndexer == null) {
+            bulkIndexer = new BulkIndexer<>("alarms", this::executeBulk, BulkDocument::getSizeInBytes, bulkIndexerConfig, metrics);
+        }
+        return bulkIndexer;
+    }
+
+    /**
+     * Sends a single bulk using the Jest client. The documents are already serialized, so Jest sends them as-is.
+     */
+    private BulkResponse executeBulk(List<BulkDocument<AlarmDocumentDTO>> documents) throws IOException {
+        final Bulk.Builder bulkBuilder = new Bulk.Builder();
+        for (BulkDocument<AlarmDocumentDTO> document : documents) {
+            bulkBuilder.addAction(new Index.Builder(document.getOperation().getSource())
+                    .index(document.getOperation().getIndex())
+                    .build());
+        }
+        final BulkResult bulkResult = client.execute(new BulkWrapper(bulkBuilder));
+        if (!bulkResult.isSucceeded() && bulkResult.getItems().isEmpty()) {
+            // Lets the indexer shrink the bulks when the whole request was rejected
+            throw new BulkRequestException(bulkResult.getResponseCode(), bulkResult.getErrorMessage());
+        }
+
+        boolean hasErrors = false;
+        final List<BulkResponse.BulkItemResponse> items = new ArrayList<>(bulkResult.getItems().size());
+        for (BulkResult.BulkResultItem item : bulkResult.getItems()) {
+            final String error = item.error != null && !item.error.isEmpty() ? item.error : null;
+            hasErrors |= error != null;
+            items.add(new BulkResponse.BulkItemResponse(item.index, item.id, item.status, error));
+        }
+        return new BulkResponse(hasErrors, items, 0);
+    }
+
     @Override
     public synchronized void preHandleAlarmSnapshot() {
         stateTracker.startTrackingAlarms();
@@ -363,18 +440,18 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
                 .map(this::getDocumentIfNeedsIndexing)
                 .flatMap(o -> o.map(Stream::of).orElseGet(Stream::empty))
                 .collect(Collectors.toList());
-        if (!alarmDocuments.isEmpty()) {
-            // Break the list up into small batches limited by the configured batch size
-            for (List<AlarmDocumentDTO> partition : Lists.partition(alarmDocuments, batchSize)) {
-                taskQueue.add(new IndexAlarmsTask(partition));
-            }
-        }
+        LOG.debug("{} of {} alarms in the snapshot need to be indexed.", alarmDocuments.size(), alarms.size());
+        enqueueDocuments(alarmDocuments);
 
-        // Bulk delete alarms that are not yet marked as deleted in ES, and are not present in the given list
+        // Bulk delete alarms that are not yet marked as deleted in ES, and are not present in the given list.
+        // The task is queued on every shard and runs once all of the documents queued before it are indexed.
         final Set<Integer> alarmIdsToKeep = new HashSet<>(stateTracker.getUpdatedAlarmIds());
         alarms.stream().map(OnmsAlarm::getId).forEach(alarmIdsToKeep::add);
-        taskQueue.add(new BulkDeleteTask(alarmIdsToKeep, getCurrentTimeMillis()));
-        alarmDocumentsById.keySet().removeIf(alarmId -> !alarmIdsToKeep.contains(alarmId));
+        final BulkDeleteTask bulkDeleteTask = new BulkDeleteTask(alarmIdsToKeep, getCurrentTimeMillis(), taskQueues.size());
+        for (final LinkedBlockingDeque<Task> taskQueue : taskQueues) {
+            taskQueue.add(bulkDeleteTask);
+        }
+        indexedAlarmStates.keySet().removeIf(alarmId -> !alarmIdsToKeep.contains(alarmId));
     }
 
     @Override
@@ -409,61 +486,44 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
 
     private synchronized void flushDocumentsToIndexToTaskQueue() {
         if (!alarmDocumentsToIndex.isEmpty()) {
-            taskQueue.add(new IndexAlarmsTask(new ArrayList<>(alarmDocumentsToIndex)));
+            enqueueDocuments(alarmDocumentsToIndex);
             alarmDocumentsToIndex.clear();
         }
     }
 
     /**
-     * Compares an {@link AlarmDocumentDTO alarm document} and a {@link OnmsAlarm alarm} on only interesting fields for
-     * logical equality. The interesting fields we are comparing are the fields we care about triggering a re-index for.
-     * If any of the interesting fields are unequal that will cause us to re-index the alarm.
-     *
-     * @param document the document to compare
-     * @param alarm    the alarm to compare
-     * @return whether or not the interesting fields are logically equal
+     * Routes the given documents to the shard of their alarm, in batches limited by the configured batch size.
      */
-    private boolean interestingEquals(AlarmDocumentDTO document, OnmsAlarm alarm) {
-        Objects.requireNonNull(document);
-        Objects.requireNonNull(alarm);
-
-        if (document.getStickyMemo() == null && alarm.getStickyMemo() != null) {
-            return false;
+    private void enqueueDocuments(List<AlarmDocumentDTO> alarmDocuments) {
+        if (alarmDocuments.isEmpty()) {
+            return;
         }
-
-        if (document.getJournalMemo() == null && alarm.getReductionKeyMemo() != null) {
-            return false;
+        final Map<Integer, List<AlarmDocumentDTO>> documentsByShard = alarmDocuments.stream()
+                .collect(Collectors.groupingBy(doc -> getShard(doc.getId()), LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<Integer, List<AlarmDocumentDTO>> entry : documentsByShard.entrySet()) {
+            for (List<AlarmDocumentDTO> partition : Lists.partition(entry.getValue(), batchSize)) {
+                taskQueues.get(entry.getKey()).add(new IndexAlarmsTask(new ArrayList<>(partition)));
+            }
         }
+    }
 
-        return Objects.equals(document.getReductionKey(), alarm.getReductionKey()) &&
-                Objects.equals(document.getAckTime(), alarm.getAckTime() == null ? null :
-                        alarm.getAckTime().getTime()) &&
-                Objects.equals(document.getSeverityId(), alarm.getSeverityId()) &&
-                Objects.equals(document.getRelatedAlarmIds(), alarm.getRelatedAlarmIds()) &&
-                Objects.equals(document.getStickyMemo() == null ? null : document.getStickyMemo().getUpdateTime(),
-                        alarm.getStickyMemo() == null ? null : alarm.getStickyMemo().getUpdated() == null ? null :
-                                alarm.getStickyMemo().getUpdated().getTime()) &&
-                Objects.equals(document.getJournalMemo() == null ? null : document.getJournalMemo().getUpdateTime(),
-                        alarm.getReductionKeyMemo() == null ? null :
-                                alarm.getReductionKeyMemo().getUpdated() == null ? null :
-                                        alarm.getReductionKeyMemo().getUpdated().getTime()) &&
-                Objects.equals(document.getTicketStateId(),
-                        alarm.getTTicketState() == null ? null : alarm.getTTicketState().getValue()) &&
-                Objects.equals(document.getSituation(), alarm.isSituation());
+    private int getShard(Integer alarmId) {
+        return alarmId == null ? 0 : Math.floorMod(alarmId, taskQueues.size());
     }
 
     @VisibleForTesting
     Optional<AlarmDocumentDTO> getDocumentIfNeedsIndexing(OnmsAlarm alarm) {
-        final AlarmDocumentDTO existingAlarmDocument = alarmDocumentsById.get(alarm.getId());
+        final IndexedAlarmState indexedState = indexedAlarmStates.get(alarm.getId());
+        final long stateHash = IndexedAlarmState.hash(alarm);
 
         boolean needsIndexing = false;
         if (indexAllUpdates) {
             needsIndexing = true;
-        } else if (existingAlarmDocument == null) {
+        } else if (indexedState == null) {
             needsIndexing = true;
-        } else if (getCurrentTimeMillis() - existingAlarmDocument.getUpdateTime() >= alarmReindexDurationMs) {
+        } else if (getCurrentTimeMillis() - indexedState.getUpdateTime() >= alarmReindexDurationMs) {
             needsIndexing = true;
-        } else if (!interestingEquals(existingAlarmDocument, alarm)) {
+        } else if (indexedState.getStateHash() != stateHash) {
             needsIndexing = true;
         }
 
@@ -479,7 +539,7 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
                 return Optional.empty();
             }
 
-            alarmDocumentsById.put(alarm.getId(), doc);
+            indexedAlarmStates.put(alarm.getId(), new IndexedAlarmState(stateHash, doc.getUpdateTime()));
             return Optional.of(doc);
         }
 
@@ -495,7 +555,31 @@ public class ElasticAlarmIndexer implements AlarmLifecycleListener, Runnable {
     }
 
     public void setBulkRetryCount(int bulkRetryCount) {
-        this.bulkRetryCount = bulkRetryCount;
+        bulkIndexerConfig.setMaxRetries(bulkRetryCount);
+    }
+
+    public void setRetryCooldown(long retryCooldown) {
+        bulkIndexerConfig.setRetryBackoffMs(retryCooldown);
+    }
+
+    public void setBulkMaxInFlight(int bulkMaxInFlight) {
+        bulkIndexerConfig.setMaxInFlight(bulkMaxInFlight);
+    }
+
+    public void setBulkMinBytes(long bulkMinBytes) {
+        bulkIndexerConfig.setMinBulkBytes(bulkMinBytes);
+    }
+
+    public void setBulkMaxBytes(long bulkMaxBytes) {
+        bulkIndexerConfig.setMaxBulkBytes(bulkMaxBytes);
+    }
+
+    public void setBulkInitialBytes(long bulkInitialBytes) {
+        bulkIndexerConfig.setInitialBulkBytes(bulkInitialBytes);
+    }
+
+    public void setBulkTargetLatencyMs(long bulkTargetLatencyMs) {
+        bulkIndexerConfig.setTargetLatencyMs(bulkTargetLatencyMs);
     }
 
     public void setBatchSize(int batchSize) {
@@ -21,6 +21,7 @@
  */
 package org.opennms.features.alarms.history.elastic;
 
+import java.util.Collection;
 import java.util.concurrent.BlockingQueue;
 
 import org.opennms.features.alarms.history.elastic.tasks.Task;
@@ -38,12 +39,12 @@ public class ElasticAlarmMetrics {
     private final Timer bulkDeleteTimer;
     private final Counter tasksFailedCounter;
 
-    public ElasticAlarmMetrics(MetricRegistry metrics, BlockingQueue<Task> taskQueue) {
+    public ElasticAlarmMetrics(MetricRegistry metrics, Collection<? extends BlockingQueue<Task>> taskQueues) {
         bulkIndexSizeHistogram = metrics.histogram("bulk-index-size");
         bulkIndexTimer = metrics.timer("bulk-index-timer");
         bulkDeleteTimer = metrics.timer("bulk-delete-timer");
         tasksFailedCounter = metrics.counter("tasks-failed");
-        metrics.register("task-queue-size", (Gauge<Integer>) taskQueue::size);
+        metrics.register("task-queue-size", (Gauge<Integer>) () -> taskQueues.stream().mapToInt(BlockingQueue::size).sum());
     }
 
     public Histogram getBulkIndexSizeHistogram() {
@@ -0,0 +1,116 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.alarms.history.elastic;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsMemo;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * What the indexer remembers about the last document indexed for an alarm: a hash over the "interesting" fields,
+ * the ones we care about triggering a re-index for, and the time the document was created.
+ *
+ * Comparing hashes lets the indexer skip unchanged alarms without mapping them to documents, and keeps only a
+ * few bytes per alarm in memory instead of the whole document.
+ */
+public class IndexedAlarmState {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final long stateHash;
+    private final long updateTime;
+
+    public IndexedAlarmState(long stateHash, long updateTime) {
+        this.stateHash = stateHash;
+        this.updateTime = updateTime;
+    }
+
+    public long getStateHash() {
+        return stateHash;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * Hashes the interesting fields of the given alarm. Two alarms with the same hash are considered logically equal
+     * for the purpose of indexing.
+     */
+    public static long hash(OnmsAlarm alarm) {
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        putString(hasher, alarm.getReductionKey());
+        putDate(hasher, alarm.getAckTime());
+        putInteger(hasher, alarm.getSeverityId());
+
+        final List<Integer> relatedAlarmIds = new ArrayList<>(alarm.getRelatedAlarmIds());
+        relatedAlarmIds.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+        hasher.putInt(relatedAlarmIds.size());
+        for (Integer relatedAlarmId : relatedAlarmIds) {
+            putInteger(hasher, relatedAlarmId);
+        }
+
+        putMemo(hasher, alarm.getStickyMemo());
+        putMemo(hasher, alarm.getReductionKeyMemo());
+        putInteger(hasher, alarm.getTTicketState() == null ? null : alarm.getTTicketState().getValue());
+        hasher.putBoolean(alarm.isSituation());
+        return hasher.hash().asLong();
+    }
+
+    private static void putMemo(Hasher hasher, OnmsMemo memo) {
+        hasher.putBoolean(memo != null);
+        if (memo != null) {
+            putDate(hasher, memo.getUpdated());
+        }
+    }
+
+    private static void putDate(Hasher hasher, Date date) {
+        hasher.putBoolean(date != null);
+        if (date != null) {
+            hasher.putLong(date.getTime());
+        }
+    }
+
+    private static void putInteger(Hasher hasher, Integer value) {
+        hasher.putBoolean(value != null);
+        if (value != null) {
+            hasher.putInt(value);
+        }
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        hasher.putBoolean(value != null);
+        if (value != null) {
+            hasher.putUnencodedChars(value);
+            // Separate from the next field
+            hasher.putInt(value.length());
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package org.opennms.features.alarms.history.elastic.mapping;
 
 import java.net.InetAddress;
+import java.util.Map;
 import java.util.Optional;
 
 import org.mapstruct.AfterMapping;
@@ -33,15 +34,17 @@ import org.mapstruct.factory.Mappers;
 import org.opennms.core.cache.Cache;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.features.alarms.history.elastic.dto.AlarmDocumentDTO;
+import org.opennms.features.alarms.history.elastic.dto.EventDocumentDTO;
 import org.opennms.features.alarms.history.elastic.dto.NodeDocumentDTO;
 import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
 import org.opennms.netmgt.model.OnmsServiceType;
 import org.opennms.netmgt.model.TroubleTicketState;
 
 /**
  * Used by MapStruct to generate mapping code.
  */
-@Mapper(uses = {EventMapper.class, MemoMapper.class, DateMapper.class})
+@Mapper(uses = {MemoMapper.class, DateMapper.class})
 public interface AlarmMapper {
     @Mapping(source = "TTicketId", target = "ticketId")
     @Mapping(source = "TTicketState", target = "ticketStateId")
@@ -56,6 +59,19 @@ public interface AlarmMapper {
     @Mapping(ignore = true, target = "node")
     AlarmDocumentDTO map(OnmsAlarm alarm, @Context MappingContext mappingContext);
     
+    default EventDocumentDTO mapEvent(OnmsEvent event, @Context MappingContext mappingContext) {
+        if (event == null) {
+            return null;
+        }
+        // Events don't change once they are stored, so the documents can be shared by all of the alarms
+        // referencing the same event and by subsequent updates of these alarms
+        if (event.getId() == null) {
+            return Mappers.getMapper(EventMapper.class).map(event);
+        }
+        return mappingContext.getEventDocumentCache().computeIfAbsent(event.getId(),
+                id -> Mappers.getMapper(EventMapper.class).map(event));
+    }
+
     default String mapIpAddressToString(InetAddress ipAddress) {
         return ipAddress == null ? null : InetAddressUtils.str(ipAddress);
     }
@@ -98,6 +114,8 @@ public interface AlarmMapper {
     interface MappingContext {
         Cache<Integer, Optional<NodeDocumentDTO>> getNodeInfoCache();
 
+        Map<Integer, EventDocumentDTO> getEventDocumentCache();
+
         long getCurrentTime();
     }
 }
@@ -21,6 +21,7 @@
  */
 package org.opennms.features.alarms.history.elastic.mapping;
 
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.LongSupplier;
@@ -29,23 +30,38 @@ import org.mapstruct.factory.Mappers;
 import org.opennms.core.cache.Cache;
 import org.opennms.features.alarms.history.elastic.dto.AlarmDocumentDTO;
 import org.opennms.features.alarms.history.elastic.dto.AlarmDocumentFactory;
+import org.opennms.features.alarms.history.elastic.dto.EventDocumentDTO;
 import org.opennms.features.alarms.history.elastic.dto.NodeDocumentDTO;
 import org.opennms.netmgt.model.OnmsAlarm;
 
+import com.google.common.cache.CacheBuilder;
+
 /**
  * A mapper that delegates mapping logic to MapStruct mappers to generate elasticsearch
  * DTO objects.
  */
 public class MapStructDocumentImpl implements Function<OnmsAlarm, AlarmDocumentDTO>, AlarmDocumentFactory,
         AlarmMapper.MappingContext {
+    public static final long DEFAULT_EVENT_DOCUMENT_CACHE_SIZE = 10000;
+
     private static final AlarmMapper alarmMapper = Mappers.getMapper(AlarmMapper.class);
     private final Cache<Integer, Optional<NodeDocumentDTO>> nodeInfoCache;
     private final LongSupplier currentTime;
+    private final Map<Integer, EventDocumentDTO> eventDocumentCache;
 
     public MapStructDocumentImpl(Cache<Integer, Optional<NodeDocumentDTO>> nodeInfoCache,
                                  LongSupplier currentTime) {
+        this(nodeInfoCache, currentTime, DEFAULT_EVENT_DOCUMENT_CACHE_SIZE);
+    }
+
+    public MapStructDocumentImpl(Cache<Integer, Optional<NodeDocumentDTO>> nodeInfoCache,
+                                 LongSupplier currentTime, long eventDocumentCacheSize) {
         this.nodeInfoCache = nodeInfoCache;
         this.currentTime = currentTime;
+        this.eventDocumentCache = CacheBuilder.newBuilder()
+                .maximumSize(eventDocumentCacheSize)
+                .<Integer, EventDocumentDTO>build()
+                .asMap();
     }
 
     @Override
@@ -70,6 +86,11 @@ public class MapStructDocumentImpl implements Function<OnmsAlarm, AlarmDocumentD
         return nodeInfoCache;
     }
 
+    @Override
+    public Map<Integer, EventDocumentDTO> getEventDocumentCache() {
+        return eventDocumentCache;
+    }
+
     @Override
     public long getCurrentTime() {
         return currentTime.getAsLong();
@@ -23,19 +23,35 @@ package org.opennms.features.alarms.history.elastic.tasks;
 
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Marks the alarms which are no longer present as deleted.
+ *
+ * When the indexer is sharded, the same task is queued on every shard. Each shard visits it once all of its earlier
+ * tasks are done, and only the last one to do so performs the delete. By then every document queued before the task
+ * has been indexed, regardless of the shard it was routed to.
+ */
 public class BulkDeleteTask implements Task {
 
     private final Set<Integer> alarmIdsToKeep;
     private final long deletedAt;
+    private final AtomicInteger pendingShards;
 
     public BulkDeleteTask(Set<Integer> alarmIdsToKeep, long deletedAt) {
+        this(alarmIdsToKeep, deletedAt, 1);
+    }
+
+    public BulkDeleteTask(Set<Integer> alarmIdsToKeep, long deletedAt, int numShards) {
         this.alarmIdsToKeep = Objects.requireNonNull(alarmIdsToKeep);
         this.deletedAt = deletedAt;
+        this.pendingShards = new AtomicInteger(numShards);
     }
 
     @Override
     public void visit(TaskVisitor visitor) {
-        visitor.deleteAlarmsWithoutIdsIn(alarmIdsToKeep, deletedAt);
+        if (pendingShards.decrementAndGet() == 0) {
+            visitor.deleteAlarmsWithoutIdsIn(alarmIdsToKeep, deletedAt);
+        }
     }
 }
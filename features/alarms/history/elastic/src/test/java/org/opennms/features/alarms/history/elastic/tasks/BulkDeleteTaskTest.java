@@ -0,0 +1,64 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.alarms.history.elastic.tasks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.features.alarms.history.elastic.dto.AlarmDocumentDTO;
+
+public class BulkDeleteTaskTest {
+
+    @Test
+    public void canDeleteOnceAllShardsVisited() {
+        final AtomicInteger deletes = new AtomicInteger();
+        final TaskVisitor visitor = new TaskVisitor() {
+            @Override
+            public void indexAlarms(List<AlarmDocumentDTO> docs) {
+                // pass
+            }
+
+            @Override
+            public void deleteAlarmsWithoutIdsIn(Set<Integer> alarmIdsToKeep, long time) {
+                deletes.incrementAndGet();
+            }
+        };
+
+        final BulkDeleteTask task = new BulkDeleteTask(Collections.singleton(1), 42L, 3);
+        task.visit(visitor);
+        task.visit(visitor);
+        assertEquals(0, deletes.get());
+
+        // The last shard performs the delete
+        task.visit(visitor);
+        assertEquals(1, deletes.get());
+
+        // Without shards, the delete is performed right away
+        new BulkDeleteTask(Collections.singleton(1), 42L).visit(visitor);
+        assertEquals(2, deletes.get());
+    }
+}
@@ -45,6 +45,8 @@ public class LatencyCollectionResource implements CollectionResource {
 
     private final Map<String, String> m_serviceParams = Maps.newHashMap();
 
+    private TimeKeeper m_timeKeeper;
+
     /**
      * <p>Constructor for LatencyCollectionResource.</p>
      *
@@ -103,6 +105,15 @@ public class LatencyCollectionResource implements CollectionResource {
         return m_ipAddress;
     }
 
+    /**
+     * <p>getLocation</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getLocation() {
+        return m_location;
+    }
+
     /**
      * <p>getLabel</p>
      *
@@ -206,7 +217,17 @@ public class LatencyCollectionResource implements CollectionResource {
 
     @Override
     public TimeKeeper getTimeKeeper() {
-        return null;
+        return m_timeKeeper;
+    }
+
+    /**
+     * Sets the time keeper used to timestamp the samples when they are
+     * persisted some time after they were collected.
+     *
+     * @param timeKeeper a {@link org.opennms.netmgt.collection.api.TimeKeeper} object or null to use the current time.
+     */
+    public void setTimeKeeper(TimeKeeper timeKeeper) {
+        m_timeKeeper = timeKeeper;
     }
 
     @Override
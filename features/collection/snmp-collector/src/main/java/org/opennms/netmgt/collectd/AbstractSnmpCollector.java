@@ -176,6 +176,8 @@ public abstract class AbstractSnmpCollector extends AbstractServiceCollector {
 
     protected LocationAwareSnmpClient m_client;
 
+    protected SnmpAgentWalkCoalescer m_walkCoalescer;
+
     /**
      * Returns the name of the service that the plug-in collects ("SNMP").
      *
@@ -188,6 +190,13 @@ public abstract class AbstractSnmpCollector extends AbstractServiceCollector {
     @Override
     public void initialize() {
     	initSnmpPeerFactory();
+    	if (m_walkCoalescer == null) {
+    	    m_walkCoalescer = new SnmpAgentWalkCoalescer(Long.getLong(SnmpAgentWalkCoalescer.WINDOW_PROPERTY, 0L));
+    	}
+    }
+
+    public void setWalkCoalescer(SnmpAgentWalkCoalescer walkCoalescer) {
+        m_walkCoalescer = walkCoalescer;
     }
 
     private void initSnmpPeerFactory() {
@@ -21,9 +21,12 @@
  */
 package org.opennms.netmgt.collectd;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.opennms.netmgt.config.datacollection.MibObject;
 import org.opennms.netmgt.snmp.AbstractSnmpStore;
@@ -41,9 +44,11 @@ import org.slf4j.LoggerFactory;
  *
  * <P>
  * An instance of this class is created by calling the constructor and passing a
- * list of SnmpVarBindDTO objects from an SNMP PDU response. This class extends
- * java.util.TreeMap which is used to store each of the collected data points
- * indexed by object identifier.
+ * list of SnmpVarBindDTO objects from an SNMP PDU response. The collected values
+ * are handed to the attribute types matching their object identifier, the
+ * attribute types are indexed by object identifier up front so a result is
+ * dispatched without scanning the whole list. Only the ifIndex and the ifAlias
+ * are kept in the store, they are the only values read back from the entry.
  * </P>
  *
  * @author <A>Jon Whetzel </A>
@@ -55,11 +60,13 @@ public final class SNMPCollectorEntry extends AbstractSnmpStore {
     
     private static final Logger LOG = LoggerFactory.getLogger(SNMPCollectorEntry.class);
     
+    private static final SnmpObjId IFALIAS_OID = SnmpObjId.get(AbstractSnmpCollector.IFALIAS_OID);
+
     /**
-     * The list of MIBObjects that will used for associating the the data within
-     * the map.
+     * The MIBObjects that will used for associating the the data, indexed by
+     * object identifier.
      */
-    private Collection<SnmpAttributeType> m_attrList;
+    private final Map<SnmpObjId, List<SnmpAttributeType>> m_attrTypesByOid;
     private SnmpCollectionSet m_collectionSet;
 
     /**
@@ -70,41 +77,79 @@ public final class SNMPCollectorEntry extends AbstractSnmpStore {
      */
     public SNMPCollectorEntry(Collection<SnmpAttributeType> attrList, SnmpCollectionSet collectionSet) {
         super();
+        m_attrTypesByOid = indexByOid(attrList);
+        m_collectionSet = collectionSet;
+    }
+
+    /**
+     * <p>Constructor for SNMPCollectorEntry.</p>
+     *
+     * @param attrTypesByOid the attribute types indexed by object identifier, see {@link #indexByOid(Collection)}
+     * @param collectionSet a {@link org.opennms.netmgt.collectd.SnmpCollectionSet} object.
+     */
+    SNMPCollectorEntry(Map<SnmpObjId, List<SnmpAttributeType>> attrTypesByOid, SnmpCollectionSet collectionSet) {
+        super();
+        m_attrTypesByOid = attrTypesByOid;
+        m_collectionSet = collectionSet;
+    }
+
+    /**
+     * Indexes the attribute types by object identifier, the index can be shared
+     * by all of the entries of a collection.
+     *
+     * @param attrList a {@link java.util.Collection} object.
+     * @return the attribute types indexed by object identifier
+     */
+    static Map<SnmpObjId, List<SnmpAttributeType>> indexByOid(Collection<SnmpAttributeType> attrList) {
         if (attrList == null) {
             throw new NullPointerException("attrList is null!");
         }
-        m_attrList = attrList;
-        m_collectionSet = collectionSet;
+        final Map<SnmpObjId, List<SnmpAttributeType>> attrTypesByOid = new HashMap<>();
+        for (SnmpAttributeType attrType : attrList) {
+            attrTypesByOid.computeIfAbsent(attrType.getSnmpObjId(), k -> new ArrayList<>(1)).add(attrType);
+        }
+        return Collections.unmodifiableMap(attrTypesByOid);
     }
 
-
     private List<SnmpAttributeType> findAttributeTypeForOid(SnmpObjId base, SnmpInstId inst) {
-        List<SnmpAttributeType> matching = new LinkedList<>();
-        for (SnmpAttributeType attrType : m_attrList) {
+        final List<SnmpAttributeType> candidates = m_attrTypesByOid.get(base);
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        List<SnmpAttributeType> matching = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            final SnmpAttributeType attrType = candidates.get(i);
             if (attrType.matches(base, inst)) {
+                if (matching == null) {
+                    if (candidates.size() == 1) {
+                        return candidates;
+                    }
+                    matching = new ArrayList<>(candidates.size());
+                }
                 matching.add(attrType);
             }
         }
-        return matching;
+        return matching == null ? Collections.emptyList() : matching;
     }
 
 
     /** {@inheritDoc} */
     @Override
     public void storeResult(SnmpResult res) {
-        String key = res.getAbsoluteInstance().toString();
-        putValue(key, res.getValue());
+        if (IFALIAS_OID.equals(res.getBase())) {
+            putValue(res.getAbsoluteInstance().toString(), res.getValue());
+        }
         List<SnmpAttributeType> attrTypes = findAttributeTypeForOid(res.getBase(), res.getInstance());
         if (attrTypes.isEmpty()) {
         	throw new IllegalArgumentException("Received result for unexpected oid ["+res.getBase()+"].["+res.getInstance()+"]");
         }
         
         for (SnmpAttributeType attrType : attrTypes) {
-            if (attrType.getInstance().equals(MibObject.INSTANCE_IFINDEX)) {
+            if (attrType.getInstance().equals(MibObject.INSTANCE_IFINDEX) && getValue(IFINDEX) == null) {
                 putIfIndex(res.getInstance().toInt());
             }
             attrType.storeResult(m_collectionSet, this, res);
-            LOG.debug("storeResult: added value for {}: {}", attrType.getAlias(), res.toString());
+            LOG.debug("storeResult: added value for {}: {}", attrType.getAlias(), res);
         }
     }
 
@@ -0,0 +1,234 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.collectd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <P>
+ * Merges the walks of all collection sets that target the same agent within a
+ * short window into a single walk.
+ * </P>
+ * <P>
+ * Collectd schedules one service per interface and package, and every one of
+ * them walks its own trackers. When the window is enabled the trackers that
+ * are submitted for the same agent and location while a walk is pending are
+ * combined with {@link AggregateTracker#combine}, so their OIDs share PDUs.
+ * The trackers are not reparented. Once the walk completes every caller gets
+ * back its own tracker, which has been fed the responses for its OIDs, and
+ * builds its collection set as before.
+ * </P>
+ * <P>
+ * A coalescer is created by the SNMP collector and handed to its collection
+ * sets. The collector reads the window in milliseconds from the
+ * <code>org.opennms.netmgt.collectd.SnmpCollector.agentWalkWindow</code>
+ * system property, which defaults to 0 and walks every collection set on its
+ * own.
+ * </P>
+ */
+public class SnmpAgentWalkCoalescer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpAgentWalkCoalescer.class);
+
+    public static final String WINDOW_PROPERTY = "org.opennms.netmgt.collectd.SnmpCollector.agentWalkWindow";
+
+    private final long m_window;
+
+    private final Map<AgentKey, PendingWalk> m_pending = new ConcurrentHashMap<>();
+
+    private volatile ScheduledExecutorService m_executor;
+
+    /**
+     * @param window time in milliseconds during which the walks for the same agent are merged, 0 to disable merging
+     */
+    public SnmpAgentWalkCoalescer(long window) {
+        m_window = window;
+    }
+
+    public boolean isEnabled() {
+        return m_window > 0;
+    }
+
+    /**
+     * Walks the given tracker, possibly together with the trackers of other
+     * collection sets that target the same agent.
+     *
+     * @return a future that completes with the given tracker once its OIDs were walked
+     */
+    public <T extends CollectionTracker> CompletableFuture<T> walk(LocationAwareSnmpClient client, SnmpAgentConfig agentConfig, String location,
+            String description, Long ttl, T tracker) {
+        if (!isEnabled()) {
+            return client.walk(agentConfig, tracker)
+                    .withDescription(description)
+                    .withLocation(location)
+                    .withTimeToLive(ttl)
+                    .execute();
+        }
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final AgentKey key = new AgentKey(agentConfig, location);
+        m_pending.compute(key, (k, pending) -> {
+            if (pending == null) {
+                pending = new PendingWalk(client, agentConfig, location, description);
+                final PendingWalk walk = pending;
+                getExecutor().schedule(() -> dispatch(k, walk), m_window, TimeUnit.MILLISECONDS);
+            }
+            pending.add(tracker, ttl, future);
+            return pending;
+        });
+        return future;
+    }
+
+    private void dispatch(AgentKey key, PendingWalk walk) {
+        // No trackers can be added to the walk once it was removed
+        m_pending.compute(key, (k, pending) -> pending == walk ? null : pending);
+
+        final CollectionTracker tracker;
+        if (walk.m_trackers.size() == 1) {
+            tracker = walk.m_trackers.get(0);
+        } else {
+            LOG.debug("dispatch: merging the walks of {} collection sets for {} at location {}", walk.m_trackers.size(),
+                    walk.m_agentConfig.getAddress(), walk.m_location);
+            tracker = AggregateTracker.combine(walk.m_trackers);
+        }
+
+        try {
+            walk.m_client.walk(walk.m_agentConfig, tracker)
+                .withDescription(walk.m_description)
+                .withLocation(walk.m_location)
+                .withTimeToLive(walk.m_ttl)
+                .execute()
+                .whenComplete((result, ex) -> walk.complete(ex));
+        } catch (Throwable t) {
+            walk.complete(t);
+        }
+    }
+
+    /**
+     * Stops the thread that dispatches the merged walks.
+     */
+    public synchronized void destroy() {
+        if (m_executor != null) {
+            m_executor.shutdown();
+            m_executor = null;
+        }
+    }
+
+    private ScheduledExecutorService getExecutor() {
+        ScheduledExecutorService executor = m_executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = m_executor;
+                if (executor == null) {
+                    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                        final Thread t = new Thread(r, "SnmpAgentWalkCoalescer");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    m_executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static class AgentKey {
+        private final SnmpAgentConfig m_agentConfig;
+        private final String m_location;
+
+        private AgentKey(SnmpAgentConfig agentConfig, String location) {
+            m_agentConfig = agentConfig;
+            m_location = location;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_agentConfig, m_location);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof AgentKey)) {
+                return false;
+            }
+            final AgentKey other = (AgentKey) obj;
+            return Objects.equals(m_agentConfig, other.m_agentConfig)
+                    && Objects.equals(m_location, other.m_location);
+        }
+    }
+
+    private static class PendingWalk {
+        private final LocationAwareSnmpClient m_client;
+        private final SnmpAgentConfig m_agentConfig;
+        private final String m_location;
+        private final String m_description;
+        private final List<CollectionTracker> m_trackers = new ArrayList<>();
+        private final List<CompletableFuture<? extends CollectionTracker>> m_futures = new ArrayList<>();
+        private Long m_ttl;
+
+        private PendingWalk(LocationAwareSnmpClient client, SnmpAgentConfig agentConfig, String location, String description) {
+            m_client = client;
+            m_agentConfig = agentConfig;
+            m_location = location;
+            m_description = description;
+        }
+
+        private void add(CollectionTracker tracker, Long ttl, CompletableFuture<? extends CollectionTracker> future) {
+            m_trackers.add(tracker);
+            m_futures.add(future);
+            // Give the merged walk as much time as the most patient caller
+            if (ttl != null && (m_ttl == null || ttl > m_ttl)) {
+                m_ttl = ttl;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Throwable ex) {
+            for (int i = 0; i < m_futures.size(); i++) {
+                final CompletableFuture<CollectionTracker> future = (CompletableFuture<CollectionTracker>) m_futures.get(i);
+                if (ex != null) {
+                    future.completeExceptionally(ex);
+                } else {
+                    future.complete(m_trackers.get(i));
+                }
+            }
+        }
+    }
+}
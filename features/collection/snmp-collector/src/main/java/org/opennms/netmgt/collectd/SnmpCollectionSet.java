@@ -86,6 +86,8 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
     private SnmpCollectionAgent m_agent;
     private final OnmsSnmpCollection m_snmpCollection;
     private final LocationAwareSnmpClient m_client;
+
+    private SnmpAgentWalkCoalescer m_walkCoalescer;
     private SnmpIfCollector m_ifCollector;
     private IfNumberTracker m_ifNumber;
     private SysUpTimeTracker m_sysUpTime;
@@ -142,6 +144,14 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
         m_client = Objects.requireNonNull(client);
     }
 
+    /**
+     * Sets the coalescer used to merge the walk of this collection set with the walks
+     * of other collection sets for the same agent. Without one the tracker is walked directly.
+     */
+    public void setWalkCoalescer(SnmpAgentWalkCoalescer walkCoalescer) {
+        m_walkCoalescer = walkCoalescer;
+    }
+
     /**
      * <p>getIfCollector</p>
      *
@@ -367,11 +377,18 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
             CollectionAgent agent = getCollectionAgent();
             logStartedWalker();
 
-            CompletableFuture<CollectionTracker> future = m_client.walk(getAgentConfig(), getTracker())
-                .withDescription("SnmpCollectors for " + agent.getHostAddress())
-                .withLocation(getCollectionAgent().getLocationName())
-                .withTimeToLive(m_snmpCollection.getServiceParameters().getTTL())
-                .execute();
+            final CompletableFuture<CollectionTracker> future;
+            if (m_walkCoalescer != null) {
+                future = m_walkCoalescer.walk(m_client, getAgentConfig(),
+                        getCollectionAgent().getLocationName(), "SnmpCollectors for " + agent.getHostAddress(),
+                        m_snmpCollection.getServiceParameters().getTTL(), getTracker());
+            } else {
+                future = m_client.walk(getAgentConfig(), getTracker())
+                    .withDescription("SnmpCollectors for " + agent.getHostAddress())
+                    .withLocation(getCollectionAgent().getLocationName())
+                    .withTimeToLive(m_snmpCollection.getServiceParameters().getTTL())
+                    .execute();
+            }
 
             // wait for collection to finish
             try {
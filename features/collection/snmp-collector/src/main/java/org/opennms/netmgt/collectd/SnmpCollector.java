@@ -72,6 +72,7 @@ public class SnmpCollector extends AbstractSnmpCollector {
             final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
 
             SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
+            collectionSet.setWalkCoalescer(m_walkCoalescer);
             collectionSet.setCollectionTimestamp(new Date());
             if (!collectionSet.hasDataToCollect()) {
                 LOG.info("agent {} defines no data to collect.  Skipping.", agent);
@@ -72,6 +72,7 @@ public class SnmpCollectorNG extends AbstractSnmpCollector {
             final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
 
             SnmpCollectionSet collectionSet = new SnmpCollectionSet((SnmpCollectionAgent)agent, snmpCollection, snmpCollection.getClient());
+            collectionSet.setWalkCoalescer(m_walkCoalescer);
 
             collectionSet.setCollectionTimestamp(new Date());
             if (!collectionSet.hasDataToCollect()) {
@@ -33,6 +33,7 @@ import org.opennms.netmgt.snmp.AggregateTracker;
 import org.opennms.netmgt.snmp.ErrorStatus;
 import org.opennms.netmgt.snmp.ErrorStatusException;
 import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,8 +61,12 @@ public class SnmpIfCollector extends AggregateTracker {
      */
     private String m_primaryIf;
 
+    private static final SnmpObjId IFALIAS_OID = SnmpObjId.get(AbstractSnmpCollector.IFALIAS_OID);
+
     private List<SnmpAttributeType> m_objList;
 
+    private Map<SnmpObjId, List<SnmpAttributeType>> m_attrTypesByOid;
+
     private SnmpCollectionSet m_collectionSet;
     
     /**
@@ -110,6 +115,7 @@ public class SnmpIfCollector extends AggregateTracker {
         //
         m_primaryIf = InetAddressUtils.str(address);
         m_objList = objList;
+        m_attrTypesByOid = SNMPCollectorEntry.indexByOid(objList);
         m_collectionSet = collectionSet;
     }
 
@@ -154,14 +160,14 @@ public class SnmpIfCollector extends AggregateTracker {
     /** {@inheritDoc} */
     @Override
     protected void storeResult(SnmpResult res) {
-        if(res.getBase().toString().equals(AbstractSnmpCollector.IFALIAS_OID) && (res.getValue().isNull() || res.getValue().toDisplayString() == null || res.getValue().toDisplayString().equals(""))) {
+        if(IFALIAS_OID.equals(res.getBase()) && (res.getValue().isNull() || res.getValue().toDisplayString() == null || res.getValue().toDisplayString().equals(""))) {
             LOG.debug("Skipping storeResult. Null or zero length ifAlias");
             return;
         }
         SNMPCollectorEntry entry = m_results.get(res.getInstance());
         if (entry == null) {
             LOG.debug("Creating new SNMPCollectorEntry entry");
-            entry = new SNMPCollectorEntry(m_objList, m_collectionSet);
+            entry = new SNMPCollectorEntry(m_attrTypesByOid, m_collectionSet);
             m_results.put(res.getInstance(), entry);
         }
         entry.storeResult(res);
@@ -27,12 +27,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.jexl2.ExpressionImpl;
 import org.apache.commons.jexl2.MapContext;
 import org.opennms.core.mate.api.EmptyScope;
 import org.opennms.core.mate.api.Interpolator;
 import org.opennms.core.mate.api.Scope;
+import org.opennms.core.utils.jexl.CompiledExpression;
 import org.opennms.core.utils.jexl.OnmsJexlEngine;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
@@ -47,9 +50,18 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * Upper bound on the number of interpolated expressions kept compiled per threshold.
+     */
+    private static final int MAX_COMPILED_EXPRESSIONS = 1024;
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
     private final OnmsJexlEngine jexlEngine;
+    private final CompiledExpression.Compiler compiler = new CompiledExpression.Compiler()
+            .withMathVariable("math")
+            .withMapVariable("datasources");
+    private final Map<String, Optional<CompiledExpression>> compiledExpressions = new ConcurrentHashMap<>();
 
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
@@ -150,6 +162,19 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
      * Evaluate given an already interpolated expression that contains no mate data.
      */
     public double evaluate(String expression, Map<String, Double> values) throws ThresholdExpressionException {
+        // Avoid the interpreter for the expressions that can be compiled
+        final Optional<CompiledExpression> compiled = getCompiledExpression(expression);
+        if (compiled.isPresent()) {
+            final double[] args = getArguments(compiled.get(), values);
+            if (args != null) {
+                try {
+                    return compiled.get().evaluate(args);
+                } catch (ArithmeticException e) {
+                    // Let JEXL report the error
+                }
+            }
+        }
+
         // Add all of the variable values to the script context
         Map<String, Object> context = new HashMap<>(values);
         context.put("datasources", new HashMap<>(values)); // To workaround NMS-5019
@@ -165,6 +190,33 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         return result;
     }
 
+    private Optional<CompiledExpression> getCompiledExpression(String expression) {
+        final Optional<CompiledExpression> compiled = compiledExpressions.get(expression);
+        if (compiled != null) {
+            return compiled;
+        }
+        if (compiledExpressions.size() >= MAX_COMPILED_EXPRESSIONS) {
+            compiledExpressions.clear();
+        }
+        return compiledExpressions.computeIfAbsent(expression, compiler::compile);
+    }
+
+    /**
+     * @return the values of the variables of the compiled expression, or null if any of them is missing
+     */
+    private static double[] getArguments(CompiledExpression compiled, Map<String, Double> values) {
+        final List<String> variables = compiled.getVariables();
+        final double[] args = new double[variables.size()];
+        for (int i = 0; i < args.length; i++) {
+            final Double value = values.get(variables.get(i));
+            if (value == null) {
+                return null;
+            }
+            args[i] = value;
+        }
+        return args;
+    }
+
     /**
      * Evaluate with un-interpolated expression that may contain mate data, meaning we need to interpolate it first. The
      * interpolation should happen once here and future calls to evaluate should use the resulting interpolated value.
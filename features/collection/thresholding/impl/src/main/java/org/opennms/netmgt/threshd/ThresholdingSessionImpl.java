@@ -97,7 +97,13 @@ public class ThresholdingSessionImpl implements ThresholdingSession {
         } else if (thresholdingVisitor.hasThresholds()) {
             thresholdingVisitor.setCounterReset(collectionSet.ignorePersist()); // Required to reinitialize the counters.
 
-            collectionSet.visit(thresholdingVisitor);
+            // Send the events of the whole set at once, and make sure they are not lost if the visit is aborted
+            thresholdingVisitor.queueEvents();
+            try {
+                collectionSet.visit(thresholdingVisitor);
+            } finally {
+                thresholdingVisitor.flushEvents();
+            }
         }
     }
 
@@ -34,6 +34,7 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -41,6 +42,7 @@ import java.util.stream.Collectors;
 
 import org.opennms.core.mate.api.EntityScopeProvider;
 import org.opennms.core.mate.api.Interpolator;
+import org.opennms.core.mate.api.Scope;
 import org.opennms.netmgt.collectd.AliasedResource;
 import org.opennms.netmgt.collection.api.CollectionAttribute;
 import org.opennms.netmgt.collection.api.CollectionResource;
@@ -60,6 +62,8 @@ import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
+
 /**
  * <p>Abstract ThresholdingSet class.</p>
  *
@@ -69,6 +73,11 @@ public class ThresholdingSetImpl implements ThresholdingSet {
 
     private static final Logger LOG = LoggerFactory.getLogger(ThresholdingSetImpl.class);
 
+    /**
+     * Upper bound for the number of compiled resource filter patterns kept per set.
+     */
+    private static final int MAX_FILTER_PATTERNS = 1024;
+
     protected final int m_nodeId;
     protected final String m_hostAddress;
     protected final String m_serviceName;
@@ -92,6 +101,12 @@ public class ThresholdingSetImpl implements ThresholdingSet {
     private final IfLabel m_ifLabelDao;
     private final EntityScopeProvider m_entityScopeProvider;
 
+    /*
+     * Resource filters are evaluated for every resource of every collection, so the (interpolated)
+     * regular expressions are only compiled once. Cleared when the configuration is reloaded.
+     */
+    private final Map<String, Pattern> m_filterPatterns = new ConcurrentHashMap<>();
+
     public ThresholdingSetImpl(int nodeId, String hostAddress, String serviceName, ServiceParameters svcParams,
                                ThresholdingEventProxy eventProxy, ThresholdingSession thresholdingSession, ReadableThreshdDao threshdDao,
                                ReadableThresholdingDao thresholdingDao, ReadablePollOutagesDao pollOutagesDao,
@@ -143,6 +158,7 @@ public class ThresholdingSetImpl implements ThresholdingSet {
     @Override
     public void reinitialize() {
         m_initialized = false;
+        m_filterPatterns.clear();
 
         final boolean hasThresholds = m_hasThresholds;
         final List<ThresholdGroup> thresholdGroups = new ArrayList<>(m_thresholdGroups);
@@ -258,11 +274,19 @@ public class ThresholdingSetImpl implements ThresholdingSet {
             LOG.debug("applyThresholds: Ignoring resource {} because required attributes map is empty.", resourceWrapper);
             return eventsList;
         }
+        // Check Valid Interface Resource based on suggestions from Bug 2711
+        if (resourceWrapper.isAnInterfaceResource() && !resourceWrapper.isValidInterfaceResource()) {
+            LOG.info("applyThresholds: Could not get data interface information for '{}' or this interface has an invalid ifIndex.  Not evaluating thresholds.",
+                     resourceWrapper.getIfLabel());
+            return eventsList;
+        }
         // compute scope here, see NMS-16966
         final var scope = ThresholdEntity.getScopeForResource(m_entityScopeProvider, resourceWrapper);
 
         LOG.debug("applyThresholds: Applying thresholds on {} using {} attributes.", resourceWrapper, attributesMap.size());
         Date date = new Date();
+        // Data sources are shared by many thresholds of the same resource, so each one is only resolved once
+        final Map<String, Double> resolvedValues = new HashMap<>();
         synchronized(m_thresholdGroups) {
             for (ThresholdGroup group : m_thresholdGroups) {
                 Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceWrapper.getResourceTypeName());
@@ -271,14 +295,20 @@ public class ThresholdingSetImpl implements ThresholdingSet {
                         final String key = entry.getKey();
                         final Set<ThresholdEntity> value = entry.getValue();
                         for (final ThresholdEntity thresholdEntity : value) {
-                            if (passedThresholdFilters(resourceWrapper, thresholdEntity)) {
+                            if (passedThresholdFilters(resourceWrapper, thresholdEntity, scope)) {
                                 LOG.info("applyThresholds: Processing threshold {} : {} on resource {}", key, thresholdEntity, resourceWrapper);
                                 Collection<String> requiredDatasources = thresholdEntity.getThresholdConfig().getRequiredDatasources();
                                 final Map<String, Double> values = new HashMap<String,Double>();
                                 boolean valueMissing = false;
                                 boolean relaxed = thresholdEntity.getThresholdConfig().getBasethresholddef().getRelaxed();
                                 for(final String ds : requiredDatasources) {
-                                    final Double dsValue = resourceWrapper.getAttributeValue(ds);
+                                    final Double dsValue;
+                                    if (resolvedValues.containsKey(ds)) {
+                                        dsValue = resolvedValues.get(ds);
+                                    } else {
+                                        dsValue = resourceWrapper.getAttributeValue(ds);
+                                        resolvedValues.put(ds, dsValue);
+                                    }
                                     if(dsValue == null) {
                                         LOG.info("applyThresholds: Could not get data source value for '{}', {}", ds, (relaxed ? "but the expression will be evaluated (relaxed mode enabled)" : "not evaluating threshold"));
                                         valueMissing = true;
@@ -316,8 +346,10 @@ public class ThresholdingSetImpl implements ThresholdingSet {
         }
 
         // compute scope here, see NMS-16966
-        final var scope = ThresholdEntity.getScopeForResource(m_entityScopeProvider, resource);
+        return passedThresholdFilters(resource, thresholdEntity, ThresholdEntity.getScopeForResource(m_entityScopeProvider, resource));
+    }
 
+    private boolean passedThresholdFilters(CollectionResourceWrapper resource, ThresholdEntity thresholdEntity, Scope scope) {
         // Find the filters for threshold definition for selected group/dataSource
         final List<ResourceFilter> filters = thresholdEntity.getThresholdConfig().getBasethresholddef().getResourceFilters();
         if (filters.size() == 0) return true;
@@ -334,7 +366,7 @@ public class ThresholdingSetImpl implements ThresholdingSet {
             String attr = resource.getFieldValue(Interpolator.interpolate(f.getField(), scope).output);
             if (attr != null) {
                 try {
-                    final Pattern p = Pattern.compile(f.getContent().map(s -> Interpolator.interpolate(s, scope).output).orElse(""));
+                    final Pattern p = getFilterPattern(f.getContent().map(s -> Interpolator.interpolate(s, scope).output).orElse(""));
                     final Matcher m = p.matcher(attr);
                     boolean pass = m.matches();
                     LOG.debug("passedThresholdFilters: the value of {} is {}. Pass filter? {}", f.getField(), attr, pass);
@@ -363,6 +395,22 @@ public class ThresholdingSetImpl implements ThresholdingSet {
         return false;
     }
 
+    @VisibleForTesting
+    Set<String> getCachedFilterPatterns() {
+        return Collections.unmodifiableSet(m_filterPatterns.keySet());
+    }
+
+    private Pattern getFilterPattern(String regex) {
+        final Pattern pattern = m_filterPatterns.get(regex);
+        if (pattern != null) {
+            return pattern;
+        }
+        if (m_filterPatterns.size() >= MAX_FILTER_PATTERNS) {
+            m_filterPatterns.clear();
+        }
+        return m_filterPatterns.computeIfAbsent(regex, Pattern::compile);
+    }
+
     protected final void initThresholdsDao() throws ThresholdInitializationException {
         if (!m_initialized) {
             LOG.debug("initThresholdsDao: Initializing Factories and DAOs");
@@ -21,6 +21,7 @@
  */
 package org.opennms.netmgt.threshd;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -32,10 +33,12 @@ import org.opennms.netmgt.collection.api.CollectionAttribute;
 import org.opennms.netmgt.collection.api.CollectionResource;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.support.AbstractCollectionSetVisitor;
+import org.opennms.netmgt.events.api.EventProxyException;
 import org.opennms.netmgt.threshd.api.ThresholdInitializationException;
 import org.opennms.netmgt.threshd.api.ThresholdingEventProxy;
 import org.opennms.netmgt.threshd.api.ThresholdingVisitor;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,6 +81,12 @@ public class ThresholdingVisitorImpl extends AbstractCollectionSetVisitor implem
     
     private final Long m_sequenceNumber;
 
+    /**
+     * Holds the threshold events queued by {@link #queueEvents()}, they are sent
+     * together by {@link #flushEvents()}. Null when the events are sent right away.
+     */
+    private List<Event> m_pendingEvents;
+
     protected ThresholdingVisitorImpl(ThresholdingSetImpl thresholdingSet,
                                       ThresholdingEventProxy eventProxy, Long sequenceNumber) {
         m_thresholdingSet = thresholdingSet;
@@ -108,6 +117,44 @@ public class ThresholdingVisitorImpl extends AbstractCollectionSetVisitor implem
     public void visitCollectionSet(CollectionSet set) {
         m_collectionTimestamp = set.getCollectionTimestamp();
     }
+
+    @Override
+    public void completeCollectionSet(CollectionSet set) {
+        flushEvents();
+    }
+
+    /**
+     * Queue the threshold events of the following resources instead of sending them one by one.
+     * They are sent as a single {@link Log} when the collection set is complete, or by {@link #flushEvents()}.
+     */
+    public void queueEvents() {
+        if (m_pendingEvents == null) {
+            m_pendingEvents = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Send the queued threshold events (if exists), and stop queueing them.
+     */
+    public void flushEvents() {
+        final List<Event> events = m_pendingEvents;
+        m_pendingEvents = null;
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+        if (events.size() == 1) {
+            m_thresholdingEventProxy.sendEvent(events.get(0));
+            return;
+        }
+        LOG.debug("flushEvents: sending {} threshold events for {}", events.size(), m_thresholdingSet);
+        final Log log = new Log();
+        events.forEach(log::addEvent);
+        try {
+            m_thresholdingEventProxy.send(log);
+        } catch (EventProxyException e) {
+            LOG.error("flushEvents: failed to send {} threshold events for {}", events.size(), m_thresholdingSet, e);
+        }
+    }
     
     /**
      * Force reload thresholds configuration, and merge threshold states
@@ -145,12 +192,16 @@ public class ThresholdingVisitorImpl extends AbstractCollectionSetVisitor implem
 
     /**
      * Apply threshold for specific resource (and required attributes).
-     * Send thresholds events (if exists).
+     * Send thresholds events (if exists), or queue them until the collection set is complete.
      */
     @Override
     public void completeResource(CollectionResource resource) {
         List<Event> eventList = m_thresholdingSet.applyThresholds(resource, m_attributesMap, m_collectionTimestamp,
                 m_sequenceNumber);
+        if (m_pendingEvents != null) {
+            m_pendingEvents.addAll(eventList);
+            return;
+        }
         for (Event event : eventList) {
             m_thresholdingEventProxy.sendEvent(event);
         }
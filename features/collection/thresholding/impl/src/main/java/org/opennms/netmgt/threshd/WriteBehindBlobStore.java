@@ -0,0 +1,541 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.threshd;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.features.distributed.kvstore.api.AbstractAsyncKeyValueStore;
+import org.opennms.features.distributed.kvstore.api.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * A {@link BlobStore} that defers the writes to a delegate store and flushes them in bulk.
+ * <p>
+ * Threshold evaluator states are persisted every time they change, which results in a large number of tiny writes
+ * when thresholding is distributed. The values put in this store are queued in memory and coalesced per key so that
+ * only the latest value of a key is written. The queue is flushed on an interval, when it grows past a limit and
+ * when the store is destroyed. Reads are served from the queued values first so that a writer always sees its own
+ * writes.
+ * <p>
+ * When the delegate store is shared by several Sentinels, another Sentinel may write a newer state for a key while
+ * our state for the same key is still queued. With conflict detection enabled the queued states whose base version we
+ * know are written with {@link BlobStore#putAllIfUnchanged}, so that a state is only stored if its key was not updated
+ * since the version it was based on. The stored versions of the states that were not written are then looked up: a
+ * state is dropped if another instance stored a newer one, and the next read of that key will fetch it, otherwise the
+ * state is rebased on the stored version and written by the next flush. A key whose base version is unknown, because
+ * it was never read or its version was evicted from the bounded set of known versions, is written as it would have
+ * been without write-behind.
+ * <p>
+ * Until {@link #init()} has been called (or when the flush interval is not positive) writes go straight to the
+ * delegate store. The flush statistics are exported through JMX under {@link #OBJECT_NAME} while the store is
+ * initialized.
+ */
+public class WriteBehindBlobStore extends AbstractAsyncKeyValueStore<byte[]> implements BlobStore, WriteBehindBlobStoreMXBean {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindBlobStore.class);
+    private static final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.ofSeconds(30))
+            .build();
+
+    public static final String OBJECT_NAME = "org.opennms.netmgt.threshd:type=ThresholdStateStore";
+
+    public static final String FLUSH_INTERVAL_PROPERTY = "org.opennms.netmgt.threshd.state_flush_interval";
+
+    public static final String MAX_PENDING_PROPERTY = "org.opennms.netmgt.threshd.state_flush_max_pending";
+
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 5000;
+
+    private static final int DEFAULT_MAX_PENDING = 10000;
+
+    public static final String MAX_KNOWN_VERSIONS_PROPERTY = "org.opennms.netmgt.threshd.state_max_known_versions";
+
+    private static final int DEFAULT_MAX_KNOWN_VERSIONS = 100000;
+
+    /**
+     * Version used for keys whose stored state is known to be newer than ours, it forces the next read to fetch it.
+     */
+    private static final long UNKNOWN_VERSION = -1L;
+
+    /**
+     * Version used for keys that we read and found to have no stored state.
+     */
+    private static final long ABSENT_VERSION = 0L;
+
+    private final BlobStore delegate;
+
+    private final long flushIntervalMs;
+
+    private final int maxPending;
+
+    private final Map<Map.Entry<String, String>, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    /**
+     * The last updated timestamp of the stored state of the keys we have either written or read.
+     */
+    private final Map<Map.Entry<String, String>, Long> knownVersions = CacheBuilder.newBuilder()
+            .maximumSize(SystemProperties.getInteger(MAX_KNOWN_VERSIONS_PROPERTY, DEFAULT_MAX_KNOWN_VERSIONS))
+            .<Map.Entry<String, String>, Long>build()
+            .asMap();
+
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    private volatile ScheduledExecutorService scheduler;
+
+    private boolean conflictDetection = false;
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong statesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong coalescedWrites = new AtomicLong();
+    private final AtomicLong conflictCount = new AtomicLong();
+    private volatile long lastFlushLag = 0;
+    private volatile long maxFlushLag = 0;
+
+    private static final class PendingWrite {
+        private final byte[] value;
+        private final Integer ttlInSeconds;
+        private final long firstQueued;
+        private final long lastQueued;
+        private final Long basedOnVersion;
+
+        private PendingWrite(byte[] value, Integer ttlInSeconds, long firstQueued, long lastQueued, Long basedOnVersion) {
+            this.value = value;
+            this.ttlInSeconds = ttlInSeconds;
+            this.firstQueued = firstQueued;
+            this.lastQueued = lastQueued;
+            this.basedOnVersion = basedOnVersion;
+        }
+
+        private PendingWrite basedOn(Long version) {
+            return new PendingWrite(value, ttlInSeconds, firstQueued, lastQueued, version);
+        }
+    }
+
+    public WriteBehindBlobStore(BlobStore delegate) {
+        this(delegate, SystemProperties.getLong(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL_MS),
+                SystemProperties.getInteger(MAX_PENDING_PROPERTY, DEFAULT_MAX_PENDING));
+    }
+
+    public WriteBehindBlobStore(BlobStore delegate, long flushIntervalMs, int maxPending) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxPending = maxPending;
+    }
+
+    public void init() {
+        register();
+        if (flushIntervalMs <= 0) {
+            LOG.info("Threshold states will be written through to {}", delegate.getName());
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("threshold-state-flush-%d")
+                .setDaemon(true)
+                .build());
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        LOG.info("Threshold states will be flushed to {} every {}ms", delegate.getName(), flushIntervalMs);
+    }
+
+    public void destroy() {
+        final ScheduledExecutorService executor = scheduler;
+        scheduler = null;
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Anything put from now on is written through, so this flushes the last of the queued states
+        flush();
+        unregister();
+    }
+
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, WriteBehindBlobStoreMXBean.class, true),
+                    new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOG.warn("Failed to export the threshold state flush statistics through JMX", e);
+        }
+    }
+
+    private void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOG.debug("Failed to remove the threshold state flush statistics from JMX", e);
+        }
+    }
+
+    /**
+     * Enables the detection of states written by other instances sharing the same delegate store.
+     */
+    public void setConflictDetection(boolean conflictDetection) {
+        this.conflictDetection = conflictDetection;
+    }
+
+    private static Map.Entry<String, String> toKey(String key, String context) {
+        return new AbstractMap.SimpleImmutableEntry<>(key, context);
+    }
+
+    @Override
+    public long put(String key, byte[] value, String context, Integer ttlInSeconds) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(context);
+
+        final Map.Entry<String, String> k = toKey(key, context);
+        if (scheduler == null) {
+            final long timestamp = delegate.put(key, value, context, ttlInSeconds);
+            knownVersions.put(k, timestamp);
+            statesWritten.incrementAndGet();
+            bytesWritten.addAndGet(value.length);
+            return timestamp;
+        }
+
+        final long now = System.currentTimeMillis();
+        pendingWrites.merge(k, new PendingWrite(value, ttlInSeconds, now, now, knownVersions.get(k)), (previous, next) -> {
+            coalescedWrites.incrementAndGet();
+            return new PendingWrite(value, ttlInSeconds, previous.firstQueued, now, previous.basedOnVersion);
+        });
+
+        if (pendingWrites.size() >= maxPending && flushRequested.compareAndSet(false, true)) {
+            final ScheduledExecutorService executor = scheduler;
+            if (executor != null) {
+                executor.execute(this::flushQuietly);
+            }
+        }
+        return now;
+    }
+
+    @Override
+    public Optional<byte[]> get(String key, String context) {
+        final Map.Entry<String, String> k = toKey(key, context);
+        final PendingWrite pendingWrite = pendingWrites.get(k);
+        if (pendingWrite != null) {
+            return Optional.of(pendingWrite.value);
+        }
+
+        if (!conflictDetection) {
+            return delegate.get(key, context);
+        }
+        // Remember the version we are reading so that a flush can tell if it has been superseded
+        final OptionalLong lastUpdated = delegate.getLastUpdated(key, context);
+        final Optional<byte[]> value = delegate.get(key, context);
+        if (value.isPresent() && lastUpdated.isPresent()) {
+            knownVersions.put(k, lastUpdated.getAsLong());
+        } else if (!value.isPresent() && !lastUpdated.isPresent()) {
+            knownVersions.put(k, ABSENT_VERSION);
+        }
+        return value;
+    }
+
+    @Override
+    public Optional<Optional<byte[]>> getIfStale(String key, String context, long timestamp) {
+        final Map.Entry<String, String> k = toKey(key, context);
+        final PendingWrite pendingWrite = pendingWrites.get(k);
+        if (pendingWrite != null) {
+            return Optional.of(timestamp >= pendingWrite.lastQueued ? Optional.empty() : Optional.of(pendingWrite.value));
+        }
+
+        // The timestamps handed out for queued states are local, compare with the version actually stored instead
+        final Long knownVersion = knownVersions.get(k);
+        final long version = knownVersion != null ? knownVersion : timestamp;
+
+        final OptionalLong lastUpdated = delegate.getLastUpdated(key, context);
+        if (!lastUpdated.isPresent()) {
+            knownVersions.put(k, ABSENT_VERSION);
+            return Optional.empty();
+        }
+        if (version >= lastUpdated.getAsLong()) {
+            return Optional.of(Optional.empty());
+        }
+        final Optional<byte[]> value = delegate.get(key, context);
+        if (!value.isPresent()) {
+            return Optional.empty();
+        }
+        knownVersions.put(k, lastUpdated.getAsLong());
+        return Optional.of(value);
+    }
+
+    @Override
+    public OptionalLong getLastUpdated(String key, String context) {
+        final PendingWrite pendingWrite = pendingWrites.get(toKey(key, context));
+        if (pendingWrite != null) {
+            return OptionalLong.of(pendingWrite.lastQueued);
+        }
+        return delegate.getLastUpdated(key, context);
+    }
+
+    @Override
+    public Map<String, byte[]> enumerateContext(String context) {
+        final Map<String, byte[]> values = new HashMap<>(delegate.enumerateContext(context));
+        pendingWrites.forEach((k, pendingWrite) -> {
+            if (context.equals(k.getValue())) {
+                values.put(k.getKey(), pendingWrite.value);
+            }
+        });
+        return values;
+    }
+
+    @Override
+    public void delete(String key, String context) {
+        synchronized (flushLock) {
+            final Map.Entry<String, String> k = toKey(key, context);
+            pendingWrites.remove(k);
+            knownVersions.remove(k);
+            delegate.delete(key, context);
+        }
+    }
+
+    @Override
+    public void truncateContext(String context) {
+        synchronized (flushLock) {
+            pendingWrites.keySet().removeIf(k -> context.equals(k.getValue()));
+            knownVersions.keySet().removeIf(k -> context.equals(k.getValue()));
+            delegate.truncateContext(context);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "WriteBehind(" + delegate.getName() + ")";
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Throwable t) {
+            RATE_LIMITED_LOGGER.warn("Failed to flush threshold states", t);
+        }
+    }
+
+    /**
+     * Writes all of the queued states to the delegate store. States that fail to be written stay queued and will be
+     * retried on the next flush.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+
+            final long start = System.currentTimeMillis();
+            long oldest = start;
+            // Group the queued states by context and ttl since a bulk put applies one of each
+            final Map<String, List<Map.Entry<Map.Entry<String, String>, PendingWrite>>> contexts = new HashMap<>();
+            for (Map.Entry<Map.Entry<String, String>, PendingWrite> entry : pendingWrites.entrySet()) {
+                oldest = Math.min(oldest, entry.getValue().firstQueued);
+                contexts.computeIfAbsent(entry.getKey().getValue(), c -> new ArrayList<>())
+                        .add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+            }
+
+            final FlushStats stats = new FlushStats();
+            for (Map.Entry<String, List<Map.Entry<Map.Entry<String, String>, PendingWrite>>> contextEntries : contexts.entrySet()) {
+                final Map<Integer, List<Map.Entry<Map.Entry<String, String>, PendingWrite>>> unconditional = new HashMap<>();
+                final Map<Integer, List<Map.Entry<Map.Entry<String, String>, PendingWrite>>> conditional = new HashMap<>();
+                for (Map.Entry<Map.Entry<String, String>, PendingWrite> entry : contextEntries.getValue()) {
+                    final boolean checked = conflictDetection && entry.getValue().basedOnVersion != null;
+                    (checked ? conditional : unconditional)
+                            .computeIfAbsent(entry.getValue().ttlInSeconds, t -> new ArrayList<>())
+                            .add(entry);
+                }
+                unconditional.forEach((ttl, entries) -> write(contextEntries.getKey(), ttl, entries, false, stats));
+                conditional.forEach((ttl, entries) -> write(contextEntries.getKey(), ttl, entries, true, stats));
+            }
+
+            final long lag = start - oldest;
+            lastFlushLag = lag;
+            maxFlushLag = Math.max(maxFlushLag, lag);
+            flushCount.incrementAndGet();
+            statesWritten.addAndGet(stats.states);
+            bytesWritten.addAndGet(stats.bytes);
+            LOG.debug("flush: wrote {} threshold states ({} bytes) in {}ms, the oldest state was queued {}ms ago. {} states remain queued.",
+                    stats.states, stats.bytes, System.currentTimeMillis() - start, lag, pendingWrites.size());
+        }
+    }
+
+    /**
+     * Writes the queued states of a context that share the same ttl in bulk. A conditional write only stores the
+     * states whose key was not updated since the version they were based on.
+     */
+    private void write(String context, Integer ttlInSeconds, List<Map.Entry<Map.Entry<String, String>, PendingWrite>> entries,
+                       boolean conditional, FlushStats stats) {
+        final Map<String, byte[]> values = new HashMap<>(entries.size());
+        final Map<String, Long> expectedVersions = new HashMap<>(entries.size());
+        for (Map.Entry<Map.Entry<String, String>, PendingWrite> entry : entries) {
+            values.put(entry.getKey().getKey(), entry.getValue().value);
+            // A key that we found to have no stored state is expected not to exist
+            final Long basedOnVersion = entry.getValue().basedOnVersion;
+            if (basedOnVersion != null && basedOnVersion != ABSENT_VERSION) {
+                expectedVersions.put(entry.getKey().getKey(), basedOnVersion);
+            }
+        }
+
+        final Map<String, Long> timestamps;
+        try {
+            timestamps = conditional
+                    ? delegate.putAllIfUnchanged(values, expectedVersions, context, ttlInSeconds)
+                    : delegate.putAll(values, context, ttlInSeconds);
+        } catch (RuntimeException e) {
+            RATE_LIMITED_LOGGER.warn("Failed to store {} threshold states, they will be retried", values.size(), e);
+            return;
+        }
+
+        final List<Map.Entry<Map.Entry<String, String>, PendingWrite>> rejected = new ArrayList<>();
+        for (Map.Entry<Map.Entry<String, String>, PendingWrite> entry : entries) {
+            final Map.Entry<String, String> k = entry.getKey();
+            final PendingWrite pendingWrite = entry.getValue();
+            final Long timestamp = timestamps.get(k.getKey());
+            if (timestamp == null && conditional) {
+                rejected.add(entry);
+                continue;
+            }
+            if (timestamp != null) {
+                knownVersions.put(k, timestamp);
+            }
+            if (!pendingWrites.remove(k, pendingWrite)) {
+                // The state was queued again while we were writing, it is now based on what we just wrote
+                pendingWrites.computeIfPresent(k, (key, current) -> current.basedOn(timestamp));
+            }
+            stats.states++;
+            stats.bytes += pendingWrite.value.length;
+        }
+
+        if (!rejected.isEmpty()) {
+            resolveConflicts(context, rejected);
+        }
+    }
+
+    /**
+     * Looks up the stored versions of the states that were not written because their key was updated since the
+     * version they were based on. A state is dropped if another instance stored a newer one, otherwise the key was
+     * deleted, expired or rewritten with an older timestamp and the state is rebased on what is stored now so that the
+     * next flush writes it.
+     */
+    private void resolveConflicts(String context, List<Map.Entry<Map.Entry<String, String>, PendingWrite>> rejected) {
+        final List<String> keys = new ArrayList<>(rejected.size());
+        for (Map.Entry<Map.Entry<String, String>, PendingWrite> entry : rejected) {
+            keys.add(entry.getKey().getKey());
+        }
+
+        final Map<String, Long> lastUpdated;
+        try {
+            lastUpdated = delegate.getAllLastUpdated(keys, context);
+        } catch (RuntimeException e) {
+            RATE_LIMITED_LOGGER.warn("Failed to look up the versions of {} threshold states that were updated concurrently, they will be retried",
+                    keys.size(), e);
+            return;
+        }
+
+        for (Map.Entry<Map.Entry<String, String>, PendingWrite> entry : rejected) {
+            final Map.Entry<String, String> k = entry.getKey();
+            final PendingWrite pendingWrite = entry.getValue();
+            final Long stored = lastUpdated.get(k.getKey());
+            if (stored != null && stored > pendingWrite.basedOnVersion) {
+                LOG.debug("resolveConflicts: the state of {} in context {} was updated by another instance, dropping our state",
+                        k.getKey(), k.getValue());
+                pendingWrites.remove(k, pendingWrite);
+                knownVersions.put(k, UNKNOWN_VERSION);
+                conflictCount.incrementAndGet();
+            } else {
+                final long version = stored != null ? stored : ABSENT_VERSION;
+                pendingWrites.computeIfPresent(k, (key, current) -> current.basedOn(version));
+            }
+        }
+    }
+
+    private static final class FlushStats {
+        private long states;
+        private long bytes;
+    }
+
+    @Override
+    public int getPendingCount() {
+        return pendingWrites.size();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    @Override
+    public long getStatesWritten() {
+        return statesWritten.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public long getCoalescedWrites() {
+        return coalescedWrites.get();
+    }
+
+    @Override
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+
+    @Override
+    public long getLastFlushLag() {
+        return lastFlushLag;
+    }
+
+    @Override
+    public long getMaxFlushLag() {
+        return maxFlushLag;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.threshd;
+
+/**
+ * The statistics of the flushes of the threshold states, exported through JMX by the {@link WriteBehindBlobStore}.
+ */
+public interface WriteBehindBlobStoreMXBean {
+
+    /**
+     * @return the number of states that are queued
+     */
+    int getPendingCount();
+
+    long getFlushCount();
+
+    long getStatesWritten();
+
+    long getBytesWritten();
+
+    /**
+     * @return the number of states that replaced a queued state of the same key
+     */
+    long getCoalescedWrites();
+
+    /**
+     * @return the number of queued states that were dropped because another instance stored a newer state
+     */
+    long getConflictCount();
+
+    /**
+     * @return the time in milliseconds the oldest state written by the last flush had been queued for
+     */
+    long getLastFlushLag();
+
+    long getMaxFlushLag();
+}
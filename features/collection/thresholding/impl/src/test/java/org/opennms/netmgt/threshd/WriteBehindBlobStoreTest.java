@@ -0,0 +1,269 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.features.distributed.kvstore.blob.inmemory.InMemoryMapBlobStore;
+
+public class WriteBehindBlobStoreTest {
+
+    private static final String CONTEXT = "thresholding";
+
+    private InMemoryMapBlobStore delegate;
+
+    private WriteBehindBlobStore store;
+
+    @Before
+    public void setUp() {
+        delegate = InMemoryMapBlobStore.withDefaultTicks();
+        // Only flush when asked to
+        store = new WriteBehindBlobStore(delegate, 60000, 1000);
+        store.init();
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    @Test
+    public void canCoalesceWrites() {
+        store.put("key", bytes("one"), CONTEXT, null);
+        store.put("key", bytes("two"), CONTEXT, null);
+        store.put("key", bytes("three"), CONTEXT, null);
+        store.put("other", bytes("four"), CONTEXT, null);
+
+        // Nothing is written until the flush, but the queued values are visible
+        assertFalse(delegate.get("key", CONTEXT).isPresent());
+        assertArrayEquals(bytes("three"), store.get("key", CONTEXT).get());
+        assertEquals(2, store.getPendingCount());
+
+        store.flush();
+        assertArrayEquals(bytes("three"), delegate.get("key", CONTEXT).get());
+        assertArrayEquals(bytes("four"), delegate.get("other", CONTEXT).get());
+        assertEquals(0, store.getPendingCount());
+        assertEquals(1, store.getFlushCount());
+        assertEquals(2, store.getStatesWritten());
+        assertEquals(2, store.getCoalescedWrites());
+        assertEquals(bytes("three").length + bytes("four").length, store.getBytesWritten());
+    }
+
+    @Test
+    public void canFlushOnDestroy() {
+        store.put("key", bytes("one"), CONTEXT, null);
+        store.destroy();
+        assertArrayEquals(bytes("one"), delegate.get("key", CONTEXT).get());
+
+        // Once destroyed writes go straight through
+        store.put("key", bytes("two"), CONTEXT, null);
+        assertArrayEquals(bytes("two"), delegate.get("key", CONTEXT).get());
+    }
+
+    @Test
+    public void canReportOwnWritesAsCurrent() {
+        long timestamp = store.put("key", bytes("one"), CONTEXT, null);
+        assertEquals(Optional.of(Optional.empty()), store.getIfStale("key", CONTEXT, timestamp));
+
+        store.flush();
+        assertEquals(Optional.of(Optional.empty()), store.getIfStale("key", CONTEXT, timestamp));
+    }
+
+    @Test
+    public void doesNotResurrectDeletedStates() {
+        store.put("key", bytes("one"), CONTEXT, null);
+        store.put("other", bytes("two"), "other", null);
+        store.delete("key", CONTEXT);
+        store.truncateContext("other");
+        store.flush();
+
+        assertFalse(delegate.get("key", CONTEXT).isPresent());
+        assertFalse(delegate.get("other", "other").isPresent());
+        assertEquals(0, store.getStatesWritten());
+    }
+
+    @Test
+    public void doesNotOverwriteNewerStates() {
+        store.setConflictDetection(true);
+
+        // Our state is based on there being no stored state
+        assertFalse(store.get("key", CONTEXT).isPresent());
+        long timestamp = store.put("key", bytes("ours"), CONTEXT, null);
+        // Another instance writes the same key before we flush
+        delegate.put("key", bytes("theirs"), CONTEXT, null);
+        store.flush();
+
+        assertArrayEquals(bytes("theirs"), delegate.get("key", CONTEXT).get());
+        assertEquals(1, store.getConflictCount());
+        assertEquals(0, store.getStatesWritten());
+
+        // Our copy is now stale and the newer state is fetched
+        Optional<Optional<byte[]>> stale = store.getIfStale("key", CONTEXT, timestamp);
+        assertTrue(stale.get().isPresent());
+        assertArrayEquals(bytes("theirs"), stale.get().get());
+
+        // States based on the one we fetched are written
+        store.put("key", bytes("ours again"), CONTEXT, null);
+        store.flush();
+        assertArrayEquals(bytes("ours again"), delegate.get("key", CONTEXT).get());
+        assertEquals(1, store.getConflictCount());
+    }
+
+    @Test
+    public void doesNotOverwriteStatesWrittenWhileFlushing() {
+        final InMemoryMapBlobStore racingDelegate = new InMemoryMapBlobStore(System::currentTimeMillis) {
+            @Override
+            public Map<String, Long> putAllIfUnchanged(Map<String, byte[]> values, Map<String, Long> expectedVersions,
+                                                       String context, Integer ttlInSeconds) {
+                // Another instance writes the key after it was queued but before it reaches the store
+                put("key", bytes("theirs"), context, null);
+                return super.putAllIfUnchanged(values, expectedVersions, context, ttlInSeconds);
+            }
+        };
+        store.destroy();
+        store = new WriteBehindBlobStore(racingDelegate, 60000, 1000);
+        store.setConflictDetection(true);
+        store.init();
+
+        assertFalse(store.get("key", CONTEXT).isPresent());
+        store.put("key", bytes("ours"), CONTEXT, null);
+        store.flush();
+
+        assertArrayEquals(bytes("theirs"), racingDelegate.get("key", CONTEXT).get());
+        assertEquals(1, store.getConflictCount());
+        assertEquals(0, store.getStatesWritten());
+        assertEquals(0, store.getPendingCount());
+    }
+
+    @Test
+    public void canRetryStatesWhoseKeyWasDeleted() {
+        store.setConflictDetection(true);
+
+        delegate.put("key", bytes("stored"), CONTEXT, null);
+        assertArrayEquals(bytes("stored"), store.get("key", CONTEXT).get());
+        store.put("key", bytes("ours"), CONTEXT, null);
+        // Another instance deletes the key before we flush
+        delegate.delete("key", CONTEXT);
+        store.flush();
+
+        // Nobody stored a newer state, so ours is rebased and written by the next flush
+        assertFalse(delegate.get("key", CONTEXT).isPresent());
+        assertEquals(1, store.getPendingCount());
+        store.flush();
+        assertArrayEquals(bytes("ours"), delegate.get("key", CONTEXT).get());
+        assertEquals(0, store.getConflictCount());
+        assertEquals(1, store.getStatesWritten());
+    }
+
+    @Test
+    public void canExportStatisticsThroughJmx() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(WriteBehindBlobStore.OBJECT_NAME);
+
+        store.put("key", bytes("one"), CONTEXT, null);
+        assertEquals(1, server.getAttribute(name, "PendingCount"));
+        store.flush();
+        assertEquals(1L, server.getAttribute(name, "StatesWritten"));
+
+        store.destroy();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void canWriteStatesWithUnknownBaseVersion() {
+        store.setConflictDetection(true);
+
+        // Another instance writes a key we never read (or whose version we no longer remember)
+        delegate.put("key", bytes("theirs"), CONTEXT, null);
+        store.put("key", bytes("ours"), CONTEXT, null);
+        store.flush();
+
+        assertArrayEquals(bytes("ours"), delegate.get("key", CONTEXT).get());
+        assertEquals(0, store.getConflictCount());
+        assertEquals(1, store.getStatesWritten());
+    }
+
+    @Test
+    public void canLookUpVersionsInBulk() {
+        final AtomicInteger singleLookups = new AtomicInteger();
+        final AtomicInteger bulkLookups = new AtomicInteger();
+        final AtomicInteger keysLookedUp = new AtomicInteger();
+        final InMemoryMapBlobStore countingDelegate = new InMemoryMapBlobStore(System::currentTimeMillis) {
+            @Override
+            public OptionalLong getLastUpdated(String key, String context) {
+                singleLookups.incrementAndGet();
+                return super.getLastUpdated(key, context);
+            }
+
+            @Override
+            public Map<String, Long> getAllLastUpdated(Collection<String> keys, String context) {
+                bulkLookups.incrementAndGet();
+                keysLookedUp.addAndGet(keys.size());
+                return super.getAllLastUpdated(keys, context);
+            }
+        };
+        store.destroy();
+        store = new WriteBehindBlobStore(countingDelegate, 60000, 1000);
+        store.setConflictDetection(true);
+        store.init();
+
+        for (int i = 0; i < 10; i++) {
+            countingDelegate.put("read" + i, bytes("stored"), CONTEXT, null);
+            store.get("read" + i, CONTEXT);
+            store.put("read" + i, bytes("ours"), CONTEXT, null);
+            store.put("new" + i, bytes("ours"), CONTEXT, null);
+            store.put("other" + i, bytes("ours"), "other", null);
+        }
+        singleLookups.set(0);
+        store.flush();
+
+        // One conditional write per context, and only for the keys whose base version is known. The in-memory store
+        // checks the versions with a bulk lookup
+        assertEquals(1, bulkLookups.get());
+        assertEquals(10, keysLookedUp.get());
+        // The bulk lookup of the in-memory store falls back to looking the keys up one at a time
+        assertEquals(10, singleLookups.get());
+        assertEquals(30, store.getStatesWritten());
+        assertEquals(0, store.getConflictCount());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
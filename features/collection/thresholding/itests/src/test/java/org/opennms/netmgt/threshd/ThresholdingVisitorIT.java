@@ -29,7 +29,9 @@ import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -43,6 +45,7 @@ import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -87,6 +90,7 @@ import org.opennms.netmgt.collectd.SnmpIfData;
 import org.opennms.netmgt.collectd.StringAttributeType;
 import org.opennms.netmgt.collection.api.AttributeGroupType;
 import org.opennms.netmgt.collection.api.AttributeType;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.ServiceParameters;
 import org.opennms.netmgt.collection.dto.CollectionSetDTO;
@@ -131,6 +135,7 @@ import org.opennms.netmgt.threshd.api.ThresholdStateMonitor;
 import org.opennms.netmgt.threshd.api.ThresholdingSession;
 import org.opennms.netmgt.threshd.api.ThresholdingVisitor;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.test.FileAnticipator;
 import org.opennms.test.JUnitConfigurationEnvironment;
@@ -1587,6 +1592,142 @@ public class ThresholdingVisitorIT {
         verifyEvents(0);
     }
 
+    /*
+     * The events of a collection set are queued and sent as a single Log once the set is complete.
+     *
+     * This test uses this files from src/test/resources:
+     * - threshd-configuration.xml
+     * - test-thresholds-5.xml
+     */
+    @Test
+    public void testQueuedEventsAreSentAsOneLog() throws Exception {
+        initFactories("/threshd-configuration.xml", "/test-thresholds-5.xml");
+        RecordingEventProxy eventProxy = new RecordingEventProxy();
+        ThresholdingVisitorImpl visitor = (ThresholdingVisitorImpl) createVisitor(eventProxy);
+
+        addHighThresholdEvent(1, 30, 25, 50, "/home", "node", "(hda1_hrStorageUsed/hda1_hrStorageSize)*100", null, null);
+        addHighThresholdEvent(1, 50, 45, 60, "/opt", "node", "(hda2_hrStorageUsed/hda2_hrStorageSize)*100", null, null);
+
+        visitor.queueEvents();
+        createStorageCollectionSet(50, 60).visit(visitor);
+
+        assertEquals(0, eventProxy.getSentEvents());
+        assertEquals(1, eventProxy.getSentLogs().size());
+        assertEquals(2, eventProxy.getSentLogs().get(0).getEvents().getEventCount());
+        verifyEvents(0);
+
+        // Nothing left to send
+        visitor.flushEvents();
+        assertEquals(1, eventProxy.getSentLogs().size());
+    }
+
+    /*
+     * Events queued for resources visited outside of a collection set are sent by flushEvents(),
+     * and without queueing the events are sent one by one.
+     *
+     * This test uses this files from src/test/resources:
+     * - threshd-configuration.xml
+     * - test-thresholds-5.xml
+     */
+    @Test
+    public void testFlushQueuedEvents() throws Exception {
+        initFactories("/threshd-configuration.xml", "/test-thresholds-5.xml");
+        RecordingEventProxy eventProxy = new RecordingEventProxy();
+        ThresholdingVisitorImpl visitor = (ThresholdingVisitorImpl) createVisitor(eventProxy);
+
+        addHighThresholdEvent(1, 30, 25, 50, "/home", "node", "(hda1_hrStorageUsed/hda1_hrStorageSize)*100", null, null);
+        addHighThresholdEvent(1, 50, 45, 60, "/opt", "node", "(hda2_hrStorageUsed/hda2_hrStorageSize)*100", null, null);
+
+        visitor.queueEvents();
+        createStorageNodeResource(50, 60).visit(visitor);
+        assertEquals(0, eventProxy.getSentEvents());
+        assertTrue(eventProxy.getSentLogs().isEmpty());
+
+        visitor.flushEvents();
+        assertEquals(1, eventProxy.getSentLogs().size());
+        assertEquals(2, eventProxy.getSentLogs().get(0).getEvents().getEventCount());
+        verifyEvents(0);
+
+        // The thresholds rearm, and the events are no longer queued
+        resetAnticipator();
+        addHighRearmEvent(1, 30, 25, 10, "/home", "node", "(hda1_hrStorageUsed/hda1_hrStorageSize)*100", null, null);
+        addHighRearmEvent(1, 50, 45, 10, "/opt", "node", "(hda2_hrStorageUsed/hda2_hrStorageSize)*100", null, null);
+        createStorageNodeResource(10, 10).visit(visitor);
+        assertEquals(2, eventProxy.getSentEvents());
+        assertEquals(1, eventProxy.getSentLogs().size());
+        verifyEvents(0);
+    }
+
+    /*
+     * The values of the data sources are resolved once per resource and collection, even when
+     * several thresholds use them, and are resolved again on the next collection.
+     *
+     * This test uses this files from src/test/resources:
+     * - threshd-configuration.xml
+     * - test-thresholds-shared-ds.xml
+     */
+    @Test
+    public void testDataSourcesResolvedOncePerCollection() throws Exception {
+        initFactories("/threshd-configuration.xml", "/test-thresholds-shared-ds.xml");
+        ThresholdingVisitor visitor = createVisitor();
+        String expression = "(hrStorageUsed/hrStorageSize)*100";
+
+        SnmpCollectionAgent agent = createCollectionAgent();
+        NodeResourceType resourceType = createNodeResourceType(agent);
+        SnmpCollectionResource resource = new NodeInfo(resourceType, agent);
+
+        // Collection 1: high threshold triggered
+        addHighThresholdEvent(1, 50, 45, 60, "/opt", "node", expression, null, null);
+        CollectionAttribute used = createNumericAttribute("hrStorageUsed", 60);
+        CollectionAttribute size = createNumericAttribute("hrStorageSize", 100);
+        visitResource(visitor, resource, used, size, createStringAttribute("hrStorageDescr", "/opt"));
+        verify(used, times(1)).getNumericValue();
+        verify(size, times(1)).getNumericValue();
+        verifyEvents(0);
+
+        // Collection 2: the new values are used, the high threshold is rearmed
+        resetAnticipator();
+        addHighRearmEvent(1, 50, 45, 40, "/opt", "node", expression, null, null);
+        used = createNumericAttribute("hrStorageUsed", 40);
+        size = createNumericAttribute("hrStorageSize", 100);
+        visitResource(visitor, resource, used, size, createStringAttribute("hrStorageDescr", "/opt"));
+        verify(used, times(1)).getNumericValue();
+        verify(size, times(1)).getNumericValue();
+        verifyEvents(0);
+    }
+
+    /*
+     * The compiled resource filters are shared by the thresholds, and dropped when the configuration is reloaded.
+     *
+     * This test uses this files from src/test/resources:
+     * - threshd-configuration.xml
+     * - test-thresholds-shared-ds.xml
+     * - test-thresholds-5.xml
+     */
+    @Test
+    public void testFilterPatternsClearedOnReload() throws Exception {
+        initFactories("/threshd-configuration.xml", "/test-thresholds-shared-ds.xml");
+        ThresholdingVisitorImpl visitor = (ThresholdingVisitorImpl) createVisitor();
+
+        SnmpCollectionAgent agent = createCollectionAgent();
+        NodeResourceType resourceType = createNodeResourceType(agent);
+        SnmpCollectionResource resource = new NodeInfo(resourceType, agent);
+        addAttributeToCollectionResource(resource, resourceType, "hrStorageUsed", "gauge", "0", 10);
+        addAttributeToCollectionResource(resource, resourceType, "hrStorageSize", "gauge", "0", 100);
+        addAttributeToCollectionResource(resource, resourceType, "hrStorageDescr", "string", "0", "/opt");
+        resource.visit(visitor);
+        resource.visit(visitor);
+        assertEquals(Collections.singleton("^/opt"), visitor.m_thresholdingSet.getCachedFilterPatterns());
+
+        initFactories("/threshd-configuration.xml", "/test-thresholds-5.xml");
+        visitor.reload();
+        assertTrue(visitor.m_thresholdingSet.getCachedFilterPatterns().isEmpty());
+
+        createStorageNodeResource(10, 10).visit(visitor);
+        assertEquals(new HashSet<>(Arrays.asList("^/home", "^/opt")), visitor.m_thresholdingSet.getCachedFilterPatterns());
+        verifyEvents(0);
+    }
+
     /**
      * Similar to {@link #testThresholdFiltersOnGenericResource()}, but we generate the collection set using the CollectionSetBuilder instead of using SnmpCollector specific types.
      */
@@ -1743,7 +1884,16 @@ public class ThresholdingVisitorIT {
     }
 
     private ThresholdingVisitor createVisitor(int node, String location, String serviceName, ServiceParameters svcParams) throws ThresholdInitializationException {
-        ThresholdingEventProxyImpl eventProxy = new ThresholdingEventProxyImpl(eventMgr);
+        return createVisitor(node, location, serviceName, svcParams, new ThresholdingEventProxyImpl(eventMgr));
+    }
+
+    private ThresholdingVisitor createVisitor(ThresholdingEventProxyImpl eventProxy) throws ThresholdInitializationException {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("thresholding-enabled", "true");
+        return createVisitor(1, "127.0.0.1", "SNMP", new ServiceParameters(params), eventProxy);
+    }
+
+    private ThresholdingVisitor createVisitor(int node, String location, String serviceName, ServiceParameters svcParams, ThresholdingEventProxyImpl eventProxy) throws ThresholdInitializationException {
         ThresholdingSetImpl thresholdingSet = new ThresholdingSetImpl(node, location, serviceName,
                 svcParams, eventProxy, MockSession.getSession(), m_threshdDao, m_thresholdingDao,
                 m_pollOutagesDao, m_ifLabelDao, m_entityScopeProvider);
@@ -1752,6 +1902,61 @@ public class ThresholdingVisitorIT {
         return visitor;
     }
 
+    private CollectionSet createStorageCollectionSet(long hda1Used, long hda2Used) {
+        SnmpCollectionAgent agent = createCollectionAgent();
+        NodeLevelResource nodeResource = new NodeLevelResource(agent.getNodeId());
+        return new CollectionSetBuilder(agent)
+                .withNumericAttribute(nodeResource, "hd-usage", "hda1_hrStorageUsed", hda1Used, AttributeType.GAUGE)
+                .withNumericAttribute(nodeResource, "hd-usage", "hda1_hrStorageSize", 100, AttributeType.GAUGE)
+                .withNumericAttribute(nodeResource, "hd-usage", "hda2_hrStorageUsed", hda2Used, AttributeType.GAUGE)
+                .withNumericAttribute(nodeResource, "hd-usage", "hda2_hrStorageSize", 100, AttributeType.GAUGE)
+                .withStringAttribute(nodeResource, "hd-usage", "hda1_hrStorageDescr", "/home")
+                .withStringAttribute(nodeResource, "hd-usage", "hda2_hrStorageDescr", "/opt")
+                .build();
+    }
+
+    private SnmpCollectionResource createStorageNodeResource(long hda1Used, long hda2Used) {
+        SnmpCollectionAgent agent = createCollectionAgent();
+        NodeResourceType resourceType = createNodeResourceType(agent);
+        SnmpCollectionResource resource = new NodeInfo(resourceType, agent);
+        addAttributeToCollectionResource(resource, resourceType, "hda1_hrStorageUsed", "gauge", "node", hda1Used);
+        addAttributeToCollectionResource(resource, resourceType, "hda1_hrStorageSize", "gauge", "node", 100);
+        addAttributeToCollectionResource(resource, resourceType, "hda1_hrStorageDescr", "string", "node", "/home");
+        addAttributeToCollectionResource(resource, resourceType, "hda2_hrStorageUsed", "gauge", "node", hda2Used);
+        addAttributeToCollectionResource(resource, resourceType, "hda2_hrStorageSize", "gauge", "node", 100);
+        addAttributeToCollectionResource(resource, resourceType, "hda2_hrStorageDescr", "string", "node", "/opt");
+        return resource;
+    }
+
+    private static CollectionAttribute createNumericAttribute(String name, double value) {
+        CollectionAttribute attribute = mock(CollectionAttribute.class);
+        when(attribute.getName()).thenReturn(name);
+        when(attribute.getType()).thenReturn(AttributeType.GAUGE);
+        when(attribute.getNumericValue()).thenReturn(value);
+        return attribute;
+    }
+
+    private static CollectionAttribute createStringAttribute(String name, String value) {
+        CollectionAttribute attribute = mock(CollectionAttribute.class);
+        when(attribute.getName()).thenReturn(name);
+        when(attribute.getType()).thenReturn(AttributeType.STRING);
+        when(attribute.getStringValue()).thenReturn(value);
+        return attribute;
+    }
+
+    /**
+     * Visits the resource with the given attributes, and forgets the accesses to the attributes made while they were visited,
+     * so that only the ones made to evaluate the thresholds can be verified.
+     */
+    private static void visitResource(ThresholdingVisitor visitor, SnmpCollectionResource resource, CollectionAttribute... attributes) {
+        visitor.visitResource(resource);
+        for (CollectionAttribute attribute : attributes) {
+            visitor.visitAttribute(attribute);
+        }
+        clearInvocations((Object[]) attributes);
+        visitor.completeResource(resource);
+    }
+
     private void runGaugeDataTest(ThresholdingVisitor visitor, long value) {
         SnmpCollectionAgent agent = createCollectionAgent();
         NodeResourceType resourceType = createNodeResourceType(agent);
@@ -2076,6 +2281,38 @@ public class ThresholdingVisitorIT {
         return new SnmpIfData(snmpIface);
     }
 
+    /**
+     * Records how the threshold events are sent.
+     */
+    private class RecordingEventProxy extends ThresholdingEventProxyImpl {
+        private int m_sentEvents = 0;
+        private final List<Log> m_sentLogs = new ArrayList<>();
+
+        private RecordingEventProxy() {
+            super(eventMgr);
+        }
+
+        @Override
+        public void sendEvent(Event event) {
+            m_sentEvents++;
+            super.sendEvent(event);
+        }
+
+        @Override
+        public void send(Log eventLog) {
+            m_sentLogs.add(eventLog);
+            super.send(eventLog);
+        }
+
+        public int getSentEvents() {
+            return m_sentEvents;
+        }
+
+        public List<Log> getSentLogs() {
+            return m_sentLogs;
+        }
+    }
+
     private static CollectionSetDTO createAnonymousCollectionSet(long timestamp) {
         final MockCollectionAgent agent = new MockCollectionAgent(1, "node", "fs", "fid", InetAddressUtils.ONE_TWENTY_SEVEN);
         return new CollectionSetBuilder(agent).withTimestamp(new Date(timestamp)).build();
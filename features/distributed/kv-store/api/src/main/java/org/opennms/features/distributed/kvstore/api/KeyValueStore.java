@@ -21,7 +21,10 @@
  */
 package org.opennms.features.distributed.kvstore.api;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalLong;
 import java.util.concurrent.CompletableFuture;
@@ -61,6 +64,52 @@ public interface KeyValueStore<T> {
      */
     long put(String key, T value, String context, Integer ttlInSeconds);
 
+    /**
+     * Put several values in the same context with the same time-to-live.
+     * <p>
+     * The default implementation puts the values one at a time, stores that can write a group of values more
+     * efficiently should override this.
+     *
+     * @param values       the values to put keyed by their key
+     * @param context      a context used to differentiate between keys with the same name (forms a compound key)
+     * @param ttlInSeconds the time to live in seconds for these keys or no ttl if null
+     * @return the timestamp each value was persisted with keyed by its key
+     */
+    default Map<String, Long> putAll(Map<String, T> values, String context, Integer ttlInSeconds) {
+        final Map<String, Long> timestamps = new HashMap<>(values.size());
+        for (Map.Entry<String, T> entry : values.entrySet()) {
+            timestamps.put(entry.getKey(), put(entry.getKey(), entry.getValue(), context, ttlInSeconds));
+        }
+        return timestamps;
+    }
+
+    /**
+     * Put several values in the same context with the same time-to-live, each only if its key was last updated at the
+     * expected timestamp, that is if nobody else wrote the key since that version was read.
+     * <p>
+     * The default implementation looks the timestamps up and then puts the values that matched, which is not atomic.
+     * Stores that can write conditionally should override this.
+     *
+     * @param values           the values to put keyed by their key
+     * @param expectedVersions the timestamp each key is expected to have been last updated at keyed by its key, keys
+     *                         that are expected not to exist are absent
+     * @param context          a context used to differentiate between keys with the same name (forms a compound key)
+     * @param ttlInSeconds     the time to live in seconds for these keys or no ttl if null
+     * @return the timestamp each value was persisted with keyed by its key, keys that were not put because they were
+     * updated by someone else are absent
+     */
+    default Map<String, Long> putAllIfUnchanged(Map<String, T> values, Map<String, Long> expectedVersions,
+                                                String context, Integer ttlInSeconds) {
+        final Map<String, Long> lastUpdated = getAllLastUpdated(values.keySet(), context);
+        final Map<String, T> unchanged = new HashMap<>(values.size());
+        for (Map.Entry<String, T> entry : values.entrySet()) {
+            if (Objects.equals(lastUpdated.get(entry.getKey()), expectedVersions.get(entry.getKey()))) {
+                unchanged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return putAll(unchanged, context, ttlInSeconds);
+    }
+
     /**
      * @param context a context used to differentiate between keys with the same name (forms a compound key)
      * @return an optional containing the value if present or empty if the key did not exist
@@ -83,6 +132,24 @@ public interface KeyValueStore<T> {
      */
     OptionalLong getLastUpdated(String key, String context);
 
+    /**
+     * Get the last updated timestamp of several keys in the same context.
+     * <p>
+     * The default implementation looks the keys up one at a time, stores that can look up a group of keys more
+     * efficiently should override this.
+     *
+     * @param keys    the keys to look up
+     * @param context a context used to differentiate between keys with the same name (forms a compound key)
+     * @return the timestamp each key's value was last updated keyed by its key, keys that did not exist are absent
+     */
+    default Map<String, Long> getAllLastUpdated(Collection<String> keys, String context) {
+        final Map<String, Long> timestamps = new HashMap<>(keys.size());
+        for (String key : keys) {
+            getLastUpdated(key, context).ifPresent(timestamp -> timestamps.put(key, timestamp));
+        }
+        return timestamps;
+    }
+
     /**
      * @param context a context used to differentiate between keys with the same name (forms a compound key)
      * @return a map of all the records matching the given context where the map's key is the record's key and the map's
@@ -28,8 +28,12 @@ import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -73,6 +77,49 @@ public abstract class BaseBlobStoreIT {
         assertThat(value.get(), equalTo(state));
     }
 
+    @Test
+    public void canPersistAndRetrieveMany() {
+        String context = "canPersistAndRetrieveMany";
+        Map<String, byte[]> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            values.put(Integer.toString(i), Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        Map<String, Long> timestamps = blobStore.putAll(values, context, null);
+        assertThat(timestamps.keySet(), equalTo(values.keySet()));
+        for (int i = 0; i < 100; i++) {
+            String key = Integer.toString(i);
+            assertThat(blobStore.get(key, context).get(), equalTo(values.get(key)));
+            assertThat(blobStore.getLastUpdated(key, context).getAsLong(), equalTo(timestamps.get(key)));
+        }
+    }
+
+    @Test
+    public void canPutOnlyUnchangedValues() {
+        String context = "canPutOnlyUnchangedValues";
+        long unchanged = blobStore.put("unchanged", bytes("one"), context, null);
+        long changed = blobStore.put("changed", bytes("one"), context, null);
+        blobStore.put("changed", bytes("theirs"), context, null);
+        blobStore.put("created", bytes("theirs"), context, null);
+
+        Map<String, byte[]> values = new HashMap<>();
+        values.put("unchanged", bytes("two"));
+        values.put("changed", bytes("two"));
+        values.put("created", bytes("two"));
+        values.put("absent", bytes("two"));
+        Map<String, Long> expectedVersions = new HashMap<>();
+        expectedVersions.put("unchanged", unchanged);
+        expectedVersions.put("changed", changed - 1);
+
+        Map<String, Long> timestamps = blobStore.putAllIfUnchanged(values, expectedVersions, context, null);
+        assertThat(timestamps.keySet(), equalTo(new HashSet<>(Arrays.asList("unchanged", "absent"))));
+        assertThat(blobStore.get("unchanged", context).get(), equalTo(bytes("two")));
+        assertThat(blobStore.get("absent", context).get(), equalTo(bytes("two")));
+        assertThat(blobStore.get("changed", context).get(), equalTo(bytes("theirs")));
+        assertThat(blobStore.get("created", context).get(), equalTo(bytes("theirs")));
+        assertThat(blobStore.getLastUpdated("unchanged", context).getAsLong(), equalTo(timestamps.get("unchanged")));
+    }
+
     @Test
     public void emptyWhenKeyDoesNotExist() {
         // If Cassandra is available, but the key does not exist we should get an empty optional back
@@ -259,4 +306,8 @@ public abstract class BaseBlobStoreIT {
 
         assertThat(serializingBlobStore.enumerateContext(context).keySet(), hasSize(0));
     }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -71,6 +72,10 @@ public class CassandraBlobStore extends AbstractKeyValueStore<byte[]> implements
     private final CassandraSession session;
     private final PreparedStatement insertStmt;
     private final PreparedStatement insertWithTtlStmt;
+    private final PreparedStatement insertIfNotExistsStmt;
+    private final PreparedStatement insertIfNotExistsWithTtlStmt;
+    private final PreparedStatement updateIfStmt;
+    private final PreparedStatement updateIfWithTtlStmt;
     private final PreparedStatement selectStmt;
     private final PreparedStatement timestampStmt;
     private final PreparedStatement enumerateStatement;
@@ -93,6 +98,16 @@ public class CassandraBlobStore extends AbstractKeyValueStore<byte[]> implements
                 KEY_COLUMN, CONTEXT_COLUMN, VALUE_COLUMN, TIMESTAMP_COLUMN));
         insertWithTtlStmt = session.prepare(String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?) USING " +
                 "TTL ?", TABLE_NAME, KEY_COLUMN, CONTEXT_COLUMN, VALUE_COLUMN, TIMESTAMP_COLUMN));
+        insertIfNotExistsStmt = session.prepare(String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?) " +
+                "IF NOT EXISTS", TABLE_NAME, KEY_COLUMN, CONTEXT_COLUMN, VALUE_COLUMN, TIMESTAMP_COLUMN));
+        insertIfNotExistsWithTtlStmt = session.prepare(String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, " +
+                "?, ?) IF NOT EXISTS USING TTL ?", TABLE_NAME, KEY_COLUMN, CONTEXT_COLUMN, VALUE_COLUMN,
+                TIMESTAMP_COLUMN));
+        updateIfStmt = session.prepare(String.format("UPDATE %s SET %s = ?, %s = ? WHERE %s = ? AND %s = ? IF %s = ?",
+                TABLE_NAME, VALUE_COLUMN, TIMESTAMP_COLUMN, KEY_COLUMN, CONTEXT_COLUMN, TIMESTAMP_COLUMN));
+        updateIfWithTtlStmt = session.prepare(String.format("UPDATE %s USING TTL ? SET %s = ?, %s = ? WHERE %s = ? " +
+                "AND %s = ? IF %s = ?", TABLE_NAME, VALUE_COLUMN, TIMESTAMP_COLUMN, KEY_COLUMN, CONTEXT_COLUMN,
+                TIMESTAMP_COLUMN));
         selectStmt = session.prepare(String.format("SELECT %s FROM %s WHERE %s = ? AND %s = ?", VALUE_COLUMN,
                 TABLE_NAME, KEY_COLUMN, CONTEXT_COLUMN));
         timestampStmt = session.prepare(String.format("SELECT %s FROM %s WHERE %s = ? AND %s = ?", TIMESTAMP_COLUMN,
@@ -275,6 +290,60 @@ public class CassandraBlobStore extends AbstractKeyValueStore<byte[]> implements
                 });
     }
 
+    /**
+     * Issues the lookups concurrently rather than waiting for each one in turn.
+     */
+    @Override
+    public Map<String, Long> getAllLastUpdated(Collection<String> keys, String context) {
+        Objects.requireNonNull(keys);
+        Objects.requireNonNull(context);
+
+        final Map<String, CompletableFuture<OptionalLong>> futures = new HashMap<>(keys.size());
+        for (String key : keys) {
+            futures.put(key, getLastUpdatedAsync(key, context));
+        }
+
+        final Map<String, Long> timestamps = new HashMap<>(keys.size());
+        // Cassandra will throw a runtime exception here if any of the executions fail
+        futures.forEach((key, future) -> future.join().ifPresent(timestamp -> timestamps.put(key, timestamp)));
+        return timestamps;
+    }
+
+    /**
+     * Issues a lightweight transaction per key concurrently, inserting the keys that are expected not to exist and
+     * updating the others only if their timestamp still matches.
+     */
+    @Override
+    public Map<String, Long> putAllIfUnchanged(Map<String, byte[]> values, Map<String, Long> expectedVersions,
+                                               String context, Integer ttlInSeconds) {
+        Objects.requireNonNull(values);
+        Objects.requireNonNull(expectedVersions);
+        Objects.requireNonNull(context);
+
+        long timestamp = System.currentTimeMillis();
+
+        final Map<String, CompletableFuture<Boolean>> futures = new HashMap<>(values.size());
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            Objects.requireNonNull(entry.getKey());
+            Objects.requireNonNull(entry.getValue());
+
+            Statement<?> statement = getStatementForConditionalPut(entry.getKey(), context,
+                    ByteBuffer.wrap(entry.getValue()), timestamp, expectedVersions.get(entry.getKey()), ttlInSeconds);
+            futures.put(entry.getKey(), session.executeAsync(statement)
+                    .thenApply(AsyncResultSet::wasApplied)
+                    .toCompletableFuture());
+        }
+
+        final Map<String, Long> timestamps = new HashMap<>(values.size());
+        // Cassandra will throw a runtime exception here if any of the executions fail
+        futures.forEach((key, future) -> {
+            if (future.join()) {
+                timestamps.put(key, timestamp);
+            }
+        });
+        return timestamps;
+    }
+
     @Override
     public Map<String, byte[]> enumerateContext(String context) {
         Objects.requireNonNull(context);
@@ -378,6 +447,25 @@ public class CassandraBlobStore extends AbstractKeyValueStore<byte[]> implements
         return statement;
     }
 
+    private Statement<?> getStatementForConditionalPut(String key, String context, ByteBuffer serializedValue,
+                                                       long timestamp, Long expectedTimestamp, Integer ttlInSeconds) {
+        if (ttlInSeconds != null && ttlInSeconds <= 0) {
+            throw new IllegalArgumentException("TTL must be positive and greater than 0");
+        }
+
+        Instant lastUpdated = Instant.ofEpochMilli(timestamp);
+        if (expectedTimestamp == null) {
+            return ttlInSeconds != null ?
+                    insertIfNotExistsWithTtlStmt.bind(key, context, serializedValue, lastUpdated, ttlInSeconds) :
+                    insertIfNotExistsStmt.bind(key, context, serializedValue, lastUpdated);
+        }
+
+        Instant expected = Instant.ofEpochMilli(expectedTimestamp);
+        return ttlInSeconds != null ?
+                updateIfWithTtlStmt.bind(ttlInSeconds, serializedValue, lastUpdated, key, context, expected) :
+                updateIfStmt.bind(serializedValue, lastUpdated, key, context, expected);
+    }
+
     @Override
     public String getName() {
         return "Cassandra";
@@ -21,13 +21,18 @@
  */
 package org.opennms.features.distributed.kvstore.pgshared;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -84,11 +89,30 @@ public abstract class AbstractPostgresKeyValueStore<T, S> extends AbstractAsyncK
         ));
     }
 
+    /**
+     * The upsert, except that an existing record is only updated if it was last updated at the given timestamp or has
+     * expired.
+     */
+    private PreparedStatement getConditionalUpsertStatement(Connection connection) throws SQLException {
+        return connection.prepareStatement(String.format(
+                "INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, " + getValueStatementPlaceholder() + ") ON " +
+                        "CONFLICT ON CONSTRAINT " + getPkConstraintName() + " DO UPDATE SET %s = ?, %s = ?, %s = " +
+                        getValueStatementPlaceholder() + " WHERE %s.%s = ? OR %s.%s < ?", getTableName(), KEY_COLUMN,
+                CONTEXT_COLUMN, LAST_UPDATED_COLUMN, EXPIRES_AT_COLUMN, VALUE_COLUMN, LAST_UPDATED_COLUMN,
+                EXPIRES_AT_COLUMN, VALUE_COLUMN, getTableName(), LAST_UPDATED_COLUMN, getTableName(), EXPIRES_AT_COLUMN
+        ));
+    }
+
     private PreparedStatement getLastUpdatedStatement(Connection connection) throws SQLException {
         return connection.prepareStatement(String.format("SELECT %s, %s FROM %s WHERE %s = ? AND %s = ?",
                 LAST_UPDATED_COLUMN, EXPIRES_AT_COLUMN, getTableName(), KEY_COLUMN, CONTEXT_COLUMN));
     }
 
+    private PreparedStatement getAllLastUpdatedStatement(Connection connection) throws SQLException {
+        return connection.prepareStatement(String.format("SELECT %s, %s, %s FROM %s WHERE %s = ? AND %s = ANY(?)",
+                KEY_COLUMN, LAST_UPDATED_COLUMN, EXPIRES_AT_COLUMN, getTableName(), CONTEXT_COLUMN, KEY_COLUMN));
+    }
+
     private PreparedStatement getEnumerateStatement(Connection connection) throws SQLException {
         return connection.prepareStatement(String.format("SELECT %s, %s, %s FROM %s WHERE %s = ?",
                 KEY_COLUMN, VALUE_COLUMN, EXPIRES_AT_COLUMN, getTableName(), CONTEXT_COLUMN));
@@ -112,30 +136,111 @@ public abstract class AbstractPostgresKeyValueStore<T, S> extends AbstractAsyncK
         long now = System.currentTimeMillis();
 
         withStatement(this::getUpsertStatement, upsertStatement -> {
-            // The below sets the prepared values for both the INSERT and UPDATE cases hence some values being 
-            // repeated
-            upsertStatement.setString(1, key);
-            upsertStatement.setString(2, context);
-            upsertStatement.setTimestamp(3, new java.sql.Timestamp(now));
-            upsertStatement.setTimestamp(6, new java.sql.Timestamp(now));
-
-            if (ttlInSeconds != null) {
-                long expireTime = now + TimeUnit.MILLISECONDS.convert(ttlInSeconds, TimeUnit.SECONDS);
-                upsertStatement.setTimestamp(4, new java.sql.Timestamp(expireTime));
-                upsertStatement.setTimestamp(7, new java.sql.Timestamp(expireTime));
-            } else {
-                upsertStatement.setNull(4, Types.DATE);
-                upsertStatement.setNull(7, Types.DATE);
-            }
-
-            upsertStatement.setObject(5, getSQLTypeFromValueType(value));
-            upsertStatement.setObject(8, getSQLTypeFromValueType(value));
+            setUpsertValues(upsertStatement, key, value, context, ttlInSeconds, now);
             return upsertStatement.execute();
         });
 
         return now;
     }
 
+    /**
+     * Upserts all of the values with a single batched statement.
+     */
+    @Override
+    public Map<String, Long> putAll(Map<String, T> values, String context, Integer ttlInSeconds) {
+        Objects.requireNonNull(values);
+
+        final Map<String, Long> timestamps = new HashMap<>(values.size());
+        if (values.isEmpty()) {
+            return timestamps;
+        }
+
+        long now = System.currentTimeMillis();
+
+        withStatement(this::getUpsertStatement, upsertStatement -> {
+            for (Map.Entry<String, T> entry : values.entrySet()) {
+                Objects.requireNonNull(entry.getKey());
+                Objects.requireNonNull(entry.getValue());
+
+                setUpsertValues(upsertStatement, entry.getKey(), entry.getValue(), context, ttlInSeconds, now);
+                upsertStatement.addBatch();
+                timestamps.put(entry.getKey(), now);
+            }
+            return upsertStatement.executeBatch();
+        });
+
+        return timestamps;
+    }
+
+    /**
+     * Upserts all of the values with a single batched statement, the update count of each row tells whether its
+     * record was written.
+     */
+    @Override
+    public Map<String, Long> putAllIfUnchanged(Map<String, T> values, Map<String, Long> expectedVersions,
+                                               String context, Integer ttlInSeconds) {
+        Objects.requireNonNull(values);
+        Objects.requireNonNull(expectedVersions);
+
+        final Map<String, Long> timestamps = new HashMap<>(values.size());
+        if (values.isEmpty()) {
+            return timestamps;
+        }
+
+        long now = System.currentTimeMillis();
+
+        return withStatement(this::getConditionalUpsertStatement, upsertStatement -> {
+            final List<String> keys = new ArrayList<>(values.size());
+            for (Map.Entry<String, T> entry : values.entrySet()) {
+                Objects.requireNonNull(entry.getKey());
+                Objects.requireNonNull(entry.getValue());
+
+                setUpsertValues(upsertStatement, entry.getKey(), entry.getValue(), context, ttlInSeconds, now);
+                final Long expectedVersion = expectedVersions.get(entry.getKey());
+                if (expectedVersion != null) {
+                    upsertStatement.setTimestamp(9, new java.sql.Timestamp(expectedVersion));
+                } else {
+                    // never equal, only an expired record can be replaced
+                    upsertStatement.setNull(9, Types.TIMESTAMP);
+                }
+                upsertStatement.setTimestamp(10, new java.sql.Timestamp(now));
+                upsertStatement.addBatch();
+                keys.add(entry.getKey());
+            }
+
+            final int[] updateCounts = upsertStatement.executeBatch();
+            for (int i = 0; i < keys.size(); i++) {
+                // The driver may not report the counts of a rewritten batch, in which case we can't tell
+                if (updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                    timestamps.put(keys.get(i), now);
+                }
+            }
+            return timestamps;
+        });
+    }
+
+    private void setUpsertValues(PreparedStatement upsertStatement, String key, T value, String context,
+                                 Integer ttlInSeconds, long now) throws SQLException {
+        // The below sets the prepared values for both the INSERT and UPDATE cases hence some values being 
+        // repeated
+        upsertStatement.setString(1, key);
+        upsertStatement.setString(2, context);
+        upsertStatement.setTimestamp(3, new java.sql.Timestamp(now));
+        upsertStatement.setTimestamp(6, new java.sql.Timestamp(now));
+
+        if (ttlInSeconds != null) {
+            long expireTime = now + TimeUnit.MILLISECONDS.convert(ttlInSeconds, TimeUnit.SECONDS);
+            upsertStatement.setTimestamp(4, new java.sql.Timestamp(expireTime));
+            upsertStatement.setTimestamp(7, new java.sql.Timestamp(expireTime));
+        } else {
+            upsertStatement.setNull(4, Types.DATE);
+            upsertStatement.setNull(7, Types.DATE);
+        }
+
+        upsertStatement.setObject(5, getSQLTypeFromValueType(value));
+        upsertStatement.setObject(8, getSQLTypeFromValueType(value));
+    }
+
     @Override
     public Optional<T> get(String key, String context) {
         Objects.requireNonNull(key);
@@ -215,6 +320,39 @@ public abstract class AbstractPostgresKeyValueStore<T, S> extends AbstractAsyncK
         });
     }
 
+    /**
+     * Looks all of the keys up with a single query.
+     */
+    @Override
+    public Map<String, Long> getAllLastUpdated(Collection<String> keys, String context) {
+        Objects.requireNonNull(keys);
+        Objects.requireNonNull(context);
+
+        final Map<String, Long> timestamps = new HashMap<>(keys.size());
+        if (keys.isEmpty()) {
+            return timestamps;
+        }
+
+        return withStatement(this::getAllLastUpdatedStatement, lastUpdatedStatement -> {
+            final Array keyArray = lastUpdatedStatement.getConnection().createArrayOf("text", keys.toArray());
+            lastUpdatedStatement.setString(1, context);
+            lastUpdatedStatement.setArray(2, keyArray);
+
+            try (ResultSet resultSet = lastUpdatedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    // Skip the records that have expired but have not been cleaned up yet
+                    if (!isExpired(resultSet)) {
+                        timestamps.put(resultSet.getString(KEY_COLUMN),
+                                resultSet.getTimestamp(LAST_UPDATED_COLUMN).getTime());
+                    }
+                }
+            } finally {
+                keyArray.free();
+            }
+            return timestamps;
+        });
+    }
+
     @Override
     public Map<String, T> enumerateContext(String context) {
         Objects.requireNonNull(context);
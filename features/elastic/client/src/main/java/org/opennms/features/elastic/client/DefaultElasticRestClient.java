@@ -459,6 +459,7 @@ public class DefaultElasticRestClient implements ElasticRestClient {
         String bulkBody = buildBulkRequestBody(bulkRequest);
 
         // Execute with retry logic
+        final int bulkRetryCount = bulkRequest.isRetryEnabled() ? this.bulkRetryCount : 0;
         BulkResponse response = null;
         IOException lastException = null;
 
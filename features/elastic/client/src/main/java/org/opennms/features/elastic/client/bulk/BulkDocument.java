@@ -0,0 +1,80 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.elastic.client.bulk;
+
+import java.util.Objects;
+
+import org.opennms.features.elastic.client.model.BulkOperation;
+
+import com.google.gson.Gson;
+
+/**
+ * A document together with the bulk operation used to index it.
+ *
+ * The document is serialized once, up front, so that the {@link BulkIndexer} can size bulks by bytes
+ * without serializing it a second time when the bulk body is built.
+ */
+public class BulkDocument<T> {
+
+    /** Rough size of the action line preceding each source line */
+    private static final int ACTION_OVERHEAD_BYTES = 48;
+
+    private final T document;
+    private final BulkOperation operation;
+    private final long sizeInBytes;
+
+    public BulkDocument(T document, BulkOperation operation) {
+        this.document = document;
+        this.operation = Objects.requireNonNull(operation);
+        this.sizeInBytes = estimateSize(operation);
+    }
+
+    public static <T> BulkDocument<T> index(String index, String id, T document, Gson gson) {
+        return new BulkDocument<>(document, BulkOperation.index(index, id, gson.toJson(document)));
+    }
+
+    public T getDocument() {
+        return document;
+    }
+
+    public BulkOperation getOperation() {
+        return operation;
+    }
+
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    private static long estimateSize(BulkOperation operation) {
+        long size = ACTION_OVERHEAD_BYTES;
+        if (operation.getIndex() != null) {
+            size += operation.getIndex().length();
+        }
+        if (operation.getId() != null) {
+            size += operation.getId().length();
+        }
+        if (operation.getSource() instanceof String) {
+            size += ((String) operation.getSource()).length();
+        }
+        return size;
+    }
+}
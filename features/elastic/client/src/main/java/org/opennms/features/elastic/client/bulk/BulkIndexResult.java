@@ -0,0 +1,89 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.elastic.client.bulk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a {@link BulkIndexer#submit(List)} call, once all of its bulks and retries have completed.
+ */
+public class BulkIndexResult<T> {
+
+    public static class FailedItem<T> {
+        private final T item;
+        private final int status;
+        private final String error;
+
+        public FailedItem(T item, int status, String error) {
+            this.item = item;
+            this.status = status;
+            this.error = error;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * @return the HTTP status of the item, or -1 if the request itself failed
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final int indexed;
+    private final List<FailedItem<T>> failedItems;
+
+    public BulkIndexResult(int indexed, List<FailedItem<T>> failedItems) {
+        this.indexed = indexed;
+        this.failedItems = Collections.unmodifiableList(failedItems);
+    }
+
+    public static <T> BulkIndexResult<T> merge(List<BulkIndexResult<T>> results) {
+        int indexed = 0;
+        final List<FailedItem<T>> failedItems = new ArrayList<>();
+        for (BulkIndexResult<T> result : results) {
+            indexed += result.indexed;
+            failedItems.addAll(result.failedItems);
+        }
+        return new BulkIndexResult<>(indexed, failedItems);
+    }
+
+    public int getIndexed() {
+        return indexed;
+    }
+
+    public List<FailedItem<T>> getFailedItems() {
+        return failedItems;
+    }
+
+    public boolean hasFailures() {
+        return !failedItems.isEmpty();
+    }
+}
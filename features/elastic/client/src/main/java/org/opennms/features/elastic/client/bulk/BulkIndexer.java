@@ -0,0 +1,329 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.elastic.client.bulk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+import org.elasticsearch.client.ResponseException;
+import org.opennms.features.elastic.client.model.BulkResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Bulk indexing engine shared by the features writing to Elasticsearch.
+ *
+ * Submitted items are split into bulks by their serialized size rather than by count. Up to
+ * {@link BulkIndexerConfig#getMaxInFlight()} bulks are executed concurrently; once that limit is reached
+ * {@link #submit(List)} blocks the caller, which pushes back on the producers instead of queuing without bound.
+ *
+ * Only the items which failed with a retriable status (429, 503, 504) are retried, with an exponential backoff.
+ * The bulk size adapts to the cluster: it is halved when Elasticsearch rejects items with 429, reduced when a bulk
+ * takes longer than {@link BulkIndexerConfig#getTargetLatencyMs()} and grows slowly while neither happens.
+ */
+public class BulkIndexer<T> implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkIndexer.class);
+
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final Set<Integer> RETRIABLE_STATUS = Set.of(STATUS_TOO_MANY_REQUESTS, 503, 504);
+
+    /**
+     * Executes a single bulk request, without retrying it.
+     *
+     * Executors which don't use the low-level rest client should throw a {@link BulkRequestException} when the
+     * whole request fails, so that rejections still shrink the bulk size.
+     */
+    @FunctionalInterface
+    public interface BulkExecutor<T> {
+        /**
+         * @return the response, with one item per given item, in the same order
+         */
+        BulkResponse execute(List<T> items) throws IOException;
+    }
+
+    private final BulkExecutor<T> executor;
+    private final ToLongFunction<T> sizer;
+    private final BulkIndexerConfig config;
+    private final Semaphore inFlight;
+    private final ExecutorService workers;
+    private final AtomicLong targetBulkBytes;
+
+    private final Meter indexedMeter;
+    private final Meter bytesMeter;
+    private final Meter rejectedMeter;
+    private final Meter retriedMeter;
+    private final Meter failedMeter;
+    private final Timer bulkTimer;
+
+    public BulkIndexer(final String name, final BulkExecutor<T> executor, final ToLongFunction<T> sizer,
+                       final BulkIndexerConfig config, final MetricRegistry metrics) {
+        this.executor = Objects.requireNonNull(executor);
+        this.sizer = Objects.requireNonNull(sizer);
+        this.config = Objects.requireNonNull(config);
+        this.inFlight = new Semaphore(Math.max(1, config.getMaxInFlight()));
+        this.targetBulkBytes = new AtomicLong(clamp(config.getInitialBulkBytes()));
+
+        final AtomicInteger threadCount = new AtomicInteger(1);
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable);
+            thread.setName(name + "-bulk-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.workers = Executors.newFixedThreadPool(Math.max(1, config.getMaxInFlight()), threadFactory);
+
+        this.indexedMeter = metrics.meter(MetricRegistry.name(name, "bulk", "indexed"));
+        this.bytesMeter = metrics.meter(MetricRegistry.name(name, "bulk", "bytes"));
+        this.rejectedMeter = metrics.meter(MetricRegistry.name(name, "bulk", "rejected"));
+        this.retriedMeter = metrics.meter(MetricRegistry.name(name, "bulk", "retried"));
+        this.failedMeter = metrics.meter(MetricRegistry.name(name, "bulk", "failed"));
+        this.bulkTimer = metrics.timer(MetricRegistry.name(name, "bulk", "latency"));
+        metrics.register(MetricRegistry.name(name, "bulk", "target-bytes"), (Gauge<Long>) targetBulkBytes::get);
+        metrics.register(MetricRegistry.name(name, "bulk", "in-flight"),
+                (Gauge<Integer>) () -> Math.max(1, config.getMaxInFlight()) - inFlight.availablePermits());
+    }
+
+    /**
+     * Splits the given items into bulks and dispatches them.
+     *
+     * Blocks while the maximum number of bulks is already in flight.
+     *
+     * @return a future which completes once all bulks, including retries, are done. It never completes exceptionally;
+     *         items which could not be indexed are part of the result.
+     */
+    public CompletableFuture<BulkIndexResult<T>> submit(final List<T> items) {
+        final List<CompletableFuture<BulkIndexResult<T>>> futures = new ArrayList<>();
+        List<T> bulk = new ArrayList<>();
+        long bulkBytes = 0;
+        for (T item : items) {
+            bulk.add(item);
+            bulkBytes += sizer.applyAsLong(item);
+            if (bulkBytes >= targetBulkBytes.get()) {
+                futures.add(dispatch(bulk, bulkBytes));
+                bulk = new ArrayList<>();
+                bulkBytes = 0;
+            }
+        }
+        if (!bulk.isEmpty()) {
+            futures.add(dispatch(bulk, bulkBytes));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    final List<BulkIndexResult<T>> results = new ArrayList<>(futures.size());
+                    for (CompletableFuture<BulkIndexResult<T>> future : futures) {
+                        results.add(future.join());
+                    }
+                    return BulkIndexResult.merge(results);
+                });
+    }
+
+    private CompletableFuture<BulkIndexResult<T>> dispatch(final List<T> bulk, final long bulkBytes) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(fail(bulk, -1, "Interrupted before the bulk was sent"));
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return execute(bulk, bulkBytes);
+                } finally {
+                    inFlight.release();
+                }
+            }, workers);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            return CompletableFuture.completedFuture(fail(bulk, -1, "Bulk indexer is closed"));
+        }
+    }
+
+    private BulkIndexResult<T> execute(final List<T> bulk, final long bulkBytes) {
+        final List<BulkIndexResult.FailedItem<T>> failedItems = new ArrayList<>();
+        int indexed = 0;
+        List<T> pending = bulk;
+        long pendingBytes = bulkBytes;
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                retriedMeter.mark(pending.size());
+                if (!waitBeforeRetrying(attempt)) {
+                    failedItems.addAll(fail(pending, -1, "Interrupted while waiting to retry").getFailedItems());
+                    break;
+                }
+            }
+            final boolean canRetry = attempt < config.getMaxRetries();
+
+            final BulkResponse response;
+            final long start = System.nanoTime();
+            try {
+                response = executor.execute(pending);
+            } catch (IOException e) {
+                final boolean rejected = isRejection(e);
+                if (rejected) {
+                    rejectedMeter.mark(pending.size());
+                }
+                adapt(rejected, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (canRetry) {
+                    LOG.warn("Bulk request with {} items failed, retrying: {}", pending.size(), e.getMessage());
+                    continue;
+                }
+                LOG.error("Bulk request with {} items failed after {} attempts.", pending.size(), attempt + 1, e);
+                failedItems.addAll(fail(pending, -1, e.getMessage()).getFailedItems());
+                break;
+            }
+            final long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            bulkTimer.update(latencyMs, TimeUnit.MILLISECONDS);
+            bytesMeter.mark(pendingBytes);
+
+            if (!response.hasErrors()) {
+                indexed += pending.size();
+                adapt(false, latencyMs);
+                break;
+            }
+            if (response.getItems().size() != pending.size()) {
+                // We can't tell which items failed
+                failedItems.addAll(fail(pending, -1, response.getErrors()).getFailedItems());
+                adapt(false, latencyMs);
+                break;
+            }
+
+            final List<T> retries = new ArrayList<>();
+            long retryBytes = 0;
+            int rejected = 0;
+            for (int i = 0; i < pending.size(); i++) {
+                final BulkResponse.BulkItemResponse itemResponse = response.getItems().get(i);
+                final T item = pending.get(i);
+                if (itemResponse.getError() == null) {
+                    indexed++;
+                    continue;
+                }
+                if (itemResponse.getStatus() == STATUS_TOO_MANY_REQUESTS) {
+                    rejected++;
+                }
+                if (canRetry && RETRIABLE_STATUS.contains(itemResponse.getStatus())) {
+                    retries.add(item);
+                    retryBytes += sizer.applyAsLong(item);
+                } else {
+                    failedItems.add(new BulkIndexResult.FailedItem<>(item, itemResponse.getStatus(), itemResponse.getError()));
+                }
+            }
+            rejectedMeter.mark(rejected);
+            adapt(rejected > 0, latencyMs);
+            pending = retries;
+            pendingBytes = retryBytes;
+        }
+
+        indexedMeter.mark(indexed);
+        failedMeter.mark(failedItems.size());
+        return new BulkIndexResult<>(indexed, failedItems);
+    }
+
+    /**
+     * Additive increase, multiplicative decrease: back off hard on rejections, a little on slow bulks
+     * and probe for larger bulks otherwise.
+     */
+    private void adapt(final boolean rejected, final long latencyMs) {
+        targetBulkBytes.updateAndGet(current -> {
+            if (rejected) {
+                return clamp(current / 2);
+            } else if (latencyMs > config.getTargetLatencyMs()) {
+                return clamp(current * 3 / 4);
+            }
+            return clamp(current + config.getMinBulkBytes());
+        });
+    }
+
+    private long clamp(final long bulkBytes) {
+        return Math.max(config.getMinBulkBytes(), Math.min(config.getMaxBulkBytes(), bulkBytes));
+    }
+
+    private boolean waitBeforeRetrying(final int attempt) {
+        final long backoff = Math.min(config.getMaxRetryBackoffMs(), config.getRetryBackoffMs() << Math.min(attempt - 1, 20));
+        // Spread the retries of concurrent bulks
+        final long sleepTime = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        try {
+            Thread.sleep(sleepTime);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static boolean isRejection(final IOException e) {
+        if (e instanceof BulkRequestException) {
+            return ((BulkRequestException) e).getStatus() == STATUS_TOO_MANY_REQUESTS;
+        }
+        return e instanceof ResponseException
+                && ((ResponseException) e).getResponse().getStatusLine().getStatusCode() == STATUS_TOO_MANY_REQUESTS;
+    }
+
+    private BulkIndexResult<T> fail(final List<T> items, final int status, final String error) {
+        final List<BulkIndexResult.FailedItem<T>> failedItems = new ArrayList<>(items.size());
+        for (T item : items) {
+            failedItems.add(new BulkIndexResult.FailedItem<>(item, status, error));
+        }
+        return new BulkIndexResult<>(0, failedItems);
+    }
+
+    public long getTargetBulkBytes() {
+        return targetBulkBytes.get();
+    }
+
+    /**
+     * Waits for the bulks in flight to complete and stops the worker threads.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(config.getMaxRetryBackoffMs() * 2, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Bulks were still in flight when the bulk indexer was closed.");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+}
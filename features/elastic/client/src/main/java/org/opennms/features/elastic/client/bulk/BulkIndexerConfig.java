@@ -0,0 +1,113 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.elastic.client.bulk;
+
+/**
+ * Settings for a {@link BulkIndexer}.
+ */
+public class BulkIndexerConfig {
+
+    /** Size of the first bulks, before any feedback from the cluster was observed */
+    private long initialBulkBytes = 5 * 1024 * 1024;
+
+    /** Lower bound of the bulk size, also used as the step when growing bulks */
+    private long minBulkBytes = 256 * 1024;
+
+    private long maxBulkBytes = 15 * 1024 * 1024;
+
+    /** Number of bulks which may be executed concurrently */
+    private int maxInFlight = 4;
+
+    /** Number of times failed items are retried before they are considered lost */
+    private int maxRetries = 5;
+
+    private long retryBackoffMs = 500;
+
+    private long maxRetryBackoffMs = 30000;
+
+    /** Bulks taking longer than this shrink the bulk size */
+    private long targetLatencyMs = 2000;
+
+    public long getInitialBulkBytes() {
+        return initialBulkBytes;
+    }
+
+    public void setInitialBulkBytes(long initialBulkBytes) {
+        this.initialBulkBytes = initialBulkBytes;
+    }
+
+    public long getMinBulkBytes() {
+        return minBulkBytes;
+    }
+
+    public void setMinBulkBytes(long minBulkBytes) {
+        this.minBulkBytes = minBulkBytes;
+    }
+
+    public long getMaxBulkBytes() {
+        return maxBulkBytes;
+    }
+
+    public void setMaxBulkBytes(long maxBulkBytes) {
+        this.maxBulkBytes = maxBulkBytes;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    public void setRetryBackoffMs(long retryBackoffMs) {
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    public long getMaxRetryBackoffMs() {
+        return maxRetryBackoffMs;
+    }
+
+    public void setMaxRetryBackoffMs(long maxRetryBackoffMs) {
+        this.maxRetryBackoffMs = maxRetryBackoffMs;
+    }
+
+    public long getTargetLatencyMs() {
+        return targetLatencyMs;
+    }
+
+    public void setTargetLatencyMs(long targetLatencyMs) {
+        this.targetLatencyMs = targetLatencyMs;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.elastic.client.bulk;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link BulkIndexer.BulkExecutor} when Elasticsearch failed the whole bulk request, so that the
+ * indexer can tell a rejection apart from other failures regardless of the client used to send the bulk.
+ */
+public class BulkRequestException extends IOException {
+
+    private final int status;
+
+    public BulkRequestException(final int status, final String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return the HTTP status of the response
+     */
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.elastic.client.bulk;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.features.elastic.client.ElasticRestClient;
+import org.opennms.features.elastic.client.model.BulkRequest;
+import org.opennms.features.elastic.client.model.BulkResponse;
+
+/**
+ * Executes the bulks of a {@link BulkIndexer} using an {@link ElasticRestClient}.
+ *
+ * The client's own retries are disabled, since the indexer only retries the items which failed.
+ */
+public class RestClientBulkExecutor<T> implements BulkIndexer.BulkExecutor<BulkDocument<T>> {
+
+    private final ElasticRestClient client;
+
+    public RestClientBulkExecutor(ElasticRestClient client) {
+        this.client = Objects.requireNonNull(client);
+    }
+
+    @Override
+    public BulkResponse execute(List<BulkDocument<T>> documents) throws IOException {
+        final BulkRequest bulkRequest = new BulkRequest();
+        bulkRequest.setRetryEnabled(false);
+        for (BulkDocument<T> document : documents) {
+            bulkRequest.add(document.getOperation());
+        }
+        return client.executeBulk(bulkRequest);
+    }
+}
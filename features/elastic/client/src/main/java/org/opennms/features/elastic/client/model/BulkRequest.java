@@ -32,6 +32,7 @@ public class BulkRequest {
     private final List<BulkOperation> operations = new ArrayList<>();
     private int retryCount = 0;
     private String refresh = null;
+    private boolean retryEnabled = true;
     
     public BulkRequest() {
     }
@@ -70,6 +71,17 @@ public class BulkRequest {
         this.retryCount = retryCount;
     }
     
+    public boolean isRetryEnabled() {
+        return retryEnabled;
+    }
+    
+    /**
+     * Set to false to send the request exactly once, e.g. when the caller retries failed items itself.
+     */
+    public void setRetryEnabled(boolean retryEnabled) {
+        this.retryEnabled = retryEnabled;
+    }
+    
     public String getRefresh() {
         return refresh;
     }
@@ -0,0 +1,178 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.elastic.client.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.features.elastic.client.model.BulkResponse;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class BulkIndexerTest {
+
+    private final List<List<Integer>> bulks = Collections.synchronizedList(new ArrayList<>());
+
+    private BulkIndexer<Integer> bulkIndexer;
+
+    @After
+    public void tearDown() {
+        if (bulkIndexer != null) {
+            bulkIndexer.close();
+        }
+    }
+
+    @Test
+    public void canSplitBulksByBytes() throws Exception {
+        bulkIndexer = new BulkIndexer<>("test", items -> {
+            bulks.add(new ArrayList<>(items));
+            return respond(items, 200);
+        }, item -> 100L, config(1000), new MetricRegistry());
+
+        final BulkIndexResult<Integer> result = bulkIndexer.submit(items(25)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(25, result.getIndexed());
+        assertEquals(0, result.getFailedItems().size());
+        assertEquals(3, bulks.size());
+        assertEquals(25, bulks.stream().mapToInt(List::size).sum());
+        for (List<Integer> bulk : bulks) {
+            assertTrue(bulk.size() <= 10);
+        }
+    }
+
+    @Test
+    public void canRetryOnlyRejectedItems() throws Exception {
+        bulkIndexer = new BulkIndexer<>("test", items -> {
+            bulks.add(new ArrayList<>(items));
+            final List<BulkResponse.BulkItemResponse> responses = new ArrayList<>();
+            for (Integer item : items) {
+                // Reject the odd items on the first attempt only
+                final boolean rejected = bulks.size() == 1 && item % 2 == 1;
+                responses.add(new BulkResponse.BulkItemResponse("index", null, rejected ? 429 : 201, rejected ? "rejected" : null));
+            }
+            return new BulkResponse(bulks.size() == 1, responses, 0);
+        }, item -> 100L, config(10000), new MetricRegistry());
+
+        final BulkIndexResult<Integer> result = bulkIndexer.submit(items(10)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(10, result.getIndexed());
+        assertEquals(2, bulks.size());
+        assertEquals(10, bulks.get(0).size());
+        assertEquals(List.of(1, 3, 5, 7, 9), bulks.get(1));
+        // The rejection halved the bulk size before the successful retry grew it again
+        assertEquals(10000 / 2 + 100, bulkIndexer.getTargetBulkBytes());
+    }
+
+    @Test
+    public void canShrinkBulksWhenWholeRequestIsRejected() throws Exception {
+        bulkIndexer = new BulkIndexer<>("test", items -> {
+            bulks.add(new ArrayList<>(items));
+            if (bulks.size() == 1) {
+                throw new BulkRequestException(429, "rejected");
+            }
+            return respond(items, 200);
+        }, item -> 100L, config(10000), new MetricRegistry());
+
+        final BulkIndexResult<Integer> result = bulkIndexer.submit(items(10)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(10, result.getIndexed());
+        assertEquals(2, bulks.size());
+        assertEquals(10000 / 2 + 100, bulkIndexer.getTargetBulkBytes());
+    }
+
+    @Test
+    public void canReportFailedItems() throws Exception {
+        bulkIndexer = new BulkIndexer<>("test", items -> {
+            bulks.add(new ArrayList<>(items));
+            return respond(items, 400);
+        }, item -> 100L, config(10000), new MetricRegistry());
+
+        final BulkIndexResult<Integer> result = bulkIndexer.submit(items(3)).get(10, TimeUnit.SECONDS);
+
+        // Not retriable, so only a single attempt is made
+        assertEquals(1, bulks.size());
+        assertEquals(0, result.getIndexed());
+        assertEquals(3, result.getFailedItems().size());
+        assertEquals(400, result.getFailedItems().get(0).getStatus());
+        assertEquals(Integer.valueOf(0), result.getFailedItems().get(0).getItem());
+    }
+
+    @Test
+    public void canLimitBulksInFlight() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(2);
+        bulkIndexer = new BulkIndexer<>("test", items -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            started.countDown();
+            try {
+                started.await(5, TimeUnit.SECONDS);
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            return respond(items, 200);
+        }, item -> 100L, config(100), new MetricRegistry());
+
+        final BulkIndexResult<Integer> result = bulkIndexer.submit(items(10)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(10, result.getIndexed());
+        assertEquals(2, maxInFlight.get());
+    }
+
+    private static BulkIndexerConfig config(long bulkBytes) {
+        final BulkIndexerConfig config = new BulkIndexerConfig();
+        config.setInitialBulkBytes(bulkBytes);
+        config.setMinBulkBytes(100);
+        config.setMaxBulkBytes(bulkBytes);
+        config.setMaxInFlight(2);
+        config.setRetryBackoffMs(1);
+        config.setTargetLatencyMs(5000);
+        return config;
+    }
+
+    private static List<Integer> items(int count) {
+        final List<Integer> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private static BulkResponse respond(List<Integer> items, int status) {
+        final List<BulkResponse.BulkItemResponse> responses = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            responses.add(new BulkResponse.BulkItemResponse("index", null, status, status >= 300 ? "failed" : null));
+        }
+        return new BulkResponse(status >= 300, responses, 0);
+    }
+}
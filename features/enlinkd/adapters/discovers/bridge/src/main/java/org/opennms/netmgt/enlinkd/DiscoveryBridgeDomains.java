@@ -22,17 +22,24 @@
 package org.opennms.netmgt.enlinkd;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.netmgt.scheduler.Schedulable;
 import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry;
@@ -43,6 +50,13 @@ import org.opennms.netmgt.enlinkd.service.api.DiscoveryBridgeTopology;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Calculates the topology of the broadcast domains of the bridges with updated forwarding tables.
+ *
+ * Macs are compared as sorted arrays of longs, the domains are calculated in parallel on a fork join pool, and
+ * bridges whose forwarding table did not change since their last successful calculation are left out of the
+ * calculation: their forwarding table is derived from the domain topology instead.
+ */
 public class DiscoveryBridgeDomains extends Schedulable {
 
     public static final int DOMAIN_MATCH_MIN_SIZE = 20;
@@ -56,26 +70,107 @@ public class DiscoveryBridgeDomains extends Schedulable {
     private int m_maxthreads=1;
     private final BridgeTopologyService m_bridgeTopologyService;
 
+    // fingerprint of the forwarding table last calculated successfully, by bridge node id
+    private final Map<Integer, Long> m_bftFingerprints = new ConcurrentHashMap<>();
+    private final Map<String, Long> m_domainCalculationTimes = new ConcurrentHashMap<>();
+    private volatile long m_lastRunTime;
+    private volatile int m_lastRunDomains;
+    private volatile int m_lastRunSkippedBridges;
+
     public DiscoveryBridgeDomains(BridgeTopologyService bridgeTopologyService) {
         super();
         m_bridgeTopologyService = bridgeTopologyService;
     }
 
     public static boolean checkMacSets(Set<String> setA, Set<String> setB) {
-        Set<String> retainedSet = new HashSet<>(setB);
-        retainedSet.retainAll(setA);
+        return checkMacSets(toMacIndex(setA), toMacIndex(setB));
+    }
+
+    /**
+     * Same as {@link #checkMacSets(Set, Set)} for macs indexed with {@link #toMacIndex(Collection)}.
+     */
+    public static boolean checkMacSets(long[] macsA, long[] macsB) {
+        int retained = 0;
+        int a = 0;
+        int b = 0;
+        while (a < macsA.length && b < macsB.length) {
+            if (macsA[a] < macsB[b]) {
+                a++;
+            } else if (macsA[a] > macsB[b]) {
+                b++;
+            } else {
+                retained++;
+                a++;
+                b++;
+            }
+        }
         // should contain at list 20 or 50% of the all size
-        return retainedSet.size() > DOMAIN_MATCH_MIN_SIZE
-                || retainedSet.size() > setA.size() * DOMAIN_MATCH_MIN_RATIO
-                || retainedSet.size() > setB.size() * DOMAIN_MATCH_MIN_RATIO;
+        return retained > DOMAIN_MATCH_MIN_SIZE
+                || retained > macsA.length * DOMAIN_MATCH_MIN_RATIO
+                || retained > macsB.length * DOMAIN_MATCH_MIN_RATIO;
+    }
+
+    /**
+     * Converts the macs to a sorted array of distinct longs.
+     */
+    public static long[] toMacIndex(Collection<String> macs) {
+        final long[] index = new long[macs.size()];
+        int i = 0;
+        for (String mac : macs) {
+            index[i++] = toLong(mac);
+        }
+        Arrays.sort(index);
+        int distinct = 0;
+        for (i = 0; i < index.length; i++) {
+            if (distinct == 0 || index[distinct - 1] != index[i]) {
+                index[distinct++] = index[i];
+            }
+        }
+        return distinct == index.length ? index : Arrays.copyOf(index, distinct);
+    }
+
+    static long toLong(String mac) {
+        if (mac != null && mac.length() == 12) {
+            try {
+                return Long.parseLong(mac, 16);
+            } catch (NumberFormatException e) {
+                // not a plain hex mac
+            }
+        }
+        // Out of the 48 bit range of macs
+        return Long.MIN_VALUE | (Objects.hashCode(mac) & 0xffffffffL);
+    }
+
+    /**
+     * Order independent fingerprint of a bridge forwarding table.
+     */
+    static long fingerprint(Set<BridgeForwardingTableEntry> bft) {
+        long fingerprint = bft.size();
+        for (BridgeForwardingTableEntry link : bft) {
+            fingerprint += mix(Objects.hash(link.getMacAddress(),
+                                            link.getBridgePort(),
+                                            link.getBridgePortIfIndex(),
+                                            link.getVlan(),
+                                            link.getBridgeDot1qTpFdbStatus()));
+        }
+        return fingerprint;
     }
 
-    private BroadcastDomain find(Set<Integer> nodes, Set<String> setA) throws BridgeTopologyException {
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private BroadcastDomain find(Set<Integer> nodes, long[] setA, Map<BroadcastDomain, long[]> domainMacs) throws BridgeTopologyException {
         
         BroadcastDomain domain = null;
         
         for (BroadcastDomain curBDomain : m_bridgeTopologyService.findAll()) {
-            if (checkMacSets(setA, curBDomain.getMacsOnSegments())) {
+            if (checkMacSets(setA, domainMacs.computeIfAbsent(curBDomain, d -> toMacIndex(d.getMacsOnSegments())))) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("find: node:{}, domain:{}",
                              nodes, 
@@ -103,6 +198,10 @@ public class DiscoveryBridgeDomains extends Schedulable {
                 continue;
             }
             m_bridgeTopologyService.reconcile(olddomain, nodeid);
+            // the old domain lost a bridge, so neither its macs nor the topology of its bridges are still valid
+            domainMacs.remove(olddomain);
+            olddomain.getBridgeNodesOnDomain().forEach(m_bftFingerprints::remove);
+            m_bftFingerprints.remove(nodeid);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("find: node:[{}]. Removed from Old Domain \n{}", 
                      nodeid, olddomain.printTopology());
@@ -111,17 +210,27 @@ public class DiscoveryBridgeDomains extends Schedulable {
 
         return domain;        
     }
-    
+
+    private boolean isUnchanged(BroadcastDomain domain, Integer bridgeId, long fingerprint) {
+        final Long calculated = m_bftFingerprints.get(bridgeId);
+        return calculated != null && calculated == fingerprint
+                && domain.getBridge(bridgeId) != null
+                && !domain.getBridge(bridgeId).isNewTopology();
+    }
+
     @Override
     public void runSchedulable() {
         LOG.info("run: calculate topology on broadcast domains. Start");
+        final long start = System.nanoTime();
         
         Map<Integer, Map<Integer, Set<BridgeForwardingTableEntry>>> nodeondomainbft 
             = new HashMap<>();
 
         Map<Integer, Set<BridgeForwardingTableEntry>> nodeBft 
             = new HashMap<>();
-        Map<Integer, Set<String>> nodeMacs 
+        Map<Integer, long[]> nodeMacs 
+        = new HashMap<>();
+        Map<Integer, Long> nodeFingerprints
         = new HashMap<>();
 
         Set<Integer> nodeids 
@@ -143,7 +252,8 @@ public class DiscoveryBridgeDomains extends Schedulable {
                 macs.add(link.getMacAddress());
             }
             LOG.debug("run: node:[{}]. macs:{}", nodeid, macs);
-            nodeMacs.put(nodeid, macs);
+            nodeMacs.put(nodeid, toMacIndex(macs));
+            nodeFingerprints.put(nodeid, fingerprint(links));
         }
 
         Set<Integer> parsed = new HashSet<>();
@@ -169,18 +279,31 @@ public class DiscoveryBridgeDomains extends Schedulable {
             }
         }
 
+        Map<BroadcastDomain, long[]> domainMacs = new HashMap<>();
+        Set<Integer> skipped = new HashSet<>();
         List<Callable<String>> taskList = new ArrayList<>();
         for (Integer nodeid : nodeondomainbft.keySet()) {
             LOG.debug("run: nodes are on same domain {}",nodeondomainbft.get(nodeid).keySet());
             try {
                 BroadcastDomain domain = find(nodeondomainbft.get(nodeid).keySet(),
-                                              nodeMacs.get(nodeid));
+                                              nodeMacs.get(nodeid), domainMacs);
                 DiscoveryBridgeTopology nodebridgetopology = new DiscoveryBridgeTopology(domain);
+                Set<Integer> updated = new HashSet<>();
                 
                 synchronized (domain) {
+                    // a table left out is derived from the current topology, which a change on any other
+                    // bridge can invalidate: the domain is only left alone when none of its tables changed
+                    final boolean unchanged = nodeondomainbft.get(nodeid).keySet().stream()
+                            .allMatch(bridgeId -> isUnchanged(domain, bridgeId, nodeFingerprints.get(bridgeId)));
                     for (Integer bridgeId : nodeondomainbft.get(nodeid).keySet()) {
-                        nodebridgetopology.addUpdatedBFT(bridgeId,
-                                                         nodeondomainbft.get(nodeid).get(bridgeId));
+                        if (unchanged) {
+                            LOG.debug("run: bridge:[{}]. bft unchanged, skipping", bridgeId);
+                            skipped.add(bridgeId);
+                        } else {
+                            nodebridgetopology.addUpdatedBFT(bridgeId,
+                                                             nodeondomainbft.get(nodeid).get(bridgeId));
+                            updated.add(bridgeId);
+                        }
                         m_bridgeTopologyService.updateBridgeOnDomain(domain,bridgeId);
                     }
                 }
@@ -189,15 +312,29 @@ public class DiscoveryBridgeDomains extends Schedulable {
                     synchronized (domain) {
                         
                         Date now = new Date();
-                        LOG.debug("run: calculate start"); 
-                        nodebridgetopology.calculate();
-                        LOG.debug("run: calculate end"); 
+                        final long domainStart = System.nanoTime();
+                        if (updated.isEmpty()) {
+                            LOG.debug("run: calculate skipped, no changed bft");
+                        } else {
+                            LOG.debug("run: calculate start");
+                            nodebridgetopology.calculate();
+                            LOG.debug("run: calculate end");
+                            for (Integer bridgeId : updated) {
+                                if (nodebridgetopology.getParsed().contains(bridgeId)) {
+                                    m_bftFingerprints.put(bridgeId, nodeFingerprints.get(bridgeId));
+                                } else {
+                                    m_bftFingerprints.remove(bridgeId);
+                                }
+                            }
+                        }
+                        final long calculated = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - domainStart);
+                        m_domainCalculationTimes.put(getDomainName(domain), calculated);
                     
                         LOG.debug("run: save start");
                         m_bridgeTopologyService.store(domain, now);
                         LOG.debug("run: save end");
+                        return "executed Task: " + nodebridgetopology.getInfo() + ", calculated in " + calculated + "ms";
                     }
-                    return "executed Task: " + nodebridgetopology.getInfo();
                 };
                 taskList.add(task);
                 LOG.info("run: added Task {}", nodebridgetopology.getInfo());
@@ -213,23 +350,35 @@ public class DiscoveryBridgeDomains extends Schedulable {
         }
 
         if (n > 0) {
-            LOG.debug("run: creating executorService with {} Threads", n);
-            ExecutorService executorService = Executors.newFixedThreadPool(n);
-            LOG.debug("run: created executorService with {} Threads", n);
-
+            LOG.debug("run: creating fork join pool with {} Threads", n);
+            ForkJoinPool pool = new ForkJoinPool(n);
             try {
-                for (Future<String> future : executorService.invokeAll(taskList)) {
+                for (Future<String> future : pool.invokeAll(taskList)) {
                     LOG.info("run: {}", future.get());
                 }
             } catch (InterruptedException | ExecutionException e) {
                 LOG.error("run: executing task {}", e.getMessage(), e);
+            } finally {
+                pool.shutdown();
             }
-            executorService.shutdown();
         } else {
             LOG.info("run: no updates on broadcast domains");
         }
-        LOG.info("run: calculate topology on broadcast domains. End");
+        // forget the timings of domains which no longer exist
+        final Set<String> domainNames = new HashSet<>();
+        m_bridgeTopologyService.findAll().forEach(domain -> domainNames.add(getDomainName(domain)));
+        m_domainCalculationTimes.keySet().retainAll(domainNames);
+
+        m_lastRunDomains = taskList.size();
+        m_lastRunSkippedBridges = skipped.size();
+        m_lastRunTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.info("run: calculate topology on broadcast domains. End. {} domains in {}ms, {} bridges with unchanged bft",
+                 m_lastRunDomains, m_lastRunTime, m_lastRunSkippedBridges);
+
+    }
 
+    private static String getDomainName(BroadcastDomain domain) {
+        return "domain" + new TreeSet<>(domain.getBridgeNodesOnDomain());
     }
 
     @Override
@@ -244,6 +393,33 @@ public class DiscoveryBridgeDomains extends Schedulable {
     public BridgeTopologyService getBridgeTopologyService() {
         return m_bridgeTopologyService;
     }
+
+    /**
+     * @return the time in milliseconds of the last run
+     */
+    public long getLastRunTime() {
+        return m_lastRunTime;
+    }
+
+    /**
+     * @return the number of domains calculated in the last run
+     */
+    public int getLastRunDomains() {
+        return m_lastRunDomains;
+    }
+
+    /**
+     * @return the number of bridges left out of the last run since no forwarding table of their domain changed
+     */
+    public int getLastRunSkippedBridges() {
+        return m_lastRunSkippedBridges;
+    }
+
+    /**
+     * @return the time in milliseconds of the last calculation of each domain, by the bridge nodes on the domain
+     */
+    public Map<String, Long> getDomainCalculationTimes() {
+        return Collections.unmodifiableMap(new TreeMap<>(m_domainCalculationTimes));
+    }
             
 }
-
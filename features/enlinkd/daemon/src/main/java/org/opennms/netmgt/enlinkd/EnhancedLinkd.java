@@ -561,6 +561,9 @@ public class EnhancedLinkd extends AbstractServiceDaemon implements ReloadableTo
     public OspfAreaOnmsTopologyUpdater getOspfAreaTopologyUpdater() {
         return m_ospfAreaTopologyUpdater;
     }
+    public DiscoveryBridgeDomains getDiscoveryBridgeDomains() {
+        return m_discoveryBridgeDomains;
+    }
 
     @Override
     public void reload() {
@@ -30,6 +30,8 @@
  */
 package org.opennms.netmgt.enlinkd.jmx;
 
+import java.util.Map;
+
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 
 public class EnhancedLinkd extends AbstractSpringContextJmxServiceDaemon<org.opennms.netmgt.enlinkd.EnhancedLinkd> implements EnhancedLinkdMBean {
@@ -46,4 +48,28 @@ public class EnhancedLinkd extends AbstractSpringContextJmxServiceDaemon<org.ope
         return "enhancedLinkdContext";
     }
 
+    @Override
+    /** {@inheritDoc} */
+    public long getBridgeTopologyLastRunTime() {
+        return getDaemon().getDiscoveryBridgeDomains().getLastRunTime();
+    }
+
+    @Override
+    /** {@inheritDoc} */
+    public int getBridgeTopologyLastRunDomains() {
+        return getDaemon().getDiscoveryBridgeDomains().getLastRunDomains();
+    }
+
+    @Override
+    /** {@inheritDoc} */
+    public int getBridgeTopologyLastRunSkippedBridges() {
+        return getDaemon().getDiscoveryBridgeDomains().getLastRunSkippedBridges();
+    }
+
+    @Override
+    /** {@inheritDoc} */
+    public Map<String, Long> getBridgeTopologyDomainCalculationTimes() {
+        return getDaemon().getDiscoveryBridgeDomains().getDomainCalculationTimes();
+    }
+
 }
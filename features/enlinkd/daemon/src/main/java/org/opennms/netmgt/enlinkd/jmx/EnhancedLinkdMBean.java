@@ -21,6 +21,8 @@
  */
 package org.opennms.netmgt.enlinkd.jmx;
 
+import java.util.Map;
+
 import org.opennms.netmgt.daemon.BaseOnmsMBean;
 
 /**
@@ -30,4 +32,27 @@ import org.opennms.netmgt.daemon.BaseOnmsMBean;
  * @version $Id: $
  */
 public interface EnhancedLinkdMBean extends BaseOnmsMBean {
+
+    /**
+     * @return The time in milliseconds taken by the last calculation of the
+     *         bridge broadcast domains
+     */
+    public long getBridgeTopologyLastRunTime();
+
+    /**
+     * @return The number of broadcast domains calculated by the last run
+     */
+    public int getBridgeTopologyLastRunDomains();
+
+    /**
+     * @return The number of bridges left out of the last run since their
+     *         forwarding table did not change
+     */
+    public int getBridgeTopologyLastRunSkippedBridges();
+
+    /**
+     * @return The time in milliseconds taken by the last calculation of each
+     *         broadcast domain, by the bridge nodes on the domain
+     */
+    public Map<String, Long> getBridgeTopologyDomainCalculationTimes();
 }
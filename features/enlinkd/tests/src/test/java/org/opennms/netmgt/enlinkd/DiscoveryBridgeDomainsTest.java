@@ -0,0 +1,356 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.enlinkd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.opennms.netmgt.enlinkd.model.BridgeBridgeLink;
+import org.opennms.netmgt.enlinkd.model.BridgeElement;
+import org.opennms.netmgt.enlinkd.model.BridgeMacLink;
+import org.opennms.netmgt.enlinkd.model.BridgeStpLink;
+import org.opennms.netmgt.enlinkd.service.api.Bridge;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry;
+import org.opennms.netmgt.enlinkd.service.api.BridgePortWithMacs;
+import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyService;
+import org.opennms.netmgt.enlinkd.service.api.BroadcastDomain;
+import org.opennms.netmgt.enlinkd.service.api.MacPort;
+import org.opennms.netmgt.enlinkd.service.api.SharedSegment;
+import org.opennms.netmgt.enlinkd.service.api.TopologyShared;
+
+public class DiscoveryBridgeDomainsTest {
+
+    @Test
+    public void testMacIndex() {
+        final long[] index = DiscoveryBridgeDomains.toMacIndex(Arrays.asList("0012cf68f800", "000c29dcc076", "0012cf68f800", "001763010d4f"));
+        assertArrayEquals(new long[] {0x000c29dcc076L, 0x0012cf68f800L, 0x001763010d4fL}, sortedCopy(index));
+        assertEquals(3, index.length);
+
+        // anything which isn't a mac still gets a distinct value, outside of the range of macs
+        final long[] invalid = DiscoveryBridgeDomains.toMacIndex(Arrays.asList("not-a-mac", "0012cf68f800"));
+        assertEquals(2, invalid.length);
+        assertTrue(invalid[0] < 0);
+    }
+
+    @Test
+    public void testCheckMacSets() {
+        final Set<String> setA = macs(0, 50);
+        // 21 shared macs: enough by size
+        assertTrue(DiscoveryBridgeDomains.checkMacSets(setA, macs(29, 200)));
+        // 20 shared macs, less than 50% of both sets
+        assertFalse(DiscoveryBridgeDomains.checkMacSets(setA, macs(30, 200)));
+        // 3 shared macs, more than 50% of the smaller set
+        assertTrue(DiscoveryBridgeDomains.checkMacSets(macs(0, 5), macs(2, 100)));
+        assertFalse(DiscoveryBridgeDomains.checkMacSets(macs(0, 5), macs(5, 100)));
+    }
+
+    @Test
+    public void testFingerprint() {
+        final Set<BridgeForwardingTableEntry> bft = new LinkedHashSet<>();
+        bft.add(entry(1, "0012cf68f800", 1));
+        bft.add(entry(1, "000c29dcc076", 2));
+        bft.add(entry(1, "001763010d4f", 2));
+
+        final Set<BridgeForwardingTableEntry> reversed = new LinkedHashSet<>();
+        reversed.add(entry(1, "001763010d4f", 2));
+        reversed.add(entry(1, "000c29dcc076", 2));
+        reversed.add(entry(1, "0012cf68f800", 1));
+        assertEquals(DiscoveryBridgeDomains.fingerprint(bft), DiscoveryBridgeDomains.fingerprint(reversed));
+
+        // a mac moved to another port
+        final Set<BridgeForwardingTableEntry> moved = new LinkedHashSet<>();
+        moved.add(entry(1, "0012cf68f800", 1));
+        moved.add(entry(1, "000c29dcc076", 2));
+        moved.add(entry(1, "001763010d4f", 1));
+        assertNotEquals(DiscoveryBridgeDomains.fingerprint(bft), DiscoveryBridgeDomains.fingerprint(moved));
+    }
+
+    @Test
+    public void testRunSchedulableWithUnchangedBridge() {
+        // a chain of bridges: 1 reaches 2 on port 16, 2 reaches 1 on port 24 and 3 on port 20, 3 reaches 2 on port 30.
+        // hosts 1-5 are on bridge 1, hosts 6-9 on bridge 2 and hosts 10-14 on bridge 3, each on the port with its number
+        final List<Set<BridgeForwardingTableEntry>> bfts = Arrays.asList(new HashSet<>(), new HashSet<>(), new HashSet<>());
+        for (int host = 1; host <= 14; host++) {
+            final int bridge = host <= 5 ? 1 : host <= 9 ? 2 : 3;
+            bfts.get(0).add(entry(1, mac(host), bridge == 1 ? host : 16));
+            bfts.get(1).add(entry(2, mac(host), bridge == 1 ? 24 : bridge == 2 ? host : 20));
+            bfts.get(2).add(entry(3, mac(host), bridge == 3 ? host : 30));
+        }
+
+        final DiscoveryBridgeDomains discovery = new DiscoveryBridgeDomains(new InMemoryBridgeTopologyService());
+        // the same domains, with every table calculated again on each run
+        final DiscoveryBridgeDomains full = new DiscoveryBridgeDomains(new InMemoryBridgeTopologyService());
+
+        assertEquals(run(DiscoveryBridgeDomains.clone(full), bfts), run(discovery, bfts));
+        assertEquals(0, discovery.getLastRunSkippedBridges());
+
+        // host 14 moved from bridge 3 to port 3 of bridge 1, the table of bridge 2 did not change
+        bfts.get(0).remove(entry(1, mac(14), 16));
+        bfts.get(0).add(entry(1, mac(14), 3));
+        bfts.get(2).remove(entry(3, mac(14), 14));
+        bfts.get(2).add(entry(3, mac(14), 30));
+        assertEquals(run(DiscoveryBridgeDomains.clone(full), bfts), run(discovery, bfts));
+        assertEquals(0, discovery.getLastRunSkippedBridges());
+
+        // nothing changed at all
+        assertEquals(run(DiscoveryBridgeDomains.clone(full), bfts), run(discovery, bfts));
+        assertEquals(3, discovery.getLastRunSkippedBridges());
+    }
+
+    /**
+     * Runs the discovery on the tables of the bridges 1, 2, ... and returns the stored links.
+     */
+    private static Set<String> run(DiscoveryBridgeDomains discovery, List<Set<BridgeForwardingTableEntry>> bfts) {
+        final InMemoryBridgeTopologyService service = (InMemoryBridgeTopologyService) discovery.getBridgeTopologyService();
+        for (int i = 0; i < bfts.size(); i++) {
+            service.update(i + 1, bfts.get(i));
+        }
+        discovery.runSchedulable();
+        return service.getStoredLinks();
+    }
+
+    private static long[] sortedCopy(long[] index) {
+        final long[] sorted = Arrays.copyOf(index, index.length);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static Set<String> macs(int from, int to) {
+        final Set<String> macs = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            macs.add(mac(i));
+        }
+        return macs;
+    }
+
+    private static String mac(int i) {
+        return String.format("0012cf%06x", i);
+    }
+
+    private static BridgeForwardingTableEntry entry(int nodeId, String mac, int bridgePort) {
+        final BridgeForwardingTableEntry entry = new BridgeForwardingTableEntry();
+        entry.setNodeId(nodeId);
+        entry.setMacAddress(mac);
+        entry.setBridgePort(bridgePort);
+        entry.setBridgePortIfIndex(bridgePort);
+        entry.setVlan(1);
+        entry.setBridgeDot1qTpFdbStatus(BridgeForwardingTableEntry.BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED);
+        return entry;
+    }
+
+    /**
+     * Keeps the broadcast domains in memory and records the links of each
+     * domain as they would be persisted.
+     */
+    private static class InMemoryBridgeTopologyService implements BridgeTopologyService {
+        private final Map<Integer, Set<BridgeForwardingTableEntry>> m_updates = new HashMap<>();
+        private final Set<BroadcastDomain> m_domains = new HashSet<>();
+        private final Map<BroadcastDomain, Set<String>> m_stored = new HashMap<>();
+
+        public synchronized void update(int nodeId, Set<BridgeForwardingTableEntry> bft) {
+            m_updates.put(nodeId, new HashSet<>(bft));
+        }
+
+        public synchronized Set<String> getStoredLinks() {
+            final Set<String> links = new TreeSet<>();
+            for (BroadcastDomain domain : m_domains) {
+                links.addAll(m_stored.getOrDefault(domain, Collections.emptySet()));
+            }
+            return links;
+        }
+
+        @Override
+        public synchronized void store(BroadcastDomain domain, Date now) {
+            final Set<String> links = new TreeSet<>();
+            for (SharedSegment segment : domain.getSharedSegments()) {
+                for (BridgeBridgeLink link : segment.getBridgeBridgeLinks()) {
+                    links.add("bridge " + link.getNode().getId() + ":" + link.getBridgePort()
+                            + " " + link.getDesignatedNode().getId() + ":" + link.getDesignatedPort());
+                }
+                for (BridgeMacLink link : segment.getBridgeMacLinks()) {
+                    links.add("mac " + link.getNode().getId() + ":" + link.getBridgePort() + " " + link.getMacAddress());
+                }
+            }
+            for (BridgePortWithMacs forwarder : domain.getForwarding()) {
+                for (BridgeMacLink link : forwarder.getBridgeMacLinks()) {
+                    links.add("forwarder " + link.getNode().getId() + ":" + link.getBridgePort() + " " + link.getMacAddress());
+                }
+            }
+            m_stored.put(domain, links);
+        }
+
+        @Override
+        public synchronized Map<Integer, Set<BridgeForwardingTableEntry>> getUpdateBftMap() {
+            return m_updates;
+        }
+
+        @Override
+        public synchronized Set<BridgeForwardingTableEntry> useBridgeTopologyUpdateBFT(int nodeid) {
+            return m_updates.remove(nodeid);
+        }
+
+        @Override
+        public synchronized Set<BroadcastDomain> findAll() {
+            return m_domains;
+        }
+
+        @Override
+        public synchronized void add(BroadcastDomain domain) {
+            m_domains.add(domain);
+        }
+
+        @Override
+        public synchronized BroadcastDomain getBroadcastDomain(int nodeId) {
+            for (BroadcastDomain domain : m_domains) {
+                if (domain.getBridge(nodeId) != null) {
+                    return domain;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public synchronized BroadcastDomain reconcile(BroadcastDomain domain, int nodeid) {
+            domain.removeBridge(nodeid);
+            store(domain, new Date());
+            if (domain.isEmpty()) {
+                m_domains.remove(domain);
+                m_stored.remove(domain);
+            }
+            return domain;
+        }
+
+        @Override
+        public synchronized void updateBridgeOnDomain(BroadcastDomain domain, Integer nodeid) {
+            final Bridge bridge = domain.getBridge(nodeid);
+            if (bridge != null) {
+                bridge.clear();
+            }
+        }
+
+        @Override
+        public Set<String> getBridgeIdentifiers(Bridge bridge) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public String getBridgeDesignatedIdentifier(Bridge bridge) {
+            return null;
+        }
+
+        @Override
+        public boolean collectBft(int nodeid, int maxsize) {
+            return true;
+        }
+
+        @Override
+        public void collectedBft(int nodeid) {
+        }
+
+        @Override
+        public void load() {
+        }
+
+        @Override
+        public List<SharedSegment> getSharedSegments(int nodeid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SharedSegment getSharedSegment(String mac) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(int nodeid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reconcile(int nodeId, Date now) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void store(int nodeId, BridgeElement bridge) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void store(int nodeId, BridgeStpLink link) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void store(int nodeId, List<BridgeForwardingTableEntry> bft) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<TopologyShared> match() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<MacPort> getMacPorts() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deletePersistedData() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean parseUpdates() {
+            return false;
+        }
+
+        @Override
+        public void updatesAvailable() {
+        }
+
+        @Override
+        public boolean hasUpdates() {
+            return false;
+        }
+
+        @Override
+        public void refresh() {
+        }
+    }
+}
@@ -21,7 +21,6 @@
  */
 package org.opennms.netmgt.flows.elastic;
 
-import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,14 +28,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.opennms.core.tracing.api.TracerConstants;
 import org.opennms.core.tracing.api.TracerRegistry;
 import org.opennms.distributed.core.api.Identity;
 import org.opennms.features.elastic.client.ElasticRestClient;
-import org.opennms.features.elastic.client.model.BulkRequest;
-import org.opennms.features.elastic.client.model.BulkResponse;
+import org.opennms.features.elastic.client.bulk.BulkDocument;
+import org.opennms.features.elastic.client.bulk.BulkIndexResult;
+import org.opennms.features.elastic.client.bulk.BulkIndexer;
+import org.opennms.features.elastic.client.bulk.BulkIndexerConfig;
+import org.opennms.features.elastic.client.bulk.RestClientBulkExecutor;
 import org.opennms.features.jest.client.bulk.FailedItem;
 import org.opennms.features.jest.client.index.IndexStrategy;
 import org.opennms.features.jest.client.template.IndexSettings;
@@ -51,6 +54,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.gson.Gson;
 
 import io.opentracing.Scope;
 import io.opentracing.Tracer;
@@ -66,6 +70,10 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private final ElasticRestClient client;
 
+    private final MetricRegistry metricRegistry;
+
+    private final Gson gson = new Gson();
+
     private final IndexStrategy indexStrategy;
 
     /**
@@ -78,6 +86,16 @@ public class ElasticFlowRepository implements FlowRepository {
      */
     private final Timer logPersistingTimer;
 
+    /**
+     * Flows/second which could not be persisted
+     */
+    private final Meter flowsFailedMeter;
+
+    /**
+     * Flows which could not be persisted since the last call to {@link #persist(Collection)}.
+     */
+    private final AtomicReference<PersistenceException> pendingFailure = new AtomicReference<>();
+
     // An OpenNMS or Sentinel Identity.
     private final Identity identity;
     private final TracerRegistry tracerRegistry;
@@ -87,6 +105,13 @@ public class ElasticFlowRepository implements FlowRepository {
     private int bulkSize = 1000;
     private int bulkFlushMs = 500;
 
+    /**
+     * Sends the collected bulks, sized by bytes and with several of them in flight.
+     * Created on first use, after all properties have been set.
+     */
+    private final BulkIndexerConfig bulkIndexerConfig = new BulkIndexerConfig();
+    private BulkIndexer<BulkDocument<FlowDocument>> bulkIndexer;
+
     private class FlowBulk {
         private List<FlowDocument> documents = Lists.newArrayListWithCapacity(ElasticFlowRepository.this.bulkSize);
         private ReentrantLock lock = new ReentrantLock();
@@ -109,6 +134,7 @@ public class ElasticFlowRepository implements FlowRepository {
                                  final TracerRegistry tracerRegistry,
                                  final IndexSettings indexSettings) {
         this.client = Objects.requireNonNull(elasticRestClient);
+        this.metricRegistry = Objects.requireNonNull(metricRegistry);
         this.indexStrategy = Objects.requireNonNull(indexStrategy);
         this.identity = identity;
         this.tracerRegistry = tracerRegistry;
@@ -116,6 +142,7 @@ public class ElasticFlowRepository implements FlowRepository {
 
         this.flowsPersistedMeter = metricRegistry.meter("flowsPersisted");
         this.logPersistingTimer = metricRegistry.timer("logPersisting");
+        this.flowsFailedMeter = metricRegistry.meter("flowsFailed");
 
         this.startTimer();
     }
@@ -178,6 +205,14 @@ public class ElasticFlowRepository implements FlowRepository {
         }
     }
 
+    /**
+     * Queues the given flows. They are indexed in bulks in the background, so a failure to index them is not
+     * thrown by this call.
+     *
+     * Flows which could not be indexed, once their retries are exhausted, are counted by the {@code flowsFailed}
+     * meter, and a {@link PersistenceException} listing them is thrown by the next call, after the flows given to
+     * that call were queued.
+     */
     @Override
     public void persist(final Collection<? extends Flow> flows) throws FlowException {
         final FlowBulk flowBulk = this.flowBulks.computeIfAbsent(Thread.currentThread(), (thread) -> new FlowBulk());
@@ -191,59 +226,73 @@ public class ElasticFlowRepository implements FlowRepository {
         } finally {
             flowBulk.lock.unlock();
         }
+        throwPendingFailure();
+    }
+
+    private void throwPendingFailure() throws PersistenceException {
+        final PersistenceException failure = pendingFailure.getAndSet(null);
+        if (failure != null) {
+            throw failure;
+        }
     }
 
-    private void persistBulk(final List<FlowDocument> bulk) throws FlowException {
+    private static PersistenceException merge(final PersistenceException previous, final PersistenceException next) {
+        final List<FailedItem<FlowDocument>> failedItems = new ArrayList<>(previous.getFailedItems());
+        failedItems.addAll(next.getFailedItems());
+        return new PersistenceException(String.format("Failed to persist %d flow documents.", failedItems.size()), failedItems);
+    }
+
+    private synchronized BulkIndexer<BulkDocument<FlowDocument>> getBulkIndexer() {
+        if (bulkIndexer == null) {
+            bulkIndexer = new BulkIndexer<>("flows", new RestClientBulkExecutor<>(client), BulkDocument::getSizeInBytes,
+                    bulkIndexerConfig, metricRegistry);
+        }
+        return bulkIndexer;
+    }
+
+    /**
+     * Hands the given documents to the bulk indexer and clears the list.
+     *
+     * This only blocks while the maximum number of bulks is in flight. Documents which can not be persisted are
+     * logged and counted once their retries are exhausted.
+     */
+    private void persistBulk(final List<FlowDocument> bulk) {
         LOG.debug("Persisting {} flow documents.", bulk.size());
         final Tracer tracer = getTracer();
-        try (final Timer.Context ctx = logPersistingTimer.time();
-             Scope scope = tracer.buildSpan(TRACER_FLOW_MODULE).startActive(true)) {
+        final Timer.Context ctx = logPersistingTimer.time();
+        try (Scope scope = tracer.buildSpan(TRACER_FLOW_MODULE).startActive(true)) {
             // Add location and source address tags to span.
             scope.span().setTag(TracerConstants.TAG_THREAD, Thread.currentThread().getName());
 
-            final BulkRequest bulkRequest = new BulkRequest();
+            final List<BulkDocument<FlowDocument>> documents = new ArrayList<>(bulk.size());
             for (FlowDocument flowDocument : bulk) {
                 final String index = indexStrategy.getIndex(indexSettings, INDEX_NAME, Instant.ofEpochMilli(flowDocument.getTimestamp()));
                 // Add bulk operation without specifying ID
-                bulkRequest.index(index, null, flowDocument);
-            }
-            try {
-                // Execute bulk request - retries are handled internally by the client
-                BulkResponse response = client.executeBulk(bulkRequest);
-                
-                if (response.hasErrors()) {
-                    // Convert BulkResponse errors to PersistenceException format
-                    List<FailedItem<FlowDocument>> failedItems = getFailedItems(response);
-
-                    throw new PersistenceException(response.getErrors(), failedItems);
-                }
-                
-            } catch (IOException ex) {
-                LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
-                throw new FlowException(ex.getMessage(), ex);
+                documents.add(BulkDocument.index(index, null, flowDocument, gson));
             }
-            
-            flowsPersistedMeter.mark(bulk.size());
             bulk.clear();
+
+            getBulkIndexer().submit(documents).thenAccept(result -> {
+                ctx.stop();
+                flowsPersistedMeter.mark(result.getIndexed());
+                if (result.hasFailures()) {
+                    flowsFailedMeter.mark(result.getFailedItems().size());
+                    final PersistenceException ex = new PersistenceException(String.format("Failed to persist %d of %d flow documents.",
+                            result.getFailedItems().size(), documents.size()), getFailedItems(result));
+                    // The details are logged by whoever receives the exception from the next call to persist()
+                    LOG.warn("Error while persisting flows: {}", ex.getMessage());
+                    pendingFailure.accumulateAndGet(ex, (previous, next) -> previous == null ? next : merge(previous, next));
+                }
+            });
         }
     }
 
-    private static List<FailedItem<FlowDocument>> getFailedItems(BulkResponse response) {
-        List<FailedItem<FlowDocument>> failedItems = new ArrayList<>();
-        List<BulkResponse.BulkItemResponse> bulkFailedItems = response.getFailedItems();
-
-        // We don't have the original FlowDocument objects in the response,
-        // so we'll create simplified FailedItem entries
-        for (int i = 0; i < bulkFailedItems.size(); i++) {
-            BulkResponse.BulkItemResponse item = bulkFailedItems.get(i);
-            // Create a minimal FlowDocument for error reporting
-            FlowDocument doc = new FlowDocument();
-            doc.setConvoKey("unknown-" + i); // We don't have the original convoKey
-
-            FailedItem<FlowDocument> failedItem = new FailedItem<>(i, doc,
-                    new Exception(item.getError() != null ? item.getError() : "Unknown error")
-            );
-            failedItems.add(failedItem);
+    private static List<FailedItem<FlowDocument>> getFailedItems(BulkIndexResult<BulkDocument<FlowDocument>> result) {
+        final List<FailedItem<FlowDocument>> failedItems = new ArrayList<>(result.getFailedItems().size());
+        int i = 0;
+        for (BulkIndexResult.FailedItem<BulkDocument<FlowDocument>> item : result.getFailedItems()) {
+            failedItems.add(new FailedItem<>(i++, item.getItem().getDocument(),
+                    new Exception(item.getError() != null ? item.getError() : "Unknown error")));
         }
         return failedItems;
     }
@@ -269,6 +318,14 @@ public class ElasticFlowRepository implements FlowRepository {
         for(final FlowBulk flowBulk : flowBulks.values()) {
             persistBulk(flowBulk.documents);
         }
+        synchronized (this) {
+            if (bulkIndexer != null) {
+                bulkIndexer.close();
+                bulkIndexer = null;
+            }
+        }
+        // Report the flows which failed since the last call to persist()
+        throwPendingFailure();
     }
 
     private Tracer getTracer() {
@@ -297,4 +354,32 @@ public class ElasticFlowRepository implements FlowRepository {
         stopTimer();
         startTimer();
     }
+
+    public void setBulkRetryCount(final int bulkRetryCount) {
+        bulkIndexerConfig.setMaxRetries(bulkRetryCount);
+    }
+
+    public void setRetryCooldown(final long retryCooldown) {
+        bulkIndexerConfig.setRetryBackoffMs(retryCooldown);
+    }
+
+    public void setBulkMaxInFlight(final int bulkMaxInFlight) {
+        bulkIndexerConfig.setMaxInFlight(bulkMaxInFlight);
+    }
+
+    public void setBulkMinBytes(final long bulkMinBytes) {
+        bulkIndexerConfig.setMinBulkBytes(bulkMinBytes);
+    }
+
+    public void setBulkMaxBytes(final long bulkMaxBytes) {
+        bulkIndexerConfig.setMaxBulkBytes(bulkMaxBytes);
+    }
+
+    public void setBulkInitialBytes(final long bulkInitialBytes) {
+        bulkIndexerConfig.setInitialBulkBytes(bulkInitialBytes);
+    }
+
+    public void setBulkTargetLatencyMs(final long bulkTargetLatencyMs) {
+        bulkIndexerConfig.setTargetLatencyMs(bulkTargetLatencyMs);
+    }
 }
@@ -0,0 +1,435 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * Buffers records on their way to the Kafka producer.
+ *
+ * Every topic has its own bounded capacity, so that a burst on one topic (i.e. events) cannot
+ * starve the others. Queued records are handed to a fixed set of workers which build the record
+ * (typically the protobuf mapping) and pass it to the producer, keeping this work off the threads
+ * that enqueue them. Records with the same shard key are always handled by the same worker, which
+ * preserves their relative order.
+ *
+ * The time between enqueuing a record and receiving the acknowledgement from the broker is
+ * tracked per topic, along with the number of dropped and failed records and the queue depth.
+ *
+ * Once stopped, the pipeline rejects new records and gives the workers a bounded amount of time
+ * to hand the queued ones to the producer. The records that are still queued after that are
+ * counted as dropped.
+ */
+public class KafkaSendPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaSendPipeline.class);
+    private static final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.ofSeconds(30))
+            .build();
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    public static final long DEFAULT_STOP_TIMEOUT_MS = 5000;
+
+    /**
+     * Queued behind the records of every worker on stop, the worker exits when it takes it.
+     */
+    private static final PendingRecord STOP = new PendingRecord(null, null, null, null);
+
+    public enum OverflowPolicy {
+        /**
+         * Drop records that do not fit in the topic's queue.
+         */
+        DROP,
+        /**
+         * Block the caller until there is room in the topic's queue, dropping the record
+         * if there is still none once the block timeout expires. The timeout must be positive.
+         */
+        BLOCK
+    }
+
+    /**
+     * Hands a record to Kafka, i.e. {@link org.apache.kafka.clients.producer.KafkaProducer#send(ProducerRecord, Callback)}.
+     */
+    @FunctionalInterface
+    public interface Sender {
+        void send(ProducerRecord<byte[], byte[]> record, Callback callback);
+    }
+
+    private final Sender sender;
+    private final MetricRegistry metrics;
+    private final int topicCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final int maxBatchSize;
+    private final Map<String, TopicQueue> topicQueues = new ConcurrentHashMap<>();
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private Set<String> requeueOnTimeoutTopics = Collections.emptySet();
+    // Guards the transition to stopped, so that no record is queued once stop() has begun draining
+    private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+    private volatile boolean stopped = false;
+
+    public KafkaSendPipeline(Sender sender, MetricRegistry metrics, int numWorkers, int topicCapacity,
+                             OverflowPolicy overflowPolicy, long blockTimeoutMs) {
+        this(sender, metrics, numWorkers, topicCapacity, overflowPolicy, blockTimeoutMs, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public KafkaSendPipeline(Sender sender, MetricRegistry metrics, int numWorkers, int topicCapacity,
+                             OverflowPolicy overflowPolicy, long blockTimeoutMs, int maxBatchSize) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("numWorkers must be > 0");
+        }
+        if (topicCapacity < 1) {
+            throw new IllegalArgumentException("topicCapacity must be > 0");
+        }
+        if (overflowPolicy == OverflowPolicy.BLOCK && blockTimeoutMs <= 0) {
+            throw new IllegalArgumentException("blockTimeoutMs must be > 0 when blocking");
+        }
+        this.sender = Objects.requireNonNull(sender);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.topicCapacity = topicCapacity;
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.workers = new Worker[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new Worker(i);
+        }
+    }
+
+    public void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    public void stop() {
+        stop(DEFAULT_STOP_TIMEOUT_MS);
+    }
+
+    /**
+     * Stops accepting records and waits for the workers to hand the queued records to the producer.
+     *
+     * @param timeoutMs how long to wait for the queues to drain, the records that are still queued
+     *                  after that are dropped
+     */
+    public void stop(long timeoutMs) {
+        stopLock.writeLock().lock();
+        try {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+        } finally {
+            stopLock.writeLock().unlock();
+        }
+
+        for (Worker worker : workers) {
+            worker.queue.offerLast(STOP);
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        int dropped = 0;
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+            final List<PendingRecord> remaining = new ArrayList<>();
+            worker.queue.drainTo(remaining);
+            for (PendingRecord pendingRecord : remaining) {
+                if (pendingRecord != STOP) {
+                    pendingRecord.topicQueue.release();
+                    pendingRecord.topicQueue.dropped.mark();
+                    dropped++;
+                }
+            }
+        }
+        if (dropped > 0) {
+            LOG.warn("Dropped {} Kafka records that were still queued after waiting {}ms for them to be sent.", dropped, timeoutMs);
+        }
+    }
+
+    /**
+     * Records sent to these topics are queued again when the broker does not acknowledge
+     * them in time, instead of being dropped.
+     */
+    public void setRequeueOnTimeoutTopics(Collection<String> topics) {
+        this.requeueOnTimeoutTopics = Set.copyOf(topics);
+    }
+
+    /**
+     * Queues a record for sending.
+     *
+     * @param topic the topic the record is sent to
+     * @param shardKey records with equal keys are sent in the order they were queued, may be null
+     * @param recordBuilder builds the record, called from one of the pipeline's workers
+     * @param callback called with the broker's acknowledgement, may be null
+     * @return true if the record was queued, false if it was dropped because the topic's queue was full
+     * or the pipeline is stopped
+     */
+    public boolean enqueue(String topic, Object shardKey, Callable<ProducerRecord<byte[], byte[]>> recordBuilder,
+                           Consumer<RecordMetadata> callback) {
+        final TopicQueue topicQueue = getTopicQueue(topic);
+        if (stopped) {
+            topicQueue.dropped.mark();
+            RATE_LIMITED_LOGGER.warn("Dropped a Kafka record for topic {} since the send pipeline is stopped.", topic);
+            return false;
+        }
+        if (!topicQueue.acquire()) {
+            topicQueue.dropped.mark();
+            RATE_LIMITED_LOGGER.warn("Dropped a Kafka record for topic {} due to queue capacity being full.", topic);
+            return false;
+        }
+        stopLock.readLock().lock();
+        try {
+            // We may have waited for room while the pipeline was being stopped
+            if (stopped) {
+                topicQueue.release();
+                topicQueue.dropped.mark();
+                RATE_LIMITED_LOGGER.warn("Dropped a Kafka record for topic {} since the send pipeline is stopped.", topic);
+                return false;
+            }
+            final Worker worker = getWorker(shardKey);
+            worker.queue.offerLast(new PendingRecord(topicQueue, worker, recordBuilder, callback));
+            return true;
+        } finally {
+            stopLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of records queued for the given topic that have not yet been handed to the producer
+     */
+    public int getQueueDepth(String topic) {
+        final TopicQueue topicQueue = topicQueues.get(topic);
+        return topicQueue != null ? topicQueue.depth() : 0;
+    }
+
+    public Timer getAckLatency(String topic) {
+        return getTopicQueue(topic).ackLatency;
+    }
+
+    public Meter getDropped(String topic) {
+        return getTopicQueue(topic).dropped;
+    }
+
+    public Meter getFailed(String topic) {
+        return getTopicQueue(topic).failed;
+    }
+
+    public Set<String> getTopics() {
+        return Collections.unmodifiableSet(topicQueues.keySet());
+    }
+
+    private TopicQueue getTopicQueue(String topic) {
+        return topicQueues.computeIfAbsent(topic, TopicQueue::new);
+    }
+
+    private Worker getWorker(Object shardKey) {
+        if (shardKey == null) {
+            return workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+        }
+        final int hash = shardKey instanceof byte[] ? Arrays.hashCode((byte[]) shardKey) : shardKey.hashCode();
+        return workers[Math.floorMod(hash, workers.length)];
+    }
+
+    private void send(PendingRecord pendingRecord) {
+        final TopicQueue topicQueue = pendingRecord.topicQueue;
+        final ProducerRecord<byte[], byte[]> record;
+        try {
+            record = pendingRecord.getRecord();
+        } catch (Exception e) {
+            topicQueue.release();
+            topicQueue.failed.mark();
+            LOG.warn("Failed to build record for topic {}.", topicQueue.topic, e);
+            return;
+        }
+
+        try {
+            sender.send(record, (recordMetadata, e) -> onCompletion(pendingRecord, recordMetadata, e));
+        } catch (RuntimeException e) {
+            topicQueue.failed.mark();
+            LOG.warn("Failed to send record to producer: {}.", record, e);
+        } finally {
+            // The record is now buffered by the producer, or lost
+            topicQueue.release();
+        }
+    }
+
+    private void onCompletion(PendingRecord pendingRecord, RecordMetadata recordMetadata, Exception e) {
+        final TopicQueue topicQueue = pendingRecord.topicQueue;
+        if (e != null) {
+            topicQueue.failed.mark();
+            LOG.warn("Failed to send record to producer: {}.", pendingRecord.record, e);
+            if (e instanceof TimeoutException && requeueOnTimeoutTopics.contains(topicQueue.topic)) {
+                // If Kafka is offline, buffer the record again.
+                // This is best effort to keep the order although in-flight elements may still miss the order.
+                // We're on the producer's I/O thread here, so never block.
+                if (!stopped && topicQueue.permits.tryAcquire()) {
+                    pendingRecord.worker.queue.offerFirst(pendingRecord);
+                } else {
+                    topicQueue.dropped.mark();
+                    RATE_LIMITED_LOGGER.warn("Dropped a Kafka record for topic {} due to queue capacity being full.", topicQueue.topic);
+                }
+            }
+            return;
+        }
+
+        topicQueue.ackLatency.update(System.nanoTime() - pendingRecord.enqueuedAt, TimeUnit.NANOSECONDS);
+        if (pendingRecord.callback != null) {
+            pendingRecord.callback.accept(recordMetadata);
+        }
+    }
+
+    private final class TopicQueue {
+        private final String topic;
+        private final Semaphore permits = new Semaphore(topicCapacity);
+        private final Timer ackLatency;
+        private final Meter dropped;
+        private final Meter failed;
+
+        private TopicQueue(String topic) {
+            this.topic = topic;
+            this.ackLatency = metrics.timer(MetricRegistry.name("topic", topic, "ack-latency"));
+            this.dropped = metrics.meter(MetricRegistry.name("topic", topic, "dropped"));
+            this.failed = metrics.meter(MetricRegistry.name("topic", topic, "failed"));
+            final String depthName = MetricRegistry.name("topic", topic, "queue-depth");
+            metrics.remove(depthName);
+            metrics.register(depthName, (Gauge<Integer>) this::depth);
+        }
+
+        private boolean acquire() {
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                return permits.tryAcquire();
+            }
+            try {
+                return permits.tryAcquire(blockTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void release() {
+            permits.release();
+        }
+
+        private int depth() {
+            return topicCapacity - permits.availablePermits();
+        }
+    }
+
+    private static final class PendingRecord {
+        private final TopicQueue topicQueue;
+        private final Worker worker;
+        private final Callable<ProducerRecord<byte[], byte[]>> recordBuilder;
+        private final Consumer<RecordMetadata> callback;
+        private final long enqueuedAt = System.nanoTime();
+        private volatile ProducerRecord<byte[], byte[]> record;
+
+        private PendingRecord(TopicQueue topicQueue, Worker worker, Callable<ProducerRecord<byte[], byte[]>> recordBuilder,
+                              Consumer<RecordMetadata> callback) {
+            this.topicQueue = topicQueue;
+            this.worker = worker;
+            this.recordBuilder = recordBuilder;
+            this.callback = callback;
+        }
+
+        private ProducerRecord<byte[], byte[]> getRecord() throws Exception {
+            // Only build the record once, it may be sent again after a timeout
+            if (record == null) {
+                record = recordBuilder.call();
+            }
+            return record;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final BlockingDeque<PendingRecord> queue = new LinkedBlockingDeque<>();
+        private final Thread thread;
+
+        private Worker(int index) {
+            thread = new Thread(this, "KafkaSendQueueProcessor-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final List<PendingRecord> batch = new ArrayList<>(maxBatchSize);
+            boolean stopping = false;
+            while (!stopping && !Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(queue.takeFirst());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                queue.drainTo(batch, maxBatchSize - 1);
+                for (PendingRecord pendingRecord : batch) {
+                    if (pendingRecord == STOP) {
+                        stopping = true;
+                    } else {
+                        send(pendingRecord);
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+}
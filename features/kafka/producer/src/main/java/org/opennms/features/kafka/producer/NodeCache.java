@@ -21,9 +21,13 @@
  */
 package org.opennms.features.kafka.producer;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.opennms.netmgt.dao.api.NodeDao;
@@ -83,6 +87,37 @@ public class NodeCache {
         });
     }
 
+    /**
+     * Batched variant of {@link #triggerIfNeeded(long, Consumer)}: all of the given nodes that
+     * are due for an update are looked up within a single read-only transaction.
+     *
+     * @param nodeIds db ids of the nodes to query
+     * @param consumer callback to issue with the node id and node, for every node whose timeout has expired
+     */
+    public void triggerIfNeeded(Collection<Long> nodeIds, BiConsumer<Long, OnmsNode> consumer) {
+        final long now = System.currentTimeMillis();
+        final List<Long> nodeIdsToUpdate = new ArrayList<>(nodeIds.size());
+        for (Long nodeId : nodeIds) {
+            final Long lastUpdated = lastUpdatedByNodeId.get(nodeId);
+            if (lastUpdated == null || now - lastUpdated > timeoutInMs) {
+                nodeIdsToUpdate.add(nodeId);
+            }
+        }
+        if (nodeIdsToUpdate.isEmpty()) {
+            // No update required
+            return;
+        }
+
+        sessionUtils.withReadOnlyTransaction(() -> {
+            for (Long nodeId : nodeIdsToUpdate) {
+                final OnmsNode node = nodeDao.get(nodeId.intValue());
+                lastUpdatedByNodeId.put(nodeId, now);
+                consumer.accept(nodeId, node);
+            }
+            return null;
+        });
+    }
+
     public void setTimeoutInMs(long timeoutInMs) {
         this.timeoutInMs = timeoutInMs;
     }
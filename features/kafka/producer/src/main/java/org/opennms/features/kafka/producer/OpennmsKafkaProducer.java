@@ -22,7 +22,7 @@
 package org.opennms.features.kafka.producer;
 
 import java.io.IOException;
-import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
@@ -31,21 +31,20 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
-import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.opennms.core.ipc.common.kafka.Utils;
 import org.opennms.features.kafka.producer.datasync.KafkaAlarmDataSync;
@@ -59,6 +58,7 @@ import org.opennms.netmgt.events.api.EventSubscriptionService;
 import org.opennms.netmgt.events.api.ThreadAwareEventListener;
 import org.opennms.netmgt.events.api.model.IEvent;
 import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.topologies.service.api.OnmsTopologyConsumer;
 import org.opennms.netmgt.topologies.service.api.OnmsTopologyDao;
 import org.opennms.netmgt.topologies.service.api.OnmsTopologyEdge;
@@ -75,19 +75,19 @@ import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
-import com.swrve.ratelimitedlogger.RateLimitedLog;
 
 public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListener, AlarmFeedbackListener, OnmsTopologyConsumer, ThreadAwareEventListener {
     private static final Logger LOG = LoggerFactory.getLogger(OpennmsKafkaProducer.class);
-    private static final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
-            .withRateLimit(LOG)
-            .maxRate(5).every(Duration.ofSeconds(30))
-            .build();
 
     public static final String KAFKA_CLIENT_PID = "org.opennms.features.kafka.producer.client";
     private static final ExpressionParser SPEL_PARSER = new SpelExpressionParser();
+    // Applied to the producer unless set in the client configuration: wait a little for records
+    // to accumulate so that they are sent in batches rather than one request per record
+    private static final String DEFAULT_LINGER_MS = "5";
+    private static final String DEFAULT_BATCH_SIZE = "65536";
     private final ThreadFactory nodeUpdateThreadFactory = new ThreadFactoryBuilder()
             .setNameFormat("kafka-producer-node-update-%d")
             .build();
@@ -129,10 +129,17 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     private final AlarmCallbackStateTracker stateTracker = new AlarmCallbackStateTracker();
     private final OnmsTopologyDao topologyDao;
     private int kafkaSendQueueCapacity;
-    private BlockingDeque<KafkaRecord> kafkaSendDeque;
-    private final ExecutorService kafkaSendQueueExecutor =
-            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "KafkaSendQueueProcessor"));
+    private KafkaSendPipeline.OverflowPolicy kafkaSendQueueOverflowPolicy = KafkaSendPipeline.OverflowPolicy.DROP;
+    private long kafkaSendQueueBlockTimeoutMs = 5000;
+    private int kafkaSendThreads = 4;
+    private KafkaSendPipeline sendPipeline;
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
     private final ExecutorService nodeUpdateExecutor;
+    private final int nodeAsyncUpdateThreads;
+    private final Set<Long> pendingNodeUpdates = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeNodeUpdaters = new AtomicInteger();
+    private int nodeUpdateBatchSize = 100;
 
     private String encoding = "UTF8";
     private int numEventListenerThreads = 4;
@@ -146,6 +153,7 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         this.eventSubscriptionService = Objects.requireNonNull(eventSubscriptionService);
         this.topologyDao = Objects.requireNonNull(topologyDao);
         this.nodeUpdateExecutor = Executors.newFixedThreadPool(nodeAsyncUpdateThreads, nodeUpdateThreadFactory);
+        this.nodeAsyncUpdateThreads = nodeAsyncUpdateThreads;
     }
 
     public void init() throws IOException {
@@ -159,6 +167,8 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
                 producerConfig.put(key, properties.get(key));
             }
         }
+        producerConfig.putIfAbsent(ProducerConfig.LINGER_MS_CONFIG, DEFAULT_LINGER_MS);
+        producerConfig.putIfAbsent(ProducerConfig.BATCH_SIZE_CONFIG, DEFAULT_BATCH_SIZE);
         // Overwrite the serializers, since we rely on these
         producerConfig.put("key.serializer", ByteArraySerializer.class.getCanonicalName());
         producerConfig.put("value.serializer", ByteArraySerializer.class.getCanonicalName());
@@ -170,8 +180,19 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
             LOG.info("Defaulted the 'kafkaSendQueueCapacity' to 1000 since no property was set");
         }
 
-        kafkaSendDeque = new LinkedBlockingDeque<>(kafkaSendQueueCapacity);
-        kafkaSendQueueExecutor.execute(this::processKafkaSendQueue);
+        if (kafkaSendThreads <= 0) {
+            kafkaSendThreads = 4;
+            LOG.info("Defaulted the 'kafkaSendThreads' to 4 since no property was set");
+        }
+
+        // Rather than sending directly, records are queued per topic to avoid blocking the callers since
+        // KafkaProducer's send() method can block if Kafka is not available when metadata is attempted to be retrieved
+        sendPipeline = new KafkaSendPipeline((record, callback) -> producer.send(record, callback), metricRegistry,
+                kafkaSendThreads, kafkaSendQueueCapacity, kafkaSendQueueOverflowPolicy, kafkaSendQueueBlockTimeoutMs);
+        if (forwardEvents) {
+            sendPipeline.setRequeueOnTimeoutTopics(Collections.singleton(eventTopic));
+        }
+        sendPipeline.start();
 
         if (forwardEvents) {
             eventSubscriptionService.addEventListener(this);
@@ -181,19 +202,22 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     }
 
     public void destroy() {
-        kafkaSendQueueExecutor.shutdownNow();
+        // Stop forwarding before draining the queued records
+        if (forwardEvents) {
+            eventSubscriptionService.removeEventListener(this);
+        }
+
+        topologyDao.unsubscribe(this);
+
         nodeUpdateExecutor.shutdownNow();
+        if (sendPipeline != null) {
+            sendPipeline.stop();
+        }
 
         if (producer != null) {
             producer.close();
             producer = null;
         }
-
-        if (forwardEvents) {
-            eventSubscriptionService.removeEventListener(this);
-        }
-
-        topologyDao.unsubscribe(this);
     }
 
     private void forwardTopologyMessage(OnmsTopologyMessage message) {
@@ -252,8 +276,8 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
             updateNodeAsynchronously(event.getNodeid());
         }
 
-        // Forward!
-        sendRecord(() -> {
+        // Forward! The event is a copy, so it can be mapped by the send pipeline rather than on the event thread
+        sendRecordAsync(eventTopic, event.getNodeid(), () -> {
             final OpennmsModelProtos.Event mappedEvent = protobufMapper.toEvent(event).build();
             LOG.debug("Sending event with UEI: {}", mappedEvent.getUei());
             return new ProducerRecord<>(eventTopic, mappedEvent.toByteArray());
@@ -346,38 +370,80 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
 
     private void updateNodeAsynchronously(long nodeId) {
         // Updating node asynchronously will unblock event consumption.
-        nodeUpdateExecutor.execute(() -> {
-            maybeUpdateNode(nodeId);
-        });
+        // Requests for a node that is already pending are coalesced, and pending nodes are looked up in batches.
+        if (pendingNodeUpdates.add(nodeId)) {
+            scheduleNodeUpdates();
+        }
     }
 
-    private void maybeUpdateNode(long nodeId) {
-        nodeCache.triggerIfNeeded(nodeId, (node) -> {
-            final String nodeCriteria;
-            if (node != null && node.getForeignSource() != null && node.getForeignId() != null) {
-                nodeCriteria = String.format("%s:%s", node.getForeignSource(), node.getForeignId());
-            } else {
-                nodeCriteria = Long.toString(nodeId);
+    private void scheduleNodeUpdates() {
+        int active;
+        while ((active = activeNodeUpdaters.get()) < nodeAsyncUpdateThreads) {
+            if (activeNodeUpdaters.compareAndSet(active, active + 1)) {
+                nodeUpdateExecutor.execute(this::updatePendingNodes);
+                return;
             }
+        }
+    }
 
-            if (node == null) {
-                // The node was deleted, push a null record
-                sendRecord(() -> {
-                    LOG.debug("Deleting node with criteria: {}", nodeCriteria);
-                    return new ProducerRecord<>(nodeTopic, nodeCriteria.getBytes(encoding), null);
-                });
-                return;
+    private void updatePendingNodes() {
+        try {
+            List<Long> batch;
+            while (!(batch = takePendingNodeUpdates()).isEmpty()) {
+                try {
+                    nodeCache.triggerIfNeeded(batch, this::updateNode);
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to update nodes: {}.", batch, e);
+                }
             }
+        } finally {
+            activeNodeUpdaters.decrementAndGet();
+        }
+        // Pick up any node that was added after we last checked
+        if (!pendingNodeUpdates.isEmpty()) {
+            scheduleNodeUpdates();
+        }
+    }
 
+    private List<Long> takePendingNodeUpdates() {
+        final List<Long> batch = new ArrayList<>();
+        for (Long nodeId : pendingNodeUpdates) {
+            if (batch.size() >= nodeUpdateBatchSize) {
+                break;
+            }
+            if (pendingNodeUpdates.remove(nodeId)) {
+                batch.add(nodeId);
+            }
+        }
+        return batch;
+    }
+
+    private void updateNode(long nodeId, OnmsNode node) {
+        final String nodeCriteria;
+        if (node != null && node.getForeignSource() != null && node.getForeignId() != null) {
+            nodeCriteria = String.format("%s:%s", node.getForeignSource(), node.getForeignId());
+        } else {
+            nodeCriteria = Long.toString(nodeId);
+        }
+
+        if (node == null) {
+            // The node was deleted, push a null record
             sendRecord(() -> {
-                final OpennmsModelProtos.Node mappedNode = protobufMapper.toNode(node).build();
-                LOG.debug("Sending node with criteria: {}", nodeCriteria);
-                return new ProducerRecord<>(nodeTopic, nodeCriteria.getBytes(encoding), mappedNode.toByteArray());
-            }, recordMetadata -> {
-                // We've got an ACK from the server that the node was forwarded
-                // Let other threads know when we've successfully forwarded a node
-                forwardedNode.countDown();
+                LOG.debug("Deleting node with criteria: {}", nodeCriteria);
+                return new ProducerRecord<>(nodeTopic, nodeCriteria.getBytes(encoding), null);
             });
+            return;
+        }
+
+        // Map the node while we hold the transaction in order to allow relationships to be loaded
+        sendRecord(() -> {
+            final OpennmsModelProtos.Node mappedNode = protobufMapper.toNode(node).build();
+            LOG.debug("Sending node with criteria: {}", nodeCriteria);
+            return new ProducerRecord<>(nodeTopic, nodeCriteria.getBytes(encoding), mappedNode.toByteArray());
+        }, recordMetadata -> {
+            // We've got an ACK from the server that the node was forwarded
+            // Let other threads know when we've successfully forwarded a node
+            forwardedNode.countDown();
         });
     }
 
@@ -385,6 +451,10 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         sendRecord(callable, null);
     }
 
+    /**
+     * Builds the record on the calling thread and queues it for sending. Used for records mapped from
+     * entities that are only valid within the caller's transaction.
+     */
     private void sendRecord(Callable<ProducerRecord<byte[], byte[]>> callable, Consumer<RecordMetadata> callback) {
         if (producer == null) {
             return;
@@ -398,51 +468,21 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
             throw new RuntimeException(e);
         }
 
-        // Rather than attempt to send, we instead queue the record to avoid blocking since KafkaProducer's send()
-        // method can block if Kafka is not available when metadata is attempted to be retrieved
-
-        // Any offer that fails due to capacity overflow will simply be dropped and will have to wait until the next
+        // Any record that does not fit will simply be dropped and will have to wait until the next
         // sync to be processed so this is just a best effort attempt
-        if (!kafkaSendDeque.offer(new KafkaRecord(record, callback))) {
-            RATE_LIMITED_LOGGER.warn("Dropped a Kafka record due to queue capacity being full.");
-        }
+        sendPipeline.enqueue(record.topic(), record.key(), () -> record, callback);
     }
 
-    private void processKafkaSendQueue() {
-        //noinspection InfiniteLoopStatement
-        while (true) {
-            try {
-                KafkaRecord kafkaRecord = kafkaSendDeque.take();
-                ProducerRecord<byte[], byte[]> producerRecord = kafkaRecord.getProducerRecord();
-                Consumer<RecordMetadata> consumer = kafkaRecord.getConsumer();
-
-                try {
-                    producer.send(producerRecord, (recordMetadata, e) -> {
-                        if (e != null) {
-                            LOG.warn("Failed to send record to producer: {}.", producerRecord, e);
-                            if (e instanceof TimeoutException) {
-                                // If Kafka is Offline, buffer the record again for events.
-                                // This is best effort to keep the order although in-flight elements may still miss the order.
-                                if (producerRecord != null &&
-                                        this.eventTopic.equalsIgnoreCase(producerRecord.topic())) {
-                                    if(!kafkaSendDeque.offerFirst(kafkaRecord)) {
-                                        RATE_LIMITED_LOGGER.warn("Dropped a Kafka record due to queue capacity being full.");
-                                    }
-                                }
-                            }
-                            return;
-                        }
-                        if (consumer != null) {
-                            consumer.accept(recordMetadata);
-                        }
-                    });
-                } catch (RuntimeException e) {
-                    LOG.warn("Failed to send record to producer: {}.", producerRecord, e);
-                }
-            } catch (InterruptedException ignore) {
-                break;
-            }
+    /**
+     * Queues a record for sending, leaving it to the send pipeline to build it. Records with equal
+     * shard keys are sent in order.
+     */
+    private void sendRecordAsync(String topic, Object shardKey, Callable<ProducerRecord<byte[], byte[]>> callable,
+                                 Consumer<RecordMetadata> callback) {
+        if (producer == null) {
+            return;
         }
+        sendPipeline.enqueue(topic, shardKey, callable, callback);
     }
 
     @Override
@@ -563,8 +603,7 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
             return;
         }
 
-        // NOTE: This will currently block while waiting for Kafka metadata if Kafka is not available.
-        alarmFeedback.forEach(feedback -> sendRecord(() -> {
+        alarmFeedback.forEach(feedback -> sendRecordAsync(alarmFeedbackTopic, feedback.getAlarmKey(), () -> {
             LOG.debug("Sending alarm feedback with key: {}", feedback.getAlarmKey());
 
             return new ProducerRecord<>(alarmFeedbackTopic, feedback.getAlarmKey().getBytes(encoding),
@@ -613,27 +652,36 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         this.kafkaSendQueueCapacity = kafkaSendQueueCapacity;
     }
 
-    @Override
-    public int getNumThreads() {
-        return numEventListenerThreads;
+    public void setKafkaSendQueueOverflowPolicy(String kafkaSendQueueOverflowPolicy) {
+        this.kafkaSendQueueOverflowPolicy = KafkaSendPipeline.OverflowPolicy.valueOf(kafkaSendQueueOverflowPolicy.trim().toUpperCase());
     }
 
-    private static final class KafkaRecord {
-        private final ProducerRecord<byte[], byte[]> producerRecord;
-        private final Consumer<RecordMetadata> consumer;
-
-        KafkaRecord(ProducerRecord<byte[], byte[]> producerRecord, Consumer<RecordMetadata> consumer) {
-            this.producerRecord = producerRecord;
-            this.consumer = consumer;
+    public void setKafkaSendQueueBlockTimeoutMs(long kafkaSendQueueBlockTimeoutMs) {
+        if (kafkaSendQueueBlockTimeoutMs <= 0) {
+            throw new IllegalArgumentException("kafkaSendQueueBlockTimeoutMs must be > 0");
         }
+        this.kafkaSendQueueBlockTimeoutMs = kafkaSendQueueBlockTimeoutMs;
+    }
 
-        ProducerRecord<byte[], byte[]> getProducerRecord() {
-            return producerRecord;
-        }
+    public void setKafkaSendThreads(int kafkaSendThreads) {
+        this.kafkaSendThreads = kafkaSendThreads;
+    }
 
-        Consumer<RecordMetadata> getConsumer() {
-            return consumer;
-        }
+    public void setNodeUpdateBatchSize(int nodeUpdateBatchSize) {
+        this.nodeUpdateBatchSize = Math.max(1, nodeUpdateBatchSize);
+    }
+
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = Objects.requireNonNull(metricRegistry);
+    }
+
+    public KafkaSendPipeline getSendPipeline() {
+        return sendPipeline;
+    }
+
+    @Override
+    public int getNumThreads() {
+        return numEventListenerThreads;
     }
 
     public CountDownLatch getForwardedTopologyVertexMessage() {
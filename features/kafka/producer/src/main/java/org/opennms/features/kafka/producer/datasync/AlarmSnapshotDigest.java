@@ -0,0 +1,94 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer.datasync;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A Merkle-style summary of a set of alarms.
+ *
+ * Alarms are partitioned by the hash of their reduction key, and every partition is summarized
+ * by a single hash combining the reduction keys and the hashes of the alarms it contains. Two
+ * snapshots can then be compared partition by partition, and only the alarms in the partitions
+ * that differ need to be looked at.
+ *
+ * The partition hash is a sum, so alarms can be added in any order.
+ */
+public class AlarmSnapshotDigest {
+
+    static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final int numPartitions;
+    private final long[] partitionHashes;
+    private final int[] partitionSizes;
+
+    public AlarmSnapshotDigest(int numPartitions) {
+        if (numPartitions < 1) {
+            throw new IllegalArgumentException("numPartitions must be > 0");
+        }
+        this.numPartitions = numPartitions;
+        this.partitionHashes = new long[numPartitions];
+        this.partitionSizes = new int[numPartitions];
+    }
+
+    /**
+     * @param reductionKey the alarm's reduction key
+     * @param alarmHash hash of the alarm's contents
+     */
+    public void add(String reductionKey, long alarmHash) {
+        final int partition = getPartition(reductionKey);
+        partitionHashes[partition] += HASH_FUNCTION.newHasher()
+                .putString(reductionKey, StandardCharsets.UTF_8)
+                .putLong(alarmHash)
+                .hash()
+                .asLong();
+        partitionSizes[partition]++;
+    }
+
+    public int getPartition(String reductionKey) {
+        return Math.floorMod(reductionKey.hashCode(), numPartitions);
+    }
+
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * @return the partitions whose contents differ from those of the other snapshot
+     */
+    public BitSet diff(AlarmSnapshotDigest other) {
+        if (other.numPartitions != numPartitions) {
+            throw new IllegalArgumentException("Cannot compare snapshots with a different number of partitions");
+        }
+        final BitSet diverged = new BitSet(numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+            if (partitionHashes[i] != other.partitionHashes[i] || partitionSizes[i] != other.partitionSizes[i]) {
+                diverged.set(i);
+            }
+        }
+        return diverged;
+    }
+}
@@ -36,6 +36,9 @@ public class AlarmSyncResults {
     private final Set<String> reductionKeysAdded;
     private final Set<String> reductionKeysDeleted;
     private final Set<String> reductionKeysUpdated;
+    private final int numAlarmsInKtable;
+    private final int numPartitions;
+    private final int numDivergedPartitions;
 
     public AlarmSyncResults(Map<String, OpennmsModelProtos.Alarm> alarmsInKtableByReductionKey,
                             List<OnmsAlarm> alarmsInDb,
@@ -43,14 +46,33 @@ public class AlarmSyncResults {
                             Set<String> reductionKeysAdded,
                             Set<String> reductionKeysDeleted,
                             Set<String> reductionKeysUpdated) {
+        this(alarmsInKtableByReductionKey, alarmsInDb, alarmsInDbByReductionKey, reductionKeysAdded,
+                reductionKeysDeleted, reductionKeysUpdated, alarmsInKtableByReductionKey.size(), 1, 1);
+    }
+
+    public AlarmSyncResults(Map<String, OpennmsModelProtos.Alarm> alarmsInKtableByReductionKey,
+                            List<OnmsAlarm> alarmsInDb,
+                            Map<String, OnmsAlarm> alarmsInDbByReductionKey,
+                            Set<String> reductionKeysAdded,
+                            Set<String> reductionKeysDeleted,
+                            Set<String> reductionKeysUpdated,
+                            int numAlarmsInKtable,
+                            int numPartitions,
+                            int numDivergedPartitions) {
         this.alarmsInKtableByReductionKey = Objects.requireNonNull(alarmsInKtableByReductionKey);
         this.alarmsInDb = Objects.requireNonNull(alarmsInDb);
         this.alarmsInDbByReductionKey = Objects.requireNonNull(alarmsInDbByReductionKey);
         this.reductionKeysAdded = Objects.requireNonNull(reductionKeysAdded);
         this.reductionKeysDeleted = Objects.requireNonNull(reductionKeysDeleted);
         this.reductionKeysUpdated = Objects.requireNonNull(reductionKeysUpdated);
+        this.numAlarmsInKtable = numAlarmsInKtable;
+        this.numPartitions = numPartitions;
+        this.numDivergedPartitions = numDivergedPartitions;
     }
 
+    /**
+     * @return the alarms from the ktable that were compared with the database, i.e. those in the diverged partitions
+     */
     public Map<String, OpennmsModelProtos.Alarm> getAlarmsInKtableByReductionKey() {
         return alarmsInKtableByReductionKey;
     }
@@ -75,6 +97,18 @@ public class AlarmSyncResults {
         return reductionKeysUpdated;
     }
 
+    public int getNumAlarmsInKtable() {
+        return numAlarmsInKtable;
+    }
+
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    public int getNumDivergedPartitions() {
+        return numDivergedPartitions;
+    }
+
     public int getNumUpdates() {
         return getReductionKeysAdded().size()
                 + getReductionKeysDeleted().size()
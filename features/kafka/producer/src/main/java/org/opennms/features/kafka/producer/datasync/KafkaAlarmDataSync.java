@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.BitSet;
+import java.util.Date;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
@@ -34,6 +36,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -69,7 +72,12 @@ import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -98,10 +106,23 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
             AlarmEqualityChecker.with(AlarmEqualityChecker.Exclusions::defaultExclusions);
     private boolean suppressIncrementalAlarms;
 
+    private int numPartitions = 1024;
+    private int fullSyncInterval = 10;
+    private long syncCount = 0;
+    // Hashes of the alarms from the previous sync, by reduction key, along with the hash of the
+    // input they were computed from: the alarm's bytes in the ktable, or its columns in the database
+    private final Map<String, long[]> ktableAlarmHashes = new ConcurrentHashMap<>();
+    private final Map<String, long[]> dbAlarmHashes = new ConcurrentHashMap<>();
+
+    private Timer syncDuration;
+    private Histogram divergedPartitions;
+    private Meter alarmsRepublished;
+
     public KafkaAlarmDataSync(ConfigurationAdmin configAdmin, OpennmsKafkaProducer kafkaProducer, ProtobufMapper protobufMapper) {
         this.configAdmin = Objects.requireNonNull(configAdmin);
         this.kafkaProducer = Objects.requireNonNull(kafkaProducer);
         this.protobufMapper = Objects.requireNonNull(protobufMapper);
+        setMetricRegistry(new MetricRegistry());
     }
 
     /**
@@ -203,12 +224,13 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
         }
 
         LOG.debug("Performing alarm synchronization with ktable.");
+        // The hashes computed from the database columns are only trusted between full synchronizations,
+        // since changes to related entities (i.e. the node or related alarms) do not show in these columns
+        final boolean fullSync = fullSyncInterval <= 1 || syncCount++ % fullSyncInterval == 0;
         final AlarmSyncResults results;
-        try {
-            // Retrieve the map of alarms by reduction key from the ktable
-            final Map<String, OpennmsModelProtos.Alarm> alarmsInKtableByReductionKey = getAlarms();
-
-            final Set<String> reductionKeysInKtable = alarmsInKtableByReductionKey.keySet();
+        try (Timer.Context ignored = syncDuration.time()) {
+            // Retrieve the raw alarms by reduction key from the ktable, these are only parsed when needed
+            final Map<String, byte[]> alarmBytesInKtableByReductionKey = getAlarmBytes();
 
             // Use the given alarms and apply the filter (if any) to these
             // This represents the set of alarms that should be in the ktable at the given timestamp
@@ -218,7 +240,29 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
 
             final Map<String, OnmsAlarm> alarmsInDbByReductionKey = alarmsInDb.stream()
                     .collect(Collectors.toMap(OnmsAlarm::getReductionKey, a -> a));
-            final Set<String> reductionKeysInDb = alarmsInDbByReductionKey.keySet();
+
+            // Summarize both sides, and only compare the alarms in the partitions that differ
+            final AlarmSnapshotDigest ktableDigest = new AlarmSnapshotDigest(numPartitions);
+            alarmBytesInKtableByReductionKey.forEach((rkey, bytes) -> ktableDigest.add(rkey, getKtableAlarmHash(rkey, bytes)));
+            ktableAlarmHashes.keySet().retainAll(alarmBytesInKtableByReductionKey.keySet());
+
+            final AlarmSnapshotDigest dbDigest = new AlarmSnapshotDigest(numPartitions);
+            alarmsInDbByReductionKey.forEach((rkey, alarm) -> dbDigest.add(rkey, getDbAlarmHash(rkey, alarm, fullSync)));
+            dbAlarmHashes.keySet().retainAll(alarmsInDbByReductionKey.keySet());
+
+            final BitSet diverged = ktableDigest.diff(dbDigest);
+            divergedPartitions.update(diverged.cardinality());
+
+            final Map<String, OpennmsModelProtos.Alarm> alarmsInKtableByReductionKey = new LinkedHashMap<>();
+            alarmBytesInKtableByReductionKey.forEach((rkey, bytes) -> {
+                if (diverged.get(ktableDigest.getPartition(rkey))) {
+                    alarmsInKtableByReductionKey.put(rkey, parseAlarm(rkey, bytes));
+                }
+            });
+            final Set<String> reductionKeysInKtable = alarmsInKtableByReductionKey.keySet();
+            final Set<String> reductionKeysInDb = alarmsInDbByReductionKey.keySet().stream()
+                    .filter(rkey -> diverged.get(dbDigest.getPartition(rkey)))
+                    .collect(Collectors.toSet());
 
             // Grab a reference to the state tracker
             final AlarmCallbackStateTracker stateTracker = kafkaProducer.getAlarmCallbackStateTracker();
@@ -261,15 +305,20 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
             });
 
             results = new AlarmSyncResults(alarmsInKtableByReductionKey, alarmsInDb, alarmsInDbByReductionKey,
-                    reductionKeysNotInKtable, reductionKeysNotInDb, reductionKeysUpdated);
+                    reductionKeysNotInKtable, reductionKeysNotInDb, reductionKeysUpdated,
+                    alarmBytesInKtableByReductionKey.size(), numPartitions, diverged.cardinality());
         } catch (Exception e) {
             LOG.error("An error occurred while performing alarm synchronization with the ktable. Will try again on next callback.", e);
             return null;
         }
+        alarmsRepublished.mark(results.getNumUpdates());
 
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Done performing alarm synchronization with the ktable for {} alarms. Executed {} updates.",
+            LOG.debug("Done performing {} alarm synchronization with the ktable for {} alarms. Compared {} of {} partitions and executed {} updates.",
+                    fullSync ? "full" : "incremental",
                     results.getAlarmsInDb().size(),
+                    results.getNumDivergedPartitions(),
+                    results.getNumPartitions(),
                     results.getReductionKeysAdded().size()
                             + results.getReductionKeysDeleted().size()
                             + results.getReductionKeysUpdated().size());
@@ -281,7 +330,99 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
         return results;
     }
 
+    /**
+     * Hashes an alarm from the ktable. The hash only depends on the alarm's bytes, so it is reused
+     * for as long as these do not change.
+     */
+    private long getKtableAlarmHash(String reductionKey, byte[] alarmBytes) {
+        if (alarmBytes == null) {
+            return 0;
+        }
+        final long bytesHash = AlarmSnapshotDigest.HASH_FUNCTION.hashBytes(alarmBytes).asLong();
+        if (!suppressIncrementalAlarms) {
+            // Compared as is
+            return bytesHash;
+        }
+
+        final long[] cached = ktableAlarmHashes.get(reductionKey);
+        if (cached != null && cached[0] == bytesHash) {
+            return cached[1];
+        }
+        long alarmHash;
+        try {
+            alarmHash = hashAlarm(AlarmEqualityChecker.Exclusions.defaultExclusions(
+                    OpennmsModelProtos.Alarm.parseFrom(alarmBytes).toBuilder()).build());
+        } catch (InvalidProtocolBufferException e) {
+            // Will never match, and be replaced
+            alarmHash = bytesHash;
+        }
+        ktableAlarmHashes.put(reductionKey, new long[]{bytesHash, alarmHash});
+        return alarmHash;
+    }
+
+    /**
+     * Hashes an alarm from the database. The alarm needs to be mapped in order to be compared with the
+     * ktable, which is reused for as long as its columns do not change, until the next full synchronization.
+     */
+    private long getDbAlarmHash(String reductionKey, OnmsAlarm alarm, boolean fullSync) {
+        final long columnsHash = hashColumns(alarm);
+        final long[] cached = dbAlarmHashes.get(reductionKey);
+        if (!fullSync && cached != null && cached[0] == columnsHash) {
+            return cached[1];
+        }
+        final OpennmsModelProtos.Alarm.Builder mappedAlarm = protobufMapper.toAlarm(alarm);
+        final long alarmHash = suppressIncrementalAlarms
+                ? hashAlarm(AlarmEqualityChecker.Exclusions.defaultExclusions(mappedAlarm).build())
+                : hashAlarm(mappedAlarm.build());
+        dbAlarmHashes.put(reductionKey, new long[]{columnsHash, alarmHash});
+        return alarmHash;
+    }
 
+    private static long hashAlarm(OpennmsModelProtos.Alarm alarm) {
+        return AlarmSnapshotDigest.HASH_FUNCTION.hashBytes(alarm.toByteArray()).asLong();
+    }
+
+    /**
+     * Hashes the columns of the alarm that are mapped to the protobuf model, without loading any
+     * of its relations.
+     */
+    private static long hashColumns(OnmsAlarm alarm) {
+        final Hasher hasher = AlarmSnapshotDigest.HASH_FUNCTION.newHasher();
+        putNullable(hasher, alarm.getId());
+        putNullable(hasher, alarm.getUei());
+        putNullable(hasher, alarm.getCounter());
+        putNullable(hasher, alarm.getSeverityId());
+        putNullable(hasher, alarm.getLastEvent() != null ? alarm.getLastEvent().getId() : null);
+        putNullable(hasher, alarm.getLogMsg());
+        putNullable(hasher, alarm.getDescription());
+        putNullable(hasher, alarm.getIpAddr());
+        putNullable(hasher, alarm.getIfIndex());
+        putNullable(hasher, alarm.getOperInstruct());
+        putNullable(hasher, alarm.getAckUser());
+        putNullable(hasher, alarm.getClearKey());
+        putNullable(hasher, alarm.getNodeId());
+        putNullable(hasher, alarm.getManagedObjectInstance());
+        putNullable(hasher, alarm.getManagedObjectType());
+        putNullable(hasher, alarm.getAlarmType());
+        putNullable(hasher, alarm.getServiceType() != null ? alarm.getServiceType().getId() : null);
+        putNullable(hasher, alarm.getTTicketId());
+        putNullable(hasher, alarm.getTTicketState());
+        putNullable(hasher, alarm.getFirstEventTime());
+        putNullable(hasher, alarm.getLastEventTime());
+        putNullable(hasher, alarm.getAckTime());
+        putNullable(hasher, alarm.getLastUpdateTime());
+        return hasher.hash().asLong();
+    }
+
+    private static void putNullable(Hasher hasher, Object value) {
+        if (value == null) {
+            hasher.putByte((byte) 0);
+        } else if (value instanceof Date) {
+            hasher.putByte((byte) 1).putLong(((Date) value).getTime());
+        } else {
+            hasher.putByte((byte) 1).putUnencodedChars(value.toString());
+        }
+    }
 
     private Properties loadStreamsProperties() throws IOException {
         final Properties streamsProperties = new Properties();
@@ -357,17 +498,28 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
     @Override
     public Map<String, OpennmsModelProtos.Alarm> getAlarms() {
         final Map<String, OpennmsModelProtos.Alarm> alarmsByReductionKey = new LinkedHashMap<>();
-        getAlarmTableNow().all().forEachRemaining(kv -> {
-            try {
-                alarmsByReductionKey.put(kv.key, kv.value != null ? OpennmsModelProtos.Alarm.parseFrom(kv.value) : null);
-            } catch (InvalidProtocolBufferException e) {
-                LOG.error("Failed to parse alarm for bytes at reduction key '{}'. Alarm will be empty in map.", kv.key);
-                alarmsByReductionKey.put(kv.key, null);
-            }
-        });
+        getAlarmTableNow().all().forEachRemaining(kv -> alarmsByReductionKey.put(kv.key, parseAlarm(kv.key, kv.value)));
         return alarmsByReductionKey;
     }
 
+    private Map<String, byte[]> getAlarmBytes() {
+        final Map<String, byte[]> alarmBytesByReductionKey = new LinkedHashMap<>();
+        getAlarmTableNow().all().forEachRemaining(kv -> alarmBytesByReductionKey.put(kv.key, kv.value));
+        return alarmBytesByReductionKey;
+    }
+
+    private static OpennmsModelProtos.Alarm parseAlarm(String reductionKey, byte[] alarmBytes) {
+        if (alarmBytes == null) {
+            return null;
+        }
+        try {
+            return OpennmsModelProtos.Alarm.parseFrom(alarmBytes);
+        } catch (InvalidProtocolBufferException e) {
+            LOG.error("Failed to parse alarm for bytes at reduction key '{}'. Alarm will be empty in map.", reductionKey);
+            return null;
+        }
+    }
+
     @Override
     public OpennmsModelProtos.Alarm getAlarm(String reductionKey) {
         final byte[] alarmBytes = getAlarmTableNow().get(reductionKey);
@@ -381,4 +533,25 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
     public void setSuppressIncrementalAlarms(boolean suppressIncrementalAlarms) {
         this.suppressIncrementalAlarms = suppressIncrementalAlarms;
     }
+
+    /**
+     * Number of partitions the alarms are split into when comparing the database with the ktable.
+     */
+    public synchronized void setNumPartitions(int numPartitions) {
+        this.numPartitions = Math.max(1, numPartitions);
+    }
+
+    /**
+     * Every n-th synchronization maps all of the alarms from the database again, instead of only those
+     * that changed since the previous one. Set to 1 to always do so.
+     */
+    public synchronized void setFullSyncInterval(int fullSyncInterval) {
+        this.fullSyncInterval = fullSyncInterval;
+    }
+
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.syncDuration = metricRegistry.timer("alarm-sync.duration");
+        this.divergedPartitions = metricRegistry.histogram("alarm-sync.diverged-partitions");
+        this.alarmsRepublished = metricRegistry.meter("alarm-sync.republished");
+    }
 }
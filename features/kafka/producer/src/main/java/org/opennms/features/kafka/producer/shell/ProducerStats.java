@@ -0,0 +1,86 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer.shell;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.features.kafka.producer.KafkaSendPipeline;
+import org.opennms.features.kafka.producer.OpennmsKafkaProducer;
+import org.opennms.netmgt.topologies.service.api.OnmsTopologyConsumer;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+@Command(scope = "opennms", name = "kafka-producer-stats", description = "Displays the queue depth and enqueue-to-ack latency of every topic.")
+@Service
+public class ProducerStats implements Action {
+
+    @Reference
+    private BundleContext bundleContext;
+
+    @Override
+    public Object execute() throws InvalidSyntaxException {
+        // Grab a reference to the OnmsTopologyConsumer interface exposed by the OpennmsKafkaProducer
+        final ServiceReference<OnmsTopologyConsumer> serviceRef = bundleContext.getServiceReferences(OnmsTopologyConsumer.class, "(type=kafkaProducer)").stream()
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Could not find reference to OnmsTopologyConsumer service exposed by the OpennmsKafkaProducer."));
+        final OnmsTopologyConsumer consumer = bundleContext.getService(serviceRef);
+        try {
+            final KafkaSendPipeline sendPipeline = ((OpennmsKafkaProducer) consumer).getSendPipeline();
+            if (sendPipeline == null) {
+                System.out.println("The Kafka producer is not running.");
+                return null;
+            }
+
+            System.out.printf("%-20s %8s %10s %10s %10s %12s %12s %12s\n",
+                    "Topic", "Queued", "Acked", "Dropped", "Failed", "Mean (ms)", "p99 (ms)", "Max (ms)");
+            for (String topic : new TreeSet<>(sendPipeline.getTopics())) {
+                final Timer ackLatency = sendPipeline.getAckLatency(topic);
+                final Snapshot snapshot = ackLatency.getSnapshot();
+                System.out.printf("%-20s %8d %10d %10d %10d %12.2f %12.2f %12.2f\n",
+                        topic,
+                        sendPipeline.getQueueDepth(topic),
+                        ackLatency.getCount(),
+                        sendPipeline.getDropped(topic).getCount(),
+                        sendPipeline.getFailed(topic).getCount(),
+                        toMillis(snapshot.getMean()),
+                        toMillis(snapshot.get99thPercentile()),
+                        toMillis(snapshot.getMax()));
+            }
+        } finally {
+            bundleContext.ungetService(serviceRef);
+        }
+        return null;
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -74,9 +74,11 @@ public class SyncAlarms implements Action {
             final long delay = System.currentTimeMillis() - start;
             System.out.printf("Executed %d updates in %dms.\n\n", results.getNumUpdates(), delay);
 
-            System.out.printf("Number of reduction keys in ktable: %d\n", results.getAlarmsInKtableByReductionKey().size());
+            System.out.printf("Number of reduction keys in ktable: %d\n", results.getNumAlarmsInKtable());
             System.out.printf("Number of reduction keys in the db: %d (%d alarms total)\n",
                    results.getAlarmsInDbByReductionKey().size(), results.getAlarmsInDb().size());
+            System.out.printf("Number of partitions compared: %d (of %d)\n",
+                   results.getNumDivergedPartitions(), results.getNumPartitions());
 
             if (results.getNumUpdates() > 0) {
                 System.out.print("Reduction keys added to the ktable:");
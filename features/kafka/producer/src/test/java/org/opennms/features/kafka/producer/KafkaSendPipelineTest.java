@@ -0,0 +1,266 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Tests for {@link KafkaSendPipeline}.
+ */
+public class KafkaSendPipelineTest {
+
+    private KafkaSendPipeline pipeline;
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * Verifies that records are built off the calling thread, and that records sharing a key keep their order.
+     */
+    @Test(timeout = 30000)
+    public void canPreserveOrderPerShardKey() throws Exception {
+        final int numKeys = 10;
+        final int recordsPerKey = 500;
+        final Map<String, List<Integer>> sentByKey = new ConcurrentHashMap<>();
+        final CountDownLatch acked = new CountDownLatch(numKeys * recordsPerKey);
+        pipeline = new KafkaSendPipeline((record, callback) -> {
+            final String key = new String(record.key(), StandardCharsets.UTF_8);
+            sentByKey.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Integer.parseInt(new String(record.value(), StandardCharsets.UTF_8)));
+            callback.onCompletion(null, null);
+        }, new MetricRegistry(), 4, numKeys * recordsPerKey, KafkaSendPipeline.OverflowPolicy.DROP, 0);
+        pipeline.start();
+
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger builtOnCaller = new AtomicInteger();
+        for (int i = 0; i < recordsPerKey; i++) {
+            for (int k = 0; k < numKeys; k++) {
+                final byte[] key = ("key" + k).getBytes(StandardCharsets.UTF_8);
+                final byte[] value = Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+                assertTrue(pipeline.enqueue("alarms", key, () -> {
+                    if (Thread.currentThread() == caller) {
+                        builtOnCaller.incrementAndGet();
+                    }
+                    return new ProducerRecord<>("alarms", key, value);
+                }, recordMetadata -> acked.countDown()));
+            }
+        }
+
+        assertTrue(acked.await(20, TimeUnit.SECONDS));
+        assertEquals(0, builtOnCaller.get());
+        assertEquals(numKeys, sentByKey.size());
+        for (List<Integer> sent : sentByKey.values()) {
+            assertEquals(recordsPerKey, sent.size());
+            for (int i = 0; i < recordsPerKey; i++) {
+                assertEquals(i, sent.get(i).intValue());
+            }
+        }
+        assertEquals(numKeys * recordsPerKey, pipeline.getAckLatency("alarms").getCount());
+        assertEquals(0, pipeline.getQueueDepth("alarms"));
+    }
+
+    /**
+     * Verifies that a full topic drops records without affecting the other topics.
+     */
+    @Test(timeout = 30000)
+    public void canDropWhenTopicIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline = new KafkaSendPipeline((record, callback) -> {
+            if ("events".equals(record.topic())) {
+                awaitQuietly(release);
+            }
+            callback.onCompletion(null, null);
+        }, new MetricRegistry(), 2, 2, KafkaSendPipeline.OverflowPolicy.DROP, 0);
+        pipeline.start();
+
+        // The first event blocks its worker, the second one waits behind it
+        assertTrue(pipeline.enqueue("events", "key", () -> new ProducerRecord<>("events", new byte[0]), null));
+        assertTrue(pipeline.enqueue("events", "key", () -> new ProducerRecord<>("events", new byte[0]), null));
+        assertEquals(2, pipeline.getQueueDepth("events"));
+        assertFalse(pipeline.enqueue("events", "key", () -> new ProducerRecord<>("events", new byte[0]), null));
+        assertEquals(1, pipeline.getDropped("events").getCount());
+
+        // Other topics are unaffected
+        final CountDownLatch nodeAcked = new CountDownLatch(1);
+        assertTrue(pipeline.enqueue("nodes", "other", () -> new ProducerRecord<>("nodes", new byte[0]), r -> nodeAcked.countDown()));
+        assertTrue(nodeAcked.await(10, TimeUnit.SECONDS));
+
+        release.countDown();
+    }
+
+    /**
+     * Verifies that the blocking policy waits for room in the queue instead of dropping.
+     */
+    @Test(timeout = 30000)
+    public void canBlockWhenTopicIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch acked = new CountDownLatch(3);
+        pipeline = new KafkaSendPipeline((record, callback) -> {
+            awaitQuietly(release);
+            callback.onCompletion(null, null);
+        }, new MetricRegistry(), 1, 2, KafkaSendPipeline.OverflowPolicy.BLOCK, 10000);
+        pipeline.start();
+
+        // The first event blocks the worker, the second one waits behind it
+        assertTrue(pipeline.enqueue("events", null, () -> new ProducerRecord<>("events", new byte[0]), r -> acked.countDown()));
+        assertTrue(pipeline.enqueue("events", null, () -> new ProducerRecord<>("events", new byte[0]), r -> acked.countDown()));
+
+        final Thread blocked = new Thread(() -> pipeline.enqueue("events", null,
+                () -> new ProducerRecord<>("events", new byte[0]), r -> acked.countDown()));
+        blocked.start();
+        blocked.join(500);
+        assertTrue(blocked.isAlive());
+
+        release.countDown();
+        blocked.join(10000);
+        assertFalse(blocked.isAlive());
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        assertEquals(0, pipeline.getDropped("events").getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotBlockWithoutTimeout() {
+        new KafkaSendPipeline((record, callback) -> callback.onCompletion(null, null), new MetricRegistry(), 1, 2,
+                KafkaSendPipeline.OverflowPolicy.BLOCK, 0);
+    }
+
+    /**
+     * Verifies that stopping sends the queued records, and rejects the ones enqueued afterwards.
+     */
+    @Test(timeout = 30000)
+    public void canDrainOnStop() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger sent = new AtomicInteger();
+        pipeline = new KafkaSendPipeline((record, callback) -> {
+            awaitQuietly(release);
+            sent.incrementAndGet();
+            callback.onCompletion(null, null);
+        }, new MetricRegistry(), 1, 100, KafkaSendPipeline.OverflowPolicy.DROP, 0);
+        pipeline.start();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pipeline.enqueue("events", null, () -> new ProducerRecord<>("events", new byte[0]), null));
+        }
+        final Thread stopping = new Thread(() -> pipeline.stop(10000));
+        stopping.start();
+        while (stopping.isAlive() && pipeline.enqueue("events", null, () -> new ProducerRecord<>("events", new byte[0]), null)) {
+            // Wait for the pipeline to stop accepting records
+            Thread.sleep(10);
+        }
+        final long droppedBeforeRelease = pipeline.getDropped("events").getCount();
+        release.countDown();
+        stopping.join();
+
+        assertEquals(1, droppedBeforeRelease);
+        assertEquals(0, pipeline.getQueueDepth("events"));
+        assertFalse(pipeline.enqueue("events", null, () -> new ProducerRecord<>("events", new byte[0]), null));
+        assertEquals(2, pipeline.getDropped("events").getCount());
+        // Everything queued before the pipeline stopped accepting records was sent
+        assertTrue(sent.get() >= 5);
+    }
+
+    /**
+     * Verifies that the records that could not be sent before the stop timeout are counted as dropped.
+     */
+    @Test(timeout = 30000)
+    public void canDropWhatRemainsQueuedOnStop() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline = new KafkaSendPipeline((record, callback) -> {
+            sending.countDown();
+            awaitQuietly(release);
+            callback.onCompletion(null, null);
+        }, new MetricRegistry(), 1, 10, KafkaSendPipeline.OverflowPolicy.DROP, 0, 1);
+        pipeline.start();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(pipeline.enqueue("events", null, () -> new ProducerRecord<>("events", new byte[0]), null));
+        }
+        // The worker is stuck sending the first record
+        assertTrue(sending.await(10, TimeUnit.SECONDS));
+        pipeline.stop(100);
+        release.countDown();
+
+        assertEquals(4, pipeline.getDropped("events").getCount());
+    }
+
+    /**
+     * Verifies that records of the configured topics are sent again after a timeout, without being rebuilt.
+     */
+    @Test(timeout = 30000)
+    public void canRequeueOnTimeout() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger builds = new AtomicInteger();
+        final CountDownLatch acked = new CountDownLatch(1);
+        pipeline = new KafkaSendPipeline((record, callback) -> {
+            if (attempts.incrementAndGet() == 1) {
+                callback.onCompletion(null, new TimeoutException("Kafka is offline"));
+            } else {
+                callback.onCompletion(null, null);
+            }
+        }, new MetricRegistry(), 1, 10, KafkaSendPipeline.OverflowPolicy.DROP, 0);
+        pipeline.setRequeueOnTimeoutTopics(Collections.singleton("events"));
+        pipeline.start();
+
+        pipeline.enqueue("events", null, () -> {
+            builds.incrementAndGet();
+            return new ProducerRecord<>("events", new byte[0]);
+        }, r -> acked.countDown());
+
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(1, builds.get());
+        assertEquals(1, pipeline.getFailed("events").getCount());
+        assertEquals(1, pipeline.getAckLatency("events").getCount());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer.datasync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link AlarmSnapshotDigest}.
+ */
+public class AlarmSnapshotDigestTest {
+
+    private static final int NUM_PARTITIONS = 64;
+
+    @Test
+    public void canMatchRegardlessOfOrder() {
+        final List<String> reductionKeys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            reductionKeys.add("uei.opennms.org/nodes/nodeDown::" + i);
+        }
+        final AlarmSnapshotDigest a = digest(reductionKeys);
+        Collections.shuffle(reductionKeys);
+        final AlarmSnapshotDigest b = digest(reductionKeys);
+
+        assertTrue(a.diff(b).isEmpty());
+    }
+
+    @Test
+    public void canIsolateDivergedPartitions() {
+        final List<String> reductionKeys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            reductionKeys.add("uei.opennms.org/nodes/nodeDown::" + i);
+        }
+        final AlarmSnapshotDigest a = digest(reductionKeys);
+
+        // Same keys, but one alarm changed, one is missing and one was added
+        final AlarmSnapshotDigest b = new AlarmSnapshotDigest(NUM_PARTITIONS);
+        for (String reductionKey : reductionKeys) {
+            if (reductionKey.endsWith("::7")) {
+                b.add(reductionKey, 42);
+            } else if (!reductionKey.endsWith("::13")) {
+                b.add(reductionKey, reductionKey.length());
+            }
+        }
+        b.add("uei.opennms.org/nodes/nodeDown::1000", 1);
+
+        final BitSet expected = new BitSet();
+        expected.set(a.getPartition("uei.opennms.org/nodes/nodeDown::7"));
+        expected.set(a.getPartition("uei.opennms.org/nodes/nodeDown::13"));
+        expected.set(a.getPartition("uei.opennms.org/nodes/nodeDown::1000"));
+        assertEquals(expected, a.diff(b));
+        assertEquals(expected, b.diff(a));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotCompareDifferentPartitioning() {
+        new AlarmSnapshotDigest(8).diff(new AlarmSnapshotDigest(16));
+    }
+
+    private static AlarmSnapshotDigest digest(List<String> reductionKeys) {
+        final AlarmSnapshotDigest digest = new AlarmSnapshotDigest(NUM_PARTITIONS);
+        for (String reductionKey : reductionKeys) {
+            digest.add(reductionKey, reductionKey.length());
+        }
+        return digest;
+    }
+}
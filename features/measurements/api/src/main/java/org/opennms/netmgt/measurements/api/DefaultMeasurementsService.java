@@ -22,13 +22,17 @@
 package org.opennms.netmgt.measurements.api;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.opennms.netmgt.measurements.api.exceptions.FetchException;
 import org.opennms.netmgt.measurements.api.exceptions.MeasurementException;
 import org.opennms.netmgt.measurements.api.exceptions.ResourceNotFoundException;
 import org.opennms.netmgt.measurements.api.exceptions.ValidationException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryMetadata;
 import org.opennms.netmgt.measurements.model.QueryRequest;
 import org.opennms.netmgt.measurements.model.QueryResponse;
+import org.opennms.netmgt.measurements.model.QueryTimings;
 import org.opennms.netmgt.measurements.model.Source;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -39,10 +43,25 @@ import com.google.common.collect.RowSortedTable;
 @Component("measurementsService")
 public class DefaultMeasurementsService implements MeasurementsService {
 
+    /**
+     * Upper bound, in megabytes, for the memory a single query may use for
+     * the fetched columns and while evaluating its expressions and filters.
+     */
+    public static final String MAX_MEMORY_PROPERTY = "org.opennms.measurements.query.max_memory";
+
+    private static final long DEFAULT_MAX_MEMORY_MB = 512;
+
+    /**
+     * Rough per-cell cost of the boxed table used by the filters:
+     * a Double, a Long row key and the hash table entries.
+     */
+    private static final long BYTES_PER_TABLE_CELL = 80;
+
     private final MeasurementFetchStrategy fetchStrategy;
     private final ExpressionEngine expressionEngine;
     private final FilterEngine filterEngine;
     private final QueryRequestValidator queryRequestValidator = new QueryRequestValidator();
+    private final long maxMemory = Long.getLong(MAX_MEMORY_PROPERTY, DEFAULT_MAX_MEMORY_MB) * 1024 * 1024;
 
     @Autowired
     public DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine) {
@@ -54,6 +73,12 @@ public class DefaultMeasurementsService implements MeasurementsService {
     @Override
     public QueryResponse query(QueryRequest request) throws MeasurementException {
         validate(request);
+        final QueryTimings timings = new QueryTimings();
+        final long queryStart = System.nanoTime();
+
+        // Refuse to fetch more than the limit allows. The fetch materializes all of
+        // its rows, so this is checked up front, with an upper bound for the rows.
+        checkMemory(estimateRows(request), request.getSources().size(), 0, 0);
 
         // Fetch the measurements
         FetchResults results;
@@ -73,9 +98,16 @@ public class DefaultMeasurementsService implements MeasurementsService {
         if (results == null) {
             throw new ResourceNotFoundException(request);
         }
+        final long fetchEnd = System.nanoTime();
+        timings.setFetch(toMillis(fetchEnd - queryStart));
+
+        // Refuse to go any further if the remaining stages would exhaust the heap
+        checkMemory(request, results);
 
         // Apply the expression to the fetch results
         expressionEngine.applyExpressions(request, results);
+        final long expressionsEnd = System.nanoTime();
+        timings.setExpressions(toMillis(expressionsEnd - fetchEnd));
 
         // Apply the filters
         if (!request.getFilters().isEmpty()) {
@@ -83,6 +115,7 @@ public class DefaultMeasurementsService implements MeasurementsService {
             filterEngine.filter(request.getFilters(), table);
             results = new FetchResults(table, results.getStep(), results.getConstants(), results.getMetadata());
         }
+        timings.setFilters(toMillis(System.nanoTime() - expressionsEnd));
 
         // Remove any transient values belonging to sources
         final Map<String, double[]> columns = results.getColumns();
@@ -100,10 +133,56 @@ public class DefaultMeasurementsService implements MeasurementsService {
         response.setTimestamps(results.getTimestamps());
         response.setColumns(results.getColumns());
         response.setConstants(results.getConstants());
-        response.setMetadata(results.getMetadata());
+        QueryMetadata metadata = results.getMetadata();
+        if (metadata == null) {
+            metadata = new QueryMetadata();
+        }
+        timings.setTotal(toMillis(System.nanoTime() - queryStart));
+        metadata.setTimings(timings);
+        response.setMetadata(metadata);
         return response;
     }
 
+    private void checkMemory(QueryRequest request, FetchResults results) throws ValidationException {
+        long filteredColumns = 0;
+        if (!request.getFilters().isEmpty()) {
+            filteredColumns = results.getColumns().size();
+            for (final Expression expression : request.getExpressions()) {
+                if (!expression.getTransient()) {
+                    filteredColumns++;
+                }
+            }
+        }
+        checkMemory(results.getTimestamps().length, results.getColumns().size(), request.getExpressions().size(), filteredColumns);
+    }
+
+    private void checkMemory(long rows, long columns, long expressions, long filteredColumns) throws ValidationException {
+        // The fetched columns and timestamps, each expression adds another primitive column
+        long required = rows * (columns + 1 + expressions) * Double.BYTES;
+        if (filteredColumns > 0) {
+            // The filters work on a boxed copy of every column, plus the timestamps
+            required += rows * (filteredColumns + 1) * BYTES_PER_TABLE_CELL;
+        }
+        if (required > maxMemory) {
+            throw new ValidationException("Query requires an estimated {} MB of memory, which exceeds the limit of {} MB. "
+                    + "Reduce the time range or the number of sources, or increase the step.",
+                    required / (1024 * 1024), maxMemory / (1024 * 1024));
+        }
+    }
+
+    /**
+     * The strategies return at most one row per step, or fewer if they store the
+     * range at a coarser resolution or the number of rows is limited.
+     */
+    private static long estimateRows(QueryRequest request) {
+        final long rows = Math.max(0, request.getEnd() - request.getStart()) / request.getStep() + 1;
+        return request.getMaxRows() > 0 ? Math.min(rows, request.getMaxRows()) : rows;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
     private void validate(QueryRequest request) throws ValidationException {
         queryRequestValidator.validate(request);
     }
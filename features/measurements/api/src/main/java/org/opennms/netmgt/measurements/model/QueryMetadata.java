@@ -46,6 +46,9 @@ public class QueryMetadata {
     @XmlElement(name="node")
     private final Set<QueryNode> nodes;
 
+    @XmlElement(name="timings")
+    private QueryTimings timings;
+
     public QueryMetadata() {
         this.resources = null;
         this.nodes = null;
@@ -75,6 +78,14 @@ public class QueryMetadata {
         return this.nodes == null? new HashSet<QueryNode>() : this.nodes;
     }
 
+    public QueryTimings getTimings() {
+        return this.timings;
+    }
+
+    public void setTimings(final QueryTimings timings) {
+        this.timings = timings;
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (obj == null) {
@@ -96,6 +107,7 @@ public class QueryMetadata {
         return com.google.common.base.MoreObjects.toStringHelper(this)
                 .add("resources", this.resources)
                 .add("nodes", this.nodes)
+                .add("timings", this.timings)
                 .toString();
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.model;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Time spent in each stage of a query, in milliseconds.
+ */
+@XmlRootElement(name = "timings")
+@XmlAccessorType(XmlAccessType.NONE)
+public class QueryTimings {
+    @XmlAttribute private long fetch;
+    @XmlAttribute private long expressions;
+    @XmlAttribute private long filters;
+    @XmlAttribute private long total;
+
+    public long getFetch() {
+        return fetch;
+    }
+    public void setFetch(final long fetch) {
+        this.fetch = fetch;
+    }
+    public long getExpressions() {
+        return expressions;
+    }
+    public void setExpressions(final long expressions) {
+        this.expressions = expressions;
+    }
+    public long getFilters() {
+        return filters;
+    }
+    public void setFilters(final long filters) {
+        this.filters = filters;
+    }
+    public long getTotal() {
+        return total;
+    }
+    public void setTotal(final long total) {
+        this.total = total;
+    }
+
+    @Override
+    public String toString() {
+        return com.google.common.base.MoreObjects.toStringHelper(this)
+                .add("fetch", this.fetch)
+                .add("expressions", this.expressions)
+                .add("filters", this.filters)
+                .add("total", this.total)
+                .toString();
+    }
+}
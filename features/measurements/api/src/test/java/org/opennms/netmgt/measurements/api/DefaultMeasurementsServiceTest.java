@@ -0,0 +1,142 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.exceptions.ValidationException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.FilterDef;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.QueryResponse;
+import org.opennms.netmgt.measurements.model.Source;
+
+public class DefaultMeasurementsServiceTest {
+
+    private static final int NUM_ROWS = 100000;
+
+    @After
+    public void tearDown() {
+        System.clearProperty(DefaultMeasurementsService.MAX_MEMORY_PROPERTY);
+    }
+
+    @Test
+    public void canReportTimingsInMetadata() throws Exception {
+        final DefaultMeasurementsService service = new DefaultMeasurementsService(
+                getFetchStrategy(), getExpressionEngine(), new FilterEngine());
+
+        final QueryResponse response = service.query(getRequest());
+
+        // The transient source is removed, the expression is kept
+        final Map<String, double[]> columns = response.columnsWithLabels();
+        assertFalse(columns.containsKey("x"));
+        assertTrue(columns.containsKey("y"));
+        assertEquals(2.0d, columns.get("y")[1], 0.0001d);
+
+        assertNotNull(response.getMetadata());
+        assertNotNull(response.getMetadata().getTimings());
+        assertTrue(response.getMetadata().getTimings().getTotal() >= response.getMetadata().getTimings().getFetch());
+    }
+
+    @Test
+    public void canRejectQueriesExceedingTheMemoryLimit() throws Exception {
+        System.setProperty(DefaultMeasurementsService.MAX_MEMORY_PROPERTY, "3");
+        final DefaultMeasurementsService service = new DefaultMeasurementsService(
+                getFetchStrategy(), (request, results) -> fail("expressions should not be evaluated"), new FilterEngine());
+
+        final QueryRequest request = getRequest();
+        request.setFilters(Collections.singletonList(new FilterDef("Chomp", "cutoffDate", "0")));
+        try {
+            service.query(request);
+            fail("expected ValidationException");
+        } catch (ValidationException e) {
+            // all good, we expect the exception
+        }
+
+        // Without filters, the fetched columns and the expressions fit in the limit
+        request.setFilters(Collections.emptyList());
+        final QueryResponse response = new DefaultMeasurementsService(getFetchStrategy(), getExpressionEngine(), new FilterEngine()).query(request);
+        assertEquals(NUM_ROWS, response.getTimestamps().length);
+    }
+
+    @Test
+    public void canRejectQueriesBeforeFetching() throws Exception {
+        System.setProperty(DefaultMeasurementsService.MAX_MEMORY_PROPERTY, "1");
+        final DefaultMeasurementsService service = new DefaultMeasurementsService(
+                (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+                    fail("the samples should not be fetched");
+                    return null;
+                }, getExpressionEngine(), new FilterEngine());
+
+        // One million rows of a single source do not fit in 1 MB
+        final QueryRequest request = getRequest();
+        request.setEnd(10 * NUM_ROWS * 1000L);
+        try {
+            service.query(request);
+            fail("expected ValidationException");
+        } catch (ValidationException e) {
+            // all good, we expect the exception
+        }
+    }
+
+    private static QueryRequest getRequest() {
+        final QueryRequest request = new QueryRequest();
+        request.setStart(0);
+        request.setEnd(NUM_ROWS * 1000L);
+        request.setStep(1000);
+        request.setSources(Collections.singletonList(new Source("x", "node[1].nodeSnmp[]", "x", null, true)));
+        request.setExpressions(Collections.singletonList(new Expression("y", "x * 2", false)));
+        return request;
+    }
+
+    private static MeasurementFetchStrategy getFetchStrategy() {
+        return (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+            final long[] timestamps = new long[NUM_ROWS];
+            final double[] values = new double[NUM_ROWS];
+            for (int i = 0; i < NUM_ROWS; i++) {
+                timestamps[i] = i * step;
+                values[i] = i;
+            }
+            final Map<String, double[]> columns = new HashMap<>();
+            columns.put("x", values);
+            return new FetchResults(timestamps, columns, step, new HashMap<>(), null);
+        };
+    }
+
+    private static ExpressionEngine getExpressionEngine() {
+        return (request, results) -> {
+            final double[] x = results.getColumns().get("x");
+            results.getColumns().put("y", Arrays.stream(x).map(v -> v * 2).toArray());
+        };
+    }
+}
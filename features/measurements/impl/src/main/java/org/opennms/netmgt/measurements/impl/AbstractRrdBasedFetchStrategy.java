@@ -24,11 +24,19 @@ package org.opennms.netmgt.measurements.impl;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jrobin.core.RrdException;
 import org.opennms.netmgt.dao.api.ResourceDao;
+import org.opennms.netmgt.dao.api.SessionUtils;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.MeasurementFetchStrategy;
 import org.opennms.netmgt.measurements.model.QueryMetadata;
@@ -48,6 +56,7 @@ import org.springframework.orm.ObjectRetrievalFailureException;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Used to fetch measurements from RRD files.
@@ -58,9 +67,29 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractRrdBasedFetchStrategy.class);
 
+    /**
+     * Number of threads used to resolve the resources referenced by a query.
+     */
+    public static final String PARALLELISM_PROPERTY = "org.opennms.measurements.fetch.parallelism";
+
+    /**
+     * Resolving a resource walks the resource tree and lists the attributes
+     * on disk, so queries referencing many resources are resolved in parallel
+     * on a pool shared by all fetches.
+     */
+    private static final ExecutorService RESOLVER = Executors.newFixedThreadPool(
+            Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors())),
+            new ThreadFactoryBuilder()
+                    .setNameFormat("MeasurementsFetch-%d")
+                    .setDaemon(true)
+                    .build());
+
     @Autowired
     private ResourceDao m_resourceDao;
 
+    @Autowired(required = false)
+    private SessionUtils m_sessionUtils;
+
     /**
      * {@inheritDoc}
      */
@@ -75,21 +104,27 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
 
         final Map<Source, String> rrdsBySource = Maps.newHashMap();
         
-        final Map<ResourceId, OnmsResource> resourceCache = new HashMap<>();
-
+        final Map<Source, ResourceId> resourceIdsBySource = new LinkedHashMap<>();
         for (final Source source : sources) {
-            final ResourceId resourceId;
             try {
-                resourceId = ResourceId.fromString(source.getResourceId());
+                resourceIdsBySource.put(source, ResourceId.fromString(source.getResourceId()));
             } catch (final IllegalArgumentException ex) {
                 if (relaxed) continue;
                 LOG.error("Ill-formed resource id: {}", source.getResourceId(), ex);
-                resources.add(null);
                 return null;
             }
+        }
+
+        // Resolve all of the distinct resources up front
+        final Map<ResourceId, QueryResource> resourceInfoCache = new HashMap<>();
+        final Map<ResourceId, OnmsResource> resourceCache = resolveResources(new LinkedHashSet<>(resourceIdsBySource.values()), resourceInfoCache);
+
+        for (final Map.Entry<Source, ResourceId> entry : resourceIdsBySource.entrySet()) {
+            final Source source = entry.getKey();
+            final ResourceId resourceId = entry.getValue();
 
             // Grab the resource
-            final OnmsResource resource = resourceCache.computeIfAbsent(resourceId, r -> m_resourceDao.getResourceById(r));
+            final OnmsResource resource = resourceCache.get(resourceId);
 
             if (resource == null) {
                 if (relaxed) {
@@ -109,7 +144,7 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
                 return null;
             }
 
-            final QueryResource resourceInfo = getResourceInfo(resource, source);
+            final QueryResource resourceInfo = resourceInfoCache.computeIfAbsent(resourceId, r -> getResourceInfo(resource, source));
             resources.add(resourceInfo);
 
             // Grab the attribute
@@ -146,6 +181,70 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
         return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants, sources, new QueryMetadata(resources), relaxed);
     }
 
+    /**
+     * Resolves the given resources, in parallel when there is more than one
+     * of them and transactions can be opened on the worker threads.
+     *
+     * Resources which could not be found are absent from the returned map.
+     */
+    private Map<ResourceId, OnmsResource> resolveResources(final Set<ResourceId> resourceIds, final Map<ResourceId, QueryResource> resourceInfos) throws Exception {
+        final Map<ResourceId, OnmsResource> resolved = new HashMap<>();
+        if (m_sessionUtils == null || resourceIds.size() < 2) {
+            for (final ResourceId resourceId : resourceIds) {
+                final OnmsResource resource = m_resourceDao.getResourceById(resourceId);
+                if (resource != null) {
+                    resolved.put(resourceId, resource);
+                }
+            }
+            return resolved;
+        }
+
+        final Map<ResourceId, Future<ResolvedResource>> futures = new LinkedHashMap<>();
+        for (final ResourceId resourceId : resourceIds) {
+            futures.put(resourceId, RESOLVER.submit(() -> m_sessionUtils.withReadOnlyTransaction(() -> resolveResource(resourceId))));
+        }
+        try {
+            for (final Map.Entry<ResourceId, Future<ResolvedResource>> entry : futures.entrySet()) {
+                final ResolvedResource resource = entry.getValue().get();
+                if (resource != null) {
+                    resolved.put(entry.getKey(), resource.resource);
+                    resourceInfos.put(entry.getKey(), resource.info);
+                }
+            }
+        } catch (final ExecutionException e) {
+            futures.values().forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            throw e;
+        } catch (final InterruptedException e) {
+            futures.values().forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        return resolved;
+    }
+
+    private ResolvedResource resolveResource(final ResourceId resourceId) {
+        final OnmsResource resource = m_resourceDao.getResourceById(resourceId);
+        if (resource == null) {
+            return null;
+        }
+        // Load the attributes and the node while we are still in the transaction
+        resource.getAttributes();
+        return new ResolvedResource(resource, getResourceInfo(resource, null));
+    }
+
+    private static class ResolvedResource {
+        private final OnmsResource resource;
+        private final QueryResource info;
+
+        private ResolvedResource(final OnmsResource resource, final QueryResource info) {
+            this.resource = resource;
+            this.info = info;
+        }
+    }
+
     /**
      *  Performs the actual retrieval of the values from the RRD/JRB files.
      *
@@ -21,13 +21,20 @@
  */
 package org.opennms.netmgt.measurements.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.SortedSet;
 
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlException;
 import org.apache.commons.jexl2.MapContext;
+import org.opennms.core.utils.jexl.CompiledExpression;
 import org.opennms.core.utils.jexl.OnmsJexlEngine;
 import org.opennms.netmgt.measurements.api.ExpressionEngine;
 import org.opennms.netmgt.measurements.api.FetchResults;
@@ -52,6 +59,24 @@ public class JEXLExpressionEngine implements ExpressionEngine {
 
     private static final Logger LOG = LoggerFactory.getLogger(JEXLExpressionEngine.class);
 
+    /**
+     * Set to false to always evaluate the expressions with JEXL.
+     */
+    public static final String COMPILE_PROPERTY = "org.opennms.measurements.expressions.compile";
+
+    /**
+     * Variables available to all expressions, in the order of their slots.
+     */
+    private static final List<String> SPECIAL_VARIABLES = Arrays.asList("timestamp", "__i", "__step", "__diff_time",
+            "__inf", "__neg_inf", "NaN", "__E", "__PI");
+
+    /**
+     * Variables bound to integers, on which JEXL performs integer divisions.
+     */
+    private static final Collection<String> INTEGER_VARIABLES = Arrays.asList("timestamp", "__i", "__step");
+
+    private final boolean compile = Boolean.parseBoolean(System.getProperty(COMPILE_PROPERTY, "true"));
+
     /**
      * Use a single instance of the JEXL engine, which is thread-safe.
      */
@@ -115,6 +140,15 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
 
+        // Skip the interpreter when all of the expressions can be compiled
+        if (compile) {
+            final double compiledValues[][] = applyCompiledExpressions(request, results, transientFlags, numNonTransientExpression);
+            if (compiledValues != null) {
+                storeResults(expressions.keySet(), transientFlags, compiledValues, results.getColumns());
+                return;
+            }
+        }
+
         // Prepare the JEXL context
         final Map<String, Object> jexlValues = Maps.newHashMap();
         final JexlContext context = new MapContext(jexlValues);
@@ -144,24 +178,54 @@ public class JEXLExpressionEngine implements ExpressionEngine {
 
         final double expressionValues[][] = new double[numNonTransientExpression][numRows];
 
-        // Iterate through all of the rows, apply the expressions
+        // Walk the columns directly instead of looking them up by label for every row
+        final int numColumns = columns.size();
+        final String sourceLabels[] = new String[numColumns];
+        final double sourceValues[][] = new double[numColumns][];
+        int c = 0;
+        for (final Map.Entry<String, double[]> column : columns.entrySet()) {
+            sourceLabels[c] = column.getKey();
+            sourceValues[c] = column.getValue();
+
+            // add reference to complete array for each column to allow backwards referencing of samples
+            jexlValues.put("__" + column.getKey(), column.getValue());
+            c++;
+        }
+
+        // Sources whose value is replaced by an expression of the same label need
+        // to be restored before each expression, so that it sees the value of the source
+        final int shadowed[] = new int[numColumns];
+        int numShadowed = 0;
+        for (c = 0; c < numColumns; c++) {
+            if (expressions.containsKey(sourceLabels[c])) {
+                shadowed[numShadowed++] = c;
+            }
+        }
+
+        // Iterate through all of the rows, apply the expressions. The expressions are
+        // evaluated row by row: an expression sees the values the preceding expressions
+        // computed for the same row, and the values the following ones computed for the
+        // previous row, which evaluating a whole column at a time would change
         for (int i = 0; i < numRows; i++) {
+            // Update the timestamp
+            jexlValues.put("timestamp", timestamps[i]);
+
+            // add index as a referenced variable in context
+            jexlValues.put("__i", Integer.valueOf(i));
+
+            // Add all of the values from the row to the context
+            // overwriting values from the last row
+            for (c = 0; c < numColumns; c++) {
+                jexlValues.put(sourceLabels[c], sourceValues[c][i]);
+            }
+
             // Evaluate every expression, in the same order as which they appeared in the query
             j = k = 0;
             for (final Map.Entry<String, org.apache.commons.jexl2.Expression> expressionEntry : expressions.entrySet()) {
-                // Update the timestamp
-                jexlValues.put("timestamp", timestamps[i]);
-                
-                // add index as a referenced variable in context
-                jexlValues.put("__i",Integer.valueOf(i));
-
-                // Add all of the values from the row to the context
-                // overwriting values from the last loop
-                for (final String sourceLabel : columns.keySet()) {
-                    jexlValues.put(sourceLabel, columns.get(sourceLabel)[i]);
-                    
-                    // add reference to complete array for each column to allow backwards referencing of samples
-                    jexlValues.put("__"+sourceLabel, columns.get(sourceLabel));
+                if (j > 0) {
+                    for (int s = 0; s < numShadowed; s++) {
+                        jexlValues.put(sourceLabels[shadowed[s]], sourceValues[shadowed[s]][i]);
+                    }
                 }
 
                 // Evaluate the expression
@@ -187,9 +251,125 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
 
-        // Store the results
-        j = k = 0;
-        for (final String expressionLabel : expressions.keySet()) {
+        storeResults(expressions.keySet(), transientFlags, expressionValues, columns);
+    }
+
+    /**
+     * Evaluates the expressions with {@link CompiledExpression}s, which read the
+     * values of the row from a single array instead of a JEXL context.
+     *
+     * Variables are resolved the same way as in the JEXL context: sources first,
+     * then the expressions preceding the current one, then the special variables.
+     *
+     * @return the values of the non-transient expressions, or null if the
+     *         expressions need to be evaluated with JEXL
+     */
+    private double[][] applyCompiledExpressions(final QueryRequest request, final FetchResults results,
+                                                final boolean transientFlags[], final int numNonTransientExpression) {
+        final Map<String, double[]> columns = results.getColumns();
+        final long timestamps[] = results.getTimestamps();
+        final int numRows = timestamps.length;
+        final int numColumns = columns.size();
+        final List<Expression> requestExpressions = request.getExpressions();
+        final int numExpressions = requestExpressions.size();
+
+        // Slots: the sources, the special variables, the constants holding doubles, and the results of the expressions
+        final Map<String, Integer> sourceSlots = new HashMap<>();
+        final double sourceValues[][] = new double[numColumns][];
+        int c = 0;
+        for (final Map.Entry<String, double[]> column : columns.entrySet()) {
+            sourceSlots.put(column.getKey(), c);
+            sourceValues[c++] = column.getValue();
+        }
+        final int specialBase = numColumns;
+        final int constantBase = specialBase + SPECIAL_VARIABLES.size();
+        final Map<String, Integer> constantSlots = new HashMap<>();
+        final List<Double> constantValues = new ArrayList<>();
+        for (final Map.Entry<String, Object> constant : results.getConstants().entrySet()) {
+            if (constant.getValue() instanceof Double) {
+                constantSlots.put(constant.getKey(), constantBase + constantValues.size());
+                constantValues.add((Double)constant.getValue());
+            }
+        }
+        final int expressionBase = constantBase + constantValues.size();
+
+        final CompiledExpression compiled[] = new CompiledExpression[numExpressions];
+        final CompiledExpression.Compiler compiler = new CompiledExpression.Compiler()
+                .withFunctions(jexl.getFunctions())
+                .withIntegerVariables(INTEGER_VARIABLES);
+        for (int j = 0; j < numExpressions; j++) {
+            final int current = j;
+            final Optional<CompiledExpression> expression = compiler.withSlots(name -> {
+                final Integer sourceSlot = sourceSlots.get(name);
+                if (sourceSlot != null) {
+                    return sourceSlot;
+                }
+                for (int e = current - 1; e >= 0; e--) {
+                    if (name.equals(requestExpressions.get(e).getLabel())) {
+                        return expressionBase + e;
+                    }
+                }
+                final int special = SPECIAL_VARIABLES.indexOf(name);
+                if (special >= 0 && (special < 2 || !name.startsWith("__") || !sourceSlots.containsKey(name.substring(2)))) {
+                    // The arrays of the sources shadow the special variables, except for those set on every row
+                    return specialBase + special;
+                }
+                if (special < 0 && !name.startsWith("__")) {
+                    final Integer constantSlot = constantSlots.get(name);
+                    if (constantSlot != null) {
+                        return constantSlot;
+                    }
+                }
+                // Other constants, arrays and values from previous rows are left to JEXL
+                return -1;
+            }).compile(requestExpressions.get(j).getExpression());
+            if (!expression.isPresent()) {
+                LOG.debug("Expression with label '{}' cannot be compiled, using JEXL.", requestExpressions.get(j).getLabel());
+                return null;
+            }
+            compiled[j] = expression.get();
+        }
+
+        final double values[] = new double[expressionBase + numExpressions];
+        values[specialBase + 2] = results.getStep();
+        values[specialBase + 3] = numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0];
+        values[specialBase + 4] = Double.POSITIVE_INFINITY;
+        values[specialBase + 5] = Double.NEGATIVE_INFINITY;
+        values[specialBase + 6] = Double.NaN;
+        values[specialBase + 7] = java.lang.Math.E;
+        values[specialBase + 8] = java.lang.Math.PI;
+        for (c = 0; c < constantValues.size(); c++) {
+            values[constantBase + c] = constantValues.get(c);
+        }
+
+        final double expressionValues[][] = new double[numNonTransientExpression][numRows];
+        try {
+            for (int i = 0; i < numRows; i++) {
+                for (c = 0; c < numColumns; c++) {
+                    values[c] = sourceValues[c][i];
+                }
+                values[specialBase] = timestamps[i];
+                values[specialBase + 1] = i;
+
+                for (int j = 0, k = 0; j < numExpressions; j++) {
+                    final double derived = compiled[j].evaluate(values);
+                    values[expressionBase + j] = derived;
+                    if (!transientFlags[j]) {
+                        expressionValues[k++][i] = derived;
+                    }
+                }
+            }
+        } catch (ArithmeticException e) {
+            // Let JEXL report the error
+            return null;
+        }
+        return expressionValues;
+    }
+
+    private static void storeResults(final Collection<String> expressionLabels, final boolean transientFlags[],
+                                     final double expressionValues[][], final Map<String, double[]> columns) {
+        int j = 0, k = 0;
+        for (final String expressionLabel : expressionLabels) {
             if (!transientFlags[j++]) {
                 columns.put(expressionLabel, expressionValues[k++]);
             }
@@ -21,6 +21,7 @@
  */
 package org.opennms.netmgt.measurements.impl;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.awt.Point;
@@ -394,12 +395,44 @@ public class JEXLExpressionEngineTest {
         assertEquals(10.0, results[0], DELTA);
     }
 
+    @Test
+    public void compiledExpressionsMatchJexl() throws ExpressionException {
+        final ExpressionEngine compiling = jexlExpressionEngine;
+        final ExpressionEngine interpreting;
+        System.setProperty(JEXLExpressionEngine.COMPILE_PROPERTY, "false");
+        try {
+            interpreting = new JEXLExpressionEngine();
+        } finally {
+            System.clearProperty(JEXLExpressionEngine.COMPILE_PROPERTY);
+        }
+
+        final Map<String,Object> constants = Maps.newHashMap();
+        constants.put("A", 3.0);
+        constants.put("speed", 65);
+        for (final String expression : new String[] {
+                "x * 8 / 1000",
+                "x > 50 ? x - 50 : 50 - x",
+                "(x == NaN) ? A : math:max(x, A)",
+                "x / (A + 1.5d) + __step * __diff_time",
+                "strictmath:pow(x, 0.5) + math:round(x / 3.0)",
+                "timestamp / 1000",
+                "x * speed",
+                "__x[__i] + 1"}) {
+            assertArrayEquals(expression, performExpression(interpreting, expression, constants),
+                    performExpression(compiling, expression, constants), 0.0d);
+        }
+    }
+
     private double[] performExpression(String expression) throws ExpressionException {
         Map<String, Object> constants = Maps.newHashMap();
         return performExpression(expression, constants);
     }
 
     private double[] performExpression(String expression, Map<String, Object> constants) throws ExpressionException {
+        return performExpression(jexlExpressionEngine, expression, constants);
+    }
+
+    private static double[] performExpression(ExpressionEngine engine, String expression, Map<String, Object> constants) throws ExpressionException {
         // Build a simple request with the given expression
         QueryRequest request = new QueryRequest();
 
@@ -425,7 +458,7 @@ public class JEXLExpressionEngineTest {
         FetchResults results = new FetchResults(timestamps, values, 1, constants, null);
 
         // Use the engine to evaluate the expression
-        jexlExpressionEngine.applyExpressions(request, results);
+        engine.applyExpressions(request, results);
 
         // Retrieve the results
         return results.getColumns().get("y");
@@ -77,6 +77,10 @@ public class CachePrimer implements InitializingBean, Runnable {
         final Thread thread = new Thread(this);
         thread.setName("Newts-CachePrimer");
         thread.start();
+        if (resourceMetadataCache.isRestoredFromFilter()) {
+            LOG.info("Resource meta-data filter was restored from the previous run. Priming the cache in the background.");
+            return;
+        }
         if (blockWhilePrimingMs >= 0) {
             try {
                 if (blockWhilePrimingMs == 0) {
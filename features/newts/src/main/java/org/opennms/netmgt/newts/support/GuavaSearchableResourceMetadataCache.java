@@ -35,6 +35,7 @@ import org.opennms.newts.api.Resource;
 import org.opennms.newts.cassandra.search.ResourceMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
@@ -59,6 +60,11 @@ import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFa
  *
  * Both structures are kept in synch via a {@link RemovalListener}.
  *
+ * When a {@link ResourceMetadataFilter} is set, the resources, metrics and attributes found in
+ * the cache are recorded in the filter. Resources that are not in the cache, because they were
+ * evicted or because OpenNMS was restarted, are then answered by the filter, so their index
+ * entries are not written again.
+ *
  * @author jwhite
  */
 public class GuavaSearchableResourceMetadataCache implements SearchableResourceMetadataCache, RemovalListener<String, ResourceMetadata> {
@@ -73,6 +79,9 @@ public class GuavaSearchableResourceMetadataCache implements SearchableResourceM
     private final Meter m_attributeReqs;
     private final Meter m_metricMisses;
     private final Meter m_attributeMisses;
+    private final Meter m_filterHits;
+
+    private ResourceMetadataFilter m_filter;
 
     @Inject
     public GuavaSearchableResourceMetadataCache(@Named("search.resourceMetadata.maxCacheEntries") long maxSize, @Named("newtsMetricRegistry") MetricRegistry registry) {
@@ -85,6 +94,7 @@ public class GuavaSearchableResourceMetadataCache implements SearchableResourceM
         m_metricMisses = registry.meter(name("cache", "metric-misses"));
         m_attributeReqs = registry.meter(name("cache", "attribute-reqs"));
         m_attributeMisses = registry.meter(name("cache", "attribute-misses"));
+        m_filterHits = registry.meter(name("cache", "filter-hits"));
 
         registry.register(MetricRegistry.name("cache", "size"),
                 new Gauge<Long>() {
@@ -104,13 +114,30 @@ public class GuavaSearchableResourceMetadataCache implements SearchableResourceM
 
     @Override
     public Optional<ResourceMetadata> get(Context context, Resource resource) {
-        ResourceMetadata r = m_cache.getIfPresent(key(context, resource.getId()));
+        final String key = key(context, resource.getId());
+        ResourceMetadata r = m_cache.getIfPresent(key);
+        if (r instanceof FilteredResourceMetadata && ((FilteredResourceMetadata) r).m_restored
+                && !m_filter.containsResource(key)) {
+            // The filter forgot the resource since its index entry may have expired, so index it again
+            m_cache.invalidate(key);
+            r = null;
+        } else if (r == null && m_filter != null && m_filter.containsResource(key)) {
+            // The resource was indexed before, restore it from the filter
+            m_filterHits.mark();
+            r = new FilteredResourceMetadata(key, m_filter, true);
+            m_cache.put(key, r);
+            m_radixTree.put(key, r);
+        }
         return (r != null) ? Optional.of(r) : Optional.<ResourceMetadata>absent();
     }
 
     @Override
     public void delete(final Context context, final Resource resource) {
-        m_cache.invalidate(key(context, resource.getId()));
+        final String key = key(context, resource.getId());
+        m_cache.invalidate(key);
+        if (m_filter != null) {
+            m_filter.delete(key);
+        }
     }
 
     private String key(Context context, String resourceId) {
@@ -127,9 +154,14 @@ public class GuavaSearchableResourceMetadataCache implements SearchableResourceM
         Optional<ResourceMetadata> o = get(context, resource);
 
         if (!o.isPresent()) {
-            ResourceMetadata newMetadata = new ResourceMetadata(m_metricReqs, m_attributeReqs, m_metricMisses, m_attributeMisses);
-            newMetadata.merge(metadata);
             String key = key(context, resource.getId());
+            ResourceMetadata newMetadata = m_filter != null ? new FilteredResourceMetadata(key, m_filter, false)
+                    : new ResourceMetadata(m_metricReqs, m_attributeReqs, m_metricMisses, m_attributeMisses);
+            newMetadata.merge(metadata);
+            if (m_filter != null) {
+                // The metadata is merged once the index entries were written
+                m_filter.putResource(key);
+            }
             m_cache.put(key, newMetadata);
             m_radixTree.put(key, newMetadata);
             return;
@@ -154,4 +186,56 @@ public class GuavaSearchableResourceMetadataCache implements SearchableResourceM
     public long getSize() {
         return m_cache.size();
     }
+
+    @Autowired(required=false)
+    public void setFilter(ResourceMetadataFilter filter) {
+        m_filter = filter != null && filter.isEnabled() ? filter : null;
+    }
+
+    public ResourceMetadataFilter getFilter() {
+        return m_filter;
+    }
+
+    /**
+     * @return true if the filter was restored from a previous run, in which case
+     * the cache doesn't need to be primed before samples can be indexed
+     */
+    public boolean isRestoredFromFilter() {
+        return m_filter != null && m_filter.isSnapshotLoaded();
+    }
+
+    /**
+     * Records the metrics and attributes found in the cache in the filter, and
+     * answers from the filter for resources that were restored from it.
+     */
+    private class FilteredResourceMetadata extends ResourceMetadata {
+        private final String m_key;
+        private final ResourceMetadataFilter m_resourceFilter;
+        private final boolean m_restored;
+
+        private FilteredResourceMetadata(String key, ResourceMetadataFilter filter, boolean restored) {
+            super(m_metricReqs, m_attributeReqs, m_metricMisses, m_attributeMisses);
+            m_key = key;
+            m_resourceFilter = filter;
+            m_restored = restored;
+        }
+
+        @Override
+        public boolean containsMetric(String metric) {
+            if (super.containsMetric(metric)) {
+                m_resourceFilter.putMetric(m_key, metric);
+                return true;
+            }
+            return m_restored && m_resourceFilter.containsMetric(m_key, metric);
+        }
+
+        @Override
+        public boolean containsAttribute(String key, String value) {
+            if (super.containsAttribute(key, value)) {
+                m_resourceFilter.putAttribute(m_key, key, value);
+                return true;
+            }
+            return m_restored && m_resourceFilter.containsAttribute(m_key, key, value);
+        }
+    }
 }
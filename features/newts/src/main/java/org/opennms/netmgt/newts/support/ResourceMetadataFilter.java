@@ -0,0 +1,457 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.newts.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A compact, persistent record of the resources, metrics and attributes that
+ * are known to be indexed in Cassandra.
+ * <p>
+ * The entries are kept in a bloom filter, which is checkpointed to disk
+ * periodically and when the context is stopped, and loaded again at
+ * startup. The {@link GuavaSearchableResourceMetadataCache} consults the
+ * filter when a resource is not in the cache, i.e. after a restart or once
+ * the resource was evicted, so the index entries are not written again.
+ * <p>
+ * A bloom filter can have false positives, in which case the index entry of a
+ * new metric or attribute of a known resource would not be written. The
+ * probability of this is given by the false positive probability, which
+ * should be kept very low. Entries can't be removed from a bloom filter, so
+ * deleted resources are tracked separately and are never answered by the
+ * filter. Once too many resources were deleted, the filter is cleared.
+ * <p>
+ * The index entries in Cassandra expire after the configured time-to-live,
+ * so the filter must not answer for entries that may have expired. The
+ * entries are kept in two generations of filters: new entries are recorded
+ * in the current generation, and lookups are answered by both. The current
+ * generation becomes the previous one once it is a quarter of the
+ * time-to-live old, or once it holds as many entries as it was sized for, at
+ * which point the previous generation is dropped. A generation is never used
+ * once it is half of the time-to-live old, so an entry is forgotten well
+ * before its index entry expires, and written again the next time it is
+ * seen. This also keeps the filters from filling past their size, at the
+ * cost of keeping up to two of them in memory.
+ */
+public class ResourceMetadataFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceMetadataFilter.class);
+
+    private static final int MAGIC = 0x4e524d46;
+
+    private static final int VERSION = 2;
+
+    private static final char SEPARATOR = '\u0000';
+
+    private static final int MAX_DELETED_RESOURCES = 10000;
+
+    private static final String DEFAULT_SNAPSHOT_FILE_NAME = "newts-resource-metadata.filter";
+
+    private final boolean m_enabled;
+
+    private final Path m_snapshotFile;
+
+    private final long m_expectedInsertions;
+
+    private final double m_fpp;
+
+    private final long m_checkpointIntervalMs;
+
+    private final long m_maxAgeMs;
+
+    private final long m_rotationIntervalMs;
+
+    private final LongSupplier m_clock;
+
+    private volatile Generation m_current;
+
+    private volatile Generation m_previous;
+
+    private final Set<String> m_deletedResources = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean m_snapshotLoaded = false;
+
+    private final AtomicLong m_checkpoints = new AtomicLong();
+
+    private final AtomicLong m_lastCheckpointDuration = new AtomicLong();
+
+    private ScheduledExecutorService m_executor;
+
+    private static final class Generation {
+        private final BloomFilter<CharSequence> filter;
+        private final long createdAt;
+        private final AtomicLong insertions;
+
+        private Generation(BloomFilter<CharSequence> filter, long createdAt) {
+            this.filter = filter;
+            this.createdAt = createdAt;
+            this.insertions = new AtomicLong(filter.approximateElementCount());
+        }
+    }
+
+    /**
+     * @param ttlSeconds the time-to-live of the index entries in Cassandra, entries never expire if not positive
+     */
+    public ResourceMetadataFilter(boolean enabled, String snapshotFile, long expectedInsertions, double fpp, long checkpointIntervalMs, int ttlSeconds) {
+        this(enabled, snapshotFile, expectedInsertions, fpp, checkpointIntervalMs, ttlSeconds, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    ResourceMetadataFilter(boolean enabled, String snapshotFile, long expectedInsertions, double fpp, long checkpointIntervalMs, int ttlSeconds, LongSupplier clock) {
+        m_enabled = enabled;
+        m_snapshotFile = getSnapshotFile(snapshotFile);
+        m_expectedInsertions = expectedInsertions;
+        m_fpp = fpp;
+        m_checkpointIntervalMs = checkpointIntervalMs;
+        m_maxAgeMs = ttlSeconds > 0 ? TimeUnit.SECONDS.toMillis(ttlSeconds) / 2 : Long.MAX_VALUE;
+        m_rotationIntervalMs = m_maxAgeMs / 2;
+        m_clock = clock;
+        // Don't allocate the bits when disabled
+        m_current = enabled ? newGeneration(clock.getAsLong()) : null;
+    }
+
+    public void start() {
+        if (!m_enabled) {
+            LOG.debug("Resource metadata filter is disabled.");
+            return;
+        }
+
+        load();
+
+        if (m_snapshotFile != null && m_checkpointIntervalMs > 0) {
+            m_executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("Newts-ResourceMetadataFilter")
+                    .setDaemon(true)
+                    .build());
+            m_executor.scheduleWithFixedDelay(this::checkpointQuietly,
+                    m_checkpointIntervalMs, m_checkpointIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        if (m_executor != null) {
+            m_executor.shutdownNow();
+            m_executor = null;
+        }
+        if (m_enabled) {
+            checkpointQuietly();
+        }
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * @return true if the entries of a previous run were loaded at startup
+     */
+    public boolean isSnapshotLoaded() {
+        return m_snapshotLoaded;
+    }
+
+    public boolean containsResource(String key) {
+        return m_enabled && !m_deletedResources.contains(key) && mightContain(key);
+    }
+
+    public boolean containsMetric(String key, String metric) {
+        return m_enabled && !m_deletedResources.contains(key) && mightContain(metricEntry(key, metric));
+    }
+
+    public boolean containsAttribute(String key, String attributeKey, String attributeValue) {
+        return m_enabled && !m_deletedResources.contains(key) && mightContain(attributeEntry(key, attributeKey, attributeValue));
+    }
+
+    public void putResource(String key) {
+        if (m_enabled) {
+            put(key);
+        }
+    }
+
+    public void putMetric(String key, String metric) {
+        if (m_enabled) {
+            put(metricEntry(key, metric));
+        }
+    }
+
+    public void putAttribute(String key, String attributeKey, String attributeValue) {
+        if (m_enabled) {
+            put(attributeEntry(key, attributeKey, attributeValue));
+        }
+    }
+
+    private boolean mightContain(String entry) {
+        final long now = m_clock.getAsLong();
+        final Generation current = currentGeneration(now);
+        if (current.filter.mightContain(entry)) {
+            return true;
+        }
+        final Generation previous = m_previous;
+        return previous != null && now - previous.createdAt < m_maxAgeMs && previous.filter.mightContain(entry);
+    }
+
+    private void put(String entry) {
+        final Generation current = currentGeneration(m_clock.getAsLong());
+        if (current.filter.put(entry) && current.insertions.incrementAndGet() >= m_expectedInsertions) {
+            // Full, start over rather than letting the false positive probability grow
+            rotate(current, m_clock.getAsLong());
+        }
+    }
+
+    private Generation currentGeneration(long now) {
+        final Generation current = m_current;
+        if (now - current.createdAt < m_rotationIntervalMs) {
+            return current;
+        }
+        return rotate(current, now);
+    }
+
+    /**
+     * Makes the given generation the previous one, unless another thread did
+     * so already, and drops the generation before it.
+     */
+    private synchronized Generation rotate(Generation current, long now) {
+        if (m_current != current) {
+            return m_current;
+        }
+        LOG.info("Starting a new generation of the resource metadata filter. The current one holds about {} entries and is {}ms old.",
+                current.insertions.get(), now - current.createdAt);
+        m_previous = now - current.createdAt < m_maxAgeMs ? current : null;
+        m_current = newGeneration(now);
+        return m_current;
+    }
+
+    /**
+     * Stops answering for the given resource. Its index entries are written
+     * again the next time it is seen.
+     */
+    public void delete(String key) {
+        if (!m_enabled) {
+            return;
+        }
+        m_deletedResources.add(key);
+        if (m_deletedResources.size() > MAX_DELETED_RESOURCES) {
+            LOG.info("More than {} resources were deleted. Clearing the resource metadata filter.", MAX_DELETED_RESOURCES);
+            clear();
+        }
+    }
+
+    private synchronized void clear() {
+        m_current = newGeneration(m_clock.getAsLong());
+        m_previous = null;
+        m_deletedResources.clear();
+    }
+
+    public long getApproximateElementCount() {
+        if (!m_enabled) {
+            return 0;
+        }
+        final Generation previous = m_previous;
+        return m_current.filter.approximateElementCount() + (previous != null ? previous.filter.approximateElementCount() : 0);
+    }
+
+    /**
+     * @return the probability of a false positive answered by either generation
+     */
+    public double getExpectedFpp() {
+        if (!m_enabled) {
+            return 0;
+        }
+        final Generation previous = m_previous;
+        return m_current.filter.expectedFpp() + (previous != null ? previous.filter.expectedFpp() : 0);
+    }
+
+    public long getCheckpointCount() {
+        return m_checkpoints.get();
+    }
+
+    public long getLastCheckpointDuration() {
+        return m_lastCheckpointDuration.get();
+    }
+
+    /**
+     * Writes the filter to the snapshot file. The file is replaced
+     * atomically, so a crash while writing keeps the previous snapshot.
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (!m_enabled || m_snapshotFile == null) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final long now = m_clock.getAsLong();
+        final Generation current = currentGeneration(now);
+        final Generation previous = m_previous;
+        // Generations that are too old to be used are not written
+        final boolean writePrevious = previous != null && now - previous.createdAt < m_maxAgeMs;
+
+        if (m_snapshotFile.getParent() != null) {
+            Files.createDirectories(m_snapshotFile.getParent());
+        }
+        final Path tmpFile = m_snapshotFile.resolveSibling(m_snapshotFile.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmpFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(m_expectedInsertions);
+            out.writeDouble(m_fpp);
+            final String[] deleted = m_deletedResources.toArray(new String[0]);
+            out.writeInt(deleted.length);
+            for (final String key : deleted) {
+                final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(writePrevious ? 2 : 1);
+            out.writeLong(current.createdAt);
+            current.filter.writeTo(out);
+            if (writePrevious) {
+                out.writeLong(previous.createdAt);
+                previous.filter.writeTo(out);
+            }
+        }
+        Files.move(tmpFile, m_snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        m_checkpoints.incrementAndGet();
+        m_lastCheckpointDuration.set(System.currentTimeMillis() - start);
+        LOG.debug("Wrote the resource metadata filter with about {} entries to {} in {}ms.",
+                getApproximateElementCount(), m_snapshotFile, m_lastCheckpointDuration.get());
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException|RuntimeException e) {
+            LOG.warn("Failed to write the resource metadata filter to {}.", m_snapshotFile, e);
+        }
+    }
+
+    private void load() {
+        if (m_snapshotFile == null) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        try (InputStream is = Files.newInputStream(m_snapshotFile);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            if (in.readInt() != MAGIC) {
+                LOG.warn("{} is not a resource metadata filter snapshot. Ignoring it.", m_snapshotFile);
+                return;
+            }
+            if (in.readInt() != VERSION) {
+                LOG.info("The resource metadata filter snapshot in {} has an older format. Ignoring it.", m_snapshotFile);
+                return;
+            }
+            if (in.readLong() != m_expectedInsertions || in.readDouble() != m_fpp) {
+                LOG.info("The resource metadata filter settings changed. Ignoring the snapshot in {}.", m_snapshotFile);
+                return;
+            }
+            final Set<String> deletedResources = new HashSet<>();
+            final int numDeleted = in.readInt();
+            for (int i = 0; i < numDeleted; i++) {
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                deletedResources.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            // The current generation comes first, the previous one is older
+            final long now = m_clock.getAsLong();
+            final List<Generation> generations = new ArrayList<>(2);
+            final int numGenerations = in.readInt();
+            for (int i = 0; i < numGenerations; i++) {
+                final long createdAt = in.readLong();
+                final BloomFilter<CharSequence> filter = BloomFilter.readFrom(in, Funnels.stringFunnel(StandardCharsets.UTF_8));
+                if (now - createdAt < m_maxAgeMs) {
+                    generations.add(new Generation(filter, createdAt));
+                }
+            }
+            if (generations.isEmpty()) {
+                LOG.info("The resource metadata filter snapshot in {} is older than {}ms. Ignoring it.", m_snapshotFile, m_maxAgeMs);
+                return;
+            }
+            m_deletedResources.addAll(deletedResources);
+            m_current = generations.get(0);
+            m_previous = generations.size() > 1 ? generations.get(1) : null;
+            m_snapshotLoaded = true;
+            LOG.info("Loaded the resource metadata filter with about {} entries from {} in {}ms.",
+                    getApproximateElementCount(), m_snapshotFile, System.currentTimeMillis() - start);
+        } catch (NoSuchFileException e) {
+            LOG.info("No resource metadata filter snapshot found in {}.", m_snapshotFile);
+        } catch (IOException|RuntimeException e) {
+            LOG.warn("Failed to load the resource metadata filter from {}. Starting with an empty filter.", m_snapshotFile, e);
+            clear();
+        }
+    }
+
+    /**
+     * An empty path defaults to a file in the directory given by the karaf.data
+     * system property. The filter is not persisted if this isn't set either.
+     */
+    private static Path getSnapshotFile(String snapshotFile) {
+        if (!Strings.isNullOrEmpty(snapshotFile)) {
+            return Paths.get(snapshotFile);
+        }
+        final String karafData = System.getProperty("karaf.data");
+        return Strings.isNullOrEmpty(karafData) ? null : Paths.get(karafData, DEFAULT_SNAPSHOT_FILE_NAME);
+    }
+
+    private Generation newGeneration(long now) {
+        return new Generation(BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), m_expectedInsertions, m_fpp), now);
+    }
+
+    private static String metricEntry(String key, String metric) {
+        return key + SEPARATOR + 'm' + metric;
+    }
+
+    private static String attributeEntry(String key, String attributeKey, String attributeValue) {
+        return key + SEPARATOR + 'a' + attributeKey + SEPARATOR + attributeValue;
+    }
+}
@@ -24,6 +24,7 @@ package org.opennms.netmgt.newts.support.osgi;
 import java.util.Objects;
 
 import org.opennms.netmgt.newts.support.GuavaSearchableResourceMetadataCache;
+import org.opennms.netmgt.newts.support.ResourceMetadataFilter;
 
 import com.codahale.metrics.MetricRegistry;
 
@@ -31,10 +32,16 @@ public class GuavaCacheFactory implements CacheFactory<GuavaSearchableResourceMe
 
     private final long cacheSize;
     private final MetricRegistry metricRegistry;
+    private final ResourceMetadataFilter filter;
 
     public GuavaCacheFactory(long cacheSize, MetricRegistry metricRegistry) {
+        this(cacheSize, metricRegistry, null);
+    }
+
+    public GuavaCacheFactory(long cacheSize, MetricRegistry metricRegistry, ResourceMetadataFilter filter) {
         this.cacheSize = cacheSize;
         this.metricRegistry = Objects.requireNonNull(metricRegistry);
+        this.filter = filter;
     }
 
     @Override
@@ -44,6 +51,8 @@ public class GuavaCacheFactory implements CacheFactory<GuavaSearchableResourceMe
 
     @Override
     public GuavaSearchableResourceMetadataCache createCache() {
-        return new GuavaSearchableResourceMetadataCache(cacheSize, metricRegistry);
+        final GuavaSearchableResourceMetadataCache cache = new GuavaSearchableResourceMetadataCache(cacheSize, metricRegistry);
+        cache.setFilter(filter);
+        return cache;
     }
 }
@@ -22,8 +22,12 @@
 package org.opennms.netmgt.newts.support;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.junit.Test;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Resource;
@@ -53,6 +57,61 @@ public class GuavaSearchableResourceMetadataCacheTest {
         assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b:c:d").isEmpty());
     }
 
+    @Test
+    public void canRestoreEntriesFromFilter() {
+        Context ctx = Context.DEFAULT_CONTEXT;
+        ResourceMetadataFilter filter = new ResourceMetadataFilter(true, null, 1000, 0.000001, 0, NewtsUtils.TTL);
+        GuavaSearchableResourceMetadataCache cache = new GuavaSearchableResourceMetadataCache(2048, m_registry);
+        cache.setFilter(filter);
+
+        Resource resource = new Resource("a:b:c");
+        ResourceMetadata metadata = new ResourceMetadata();
+        metadata.putMetric("m1");
+        metadata.putAttribute("k", "v");
+        cache.merge(ctx, resource, metadata);
+        assertTrue(cache.get(ctx, resource).get().containsMetric("m1"));
+        assertTrue(cache.get(ctx, resource).get().containsAttribute("k", "v"));
+
+        // A new cache, as after a restart, answers from the filter
+        GuavaSearchableResourceMetadataCache restored = new GuavaSearchableResourceMetadataCache(2048, new MetricRegistry());
+        restored.setFilter(filter);
+        assertTrue(restored.get(ctx, resource).isPresent());
+        assertTrue(restored.get(ctx, resource).get().containsMetric("m1"));
+        assertFalse(restored.get(ctx, resource).get().containsMetric("m2"));
+        assertTrue(restored.get(ctx, resource).get().containsAttribute("k", "v"));
+        assertFalse(restored.get(ctx, new Resource("a:b:d")).isPresent());
+
+        // Deleted resources are indexed again
+        restored.delete(ctx, resource);
+        assertFalse(restored.get(ctx, resource).isPresent());
+    }
+
+    @Test
+    public void canForgetRestoredEntriesWithFilter() {
+        Context ctx = Context.DEFAULT_CONTEXT;
+        AtomicLong now = new AtomicLong();
+        ResourceMetadataFilter filter = new ResourceMetadataFilter(true, null, 1000, 0.000001, 0, 400, now::get);
+        GuavaSearchableResourceMetadataCache cache = new GuavaSearchableResourceMetadataCache(2048, m_registry);
+        cache.setFilter(filter);
+
+        Resource resource = new Resource("a:b:c");
+        ResourceMetadata metadata = new ResourceMetadata();
+        metadata.putMetric("m1");
+        cache.merge(ctx, resource, metadata);
+
+        GuavaSearchableResourceMetadataCache restored = new GuavaSearchableResourceMetadataCache(2048, new MetricRegistry());
+        restored.setFilter(filter);
+        assertTrue(restored.get(ctx, resource).get().containsMetric("m1"));
+
+        // Once the filter forgets the resource, so does the restored entry and its index entries are written again
+        now.set(TimeUnit.SECONDS.toMillis(400));
+        assertFalse(restored.get(ctx, resource).isPresent());
+        assertTrue(restored.getResourceIdsWithPrefix(ctx, "a").isEmpty());
+        restored.merge(ctx, resource, metadata);
+        assertTrue(restored.get(ctx, resource).get().containsMetric("m1"));
+        assertFalse(restored.get(ctx, resource).get().containsMetric("m2"));
+    }
+
     @Test
     @IfProfileValue(name="runBenchmarkTests", value="true")
     public void getResourceIdsWithPrefixPerftTest() {
@@ -0,0 +1,172 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.newts.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResourceMetadataFilterTest {
+
+    private static final int TTL = 400;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void canRestoreEntriesFromSnapshot() throws IOException {
+        final File snapshot = new File(tempFolder.getRoot(), "filter");
+
+        ResourceMetadataFilter filter = new ResourceMetadataFilter(true, snapshot.getAbsolutePath(), 100000, 0.000001, 0, TTL);
+        filter.start();
+        assertFalse(filter.isSnapshotLoaded());
+        for (int i = 0; i < 1000; i++) {
+            final String key = "default:snmp:" + i + ":mib2-interfaces";
+            filter.putResource(key);
+            filter.putMetric(key, "ifHCInOctets");
+            filter.putAttribute(key, "ifName", "eth" + i);
+        }
+        filter.delete("default:snmp:0:mib2-interfaces");
+        filter.stop();
+        assertEquals(1, filter.getCheckpointCount());
+
+        filter = new ResourceMetadataFilter(true, snapshot.getAbsolutePath(), 100000, 0.000001, 0, TTL);
+        filter.start();
+        assertTrue(filter.isSnapshotLoaded());
+        for (int i = 1; i < 1000; i++) {
+            final String key = "default:snmp:" + i + ":mib2-interfaces";
+            assertTrue(filter.containsResource(key));
+            assertTrue(filter.containsMetric(key, "ifHCInOctets"));
+            assertFalse(filter.containsMetric(key, "ifHCOutOctets"));
+            assertTrue(filter.containsAttribute(key, "ifName", "eth" + i));
+            assertFalse(filter.containsAttribute(key, "ifName", "eth" + (i + 1)));
+        }
+        assertFalse(filter.containsResource("default:snmp:1000:mib2-interfaces"));
+
+        // Deleted resources are not answered by the filter anymore
+        assertFalse(filter.containsResource("default:snmp:0:mib2-interfaces"));
+        assertFalse(filter.containsMetric("default:snmp:0:mib2-interfaces", "ifHCInOctets"));
+    }
+
+    @Test
+    public void canIgnoreSnapshotWithOtherSettings() throws IOException {
+        final File snapshot = new File(tempFolder.getRoot(), "filter");
+
+        ResourceMetadataFilter filter = new ResourceMetadataFilter(true, snapshot.getAbsolutePath(), 100000, 0.000001, 0, TTL);
+        filter.putResource("default:a");
+        filter.checkpoint();
+
+        filter = new ResourceMetadataFilter(true, snapshot.getAbsolutePath(), 200000, 0.000001, 0, TTL);
+        filter.start();
+        assertFalse(filter.isSnapshotLoaded());
+        assertFalse(filter.containsResource("default:a"));
+    }
+
+    @Test
+    public void canForgetEntriesBeforeTheyExpire() {
+        final AtomicLong now = new AtomicLong();
+        final ResourceMetadataFilter filter = new ResourceMetadataFilter(true, null, 100000, 0.000001, 0, TTL, now::get);
+        filter.putResource("default:a");
+
+        // A new generation is started every quarter of the ttl, entries are kept until half of the ttl
+        now.set(TimeUnit.SECONDS.toMillis(99));
+        assertTrue(filter.containsResource("default:a"));
+        now.set(TimeUnit.SECONDS.toMillis(100));
+        assertTrue(filter.containsResource("default:a"));
+        filter.putResource("default:b");
+        now.set(TimeUnit.SECONDS.toMillis(199));
+        assertTrue(filter.containsResource("default:a"));
+        now.set(TimeUnit.SECONDS.toMillis(200));
+        assertFalse(filter.containsResource("default:a"));
+        assertTrue(filter.containsResource("default:b"));
+        now.set(TimeUnit.SECONDS.toMillis(300));
+        assertFalse(filter.containsResource("default:b"));
+    }
+
+    @Test
+    public void canStartNewGenerationWhenFull() {
+        final ResourceMetadataFilter filter = new ResourceMetadataFilter(true, null, 1000, 0.000001, 0, TTL);
+        for (int i = 0; i < 1500; i++) {
+            filter.putResource("default:" + i);
+        }
+        // The full generation is still used
+        for (int i = 0; i < 1500; i++) {
+            assertTrue(filter.containsResource("default:" + i));
+        }
+        assertTrue(filter.getExpectedFpp() < 0.00001);
+
+        for (int i = 1500; i < 2500; i++) {
+            filter.putResource("default:" + i);
+        }
+        // Until the next one is full as well
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(filter.containsResource("default:" + i));
+        }
+        for (int i = 1000; i < 2500; i++) {
+            assertTrue(filter.containsResource("default:" + i));
+        }
+        assertTrue(filter.getExpectedFpp() < 0.00001);
+    }
+
+    @Test
+    public void canIgnoreExpiredSnapshot() throws IOException {
+        final File snapshot = new File(tempFolder.getRoot(), "filter");
+        final AtomicLong now = new AtomicLong();
+
+        ResourceMetadataFilter filter = new ResourceMetadataFilter(true, snapshot.getAbsolutePath(), 100000, 0.000001, 0, TTL, now::get);
+        filter.putResource("default:a");
+        filter.checkpoint();
+
+        now.set(TimeUnit.SECONDS.toMillis(199));
+        filter = new ResourceMetadataFilter(true, snapshot.getAbsolutePath(), 100000, 0.000001, 0, TTL, now::get);
+        filter.start();
+        assertTrue(filter.isSnapshotLoaded());
+        assertTrue(filter.containsResource("default:a"));
+
+        now.set(TimeUnit.SECONDS.toMillis(200));
+        filter = new ResourceMetadataFilter(true, snapshot.getAbsolutePath(), 100000, 0.000001, 0, TTL, now::get);
+        filter.start();
+        assertFalse(filter.isSnapshotLoaded());
+        assertFalse(filter.containsResource("default:a"));
+    }
+
+    @Test
+    public void canDisable() throws IOException {
+        final File snapshot = new File(tempFolder.getRoot(), "filter");
+
+        final ResourceMetadataFilter filter = new ResourceMetadataFilter(false, snapshot.getAbsolutePath(), 100000, 0.000001, 0, TTL);
+        filter.start();
+        filter.putResource("default:a");
+        assertFalse(filter.containsResource("default:a"));
+        filter.stop();
+        assertFalse(snapshot.exists());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ * A {@link ServiceMonitor} that is able to perform its poll without blocking
+ * the calling thread.
+ * </p>
+ *
+ * <p>
+ * The poller RPC module will invoke {@link #pollAsync(MonitoredService, Map)}
+ * directly instead of dispatching {@link #poll(MonitoredService, Map)} on the
+ * poller executor, so implementations must never block in this method. The
+ * returned future should be completed with the same {@link PollStatus} the
+ * synchronous variant would have returned for the same service and parameters.
+ * </p>
+ */
+public interface AsyncServiceMonitor extends ServiceMonitor {
+
+    /**
+     * Asynchronously poll the given service.
+     *
+     * @param svc
+     *            Includes details about to the service being monitored.
+     * @param parameters
+     *            Includes the service parameters defined in <EM>poller-configuration.xml</EM> and those
+     *            returned by {@link #getRuntimeAttributes(MonitoredService, Map)}.
+     * @return a future completed with the availability of the service
+     */
+    CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters);
+
+}
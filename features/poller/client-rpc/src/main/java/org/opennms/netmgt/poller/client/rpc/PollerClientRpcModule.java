@@ -23,10 +23,12 @@ package org.opennms.netmgt.poller.client.rpc;
 
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.poller.ServiceMonitorRegistry;
@@ -61,6 +63,23 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
             return CompletableFuture.completedFuture(new PollerResponseDTO(PollStatus.unknown("No monitor found with class name '" + className + "'.")));
         }
 
+        if (monitor instanceof AsyncServiceMonitor) {
+            // Non-blocking monitors drive their own I/O, so there is no need to occupy a thread of the executor
+            final CompletableFuture<PollStatus> future;
+            try {
+                future = ((AsyncServiceMonitor)monitor).pollAsync(request, request.getMonitorParameters());
+            } catch (RuntimeException e) {
+                return CompletableFuture.completedFuture(new PollerResponseDTO(PollStatus.unknown(e.getMessage())));
+            }
+            return future.handle((pollStatus, ex) -> {
+                if (ex != null) {
+                    final Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    pollStatus = PollStatus.unknown(cause.getMessage());
+                }
+                return new PollerResponseDTO(pollStatus);
+            });
+        }
+
         return CompletableFuture.supplyAsync(new Supplier<PollerResponseDTO>() {
             @Override
             public PollerResponseDTO get() {
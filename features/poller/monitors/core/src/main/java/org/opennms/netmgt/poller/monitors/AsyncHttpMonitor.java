@@ -0,0 +1,342 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.lang.StringUtils;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineSession;
+import org.opennms.netmgt.poller.monitors.support.ParameterSubstitutingMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.handler.ssl.SslContext;
+
+/**
+ * Non-blocking variant of the {@link HttpMonitor}.
+ *
+ * Accepts the same parameters as the {@link HttpMonitor}: the ports are tried in order, each with
+ * its own retries, until the service is found to be available. The request, the evaluation of the
+ * response code and of the <em>response-text</em>, as well as the reasons reported for failed
+ * polls, are the same as for the blocking implementation.
+ */
+public class AsyncHttpMonitor extends ParameterSubstitutingMonitor implements AsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncHttpMonitor.class);
+
+    /**
+     * Default HTTP ports.
+     */
+    private static final int[] DEFAULT_PORTS = { 80, 8080, 8888 };
+
+    private static final int DEFAULT_RETRY = 0;
+
+    private static final int DEFAULT_TIMEOUT = 3000;
+
+    @Override
+    public PollStatus poll(final MonitoredService svc, final Map<String, Object> parameters) {
+        try {
+            return pollAsync(svc, parameters).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PollStatus.unknown("Interrupted while polling " + svc);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final Map<String, Object> params = new TreeMap<String, Object>(parameters);
+        return determineVirtualHost(svc, params).thenCompose(virtualHost -> {
+            final HttpPoll poll = new HttpPoll(svc, params, virtualHost);
+            final CompletableFuture<PollStatus> result = new CompletableFuture<>();
+            poll.pollPort(0, result);
+            return result;
+        });
+    }
+
+    /**
+     * Determines the value of the Host header. The reverse lookup required by <em>resolve-ip</em> is
+     * performed off the calling thread.
+     */
+    private static CompletableFuture<String> determineVirtualHost(final MonitoredService svc, final Map<String, Object> parameters) {
+        final InetAddress addr = svc.getAddress();
+        final String virtualHost = ParameterMap.getKeyedString(parameters, HttpMonitor.PARAMETER_HOST_NAME, null);
+        if (!StringUtils.isBlank(virtualHost)) {
+            return CompletableFuture.completedFuture(virtualHost);
+        }
+        if (ParameterMap.getKeyedBoolean(parameters, HttpMonitor.PARAMETER_RESOLVE_IP, false)) {
+            return AsyncLineSession.resolveCanonicalHostName(addr);
+        }
+        if (ParameterMap.getKeyedBoolean(parameters, HttpMonitor.PARAMETER_NODE_LABEL_HOST_NAME, false)) {
+            return CompletableFuture.completedFuture(svc.getNodeLabel());
+        }
+        final String host = InetAddressUtils.str(addr);
+        // Wrap IPv6 addresses in square brackets
+        return CompletableFuture.completedFuture(addr instanceof Inet6Address ? "[" + host + "]" : host);
+    }
+
+    /**
+     * @return the ports to poll, in order
+     */
+    protected int[] determinePorts(final Map<String, Object> parameters) {
+        return ParameterMap.getKeyedIntegerArray(parameters, HttpMonitor.PARAMETER_PORT, DEFAULT_PORTS);
+    }
+
+    /**
+     * @return the SSL context used to wrap the connection, or {@code null} for plain-text HTTP
+     */
+    protected SslContext getSslContext() {
+        return null;
+    }
+
+    private final class HttpPoll {
+        private final MonitoredService m_svc;
+        private final InetAddress m_addr;
+        private final Map<String, Object> m_parameters;
+        private final int[] m_ports;
+        private final String m_httpCmd;
+        private final String m_responseText;
+        private final boolean m_verbose;
+
+        private int m_serviceStatus = PollStatus.SERVICE_UNAVAILABLE;
+        private String m_reason;
+        private double m_responseTime;
+        private int m_currentPort;
+        private TimeoutTracker m_tracker;
+
+        private HttpPoll(final MonitoredService svc, final Map<String, Object> parameters, final String virtualHost) {
+            m_svc = svc;
+            m_addr = svc.getAddress();
+            m_parameters = parameters;
+            m_ports = determinePorts(parameters);
+            m_httpCmd = buildCommand(virtualHost);
+            m_responseText = HttpMonitor.determineResponseText(parameters);
+            m_verbose = HttpMonitor.determineVerbosity(parameters);
+        }
+
+        private void pollPort(final int portIndex, final CompletableFuture<PollStatus> result) {
+            if (portIndex >= m_ports.length || m_serviceStatus == PollStatus.SERVICE_AVAILABLE) {
+                result.complete(determinePollStatusResponse());
+                return;
+            }
+            m_currentPort = m_ports[portIndex];
+            m_tracker = new TimeoutTracker(m_parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+            LOG.debug("Port = {}, Address = {}, {}", m_currentPort, m_addr, m_tracker);
+            m_tracker.reset();
+            attempt(portIndex, result);
+        }
+
+        private void attempt(final int portIndex, final CompletableFuture<PollStatus> result) {
+            if (!m_tracker.shouldRetry() || m_serviceStatus == PollStatus.SERVICE_AVAILABLE) {
+                pollPort(portIndex + 1, result);
+                return;
+            }
+
+            final String serviceInfo = m_addr + ":" + m_svc.getSvcName() + ":" + m_currentPort;
+            m_tracker.startAttempt();
+            AsyncLineSession.connect(m_addr, m_currentPort, m_tracker, Charset.defaultCharset(), getSslContext(), null)
+                .thenCompose(session -> {
+                    LOG.debug("AsyncHttpMonitor: connected to host: {} on port: {}", m_addr, m_currentPort);
+                    m_serviceStatus = PollStatus.SERVICE_UNRESPONSIVE;
+                    return exchange(session).whenComplete((v, ex) -> session.close());
+                })
+                .whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        final Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        if (cause instanceof NoRouteToHostException) {
+                            LOG.warn("checkStatus: No route to host exception while polling {}", serviceInfo, cause);
+                            m_reason = "No route to host exception";
+                            // Do not try any of the remaining ports
+                            result.complete(determinePollStatusResponse());
+                            return;
+                        } else if (cause instanceof SocketTimeoutException) {
+                            LOG.info("checkStatus: HTTP socket connection for service {} timed out with {}", serviceInfo, m_tracker);
+                            m_reason = "HTTP connection timeout";
+                        } else if (cause instanceof InterruptedIOException) {
+                            LOG.info("checkStatus: HTTP connection for service {} interrupted with {}", serviceInfo, m_tracker, cause);
+                            m_reason = String.format("HTTP connection interrupted, %d bytes transferred", ((InterruptedIOException)cause).bytesTransferred);
+                        } else if (cause instanceof ConnectException) {
+                            LOG.warn("Connection exception for {}", serviceInfo, cause);
+                            m_reason = "HTTP connection exception on port: " + m_currentPort + ": " + cause.getMessage();
+                        } else if (cause instanceof IOException) {
+                            LOG.warn("{} while polling {}", cause.getClass().getSimpleName(), serviceInfo, cause);
+                            m_reason = "IOException while polling address: " + m_addr + ": " + cause.getMessage();
+                        } else {
+                            LOG.warn("Unexpected {} while polling {}", cause.getClass().getSimpleName(), serviceInfo, cause);
+                            m_reason = "Unexpected exception while polling address: " + m_addr + ": " + cause.getMessage();
+                        }
+                    }
+                    m_tracker.nextAttempt();
+                    attempt(portIndex, result);
+                });
+        }
+
+        /**
+         * Sends the request and evaluates the status line and, if configured, the response text.
+         */
+        private CompletableFuture<Void> exchange(final AsyncLineSession session) {
+            if (m_verbose) {
+                LOG.debug("Sending HTTP command: {}", m_httpCmd);
+            }
+            return session.sendAndReadLine(m_httpCmd).thenCompose(statusLine -> {
+                if (m_verbose) {
+                    LOG.debug("Server response: {}", statusLine);
+                }
+                if (statusLine == null) {
+                    // End of stream, try again
+                    return CompletableFuture.completedFuture(null);
+                }
+                determineServerInitialResponse(statusLine);
+
+                m_responseTime = m_tracker.elapsedTimeInMillis();
+                LOG.debug("poll: response= {}", statusLine);
+                LOG.debug("poll: responseTime= {}ms", m_responseTime);
+
+                if (m_serviceStatus == PollStatus.SERVICE_AVAILABLE && StringUtils.isNotBlank(m_responseText)) {
+                    m_serviceStatus = PollStatus.SERVICE_UNAVAILABLE;
+                    return matchResponseText(session).thenAccept(found -> {
+                        if (!found) {
+                            LOG.debug("Matching text: [{}] not found in body of HTTP response for {}:{}:{}", m_responseText, m_addr, m_svc.getSvcName(), m_currentPort);
+                            m_reason = "Matching text: [" + m_responseText + "] not found in body of HTTP response";
+                        } else {
+                            LOG.debug("response-text: {}: found.", m_responseText);
+                            m_serviceStatus = PollStatus.SERVICE_AVAILABLE;
+                        }
+                    });
+                }
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        private CompletableFuture<Boolean> matchResponseText(final AsyncLineSession session) {
+            final boolean[] headerFinished = { false };
+            return session.readUntil(line -> {
+                if (m_verbose) {
+                    LOG.debug("\t<<: {}", line);
+                }
+                // Skip performing the regex processing over HTTP headers
+                if (!headerFinished[0]) {
+                    headerFinished[0] = StringUtils.isEmpty(line);
+                    return false;
+                }
+                return m_responseText.charAt(0) == '~'
+                        ? line.matches(m_responseText.substring(1))
+                        : line.contains(m_responseText);
+            }).thenApply(line -> line != null);
+        }
+
+        private void determineServerInitialResponse(final String line) {
+            if (!line.startsWith("HTTP/")) {
+                return;
+            }
+            final int serverResponseValue = parseHttpResponse(line);
+            final String expectedResponse = HttpMonitor.determineResponse(m_parameters);
+            if (IPLike.matchNumericListOrRange(String.valueOf(serverResponseValue), expectedResponse)) {
+                LOG.debug("determineServerResponse: valid server response: {} found.", serverResponseValue);
+                m_serviceStatus = PollStatus.SERVICE_AVAILABLE;
+            } else {
+                m_serviceStatus = PollStatus.SERVICE_UNAVAILABLE;
+                m_reason = "HTTP response value: " + serverResponseValue + ". Expecting: " + expectedResponse + ".";
+            }
+        }
+
+        private int parseHttpResponse(final String line) {
+            final StringTokenizer t = new StringTokenizer(line);
+            if (t.hasMoreTokens()) {
+                t.nextToken();
+            }
+            if (t.hasMoreTokens()) {
+                try {
+                    return Integer.parseInt(t.nextToken());
+                } catch (final NumberFormatException nfE) {
+                    LOG.info("Error converting response code from host = {}, response = {}", m_addr, line);
+                }
+            }
+            return -1;
+        }
+
+        private String buildCommand(final String virtualHost) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("GET ").append(HttpMonitor.determineUrl(m_parameters)).append(" HTTP/1.1\r\n");
+            sb.append("Connection: CLOSE \r\n");
+            sb.append("Host: ").append(virtualHost).append("\r\n");
+            sb.append("User-Agent: ").append(HttpMonitor.determineUserAgent(m_parameters)).append("\r\n");
+
+            final String credentials = HttpMonitor.determineBasicAuthentication(m_parameters);
+            if (credentials != null) {
+                sb.append("Authorization: Basic ").append(credentials).append("\r\n");
+            }
+
+            for (final String parmKey : m_parameters.keySet()) {
+                if (HttpMonitor.HEADER_PATTERN.matcher(parmKey).matches()) {
+                    sb.append(HttpMonitor.determineHttpHeader(m_parameters, parmKey)).append("\r\n");
+                }
+            }
+
+            sb.append("\r\n");
+            return sb.toString();
+        }
+
+        private PollStatus determinePollStatusResponse() {
+            if (m_serviceStatus == PollStatus.SERVICE_UNAVAILABLE) {
+                final StringBuilder testedPorts = new StringBuilder();
+                for (int i = 0; i < m_ports.length; i++) {
+                    if (i > 0) {
+                        testedPorts.append(',');
+                    }
+                    testedPorts.append(m_ports[i]);
+                }
+                m_reason = m_reason + "/Ports: " + testedPorts;
+                LOG.debug("checkStatus: Reason: \"{}\"", m_reason);
+                return PollStatus.unavailable(m_reason);
+            } else if (m_serviceStatus == PollStatus.SERVICE_AVAILABLE) {
+                return PollStatus.available(m_responseTime);
+            }
+            return PollStatus.get(m_serviceStatus, m_reason);
+        }
+    }
+}
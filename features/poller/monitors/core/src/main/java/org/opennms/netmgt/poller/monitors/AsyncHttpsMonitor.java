@@ -0,0 +1,50 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors;
+
+import java.util.Map;
+
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineSession;
+
+import io.netty.handler.ssl.SslContext;
+
+/**
+ * Non-blocking variant of the {@link HttpsMonitor}.
+ */
+public class AsyncHttpsMonitor extends AsyncHttpMonitor {
+
+    /**
+     * Default HTTPS ports.
+     */
+    private static final int[] DEFAULT_PORTS = { 443 };
+
+    @Override
+    protected int[] determinePorts(final Map<String, Object> parameters) {
+        return ParameterMap.getKeyedIntegerArray(parameters, "port", DEFAULT_PORTS);
+    }
+
+    @Override
+    protected SslContext getSslContext() {
+        return AsyncLineSession.getRelaxedSslContext();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AbstractAsyncServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.handler.ssl.SslContext;
+
+/**
+ * Non-blocking variant of the {@link ImapMonitor}.
+ *
+ * The banner must start with <code>* OK</code>, after which a <code>LOGOUT</code> is sent and
+ * the <code>* BYE</code> and tagged <code>OK</code> responses are verified.
+ */
+public class AsyncImapMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncImapMonitor.class);
+
+    private static final int DEFAULT_PORT = 143;
+
+    private static final String IMAP_START_RESPONSE_PREFIX = "* OK ";
+
+    private static final String IMAP_LOGOUT_REQUEST = "ONMSPOLLER LOGOUT\r\n";
+
+    private static final String IMAP_BYE_RESPONSE_PREFIX = "* BYE";
+
+    private static final String IMAP_LOGOUT_RESPONSE_PREFIX = "ONMSPOLLER OK ";
+
+    @Override
+    protected CompletableFuture<PollStatus> pollOnce(final MonitoredService svc, final Map<String, Object> parameters, final TimeoutTracker tracker) {
+        final int port = determinePort(parameters);
+
+        return withSession(AsyncLineSession.connect(svc.getAddress(), port, tracker, Charset.defaultCharset(), getSslContext(), null), session -> {
+            return session.readLine().thenCompose(banner -> {
+                final double responseTime = tracker.elapsedTimeInMillis();
+                LOG.debug("AsyncImapMonitor.pollOnce(): banner: {}", banner);
+
+                if (banner == null || !banner.startsWith(IMAP_START_RESPONSE_PREFIX)) {
+                    return CompletableFuture.completedFuture(PollStatus.unavailable());
+                }
+                return session.sendAndReadLine(IMAP_LOGOUT_REQUEST).thenCompose(response -> {
+                    if (response == null || !response.startsWith(IMAP_BYE_RESPONSE_PREFIX)) {
+                        return CompletableFuture.completedFuture(PollStatus.unavailable());
+                    }
+                    return session.readLine().thenApply(logout -> logout != null && logout.startsWith(IMAP_LOGOUT_RESPONSE_PREFIX)
+                            ? PollStatus.available(responseTime)
+                            : PollStatus.unavailable());
+                });
+            });
+        });
+    }
+
+    @Override
+    protected PollStatus getPollStatusForException(final MonitoredService svc, final TimeoutTracker tracker, final IOException e) {
+        final String reason;
+        if (e instanceof NoRouteToHostException) {
+            reason = "No route to host exception for address: " + svc.getAddress();
+        } else if (e instanceof ConnectException) {
+            reason = "Connection exception for address: " + svc.getAddress();
+        } else if (e instanceof InterruptedIOException) {
+            reason = "did not connect to host with " + tracker;
+        } else {
+            reason = "IOException while polling address: " + svc.getAddress();
+        }
+        LOG.debug(reason, e);
+        return PollStatus.unavailable(reason);
+    }
+
+    @Override
+    protected boolean retryOnNoRouteToHost() {
+        return true;
+    }
+
+    protected int determinePort(final Map<String, Object> parameters) {
+        return ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+    }
+
+    /**
+     * @return the SSL context used to wrap the connection, or {@code null} for plain-text IMAP
+     */
+    protected SslContext getSslContext() {
+        return null;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AbstractAsyncServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking variant of the {@link Pop3Monitor}.
+ *
+ * The banner must start with <code>+OK</code>, as must the response to the <code>QUIT</code> command.
+ */
+public class AsyncPop3Monitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncPop3Monitor.class);
+
+    private static final int DEFAULT_PORT = 110;
+
+    @Override
+    protected CompletableFuture<PollStatus> pollOnce(final MonitoredService svc, final Map<String, Object> parameters, final TimeoutTracker tracker) {
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+
+        return withSession(AsyncLineSession.connect(svc.getAddress(), port, tracker, Charset.defaultCharset()), session -> {
+            LOG.debug("AsyncPop3Monitor: connected to host: {} on port: {}", svc.getAddress(), port);
+
+            return session.readLine().thenCompose(banner -> {
+                final double responseTime = tracker.elapsedTimeInMillis();
+                if (banner == null) {
+                    return CompletableFuture.completedFuture(PollStatus.unresponsive());
+                }
+                if (!isOk(banner)) {
+                    return CompletableFuture.completedFuture(PollStatus.unavailable());
+                }
+                // POP3 server should recognize the QUIT command
+                return session.sendAndReadLine("QUIT\r\n").thenApply(response -> isOk(response)
+                        ? PollStatus.available(responseTime)
+                        : PollStatus.unavailable());
+            });
+        });
+    }
+
+    private static boolean isOk(final String line) {
+        if (line == null) {
+            return false;
+        }
+        final StringTokenizer t = new StringTokenizer(line);
+        return t.hasMoreTokens() && t.nextToken().equals("+OK");
+    }
+
+    @Override
+    protected PollStatus getPollStatusForException(final MonitoredService svc, final TimeoutTracker tracker, final IOException e) {
+        final String hostAddress = InetAddressUtils.str(svc.getAddress());
+        final String reason;
+        if (e instanceof NoRouteToHostException) {
+            reason = "No route to host exception for address " + hostAddress;
+        } else if (e instanceof InterruptedIOException) {
+            reason = "did not connect to host with " + tracker;
+        } else if (e instanceof ConnectException) {
+            reason = "Connection exception for address " + hostAddress;
+        } else {
+            reason = "IOException while polling address " + hostAddress;
+        }
+        LOG.debug(reason, e);
+        return PollStatus.unavailable(reason);
+    }
+
+    @Override
+    protected boolean retryOnNoRouteToHost() {
+        return true;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AbstractAsyncServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking variant of the {@link SmtpMonitor}.
+ *
+ * Expects a <code>220</code> greeting, then verifies that <code>HELO</code> is answered with
+ * <code>250</code> and <code>QUIT</code> with <code>221</code>.
+ */
+public class AsyncSmtpMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSmtpMonitor.class);
+
+    private static final int DEFAULT_PORT = 25;
+
+    private static final String LOCALHOST_NAME = InetAddressUtils.getLocalHostName();
+
+    /**
+     * Used to check for a multiline response. A multiline response begins with
+     * the same 3 digit response code, but has a hyphen after the last number
+     * instead of a space.
+     */
+    private static final Pattern MULTILINE = Pattern.compile("^[0-9]{3}-");
+
+    @Override
+    protected CompletableFuture<PollStatus> pollOnce(final MonitoredService svc, final Map<String, Object> parameters, final TimeoutTracker tracker) {
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+
+        return withSession(AsyncLineSession.connect(svc.getAddress(), port, tracker, StandardCharsets.US_ASCII), session -> {
+            LOG.debug("AsyncSmtpMonitor: connected to host: {} on port: {}", svc.getAddress(), port);
+
+            return readResponse(session).thenCompose(banner -> {
+                LOG.debug("pollOnce: banner = {}", banner);
+                final int rc = getReturnCode(banner);
+                if (rc == 554) {
+                    return session.sendAndReadLine("QUIT\r\n")
+                            .thenApply(response -> PollStatus.unavailable("Server rejecting transactions with 554"));
+                } else if (rc != 220) {
+                    return CompletableFuture.completedFuture(PollStatus.unavailable());
+                }
+
+                return session.write("HELO " + LOCALHOST_NAME + "\r\n")
+                        .thenCompose(v -> readResponse(session))
+                        .thenCompose(response -> {
+                            final double responseTime = tracker.elapsedTimeInMillis();
+                            if (response == null) {
+                                return CompletableFuture.completedFuture(PollStatus.unresponsive());
+                            } else if (getReturnCode(response) != 250) {
+                                return CompletableFuture.completedFuture(PollStatus.unavailable());
+                            }
+                            return session.write("QUIT\r\n")
+                                    .thenCompose(v -> readResponse(session))
+                                    .thenApply(quit -> getReturnCode(quit) == 221 ? PollStatus.available(responseTime) : PollStatus.unavailable());
+                        });
+            });
+        }).exceptionally(ex -> {
+            final Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof NumberFormatException) {
+                final String reason = "NumberFormatException while polling address " + InetAddressUtils.str(svc.getAddress());
+                LOG.debug(reason, cause);
+                return PollStatus.unavailable(reason);
+            }
+            throw ex instanceof RuntimeException ? (RuntimeException)ex : new RuntimeException(ex);
+        });
+    }
+
+    /**
+     * Reads a response, skipping over the continuation lines of multi-line responses.
+     *
+     * @return a future completed with the last line of the response, or {@code null} if the connection was closed
+     */
+    private static CompletableFuture<String> readResponse(final AsyncLineSession session) {
+        return session.readLine().thenCompose(response -> {
+            if (response == null || !MULTILINE.matcher(response).find()) {
+                return CompletableFuture.completedFuture(response);
+            }
+            // The last line of the response will start with return code followed by a space
+            final String lastLinePrefix = response.substring(0, 3) + " ";
+            return session.readUntil(line -> line.startsWith(lastLinePrefix));
+        });
+    }
+
+    private static int getReturnCode(final String response) {
+        final StringTokenizer t = new StringTokenizer(response == null ? "" : response);
+        if (!t.hasMoreTokens()) {
+            throw new NumberFormatException("Empty response");
+        }
+        return Integer.parseInt(t.nextToken());
+    }
+
+    @Override
+    protected PollStatus getPollStatusForException(final MonitoredService svc, final TimeoutTracker tracker, final IOException e) {
+        final String hostAddress = InetAddressUtils.str(svc.getAddress());
+        final String reason;
+        if (e instanceof NoRouteToHostException) {
+            reason = "No route to host exception for address " + hostAddress;
+        } else if (e instanceof InterruptedIOException) {
+            reason = "Did not receive expected response within timeout " + tracker;
+        } else if (e instanceof ConnectException) {
+            reason = "Unable to connect to address " + hostAddress;
+        } else {
+            reason = "IOException while polling address " + hostAddress;
+        }
+        LOG.debug(reason, e);
+        return PollStatus.unavailable(reason);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors;
+
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import org.apache.http.conn.ssl.StrictHostnameVerifier;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.PropertiesUtils;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AbstractAsyncServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineSession;
+import org.opennms.netmgt.poller.monitors.support.ParameterSubstitutingMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+
+/**
+ * Non-blocking variant of the {@link SSLCertMonitor}.
+ *
+ * Supports the same parameters, including the STARTTLS preamble, and evaluates the peer
+ * certificates using {@link SSLCertMonitor#checkCertificates}.
+ */
+public class AsyncSslCertMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSslCertMonitor.class);
+
+    private static final int DEFAULT_PORT = -1;
+
+    private static final int DEFAULT_DAYS = 7;
+
+    @Override
+    public Map<String, Object> getRuntimeAttributes(final MonitoredService svc, final Map<String, Object> parameters) {
+        return ParameterSubstitutingMonitor.getSubstitutedParameters(svc, parameters);
+    }
+
+    @Override
+    protected CompletableFuture<PollStatus> pollOnce(final MonitoredService svc, final Map<String, Object> parameters, final TimeoutTracker tracker) {
+        final int port = ParameterMap.getKeyedInteger(parameters, SSLCertMonitor.PARAMETER_PORT, DEFAULT_PORT);
+        if (port == DEFAULT_PORT) {
+            throw new RuntimeException("Required parameter 'port' is not present in supplied properties.");
+        }
+
+        final int validityDays = ParameterMap.getKeyedInteger(parameters, SSLCertMonitor.PARAMETER_DAYS, DEFAULT_DAYS);
+        if (validityDays <= 0) {
+            throw new RuntimeException("Required parameter 'days' must be a positive value.");
+        }
+
+        final String serverName = PropertiesUtils.substitute(ParameterMap.getKeyedString(parameters, SSLCertMonitor.PARAMETER_SERVER_NAME, ""),
+                                                             getServiceProperties(svc));
+        final String stlsInitiate = resolve(svc, parameters, SSLCertMonitor.PARAMETER_STLS_INIT);
+        final String stlsInitExpectedResp = resolve(svc, parameters, SSLCertMonitor.PARAMETER_STLS_INIT_RESP);
+        final String tlsStart = resolve(svc, parameters, SSLCertMonitor.PARAMETER_STLS_START);
+        final String tlsStartResp = resolve(svc, parameters, SSLCertMonitor.PARAMETER_STLS_START_RESP);
+
+        final Calendar calCurrent = getCalendarInstance();
+
+        return withSession(AsyncLineSession.connect(svc.getAddress(), port, tracker, Charset.defaultCharset()), session -> {
+            LOG.debug("Connected to host: {} on port: {}", InetAddressUtils.str(svc.getAddress()), port);
+
+            // xmpp (and probably others) make you find out if the server supports STARTTLS
+            // at the protocol level before actually trying to start it
+            return validResponse(session, stlsInitiate, stlsInitExpectedResp)
+                    .thenCompose(valid -> valid ? validResponse(session, tlsStart, tlsStartResp) : CompletableFuture.completedFuture(false))
+                    .thenCompose(stlsSupported -> {
+                        if (!stlsSupported) {
+                            // The blocking monitor gives up right away in this case
+                            throw new FinalPollStatus(PollStatus.unavailable("STARTTLS requested, but server does not support STARTTLS."));
+                        }
+                        return session.startTls(AsyncLineSession.getRelaxedSslContext(), serverName)
+                                .thenApply(v -> checkSession(session, serverName, calCurrent, validityDays, tracker, svc));
+                    });
+        });
+    }
+
+    private PollStatus checkSession(final AsyncLineSession session, final String serverName, final Calendar calCurrent,
+                                    final int validityDays, final TimeoutTracker tracker, final MonitoredService svc) {
+        // Check certificates host name
+        if (!Strings.isNullOrEmpty(serverName) && !new StrictHostnameVerifier().verify(serverName, session.getSslSession())) {
+            return PollStatus.unavailable("Host name verification failed - certificate common name is invalid");
+        }
+
+        try {
+            return SSLCertMonitor.checkCertificates(session.getPeerCertificates(), calCurrent, validityDays, tracker.elapsedTimeInMillis());
+        } catch (SSLPeerUnverifiedException e) {
+            final String reason = "IOException while polling address: " + svc.getAddress();
+            LOG.debug(reason, e);
+            return PollStatus.unavailable(reason);
+        } catch (CertificateEncodingException e) {
+            final String reason = "CertificateEncodingException while polling address: " + svc.getAddress();
+            LOG.debug(reason, e);
+            return PollStatus.unavailable(reason);
+        } catch (NoSuchAlgorithmException e) {
+            final String reason = "NoSuchAlgorithException (SHA-1) while polling address: " + svc.getAddress();
+            LOG.debug(reason, e);
+            return PollStatus.unavailable(reason);
+        }
+    }
+
+    /**
+     * Asynchronous equivalent of {@link org.opennms.core.utils.SocketUtils#validResponse}: writes the
+     * request and matches everything received until the connection goes idle against the given pattern.
+     */
+    private static CompletableFuture<Boolean> validResponse(final AsyncLineSession session, final String request, final String responsePattern) {
+        if (Strings.isNullOrEmpty(request) || Strings.isNullOrEmpty(responsePattern)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        LOG.debug("writing {}, hoping response matches /{}/", request, responsePattern);
+        return session.write(request)
+                .thenCompose(v -> session.readUntilIdle())
+                .thenApply(response -> {
+                    LOG.debug("response was: {}", response);
+                    return Pattern.compile(responsePattern).matcher(response).matches();
+                });
+    }
+
+    private static String resolve(final MonitoredService svc, final Map<String, Object> parameters, final String key) {
+        return PropertiesUtils.substitute(ParameterSubstitutingMonitor.resolveKeyedString(parameters, key, ""), getServiceProperties(svc));
+    }
+
+    protected Calendar getCalendarInstance() {
+        return GregorianCalendar.getInstance();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.AbstractAsyncServiceMonitor;
+import org.opennms.netmgt.poller.monitors.support.AsyncLineSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking variant of the {@link TcpMonitor}.
+ *
+ * Accepts the same parameters and returns the same poll status as the {@link TcpMonitor}, but
+ * performs all I/O on the event loop shared by the asynchronous monitors.
+ */
+public class AsyncTcpMonitor extends AbstractAsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncTcpMonitor.class);
+
+    private static final int DEFAULT_PORT = -1;
+
+    @Override
+    protected CompletableFuture<PollStatus> pollOnce(final MonitoredService svc, final Map<String, Object> parameters, final TimeoutTracker tracker) {
+        final int port = ParameterMap.getKeyedInteger(parameters, TcpMonitor.PARAMETER_PORT, DEFAULT_PORT);
+        if (port == DEFAULT_PORT) {
+            throw new RuntimeException("AsyncTcpMonitor: required parameter 'port' is not present in supplied properties.");
+        }
+        final String strBannerMatch = ParameterMap.getKeyedString(parameters, TcpMonitor.PARAMETER_BANNER, null);
+
+        return withSession(AsyncLineSession.connect(svc.getAddress(), port, tracker, Charset.defaultCharset()), session -> {
+            LOG.debug("AsyncTcpMonitor: connected to host: {} on port: {}", InetAddressUtils.str(svc.getAddress()), port);
+
+            if (strBannerMatch == null || strBannerMatch.length() == 0 || strBannerMatch.equals("*")) {
+                return CompletableFuture.completedFuture(PollStatus.available(tracker.elapsedTimeInMillis()));
+            }
+
+            return session.readLine().thenApply(response -> {
+                final double responseTime = tracker.elapsedTimeInMillis();
+                if (response == null) {
+                    // We're connected, but did not receive anything
+                    return PollStatus.unresponsive();
+                }
+                LOG.debug("poll: banner = {}", response);
+                LOG.debug("poll: responseTime= {}ms", responseTime);
+                return matchBanner(strBannerMatch, response, responseTime);
+            });
+        });
+    }
+
+    protected static PollStatus matchBanner(final String strBannerMatch, final String response, final double responseTime) {
+        if (strBannerMatch.charAt(0) == '~') {
+            if (!response.matches(strBannerMatch.substring(1))) {
+                return PollStatus.unavailable("Banner does not match Regex '" + strBannerMatch + "'");
+            }
+            return PollStatus.available(responseTime);
+        } else if (response.indexOf(strBannerMatch) > -1) {
+            return PollStatus.available(responseTime);
+        }
+        return PollStatus.unavailable("Banner: '" + response + "' does not contain match string '" + strBannerMatch + "'");
+    }
+}
@@ -66,7 +66,7 @@ public class HttpMonitor extends ParameterSubstitutingMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(HttpMonitor.class);
     
-    private static final Pattern HEADER_PATTERN = Pattern.compile("header[0-9]+$");
+    static final Pattern HEADER_PATTERN = Pattern.compile("header[0-9]+$");
 
     /**
      * Default HTTP ports.
@@ -216,12 +216,12 @@ public class HttpMonitor extends ParameterSubstitutingMonitor {
         return new DefaultSocketWrapper();
     }
 
-    private static boolean determineVerbosity(final Map<String, Object> parameters) {
+    static boolean determineVerbosity(final Map<String, Object> parameters) {
         final String verbose = ParameterMap.getKeyedString(parameters, PARAMETER_VERBOSE, null);
         return (verbose != null && verbose.equalsIgnoreCase("true")) ? true : false;
     }
 
-    private static String determineUserAgent(final Map<String, Object> parameters) {
+    static String determineUserAgent(final Map<String, Object> parameters) {
         String agent = resolveKeyedString(parameters, PARAMETER_USER_AGENT, null);
         if (isBlank(agent)) {
             return "OpenNMS HttpMonitor";
@@ -249,19 +249,19 @@ public class HttpMonitor extends ParameterSubstitutingMonitor {
         return credentials;
     }
 
-    private static String determineHttpHeader(final Map<String, Object> parameters, String key) {
+    static String determineHttpHeader(final Map<String, Object> parameters, String key) {
         return ParameterMap.getKeyedString(parameters, key, null);
     }
     
-    private static String determineResponseText(final Map<String, Object> parameters) {
+    static String determineResponseText(final Map<String, Object> parameters) {
         return ParameterMap.getKeyedString(parameters, PARAMETER_RESPONSE_TEXT, null);
     }
 
-    private static String determineResponse(final Map<String, Object> parameters) {
+    static String determineResponse(final Map<String, Object> parameters) {
         return ParameterMap.getKeyedString(parameters, PARAMETER_RESPONSE, determineDefaultResponseRange(determineUrl(parameters)));
     }
 
-    private static String determineUrl(final Map<String, Object> parameters) {
+    static String determineUrl(final Map<String, Object> parameters) {
         String url = resolveKeyedString(parameters, PARAMETER_URL, DEFAULT_URL);
         return url;
     }
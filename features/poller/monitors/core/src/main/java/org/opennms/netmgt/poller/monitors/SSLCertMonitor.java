@@ -158,14 +158,7 @@ public class SSLCertMonitor extends ParameterSubstitutingMonitor {
         final String tlsStartResp = PropertiesUtils.substitute(resolveKeyedString(parameters, PARAMETER_STLS_START_RESP, ""),
                                                              getServiceProperties(svc));
 
-        // Calculate validity range
-        Calendar calValid = this.getCalendarInstance();
         Calendar calCurrent = this.getCalendarInstance();
-        calValid.setTimeInMillis(calCurrent.getTimeInMillis());
-        calValid.add(Calendar.DAY_OF_MONTH, validityDays);
-
-        Calendar calBefore = this.getCalendarInstance();
-        Calendar calAfter = this.getCalendarInstance();
 
         // Get the address instance
         InetAddress ipAddr = svc.getAddress();
@@ -216,65 +209,7 @@ public class SSLCertMonitor extends ParameterSubstitutingMonitor {
                 }
 
                 Certificate[] certs = sslSocket.getSession().getPeerCertificates();
-                for (int i = 0; i < certs.length && !serviceStatus.isAvailable(); i++) {
-                    if (certs[i] instanceof X509Certificate) {
-                        X509Certificate certx = (X509Certificate) certs[i];
-                        String subject = "";
-                        if (certx.getSubjectDN() != null && certx.getSubjectDN().getName() != null) {
-                            subject = certx.getSubjectDN().getName();
-                        }
-                        String issuer = "";
-                        if (certx.getIssuerDN() != null && certx.getIssuerDN().getName() != null) {
-                            issuer = certx.getIssuerDN().getName();
-                        }
-                        String fprint = DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-1").digest(certx.getEncoded())).toLowerCase();
-                        StringBuilder reasonBuilder = new StringBuilder();
-                        if (certx.getNotBefore() == null || certx.getNotAfter() == null) {
-                            reasonBuilder.append("Unable to check for expiration: one or both of notBefore and notAfter are null for certificate with fingerprint '")
-                                .append(fprint).append("' issued to ").append(subject).append(" by ").append(issuer).append(".");
-                            serviceStatus = PollStatus.unavailable(reasonBuilder.toString());
-                            break;
-                        }
-                        LOG.debug("Checking validity against dates: [current: {}, valid: {}], NotBefore: {}, NotAfter: {}", calCurrent.getTime(), calValid.getTime(), certx.getNotBefore(), certx.getNotAfter());
-                        calBefore.setTime(certx.getNotBefore());
-                        calAfter.setTime(certx.getNotAfter());
-                        if (calCurrent.before(calBefore)) {
-                            reasonBuilder.append("Certificate with fingerprint '").append(fprint).append("' issued to ")
-                                    .append(subject).append(" by ").append(issuer)
-                                    .append(" is not yet valid. Current time is before start time. It is valid from ")
-                                    .append(certx.getNotBefore().toString()).append(" until ").append(certx.getNotAfter()).append(".");
-                            LOG.debug(reasonBuilder.toString());
-                            serviceStatus = PollStatus.unavailable(reasonBuilder.toString());
-                            break;
-                        } else if (calCurrent.before(calAfter)) {
-                            if (calValid.before(calAfter)) {
-                                reasonBuilder.append("Certificate with fingerprint '").append(fprint).append("' issued to ")
-                                        .append(subject).append(" by ").append(issuer)
-                                        .append(" is valid. It is valid from ")
-                                        .append(certx.getNotBefore().toString()).append(" until ").append(certx.getNotAfter()).append(".");
-                                LOG.debug(reasonBuilder.toString());
-                                serviceStatus = PollStatus.available(tracker.elapsedTimeInMillis());
-                                break;
-                            } else {
-                                reasonBuilder.append("Certificate with fingerprint '").append(fprint).append("' issued to ")
-                                        .append(subject).append(" by ").append(issuer)
-                                        .append(" is valid, but will expire within ").append(validityDays).append(" days. It is valid from ")
-                                        .append(certx.getNotBefore().toString()).append(" until ").append(certx.getNotAfter()).append(".");
-                                LOG.debug(reasonBuilder.toString());
-                                serviceStatus = PollStatus.unavailable(reasonBuilder.toString());
-                                break;
-                            }
-                        } else {
-                            reasonBuilder.append("Certificate with fingerprint '").append(fprint).append("' issued to ")
-                                    .append(subject).append(" by ").append(issuer)
-                                    .append(" is no longer valid. It was valid from ").append(certx.getNotBefore().toString())
-                                    .append(" until ").append(certx.getNotAfter()).append(".");
-                            LOG.debug(reasonBuilder.toString());
-                            serviceStatus = PollStatus.unavailable(reasonBuilder.toString());
-                            break;
-                        }
-                    }
-                }
+                serviceStatus = checkCertificates(certs, calCurrent, validityDays, tracker.elapsedTimeInMillis());
 
             } catch (NoRouteToHostException e) {
                 String reason = "No route to host exception for address " + hostAddress;
@@ -322,6 +257,77 @@ public class SSLCertMonitor extends ParameterSubstitutingMonitor {
         return serviceStatus;
     }
     
+    /**
+     * Checks the validity of the first X.509 certificate in the given chain.
+     *
+     * @return the resulting status, or {@link PollStatus#unresponsive()} if the chain contains no X.509 certificate
+     */
+    static PollStatus checkCertificates(final Certificate[] certs, final Calendar calCurrent, final int validityDays, final double responseTime)
+            throws CertificateEncodingException, NoSuchAlgorithmException {
+        // Calculate validity range
+        final Calendar calValid = (Calendar)calCurrent.clone();
+        calValid.add(Calendar.DAY_OF_MONTH, validityDays);
+
+        final Calendar calBefore = (Calendar)calCurrent.clone();
+        final Calendar calAfter = (Calendar)calCurrent.clone();
+
+        for (int i = 0; i < certs.length; i++) {
+            if (certs[i] instanceof X509Certificate) {
+                X509Certificate certx = (X509Certificate) certs[i];
+                String subject = "";
+                if (certx.getSubjectDN() != null && certx.getSubjectDN().getName() != null) {
+                    subject = certx.getSubjectDN().getName();
+                }
+                String issuer = "";
+                if (certx.getIssuerDN() != null && certx.getIssuerDN().getName() != null) {
+                    issuer = certx.getIssuerDN().getName();
+                }
+                String fprint = DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-1").digest(certx.getEncoded())).toLowerCase();
+                StringBuilder reasonBuilder = new StringBuilder();
+                if (certx.getNotBefore() == null || certx.getNotAfter() == null) {
+                    reasonBuilder.append("Unable to check for expiration: one or both of notBefore and notAfter are null for certificate with fingerprint '")
+                        .append(fprint).append("' issued to ").append(subject).append(" by ").append(issuer).append(".");
+                    return PollStatus.unavailable(reasonBuilder.toString());
+                }
+                LOG.debug("Checking validity against dates: [current: {}, valid: {}], NotBefore: {}, NotAfter: {}", calCurrent.getTime(), calValid.getTime(), certx.getNotBefore(), certx.getNotAfter());
+                calBefore.setTime(certx.getNotBefore());
+                calAfter.setTime(certx.getNotAfter());
+                if (calCurrent.before(calBefore)) {
+                    reasonBuilder.append("Certificate with fingerprint '").append(fprint).append("' issued to ")
+                            .append(subject).append(" by ").append(issuer)
+                            .append(" is not yet valid. Current time is before start time. It is valid from ")
+                            .append(certx.getNotBefore().toString()).append(" until ").append(certx.getNotAfter()).append(".");
+                    LOG.debug(reasonBuilder.toString());
+                    return PollStatus.unavailable(reasonBuilder.toString());
+                } else if (calCurrent.before(calAfter)) {
+                    if (calValid.before(calAfter)) {
+                        reasonBuilder.append("Certificate with fingerprint '").append(fprint).append("' issued to ")
+                                .append(subject).append(" by ").append(issuer)
+                                .append(" is valid. It is valid from ")
+                                .append(certx.getNotBefore().toString()).append(" until ").append(certx.getNotAfter()).append(".");
+                        LOG.debug(reasonBuilder.toString());
+                        return PollStatus.available(responseTime);
+                    } else {
+                        reasonBuilder.append("Certificate with fingerprint '").append(fprint).append("' issued to ")
+                                .append(subject).append(" by ").append(issuer)
+                                .append(" is valid, but will expire within ").append(validityDays).append(" days. It is valid from ")
+                                .append(certx.getNotBefore().toString()).append(" until ").append(certx.getNotAfter()).append(".");
+                        LOG.debug(reasonBuilder.toString());
+                        return PollStatus.unavailable(reasonBuilder.toString());
+                    }
+                } else {
+                    reasonBuilder.append("Certificate with fingerprint '").append(fprint).append("' issued to ")
+                            .append(subject).append(" by ").append(issuer)
+                            .append(" is no longer valid. It was valid from ").append(certx.getNotBefore().toString())
+                            .append(" until ").append(certx.getNotAfter()).append(".");
+                    LOG.debug(reasonBuilder.toString());
+                    return PollStatus.unavailable(reasonBuilder.toString());
+                }
+            }
+        }
+        return PollStatus.unresponsive();
+    }
+
     protected Calendar getCalendarInstance() {
         return GregorianCalendar.getInstance();
     }
@@ -0,0 +1,225 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.ParameterMap;
+import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for the non-blocking socket monitors.
+ *
+ * Implements the retry loop of the blocking monitors on top of {@link AsyncLineSession}: each
+ * attempt is started as soon as the previous one completed without making the service available,
+ * until the retries of the {@link TimeoutTracker} are exhausted. When <em>strict-timeout</em> is
+ * set, the next attempt is scheduled on the event loop instead of sleeping.
+ *
+ * Subclasses implement a single attempt in {@link #pollOnce(MonitoredService, Map, TimeoutTracker)}.
+ */
+public abstract class AbstractAsyncServiceMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractAsyncServiceMonitor.class);
+
+    private static final int DEFAULT_RETRY = 0;
+
+    private static final int DEFAULT_TIMEOUT = 3000;
+
+    @Override
+    public PollStatus poll(final MonitoredService svc, final Map<String, Object> parameters) {
+        try {
+            return pollAsync(svc, parameters).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return PollStatus.unknown("Interrupted while polling " + svc);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, getDefaultRetry(), getDefaultTimeout());
+        final boolean strictTimeouts = ParameterMap.getKeyedBoolean(parameters, "strict-timeout", false);
+        LOG.debug("poll: address = {}, {}", InetAddressUtils.str(svc.getAddress()), tracker);
+
+        final CompletableFuture<PollStatus> result = new CompletableFuture<>();
+        tracker.reset();
+        attempt(svc, parameters, tracker, strictTimeouts, PollStatus.unavailable(), result);
+        return result;
+    }
+
+    private void attempt(final MonitoredService svc, final Map<String, Object> parameters, final TimeoutTracker tracker,
+                         final boolean strictTimeouts, final PollStatus lastStatus, final CompletableFuture<PollStatus> result) {
+        if (!tracker.shouldRetry()) {
+            result.complete(lastStatus);
+            return;
+        }
+
+        final CompletableFuture<PollStatus> attempt;
+        try {
+            tracker.startAttempt();
+            attempt = pollOnce(svc, parameters, tracker);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+
+        attempt.whenComplete((status, ex) -> {
+            if (ex != null) {
+                final Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                if (cause instanceof FinalPollStatus) {
+                    result.complete(((FinalPollStatus)cause).getPollStatus());
+                    return;
+                }
+                if (!(cause instanceof IOException)) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                status = getPollStatusForException(svc, tracker, (IOException)cause);
+                if (cause instanceof NoRouteToHostException && !retryOnNoRouteToHost()) {
+                    result.complete(status);
+                    return;
+                }
+            }
+
+            if (status.isAvailable()) {
+                result.complete(status);
+                return;
+            }
+
+            // Honor strict timeouts by waiting for the remainder of the attempt before starting the next one
+            final long delayInNanos = strictTimeouts ? TimeUnit.MILLISECONDS.toNanos(tracker.getTimeoutInMillis()) - tracker.elapsedTimeNanos() : 0L;
+            final PollStatus currentStatus = status;
+            tracker.nextAttempt();
+            if (delayInNanos > 0 && tracker.shouldRetry()) {
+                AsyncLineSession.getEventLoopGroup().schedule(() -> attempt(svc, parameters, tracker, strictTimeouts, currentStatus, result),
+                        delayInNanos, TimeUnit.NANOSECONDS);
+            } else {
+                attempt(svc, parameters, tracker, strictTimeouts, currentStatus, result);
+            }
+        });
+    }
+
+    /**
+     * Performs a single attempt.
+     *
+     * I/O errors should be reported by completing the future exceptionally with the corresponding
+     * {@link IOException}, which is then mapped using {@link #getPollStatusForException(MonitoredService, TimeoutTracker, IOException)}.
+     * A {@link FinalPollStatus} ends the poll with its status without any further attempts.
+     * Any other exception aborts the poll.
+     */
+    protected abstract CompletableFuture<PollStatus> pollOnce(MonitoredService svc, Map<String, Object> parameters, TimeoutTracker tracker);
+
+    /**
+     * Maps an I/O error to a poll status, using the same reasons as the blocking monitors.
+     */
+    protected PollStatus getPollStatusForException(final MonitoredService svc, final TimeoutTracker tracker, final IOException e) {
+        final InetAddress ipAddr = svc.getAddress();
+        final String reason;
+        if (e instanceof NoRouteToHostException) {
+            reason = "No route to host exception for address " + InetAddressUtils.str(ipAddr);
+            LOG.debug(reason, e);
+        } else if (e instanceof InterruptedIOException) {
+            reason = "did not connect to host with " + tracker;
+            LOG.debug(reason);
+        } else if (e instanceof ConnectException) {
+            reason = "Connection exception for address: " + ipAddr;
+            LOG.debug(reason, e);
+        } else {
+            reason = "IOException while polling address: " + ipAddr;
+            LOG.debug(reason, e);
+        }
+        return PollStatus.unavailable(reason);
+    }
+
+    /**
+     * @return {@code true} if the poll should be retried after a {@link NoRouteToHostException}
+     */
+    protected boolean retryOnNoRouteToHost() {
+        return false;
+    }
+
+    /**
+     * Ends the poll with the given status without retrying, like returning from within the retry
+     * loop of a blocking monitor.
+     */
+    protected static final class FinalPollStatus extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final PollStatus m_pollStatus;
+
+        public FinalPollStatus(final PollStatus pollStatus) {
+            super(pollStatus.getReason(), null, false, false);
+            m_pollStatus = pollStatus;
+        }
+
+        public PollStatus getPollStatus() {
+            return m_pollStatus;
+        }
+    }
+
+    protected int getDefaultRetry() {
+        return DEFAULT_RETRY;
+    }
+
+    protected int getDefaultTimeout() {
+        return DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * Opens a session and makes sure it is closed once the given attempt completed.
+     */
+    protected static CompletableFuture<PollStatus> withSession(final CompletableFuture<AsyncLineSession> session,
+                                                               final Function<AsyncLineSession, CompletableFuture<PollStatus>> attempt) {
+        return session.thenCompose(s -> {
+            final CompletableFuture<PollStatus> status;
+            try {
+                status = attempt.apply(s);
+            } catch (RuntimeException e) {
+                s.close();
+                throw e;
+            }
+            return status.whenComplete((res, ex) -> s.close());
+        });
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+
+import org.opennms.core.utils.RelaxedX509ExtendedTrustManager;
+import org.opennms.core.utils.TimeoutTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.JdkSslContext;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * A non-blocking, line oriented client connection used by the asynchronous service monitors.
+ *
+ * All sessions share a single, small event loop group. Reads are performed one line at a time and
+ * are bounded by the timeout of the {@link TimeoutTracker} used to open the session, which mirrors
+ * the behavior of a blocking socket with {@link java.net.Socket#setSoTimeout(int)} set.
+ *
+ * Failures are reported using the same exception types as the blocking socket API, i.e. timeouts
+ * complete the futures with a {@link SocketTimeoutException} and connection failures with
+ * {@link java.net.ConnectException} or {@link java.net.NoRouteToHostException}, so that the
+ * monitors can map them to the same {@link org.opennms.netmgt.poller.PollStatus} as their
+ * synchronous counterparts.
+ */
+public class AsyncLineSession implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncLineSession.class);
+
+    public static final String THREADS_PROPERTY = "org.opennms.netmgt.poller.monitors.async.threads";
+
+    public static final String MAX_LINE_LENGTH_PROPERTY = "org.opennms.netmgt.poller.monitors.async.maxLineLength";
+
+    private static final int MAX_LINE_LENGTH = Integer.getInteger(MAX_LINE_LENGTH_PROPERTY, 1024 * 1024);
+
+    private static final String SSL_HANDLER = "ssl";
+
+    private static final AttributeKey<AsyncLineSession> SESSION_KEY = AttributeKey.valueOf(AsyncLineSession.class, "session");
+
+    private static final class EventLoopHolder {
+        private static final EventLoopGroup GROUP = new NioEventLoopGroup(
+                Integer.getInteger(THREADS_PROPERTY, Math.max(2, Runtime.getRuntime().availableProcessors())),
+                new DefaultThreadFactory("poller-async-monitor", true));
+    }
+
+    private static final class ResolverHolder {
+        // Name resolution blocks, so it must never run on the event loop or on the caller of pollAsync()
+        private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+                new DefaultThreadFactory("poller-async-resolver", true));
+    }
+
+    private static final class SslContextHolder {
+        private static final SslContext CONTEXT = createRelaxedSslContext();
+    }
+
+    private final Channel m_channel;
+    private final Charset m_charset;
+    private final long m_readTimeoutMillis;
+
+    // The following fields are only ever accessed from the event loop of the channel
+    private final Queue<String> m_lines = new ArrayDeque<>();
+    private CompletableFuture<String> m_pendingRead;
+    private Predicate<String> m_pendingPredicate;
+    private ScheduledFuture<?> m_pendingTimeout;
+    private Throwable m_failure;
+    private boolean m_endOfStream = false;
+
+    private AsyncLineSession(final Channel channel, final Charset charset, final long readTimeoutMillis) {
+        m_channel = channel;
+        m_charset = charset;
+        m_readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @return the event loop group shared by all asynchronous monitors
+     */
+    public static EventLoopGroup getEventLoopGroup() {
+        return EventLoopHolder.GROUP;
+    }
+
+    /**
+     * Resolves the canonical host name of the given address on a dedicated thread pool.
+     */
+    public static CompletableFuture<String> resolveCanonicalHostName(final InetAddress address) {
+        return CompletableFuture.supplyAsync(address::getCanonicalHostName, ResolverHolder.EXECUTOR);
+    }
+
+    /**
+     * @return an SSL context which accepts any certificate, equivalent to {@link org.opennms.core.utils.SocketUtils#wrapSocketInSslContext(java.net.Socket)}
+     */
+    public static SslContext getRelaxedSslContext() {
+        return SslContextHolder.CONTEXT;
+    }
+
+    /**
+     * Opens a plain-text session.
+     */
+    public static CompletableFuture<AsyncLineSession> connect(final InetAddress address, final int port, final TimeoutTracker tracker, final Charset charset) {
+        return connect(address, port, tracker, charset, null, null);
+    }
+
+    /**
+     * Opens a session, optionally wrapped in TLS. When an SSL context is given, the returned future
+     * completes only after the handshake has succeeded.
+     *
+     * @param sslContext the SSL context to use or {@code null} for a plain-text session
+     * @param serverName the host name used for SNI or {@code null}
+     */
+    public static CompletableFuture<AsyncLineSession> connect(final InetAddress address, final int port, final TimeoutTracker tracker, final Charset charset,
+                                                             final SslContext sslContext, final String serverName) {
+        final CompletableFuture<AsyncLineSession> future = new CompletableFuture<>();
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(getEventLoopGroup())
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, tracker.getConnectionTimeout())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel ch) {
+                        final AsyncLineSession session = new AsyncLineSession(ch, charset, tracker.getSoTimeout());
+                        ch.pipeline().addLast(new LineBasedFrameDecoder(MAX_LINE_LENGTH, true, false));
+                        ch.pipeline().addLast(new StringDecoder(charset));
+                        ch.pipeline().addLast(session.new LineHandler());
+                        ch.attr(SESSION_KEY).set(session);
+                    }
+                });
+
+        final ChannelFuture connectFuture = bootstrap.connect(new InetSocketAddress(address, port));
+        connectFuture.addListener(f -> {
+            if (!f.isSuccess()) {
+                future.completeExceptionally(translate(f.cause()));
+                return;
+            }
+            final AsyncLineSession session = connectFuture.channel().attr(SESSION_KEY).get();
+            if (sslContext == null) {
+                future.complete(session);
+            } else {
+                session.startTls(sslContext, serverName).whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        session.close();
+                        future.completeExceptionally(ex);
+                    } else {
+                        future.complete(session);
+                    }
+                });
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Upgrades the session to TLS, i.e. after a STARTTLS exchange.
+     *
+     * @return a future completed once the handshake succeeded
+     */
+    public CompletableFuture<Void> startTls(final SslContext sslContext, final String serverName) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        runInEventLoop(() -> {
+            final InetSocketAddress remote = (InetSocketAddress)m_channel.remoteAddress();
+            final SslHandler sslHandler = serverName == null || serverName.isEmpty()
+                    ? sslContext.newHandler(m_channel.alloc(), remote.getHostString(), remote.getPort())
+                    : sslContext.newHandler(m_channel.alloc(), serverName, remote.getPort());
+            sslHandler.setHandshakeTimeoutMillis(m_readTimeoutMillis);
+            m_channel.pipeline().addFirst(SSL_HANDLER, sslHandler);
+            sslHandler.handshakeFuture().addListener(f -> {
+                if (f.isSuccess()) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(translate(f.cause()));
+                }
+            });
+        });
+        return future;
+    }
+
+    /**
+     * @return the TLS session, or {@code null} if the session is not encrypted
+     */
+    public SSLSession getSslSession() {
+        final SslHandler sslHandler = (SslHandler)m_channel.pipeline().get(SSL_HANDLER);
+        return sslHandler != null ? sslHandler.engine().getSession() : null;
+    }
+
+    public Certificate[] getPeerCertificates() throws SSLPeerUnverifiedException {
+        final SSLSession session = getSslSession();
+        if (session == null) {
+            throw new SSLPeerUnverifiedException("Session is not encrypted");
+        }
+        return session.getPeerCertificates();
+    }
+
+    /**
+     * Reads the next line, without the line terminator.
+     *
+     * Only a single read may be outstanding at any point in time.
+     *
+     * @return a future completed with the line, or with {@code null} when the peer closed the connection
+     */
+    public CompletableFuture<String> readLine() {
+        return readUntil(line -> true);
+    }
+
+    /**
+     * Reads lines until one matches the given predicate. The read timeout applies to each line
+     * individually, as it would for a blocking socket.
+     *
+     * Only a single read may be outstanding at any point in time.
+     *
+     * @return a future completed with the first matching line, or with {@code null} when the peer closed the connection
+     */
+    public CompletableFuture<String> readUntil(final Predicate<String> predicate) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        runInEventLoop(() -> {
+            if (m_pendingRead != null) {
+                future.completeExceptionally(new IllegalStateException("A read is already in progress."));
+                return;
+            }
+            while (!m_lines.isEmpty()) {
+                final String line = m_lines.poll();
+                if (predicate.test(line)) {
+                    future.complete(line);
+                    return;
+                }
+            }
+            if (m_failure != null) {
+                future.completeExceptionally(m_failure);
+            } else if (m_endOfStream) {
+                future.complete(null);
+            } else {
+                m_pendingRead = future;
+                m_pendingPredicate = predicate;
+                scheduleReadTimeout();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Reads all lines until the peer closes the connection or the read times out.
+     *
+     * @return a future completed with the received lines, each terminated with CRLF
+     */
+    public CompletableFuture<String> readUntilIdle() {
+        final StringBuilder sb = new StringBuilder();
+        return readUntil(line -> {
+            sb.append(line).append("\r\n");
+            return false;
+        }).handle((line, ex) -> {
+            if (ex != null && !(ex instanceof SocketTimeoutException)) {
+                throw ex instanceof CompletionException ? (CompletionException)ex : new CompletionException(ex);
+            }
+            return sb.toString();
+        });
+    }
+
+    /**
+     * Writes the given string, as is, to the connection.
+     */
+    public CompletableFuture<Void> write(final String data) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        m_channel.writeAndFlush(Unpooled.copiedBuffer(data, m_charset)).addListener(f -> {
+            if (f.isSuccess()) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(translate(f.cause()));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Writes the given string and reads the next line.
+     */
+    public CompletableFuture<String> sendAndReadLine(final String data) {
+        return write(data).thenCompose(v -> readLine());
+    }
+
+    @Override
+    public void close() {
+        m_channel.close();
+    }
+
+    private void runInEventLoop(final Runnable runnable) {
+        if (m_channel.eventLoop().inEventLoop()) {
+            runnable.run();
+        } else {
+            m_channel.eventLoop().execute(runnable);
+        }
+    }
+
+    private void scheduleReadTimeout() {
+        final CompletableFuture<String> future = m_pendingRead;
+        m_pendingTimeout = m_channel.eventLoop().schedule(() -> {
+            if (m_pendingRead == future) {
+                m_pendingRead = null;
+                m_pendingPredicate = null;
+                m_pendingTimeout = null;
+                future.completeExceptionally(new SocketTimeoutException("Read timed out"));
+            }
+        }, m_readTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void completePendingRead(final String line, final Throwable failure) {
+        final CompletableFuture<String> pendingRead = m_pendingRead;
+        m_pendingRead = null;
+        m_pendingPredicate = null;
+        if (m_pendingTimeout != null) {
+            m_pendingTimeout.cancel(false);
+            m_pendingTimeout = null;
+        }
+        if (failure != null) {
+            pendingRead.completeExceptionally(failure);
+        } else {
+            pendingRead.complete(line);
+        }
+    }
+
+    private static Throwable translate(final Throwable cause) {
+        if (cause instanceof ConnectTimeoutException) {
+            // Blocking sockets report connect timeouts as SocketTimeoutException
+            final SocketTimeoutException ex = new SocketTimeoutException(cause.getMessage());
+            ex.initCause(cause);
+            return ex;
+        } else if (cause instanceof IOException) {
+            return cause;
+        }
+        return new IOException(cause.getMessage(), cause);
+    }
+
+    private static SslContext createRelaxedSslContext() {
+        try {
+            final SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] { new RelaxedX509ExtendedTrustManager() }, new java.security.SecureRandom());
+            return new JdkSslContext(sslContext, true, ClientAuth.NONE);
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            LOG.error("Failed to initialize the SSL context for the asynchronous monitors.", e);
+            throw new IllegalStateException("Failed to initialize the SSL context: " + e);
+        }
+    }
+
+    private class LineHandler extends SimpleChannelInboundHandler<String> {
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final String line) {
+            if (m_pendingRead == null) {
+                m_lines.add(line);
+            } else if (m_pendingPredicate.test(line)) {
+                completePendingRead(line, null);
+            } else {
+                // Restart the read timeout for the next line
+                m_pendingTimeout.cancel(false);
+                scheduleReadTimeout();
+            }
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+            m_endOfStream = true;
+            if (m_pendingRead != null) {
+                completePendingRead(null, null);
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+            LOG.debug("Error on channel {}.", ctx.channel(), cause);
+            m_failure = translate(cause);
+            if (m_pendingRead != null) {
+                completePendingRead(null, m_failure);
+            }
+            ctx.close();
+        }
+    }
+}
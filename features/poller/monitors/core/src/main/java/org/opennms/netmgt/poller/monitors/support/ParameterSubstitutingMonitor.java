@@ -167,7 +167,7 @@ public abstract class ParameterSubstitutingMonitor extends AbstractServiceMonito
         return formattedString;
     }
 
-    protected static String resolveKeyedString(final Map<String, Object> parameterMap, final String key, final String defaultValue) {
+    public static String resolveKeyedString(final Map<String, Object> parameterMap, final String key, final String defaultValue) {
         String ret = ParameterMap.getKeyedString(parameterMap, key, defaultValue);
         String subKey = "subbed-" + key;
         if (parameterMap.containsKey(subKey)) {
@@ -0,0 +1,141 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MockMonitoredService;
+
+public class AsyncHttpMonitorTest {
+
+    private ScriptedLineServer m_server;
+
+    private volatile String m_statusLine = "HTTP/1.1 200 OK";
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_server != null) {
+            m_server.close();
+        }
+    }
+
+    @Test
+    public void canPollHttp() throws Exception {
+        m_server = new ScriptedLineServer(this::respond);
+        final PollStatus status = new AsyncHttpMonitor().poll(getService(), getParameters());
+        assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        assertTrue(m_server.getReceived().contains("GET / HTTP/1.1"));
+    }
+
+    @Test
+    public void canPollHttps() throws Exception {
+        m_server = new ScriptedLineServer(this::respond, true);
+        final PollStatus status = new AsyncHttpsMonitor().poll(getService(), getParameters());
+        assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        assertTrue(m_server.getReceived().contains("GET / HTTP/1.1"));
+    }
+
+    @Test
+    public void canDetectUnexpectedResponseCode() throws Exception {
+        m_statusLine = "HTTP/1.1 500 Internal Server Error";
+        m_server = new ScriptedLineServer(this::respond);
+        final Map<String, Object> parameters = getParameters();
+        parameters.put(HttpMonitor.PARAMETER_RESPONSE, "200");
+        final PollStatus status = new AsyncHttpMonitor().poll(getService(), parameters);
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("HTTP response value: 500. Expecting: 200./Ports: " + m_server.getPort(), status.getReason());
+    }
+
+    @Test
+    public void canMatchResponseText() throws Exception {
+        m_server = new ScriptedLineServer(this::respond);
+        final Map<String, Object> parameters = getParameters();
+        parameters.put(HttpMonitor.PARAMETER_RESPONSE_TEXT, "~.*OpenNMS.*");
+        assertEquals(PollStatus.SERVICE_AVAILABLE, new AsyncHttpMonitor().poll(getService(), parameters).getStatusCode());
+
+        parameters.put(HttpMonitor.PARAMETER_RESPONSE_TEXT, "Goodbye");
+        final PollStatus status = new AsyncHttpMonitor().poll(getService(), parameters);
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Matching text: [Goodbye] not found in body of HTTP response/Ports: " + m_server.getPort(), status.getReason());
+    }
+
+    @Test
+    public void canSendVirtualHost() throws Exception {
+        m_server = new ScriptedLineServer(this::respond);
+        final Map<String, Object> parameters = getParameters();
+        parameters.put(HttpMonitor.PARAMETER_HOST_NAME, "www.example.org");
+        new AsyncHttpMonitor().poll(getService(), parameters);
+        assertTrue(m_server.getReceived().contains("Host: www.example.org"));
+
+        parameters.remove(HttpMonitor.PARAMETER_HOST_NAME);
+        parameters.put(HttpMonitor.PARAMETER_RESOLVE_IP, "true");
+        assertEquals(PollStatus.SERVICE_AVAILABLE, new AsyncHttpMonitor().pollAsync(getService(), parameters).join().getStatusCode());
+        assertTrue(m_server.getReceived().contains("Host: " + InetAddress.getLoopbackAddress().getCanonicalHostName()));
+
+        parameters.remove(HttpMonitor.PARAMETER_RESOLVE_IP);
+        parameters.put(HttpMonitor.PARAMETER_NODE_LABEL_HOST_NAME, "true");
+        new AsyncHttpMonitor().poll(new MockMonitoredService(1, "node-label.example.org", InetAddress.getLoopbackAddress(), "HTTP"), parameters);
+        assertTrue(m_server.getReceived().contains("Host: node-label.example.org"));
+    }
+
+    private void respond(final ScriptedLineServer.Connection connection) throws IOException {
+        String line;
+        do {
+            line = connection.readLine();
+        } while (line != null && !line.isEmpty());
+        connection.writeLine(m_statusLine);
+        connection.writeLine("Content-Type: text/plain");
+        connection.writeLine("Connection: close");
+        connection.writeLine("");
+        connection.writeLine("Hello OpenNMS");
+    }
+
+    private static MonitoredService getService() {
+        return new MockMonitoredService(1, "localhost", InetAddress.getLoopbackAddress(), "HTTP");
+    }
+
+    private Map<String, Object> getParameters() {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put(HttpMonitor.PARAMETER_PORT, Integer.toString(m_server.getPort()));
+        parameters.put("timeout", "2000");
+        parameters.put("retry", "1");
+        return parameters;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MockMonitoredService;
+
+/**
+ * Verifies the SMTP, IMAP and POP3 dialogs of the asynchronous mail monitors.
+ */
+public class AsyncMailMonitorsTest {
+
+    private ScriptedLineServer m_server;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_server != null) {
+            m_server.close();
+        }
+    }
+
+    @Test
+    public void canPollSmtp() throws Exception {
+        m_server = new ScriptedLineServer(c -> {
+            c.writeLine("220-localhost.localdomain ESMTP bogon");
+            c.writeLine("220 multi-line banner");
+            if (c.readLine().startsWith("HELO ")) {
+                c.writeLine("250 Hello");
+            }
+            if ("QUIT".equals(c.readLine())) {
+                c.writeLine("221 See ya");
+            }
+        });
+        assertEquals(PollStatus.SERVICE_AVAILABLE, new AsyncSmtpMonitor().poll(getService("SMTP"), getParameters()).getStatusCode());
+        assertEquals("QUIT", m_server.getReceived().get(1));
+    }
+
+    @Test
+    public void canDetectSmtpRejectingTransactions() throws Exception {
+        m_server = new ScriptedLineServer(c -> {
+            c.writeLine("554 go away");
+            c.readLine();
+            c.writeLine("221 bye");
+        });
+        final PollStatus status = new AsyncSmtpMonitor().poll(getService("SMTP"), getParameters());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Server rejecting transactions with 554", status.getReason());
+    }
+
+    @Test
+    public void canPollImap() throws Exception {
+        m_server = new ScriptedLineServer(c -> {
+            c.writeLine("* OK IMAP4rev1 ready");
+            if ("ONMSPOLLER LOGOUT".equals(c.readLine())) {
+                c.writeLine("* BYE logging out");
+                c.writeLine("ONMSPOLLER OK LOGOUT completed");
+            }
+        });
+        assertEquals(PollStatus.SERVICE_AVAILABLE, new AsyncImapMonitor().poll(getService("IMAP"), getParameters()).getStatusCode());
+    }
+
+    @Test
+    public void canDetectBadImapBanner() throws Exception {
+        m_server = new ScriptedLineServer(c -> c.writeLine("* NO not today"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, new AsyncImapMonitor().poll(getService("IMAP"), getParameters()).getStatusCode());
+    }
+
+    @Test
+    public void canPollPop3() throws Exception {
+        m_server = new ScriptedLineServer(c -> {
+            c.writeLine("+OK POP3 ready");
+            if ("QUIT".equals(c.readLine())) {
+                c.writeLine("+OK bye");
+            }
+        });
+        assertEquals(PollStatus.SERVICE_AVAILABLE, new AsyncPop3Monitor().poll(getService("POP3"), getParameters()).getStatusCode());
+        assertEquals(Arrays.asList("QUIT"), m_server.getReceived());
+    }
+
+    @Test
+    public void canDetectPop3Error() throws Exception {
+        m_server = new ScriptedLineServer(c -> {
+            c.writeLine("+OK POP3 ready");
+            c.readLine();
+            c.writeLine("-ERR no");
+        });
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, new AsyncPop3Monitor().poll(getService("POP3"), getParameters()).getStatusCode());
+    }
+
+    private static MonitoredService getService(final String svcName) {
+        return new MockMonitoredService(1, "localhost", InetAddress.getLoopbackAddress(), svcName);
+    }
+
+    private Map<String, Object> getParameters() {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("port", Integer.toString(m_server.getPort()));
+        parameters.put("timeout", "2000");
+        parameters.put("retry", "1");
+        return parameters;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MockMonitoredService;
+
+/**
+ * The snakeoil certificate in <code>JUnitHttpServer.keystore</code> is valid from
+ * 2016-11-08 until 2017-11-03, so the current time is pinned for each test.
+ */
+public class AsyncSslCertMonitorTest {
+
+    private ScriptedLineServer m_server;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_server != null) {
+            m_server.close();
+        }
+    }
+
+    @Test
+    public void canCheckValidCertificate() throws Exception {
+        m_server = new ScriptedLineServer(ScriptedLineServer.Connection::readLine, true);
+        final PollStatus status = getMonitor(2017, Calendar.MARCH, 1).poll(getService(), getParameters());
+        assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+    }
+
+    @Test
+    public void canDetectExpiringCertificate() throws Exception {
+        m_server = new ScriptedLineServer(ScriptedLineServer.Connection::readLine, true);
+        final PollStatus status = getMonitor(2017, Calendar.OCTOBER, 30).poll(getService(), getParameters());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().contains("is valid, but will expire within 7 days"));
+    }
+
+    @Test
+    public void canDetectExpiredCertificate() throws Exception {
+        m_server = new ScriptedLineServer(ScriptedLineServer.Connection::readLine, true);
+        final PollStatus status = getMonitor(2018, Calendar.JANUARY, 1).poll(getService(), getParameters());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().contains("is no longer valid"));
+    }
+
+    @Test
+    public void doesNotRetryWithoutStartTls() throws Exception {
+        m_server = new ScriptedLineServer(c -> {
+            c.readLine();
+            c.writeLine("502 Command not implemented");
+        });
+        final Map<String, Object> parameters = getParameters();
+        parameters.put("retry", "2");
+        parameters.put(SSLCertMonitor.PARAMETER_STLS_START, "STARTTLS\r\n");
+        parameters.put(SSLCertMonitor.PARAMETER_STLS_START_RESP, "(?s).*220 .*");
+
+        final PollStatus status = getMonitor(2017, Calendar.MARCH, 1).poll(getService(), parameters);
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("STARTTLS requested, but server does not support STARTTLS.", status.getReason());
+        assertEquals(1, m_server.getConnections());
+    }
+
+    private static AsyncSslCertMonitor getMonitor(final int year, final int month, final int day) {
+        return new AsyncSslCertMonitor() {
+            @Override
+            protected Calendar getCalendarInstance() {
+                final Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+                calendar.clear();
+                calendar.set(year, month, day);
+                return calendar;
+            }
+        };
+    }
+
+    private static MonitoredService getService() {
+        return new MockMonitoredService(1, "localhost", InetAddress.getLoopbackAddress(), "SSL-Cert");
+    }
+
+    private Map<String, Object> getParameters() {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put(SSLCertMonitor.PARAMETER_PORT, Integer.toString(m_server.getPort()));
+        parameters.put("timeout", "2000");
+        parameters.put("retry", "1");
+        return parameters;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MockMonitoredService;
+
+public class AsyncTcpMonitorTest {
+
+    private ServerSocket m_serverSocket;
+
+    private Thread m_serverThread;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+
+        m_serverSocket = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+        m_serverThread = new Thread(() -> {
+            while (!m_serverSocket.isClosed()) {
+                try (Socket socket = m_serverSocket.accept()) {
+                    final OutputStream out = socket.getOutputStream();
+                    out.write("220 OpenNMS test banner\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        }, "AsyncTcpMonitorTest-server");
+        m_serverThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_serverSocket.close();
+        m_serverThread.join();
+    }
+
+    @Test
+    public void canMatchBanner() {
+        final PollStatus status = new AsyncTcpMonitor().poll(getService(), getParameters(m_serverSocket.getLocalPort(), "OpenNMS"));
+        assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        assertNull(status.getReason());
+    }
+
+    @Test
+    public void canMatchBannerWithRegex() {
+        final PollStatus status = new AsyncTcpMonitor().poll(getService(), getParameters(m_serverSocket.getLocalPort(), "~^220 .*$"));
+        assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+    }
+
+    @Test
+    public void canDetectBannerMismatch() {
+        final PollStatus status = new AsyncTcpMonitor().poll(getService(), getParameters(m_serverSocket.getLocalPort(), "SSH"));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Banner: '220 OpenNMS test banner' does not contain match string 'SSH'", status.getReason());
+    }
+
+    @Test
+    public void canDetectClosedPort() throws IOException {
+        final int port;
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = unused.getLocalPort();
+        }
+        final PollStatus status = new AsyncTcpMonitor().poll(getService(), getParameters(port, null));
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("Connection exception for address"));
+    }
+
+    @Test
+    public void canPollConcurrently() {
+        final AsyncTcpMonitor monitor = new AsyncTcpMonitor();
+        final List<CompletableFuture<PollStatus>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(monitor.pollAsync(getService(), getParameters(m_serverSocket.getLocalPort(), "OpenNMS")));
+        }
+        for (CompletableFuture<PollStatus> future : futures) {
+            assertEquals(PollStatus.SERVICE_AVAILABLE, future.join().getStatusCode());
+        }
+    }
+
+    private static MonitoredService getService() {
+        return new MockMonitoredService(1, "localhost", InetAddress.getLoopbackAddress(), "TCP");
+    }
+
+    private static Map<String, Object> getParameters(final int port, final String banner) {
+        final Map<String, Object> parameters = new HashMap<>();
+        parameters.put("port", Integer.toString(port));
+        parameters.put("timeout", "2000");
+        parameters.put("retry", "1");
+        if (banner != null) {
+            parameters.put("banner", banner);
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.netmgt.poller.monitors;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Minimal line based server on the loopback interface used to exercise the asynchronous monitors.
+ *
+ * Every accepted connection is handed to the given {@link Script}, optionally over TLS using the
+ * snakeoil certificate in <code>JUnitHttpServer.keystore</code>.
+ */
+public class ScriptedLineServer implements Closeable {
+
+    @FunctionalInterface
+    public interface Script {
+        void run(Connection connection) throws IOException;
+    }
+
+    public static final class Connection {
+        private final BufferedReader m_in;
+        private final OutputStream m_out;
+        private final List<String> m_received;
+
+        private Connection(final Socket socket, final List<String> received) throws IOException {
+            m_in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            m_out = socket.getOutputStream();
+            m_received = received;
+        }
+
+        public String readLine() throws IOException {
+            final String line = m_in.readLine();
+            if (line != null) {
+                m_received.add(line);
+            }
+            return line;
+        }
+
+        public void writeLine(final String line) throws IOException {
+            m_out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            m_out.flush();
+        }
+    }
+
+    private final ServerSocket m_serverSocket;
+
+    private final Thread m_serverThread;
+
+    private final AtomicInteger m_connections = new AtomicInteger();
+
+    private final List<String> m_received = new CopyOnWriteArrayList<>();
+
+    public ScriptedLineServer(final Script script) throws Exception {
+        this(script, false);
+    }
+
+    public ScriptedLineServer(final Script script, final boolean tls) throws Exception {
+        m_serverSocket = tls
+                ? getSslContext().getServerSocketFactory().createServerSocket(0, 100, InetAddress.getLoopbackAddress())
+                : new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+        m_serverThread = new Thread(() -> {
+            while (!m_serverSocket.isClosed()) {
+                try (Socket socket = m_serverSocket.accept()) {
+                    m_connections.incrementAndGet();
+                    script.run(new Connection(socket, m_received));
+                } catch (IOException e) {
+                    // Closed, or the client went away
+                }
+            }
+        }, "ScriptedLineServer");
+        m_serverThread.start();
+    }
+
+    public int getPort() {
+        return m_serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections accepted so far
+     */
+    public int getConnections() {
+        return m_connections.get();
+    }
+
+    /**
+     * @return all lines received from the clients, in order
+     */
+    public List<String> getReceived() {
+        return m_received;
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_serverSocket.close();
+        try {
+            m_serverThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static SSLContext getSslContext() throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream is = ScriptedLineServer.class.getResourceAsStream("/JUnitHttpServer.keystore")) {
+            keyStore.load(is, "opennms".toCharArray());
+        }
+        final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "opennms".toCharArray());
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+}
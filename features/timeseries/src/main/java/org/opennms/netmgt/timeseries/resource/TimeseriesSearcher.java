@@ -45,6 +45,7 @@ import org.opennms.integration.api.v1.timeseries.TagMatcher;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTagMatcher;
 import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
+import org.opennms.netmgt.timeseries.util.RollupTier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -176,7 +177,12 @@ public class TimeseriesSearcher {
         public Set<Metric> load(final TagMatcher tagMatcher) throws Exception {
             List<Metric> metricList = timeseriesStorageManager.get().findMetrics(Collections.singletonList(tagMatcher));
             Set<Metric> metrics = ConcurrentHashMap.newKeySet();
-            metrics.addAll(metricList);
+            for (Metric metric : metricList) {
+                // rollups are read in place of their raw metric, they are not attributes of their own
+                if (!RollupTier.isRollupMetric(metric)) {
+                    metrics.add(metric);
+                }
+            }
             return metrics;
         }
     }
@@ -32,6 +32,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -48,11 +49,14 @@ import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.integration.api.v1.timeseries.Aggregation;
 import org.opennms.integration.api.v1.timeseries.DataPoint;
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.Sample;
 import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.Tag;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesFetchRequest;
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.measurements.api.FetchResults;
@@ -70,10 +74,13 @@ import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManagerImpl;
 import org.opennms.netmgt.timeseries.sampleread.aggregation.NewtsLikeSampleAggregator;
+import org.opennms.netmgt.timeseries.samplewrite.TimeseriesWriterConfig;
+import org.opennms.netmgt.timeseries.util.RollupTier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.orm.ObjectRetrievalFailureException;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
@@ -94,6 +101,11 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * cores, but can be reduced if the operator wishes to ensure cores are available
  * for other purposes.
  *
+ * If rollup tiers are configured, see {@link RollupTier}, the coarsest tier that is not coarser than the requested
+ * step is read instead of the raw samples, as long as it covers the requested range. The open bucket of the tier has
+ * not been written yet, so the samples after the last rollup are read from the raw samples. The tiers are taken from
+ * the {@link TimeseriesWriterConfig} which the rollups are written with.
+ *
  * @author jwhite
  */
 public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
@@ -114,6 +126,10 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
     private TimeseriesStorageManager storageManager;
     private Timer sampleReadTsTimer;
     private Timer sampleReadIntegrationTimer;
+    private Meter rollupHits;
+    private Meter rollupMisses;
+
+    private List<RollupTier> rollupTiers = Collections.emptyList();
 
     // we can only have a non args constructor in order for MeasurementFetchStrategyFactory to instantiate us
     public TimeseriesFetchStrategy(){}
@@ -271,18 +287,13 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
                     .build();
 
             Aggregation aggregationToUse = shouldAggregateNatively ? aggregation : Aggregation.NONE;
-            TimeSeriesFetchRequest request = ImmutableTimeSeriesFetchRequest.builder()
-                    .metric(metric)
-                    .start(start)
-                    .end(end)
-                    .step(Duration.ofMillis(lag.getStep()))
-                    .aggregation(aggregationToUse)
-                    .build();
-
-            TimeSeriesData timeSeriesData;
-            try (Timer.Context context = sampleReadTsTimer.time()) {
-                LOG.debug("Querying TimeseriesStorage for resource id {} with request: {}", resourceId, request);
-                timeSeriesData = storageManager.get().getTimeSeriesData(request);
+            TimeSeriesData timeSeriesData = null;
+            final Optional<RollupTier> tier = RollupTier.select(rollupTiers, lag.getStep());
+            if (tier.isPresent()) {
+                timeSeriesData = getRollupData(resourceId, tier.get(), metric, metricName, aggregation, aggregationToUse, start, end, lag);
+            }
+            if (timeSeriesData == null) {
+                timeSeriesData = getTimeSeriesData(resourceId, metric, aggregationToUse, start, end, lag);
             }
             // aggregate if timeseries implementation didn't do it natively
             if (!shouldAggregateNatively) {
@@ -301,6 +312,96 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
         return allDataPoints;
     }
 
+    private TimeSeriesData getTimeSeriesData(final String resourceId, final Metric metric, final Aggregation aggregation,
+                                             final Instant start, final Instant end, final LateAggregationParams lag) throws StorageException {
+        TimeSeriesFetchRequest request = ImmutableTimeSeriesFetchRequest.builder()
+                .metric(metric)
+                .start(start)
+                .end(end)
+                .step(Duration.ofMillis(lag.getStep()))
+                .aggregation(aggregation)
+                .build();
+
+        try (Timer.Context context = sampleReadTsTimer.time()) {
+            LOG.debug("Querying TimeseriesStorage for resource id {} with request: {}", resourceId, request);
+            return storageManager.get().getTimeSeriesData(request);
+        }
+    }
+
+    /**
+     * Reads the rollups of the given tier in place of the raw samples, followed by the raw samples after the last
+     * rollup.
+     *
+     * @return the rollups presented as data of the raw metric, or null if the tier does not cover the requested range
+     */
+    private TimeSeriesData getRollupData(final String resourceId, final RollupTier tier, final Metric metric, final String metricName,
+                                         final Aggregation aggregation, final Aggregation aggregationToUse,
+                                         final Instant start, final Instant end, final LateAggregationParams lag) throws StorageException {
+        final Metric rollupMetric = tier.getRollupMetric(metric, toRollupFunction(aggregation));
+        final TimeSeriesData rollups = getTimeSeriesData(resourceId, rollupMetric, aggregationToUse, start, end, lag);
+
+        // Rollups only exist from the moment they were enabled, and min/max rollups are not kept for counters
+        final List<Instant> times = rollups == null ? Collections.emptyList() : rollups.getDataPoints().stream()
+                .map(DataPoint::getTime)
+                .sorted()
+                .collect(Collectors.toList());
+        final Duration slack = tier.getDuration().multipliedBy(2);
+        if (times.isEmpty() || times.get(0).isAfter(start.plus(slack))) {
+            LOG.debug("Rollup tier {} does not cover {} from {}, reading raw samples.", tier, rollupMetric, start);
+            rollupMisses.mark();
+            return null;
+        }
+        // The last closed bucket ends where the open one starts, the rollups stop short of it if they are no longer
+        // written, i.e. when the tier was removed in the meantime. Aggregated points may be up to a step earlier.
+        final Instant first = times.get(0);
+        final Instant last = times.get(times.size() - 1);
+        final Instant closed = Instant.ofEpochMilli(tier.getBucketStart(Math.min(end.toEpochMilli(), System.currentTimeMillis())));
+        if (last.isBefore(closed.minus(slack).minusMillis(lag.getStep()))) {
+            LOG.debug("Rollup tier {} does not cover {} up to {}, reading raw samples.", tier, rollupMetric, closed);
+            rollupMisses.mark();
+            return null;
+        }
+        rollupHits.mark();
+
+        // Stitch the raw samples of the open bucket after the last rollup. Aggregated points are on the same grid
+        // of steps, so the raw data replaces the last aggregated point, which only holds part of its step.
+        final List<DataPoint> dataPoints = new ArrayList<>(rollups.getDataPoints());
+        final boolean aggregated = aggregationToUse != Aggregation.NONE;
+        final TimeSeriesData tail = last.isBefore(end) ? getTimeSeriesData(resourceId, metric, aggregationToUse, last, end, lag) : null;
+        if (tail != null) {
+            if (aggregated) {
+                dataPoints.removeIf(p -> !p.getTime().isBefore(last));
+            }
+            for (final DataPoint point : tail.getDataPoints()) {
+                if (aggregated ? !point.getTime().isBefore(last) : point.getTime().isAfter(last)) {
+                    dataPoints.add(point);
+                }
+            }
+        }
+        LOG.trace("Read {} from rollup tier {} from {} to {}, followed by raw samples up to {}.", metricName, tier, first, last, end);
+
+        // The samples are matched by metric name when they are aggregated, so they must carry the name of the raw metric
+        final ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder();
+        for (final Tag tag : rollups.getMetric().getIntrinsicTags()) {
+            builder.intrinsicTag(tag.getKey(), IntrinsicTagNames.name.equals(tag.getKey()) ? metricName : tag.getValue());
+        }
+        for (final Tag tag : rollups.getMetric().getMetaTags()) {
+            builder.metaTag(tag);
+        }
+        return ImmutableTimeSeriesData.builder()
+                .metric(builder.build())
+                .dataPoints(dataPoints)
+                .build();
+    }
+
+    private static RollupTier.Function toRollupFunction(final Aggregation aggregation) {
+        switch (aggregation) {
+            case MIN: return RollupTier.Function.MIN;
+            case MAX: return RollupTier.Function.MAX;
+            default: return RollupTier.Function.AVG;
+        }
+    }
+
     private static Aggregation toAggregation(String fn) {
         if ("average".equalsIgnoreCase(fn) || "avg".equalsIgnoreCase(fn)) {
             return Aggregation.AVERAGE;
@@ -342,6 +443,17 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
     protected void setMetricRegistry(@Named("timeseriesMetricRegistry") MetricRegistry registry) {
         this.sampleReadTsTimer = registry.timer("samples.read.ts");
         this.sampleReadIntegrationTimer = registry.timer("samples.read.integration");
+        this.rollupHits = registry.meter("samples.read.rollup.hits");
+        this.rollupMisses = registry.meter("samples.read.rollup.misses");
+    }
+
+    @Inject
+    protected void setTimeseriesWriterConfig(@Named("timeseriesWriterConfig") final TimeseriesWriterConfig config) {
+        this.rollupTiers = RollupTier.parse(config.getRollupTiers());
+    }
+
+    protected void setRollupTiers(final List<RollupTier> rollupTiers) {
+        this.rollupTiers = rollupTiers;
     }
 
     private OnmsNode getNode(final OnmsResource resource, final Source source) {
@@ -0,0 +1,119 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opennms.core.cache.Cache;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.model.IEvent;
+import org.opennms.netmgt.events.api.model.IParm;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.model.ResourceTypeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops the cached meta tags of the resources of a node when the node, its
+ * categories, its assets or its interfaces change, so that the tags are loaded again on
+ * the next collection instead of on every collection.
+ */
+public class MetaTagCacheInvalidator implements EventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetaTagCacheInvalidator.class);
+
+    public static final List<String> UEIS = Arrays.asList(
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+            EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+            EventConstants.ASSET_INFO_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.SERVICE_DELETED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI);
+
+    private final Cache<ResourcePath, Set<Tag>> metaTagCache;
+    private final MetaTagDataLoader metaTagDataLoader;
+
+    public MetaTagCacheInvalidator(final Cache<ResourcePath, Set<Tag>> metaTagCache, final MetaTagDataLoader metaTagDataLoader) {
+        this.metaTagCache = Objects.requireNonNull(metaTagCache);
+        this.metaTagDataLoader = Objects.requireNonNull(metaTagDataLoader);
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public void onEvent(final IEvent e) {
+        final Long nodeId = e.getNodeid();
+        if (nodeId == null || nodeId <= 0) {
+            return;
+        }
+
+        String foreignSource = getParm(e, EventConstants.PARM_FOREIGN_SOURCE);
+        String foreignId = getParm(e, EventConstants.PARM_FOREIGN_ID);
+        if ((foreignSource == null || foreignId == null) && !EventConstants.NODE_DELETED_EVENT_UEI.equals(e.getUei())) {
+            final String[] fsAndFid = metaTagDataLoader.getForeignSourceAndForeignId(nodeId.intValue());
+            if (fsAndFid != null) {
+                foreignSource = fsAndFid[0];
+                foreignId = fsAndFid[1];
+            }
+        }
+
+        LOG.debug("Dropping the cached meta tags of node {} after {}", nodeId, e.getUei());
+        invalidateNode(nodeId.toString(), foreignSource, foreignId);
+    }
+
+    protected void invalidateNode(final String nodeId, final String foreignSource, final String foreignId) {
+        metaTagCache.invalidateIf(path -> belongsToNode(path, nodeId, foreignSource, foreignId));
+    }
+
+    static boolean belongsToNode(final ResourcePath path, final String nodeId, final String foreignSource, final String foreignId) {
+        final String[] elements = path.elements();
+        if (elements.length == 0) {
+            return false;
+        }
+        if (elements[0].equals(nodeId)) {
+            return true;
+        }
+        return foreignSource != null && foreignId != null
+                && elements.length >= 3
+                && ResourceTypeUtils.FOREIGN_SOURCE_DIRECTORY.equals(elements[0])
+                && elements[1].equals(foreignSource)
+                && elements[2].equals(foreignId);
+    }
+
+    private static String getParm(final IEvent e, final String name) {
+        final IParm parm = e.getParm(name);
+        if (parm == null || parm.getValue() == null) {
+            return null;
+        }
+        return parm.getValue().getContent();
+    }
+}
@@ -173,6 +173,19 @@ public class MetaTagDataLoader extends CacheLoader<CollectionResource, Set<Tag>>
         }
     }
 
+    /**
+     * @return the foreign source and foreign id of the node or null if the node does not exist or was not provisioned
+     */
+    public String[] getForeignSourceAndForeignId(final int nodeId) {
+        return sessionUtils.withReadOnlyTransaction(() -> {
+            final Optional<OnmsNode> node = getNode(Integer.toString(nodeId));
+            if (node.isEmpty() || node.get().getForeignSource() == null || node.get().getForeignId() == null) {
+                return null;
+            }
+            return new String[]{node.get().getForeignSource(), node.get().getForeignId()};
+        });
+    }
+
     private Optional<OnmsNode> getNode(String nodeCriteria) {
         if (nodeCriteria == null || nodeCriteria.trim().isEmpty()) {
             return Optional.empty();
@@ -0,0 +1,171 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTag;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Keeps the {@link Metric} of every collected attribute so the same instance
+ * can be reused from one collection cycle to the next.
+ *
+ * A cached metric is only reused while the type, the meta tags and the string
+ * attributes it was built from are unchanged, otherwise it is rebuilt. The
+ * meta tags come from the meta tag cache, which is only reloaded when the node
+ * changes, so in the common case a lookup neither allocates tags nor metrics.
+ * Resource ids and attribute names are interned so all metrics of a resource
+ * share the same strings.
+ */
+public class MetricIdentityCache {
+
+    public static final long DEFAULT_MAXIMUM_RESOURCES = Long.getLong("org.opennms.timeseries.metricIdentityCache.maximumResources", 100000L);
+
+    private static final long EXPIRE_AFTER_ACCESS_HOURS = 1;
+
+    private final Interner<String> strings = Interners.newWeakInterner();
+
+    private final Cache<String, ConcurrentMap<String, Entry>> metricsByResourceId;
+
+    private static class Entry {
+        private final String mtype;
+        private final Set<Tag> metaTags;
+        private final Map<String, String> resourceAttributes;
+        private final Map<String, String> metricAttributes;
+        private final Metric metric;
+
+        private Entry(String mtype, Set<Tag> metaTags, Map<String, String> resourceAttributes, Map<String, String> metricAttributes, Metric metric) {
+            this.mtype = mtype;
+            this.metaTags = metaTags;
+            this.resourceAttributes = resourceAttributes;
+            this.metricAttributes = metricAttributes;
+            this.metric = metric;
+        }
+
+        private boolean matches(String mtype, Set<Tag> metaTags, Map<String, String> resourceAttributes, Map<String, String> metricAttributes) {
+            return this.mtype.equals(mtype)
+                    && (this.metaTags == metaTags || this.metaTags.equals(metaTags))
+                    && this.resourceAttributes.equals(resourceAttributes)
+                    && Objects.equals(this.metricAttributes, metricAttributes);
+        }
+    }
+
+    public MetricIdentityCache() {
+        this(DEFAULT_MAXIMUM_RESOURCES);
+    }
+
+    /**
+     * @param maximumResources number of resources for which the metrics are kept
+     */
+    public MetricIdentityCache(long maximumResources) {
+        metricsByResourceId = CacheBuilder.newBuilder()
+                .maximumSize(maximumResources)
+                .expireAfterAccess(EXPIRE_AFTER_ACCESS_HOURS, TimeUnit.HOURS)
+                .build();
+    }
+
+    /**
+     * Returns the metric for an attribute, reusing the instance built for a previous collection when possible.
+     *
+     * @param resourceId the resource id of the attribute
+     * @param name the name of the attribute
+     * @param mtype the metric type, {@link MetaTagNames#mtype}
+     * @param metaTags the user defined meta tags of the resource
+     * @param resourceAttributes the string attributes of the resource, become external tags
+     * @param metricAttributes the string attributes of the attribute itself or null, become external tags
+     */
+    public Metric getMetric(String resourceId, String name, String mtype, Set<Tag> metaTags,
+                            Map<String, String> resourceAttributes, Map<String, String> metricAttributes) {
+        final ConcurrentMap<String, Entry> metrics = getMetrics(resourceId);
+        final Entry entry = metrics.get(name);
+        if (entry != null && entry.matches(mtype, metaTags, resourceAttributes, metricAttributes)) {
+            return entry.metric;
+        }
+
+        final String internedResourceId = strings.intern(resourceId);
+        final String internedName = strings.intern(name);
+        final Metric metric = buildMetric(internedResourceId, internedName, mtype, metaTags, resourceAttributes, metricAttributes);
+        metrics.put(internedName, new Entry(mtype, metaTags,
+                resourceAttributes.isEmpty() ? Collections.emptyMap() : resourceAttributes,
+                metricAttributes, metric));
+        return metric;
+    }
+
+    private ConcurrentMap<String, Entry> getMetrics(String resourceId) {
+        final ConcurrentMap<String, Entry> metrics = metricsByResourceId.getIfPresent(resourceId);
+        if (metrics != null) {
+            return metrics;
+        }
+        try {
+            return metricsByResourceId.get(strings.intern(resourceId), ConcurrentHashMap::new);
+        } catch (ExecutionException e) {
+            // creating an empty map doesn't fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Metric buildMetric(String resourceId, String name, String mtype, Set<Tag> metaTags,
+                              Map<String, String> resourceAttributes, Map<String, String> metricAttributes) {
+        final ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .metaTag(new ImmutableTag(MetaTagNames.mtype, mtype));
+
+        // add resource level string attributes
+        metaTags.forEach(builder::metaTag);
+        resourceAttributes.forEach(builder::externalTag);
+
+        // add metric level string attributes
+        if (metricAttributes != null) {
+            metricAttributes.forEach(builder::externalTag);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Drops the metrics of all resources.
+     */
+    public void invalidateAll() {
+        metricsByResourceId.invalidateAll();
+    }
+
+    public long size() {
+        return metricsByResourceId.size();
+    }
+}
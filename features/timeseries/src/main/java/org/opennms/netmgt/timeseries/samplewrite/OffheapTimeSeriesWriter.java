@@ -39,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Named;
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
@@ -55,6 +56,7 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
             .build();
     public static final String OFFHEAP_NAME = "offheap";
     public static final int RETRY_TIME = 500;
+    public static final String JOURNAL_NAME = "org.opennms.features.timeseries.journal";
 
     private static FSTConfiguration fstConf = FSTConfiguration.createDefaultConfiguration();
 
@@ -63,6 +65,9 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
     }
 
     private final DispatchQueue<List<Sample>> queue;
+    private final SampleJournal journal;
+    private final Function<List<Sample>, byte[]> serializer = createSerializer();
+    private final Function<byte[], List<Sample>> deserializer = createDeSerializer();
     private final TimeseriesStorageManager storage;
     private final List<Thread> workerPool = new ArrayList<>();
     private final TimeseriesWriterConfig timeseriesWriterConfig;
@@ -73,6 +78,8 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
 
     private final Timer sampleWriteTsTimer;
 
+    private final Meter replayedSamples;
+
     public OffheapTimeSeriesWriter(
             final TimeseriesStorageManager storage,
             final TimeseriesWriterConfig timeseriesWriterConfig,
@@ -88,24 +95,39 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
 
         droppedSamples = registry.meter(MetricRegistry.name(OFFHEAP_NAME, "dropped-samples"));
         sampleWriteTsTimer = registry.timer(MetricRegistry.name(OFFHEAP_NAME, "samples.write.ts"));
+        replayedSamples = registry.meter(MetricRegistry.name(OFFHEAP_NAME, "replayed-samples"));
 
-        LOG.info("ringBufferSize: {}, numWriterThreads: {}, batchSize: {}, path: {}, maxFileSize: {}",
+        LOG.info("ringBufferSize: {}, numWriterThreads: {}, batchSize: {}, path: {}, maxFileSize: {}, durable: {}",
                 timeseriesWriterConfig.getBufferSize(), timeseriesWriterConfig.getNumWriterThreads(),
                 timeseriesWriterConfig.getBatchSize(), timeseriesWriterConfig.getPath(),
-                timeseriesWriterConfig.getMaxFileSize());
+                timeseriesWriterConfig.getMaxFileSize(), timeseriesWriterConfig.isDurable());
 
         // Set up Q's
-        this.queue = createQueue(timeseriesWriterConfig);
-        setupConsumerThreads(timeseriesWriterConfig.getNumWriterThreads());
+        if (timeseriesWriterConfig.isDurable()) {
+            this.queue = null;
+            this.journal = createJournal(timeseriesWriterConfig);
 
-        // must register after queue create
-        registry.register(MetricRegistry.name(OFFHEAP_NAME, "size"),
-                (Gauge<Integer>) queue::getSize);
+            // must register after journal create
+            registry.register(MetricRegistry.name(OFFHEAP_NAME, "size"),
+                    (Gauge<Long>) journal::getPendingSamples);
+            registry.register(MetricRegistry.name(OFFHEAP_NAME, "disk-usage"),
+                    (Gauge<Long>) journal::getDiskUsage);
+            registry.register(MetricRegistry.name(OFFHEAP_NAME, "segments"),
+                    (Gauge<Integer>) journal::getSegmentCount);
+        } else {
+            this.journal = null;
+            this.queue = createQueue(timeseriesWriterConfig);
+
+            // must register after queue create
+            registry.register(MetricRegistry.name(OFFHEAP_NAME, "size"),
+                    (Gauge<Integer>) queue::getSize);
+        }
+        setupConsumerThreads(timeseriesWriterConfig.getNumWriterThreads());
     }
 
     private void setupConsumerThreads(int numWriterThreads) {
         for (int i = 0; i < numWriterThreads; i++) {
-            Thread consumerThread = new Thread(this::work);
+            Thread consumerThread = new Thread(journal != null ? this::workOnJournal : this::work);
             this.workerPool.add(consumerThread);
             consumerThread.start();
         }
@@ -121,6 +143,19 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
                 timeseriesWriterConfig.getMaxFileSize());
     }
 
+    private SampleJournal createJournal(TimeseriesWriterConfig timeseriesWriterConfig) throws QueueCreateFailedException {
+        final long maxSize = timeseriesWriterConfig.getMaxFileSize();
+        try {
+            return new SampleJournal(Paths.get(timeseriesWriterConfig.getPath(), JOURNAL_NAME),
+                    Math.min(timeseriesWriterConfig.getSegmentSize(), maxSize),
+                    maxSize,
+                    timeseriesWriterConfig.getDropPolicy(),
+                    droppedSamples::mark);
+        } catch (IOException e) {
+            throw new QueueCreateFailedException(e);
+        }
+    }
+
     private <T> Function<byte[], T> createDeSerializer() {
         return t -> (T) fstConf.asObject(t);
     }
@@ -131,6 +166,16 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
 
     @Override
     public void insert(List<Sample> samples) {
+        if (journal != null) {
+            try {
+                // samples dropped by the journal are counted by the journal itself
+                journal.append(serializer.apply(samples), samples.size());
+            } catch (IOException | RuntimeException e) {
+                RATE_LIMITED_LOGGER.warn("Could not write list of samples to the journal.", e);
+                droppedSamples.mark(samples.size());
+            }
+            return;
+        }
         try {
             queue.enqueue(samples, UUID.randomUUID().toString());
         } catch (WriteFailedException e) {
@@ -144,6 +189,13 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
         for (Thread thread : this.workerPool) {
             thread.interrupt();
         }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close the journal.", e);
+            }
+        }
     }
 
     private void work() {
@@ -158,20 +210,53 @@ public class OffheapTimeSeriesWriter implements TimeseriesWriter {
         }
     }
 
-    private void sentToPlugin(final List<Sample> samples) {
+    /**
+     * Batches are only removed from the journal once they were stored, so whatever is left when the plugin is
+     * unavailable or OpenNMS stops is replayed, oldest first, by all writer threads.
+     */
+    private void workOnJournal() {
+        while (isActive) {
+            try (Timer.Context context = this.sampleWriteTsTimer.time()) {
+                final SampleJournal.Entry entry = journal.take();
+                if (entry == null) {
+                    return; // journal was closed
+                }
+                final List<Sample> samples = deserializer.apply(entry.getPayload());
+                if (sentToPlugin(samples)) {
+                    journal.ack(entry);
+                    if (entry.isReplayed()) {
+                        replayedSamples.mark(entry.getSampleCount());
+                    }
+                }
+                RATE_LIMITED_LOGGER.debug("Storing {} samples", samples.size());
+            } catch (InterruptedException e) {
+                return; // we are done.
+            } catch (IOException e) {
+                RATE_LIMITED_LOGGER.error("Could not read samples from the journal, will try again in {} ms.", RETRY_TIME, e);
+                try {
+                    Thread.sleep(RETRY_TIME);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean sentToPlugin(final List<Sample> samples) {
         while (isActive) {
             try {
                 this.storage.get().store(samples);
-                return; // we are done.
+                return true; // we are done.
             } catch (StorageException e) {
                 RATE_LIMITED_LOGGER.warn("Could not send samples to plugin, will try again in {} ms.", RETRY_TIME, e);
                 try {
                     Thread.sleep(RETRY_TIME);
                 } catch (InterruptedException ex) {
                     RATE_LIMITED_LOGGER.error("Could not send samples to plugin, got InterruptedException.", e);
-                    return;
+                    return false;
                 }
             }
         }
+        return false;
     }
 }
\ No newline at end of file
@@ -24,7 +24,9 @@ package org.opennms.netmgt.timeseries.samplewrite;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -37,6 +39,7 @@ import javax.inject.Named;
 
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
 import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
 import org.opennms.netmgt.timeseries.stats.StatisticsCollector;
 import org.slf4j.Logger;
@@ -44,6 +47,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
@@ -63,6 +67,10 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to  publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * When a maximum batch size is configured, the samples taken off the ring buffer
+ * are merged by a {@link SampleBatchCoalescer} so the storage receives a few
+ * large batches instead of one batch per collection set.
+ *
  * @author jwhite
  */
 public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler<SampleBatchEvent>, DisposableBean {
@@ -77,6 +85,8 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
 
     private static final Duration DESTROY_GRACE_PERIOD = Duration.ofSeconds(30);
 
+    private static final long RETRY_DELAY_MS = 100;
+
     private WorkerPool<SampleBatchEvent> workerPool;
 
     private ExecutorService executor;
@@ -91,6 +101,14 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
 
     private final Timer sampleWriteTsTimer;
 
+    private final MetricRegistry registry;
+
+    private final Map<String, StorageMetrics> storageMetrics = new ConcurrentHashMap<>();
+
+    private final int maxRetries;
+
+    private final SampleBatchCoalescer coalescer;
+
     private TimeseriesStorageManager storage;
 
     private StatisticsCollector stats;
@@ -109,15 +127,36 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
                                       @Named("timeseries.ring_buffer_size") Integer ringBufferSize,
                                       @Named("timeseries.writer_threads") Integer numWriterThreads,
                                       @Named("timeseriesMetricRegistry") MetricRegistry registry) {
+        this(storage, stats, ringBufferSize, numWriterThreads, registry, 0, 0, 0);
+    }
+
+    /**
+     * @param maxBatchSize number of samples that are merged into a single batch before it is stored, 0 to store
+     *                     the samples of every event as they are
+     * @param maxBatchAge maximum time in milliseconds samples are held while a batch is being merged
+     * @param maxRetries number of times a batch is stored again after the storage failed to store it
+     */
+    public RingBufferTimeseriesWriter(final TimeseriesStorageManager storage,
+                                      final StatisticsCollector stats,
+                                      Integer ringBufferSize,
+                                      Integer numWriterThreads,
+                                      MetricRegistry registry,
+                                      int maxBatchSize,
+                                      long maxBatchAge,
+                                      int maxRetries) {
         Preconditions.checkArgument(ringBufferSize > 0, "ringBufferSize must be positive");
         Preconditions.checkArgument(DoubleMath.isMathematicalInteger(Math.log(ringBufferSize) / Math.log(2)), "ringBufferSize must be a power of two");
         Preconditions.checkArgument(numWriterThreads > 0, "numWriterThreads must be positive");
         Preconditions.checkNotNull(registry, "metric registry");
+        Preconditions.checkArgument(maxBatchSize <= 0 || maxBatchAge > 0, "maxBatchAge must be positive");
+        Preconditions.checkArgument(maxRetries >= 0, "maxRetries must not be negative");
 
         this.storage = Objects.requireNonNull(storage);
         this.stats = Objects.requireNonNull(stats);
         this.ringBufferSize = ringBufferSize;
         this.numWriterThreads = numWriterThreads;
+        this.registry = registry;
+        this.maxRetries = maxRetries;
         numEntriesOnRingBuffer.set(0L);
 
         registry.register(MetricRegistry.name("ring-buffer", "size"),
@@ -128,7 +167,16 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
         droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
         sampleWriteTsTimer = registry.timer("samples.write.ts");
 
-        LOG.debug("Using ring_buffer_size: {}", this.ringBufferSize);
+        if (maxBatchSize > 0) {
+            coalescer = new SampleBatchCoalescer(maxBatchSize, maxBatchAge, this::store);
+            coalescer.start();
+            registry.register(MetricRegistry.name("coalescer", "size"),
+                    (Gauge<Integer>) coalescer::getPendingCount);
+        } else {
+            coalescer = null;
+        }
+
+        LOG.debug("Using ring_buffer_size: {}, max_batch_size: {}", this.ringBufferSize, maxBatchSize);
         setUpWorkerPool();
 
     }
@@ -191,6 +239,9 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
                     Duration.between(start, Instant.now()));
             destroyStatusThread.interrupt();
         }
+        if (coalescer != null) {
+            coalescer.stop();
+        }
     }
 
     @Override
@@ -227,6 +278,24 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
 
     @Override
     public void onEvent(SampleBatchEvent event) {
+        if (thePartyIsOver.get()) {
+            return;
+        }
+        try {
+            if (coalescer != null) {
+                coalescer.add(event.getSamples());
+            } else {
+                store(event.getSamples());
+            }
+        } finally {
+            event.setSamples(null); // free sample reference for garbage collection
+        }
+
+        // Decrement our entry counter
+        numEntriesOnRingBuffer.decrementAndGet();
+    }
+
+    private void store(List<Sample> samples) {
         if (thePartyIsOver.get()) {
             return;
         }
@@ -240,19 +309,50 @@ public class RingBufferTimeseriesWriter implements TimeseriesWriter, WorkHandler
             }
 
             if (timeSeriesStorage == null) {
-                RATE_LIMITED_LOGGER.error("There is no available TimeSeriesStorage implementation. {} samples will be lost.", event.getSamples().size());
+                RATE_LIMITED_LOGGER.error("There is no available TimeSeriesStorage implementation. {} samples will be lost.", samples.size());
             } else {
-                timeSeriesStorage.store(event.getSamples());
-                this.stats.record(event.getSamples());
+                store(timeSeriesStorage, samples);
+                this.stats.record(samples);
             }
         } catch (Throwable t) {
-            RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Up to {} samples may be lost: {}: {}", event.getSamples().size(), t.getClass().getSimpleName(), t.getMessage(), t);
-        } finally {
-            event.setSamples(null); // free sample reference for garbage collection
+            RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Up to {} samples may be lost: {}: {}", samples.size(), t.getClass().getSimpleName(), t.getMessage(), t);
+        }
+    }
+
+    private void store(TimeSeriesStorage timeSeriesStorage, List<Sample> samples) throws Exception {
+        final StorageMetrics metrics = storageMetrics.computeIfAbsent(timeSeriesStorage.getClass().getName(), StorageMetrics::new);
+        metrics.batchSize.update(samples.size());
+        for (int attempt = 0; ; attempt++) {
+            try (Timer.Context context = metrics.latency.time()) {
+                timeSeriesStorage.store(samples);
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxRetries || thePartyIsOver.get()) {
+                    metrics.failures.mark();
+                    throw e;
+                }
+                metrics.retries.mark();
+                LOG.debug("Storing {} samples failed, retrying: {}", samples.size(), e.getMessage());
+                Thread.sleep(RETRY_DELAY_MS * (attempt + 1));
+            }
         }
+    }
 
-        // Decrement our entry counter
-        numEntriesOnRingBuffer.decrementAndGet();
+    /**
+     * Metrics of the calls to a single {@link TimeSeriesStorage} implementation.
+     */
+    private class StorageMetrics {
+        private final Timer latency;
+        private final Histogram batchSize;
+        private final Meter retries;
+        private final Meter failures;
+
+        private StorageMetrics(String storageName) {
+            latency = registry.timer(MetricRegistry.name("storage", storageName, "store"));
+            batchSize = registry.histogram(MetricRegistry.name("storage", storageName, "batch-size"));
+            retries = registry.meter(MetricRegistry.name("storage", storageName, "retries"));
+            failures = registry.meter(MetricRegistry.name("storage", storageName, "failures"));
+        }
     }
 
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR = (event, sequence, samples) -> event.setSamples(samples);
@@ -0,0 +1,368 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.netmgt.timeseries.util.RollupTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+
+/**
+ * Maintains the {@link RollupTier}s of all metrics while their samples are written.
+ *
+ * Every sample is passed to the delegate as is and added to the open bucket of each tier of its metric. Once a
+ * sample falls into a later bucket, the rollups of the previous bucket are written through the delegate as well.
+ * Samples older than the open bucket of a tier are not included in that tier.
+ *
+ * The open buckets are kept in memory: metrics which were not written to for twice the duration of the coarsest
+ * tier are evicted after their open buckets were written. On shutdown, the open buckets are saved to the state
+ * file and restored from it on startup, so a bucket spanning a restart is written once, with all of its samples.
+ * Without a state file, or if it can not be written, the open buckets are written as they are on shutdown, and
+ * storages that keep a single value per timestamp replace them with the part of the bucket seen after the restart.
+ */
+public class RollupTimeseriesWriter implements TimeseriesWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(RollupTimeseriesWriter.class);
+
+    public static final String ROLLUP_NAME = "rollup";
+
+    public static final String STATE_FILE_NAME = "rollup-buckets.dat";
+
+    private static final int STATE_VERSION = 1;
+
+    private final TimeseriesWriter delegate;
+    private final List<RollupTier> tiers;
+    private final Path stateFile;
+    private final Cache<Metric, Bucket[]> bucketsByMetric;
+
+    private final Meter rollupSamples;
+    private final Meter lateSamples;
+
+    public RollupTimeseriesWriter(final TimeseriesWriter delegate, final List<RollupTier> tiers, final MetricRegistry registry) {
+        this(delegate, tiers, registry, null);
+    }
+
+    /**
+     * @param stateFile where the open buckets are kept across restarts, or null to write them on shutdown
+     */
+    public RollupTimeseriesWriter(final TimeseriesWriter delegate, final List<RollupTier> tiers, final MetricRegistry registry,
+                                  final Path stateFile) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.tiers = Objects.requireNonNull(tiers);
+        this.stateFile = stateFile;
+        Preconditions.checkArgument(!tiers.isEmpty(), "at least one rollup tier is required");
+        Objects.requireNonNull(registry);
+
+        final long coarsest = tiers.stream().mapToLong(t -> t.getDuration().toMillis()).max().getAsLong();
+        this.bucketsByMetric = CacheBuilder.newBuilder()
+                .expireAfterAccess(2 * coarsest, TimeUnit.MILLISECONDS)
+                .removalListener((RemovalListener<Metric, Bucket[]>) notification -> {
+                    if (notification.getCause() == RemovalCause.EXPIRED) {
+                        final List<Sample> rollups = new ArrayList<>();
+                        close(notification.getKey(), notification.getValue(), rollups);
+                        write(rollups);
+                    }
+                })
+                .build();
+
+        this.rollupSamples = registry.meter(MetricRegistry.name(ROLLUP_NAME, "samples"));
+        this.lateSamples = registry.meter(MetricRegistry.name(ROLLUP_NAME, "late-samples"));
+        registry.register(MetricRegistry.name(ROLLUP_NAME, "metrics"), (Gauge<Long>) bucketsByMetric::size);
+
+        if (stateFile != null && Files.exists(stateFile)) {
+            try {
+                final int restored = restoreState(stateFile);
+                LOG.info("Restored the open rollup buckets of {} metrics from {}.", restored, stateFile);
+            } catch (IOException e) {
+                LOG.warn("Failed to restore the open rollup buckets from {}, the rollups of the current buckets will be incomplete.", stateFile, e);
+            }
+            try {
+                Files.delete(stateFile);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete {}.", stateFile, e);
+            }
+        }
+    }
+
+    @Override
+    public void insert(final List<Sample> samples) {
+        delegate.insert(samples);
+
+        final List<Sample> rollups = new ArrayList<>();
+        for (final Sample sample : samples) {
+            final Metric metric = sample.getMetric();
+            if (RollupTier.isRollupMetric(metric)) {
+                continue;
+            }
+            final Bucket[] buckets = bucketsByMetric.asMap().computeIfAbsent(metric, m -> newBuckets());
+            synchronized (buckets) {
+                final long time = sample.getTime().toEpochMilli();
+                for (int i = 0; i < tiers.size(); i++) {
+                    add(tiers.get(i), buckets[i], metric, time, sample.getValue(), rollups);
+                }
+            }
+        }
+        write(rollups);
+    }
+
+    private Bucket[] newBuckets() {
+        final Bucket[] buckets = new Bucket[tiers.size()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+        return buckets;
+    }
+
+    private void add(final RollupTier tier, final Bucket bucket, final Metric metric, final long time, final Double value,
+                     final List<Sample> rollups) {
+        final long start = tier.getBucketStart(time);
+        if (start < bucket.start) {
+            lateSamples.mark();
+            return;
+        }
+        if (start > bucket.start) {
+            bucket.writeTo(tier, metric, rollups);
+            bucket.reset(start);
+        }
+        if (value != null && !Double.isNaN(value)) {
+            bucket.add(value);
+        }
+    }
+
+    private void close(final Metric metric, final Bucket[] buckets, final List<Sample> rollups) {
+        synchronized (buckets) {
+            for (int i = 0; i < tiers.size(); i++) {
+                buckets[i].writeTo(tiers.get(i), metric, rollups);
+                buckets[i].reset(Long.MIN_VALUE);
+            }
+        }
+    }
+
+    private void write(final List<Sample> rollups) {
+        if (!rollups.isEmpty()) {
+            rollupSamples.mark(rollups.size());
+            delegate.insert(rollups);
+        }
+    }
+
+    /**
+     * Saves the open buckets to the state file, so they are completed after a restart. They are written as they are
+     * if there is no state file or saving them fails.
+     */
+    @Override
+    public void destroy() {
+        boolean saved = false;
+        if (stateFile != null) {
+            try {
+                saveState(stateFile);
+                saved = true;
+                LOG.info("Saved the open rollup buckets of {} metrics to {}.", bucketsByMetric.size(), stateFile);
+            } catch (IOException e) {
+                LOG.warn("Failed to save the open rollup buckets to {}, writing them as they are.", stateFile, e);
+            }
+        }
+        if (!saved) {
+            final List<Sample> rollups = new ArrayList<>();
+            for (final Map.Entry<Metric, Bucket[]> entry : bucketsByMetric.asMap().entrySet()) {
+                close(entry.getKey(), entry.getValue(), rollups);
+            }
+            write(rollups);
+        }
+        delegate.destroy();
+    }
+
+    private void saveState(final Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(STATE_VERSION);
+            out.writeInt(tiers.size());
+            for (final RollupTier tier : tiers) {
+                out.writeLong(tier.getDuration().toMillis());
+            }
+            for (final Map.Entry<Metric, Bucket[]> entry : bucketsByMetric.asMap().entrySet()) {
+                out.writeBoolean(true);
+                writeTags(out, entry.getKey().getIntrinsicTags());
+                writeTags(out, entry.getKey().getMetaTags());
+                final Bucket[] buckets = entry.getValue();
+                synchronized (buckets) {
+                    for (final Bucket bucket : buckets) {
+                        bucket.writeState(out);
+                    }
+                }
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int restoreState(final Path file) throws IOException {
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            final int version = in.readInt();
+            if (version != STATE_VERSION) {
+                throw new IOException("Unsupported rollup state version " + version);
+            }
+            // the tiers may have changed since the state was saved, buckets of removed tiers are dropped
+            final int[] tierIndex = new int[in.readInt()];
+            for (int i = 0; i < tierIndex.length; i++) {
+                final long duration = in.readLong();
+                tierIndex[i] = -1;
+                for (int j = 0; j < tiers.size(); j++) {
+                    if (tiers.get(j).getDuration().toMillis() == duration) {
+                        tierIndex[i] = j;
+                    }
+                }
+            }
+            while (in.readBoolean()) {
+                final ImmutableMetric.MetricBuilder metric = ImmutableMetric.builder();
+                for (int i = in.readInt(); i > 0; i--) {
+                    metric.intrinsicTag(in.readUTF(), in.readUTF());
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    metric.metaTag(in.readUTF(), in.readUTF());
+                }
+                final Bucket[] buckets = newBuckets();
+                for (final int index : tierIndex) {
+                    final Bucket bucket = index < 0 ? new Bucket() : buckets[index];
+                    bucket.readState(in);
+                }
+                bucketsByMetric.put(metric.build(), buckets);
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    private static void writeTags(final DataOutputStream out, final Collection<? extends Tag> tags) throws IOException {
+        out.writeInt(tags.size());
+        for (final Tag tag : tags) {
+            out.writeUTF(tag.getKey());
+            out.writeUTF(tag.getValue());
+        }
+    }
+
+    private static boolean isCounter(final Metric metric) {
+        final Tag mtype = metric.getFirstTagByKey(MetaTagNames.mtype);
+        return mtype != null && Metric.Mtype.counter.name().equals(mtype.getValue());
+    }
+
+    private static class Bucket {
+        private long start = Long.MIN_VALUE;
+        private int count;
+        private double sum;
+        private double min;
+        private double max;
+        private double last;
+
+        private void reset(final long start) {
+            this.start = start;
+            this.count = 0;
+            this.sum = 0;
+        }
+
+        private void add(final double value) {
+            if (count == 0) {
+                min = value;
+                max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            sum += value;
+            last = value;
+            count++;
+        }
+
+        private void writeState(final DataOutputStream out) throws IOException {
+            out.writeLong(start);
+            out.writeInt(count);
+            out.writeDouble(sum);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            out.writeDouble(last);
+        }
+
+        private void readState(final DataInputStream in) throws IOException {
+            start = in.readLong();
+            count = in.readInt();
+            sum = in.readDouble();
+            min = in.readDouble();
+            max = in.readDouble();
+            last = in.readDouble();
+        }
+
+        private void writeTo(final RollupTier tier, final Metric metric, final List<Sample> rollups) {
+            if (count == 0) {
+                return;
+            }
+            final Instant end = Instant.ofEpochMilli(start + tier.getDuration().toMillis());
+            if (isCounter(metric)) {
+                rollups.add(sample(tier, metric, RollupTier.Function.AVG, end, last));
+            } else {
+                rollups.add(sample(tier, metric, RollupTier.Function.AVG, end, sum / count));
+                rollups.add(sample(tier, metric, RollupTier.Function.MIN, end, min));
+                rollups.add(sample(tier, metric, RollupTier.Function.MAX, end, max));
+            }
+        }
+
+        private static Sample sample(final RollupTier tier, final Metric metric, final RollupTier.Function function,
+                                     final Instant time, final double value) {
+            return ImmutableSample.builder()
+                    .metric(tier.getRollupMetric(metric, function))
+                    .time(time)
+                    .value(value)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Merges the samples of many small batches into larger ones before they are
+ * handed to the {@link org.opennms.integration.api.v1.timeseries.TimeSeriesStorage}.
+ *
+ * A batch is written as soon as it holds at least maxBatchSize samples, by the
+ * thread that filled it, or once its oldest sample has waited for maxBatchAge
+ * milliseconds. Before a batch is written, samples of equal metrics are made
+ * to share a single {@link Metric} instance and the batch is sorted by metric
+ * key and time.
+ */
+public class SampleBatchCoalescer {
+
+    private final int maxBatchSize;
+    private final long maxBatchAgeNanos;
+    private final Consumer<List<Sample>> writer;
+
+    private final Object lock = new Object();
+    private List<Sample> pending;
+    private long pendingSince;
+
+    private ScheduledExecutorService scheduler;
+
+    public SampleBatchCoalescer(int maxBatchSize, long maxBatchAge, Consumer<List<Sample>> writer) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        Preconditions.checkArgument(maxBatchAge > 0, "maxBatchAge must be positive");
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchAge);
+        this.writer = Objects.requireNonNull(writer);
+        this.pending = new ArrayList<>(maxBatchSize);
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("TimeseriesWriter-Coalescer-%d")
+                .setDaemon(true)
+                .build());
+        final long period = Math.max(1, maxBatchAgeNanos / 2);
+        scheduler.scheduleWithFixedDelay(this::flushExpired, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops flushing aged batches and writes the samples that are still pending.
+     */
+    public void stop() {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = scheduler;
+            scheduler = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    public void add(List<Sample> samples) {
+        List<Sample> batch = null;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                pendingSince = System.nanoTime();
+            }
+            pending.addAll(samples);
+            if (pending.size() >= maxBatchSize) {
+                batch = takePending();
+            }
+        }
+        if (batch != null) {
+            write(batch);
+        }
+    }
+
+    /**
+     * Writes the pending samples regardless of their age.
+     */
+    public void flush() {
+        final List<Sample> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+        write(batch);
+    }
+
+    private void flushExpired() {
+        final List<Sample> batch;
+        synchronized (lock) {
+            if (pending.isEmpty() || System.nanoTime() - pendingSince < maxBatchAgeNanos) {
+                return;
+            }
+            batch = takePending();
+        }
+        write(batch);
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    private List<Sample> takePending() {
+        final List<Sample> batch = pending;
+        pending = new ArrayList<>(maxBatchSize);
+        return batch;
+    }
+
+    private void write(List<Sample> batch) {
+        writer.accept(coalesce(batch));
+    }
+
+    /**
+     * Groups the samples by metric, replaces equal metrics with a single
+     * instance and orders the result by metric key and time.
+     */
+    static List<Sample> coalesce(List<Sample> samples) {
+        final Map<Metric, List<Sample>> samplesByMetric = new HashMap<>();
+        for (final Sample sample : samples) {
+            samplesByMetric.computeIfAbsent(sample.getMetric(), m -> new ArrayList<>(2)).add(sample);
+        }
+
+        final List<Map.Entry<String, Map.Entry<Metric, List<Sample>>>> keyed = new ArrayList<>(samplesByMetric.size());
+        for (final Map.Entry<Metric, List<Sample>> entry : samplesByMetric.entrySet()) {
+            keyed.add(Map.entry(entry.getKey().getKey(), entry));
+        }
+        keyed.sort(Map.Entry.comparingByKey());
+
+        final List<Sample> coalesced = new ArrayList<>(samples.size());
+        for (final Map.Entry<String, Map.Entry<Metric, List<Sample>>> entry : keyed) {
+            final Metric metric = entry.getValue().getKey();
+            final List<Sample> metricSamples = entry.getValue().getValue();
+            if (metricSamples.size() > 1) {
+                metricSamples.sort(Comparator.comparing(Sample::getTime));
+            }
+            for (final Sample sample : metricSamples) {
+                if (sample.getMetric() == metric) {
+                    coalesced.add(sample);
+                } else {
+                    coalesced.add(ImmutableSample.builder().metric(metric).time(sample.getTime()).value(sample.getValue()).build());
+                }
+            }
+        }
+        return coalesced;
+    }
+}
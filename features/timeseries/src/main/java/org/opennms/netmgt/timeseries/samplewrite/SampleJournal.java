@@ -0,0 +1,455 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-ahead journal for batches of serialized samples, kept in segment files on local disk.
+ *
+ * Batches are appended to the newest segment and handed out again in the order they were written. A segment
+ * is deleted once every batch it holds has been acknowledged, so whatever was not yet stored by the time
+ * OpenNMS stops is replayed when the journal is opened again. Replay is at-least-once: a batch that was stored
+ * but not yet acknowledged is handed out a second time.
+ *
+ * The journal is bounded by maxSize. When an append does not fit, the {@link TimeseriesWriterConfig.DropPolicy}
+ * decides whether the oldest segments or the new batch are discarded.
+ *
+ * Each record is made of its payload length, the number of samples it holds, a CRC32 of the payload and the
+ * payload itself. Incomplete or corrupt records at the end of a segment are truncated on recovery.
+ */
+public class SampleJournal implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleJournal.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("^(\\d{19})\\.wal$");
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxSize;
+    private final TimeseriesWriterConfig.DropPolicy dropPolicy;
+    private final LongConsumer droppedSamples;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    // guarded by lock
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId = 0;
+    private boolean closed = false;
+
+    private volatile long diskUsage = 0;
+    private volatile long pendingSamples = 0;
+
+    public SampleJournal(final Path directory, final long segmentSize, final long maxSize,
+                         final TimeseriesWriterConfig.DropPolicy dropPolicy, final LongConsumer droppedSamples) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than " + HEADER_SIZE);
+        }
+        if (maxSize < segmentSize) {
+            throw new IllegalArgumentException("Max size must be at least the segment size");
+        }
+        this.directory = Objects.requireNonNull(directory);
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.dropPolicy = Objects.requireNonNull(dropPolicy);
+        this.droppedSamples = Objects.requireNonNull(droppedSamples);
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Loads the segments left behind by a previous run, oldest first, so that they are replayed before
+     * anything appended from now on.
+     */
+    private void recover() throws IOException {
+        final List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.wal")) {
+            for (final Path file : files) {
+                final Matcher m = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    found.add(new Segment(Long.parseLong(m.group(1)), file, true));
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.id, b.id));
+
+        for (final Segment segment : found) {
+            nextSegmentId = segment.id + 1;
+            scan(segment);
+            if (segment.records == 0) {
+                Files.deleteIfExists(segment.file);
+                continue;
+            }
+            segment.sealed = true;
+            segments.add(segment);
+            diskUsage += segment.bytes;
+            pendingSamples += segment.samples;
+        }
+        if (!segments.isEmpty()) {
+            LOG.info("Recovered {} samples in {} segments ({} bytes) from {}, they will be replayed.",
+                    pendingSamples, segments.size(), diskUsage, directory);
+        }
+    }
+
+    private static void scan(final Segment segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            final CRC32 crc = new CRC32();
+            long position = 0;
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                header.flip();
+                final int length = header.getInt();
+                final int count = header.getInt();
+                final int checksum = header.getInt();
+                if (length < 0 || count < 0 || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+                final ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + HEADER_SIZE);
+                crc.reset();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                position += HEADER_SIZE + length;
+                segment.records++;
+                segment.samples += count;
+            }
+            if (position < size) {
+                LOG.warn("Truncating {} from {} to {} bytes, the tail of the segment is incomplete or corrupt.",
+                        segment.file, size, position);
+                channel.truncate(position);
+            }
+            segment.bytes = position;
+        }
+    }
+
+    /**
+     * Appends a batch to the journal.
+     *
+     * @param payload the serialized batch
+     * @param sampleCount the number of samples in the batch
+     * @return false if the batch was dropped because the journal is full
+     */
+    public boolean append(final byte[] payload, final int sampleCount) throws IOException {
+        final long recordSize = HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Batch of " + recordSize + " bytes does not fit into a segment of " + segmentSize + " bytes");
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+        record.putInt(payload.length).putInt(sampleCount).putInt((int) crc.getValue()).put(payload).flip();
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            if (diskUsage + recordSize > maxSize && !makeRoom(recordSize)) {
+                droppedSamples.accept(sampleCount);
+                return false;
+            }
+
+            Segment active = segments.peekLast();
+            if (active == null || active.sealed || active.bytes + recordSize > segmentSize) {
+                if (active != null && !active.sealed) {
+                    active.seal();
+                    deleteIfDone(active);
+                }
+                final long id = nextSegmentId++;
+                active = new Segment(id, directory.resolve(String.format("%019d.wal", id)), false);
+                active.writer = FileChannel.open(active.file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                segments.add(active);
+            }
+
+            while (record.hasRemaining()) {
+                active.writer.write(record);
+            }
+            active.bytes += recordSize;
+            active.records++;
+            active.samples += sampleCount;
+            diskUsage += recordSize;
+            pendingSamples += sampleCount;
+            available.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the oldest segments until the given number of bytes fits, or reports that it does not if the
+     * drop policy keeps the oldest data.
+     */
+    private boolean makeRoom(final long recordSize) throws IOException {
+        if (dropPolicy == TimeseriesWriterConfig.DropPolicy.DROP_NEWEST) {
+            return false;
+        }
+        while (diskUsage + recordSize > maxSize && !segments.isEmpty()) {
+            final Segment oldest = segments.peekFirst();
+            if (!oldest.sealed) {
+                oldest.seal();
+            }
+            segments.removeFirst();
+            final long unread = oldest.samples - oldest.samplesRead;
+            LOG.warn("Journal is full, dropping segment {} with {} samples which were not stored yet.", oldest.file, unread);
+            droppedSamples.accept(unread);
+            pendingSamples -= unread;
+            delete(oldest);
+        }
+        return diskUsage + recordSize <= maxSize;
+    }
+
+    /**
+     * Waits for the next batch in the order batches were written.
+     *
+     * @return the next batch, or null if the journal was closed
+     */
+    public Entry take() throws InterruptedException, IOException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (closed) {
+                    return null;
+                }
+                for (final Segment segment : segments) {
+                    if (segment.readPosition < segment.bytes) {
+                        return read(segment);
+                    }
+                }
+                available.await(1, TimeUnit.SECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry read(final Segment segment) throws IOException {
+        if (segment.reader == null) {
+            segment.reader = FileChannel.open(segment.file, StandardOpenOption.READ);
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(segment.reader, header, segment.readPosition);
+        header.flip();
+        final int length = header.getInt();
+        final int count = header.getInt();
+        header.getInt();
+
+        final ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(segment.reader, payload, segment.readPosition + HEADER_SIZE);
+
+        segment.readPosition += HEADER_SIZE + length;
+        segment.samplesRead += count;
+        pendingSamples -= count;
+        if (segment.sealed && segment.readPosition == segment.bytes) {
+            segment.closeReader();
+        }
+        return new Entry(segment, payload.array(), count, segment.recovered);
+    }
+
+    /**
+     * Marks a batch returned by {@link #take()} as stored. The segment holding it is deleted once all of its
+     * batches have been acknowledged.
+     */
+    public void ack(final Entry entry) {
+        lock.lock();
+        try {
+            entry.segment.acked++;
+            deleteIfDone(entry.segment);
+        } catch (IOException e) {
+            LOG.warn("Could not delete journal segment {}.", entry.segment.file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deleteIfDone(final Segment segment) throws IOException {
+        if (!segment.deleted && segment.sealed && segment.acked >= segment.records) {
+            segments.remove(segment);
+            delete(segment);
+        }
+    }
+
+    private void delete(final Segment segment) throws IOException {
+        segment.deleted = true;
+        segment.closeReader();
+        diskUsage -= segment.bytes;
+        Files.deleteIfExists(segment.file);
+    }
+
+    /**
+     * @return the number of bytes used by the segments on disk
+     */
+    public long getDiskUsage() {
+        return diskUsage;
+    }
+
+    /**
+     * @return the number of samples that were appended but not yet handed out
+     */
+    public long getPendingSamples() {
+        return pendingSamples;
+    }
+
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the active segment to disk and wakes up all threads waiting in {@link #take()}. Segments are
+     * kept so that anything not acknowledged is replayed on the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            for (final Segment segment : segments) {
+                if (!segment.sealed) {
+                    segment.seal();
+                }
+                segment.closeReader();
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal segment");
+            }
+            position += read;
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path file;
+
+        private FileChannel writer;
+        private FileChannel reader;
+
+        private long bytes;
+        private long readPosition;
+        private int records;
+        private int acked;
+        private long samples;
+        private long samplesRead;
+        private boolean sealed;
+        private boolean deleted;
+        private final boolean recovered;
+
+        private Segment(final long id, final Path file, final boolean recovered) {
+            this.id = id;
+            this.file = file;
+            this.recovered = recovered;
+        }
+
+        private void seal() throws IOException {
+            sealed = true;
+            if (writer != null) {
+                writer.force(false);
+                writer.close();
+                writer = null;
+            }
+            if (reader != null && readPosition == bytes) {
+                closeReader();
+            }
+        }
+
+        private void closeReader() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+
+    /**
+     * A batch handed out by {@link #take()}, to be passed to {@link #ack(Entry)} once it was stored.
+     */
+    public static class Entry {
+        private final Segment segment;
+        private final byte[] payload;
+        private final int sampleCount;
+        private final boolean replayed;
+
+        private Entry(final Segment segment, final byte[] payload, final int sampleCount, final boolean replayed) {
+            this.segment = segment;
+            this.payload = payload;
+            this.sampleCount = sampleCount;
+            this.replayed = replayed;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * @return true if the batch was left behind by a previous run
+         */
+        public boolean isReplayed() {
+            return replayed;
+        }
+    }
+}
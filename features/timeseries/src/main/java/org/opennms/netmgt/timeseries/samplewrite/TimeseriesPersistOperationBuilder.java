@@ -22,6 +22,8 @@
 package org.opennms.netmgt.timeseries.samplewrite;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,14 +31,11 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import org.opennms.integration.api.v1.timeseries.DataPoint;
-import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
-import org.opennms.integration.api.v1.timeseries.MetaTagNames;
 import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.Sample;
 import org.opennms.integration.api.v1.timeseries.Tag;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
-import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTag;
 import org.opennms.netmgt.collection.api.AttributeType;
 import org.opennms.netmgt.collection.api.CollectionAttributeType;
 import org.opennms.netmgt.collection.api.PersistException;
@@ -53,9 +52,7 @@ import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 /**
  * Used to collect attribute values and meta-data for a given resource group
@@ -72,8 +69,9 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
     private final Map<CollectionAttributeType, Number> declarations = Maps.newLinkedHashMap();
     private final Set<Tag> configuredAdditionalMetaTags;
     private final Map<ResourcePath, Map<String, String>> stringAttributesByPath;
-    private final Map<Set<Tag>, Map<String, String>> stringAttributesByResourceIdAndName = Maps.newLinkedHashMap();
+    private final Map<String, Map<String, Map<String, String>>> stringAttributesByResourceIdAndName = Maps.newLinkedHashMap();
     private final Timer commitTimer;
+    private final MetricIdentityCache metricIdentityCache;
 
     private TimeKeeper timeKeeper = new DefaultTimeKeeper();
 
@@ -82,6 +80,18 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
                                              Set<Tag> configuredAdditionalMetaTags,
                                              final Map<ResourcePath, Map<String, String>> stringAttributesByPath,
                                              MetricRegistry metricRegistry) {
+        this(writer, repository, resource, groupName, configuredAdditionalMetaTags, stringAttributesByPath, metricRegistry, null);
+    }
+
+    /**
+     * @param metricIdentityCache used to reuse the metrics of previous collections, or null to build new metrics for every sample
+     */
+    public TimeseriesPersistOperationBuilder(TimeseriesWriter writer, RrdRepository repository,
+                                             ResourceIdentifier resource, String groupName,
+                                             Set<Tag> configuredAdditionalMetaTags,
+                                             final Map<ResourcePath, Map<String, String>> stringAttributesByPath,
+                                             MetricRegistry metricRegistry,
+                                             MetricIdentityCache metricIdentityCache) {
         this.writer = writer;
         rrepository = repository;
         this.resource = resource;
@@ -89,6 +99,7 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
         this.configuredAdditionalMetaTags = configuredAdditionalMetaTags;
         this.stringAttributesByPath = stringAttributesByPath;
         this.commitTimer = metricRegistry.timer("samples.write.integration");
+        this.metricIdentityCache = metricIdentityCache;
     }
 
     @Override
@@ -115,8 +126,9 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
      * => Group level attributes
      */
     public void persistStringAttributeForMetricLevel(ResourcePath path, String metricName, String key, String value) {
-        Set<Tag> intrinsicTags = Sets.newHashSet(new ImmutableTag(IntrinsicTagNames.resourceId, TimeseriesUtils.toResourceId(path)), new ImmutableTag(IntrinsicTagNames.name, metricName));
-        Map<String, String> stringAttributesForPath = this.stringAttributesByResourceIdAndName.computeIfAbsent(intrinsicTags, k -> Maps.newLinkedHashMap());
+        Map<String, String> stringAttributesForPath = this.stringAttributesByResourceIdAndName
+                .computeIfAbsent(TimeseriesUtils.toResourceId(path), k -> Maps.newLinkedHashMap())
+                .computeIfAbsent(metricName, k -> Maps.newLinkedHashMap());
         stringAttributesForPath.put(key, value);
     }
 
@@ -136,8 +148,7 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
     }
 
     public List<Sample> getSamplesToInsert() {
-        final Set<Tag> resourceIdLevelExternalData = Sets.newHashSet();
-        final List<Sample> samples = Lists.newLinkedList();
+        final List<Sample> samples = new ArrayList<>(declarations.size());
         ResourcePath path = ResourceTypeUtils.getResourcePathWithRepository(rrepository, ResourcePath.get(resource.getPath(), groupName));
 
         // Collect resource and group level attributes
@@ -150,19 +161,17 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
                 stringAttributes.putAll(attributes);
             }
         }
-        for (Entry<String, String> entry : stringAttributes.entrySet()) {
-            resourceIdLevelExternalData.add(new ImmutableTag(entry.getKey(), entry.getValue()));
-        }
 
         String resourceId = TimeseriesUtils.toResourceId(path);
+        Map<String, Map<String, String>> metricLevelAttributesByName = stringAttributesByResourceIdAndName.getOrDefault(resourceId, Collections.emptyMap());
 
         // Convert numeric attributes to samples
         final Instant time = Instant.ofEpochMilli(timeKeeper.getCurrentTime());
         for (Entry<CollectionAttributeType, Number> entry : declarations.entrySet()) {
             CollectionAttributeType attrType = entry.getKey();
 
-            Tag type = typeToTag(attrType.getType());
-            if (type == null) {
+            String mtype = typeToMtype(attrType.getType());
+            if (mtype == null) {
                 // Skip attributes with no type
                 continue;
             }
@@ -173,23 +182,12 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
                 continue;
             }
 
-            ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder()
-                    .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
-                    .intrinsicTag(IntrinsicTagNames.name, attrType.getName())
-                    .metaTag(type);
-
-            // add resource level string attributes
-            this.configuredAdditionalMetaTags.forEach(builder::metaTag);
-            resourceIdLevelExternalData.forEach(builder::externalTag);
-
             // add metric level string attributes
-            Map<String, String> metricLevelAttributes = stringAttributesByResourceIdAndName.get(builder.build().getIntrinsicTags());
-            if (metricLevelAttributes != null) {
-                for (Entry<String, String> entry2 : stringAttributesByResourceIdAndName.get(builder.build().getIntrinsicTags()).entrySet()) {
-                    builder.externalTag(entry2.getKey(), entry2.getValue());
-                }
-            }
-            final ImmutableMetric metric = builder.build();
+            Map<String, String> metricLevelAttributes = metricLevelAttributesByName.get(attrType.getName());
+
+            final Metric metric = metricIdentityCache != null
+                    ? metricIdentityCache.getMetric(resourceId, attrType.getName(), mtype, configuredAdditionalMetaTags, stringAttributes, metricLevelAttributes)
+                    : MetricIdentityCache.buildMetric(resourceId, attrType.getName(), mtype, configuredAdditionalMetaTags, stringAttributes, metricLevelAttributes);
             final Double sampleValue = value.doubleValue();
             samples.add(ImmutableSample.builder().metric(metric).time(time).value(sampleValue).build());
         }
@@ -201,7 +199,7 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
      * @param type
      * @return
      */
-    private Tag typeToTag(final AttributeType type) {
+    private String typeToMtype(final AttributeType type) {
         ImmutableMetric.Mtype mtype;
 
         if(type == AttributeType.COUNTER) {
@@ -214,7 +212,7 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
             mtype = ImmutableMetric.Mtype.gauge;
         }
         // types handling is in NewtsConverterUtils.toNewtsValue
-        return new ImmutableTag(MetaTagNames.mtype, mtype.name());
+        return mtype.name();
     }
 
     /**
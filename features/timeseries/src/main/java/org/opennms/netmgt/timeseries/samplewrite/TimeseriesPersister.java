@@ -71,6 +71,7 @@ public class TimeseriesPersister extends AbstractPersister {
     private final TimeseriesWriter writer;
     private final MetaTagDataLoader metaDataLoader;
     private final Cache<ResourcePath, Set<Tag>> configuredAdditionalMetaTagCache;
+    private final MetricIdentityCache metricIdentityCache;
     private TimeseriesPersistOperationBuilder currentBuilder; // builds a group of attributes
     private List<TimeseriesPersistOperationBuilder> allBuilders; // we need to keep track for commit
     private Map<ResourcePath, Map<String, String>> resourceLevelStringAttributes;
@@ -78,20 +79,19 @@ public class TimeseriesPersister extends AbstractPersister {
 
     protected TimeseriesPersister(ServiceParameters params, RrdRepository repository, TimeseriesWriter timeseriesWriter,
                                   MetaTagDataLoader metaDataLoader, Cache<ResourcePath, Set<Tag>> configuredAdditionalMetaTagCache,
-                                  MetricRegistry metricRegistry) {
+                                  MetricRegistry metricRegistry, MetricIdentityCache metricIdentityCache) {
         super(params, repository);
         this.repository = repository;
         writer = timeseriesWriter;
         this.metaDataLoader = metaDataLoader;
         this.configuredAdditionalMetaTagCache = configuredAdditionalMetaTagCache;
         this.metricRegistry = Objects.requireNonNull(metricRegistry, "metricRegistry can not be null");
+        this.metricIdentityCache = metricIdentityCache;
     }
 
     @Override
     public void visitResource(CollectionResource resource) {
         super.visitResource(resource);
-        // compute user defined meta data for this resource
-        this.configuredAdditionalMetaTagCache.put(resource.getPath(), metaDataLoader.load(resource));
         this.resourceLevelStringAttributes = Maps.newLinkedHashMap();
         this.allBuilders = new ArrayList<>();
     }
@@ -105,7 +105,7 @@ public class TimeseriesPersister extends AbstractPersister {
             CollectionResource resource = group.getResource();
             Set<Tag> metaTags = getUserDefinedMetaTags(resource);
             currentBuilder = new TimeseriesPersistOperationBuilder(writer, repository, resource, group.getName(), metaTags,
-                    resourceLevelStringAttributes, this.metricRegistry);
+                    resourceLevelStringAttributes, this.metricRegistry, this.metricIdentityCache);
             if (resource.getTimeKeeper() != null) {
                 currentBuilder.setTimeKeeper(resource.getTimeKeeper());
             }
@@ -116,7 +116,9 @@ public class TimeseriesPersister extends AbstractPersister {
 
     private Set<Tag> getUserDefinedMetaTags(final CollectionResource resource) {
         try {
-            return configuredAdditionalMetaTagCache.get(resource.getPath());
+            // the user defined meta data is only computed when it is not cached, the cached
+            // tags are dropped when the node changes
+            return configuredAdditionalMetaTagCache.get(resource.getPath(), () -> metaDataLoader.load(resource));
         } catch (ExecutionException e) {
             LOG.warn("An exception occurred while trying to retrieve meta tags for {}", resource.getPath(), e);
         }
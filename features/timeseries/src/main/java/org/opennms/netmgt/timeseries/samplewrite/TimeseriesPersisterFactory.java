@@ -21,6 +21,9 @@
  */
 package org.opennms.netmgt.timeseries.samplewrite;
 
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -33,16 +36,20 @@ import org.opennms.integration.api.v1.timeseries.Tag;
 import org.opennms.netmgt.collection.api.Persister;
 import org.opennms.netmgt.collection.api.PersisterFactory;
 import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
 import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.rrd.RrdRepository;
 
 import com.codahale.metrics.MetricRegistry;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
 import org.opennms.netmgt.timeseries.stats.StatisticsCollector;
+import org.opennms.netmgt.timeseries.util.RollupTier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.base.Strings;
+
 /**
  * Factory for {@link TimeseriesPersister}.
  *
@@ -55,6 +62,9 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
     private final MetaTagDataLoader metaTagDataLoader;
     private final Cache<ResourcePath, Set<Tag>> configuredAdditionalMetaTagCache;
     private final MetricRegistry registry;
+    private final MetricIdentityCache metricIdentityCache = new MetricIdentityCache();
+    private final MetaTagCacheInvalidator metaTagCacheInvalidator;
+    private EventSubscriptionService eventSubscriptionService;
 
     @Inject
     public TimeseriesPersisterFactory(final MetaTagDataLoader metaTagDataLoader,
@@ -63,12 +73,22 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
                                       @Named("timeseriesPersisterMetaTagCache") final CacheConfig cacheConfig,
                                       @Named("timeseriesMetricRegistry") MetricRegistry registry,
                                       @Named("timeseriesWriterConfig") TimeseriesWriterConfig timeseriesWriterConfig) {
+        TimeseriesWriter writer;
         if (timeseriesWriterConfig.getBufferType() == TimeseriesWriterConfig.BufferType.OFFHEAP) {
-            this.timeseriesWriter = new OffheapTimeSeriesWriter(timeseriesStorageManager,timeseriesWriterConfig, registry);
+            writer = new OffheapTimeSeriesWriter(timeseriesStorageManager,timeseriesWriterConfig, registry);
         } else {
-            this.timeseriesWriter = new RingBufferTimeseriesWriter(timeseriesStorageManager, stats, timeseriesWriterConfig.getBufferSize(),
-                    timeseriesWriterConfig.getNumWriterThreads(), registry);
+            writer = new RingBufferTimeseriesWriter(timeseriesStorageManager, stats, timeseriesWriterConfig.getBufferSize(),
+                    timeseriesWriterConfig.getNumWriterThreads(), registry, timeseriesWriterConfig.getMaxBatchSize(),
+                    timeseriesWriterConfig.getMaxBatchAge(), timeseriesWriterConfig.getMaxRetries());
+        }
+        final List<RollupTier> rollupTiers = RollupTier.parse(timeseriesWriterConfig.getRollupTiers());
+        if (!rollupTiers.isEmpty()) {
+            LOG.info("Rollup tiers: {}", rollupTiers);
+            final String statePath = timeseriesWriterConfig.getRollupStatePath();
+            writer = new RollupTimeseriesWriter(writer, rollupTiers, registry, Strings.isNullOrEmpty(statePath)
+                    ? null : Paths.get(statePath, RollupTimeseriesWriter.STATE_FILE_NAME));
         }
+        this.timeseriesWriter = writer;
         LOG.info("Writer: {}", this.timeseriesWriter);
 
         this.metaTagDataLoader = metaTagDataLoader;
@@ -77,6 +97,34 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
                 .withCacheLoader(metaTagDataLoader)
                 .build();
         this.registry = registry;
+        this.metaTagCacheInvalidator = new MetaTagCacheInvalidator(configuredAdditionalMetaTagCache, metaTagDataLoader);
+    }
+
+    /**
+     * The meta tags of a resource are cached until its node changes, which we learn about through events.
+     */
+    @Autowired(required = false)
+    public void setEventSubscriptionService(final EventSubscriptionService eventSubscriptionService) {
+        bindEventSubscriptionService(eventSubscriptionService, null);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public synchronized void bindEventSubscriptionService(final EventSubscriptionService eventSubscriptionService, final Map properties) {
+        if (eventSubscriptionService == null || eventSubscriptionService == this.eventSubscriptionService) {
+            return;
+        }
+        unbindEventSubscriptionService(this.eventSubscriptionService, properties);
+        eventSubscriptionService.addEventListener(metaTagCacheInvalidator, MetaTagCacheInvalidator.UEIS);
+        this.eventSubscriptionService = eventSubscriptionService;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public synchronized void unbindEventSubscriptionService(final EventSubscriptionService eventSubscriptionService, final Map properties) {
+        if (eventSubscriptionService == null || eventSubscriptionService != this.eventSubscriptionService) {
+            return;
+        }
+        eventSubscriptionService.removeEventListener(metaTagCacheInvalidator, MetaTagCacheInvalidator.UEIS);
+        this.eventSubscriptionService = null;
     }
 
     @Override
@@ -89,12 +137,13 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
                                      boolean forceStoreByGroup, boolean dontReorderAttributes) {
         // We ignore the forceStoreByGroup flag since we always store by group, and we ignore
         // the dontReorderAttributes flag since attribute order does not matter
-        TimeseriesPersister persister = new TimeseriesPersister(params, repository, timeseriesWriter, metaTagDataLoader, configuredAdditionalMetaTagCache, registry);
+        TimeseriesPersister persister = new TimeseriesPersister(params, repository, timeseriesWriter, metaTagDataLoader, configuredAdditionalMetaTagCache, registry, metricIdentityCache);
         persister.setIgnorePersist(dontPersistCounters);
         return persister;
     }
 
     public void destroy() {
+        unbindEventSubscriptionService(eventSubscriptionService, null);
         if (timeseriesWriter != null) {
             timeseriesWriter.destroy();
         }
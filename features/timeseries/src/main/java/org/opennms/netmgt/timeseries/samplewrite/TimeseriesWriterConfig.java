@@ -24,6 +24,8 @@ package org.opennms.netmgt.timeseries.samplewrite;
 public class TimeseriesWriterConfig {
     public enum BufferType {RINGBUFFER, OFFHEAP}
 
+    public enum DropPolicy {DROP_OLDEST, DROP_NEWEST}
+
     /**
      * Special comment about bufferSize and ringBufferSize.
      * If bufferSize defined return bufferSize, otherwise return ringBufferSize
@@ -45,6 +47,26 @@ public class TimeseriesWriterConfig {
 
     private long maxFileSize = -1;
 
+    // for offheap, keeps all samples in a journal on disk which is replayed after a restart
+    private boolean durable = false;
+
+    private long segmentSize = 64L * 1024L * 1024L;
+
+    private DropPolicy dropPolicy = DropPolicy.DROP_OLDEST;
+
+    // for ringbuffer, samples are merged into batches of up to this size before they are stored, 0 disables merging
+    private int maxBatchSize = 0;
+
+    private long maxBatchAge = 1000;
+
+    private int maxRetries = 0;
+
+    // comma separated durations of the rollup tiers, i.e. 5m,1h,1d, empty disables rollups
+    private String rollupTiers = "";
+
+    // directory the open rollup buckets are saved to on shutdown, empty writes them as they are
+    private String rollupStatePath = "";
+
     public int getBufferSize() {
         return bufferSize == -1 ? ringBufferSize : bufferSize;
     }
@@ -96,4 +118,68 @@ public class TimeseriesWriterConfig {
     public void setMaxFileSize(Long maxFileSize) {
         this.maxFileSize = maxFileSize;
     }
+
+    public boolean isDurable() {
+        return durable;
+    }
+
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public DropPolicy getDropPolicy() {
+        return dropPolicy;
+    }
+
+    public void setDropPolicy(DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getMaxBatchAge() {
+        return maxBatchAge;
+    }
+
+    public void setMaxBatchAge(long maxBatchAge) {
+        this.maxBatchAge = maxBatchAge;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public String getRollupTiers() {
+        return rollupTiers;
+    }
+
+    public void setRollupTiers(String rollupTiers) {
+        this.rollupTiers = rollupTiers;
+    }
+
+    public String getRollupStatePath() {
+        return rollupStatePath;
+    }
+
+    public void setRollupStatePath(String rollupStatePath) {
+        this.rollupStatePath = rollupStatePath;
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+
+/**
+ * A pre-aggregated (rollup) tier of the samples of a metric.
+ *
+ * Rollups are stored through the regular TimeSeriesStorage next to the raw samples, using the same resource id
+ * and a derived name, i.e. "ifHCInOctets:rollup_1h_avg". Every rollup sample covers one bucket of the tier's
+ * duration and is stored at the end of its bucket.
+ *
+ * Tiers are configured with {@link #PROPERTY}, as a comma separated list of durations such as "5m,1h,1d".
+ */
+public class RollupTier implements Comparable<RollupTier> {
+
+    public static final String PROPERTY = "org.opennms.timeseries.config.rollup_tiers";
+
+    private static final String NAME_SEPARATOR = ":rollup_";
+    private static final Pattern TIER_PATTERN = Pattern.compile("^(\\d+)([smhd])$");
+
+    public enum Function {
+        /**
+         * Average of the values in the bucket. Counters hold the last value of the bucket instead, the average
+         * rate is derived from consecutive rollups the same way it is derived from raw samples.
+         */
+        AVG,
+        /** smallest value in the bucket, only kept for gauges */
+        MIN,
+        /** largest value in the bucket, only kept for gauges */
+        MAX;
+
+        public String getSuffix() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final String label;
+    private final Duration duration;
+
+    private RollupTier(final String label, final Duration duration) {
+        this.label = Objects.requireNonNull(label);
+        this.duration = Objects.requireNonNull(duration);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the start of the bucket of this tier the given time, in epoch millis, falls into
+     */
+    public long getBucketStart(final long timeMillis) {
+        final long millis = duration.toMillis();
+        return Math.floorDiv(timeMillis, millis) * millis;
+    }
+
+    public String getMetricName(final String name, final Function function) {
+        return name + NAME_SEPARATOR + label + "_" + function.getSuffix();
+    }
+
+    /**
+     * Creates the metric holding the rollups of the given metric. The meta tags are kept, external tags are not.
+     */
+    public Metric getRollupMetric(final Metric metric, final Function function) {
+        final ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder();
+        for (final Tag tag : metric.getIntrinsicTags()) {
+            if (IntrinsicTagNames.name.equals(tag.getKey())) {
+                builder.intrinsicTag(IntrinsicTagNames.name, getMetricName(tag.getValue(), function));
+            } else {
+                builder.intrinsicTag(tag.getKey(), tag.getValue());
+            }
+        }
+        for (final Tag tag : metric.getMetaTags()) {
+            builder.metaTag(tag);
+        }
+        return builder.build();
+    }
+
+    public static boolean isRollupMetric(final Metric metric) {
+        final Tag name = metric.getFirstTagByKey(IntrinsicTagNames.name);
+        return name != null && name.getValue() != null && name.getValue().contains(NAME_SEPARATOR);
+    }
+
+    /**
+     * @return the coarsest of the given tiers whose buckets are not larger than the given step
+     */
+    public static Optional<RollupTier> select(final List<RollupTier> tiers, final long stepMillis) {
+        RollupTier selected = null;
+        for (final RollupTier tier : tiers) {
+            if (tier.duration.toMillis() <= stepMillis && (selected == null || tier.compareTo(selected) > 0)) {
+                selected = tier;
+            }
+        }
+        return Optional.ofNullable(selected);
+    }
+
+    /**
+     * Parses a comma separated list of tiers, i.e. "5m,1h,1d".
+     *
+     * @return the tiers, ordered from finest to coarsest
+     */
+    public static List<RollupTier> parse(final String tiers) {
+        if (tiers == null || tiers.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<RollupTier> result = new ArrayList<>();
+        for (final String tier : tiers.split(",")) {
+            final String label = tier.trim().toLowerCase();
+            if (label.isEmpty()) {
+                continue;
+            }
+            final Matcher m = TIER_PATTERN.matcher(label);
+            if (!m.matches() || Long.parseLong(m.group(1)) < 1) {
+                throw new IllegalArgumentException("Invalid rollup tier: '" + tier + "', expected a duration like 5m, 1h or 1d");
+            }
+            final long amount = Long.parseLong(m.group(1));
+            final Duration duration;
+            switch (m.group(2)) {
+                case "s": duration = Duration.ofSeconds(amount); break;
+                case "m": duration = Duration.ofMinutes(amount); break;
+                case "h": duration = Duration.ofHours(amount); break;
+                default: duration = Duration.ofDays(amount); break;
+            }
+            result.add(new RollupTier(label, duration));
+        }
+        Collections.sort(result);
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public int compareTo(final RollupTier other) {
+        return duration.compareTo(other.duration);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return duration.equals(((RollupTier) o).duration);
+    }
+
+    @Override
+    public int hashCode() {
+        return duration.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
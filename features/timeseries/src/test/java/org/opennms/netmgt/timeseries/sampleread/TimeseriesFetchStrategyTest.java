@@ -64,6 +64,7 @@ import org.opennms.netmgt.model.ResourceId;
 import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManagerImpl;
+import org.opennms.netmgt.timeseries.util.RollupTier;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results.Row;
@@ -79,6 +80,8 @@ public class TimeseriesFetchStrategyTest {
     private final static long START_TIME = 1431047069000L - (300 * 1000);
     private final static long END_TIME = 1431047069000L -1;
     private final static long STEP = (300 * 1000);
+    // aligned to the 5m buckets of the rollups
+    private final static long ROLLUP_START = 1431047100000L;
 
     private ResourceDao resourceDao;
     private TimeseriesStorageManagerImpl storageManager;
@@ -224,6 +227,60 @@ public class TimeseriesFetchStrategyTest {
         verify(resourceDao, atLeastOnce()).getResourceById(any(ResourceId.class));
     }
 
+    @Test
+    public void canReadRollupTierInsteadOfRawSamples() throws StorageException {
+        fetchStrategy.setRollupTiers(RollupTier.parse("5m"));
+        List<Source> sources = Collections.singletonList(createMockResource("icmp", "icmp", null, "127.0.0.1", false));
+        replay();
+
+        // closed buckets up to 20m are served from the rollups, the open bucket from 25m on from the raw samples
+        long start = ROLLUP_START;
+        long end = start + 6 * STEP - 1;
+        mockData("icmp:rollup_5m_avg", start, end, 42.0, start, start + STEP, start + 2 * STEP, start + 3 * STEP, start + 4 * STEP);
+        mockData("icmp", start + 4 * STEP, end, 33.0, start + 4 * STEP, start + 5 * STEP);
+
+        FetchResults fetchResults = fetchStrategy.fetch(start, end, STEP, 0, null, null, sources, false);
+        double[] values = fetchResults.getColumns().get("icmp");
+        assertEquals(6, values.length);
+        assertEquals(42.0, values[0], 0.0);
+        assertEquals(42.0, values[3], 0.0);
+        assertEquals(33.0, values[4], 0.0);
+        assertEquals(33.0, values[5], 0.0);
+
+        verify(resourceDao, atLeastOnce()).getResourceById(any(ResourceId.class));
+    }
+
+    @Test
+    public void canFallBackToRawSamplesWhenRollupsStop() throws StorageException {
+        fetchStrategy.setRollupTiers(RollupTier.parse("5m"));
+        List<Source> sources = Collections.singletonList(createMockResource("icmp", "icmp", null, "127.0.0.1", false));
+        replay();
+
+        // the rollups end long before the open bucket, they are not written anymore
+        long start = ROLLUP_START;
+        long end = start + 6 * STEP - 1;
+        mockData("icmp:rollup_5m_avg", start, end, 42.0, start);
+        mockData("icmp", start, end, 33.0, start);
+
+        FetchResults fetchResults = fetchStrategy.fetch(start, end, STEP, 0, null, null, sources, false);
+        assertEquals(33.0, fetchResults.getColumns().get("icmp")[0], 0.0);
+
+        verify(resourceDao, atLeastOnce()).getResourceById(any(ResourceId.class));
+    }
+
+    @Test
+    public void canFallBackToRawSamplesWithoutRollups() throws StorageException {
+        fetchStrategy.setRollupTiers(RollupTier.parse("5m"));
+        List<Source> sources = Collections.singletonList(createMockResource("icmp", "icmp", "127.0.0.1"));
+        replay();
+
+        // no rollups were stored, the raw samples are read instead
+        FetchResults fetchResults = fetchStrategy.fetch(START_TIME, END_TIME, STEP, 0, null, null, sources, false);
+        assertEquals(33.0, fetchResults.getColumns().get("icmp")[0], 0.0);
+
+        verify(resourceDao, atLeastOnce()).getResourceById(any(ResourceId.class));
+    }
+
     public Source createMockResource(final String label, final String attr, final String node) throws StorageException {
         return createMockResource(label, attr, node, true);
     }
@@ -305,6 +362,28 @@ public class TimeseriesFetchStrategyTest {
         return source;
     }
 
+    private void mockData(String name, long start, long end, double value, long... times) throws StorageException {
+        ImmutableMetric metric = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "response:127.0.0.1:icmp")
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .build();
+        TimeSeriesFetchRequest request = ImmutableTimeSeriesFetchRequest.builder()
+                .metric(metric)
+                .aggregation(Aggregation.AVERAGE)
+                .start(Instant.ofEpochMilli(start))
+                .end(Instant.ofEpochMilli(end))
+                .step(Duration.ofMillis(STEP))
+                .build();
+        ImmutableTimeSeriesData.ImmutableTimeSeriesDataBuilder data = ImmutableTimeSeriesData.builder().metric(metric);
+        for (long time : times) {
+            data.dataPoint(ImmutableDataPoint.builder()
+                    .time(Instant.ofEpochMilli(time))
+                    .value(value)
+                    .build());
+        }
+        when(timeSeriesStorage.getTimeSeriesData(request)).thenReturn(data.build());
+    }
+
     private void replay() {
         for (Entry<ResourceId, OnmsResource> entry : resources.entrySet()) {
             when(resourceDao.getResourceById(entry.getKey())).thenReturn(entry.getValue());
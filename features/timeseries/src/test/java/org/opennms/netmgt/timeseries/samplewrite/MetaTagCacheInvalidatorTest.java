@@ -0,0 +1,137 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.cache.Cache;
+import org.opennms.core.cache.CacheConfig;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTag;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.model.ImmutableMapper;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.model.ResourceTypeUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableSet;
+
+public class MetaTagCacheInvalidatorTest {
+
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private Cache<ResourcePath, Set<Tag>> cache;
+    private MetaTagDataLoader loader;
+    private MetaTagCacheInvalidator invalidator;
+
+    @Before
+    public void setUp() {
+        cache = new Cache<>(new CacheConfig("test"), CacheLoader.from(path -> ImmutableSet.of(new ImmutableTag("generation", Integer.toString(generation.get())))));
+        loader = mock(MetaTagDataLoader.class);
+        invalidator = new MetaTagCacheInvalidator(cache, loader);
+    }
+
+    @Test
+    public void canKeepTagsConsistentAfterNodeUpdates() throws Exception {
+        final ResourcePath node1 = ResourcePath.get("1", "mib2-interfaces", "eth0");
+        final ResourcePath node1ByFs = ResourcePath.get(ResourceTypeUtils.FOREIGN_SOURCE_DIRECTORY, "servers", "a", "mib2-interfaces");
+        final ResourcePath node2 = ResourcePath.get("2", "mib2-interfaces", "eth0");
+        final ResourcePath node12 = ResourcePath.get("12", "mib2-interfaces", "eth0");
+        for (ResourcePath path : new ResourcePath[]{node1, node1ByFs, node2, node12}) {
+            assertEquals("0", generationOf(path));
+        }
+
+        // the node changed, but without an event the cached tags remain
+        generation.incrementAndGet();
+        assertEquals("0", generationOf(node1));
+
+        when(loader.getForeignSourceAndForeignId(1)).thenReturn(new String[]{"servers", "a"});
+        invalidator.onEvent(ImmutableMapper.fromMutableEvent(new EventBuilder(EventConstants.NODE_UPDATED_EVENT_UEI, "test")
+                .setNodeid(1)
+                .getEvent()));
+
+        assertNull(cache.getIfCached(node1));
+        assertNull(cache.getIfCached(node1ByFs));
+        assertEquals("1", generationOf(node1));
+        assertEquals("1", generationOf(node1ByFs));
+        // other nodes are left alone
+        assertEquals("0", generationOf(node2));
+        assertEquals("0", generationOf(node12));
+    }
+
+    @Test
+    public void canUseForeignSourceFromEvent() throws Exception {
+        final ResourcePath node1ByFs = ResourcePath.get(ResourceTypeUtils.FOREIGN_SOURCE_DIRECTORY, "servers", "a", "mib2-interfaces");
+        assertEquals("0", generationOf(node1ByFs));
+
+        invalidator.onEvent(ImmutableMapper.fromMutableEvent(new EventBuilder(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI, "test")
+                .setNodeid(1)
+                .addParam(EventConstants.PARM_FOREIGN_SOURCE, "servers")
+                .addParam(EventConstants.PARM_FOREIGN_ID, "a")
+                .getEvent()));
+
+        assertNull(cache.getIfCached(node1ByFs));
+        verify(loader, never()).getForeignSourceAndForeignId(1);
+    }
+
+    @Test
+    public void canDropTagsWhenAssetsChange() throws Exception {
+        // asset fields can be used as meta tags
+        assertTrue(MetaTagCacheInvalidator.UEIS.contains(EventConstants.ASSET_INFO_CHANGED_EVENT_UEI));
+
+        final ResourcePath node1 = ResourcePath.get("1", "mib2-interfaces", "eth0");
+        assertEquals("0", generationOf(node1));
+        generation.incrementAndGet();
+
+        invalidator.onEvent(ImmutableMapper.fromMutableEvent(new EventBuilder(EventConstants.ASSET_INFO_CHANGED_EVENT_UEI, "test")
+                .setNodeid(1)
+                .getEvent()));
+
+        assertNull(cache.getIfCached(node1));
+        assertEquals("1", generationOf(node1));
+    }
+
+    @Test
+    public void canMatchNodePaths() {
+        assertTrue(MetaTagCacheInvalidator.belongsToNode(ResourcePath.get("1"), "1", null, null));
+        assertFalse(MetaTagCacheInvalidator.belongsToNode(ResourcePath.get("11"), "1", null, null));
+        assertTrue(MetaTagCacheInvalidator.belongsToNode(ResourcePath.get("fs", "servers", "a", "x"), "1", "servers", "a"));
+        assertFalse(MetaTagCacheInvalidator.belongsToNode(ResourcePath.get("fs", "servers", "ab", "x"), "1", "servers", "a"));
+    }
+
+    private String generationOf(ResourcePath path) throws Exception {
+        return cache.get(path).iterator().next().getValue();
+    }
+}
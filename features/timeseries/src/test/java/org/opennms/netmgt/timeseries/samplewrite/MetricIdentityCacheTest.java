@@ -0,0 +1,94 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTag;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class MetricIdentityCacheTest {
+
+    private final MetricIdentityCache cache = new MetricIdentityCache(100);
+
+    @Test
+    public void canReuseMetrics() {
+        final Set<Tag> metaTags = ImmutableSet.of(new ImmutableTag("cat_Servers", "Servers"));
+
+        final Metric first = cache.getMetric("snmp/1/mib2-interfaces", "ifInOctets", "count", metaTags,
+                new HashMap<>(ImmutableMap.of("ifAlias", "uplink")), null);
+        // every collection builds new attribute maps and ids with the same content
+        final Metric second = cache.getMetric(new String("snmp/1/mib2-interfaces"), "ifInOctets", "count", metaTags,
+                new HashMap<>(ImmutableMap.of("ifAlias", "uplink")), null);
+
+        assertSame(first, second);
+        assertEquals(MetricIdentityCache.buildMetric("snmp/1/mib2-interfaces", "ifInOctets", "count", metaTags,
+                ImmutableMap.of("ifAlias", "uplink"), null), first);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void canUpdateTagsWhenNodeChanges() {
+        final Set<Tag> before = ImmutableSet.of(new ImmutableTag("cat_Servers", "Servers"));
+        final Set<Tag> after = ImmutableSet.of(new ImmutableTag("cat_Routers", "Routers"));
+        final Map<String, String> attributes = Collections.emptyMap();
+
+        final Metric first = cache.getMetric("snmp/1/mib2-interfaces", "ifInOctets", "count", before, attributes, null);
+        final Metric second = cache.getMetric("snmp/1/mib2-interfaces", "ifInOctets", "count", after, attributes, null);
+        assertNotSame(first, second);
+        assertEquals(after, second.getMetaTags().stream()
+                .filter(t -> t.getKey().startsWith("cat_"))
+                .collect(ImmutableSet.toImmutableSet()));
+
+        // the new tags stick
+        assertSame(second, cache.getMetric("snmp/1/mib2-interfaces", "ifInOctets", "count", after, attributes, null));
+    }
+
+    @Test
+    public void canUpdateTagsWhenStringAttributesChange() {
+        final Set<Tag> metaTags = Collections.emptySet();
+
+        final Metric first = cache.getMetric("snmp/1/mib2-interfaces", "ifInOctets", "count", metaTags,
+                ImmutableMap.of("ifAlias", "uplink"), null);
+        final Metric second = cache.getMetric("snmp/1/mib2-interfaces", "ifInOctets", "count", metaTags,
+                ImmutableMap.of("ifAlias", "downlink"), null);
+        final Metric third = cache.getMetric("snmp/1/mib2-interfaces", "ifInOctets", "count", metaTags,
+                ImmutableMap.of("ifAlias", "downlink"), ImmutableMap.of("oid", ".1.3.6.1.2.1.2.2.1.10"));
+
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertEquals("downlink", second.getFirstTagByKey("ifAlias").getValue());
+        assertEquals(".1.3.6.1.2.1.2.2.1.10", third.getFirstTagByKey("oid").getValue());
+    }
+}
@@ -47,12 +47,15 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 public class OffheapTimeseriesWriterTest {
@@ -94,6 +97,71 @@ public class OffheapTimeseriesWriterTest {
         }
     }
 
+    /**
+     * Samples that could not be stored while the plugin was failing must be replayed,
+     * in the order they were inserted, once OpenNMS was restarted.
+     */
+    @Test
+    public void canReplaySamplesAfterRestart() throws Exception {
+        TimeseriesWriterConfig config = new TimeseriesWriterConfig();
+        config.setBufferSize(1024);
+        config.setNumWriterThreads(1);
+        config.setBatchSize(32);
+        config.setPath(folder.newFolder().toString());
+        config.setDurable(true);
+        config.setSegmentSize(4096);
+        final int numSamples = 100;
+
+        when(storageManager.get()).thenReturn(new FailingTimeseriesStorage());
+        OffheapTimeSeriesWriter writer = new OffheapTimeSeriesWriter(storageManager, config, new MetricRegistry());
+        Metric metric = createMetric().build();
+        for (int i = 0; i < numSamples; i++) {
+            Sample s = ImmutableSample.builder()
+                    .metric(metric)
+                    .time(Instant.ofEpochSecond(i))
+                    .value((double) i).build();
+            writer.insert(Lists.newArrayList(s));
+        }
+        writer.destroy();
+
+        RecordingTimeseriesStorage store = new RecordingTimeseriesStorage(numSamples);
+        when(storageManager.get()).thenReturn(store);
+        MetricRegistry registry = new MetricRegistry();
+        writer = new OffheapTimeSeriesWriter(storageManager, config, registry);
+        try {
+            assertTrue(store.latch.await(30, TimeUnit.SECONDS));
+            for (int i = 0; i < numSamples; i++) {
+                assertEquals((double) i, store.samples.get(i).getValue(), 0.0d);
+            }
+            assertEquals(numSamples, registry.meter(MetricRegistry.name(OffheapTimeSeriesWriter.OFFHEAP_NAME, "replayed-samples")).getCount());
+            assertEquals(0, registry.meter(MetricRegistry.name(OffheapTimeSeriesWriter.OFFHEAP_NAME, "dropped-samples")).getCount());
+        } finally {
+            writer.destroy();
+        }
+    }
+
+    private static class FailingTimeseriesStorage extends RingBufferTimeseriesWriterTest.MockTimeSeriesStorage {
+        @Override
+        public void store(List<Sample> samples) throws StorageException {
+            throw new StorageException("failed on purpose");
+        }
+    }
+
+    private static class RecordingTimeseriesStorage extends RingBufferTimeseriesWriterTest.MockTimeSeriesStorage {
+        private final List<Sample> samples = new CopyOnWriteArrayList<>();
+        private final CountDownLatch latch;
+
+        public RecordingTimeseriesStorage(int N) {
+            latch = new CountDownLatch(N);
+        }
+
+        @Override
+        public void store(List<Sample> samples) {
+            this.samples.addAll(samples);
+            samples.forEach(s -> latch.countDown());
+        }
+    }
+
     private static class LatchedTimeseriesStorage extends RingBufferTimeseriesWriterTest.MockTimeSeriesStorage {
         private final CountDownLatch latch;
 
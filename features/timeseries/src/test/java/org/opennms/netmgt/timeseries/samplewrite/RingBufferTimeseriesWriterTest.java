@@ -22,11 +22,13 @@
 package org.opennms.netmgt.timeseries.samplewrite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -139,6 +141,91 @@ public class RingBufferTimeseriesWriterTest {
         assertEquals(ringBufferSize, timeseriesStorage.getNumSamplesInserted());
     }
 
+    /**
+     * Verifies that the samples of many small events are merged into large,
+     * sorted batches and that the samples which are still pending are stored
+     * when the writer is destroyed.
+     */
+    @Test
+    public void canCoalesceSamplesIntoLargeBatches() throws Exception {
+        int numWriterThreads = 4;
+
+        BatchRecordingTimeseriesStorage store = new BatchRecordingTimeseriesStorage(0);
+        MetricRegistry registry = new MetricRegistry();
+        when(storageManager.get()).thenReturn(store);
+        RingBufferTimeseriesWriter writer = new RingBufferTimeseriesWriter(storageManager, new StatisticsCollectorImpl(numWriterThreads),
+                1024, numWriterThreads, registry, 100, 60000, 0);
+
+        for (int i = 0; i < 250; i++) {
+            Sample s = ImmutableSample.builder()
+                    .metric(ImmutableMetric.builder()
+                            .intrinsicTag(IntrinsicTagNames.resourceId, "a/b")
+                            .intrinsicTag(IntrinsicTagNames.name, "c" + (i % 10))
+                            .metaTag(MetaTagNames.mtype, Metric.Mtype.gauge.name())
+                            .build())
+                    .time(Instant.ofEpochMilli(250 - i))
+                    .value((double)i).build();
+            writer.insert(Lists.newArrayList(s));
+        }
+        writer.destroy();
+
+        assertEquals(250, store.getNumSamplesInserted());
+        assertEquals(3, store.getBatches().size());
+        for (List<Sample> batch : store.getBatches()) {
+            for (int i = 1; i < batch.size(); i++) {
+                Sample previous = batch.get(i - 1);
+                Sample current = batch.get(i);
+                int cmp = previous.getMetric().getKey().compareTo(current.getMetric().getKey());
+                assertTrue(cmp < 0 || cmp == 0 && previous.getMetric() == current.getMetric() && !previous.getTime().isAfter(current.getTime()));
+            }
+        }
+        assertEquals(3, registry.histogram(MetricRegistry.name("storage", BatchRecordingTimeseriesStorage.class.getName(), "batch-size")).getCount());
+    }
+
+    @Test
+    public void canRetryFailedBatches() throws Exception {
+        BatchRecordingTimeseriesStorage store = new BatchRecordingTimeseriesStorage(1);
+        MetricRegistry registry = new MetricRegistry();
+        when(storageManager.get()).thenReturn(store);
+        RingBufferTimeseriesWriter writer = new RingBufferTimeseriesWriter(storageManager, new StatisticsCollectorImpl(1),
+                1024, 1, registry, 0, 0, 2);
+
+        writer.insert(Lists.newArrayList(ImmutableSample.builder()
+                .metric(createMetric().build())
+                .time(Instant.now())
+                .value(1.0).build()));
+        writer.destroy();
+
+        assertEquals(1, store.getNumSamplesInserted());
+        assertEquals(1, registry.meter(MetricRegistry.name("storage", BatchRecordingTimeseriesStorage.class.getName(), "retries")).getCount());
+        assertEquals(0, registry.meter(MetricRegistry.name("storage", BatchRecordingTimeseriesStorage.class.getName(), "failures")).getCount());
+    }
+
+    private static class BatchRecordingTimeseriesStorage extends MockTimeSeriesStorage {
+        private final List<List<Sample>> batches = new CopyOnWriteArrayList<>();
+        private final AtomicInteger failuresLeft;
+
+        public BatchRecordingTimeseriesStorage(int failures) {
+            failuresLeft = new AtomicInteger(failures);
+        }
+
+        public List<List<Sample>> getBatches() {
+            return batches;
+        }
+
+        public int getNumSamplesInserted() {
+            return batches.stream().mapToInt(List::size).sum();
+        }
+
+        @Override
+        public void store(List<Sample> samples) throws StorageException {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new StorageException("failed on purpose");
+            }
+            batches.add(samples);
+        }
+    }
+
     private static class LatchedTimeseriesStorage extends MockTimeSeriesStorage {
         private final CountDownLatch latch;
 
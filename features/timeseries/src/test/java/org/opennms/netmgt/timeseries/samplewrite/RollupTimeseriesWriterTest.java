@@ -0,0 +1,190 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.netmgt.timeseries.util.RollupTier;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class RollupTimeseriesWriterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final RecordingTimeseriesWriter delegate = new RecordingTimeseriesWriter();
+
+    @Test
+    public void canRollupGauges() {
+        MetricRegistry registry = new MetricRegistry();
+        RollupTimeseriesWriter writer = new RollupTimeseriesWriter(delegate, RollupTier.parse("5m,1h"), registry);
+        Metric metric = createMetric("ifInErrors", Metric.Mtype.gauge);
+
+        // one sample per minute over 10 minutes, values 0..9
+        for (int i = 0; i < 10; i++) {
+            writer.insert(Collections.singletonList(sample(metric, Duration.ofMinutes(i), i)));
+        }
+        // raw samples are passed on untouched
+        assertEquals(10, delegate.samples.stream().filter(s -> !RollupTier.isRollupMetric(s.getMetric())).count());
+
+        // only the first 5m bucket is complete
+        Map<String, List<Sample>> rollups = rollupsByName();
+        assertEquals(3, rollups.size());
+        assertRollup(rollups, "ifInErrors:rollup_5m_avg", Duration.ofMinutes(5), 2.0d);
+        assertRollup(rollups, "ifInErrors:rollup_5m_min", Duration.ofMinutes(5), 0.0d);
+        assertRollup(rollups, "ifInErrors:rollup_5m_max", Duration.ofMinutes(5), 4.0d);
+
+        // the open buckets are written on shutdown
+        writer.destroy();
+        rollups = rollupsByName();
+        assertEquals(6, rollups.size());
+        assertEquals(2, rollups.get("ifInErrors:rollup_5m_avg").size());
+        assertRollup(rollups, "ifInErrors:rollup_1h_avg", Duration.ofHours(1), 4.5d);
+        assertRollup(rollups, "ifInErrors:rollup_1h_max", Duration.ofHours(1), 9.0d);
+        assertTrue(delegate.destroyed);
+        assertEquals(9, registry.meter("rollup.samples").getCount());
+    }
+
+    @Test
+    public void canRollupCountersAsLastValue() {
+        RollupTimeseriesWriter writer = new RollupTimeseriesWriter(delegate, RollupTier.parse("5m"), new MetricRegistry());
+        Metric metric = createMetric("ifHCInOctets", Metric.Mtype.counter);
+
+        for (int i = 0; i < 6; i++) {
+            writer.insert(Collections.singletonList(sample(metric, Duration.ofMinutes(i), 1000 * i)));
+        }
+
+        Map<String, List<Sample>> rollups = rollupsByName();
+        assertEquals(1, rollups.size());
+        assertRollup(rollups, "ifHCInOctets:rollup_5m_avg", Duration.ofMinutes(5), 4000.0d);
+        assertEquals(Metric.Mtype.counter.name(), rollups.get("ifHCInOctets:rollup_5m_avg").get(0)
+                .getMetric().getFirstTagByKey(MetaTagNames.mtype).getValue());
+    }
+
+    @Test
+    public void canSkipLateSamples() {
+        MetricRegistry registry = new MetricRegistry();
+        RollupTimeseriesWriter writer = new RollupTimeseriesWriter(delegate, RollupTier.parse("5m"), registry);
+        Metric metric = createMetric("ifInErrors", Metric.Mtype.gauge);
+
+        writer.insert(Collections.singletonList(sample(metric, Duration.ofMinutes(6), 1)));
+        writer.insert(Collections.singletonList(sample(metric, Duration.ofMinutes(1), 100)));
+        writer.destroy();
+
+        assertEquals(1, registry.meter("rollup.late-samples").getCount());
+        assertRollup(rollupsByName(), "ifInErrors:rollup_5m_max", Duration.ofMinutes(10), 1.0d);
+    }
+
+    @Test
+    public void canCompleteOpenBucketsAfterRestart() throws Exception {
+        Path stateFile = tempFolder.getRoot().toPath().resolve("timeseries").resolve(RollupTimeseriesWriter.STATE_FILE_NAME);
+        Metric metric = createMetric("ifInErrors", Metric.Mtype.gauge);
+
+        RollupTimeseriesWriter writer = new RollupTimeseriesWriter(delegate, RollupTier.parse("5m,1h"), new MetricRegistry(), stateFile);
+        for (int i = 0; i < 3; i++) {
+            writer.insert(Collections.singletonList(sample(metric, Duration.ofMinutes(i), i)));
+        }
+        // the open buckets are saved instead of being written incomplete
+        writer.destroy();
+        assertTrue(rollupsByName().isEmpty());
+        assertTrue(Files.exists(stateFile));
+
+        // after the restart, the buckets are completed with the samples seen before it
+        writer = new RollupTimeseriesWriter(delegate, RollupTier.parse("5m"), new MetricRegistry(), stateFile);
+        assertFalse(Files.exists(stateFile));
+        for (int i = 3; i < 6; i++) {
+            writer.insert(Collections.singletonList(sample(metric, Duration.ofMinutes(i), i)));
+        }
+        Map<String, List<Sample>> rollups = rollupsByName();
+        assertEquals(3, rollups.size());
+        assertRollup(rollups, "ifInErrors:rollup_5m_avg", Duration.ofMinutes(5), 2.0d);
+        assertRollup(rollups, "ifInErrors:rollup_5m_min", Duration.ofMinutes(5), 0.0d);
+        assertRollup(rollups, "ifInErrors:rollup_5m_max", Duration.ofMinutes(5), 4.0d);
+        assertEquals(Metric.Mtype.gauge.name(), rollups.get("ifInErrors:rollup_5m_avg").get(0)
+                .getMetric().getFirstTagByKey(MetaTagNames.mtype).getValue());
+    }
+
+    private Map<String, List<Sample>> rollupsByName() {
+        return delegate.samples.stream()
+                .filter(s -> RollupTier.isRollupMetric(s.getMetric()))
+                .collect(Collectors.groupingBy(s -> s.getMetric().getFirstTagByKey(IntrinsicTagNames.name).getValue()));
+    }
+
+    private static void assertRollup(Map<String, List<Sample>> rollups, String name, Duration time, double value) {
+        Sample sample = rollups.get(name).get(0);
+        assertEquals(Instant.EPOCH.plus(time), sample.getTime());
+        assertEquals(value, sample.getValue(), 0.0001d);
+    }
+
+    private static Sample sample(Metric metric, Duration time, double value) {
+        return ImmutableSample.builder()
+                .metric(metric)
+                .time(Instant.EPOCH.plus(time))
+                .value(value)
+                .build();
+    }
+
+    private static Metric createMetric(String name, Metric.Mtype mtype) {
+        return ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "snmp/1/eth0/mib2-X-interfaces")
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .metaTag(MetaTagNames.mtype, mtype.name())
+                .build();
+    }
+
+    private static class RecordingTimeseriesWriter implements TimeseriesWriter {
+        private final List<Sample> samples = new ArrayList<>();
+        private boolean destroyed = false;
+
+        @Override
+        public void insert(List<Sample> samples) {
+            this.samples.addAll(samples);
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
+}
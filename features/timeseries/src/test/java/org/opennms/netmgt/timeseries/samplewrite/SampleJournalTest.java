@@ -0,0 +1,150 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SampleJournalTest {
+
+    private static final int PAYLOAD_SIZE = 100;
+
+    // header plus payload, so that every segment holds exactly one batch
+    private static final long RECORD_SIZE = 12 + PAYLOAD_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Test
+    public void canReplayUnacknowledgedBatchesAfterRestart() throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        try (SampleJournal journal = open(dir, RECORD_SIZE, Long.MAX_VALUE, TimeseriesWriterConfig.DropPolicy.DROP_OLDEST)) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(journal.append(payload(i), 10));
+            }
+            final SampleJournal.Entry first = journal.take();
+            assertArrayEquals(payload(0), first.getPayload());
+            assertFalse(first.isReplayed());
+            journal.ack(first);
+            assertEquals(2, journal.getSegmentCount());
+        }
+
+        try (SampleJournal journal = open(dir, RECORD_SIZE, Long.MAX_VALUE, TimeseriesWriterConfig.DropPolicy.DROP_OLDEST)) {
+            assertEquals(20, journal.getPendingSamples());
+            assertEquals(2 * RECORD_SIZE, journal.getDiskUsage());
+            for (int i = 1; i < 3; i++) {
+                final SampleJournal.Entry entry = journal.take();
+                assertArrayEquals(payload(i), entry.getPayload());
+                assertTrue(entry.isReplayed());
+                journal.ack(entry);
+            }
+            assertEquals(0, journal.getSegmentCount());
+            assertEquals(0, journal.getDiskUsage());
+        }
+        assertEquals(0, dropped.get());
+    }
+
+    @Test
+    public void canDropOldestSegmentsWhenFull() throws Exception {
+        try (SampleJournal journal = open(folder.newFolder().toPath(), RECORD_SIZE, 2 * RECORD_SIZE, TimeseriesWriterConfig.DropPolicy.DROP_OLDEST)) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(journal.append(payload(i), 10));
+            }
+            assertEquals(10, dropped.get());
+            assertEquals(2 * RECORD_SIZE, journal.getDiskUsage());
+            assertArrayEquals(payload(1), journal.take().getPayload());
+            assertArrayEquals(payload(2), journal.take().getPayload());
+        }
+    }
+
+    @Test
+    public void canDropNewestBatchWhenFull() throws Exception {
+        try (SampleJournal journal = open(folder.newFolder().toPath(), RECORD_SIZE, 2 * RECORD_SIZE, TimeseriesWriterConfig.DropPolicy.DROP_NEWEST)) {
+            assertTrue(journal.append(payload(0), 10));
+            assertTrue(journal.append(payload(1), 10));
+            assertFalse(journal.append(payload(2), 10));
+            assertEquals(10, dropped.get());
+            assertArrayEquals(payload(0), journal.take().getPayload());
+            assertArrayEquals(payload(1), journal.take().getPayload());
+        }
+    }
+
+    @Test
+    public void canRecoverFromTornWrites() throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        try (SampleJournal journal = open(dir, 10 * RECORD_SIZE, Long.MAX_VALUE, TimeseriesWriterConfig.DropPolicy.DROP_OLDEST)) {
+            assertTrue(journal.append(payload(0), 10));
+            assertTrue(journal.append(payload(1), 10));
+        }
+
+        // simulate a crash in the middle of writing a third batch
+        final Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.collect(Collectors.toList()).get(0);
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(20).putInt(PAYLOAD_SIZE).putInt(10).putInt(42).flip());
+        }
+
+        try (SampleJournal journal = open(dir, 10 * RECORD_SIZE, Long.MAX_VALUE, TimeseriesWriterConfig.DropPolicy.DROP_OLDEST)) {
+            assertEquals(2 * RECORD_SIZE, journal.getDiskUsage());
+            assertEquals(20, journal.getPendingSamples());
+            assertArrayEquals(payload(0), journal.take().getPayload());
+            assertArrayEquals(payload(1), journal.take().getPayload());
+
+            // new batches go to a fresh segment after the recovered ones
+            assertTrue(journal.append(payload(2), 10));
+            assertArrayEquals(payload(2), journal.take().getPayload());
+        }
+        assertEquals(2 * RECORD_SIZE, Files.size(segment));
+    }
+
+    private SampleJournal open(final Path dir, final long segmentSize, final long maxSize,
+                               final TimeseriesWriterConfig.DropPolicy dropPolicy) throws IOException {
+        return new SampleJournal(dir, segmentSize, maxSize, dropPolicy, dropped::addAndGet);
+    }
+
+    private static byte[] payload(final int value) {
+        final byte[] payload = new byte[PAYLOAD_SIZE];
+        payload[0] = (byte) value;
+        payload[PAYLOAD_SIZE - 1] = (byte) value;
+        return payload;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+
+public class RollupTierTest {
+
+    @Test
+    public void canParseTiers() {
+        List<RollupTier> tiers = RollupTier.parse(" 1d, 5m,1h ");
+        assertEquals(3, tiers.size());
+        assertEquals(Duration.ofMinutes(5), tiers.get(0).getDuration());
+        assertEquals(Duration.ofHours(1), tiers.get(1).getDuration());
+        assertEquals(Duration.ofDays(1), tiers.get(2).getDuration());
+
+        assertTrue(RollupTier.parse("").isEmpty());
+        assertTrue(RollupTier.parse(null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotParseInvalidTiers() {
+        RollupTier.parse("5m,1w");
+    }
+
+    @Test
+    public void canSelectCoarsestTierForStep() {
+        List<RollupTier> tiers = RollupTier.parse("5m,1h,1d");
+        assertEquals(Optional.empty(), RollupTier.select(tiers, Duration.ofMinutes(1).toMillis()));
+        assertEquals(Optional.of(tiers.get(0)), RollupTier.select(tiers, Duration.ofMinutes(5).toMillis()));
+        assertEquals(Optional.of(tiers.get(1)), RollupTier.select(tiers, Duration.ofHours(12).toMillis()));
+        assertEquals(Optional.of(tiers.get(2)), RollupTier.select(tiers, Duration.ofDays(7).toMillis()));
+        assertEquals(Optional.empty(), RollupTier.select(Collections.emptyList(), Duration.ofDays(7).toMillis()));
+    }
+
+    @Test
+    public void canDeriveRollupMetric() {
+        RollupTier tier = RollupTier.parse("1h").get(0);
+        Metric metric = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "snmp/1/eth0/mib2-X-interfaces")
+                .intrinsicTag(IntrinsicTagNames.name, "ifHCInOctets")
+                .metaTag(MetaTagNames.mtype, Metric.Mtype.counter.name())
+                .externalTag("ifAlias", "uplink")
+                .build();
+
+        Metric rollup = tier.getRollupMetric(metric, RollupTier.Function.AVG);
+        assertEquals("ifHCInOctets:rollup_1h_avg", rollup.getFirstTagByKey(IntrinsicTagNames.name).getValue());
+        assertEquals("snmp/1/eth0/mib2-X-interfaces", rollup.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue());
+        assertEquals(Metric.Mtype.counter.name(), rollup.getFirstTagByKey(MetaTagNames.mtype).getValue());
+        assertTrue(rollup.getExternalTags().isEmpty());
+
+        assertTrue(RollupTier.isRollupMetric(rollup));
+        assertFalse(RollupTier.isRollupMetric(metric));
+        assertEquals(3_600_000L, tier.getBucketStart(3_600_000L + 1));
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.dao.support;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.model.ResourcePath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the resource directories and RRD files below the
+ * RRD base directory.
+ * <p>
+ * Each directory is listed the first time it is visited. The listing is kept
+ * and only read again when the modification time of the directory changes,
+ * which is what happens when a file or directory is added to, or removed
+ * from it. The modification time itself is checked at most once every
+ * revalidation interval, so within this interval lookups do not touch the
+ * filesystem at all. An interval of 0 checks the modification time of every
+ * directory that is visited, which keeps the index exact at the cost of one
+ * stat per directory.
+ * <p>
+ * A directory can be modified again within the granularity of its
+ * modification time without the time changing. A listing of a directory
+ * that was modified within that granularity of the time it was listed is
+ * therefore not trusted, and the directory is listed again the next time it
+ * is checked, until it is listed when the modification time is old enough.
+ * <p>
+ * Directories can be invalidated explicitly, i.e. when resources are deleted
+ * or when node events are received, so they are listed again on the next
+ * lookup.
+ */
+public class FilesystemResourceIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FilesystemResourceIndex.class);
+
+    /**
+     * The coarsest modification time granularity we expect from a filesystem,
+     * FAT uses 2 seconds and most others at most 1 second.
+     */
+    private static final long TIMESTAMP_GRANULARITY_MS = 2000;
+
+    private final Path m_root;
+
+    private final String m_rrdExtension;
+
+    private final long m_revalidateIntervalNanos;
+
+    private final Entry m_rootEntry;
+
+    private final AtomicLong m_listings = new AtomicLong();
+
+    private final AtomicLong m_revalidations = new AtomicLong();
+
+    public FilesystemResourceIndex(final Path root, final String rrdExtension, final long revalidateIntervalMs) {
+        m_root = Objects.requireNonNull(root, "root is required").toAbsolutePath();
+        m_rrdExtension = Objects.requireNonNull(rrdExtension, "rrdExtension is required");
+        m_revalidateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, revalidateIntervalMs));
+        m_rootEntry = new Entry(m_root);
+    }
+
+    /**
+     * @see org.opennms.netmgt.dao.api.ResourceStorageDao#exists(ResourcePath, int)
+     */
+    public boolean exists(final ResourcePath path, final int depth) {
+        final Entry entry = find(path);
+        return entry != null && exists(entry, depth);
+    }
+
+    /**
+     * @see org.opennms.netmgt.dao.api.ResourceStorageDao#existsWithin(ResourcePath, int)
+     */
+    public boolean existsWithin(final ResourcePath path, final int depth) {
+        final Entry entry = find(path);
+        return entry != null && existsWithin(entry, depth);
+    }
+
+    /**
+     * Returns the names of the sub-directories of the given path that
+     * contain RRD files at the given depth.
+     *
+     * @see org.opennms.netmgt.dao.api.ResourceStorageDao#children(ResourcePath, int)
+     */
+    public Set<String> children(final ResourcePath path, final int depth) {
+        final Entry entry = find(path);
+        if (entry == null) {
+            return Collections.emptySet();
+        }
+
+        final Set<String> children = new LinkedHashSet<>();
+        for (final Map.Entry<String, Entry> child : entry.listing().children.entrySet()) {
+            if (exists(child.getValue(), depth - 1)) {
+                children.add(child.getKey());
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Returns the names of the RRD files in the directory of the given path.
+     */
+    public Set<String> getRrdFileNames(final ResourcePath path) {
+        final Entry entry = find(path);
+        return entry == null ? Collections.emptySet() : entry.listing().rrdFiles;
+    }
+
+    /**
+     * Forces the directory of the given path, and all of the directories
+     * below it, to be listed again on the next lookup. The modification time
+     * of the parent directory is checked again as well. When the path
+     * isn't known yet, its parent is listed again since a directory that
+     * was just created may not have changed the modification time of its
+     * parent.
+     */
+    public void invalidate(final ResourcePath path) {
+        Entry parent = null;
+        Entry entry = m_rootEntry;
+        for (final String name : names(path)) {
+            final Listing listing = entry.m_listing;
+            if (listing == null) {
+                // Nothing was loaded below this directory yet
+                return;
+            }
+            parent = entry;
+            entry = listing.children.get(name);
+            if (entry == null) {
+                synchronized (parent) {
+                    // Wait for a listing in progress, it may not include the path either
+                    parent.m_listing = parent.m_listing.unverified();
+                    parent.m_checkedAt = Long.MIN_VALUE;
+                }
+                return;
+            }
+        }
+
+        entry.m_listing = null;
+        if (parent != null) {
+            parent.m_checkedAt = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Drops the whole index.
+     */
+    public void invalidateAll() {
+        m_rootEntry.m_listing = null;
+    }
+
+    /**
+     * @return the number of directory listings done by the index
+     */
+    public long getListingCount() {
+        return m_listings.get();
+    }
+
+    /**
+     * @return the number of times the modification time of a directory was checked
+     */
+    public long getRevalidationCount() {
+        return m_revalidations.get();
+    }
+
+    public Path getRoot() {
+        return m_root;
+    }
+
+    private boolean exists(final Entry entry, final int depth) {
+        final Listing listing = entry.listing();
+        if (depth == 0) {
+            return !listing.rrdFiles.isEmpty();
+        }
+        for (final Entry child : listing.children.values()) {
+            if (exists(child, depth - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean existsWithin(final Entry entry, final int depth) {
+        if (depth < 0) {
+            return false;
+        }
+        final Listing listing = entry.listing();
+        if (!listing.rrdFiles.isEmpty()) {
+            return true;
+        }
+        for (final Entry child : listing.children.values()) {
+            if (existsWithin(child, depth - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Entry find(final ResourcePath path) {
+        Entry entry = m_rootEntry;
+        for (final String name : names(path)) {
+            entry = entry.listing().children.get(name);
+            if (entry == null) {
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    private static List<String> names(final ResourcePath path) {
+        final Path relativePath = ResourcePath.resourceToFilesystemPath(path);
+        final List<String> names = new ArrayList<>(relativePath.getNameCount());
+        for (final Path name : relativePath) {
+            final String element = name.toString();
+            if (!element.isEmpty()) {
+                names.add(element);
+            }
+        }
+        return names;
+    }
+
+    private Listing list(final Path directory, final Listing previous) {
+        final long listedAt = System.currentTimeMillis();
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(directory, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return Listing.MISSING;
+        } catch (IOException e) {
+            LOG.error("Failed to read the attributes of {}. Marking path as non-existent.", directory, e);
+            return Listing.MISSING;
+        }
+        if (!attributes.isDirectory()) {
+            return Listing.MISSING;
+        }
+
+        final Map<String, Entry> children = new HashMap<>();
+        final Set<String> rrdFiles = new HashSet<>();
+        m_listings.incrementAndGet();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path p : stream) {
+                final String name = p.getFileName().toString();
+                if (Files.isDirectory(p)) {
+                    // Keep the entries we already have, so their listings are kept as well
+                    final Entry existing = previous.children.get(name);
+                    children.put(name, existing != null ? existing : new Entry(p));
+                } else if (name.endsWith(m_rrdExtension) && Files.isRegularFile(p)) {
+                    rrdFiles.add(name);
+                }
+            }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            return Listing.MISSING;
+        } catch (IOException e) {
+            LOG.error("Failed to list {}. Marking path as non-existent.", directory, e);
+            return Listing.MISSING;
+        }
+
+        // Changes made within the granularity of the modification time may not be part of the listing
+        final boolean verified = attributes.lastModifiedTime().toMillis() < listedAt - TIMESTAMP_GRANULARITY_MS;
+        return new Listing(attributes.lastModifiedTime(),
+                Collections.unmodifiableMap(children),
+                Collections.unmodifiableSet(rrdFiles),
+                verified);
+    }
+
+    private static final class Listing {
+        private static final Listing MISSING = new Listing(null, Collections.emptyMap(), Collections.emptySet(), true);
+
+        private final FileTime lastModified;
+        private final Map<String, Entry> children;
+        private final Set<String> rrdFiles;
+        private final boolean verified;
+
+        private Listing(final FileTime lastModified, final Map<String, Entry> children, final Set<String> rrdFiles,
+                        final boolean verified) {
+            this.lastModified = lastModified;
+            this.children = children;
+            this.rrdFiles = rrdFiles;
+            this.verified = verified;
+        }
+
+        /**
+         * @return a copy of this listing that is listed again the next time it is checked
+         */
+        private Listing unverified() {
+            return new Listing(lastModified, children, rrdFiles, false);
+        }
+    }
+
+    private final class Entry {
+        private final Path m_path;
+
+        private volatile Listing m_listing;
+
+        private volatile long m_checkedAt = Long.MIN_VALUE;
+
+        private Entry(final Path path) {
+            m_path = path;
+        }
+
+        private Listing listing() {
+            final Listing listing = m_listing;
+            final long now = System.nanoTime();
+            if (listing != null && m_checkedAt != Long.MIN_VALUE && now - m_checkedAt < m_revalidateIntervalNanos) {
+                return listing;
+            }
+
+            synchronized (this) {
+                final Listing current = m_listing;
+                if (current != null && current != listing) {
+                    // Another thread listed the directory while we were waiting
+                    return current;
+                }
+                if (current != null && isUnmodified(current)) {
+                    m_checkedAt = now;
+                    return current;
+                }
+                final Listing updated = list(m_path, current != null ? current : Listing.MISSING);
+                m_listing = updated;
+                m_checkedAt = now;
+                return updated;
+            }
+        }
+
+        private boolean isUnmodified(final Listing listing) {
+            m_revalidations.incrementAndGet();
+            if (!listing.verified) {
+                return false;
+            }
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(m_path, BasicFileAttributes.class);
+                return attributes.isDirectory() && attributes.lastModifiedTime().equals(listing.lastModified);
+            } catch (IOException e) {
+                return listing == Listing.MISSING;
+            }
+        }
+    }
+}
@@ -66,6 +66,12 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     private File m_rrdDirectory;
 
+    private boolean m_resourceIndexEnabled = false;
+
+    private long m_resourceIndexRevalidateInterval = 0;
+
+    private volatile FilesystemResourceIndex m_resourceIndex;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
@@ -75,18 +81,33 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
     @Override
     public boolean exists(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+        final FilesystemResourceIndex index = getResourceIndex();
+        if (index != null) {
+            return index.exists(path, depth);
+        }
         return exists(toPath(path), depth);
     }
 
     @Override
     public boolean existsWithin(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+        final FilesystemResourceIndex index = getResourceIndex();
+        if (index != null) {
+            return index.existsWithin(path, depth);
+        }
         return existsWithin(toPath(path), depth);
     }
 
     @Override
     public Set<ResourcePath> children(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth > 0, "depth must be positive");
+        final FilesystemResourceIndex index = getResourceIndex();
+        if (index != null) {
+            return index.children(path, depth).stream()
+                .map(name -> ResourcePath.get(path, name))
+                .collect(Collectors.toSet());
+        }
+
         final Path root = toPath(path);
         if (!Files.isDirectory(root)) {
             return Collections.emptySet();
@@ -105,6 +126,10 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     @Override
     public Set<OnmsAttribute> getAttributes(ResourcePath path) {
+        final FilesystemResourceIndex index = getResourceIndex();
+        if (index != null) {
+            return RrdResourceAttributeUtils.getAttributesAtRelativePath(m_rrdDirectory, ResourcePath.resourceToFilesystemPath(path).toString(), RRD_EXTENSION, index.getRrdFileNames(path));
+        }
         return RrdResourceAttributeUtils.getAttributesAtRelativePath(m_rrdDirectory, ResourcePath.resourceToFilesystemPath(path).toString(), RRD_EXTENSION);
     }
 
@@ -114,6 +139,8 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
             RrdResourceAttributeUtils.updateStringProperty(toPath(path).toFile(), value, key);
         } catch (IOException e) {
             throw Throwables.propagate(e);
+        } finally {
+            invalidate(path);
         }
     }
 
@@ -131,6 +158,7 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
     @Override
     public void updateMetricToResourceMappings(ResourcePath path, Map<String, String> metricsNameToResourceNames) {
         RrdResourceAttributeUtils.updateDsProperties(toPath(path).toFile(), metricsNameToResourceNames);
+        invalidate(path);
     }
 
     @Override
@@ -140,7 +168,52 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     @Override
     public boolean delete(ResourcePath path) {
-        return FileUtils.deleteQuietly(toPath(path).toFile());
+        try {
+            return FileUtils.deleteQuietly(toPath(path).toFile());
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    /**
+     * Forces the resource index to list the directory of the given path,
+     * and the directories below it, again on the next lookup.
+     */
+    public void invalidate(ResourcePath path) {
+        final FilesystemResourceIndex index = m_resourceIndex;
+        if (index != null) {
+            index.invalidate(path);
+        }
+    }
+
+    /**
+     * Drops the whole resource index.
+     */
+    public void invalidateAll() {
+        final FilesystemResourceIndex index = m_resourceIndex;
+        if (index != null) {
+            index.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the resource index, or null if the index is disabled
+     */
+    protected FilesystemResourceIndex getResourceIndex() {
+        if (!m_resourceIndexEnabled || m_rrdDirectory == null || RRD_EXTENSION == null) {
+            return null;
+        }
+        FilesystemResourceIndex index = m_resourceIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = m_resourceIndex;
+                if (index == null) {
+                    index = new FilesystemResourceIndex(m_rrdDirectory.toPath(), RRD_EXTENSION, m_resourceIndexRevalidateInterval);
+                    m_resourceIndex = index;
+                }
+            }
+        }
+        return index;
     }
 
     private boolean exists(Path root, int depth) {
@@ -179,6 +252,7 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     public void setRrdDirectory(File rrdDirectory) {
         m_rrdDirectory = rrdDirectory;
+        m_resourceIndex = null;
     }
 
     public File getRrdDirectory() {
@@ -192,6 +266,33 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     public void setRrdExtension(String rrdExtension) {
         RRD_EXTENSION = rrdExtension;
+        m_resourceIndex = null;
+    }
+
+    /**
+     * When enabled, the resource directories and RRD files are kept in a
+     * {@link FilesystemResourceIndex} instead of being listed on every call.
+     */
+    public void setResourceIndexEnabled(boolean resourceIndexEnabled) {
+        m_resourceIndexEnabled = resourceIndexEnabled;
+        m_resourceIndex = null;
+    }
+
+    public boolean isResourceIndexEnabled() {
+        return m_resourceIndexEnabled;
+    }
+
+    /**
+     * The number of milliseconds during which the index trusts a directory
+     * listing before checking the modification time of the directory again.
+     */
+    public void setResourceIndexRevalidateInterval(long resourceIndexRevalidateInterval) {
+        m_resourceIndexRevalidateInterval = resourceIndexRevalidateInterval;
+        m_resourceIndex = null;
+    }
+
+    public long getResourceIndexRevalidateInterval() {
+        return m_resourceIndexRevalidateInterval;
     }
 
     private static Predicate<Path> isRrdFile = new Predicate<Path>() {
@@ -0,0 +1,98 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.dao.support;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.opennms.netmgt.dao.api.ResourceStorageDao;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.annotations.EventHandler;
+import org.opennms.netmgt.events.api.annotations.EventListener;
+import org.opennms.netmgt.events.api.model.IEvent;
+import org.opennms.netmgt.events.api.model.IParm;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.model.ResourceTypeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Invalidates the parts of the {@link FilesystemResourceIndex} that belong to
+ * nodes and interfaces that are deleted, so they are listed again on the next
+ * lookup instead of waiting for the revalidation interval.
+ */
+@EventListener(name="OpenNMS.ResourceIndex", logPrefix="eventd")
+public class ResourceIndexEventProcessor {
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceIndexEventProcessor.class);
+
+    @Autowired(required=false)
+    private List<ResourceStorageDao> m_resourceStorageDaos = Collections.emptyList();
+
+    @EventHandler(uei = EventConstants.NODE_DELETED_EVENT_UEI)
+    public void handleNodeDeleted(IEvent event) {
+        final Long nodeId = event.getNodeid();
+        LOG.debug("Received event: {} with nodeId = {}", event.getUei(), nodeId);
+        if (nodeId == null) {
+            LOG.error("{} : Event with no node ID: {}", EventConstants.NODE_DELETED_EVENT_UEI, event.toString());
+            return;
+        }
+
+        invalidate(ResourcePath.get(ResourceTypeUtils.SNMP_DIRECTORY, nodeId.toString()));
+
+        final String foreignSource = getParm(event, EventConstants.PARM_FOREIGN_SOURCE);
+        final String foreignId = getParm(event, EventConstants.PARM_FOREIGN_ID);
+        if (foreignSource != null && foreignId != null) {
+            invalidate(ResourcePath.get(ResourceTypeUtils.SNMP_DIRECTORY, ResourceTypeUtils.FOREIGN_SOURCE_DIRECTORY, foreignSource, foreignId));
+        }
+    }
+
+    @EventHandler(uei = EventConstants.INTERFACE_DELETED_EVENT_UEI)
+    public void handleInterfaceDeleted(IEvent event) {
+        LOG.debug("Received event: {}", event.getUei());
+        if (event.getInterface() == null) {
+            return;
+        }
+        // Response time resources are stored by IP address
+        invalidate(ResourcePath.get(ResourceTypeUtils.RESPONSE_DIRECTORY, event.getInterface()));
+    }
+
+    private void invalidate(final ResourcePath path) {
+        for (final ResourceStorageDao resourceStorageDao : m_resourceStorageDaos) {
+            if (resourceStorageDao instanceof FilesystemResourceStorageDao) {
+                ((FilesystemResourceStorageDao) resourceStorageDao).invalidate(path);
+            }
+        }
+    }
+
+    private static String getParm(final IEvent event, final String name) {
+        final IParm parm = event.getParm(name);
+        if (parm == null || parm.getValue() == null) {
+            return null;
+        }
+        return parm.getValue().getContent();
+    }
+
+    public void setResourceStorageDaos(List<ResourceStorageDao> resourceStorageDaos) {
+        m_resourceStorageDaos = resourceStorageDaos;
+    }
+}
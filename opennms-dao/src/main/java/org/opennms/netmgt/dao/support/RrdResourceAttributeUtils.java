@@ -26,6 +26,9 @@ import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -69,12 +72,29 @@ public abstract class RrdResourceAttributeUtils {
     protected static Set<OnmsAttribute> getAttributesAtRelativePath(File rrdDirectory, String relativePath, String rrdFileSuffix) {
         final Set<OnmsAttribute> attributes =  new TreeSet<>(new AlphaNumericOnmsAttributeComparator());
 
-        loadRrdAttributes(rrdDirectory, relativePath, attributes, rrdFileSuffix);
+        loadRrdAttributes(rrdDirectory, relativePath, attributes, rrdFileSuffix, listRrdFileNames(rrdDirectory, relativePath, rrdFileSuffix));
         loadStringAttributes(rrdDirectory, relativePath, attributes);
         
         return attributes;
     }
 
+    /**
+     * <p>getAttributesAtRelativePath</p>
+     *
+     * @param rrdDirectory a {@link java.io.File} object.
+     * @param relativePath a {@link java.lang.String} object.
+     * @param rrdFileNames the names of the RRD files in the resource directory, when they are already known
+     * @return a {@link java.util.Set} object.
+     */
+    protected static Set<OnmsAttribute> getAttributesAtRelativePath(File rrdDirectory, String relativePath, String rrdFileSuffix, Collection<String> rrdFileNames) {
+        final Set<OnmsAttribute> attributes =  new TreeSet<>(new AlphaNumericOnmsAttributeComparator());
+
+        loadRrdAttributes(rrdDirectory, relativePath, attributes, rrdFileSuffix, rrdFileNames);
+        loadStringAttributes(rrdDirectory, relativePath, attributes);
+
+        return attributes;
+    }
+
     private static void loadStringAttributes(File rrdDirectory,
             String relativePath, Set<OnmsAttribute> attributes) {
         Properties properties = getStringProperties(rrdDirectory, relativePath);
@@ -85,8 +105,7 @@ public abstract class RrdResourceAttributeUtils {
         }
     }
 
-    private static void loadRrdAttributes(File rrdDirectory, String relativePath, Set<OnmsAttribute> attributes, final String rrdFileSuffix) {
-        int suffixLength = rrdFileSuffix.length();
+    private static Collection<String> listRrdFileNames(File rrdDirectory, String relativePath, final String rrdFileSuffix) {
         File resourceDir = new File(rrdDirectory, relativePath);
 
         FilenameFilter filter = new FilenameFilter() {
@@ -95,14 +114,19 @@ public abstract class RrdResourceAttributeUtils {
                 return name.endsWith(rrdFileSuffix);
             }
         };
-        File[] files = resourceDir.listFiles(filter);
+        String[] fileNames = resourceDir.list(filter);
 
-        if (files == null) {
-            return;
+        if (fileNames == null) {
+            return Collections.emptyList();
         }
-        
-        for (final File file : files) {
-            String fileName = file.getName();
+        return Arrays.asList(fileNames);
+    }
+
+    private static void loadRrdAttributes(File rrdDirectory, String relativePath, Set<OnmsAttribute> attributes, final String rrdFileSuffix, Collection<String> rrdFileNames) {
+        int suffixLength = rrdFileSuffix.length();
+        File resourceDir = new File(rrdDirectory, relativePath);
+
+        for (final String fileName : rrdFileNames) {
             if (ResourceTypeUtils.isStoreByGroup() && !(ResourceTypeUtils.isResponseTime(relativePath) || ResourceTypeUtils.isStatus(relativePath))) {
                 String groupName = fileName.substring(0, fileName.length() - suffixLength);
                 Properties props = getDsProperties(resourceDir);
@@ -0,0 +1,140 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.dao.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.opennms.netmgt.model.ResourcePath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare the resource
+ * lookups of the {@link FilesystemResourceStorageDao} with and without the
+ * {@link FilesystemResourceIndex}.
+ * <p>
+ * Every benchmark method call does what the resource API does when the
+ * graphs of a node are shown: find the interfaces of the node and load the
+ * attributes of each of them.
+ */
+public class FilesystemResourceIndexBenchmark {
+
+    private static final String RRD_EXTENSION = ".jrb";
+
+    private static final ResourcePath NODE = ResourcePath.get("snmp", "1");
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"100", "2000"})
+        public int interfaces;
+
+        @Param({"10"})
+        public int metricsPerInterface;
+
+        private Path rrdDirectory;
+        private FilesystemResourceStorageDao withoutIndex;
+        private FilesystemResourceStorageDao withIndex;
+
+        @Setup
+        public void setup() throws IOException {
+            rrdDirectory = Files.createTempDirectory("rrd");
+            final Path node = rrdDirectory.resolve(ResourcePath.resourceToFilesystemPath(NODE));
+            for (int i = 0; i < interfaces; i++) {
+                final Path intf = Files.createDirectories(node.resolve("eth" + i));
+                for (int j = 0; j < metricsPerInterface; j++) {
+                    Files.createFile(intf.resolve("metric" + j + RRD_EXTENSION));
+                }
+            }
+
+            withoutIndex = createDao(false);
+            withIndex = createDao(true);
+            lookup(withIndex, null);
+        }
+
+        private FilesystemResourceStorageDao createDao(final boolean indexed) {
+            final FilesystemResourceStorageDao dao = new FilesystemResourceStorageDao();
+            dao.setRrdDirectory(rrdDirectory.toFile());
+            dao.setRrdExtension(RRD_EXTENSION);
+            dao.setResourceIndexEnabled(indexed);
+            dao.setResourceIndexRevalidateInterval(10000);
+            return dao;
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            try (Stream<Path> paths = Files.walk(rrdDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static void lookup(final FilesystemResourceStorageDao dao, final Blackhole blackhole) {
+        for (final ResourcePath intf : dao.children(NODE, 1)) {
+            final Object attributes = dao.getAttributes(intf);
+            if (blackhole != null) {
+                blackhole.consume(attributes);
+            }
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void withoutIndex(BState state, Blackhole blackhole) {
+        lookup(state.withoutIndex, blackhole);
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void coldStart(BState state, Blackhole blackhole) {
+        lookup(state.createDao(true), blackhole);
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void lookupWithIndex(BState state, Blackhole blackhole) {
+        lookup(state.withIndex, blackhole);
+    }
+}
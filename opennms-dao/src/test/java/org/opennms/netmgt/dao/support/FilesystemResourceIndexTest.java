@@ -0,0 +1,224 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.dao.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.model.OnmsAttribute;
+import org.opennms.netmgt.model.ResourcePath;
+
+import com.google.common.collect.Sets;
+
+public class FilesystemResourceIndexTest {
+
+    private static final String RRD_EXTENSION = ".jrb";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File m_nodeFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        m_nodeFolder = tempFolder.newFolder("snmp", "1");
+        new File(m_nodeFolder, "ifInOctets" + RRD_EXTENSION).createNewFile();
+        for (int i = 0; i < 10; i++) {
+            final File intf = tempFolder.newFolder("snmp", "1", "eth" + i);
+            new File(intf, "ifHCInOctets" + RRD_EXTENSION).createNewFile();
+            new File(intf, "ifHCOutOctets" + RRD_EXTENSION).createNewFile();
+            new File(intf, "strings.properties").createNewFile();
+        }
+        // A folder without any metrics
+        tempFolder.newFolder("snmp", "1", "empty");
+
+        // Like an existing tree, nothing was modified recently
+        try (Stream<Path> paths = Files.walk(tempFolder.getRoot().toPath())) {
+            for (final Path path : paths.collect(Collectors.toList())) {
+                backdate(path);
+            }
+        }
+    }
+
+    private static void backdate(final Path path) throws IOException {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+    }
+
+    @Test
+    public void canAnswerLookupsFromTheIndex() {
+        final FilesystemResourceIndex index = new FilesystemResourceIndex(tempFolder.getRoot().toPath(), RRD_EXTENSION, 60000);
+
+        assertTrue(index.exists(ResourcePath.get("snmp", "1"), 0));
+        assertTrue(index.exists(ResourcePath.get("snmp", "1"), 1));
+        assertFalse(index.exists(ResourcePath.get("snmp", "1", "empty"), 0));
+        assertFalse(index.exists(ResourcePath.get("snmp", "2"), 0));
+        assertTrue(index.existsWithin(ResourcePath.get("snmp"), 1));
+        assertFalse(index.existsWithin(ResourcePath.get("snmp"), 0));
+        assertEquals(10, index.children(ResourcePath.get("snmp", "1"), 1).size());
+        assertEquals(Sets.newHashSet("ifHCInOctets" + RRD_EXTENSION, "ifHCOutOctets" + RRD_EXTENSION),
+                index.getRrdFileNames(ResourcePath.get("snmp", "1", "eth0")));
+
+        // Every directory is listed once, no matter how often it is visited
+        final long listings = index.getListingCount();
+        for (int i = 0; i < 100; i++) {
+            index.children(ResourcePath.get("snmp", "1"), 1);
+            index.getRrdFileNames(ResourcePath.get("snmp", "1", "eth" + (i % 10)));
+        }
+        assertEquals(listings, index.getListingCount());
+        assertEquals(0, index.getRevalidationCount());
+    }
+
+    @Test
+    public void canSeeChangesWhenRevalidatingEveryLookup() throws IOException {
+        final FilesystemResourceIndex index = new FilesystemResourceIndex(tempFolder.getRoot().toPath(), RRD_EXTENSION, 0);
+        assertEquals(10, index.children(ResourcePath.get("snmp", "1"), 1).size());
+        final long listings = index.getListingCount();
+
+        // Unmodified directories are not listed again
+        assertEquals(10, index.children(ResourcePath.get("snmp", "1"), 1).size());
+        assertEquals(listings, index.getListingCount());
+
+        // A new file in an existing directory
+        new File(new File(m_nodeFolder, "empty"), "ifHCInOctets" + RRD_EXTENSION).createNewFile();
+        assertEquals(11, index.children(ResourcePath.get("snmp", "1"), 1).size());
+
+        // A new directory
+        final File intf = tempFolder.newFolder("snmp", "1", "eth10");
+        new File(intf, "ifHCInOctets" + RRD_EXTENSION).createNewFile();
+        assertEquals(12, index.children(ResourcePath.get("snmp", "1"), 1).size());
+        assertTrue(index.exists(ResourcePath.get("snmp", "1", "eth10"), 0));
+
+        // A deleted file
+        assertTrue(new File(intf, "ifHCInOctets" + RRD_EXTENSION).delete());
+        assertFalse(index.exists(ResourcePath.get("snmp", "1", "eth10"), 0));
+    }
+
+    @Test
+    public void canInvalidate() throws IOException {
+        final FilesystemResourceIndex index = new FilesystemResourceIndex(tempFolder.getRoot().toPath(), RRD_EXTENSION, 60000);
+        assertEquals(10, index.children(ResourcePath.get("snmp", "1"), 1).size());
+        assertFalse(index.exists(ResourcePath.get("snmp", "2"), 0));
+
+        // Changes are not seen within the revalidation interval
+        final File node = tempFolder.newFolder("snmp", "2");
+        new File(node, "ifInOctets" + RRD_EXTENSION).createNewFile();
+        new File(new File(m_nodeFolder, "eth0"), "ifHCInOctets" + RRD_EXTENSION).delete();
+        new File(new File(m_nodeFolder, "eth0"), "ifHCOutOctets" + RRD_EXTENSION).delete();
+        assertFalse(index.exists(ResourcePath.get("snmp", "2"), 0));
+        assertEquals(10, index.children(ResourcePath.get("snmp", "1"), 1).size());
+
+        index.invalidate(ResourcePath.get("snmp", "1", "eth0"));
+        assertEquals(9, index.children(ResourcePath.get("snmp", "1"), 1).size());
+
+        // Invalidating a path that isn't known yet lists its parent again
+        index.invalidate(ResourcePath.get("snmp", "2"));
+        assertTrue(index.exists(ResourcePath.get("snmp", "2"), 0));
+
+        tempFolder.newFolder("snmp", "3");
+        index.invalidateAll();
+        assertEquals(Sets.newHashSet("1", "2"), index.children(ResourcePath.get("snmp"), 1));
+    }
+
+    @Test
+    public void canInvalidateUnknownPathWithUnchangedParent() throws IOException {
+        final FilesystemResourceIndex index = new FilesystemResourceIndex(tempFolder.getRoot().toPath(), RRD_EXTENSION, 0);
+        assertFalse(index.exists(ResourcePath.get("snmp", "2"), 0));
+
+        // The modification time of the parent doesn't change
+        final Path snmp = tempFolder.getRoot().toPath().resolve("snmp");
+        final FileTime lastModified = Files.getLastModifiedTime(snmp);
+        final File node = tempFolder.newFolder("snmp", "2");
+        new File(node, "ifInOctets" + RRD_EXTENSION).createNewFile();
+        Files.setLastModifiedTime(snmp, lastModified);
+        assertFalse(index.exists(ResourcePath.get("snmp", "2"), 0));
+
+        index.invalidate(ResourcePath.get("snmp", "2"));
+        assertTrue(index.exists(ResourcePath.get("snmp", "2"), 0));
+    }
+
+    @Test
+    public void doesNotTrustListingsOfRecentlyModifiedDirectories() throws IOException {
+        final FilesystemResourceIndex index = new FilesystemResourceIndex(tempFolder.getRoot().toPath(), RRD_EXTENSION, 0);
+        final Path snmp = tempFolder.getRoot().toPath().resolve("snmp");
+
+        // A directory modified just before it is listed
+        final FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        Files.setLastModifiedTime(snmp, now);
+        assertEquals(Sets.newHashSet("1"), index.children(ResourcePath.get("snmp"), 1));
+
+        // Modified again within the granularity of its modification time
+        new File(tempFolder.newFolder("snmp", "2"), "ifInOctets" + RRD_EXTENSION).createNewFile();
+        Files.setLastModifiedTime(snmp, now);
+        assertEquals(Sets.newHashSet("1", "2"), index.children(ResourcePath.get("snmp"), 1));
+
+        // Once listed with an old enough modification time, the listing is trusted
+        backdate(snmp.resolve("2"));
+        backdate(snmp);
+        assertEquals(Sets.newHashSet("1", "2"), index.children(ResourcePath.get("snmp"), 1));
+        final long listings = index.getListingCount();
+        assertEquals(Sets.newHashSet("1", "2"), index.children(ResourcePath.get("snmp"), 1));
+        assertEquals(listings, index.getListingCount());
+    }
+
+    @Test
+    public void canUseTheIndexInTheStorageDao() throws IOException {
+        final FilesystemResourceStorageDao withoutIndex = new FilesystemResourceStorageDao();
+        withoutIndex.setRrdDirectory(tempFolder.getRoot());
+        withoutIndex.setRrdExtension(RRD_EXTENSION);
+
+        final FilesystemResourceStorageDao withIndex = new FilesystemResourceStorageDao();
+        withIndex.setRrdDirectory(tempFolder.getRoot());
+        withIndex.setRrdExtension(RRD_EXTENSION);
+        withIndex.setResourceIndexEnabled(true);
+        withIndex.setResourceIndexRevalidateInterval(60000);
+
+        final ResourcePath nodePath = ResourcePath.get("snmp", "1");
+        assertEquals(withoutIndex.children(nodePath, 1), withIndex.children(nodePath, 1));
+        assertEquals(withoutIndex.exists(nodePath, 2), withIndex.exists(nodePath, 2));
+        assertEquals(withoutIndex.existsWithin(nodePath, 0), withIndex.existsWithin(nodePath, 0));
+        for (final ResourcePath child : withoutIndex.children(nodePath, 1)) {
+            final Set<OnmsAttribute> expected = withoutIndex.getAttributes(child);
+            final Set<OnmsAttribute> actual = withIndex.getAttributes(child);
+            assertEquals(expected.stream().map(OnmsAttribute::getName).collect(Collectors.toList()),
+                    actual.stream().map(OnmsAttribute::getName).collect(Collectors.toList()));
+        }
+
+        // Deleting a resource through the dao is seen right away
+        assertTrue(withIndex.delete(ResourcePath.get("snmp", "1", "eth0")));
+        assertEquals(9, withIndex.children(nodePath, 1).size());
+    }
+}
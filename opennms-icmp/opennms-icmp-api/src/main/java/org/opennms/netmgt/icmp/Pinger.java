@@ -126,6 +126,30 @@ public interface Pinger {
          */
         public List<Number> parallelPing(InetAddress host, int count, long timeout, long pingInterval) throws Exception;
         
+        /**
+         * Ping a batch of remote hosts, calling the callback once for every host
+         * upon success, timeout or error.  Implementations that can do so should
+         * send the whole batch in a tight loop and track the outstanding requests
+         * together; the default implementation simply issues one
+         * {@link #ping(InetAddress, long, int, int, int, PingResponseCallback)}
+         * per host.
+         *
+         * @param hosts The {@link java.net.InetAddress} addresses to poll.
+         * @param timeout The time to wait between each retry.
+         * @param retries The number of times to retry.
+         * @param packetsize The size in byte of the ICMP packet.
+         * @param cb the {@link org.opennms.netmgt.ping.PingResponseCallback} callback to call for each host
+         */
+        public default void sweep(final Iterable<InetAddress> hosts, final long timeout, final int retries, final int packetsize, final PingResponseCallback cb) throws Exception {
+            for (final InetAddress host : hosts) {
+                try {
+                    ping(host, timeout, retries, packetsize, 1, cb);
+                } catch (final Exception e) {
+                    cb.handleError(host, null, e);
+                }
+            }
+        }
+
 	public void setAllowFragmentation(final boolean allow) throws Exception;
 
 	public void setTrafficClass(final int tc) throws Exception;
@@ -78,6 +78,12 @@ public class BestMatchPinger implements Pinger {
         return m_pinger.parallelPing(host, count, timeout, pingInterval, size);
     }
 
+    @Override
+    public void sweep(final Iterable<InetAddress> hosts, final long timeout, final int retries, final int packetsize, final PingResponseCallback cb) throws Exception {
+        initialize();
+        m_pinger.sweep(hosts, timeout, retries, packetsize, cb);
+    }
+
     @Override
     public void initialize4() throws Exception {
         initialize();
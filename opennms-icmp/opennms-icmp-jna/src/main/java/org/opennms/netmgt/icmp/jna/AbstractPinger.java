@@ -22,12 +22,16 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 import org.opennms.jicmp.jna.NativeDatagramSocket;
 import org.opennms.netmgt.icmp.EchoPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * JnaPinger
@@ -35,8 +39,10 @@ import org.opennms.netmgt.icmp.EchoPacket;
  * @author brozow
  */
 public abstract class AbstractPinger<T extends InetAddress> implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractPinger.class);
 
     public static final double NANOS_PER_MILLI = 1000000.0;
+    public static final int MAX_PACKET_SIZE = 65535;
 
     private int m_pingerId;
     private NativeDatagramSocket m_pingSocket;
@@ -61,6 +67,19 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
         return m_pingerId;
     }
 
+    /**
+     * Enlarges the socket receive buffer so that bursts of replies to a sweep are
+     * not dropped before the reader thread gets to them.  This is best effort, the
+     * operating system may cap the size or not support the option at all.
+     */
+    public void setReceiveBufferSize(final int size) {
+        try {
+            m_pingSocket.setReceiveBufferSize(size);
+        } catch (final Throwable t) {
+            LOG.debug("Unable to set the receive buffer size of {} to {} bytes: {}", getClass().getSimpleName(), size, t.getMessage());
+        }
+    }
+
     public boolean isFinished() {
         return m_stopped;
     }
@@ -88,6 +107,29 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
 
     abstract public void ping(T addr, int identifier, int sequenceNumber, long threadId, long count, long interval, int packetSize) throws InterruptedException;
 
+    /**
+     * Sends one echo request for each of the given sweep requests back-to-back on
+     * this pinger's socket.  Failures to send a single packet are reported to
+     * <code>onError</code> and do not abort the rest of the batch.
+     */
+    public synchronized void ping(final List<JnaSweepRequest> requests, final int identifier, final BiConsumer<JnaSweepRequest, Throwable> onError) {
+        for (final JnaSweepRequest request : requests) {
+            try {
+                request.sent();
+                sendEcho(request.getAddress(), identifier, request.getSequenceNumber(), request.getThreadId(), request.getPacketSize());
+            } catch (final Throwable t) {
+                onError.accept(request, t);
+            }
+        }
+    }
+
+    /**
+     * Sends a single echo request using a pre-built packet template; only the
+     * sequence number, thread id and timestamp change between calls.  Always
+     * called while holding the lock on this pinger.
+     */
+    abstract protected void sendEcho(InetAddress addr, int identifier, int sequenceNumber, long threadId, int packetSize);
+
     public void addPingReplyListener(PingReplyListener listener) {
         m_listeners.add(listener);
     }
@@ -98,6 +140,16 @@ public abstract class AbstractPinger<T extends InetAddress> implements Runnable
         }
     }
 
+    /**
+     * Copies the remaining bytes of the given buffer into a new heap buffer.
+     */
+    protected static ByteBuffer copy(final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
     protected void setThrowable(Throwable e) {
         m_throwable.set(e);
     }
@@ -40,10 +40,14 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 	
 	private static final Logger LOG = LoggerFactory
 			.getLogger(JnaIcmpMessenger.class);
+
+	public static final String RECEIVE_BUFFER_SIZE_PROPERTY = "org.opennms.netmgt.icmp.jna.receiveBufferSize";
+	public static final int DEFAULT_RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
 	
 	private V4Pinger m_v4;
 	private V6Pinger m_v6;
     private ReplyHandler<JnaPingReply> m_callback = null;
+    private JnaSweeper m_sweeper = null;
 
 	public JnaIcmpMessenger(final int pingerId) throws Exception {
 	    Throwable error = null;
@@ -70,7 +74,17 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 	        LOG.warn("Unable to initialize JNA ICMP messenger", exception);
 	        throw exception;
 	    }
+
+	    final int receiveBufferSize = Integer.getInteger(RECEIVE_BUFFER_SIZE_PROPERTY, DEFAULT_RECEIVE_BUFFER_SIZE);
+	    if (m_v4 != null) m_v4.setReceiveBufferSize(receiveBufferSize);
+	    if (m_v6 != null) m_v6.setReceiveBufferSize(receiveBufferSize);
+
+	    m_sweeper = new JnaSweeper(pingerId, m_v4, m_v6);
 	}
+
+    public JnaSweeper getSweeper() {
+        return m_sweeper;
+    }
 	
     public boolean isV4Available() {
         if (m_v4 != null) {
@@ -94,12 +108,32 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
         @Override
 	public void start(ReplyHandler<JnaPingReply> callback) {
         m_callback = callback;
+        m_sweeper.start();
         if (m_v4 != null) m_v4.start();
         if (m_v6 != null) m_v6.start();
 	}
 
+    /**
+     * Stops the sweeper and the socket readers and closes the sockets. The
+     * messenger cannot be restarted afterwards.
+     */
+    public void stop() throws InterruptedException {
+        m_sweeper.stop();
+        if (m_v4 != null) {
+            m_v4.stop();
+            m_v4.closeSocket();
+        }
+        if (m_v6 != null) {
+            m_v6.stop();
+            m_v6.closeSocket();
+        }
+    }
+
         @Override
 	public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        if (m_sweeper.processReply(address, packet)) {
+            return;
+        }
         m_callback.handleReply(new JnaPingReply(address, packet));
 	}
 
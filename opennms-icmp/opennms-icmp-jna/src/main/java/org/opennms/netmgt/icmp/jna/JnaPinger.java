@@ -69,11 +69,19 @@ public class JnaPinger implements Pinger {
                 }
             });
             m_pingTracker.start();
-        } catch (final IOException e) {
-            final String errorMessage = e.getMessage().toLowerCase();
-            if (errorMessage.contains("permission denied") || errorMessage.contains("operation not permitted")) {
-                LOG.error("Permission error received while attempting to open ICMP socket. See https://docs.opennms.com/ for information on configuring ICMP for non-root.");
+        } catch (final Exception e) {
+            if (e instanceof IOException) {
+                final String errorMessage = String.valueOf(e.getMessage()).toLowerCase();
+                if (errorMessage.contains("permission denied") || errorMessage.contains("operation not permitted")) {
+                    LOG.error("Permission error received while attempting to open ICMP socket. See https://docs.opennms.com/ for information on configuring ICMP for non-root.");
+                }
+            }
+            // Don't leave the sockets and threads of a half initialized messenger behind, the next call creates a new one
+            if (m_messenger != null) {
+                m_messenger.stop();
+                m_messenger = null;
             }
+            m_pingTracker = null;
             throw e;
         }
     }
@@ -204,6 +212,23 @@ public class JnaPinger implements Pinger {
         return ping(host, DEFAULT_TIMEOUT, DEFAULT_RETRIES);
     }
 
+    /**
+     * Ping a batch of remote hosts. The requests are sent back-to-back on the
+     * shared ICMP sockets and expired together by the {@link JnaSweeper} instead
+     * of being tracked one by one.
+     *
+     * @param hosts The {@link java.net.InetAddress} addresses to poll.
+     * @param timeout The time to wait between each retry.
+     * @param retries The number of times to retry.
+     * @param packetsize The size in byte of the ICMP packet.
+     * @param cb a {@link org.opennms.netmgt.ping.PingResponseCallback} object.
+     */
+    @Override
+    public void sweep(final Iterable<InetAddress> hosts, final long timeout, final int retries, final int packetsize, final PingResponseCallback cb) throws Exception {
+        initialize();
+        m_messenger.getSweeper().sweep(hosts, timeout, retries, packetsize, cb);
+    }
+
     /**
      * Ping a remote host, sending 1 or more packets at the given interval, and then
      * return the response times as a list.
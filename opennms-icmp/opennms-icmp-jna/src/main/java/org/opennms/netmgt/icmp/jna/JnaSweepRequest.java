@@ -0,0 +1,172 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.icmp.jna;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+
+/**
+ * A single outstanding echo request sent as part of a sweep.
+ *
+ * Unlike {@link JnaPingRequest} a sweep request is not recreated for every
+ * retry: the same request is re-sent with the same id and rescheduled on the
+ * {@link PingTimerWheel} until it is answered or runs out of retries.
+ */
+public class JnaSweepRequest implements EchoPacket {
+
+    private final JnaPingRequestId m_id;
+    private final long m_timeout;
+    private final int m_packetSize;
+    private final PingResponseCallback m_callback;
+
+    /**
+     * Only modified by the timer wheel thread.
+     */
+    private int m_retries;
+
+    private volatile long m_sentTimeNanos = -1L;
+    private volatile long m_receivedTimeNanos = -1L;
+    private volatile boolean m_processed = false;
+
+    public JnaSweepRequest(final JnaPingRequestId id, final long timeout, final int retries, final int packetSize, final PingResponseCallback cb) {
+        m_id = id;
+        m_timeout = timeout;
+        m_retries = retries;
+        m_packetSize = packetSize;
+        m_callback = cb;
+    }
+
+    public JnaPingRequestId getId() {
+        return m_id;
+    }
+
+    public InetAddress getAddress() {
+        return m_id.getAddress();
+    }
+
+    public long getTimeout() {
+        return m_timeout;
+    }
+
+    public int getPacketSize() {
+        return m_packetSize;
+    }
+
+    public PingResponseCallback getCallback() {
+        return m_callback;
+    }
+
+    /**
+     * Consumes one retry.
+     *
+     * @return true if the request should be sent again, false if it has timed out
+     */
+    boolean retry() {
+        if (m_retries > 0) {
+            m_retries--;
+            return true;
+        }
+        return false;
+    }
+
+    void sent() {
+        m_sentTimeNanos = System.nanoTime();
+    }
+
+    public boolean isProcessed() {
+        return m_processed;
+    }
+
+    void processResponse(final JnaPingReply reply) {
+        m_receivedTimeNanos = reply.getReceivedTimeNanos();
+        m_processed = true;
+        m_callback.handleResponse(getAddress(), reply);
+    }
+
+    void processTimeout() {
+        m_processed = true;
+        m_callback.handleTimeout(getAddress(), this);
+    }
+
+    void processError(final Throwable t) {
+        m_processed = true;
+        m_callback.handleError(getAddress(), this, t);
+    }
+
+    @Override
+    public boolean isEchoReply() {
+        return false;
+    }
+
+    @Override
+    public int getIdentifier() {
+        return m_id.getIdentifier();
+    }
+
+    @Override
+    public int getSequenceNumber() {
+        return m_id.getSequenceNumber();
+    }
+
+    @Override
+    public long getThreadId() {
+        return m_id.getThreadId();
+    }
+
+    @Override
+    public long getReceivedTimeNanos() {
+        return m_receivedTimeNanos;
+    }
+
+    @Override
+    public long getSentTimeNanos() {
+        return m_sentTimeNanos;
+    }
+
+    @Override
+    public double elapsedTime(final TimeUnit timeUnit) {
+        final long sent = m_sentTimeNanos;
+        if (sent < 0) {
+            return 0;
+        }
+        // Until a reply arrives this is the time since the last (re)transmission
+        final long received = m_receivedTimeNanos;
+        final long elapsedNanos = (received < 0 ? System.nanoTime() : received) - sent;
+        final double nanosPerUnit = TimeUnit.NANOSECONDS.convert(1, timeUnit);
+        return elapsedNanos / nanosPerUnit;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        sb.append("ID=").append(m_id).append(',');
+        sb.append("Retries=").append(m_retries).append(",");
+        sb.append("Timeout=").append(m_timeout).append(",");
+        sb.append("Packet-Size=").append(m_packetSize);
+        sb.append("]");
+        return sb.toString();
+    }
+}
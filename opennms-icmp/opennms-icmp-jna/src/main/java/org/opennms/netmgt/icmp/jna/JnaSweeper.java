@@ -0,0 +1,207 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.icmp.jna;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.LogPrefixPreservingPingResponseCallback;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends and tracks large batches of echo requests.
+ *
+ * A sweep shares the pinger's sockets (one per address family) with the
+ * {@link org.opennms.core.tracker.RequestTracker} used for individual pings, but
+ * bypasses it entirely: requests are written back-to-back using a pre-built
+ * packet per family, kept in a single map keyed by request id and expired by a
+ * single {@link PingTimerWheel}.  Retries for all requests that expired on the
+ * same tick are sent again as one batch.
+ *
+ * Callbacks are issued from the socket reader threads (replies) and from the
+ * timer wheel thread (timeouts and retries) and so must not block.
+ */
+public class JnaSweeper {
+    private static final Logger LOG = LoggerFactory.getLogger(JnaSweeper.class);
+
+    /**
+     * The sequence number is a 16 bit field so a new thread id is used for
+     * every 64k requests of a sweep.
+     */
+    private static final int MAX_REQUESTS_PER_THREAD_ID = 0x10000;
+
+    public static final String BURST_SIZE_PROPERTY = "org.opennms.netmgt.icmp.jna.sweepBurstSize";
+    public static final int DEFAULT_BURST_SIZE = 256;
+    private static final long BURST_INTERVAL_MILLIS = 1;
+
+    private final int m_pingerId;
+    private final int m_burstSize = Math.max(1, Integer.getInteger(BURST_SIZE_PROPERTY, DEFAULT_BURST_SIZE));
+    private final V4Pinger m_v4;
+    private final V6Pinger m_v6;
+    private final Map<JnaPingRequestId, JnaSweepRequest> m_pending = new ConcurrentHashMap<>();
+    private final PingTimerWheel<JnaSweepRequest> m_timerWheel;
+
+    public JnaSweeper(final int pingerId, final V4Pinger v4, final V6Pinger v6) {
+        m_pingerId = pingerId;
+        m_v4 = v4;
+        m_v6 = v6;
+        m_timerWheel = new PingTimerWheel<>("JNA-ICMP-" + pingerId + "-Sweep", this::processTimeouts);
+    }
+
+    public void start() {
+        m_timerWheel.start();
+    }
+
+    public void stop() {
+        m_timerWheel.stop();
+    }
+
+    /**
+     * Returns the number of requests that are waiting for a reply or a timeout.
+     */
+    public int getPendingCount() {
+        return m_pending.size();
+    }
+
+    public void sweep(final Iterable<InetAddress> hosts, final long timeout, final int retries, final int packetSize, final PingResponseCallback cb) throws InterruptedException {
+        final PingResponseCallback callback = new LogPrefixPreservingPingResponseCallback(cb);
+        final List<JnaSweepRequest> batch = new ArrayList<>();
+
+        long threadId = JnaPingRequest.getNextTID();
+        int sequenceNumber = 0;
+        for (final InetAddress host : hosts) {
+            if (sequenceNumber == MAX_REQUESTS_PER_THREAD_ID) {
+                threadId = JnaPingRequest.getNextTID();
+                sequenceNumber = 0;
+            }
+            final JnaSweepRequest request = new JnaSweepRequest(new JnaPingRequestId(host, m_pingerId, sequenceNumber++, threadId), timeout, retries, packetSize, callback);
+            // track the request before sending it, the reply may arrive before we are done sending the batch
+            m_pending.put(request.getId(), request);
+            batch.add(request);
+        }
+
+        LOG.debug("Sweeping {} addresses (timeout={}, retries={}, packet-size={})", batch.size(), timeout, retries, packetSize);
+        for (int i = 0; i < batch.size(); i += m_burstSize) {
+            if (i > 0) {
+                // give the reader threads a chance to drain the socket before the next burst
+                Thread.sleep(BURST_INTERVAL_MILLIS);
+            }
+            send(batch.subList(i, Math.min(i + m_burstSize, batch.size())));
+        }
+    }
+
+    /**
+     * Called by the messenger for every valid echo reply.
+     *
+     * @return true if the reply belonged to a sweep request, false if it should be
+     *     handed to the request tracker
+     */
+    public boolean processReply(final InetAddress address, final EchoPacket packet) {
+        if (m_pending.isEmpty()) {
+            return false;
+        }
+        final JnaPingReply reply = new JnaPingReply(address, packet);
+        final JnaSweepRequest request = m_pending.remove(reply.getRequestId());
+        if (request == null) {
+            return false;
+        }
+        try {
+            request.processResponse(reply);
+        } catch (final Throwable t) {
+            LOG.error("Failed to issue callback for sweep reply from {}.", InetAddressUtils.str(address), t);
+        }
+        return true;
+    }
+
+    private void send(final List<JnaSweepRequest> requests) {
+        final List<JnaSweepRequest> v4Requests = new ArrayList<>(requests.size());
+        final List<JnaSweepRequest> v6Requests = new ArrayList<>();
+        for (final JnaSweepRequest request : requests) {
+            final InetAddress addr = request.getAddress();
+            if (addr instanceof Inet4Address && m_v4 != null) {
+                v4Requests.add(request);
+            } else if (addr instanceof Inet6Address && m_v6 != null) {
+                v6Requests.add(request);
+            } else {
+                processError(request, new IllegalStateException("Cannot ping " + InetAddressUtils.str(addr) + ": No pinger found that can handle this address"));
+            }
+        }
+
+        if (!v4Requests.isEmpty()) {
+            m_v4.ping(v4Requests, m_pingerId, this::processError);
+            schedule(v4Requests);
+        }
+        if (!v6Requests.isEmpty()) {
+            m_v6.ping(v6Requests, m_pingerId, this::processError);
+            schedule(v6Requests);
+        }
+    }
+
+    private void schedule(final List<JnaSweepRequest> requests) {
+        for (final JnaSweepRequest request : requests) {
+            if (!request.isProcessed()) {
+                m_timerWheel.schedule(request, request.getTimeout());
+            }
+        }
+    }
+
+    private void processTimeouts(final List<JnaSweepRequest> expired) {
+        final List<JnaSweepRequest> retries = new ArrayList<>();
+        for (final JnaSweepRequest request : expired) {
+            if (request.isProcessed()) {
+                continue;
+            }
+            if (request.retry()) {
+                retries.add(request);
+            } else if (m_pending.remove(request.getId(), request)) {
+                try {
+                    request.processTimeout();
+                } catch (final Throwable t) {
+                    LOG.error("Failed to issue timeout callback for sweep request {}.", request, t);
+                }
+            }
+        }
+        if (!retries.isEmpty()) {
+            LOG.debug("Retrying {} sweep requests", retries.size());
+            send(retries);
+        }
+    }
+
+    private void processError(final JnaSweepRequest request, final Throwable t) {
+        if (m_pending.remove(request.getId(), request)) {
+            try {
+                request.processError(t);
+            } catch (final Throwable e) {
+                LOG.error("Failed to issue error callback for sweep request {}.", request, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.icmp.jna;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.opennms.core.logging.Logging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timer wheel used to expire batched ping requests.
+ *
+ * All timeouts are driven by a single thread that advances one slot per tick
+ * and hands every entry whose deadline has passed to the expiry handler in one
+ * call.  Scheduling is O(1) and, unlike a {@link java.util.concurrent.DelayQueue},
+ * does not need to keep hundreds of thousands of outstanding requests ordered.
+ * Timeouts are rounded up to the next tick.
+ *
+ * @param <T> the type of the scheduled entries
+ */
+public class PingTimerWheel<T> implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(PingTimerWheel.class);
+
+    public static final long DEFAULT_TICK_MILLIS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static class Timeout<T> {
+        private final T m_entry;
+        private final long m_deadline;
+
+        private Timeout(final T entry, final long deadline) {
+            m_entry = entry;
+            m_deadline = deadline;
+        }
+    }
+
+    private final String m_name;
+    private final long m_tickMillis;
+    private final int m_mask;
+    private final List<Timeout<T>>[] m_slots;
+    private final Consumer<List<T>> m_expiryHandler;
+    private final long m_startTime = now();
+
+    private volatile long m_tick = 0;
+    private volatile boolean m_stopped = false;
+    private Thread m_thread;
+
+    public PingTimerWheel(final String name, final Consumer<List<T>> expiryHandler) {
+        this(name, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, expiryHandler);
+    }
+
+    @SuppressWarnings("unchecked")
+    public PingTimerWheel(final String name, final long tickMillis, final int wheelSize, final Consumer<List<T>> expiryHandler) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("tickMillis must be at least 1");
+        }
+        if (wheelSize < 1 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a power of two");
+        }
+        m_name = name;
+        m_tickMillis = tickMillis;
+        m_mask = wheelSize - 1;
+        m_slots = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            m_slots[i] = new ArrayList<>();
+        }
+        m_expiryHandler = expiryHandler;
+    }
+
+    public synchronized void start() {
+        if (m_thread != null) return;
+        m_thread = new Thread(this, m_name + "-Timer-Wheel");
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    public synchronized void stop() {
+        m_stopped = true;
+        if (m_thread != null) {
+            m_thread.interrupt();
+        }
+        m_thread = null;
+    }
+
+    /**
+     * Schedules the given entry to be handed to the expiry handler once
+     * <code>timeoutMillis</code> have passed.
+     */
+    public void schedule(final T entry, final long timeoutMillis) {
+        final long deadline = now() + Math.max(0, timeoutMillis);
+        // never schedule into the slot that is currently being processed
+        final long tick = Math.max((deadline - m_startTime + m_tickMillis - 1) / m_tickMillis, m_tick + 1);
+        final List<Timeout<T>> slot = m_slots[(int)(tick & m_mask)];
+        synchronized(slot) {
+            slot.add(new Timeout<T>(entry, deadline));
+        }
+    }
+
+    /**
+     * Returns the number of entries currently scheduled.
+     */
+    public int size() {
+        int size = 0;
+        for (final List<Timeout<T>> slot : m_slots) {
+            synchronized(slot) {
+                size += slot.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void run() {
+        Logging.putPrefix("icmp");
+        while (!m_stopped) {
+            try {
+                final long tick = m_tick + 1;
+                final long sleep = m_startTime + tick * m_tickMillis - now();
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+                m_tick = tick;
+                expire(tick);
+            } catch (final InterruptedException e) {
+                if (!m_stopped) {
+                    LOG.warn("Thread {} interrupted!", Thread.currentThread());
+                }
+                return;
+            } catch (final Throwable t) {
+                LOG.error("Unexpected exception while processing timeouts on {}.", m_name, t);
+            }
+        }
+    }
+
+    protected void expire(final long tick) {
+        final List<Timeout<T>> slot = m_slots[(int)(tick & m_mask)];
+        final List<Timeout<T>> due;
+        synchronized(slot) {
+            if (slot.isEmpty()) return;
+            due = new ArrayList<>(slot);
+            slot.clear();
+        }
+
+        // entries further out than one revolution stay in the slot for the next pass
+        final long now = now();
+        final List<T> expired = new ArrayList<>(due.size());
+        final List<Timeout<T>> remaining = new ArrayList<>();
+        for (final Timeout<T> timeout : due) {
+            if (timeout.m_deadline <= now) {
+                expired.add(timeout.m_entry);
+            } else {
+                remaining.add(timeout);
+            }
+        }
+        if (!remaining.isEmpty()) {
+            synchronized(slot) {
+                slot.addAll(remaining);
+            }
+        }
+        if (!expired.isEmpty()) {
+            m_expiryHandler.accept(expired);
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
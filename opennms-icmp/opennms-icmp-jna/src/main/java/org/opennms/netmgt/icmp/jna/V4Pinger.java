@@ -24,6 +24,8 @@ package org.opennms.netmgt.icmp.jna;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.jicmp.ip.ICMPEchoPacket;
@@ -44,6 +46,11 @@ import com.sun.jna.Platform;
  */
 public class V4Pinger extends AbstractPinger<Inet4Address> {
     private static final Logger LOG = LoggerFactory.getLogger(V4Pinger.class);
+
+    /**
+     * Echo request templates by packet size, only used while holding the lock on this pinger.
+     */
+    private final Map<Integer, V4PingRequest> m_templates = new HashMap<>();
     
 
     public V4Pinger(final int pingerId) throws Exception {
@@ -67,8 +74,10 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
         Logging.putPrefix("icmp");
         try {
             final int pingerId = getPingerId();
+            // receive into a single native buffer, only matching replies are copied out
+            final NativeDatagramPacket datagram = new NativeDatagramPacket(ByteBuffer.allocateDirect(MAX_PACKET_SIZE), null, -1);
             while (!isFinished()) {
-                final NativeDatagramPacket datagram = new NativeDatagramPacket(65535);
+                datagram.setLength(MAX_PACKET_SIZE);
                 getPingSocket().receive(datagram);
                 final long received = System.nanoTime();
     
@@ -76,7 +85,7 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
                 final V4PingReply echoReply = icmpPacket.getType() == Type.EchoReply ? new V4PingReply(icmpPacket, received) : null;
             
                 if (echoReply != null && echoReply.getIdentifier() ==  pingerId && echoReply.isValid()) {
-                    notifyPingListeners(datagram.getAddress(), echoReply);
+                    notifyPingListeners(datagram.getAddress(), new V4PingReply(new ICMPPacket(copy(getIPPayload(datagram))), received));
                 }
             }
         } catch(final Throwable e) {
@@ -98,4 +107,13 @@ public class V4Pinger extends AbstractPinger<Inet4Address> {
             Thread.sleep(interval);
         }
     }
+
+    @Override
+    protected void sendEcho(final InetAddress addr, final int identifier, final int sequenceNumber, final long threadId, final int packetSize) {
+        final V4PingRequest template = m_templates.computeIfAbsent(packetSize, size -> new V4PingRequest(identifier, 0, 0, size));
+        template.setIdentifier(identifier);
+        template.setSequenceNumber(sequenceNumber);
+        template.setThreadId(threadId);
+        template.send(getPingSocket(), addr);
+    }
 }
@@ -24,6 +24,8 @@ package org.opennms.netmgt.icmp.jna;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.jicmp.ipv6.ICMPv6EchoPacket;
@@ -46,6 +48,11 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
 
 	private static final Logger LOG = LoggerFactory.getLogger(V6Pinger.class);
 
+    /**
+     * Echo request templates by packet size, only used while holding the lock on this pinger.
+     */
+    private final Map<Integer, V6PingRequest> m_templates = new HashMap<>();
+
     public V6Pinger(final int pingerId) throws Exception {
         super(pingerId, NativeDatagramSocket.create(NativeDatagramSocket.PF_INET6, NativeDatagramSocket.IPPROTO_ICMPV6, pingerId));
         
@@ -76,8 +83,10 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
         Logging.putPrefix("icmp");
         try {
             final int pingerId = getPingerId();
+            // receive into a single native buffer, only matching replies are copied out
+            final NativeDatagramPacket datagram = new NativeDatagramPacket(ByteBuffer.allocateDirect(MAX_PACKET_SIZE), null, -1);
             while (!isFinished()) {
-                final NativeDatagramPacket datagram = new NativeDatagramPacket(65535);
+                datagram.setLength(MAX_PACKET_SIZE);
                 getPingSocket().receive(datagram);
                 final long received = System.nanoTime();
     
@@ -85,7 +94,7 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
                 final V6PingReply echoReply = icmpPacket.getType() == Type.EchoReply ? new V6PingReply(icmpPacket, received) : null;
             
                 if (echoReply != null && echoReply.getIdentifier() == pingerId && echoReply.isValid()) {
-                    notifyPingListeners(datagram.getAddress(), echoReply);
+                    notifyPingListeners(datagram.getAddress(), new V6PingReply(new ICMPv6Packet(copy(getIPPayload(datagram))), received));
                 }
             }
         } catch(final Throwable t) {
@@ -107,4 +116,13 @@ public class V6Pinger extends AbstractPinger<Inet6Address> {
             Thread.sleep(interval);
         }
     }
+
+    @Override
+    protected void sendEcho(final InetAddress addr, final int identifier, final int sequenceNumber, final long threadId, final int packetSize) {
+        final V6PingRequest template = m_templates.computeIfAbsent(packetSize, size -> new V6PingRequest(identifier, 0, 0, size));
+        template.setIdentifier(identifier);
+        template.setSequenceNumber(sequenceNumber);
+        template.setThreadId(threadId);
+        template.send(getPingSocket(), addr);
+    }
 }
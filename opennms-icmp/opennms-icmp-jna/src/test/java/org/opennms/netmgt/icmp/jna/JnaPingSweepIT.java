@@ -0,0 +1,154 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingConstants;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Sweeps a range of loopback addresses (every address in 127.0.0.0/8 answers
+ * on Linux) and compares the batched sweep with one tracked ping per address.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestExecutionListeners({})
+public class JnaPingSweepIT {
+
+    private static final int SWEEP_SIZE = 4 * 254;
+
+    static private JnaPinger s_jnaPinger = new JnaPinger();
+
+    private static class SweepCallback implements PingResponseCallback {
+        private final CountDownLatch m_latch;
+        private final Set<InetAddress> m_responded = ConcurrentHashMap.newKeySet();
+        private final Set<InetAddress> m_timedOut = ConcurrentHashMap.newKeySet();
+        private final Set<InetAddress> m_failed = ConcurrentHashMap.newKeySet();
+        private final List<EchoPacket> m_timeoutRequests = new CopyOnWriteArrayList<>();
+
+        public SweepCallback(final int count) {
+            m_latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void handleResponse(InetAddress address, EchoPacket response) {
+            m_responded.add(address);
+            m_latch.countDown();
+        }
+
+        @Override
+        public void handleTimeout(InetAddress address, EchoPacket request) {
+            m_timedOut.add(address);
+            m_timeoutRequests.add(request);
+            m_latch.countDown();
+        }
+
+        @Override
+        public void handleError(InetAddress address, EchoPacket request, Throwable t) {
+            m_failed.add(address);
+            m_latch.countDown();
+        }
+
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return m_latch.await(timeout, unit);
+        }
+    }
+
+    private static List<InetAddress> getLoopbackAddresses(final int count) throws Exception {
+        final List<InetAddress> addresses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            addresses.add(InetAddress.getByAddress(new byte[] { 127, 0, (byte)(i / 254), (byte)(i % 254 + 1) }));
+        }
+        return addresses;
+    }
+
+    @Test
+    @IfProfileValue(name="runPingTests", value="true")
+    public void testSweepLoopback() throws Exception {
+        final List<InetAddress> addresses = getLoopbackAddresses(SWEEP_SIZE);
+        final SweepCallback cb = new SweepCallback(addresses.size());
+
+        s_jnaPinger.sweep(addresses, PingConstants.DEFAULT_TIMEOUT, PingConstants.DEFAULT_RETRIES, PingConstants.DEFAULT_PACKET_SIZE, cb);
+
+        assertTrue("Sweep did not complete", cb.await(30, TimeUnit.SECONDS));
+        assertEquals("Failed: " + cb.m_failed, 0, cb.m_failed.size());
+        assertEquals("Timed out: " + cb.m_timedOut, 0, cb.m_timedOut.size());
+        assertEquals(addresses.size(), cb.m_responded.size());
+    }
+
+    @Test
+    @IfProfileValue(name="runPingTests", value="true")
+    public void testSweepTimeout() throws Exception {
+        // 192.0.2.0/24 is reserved for documentation purposes
+        final List<InetAddress> addresses = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            addresses.add(InetAddress.getByName("192.0.2." + i));
+        }
+        final SweepCallback cb = new SweepCallback(addresses.size());
+
+        s_jnaPinger.sweep(addresses, 200, 1, PingConstants.DEFAULT_PACKET_SIZE, cb);
+
+        assertTrue("Sweep did not complete", cb.await(30, TimeUnit.SECONDS));
+        assertEquals(0, cb.m_responded.size());
+        assertEquals(addresses.size(), cb.m_timedOut.size() + cb.m_failed.size());
+        for (final EchoPacket request : cb.m_timeoutRequests) {
+            assertEquals(-1L, request.getReceivedTimeNanos());
+            // measured from the last retransmission, allow for the resolution of the timer wheel
+            final double elapsed = request.elapsedTime(TimeUnit.MILLISECONDS);
+            assertTrue("Timed out after " + elapsed + "ms", elapsed >= 100);
+        }
+    }
+
+    @Test
+    @IfProfileValue(name="runPingTests", value="true")
+    public void testSweepMatchesTrackedPings() throws Exception {
+        final List<InetAddress> addresses = getLoopbackAddresses(SWEEP_SIZE);
+
+        final SweepCallback swept = new SweepCallback(addresses.size());
+        s_jnaPinger.sweep(addresses, PingConstants.DEFAULT_TIMEOUT, PingConstants.DEFAULT_RETRIES, PingConstants.DEFAULT_PACKET_SIZE, swept);
+        assertTrue("Sweep did not complete", swept.await(30, TimeUnit.SECONDS));
+
+        final SweepCallback pinged = new SweepCallback(addresses.size());
+        for (final InetAddress address : addresses) {
+            s_jnaPinger.ping(address, PingConstants.DEFAULT_TIMEOUT, PingConstants.DEFAULT_RETRIES, PingConstants.DEFAULT_PACKET_SIZE, 1, pinged);
+        }
+        assertTrue("Pings did not complete", pinged.await(30, TimeUnit.SECONDS));
+
+        assertEquals(pinged.m_responded, swept.m_responded);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PingTimerWheelTest {
+
+    private PingTimerWheel<Integer> m_wheel;
+
+    @After
+    public void tearDown() {
+        if (m_wheel != null) {
+            m_wheel.stop();
+        }
+    }
+
+    @Test
+    public void testEntriesExpireAfterTheirTimeout() throws Exception {
+        final int count = 1000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final Map<Integer, Long> expiredAt = new ConcurrentHashMap<>();
+        m_wheel = new PingTimerWheel<>("test", 5, 16, (List<Integer> expired) -> {
+            for (final Integer entry : expired) {
+                expiredAt.put(entry, System.nanoTime());
+                latch.countDown();
+            }
+        });
+        m_wheel.start();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            // spread the timeouts over several revolutions of the wheel
+            m_wheel.schedule(i, i % 200);
+        }
+
+        assertTrue("Not all entries expired", latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, m_wheel.size());
+        for (int i = 0; i < count; i++) {
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(expiredAt.get(i) - start);
+            assertTrue("Entry " + i + " expired early after " + elapsed + "ms", elapsed >= i % 200);
+        }
+    }
+
+    @Test
+    public void testExpiredEntriesAreHandedOverTogether() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(500);
+        final AtomicInteger batches = new AtomicInteger();
+        m_wheel = new PingTimerWheel<>("test", (List<Integer> expired) -> {
+            batches.incrementAndGet();
+            expired.forEach(entry -> latch.countDown());
+        });
+        for (int i = 0; i < 500; i++) {
+            m_wheel.schedule(i, 50);
+        }
+        m_wheel.start();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        // the entries share one or two ticks, not one callback each
+        assertTrue("Expected the entries to expire in batches, got " + batches.get() + " callbacks", batches.get() <= 5);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testWheelSizeMustBeAPowerOfTwo() {
+        new PingTimerWheel<Integer>("test", 10, 100, expired -> {});
+    }
+}
@@ -56,6 +56,8 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
 
     public static final String RPC_MODULE_ID = "PING-SWEEP";
 
+    private static final int MAX_BATCH_SIZE = 1024;
+
     private final ThreadFactory threadFactory = new ThreadFactoryBuilder()
             .setNameFormat("ping-sweep-%d")
             .build();
@@ -88,17 +90,32 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
         List<IPPollAddress> addresses = StreamSupport.stream(getAddresses(ranges).spliterator(), false)
                 .filter(j -> j.getAddress() != null).collect(Collectors.toList());
 
+        // Register every address before sending anything so that early replies can't
+        // make the tracker think that the sweep is already complete
+        addresses.forEach(pollAddress -> tracker.expectCallbackFor(pollAddress.getAddress()));
+        if (addresses.isEmpty()) {
+            tracker.complete();
+            return tracker;
+        }
+
+        // Hand the addresses to the pinger in batches, so that a pinger with a dedicated
+        // sweep mode can send them back-to-back, while still honoring the packet rate
+        final int batchSize = getBatchSize(request.getPacketsPerSecond());
+
         return CompletableFuture.supplyAsync(() -> {
-            addresses.stream().forEach(pollAddress -> {
-                try {
-                    tracker.expectCallbackFor(pollAddress.getAddress());
-                    limiter.acquire();
-                    pinger.ping(pollAddress.getAddress(), pollAddress.getTimeout(), pollAddress.getRetries(), packetSize, 1, tracker);
-                } catch (Exception e) {
-                    tracker.handleError(pollAddress.getAddress(), null, e);
-                    tracker.completeExceptionally(e);
+            final List<InetAddress> batch = new ArrayList<>(batchSize);
+            IPPollAddress first = null;
+            for (final IPPollAddress pollAddress : addresses) {
+                if (first != null && (batch.size() == batchSize || first.getTimeout() != pollAddress.getTimeout() || first.getRetries() != pollAddress.getRetries())) {
+                    sweep(pinger, batch, first.getTimeout(), first.getRetries(), packetSize, limiter, tracker);
+                    batch.clear();
+                }
+                if (batch.isEmpty()) {
+                    first = pollAddress;
                 }
-            });
+                batch.add(pollAddress.getAddress());
+            }
+            sweep(pinger, batch, first.getTimeout(), first.getRetries(), packetSize, limiter, tracker);
 
             try {
                 tracker.getLatch().await();
@@ -111,6 +128,25 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
 
     }
 
+    private static void sweep(Pinger pinger, List<InetAddress> batch, long timeout, int retries, int packetSize, RateLimiter limiter, PingSweepResultTracker tracker) {
+        limiter.acquire(batch.size());
+        try {
+            pinger.sweep(new ArrayList<>(batch), timeout, retries, packetSize, tracker);
+        } catch (Exception e) {
+            for (InetAddress address : batch) {
+                tracker.handleError(address, null, e);
+            }
+            tracker.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Sends at most 100ms worth of packets at once.
+     */
+    protected static int getBatchSize(double packetsPerSecond) {
+        return (int)Math.max(1, Math.min(MAX_BATCH_SIZE, packetsPerSecond / 10));
+    }
+
     private static class PingSweepResultTracker extends CompletableFuture<PingSweepResponseDTO>
             implements PingResponseCallback {
 
@@ -128,7 +164,10 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
                 PingSweepResultDTO sweepResult = new PingSweepResultDTO();
                 sweepResult.setAddress(address);
                 sweepResult.setRtt(response.elapsedTime(TimeUnit.MILLISECONDS));
-                responseDTO.addPingSweepResult(sweepResult);
+                // replies may be handled concurrently by the IPv4 and IPv6 readers
+                synchronized (responseDTO) {
+                    responseDTO.addPingSweepResult(sweepResult);
+                }
             }
             afterHandled(address);
         }
@@ -252,4 +252,12 @@ public class MultiOutputRrdStrategy implements RrdStrategy<List<Object>,List<Obj
             m_strategies.get(i).updateFile(rrd.get(i), owner, data);
         }
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFileBatch(List<Object> rrd, String owner, List<String> data) throws Exception {
+        for (int i = 0; i < rrd.size(); i++) {
+            m_strategies.get(i).updateFileBatch(rrd.get(i), owner, data);
+        }
+    }
 }
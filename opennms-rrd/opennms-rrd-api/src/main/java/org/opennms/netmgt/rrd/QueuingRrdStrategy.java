@@ -102,7 +102,7 @@ import org.slf4j.LoggerFactory;
  * @author ranger
  * @version $Id: $
  */
-public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, Runnable {
+public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, QueuingRrdStatistics, Runnable {
 
     private Logger m_log = LoggerFactory.getLogger(QueuingRrdStrategy.class);
 
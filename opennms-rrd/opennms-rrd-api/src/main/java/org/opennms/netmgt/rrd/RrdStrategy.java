@@ -117,6 +117,27 @@ public interface RrdStrategy<D extends Object,F extends Object> {
      */
     public void updateFile(F rrd, String owner, String data) throws Exception;
 
+    /**
+     * Updates the supplied round robin database with several timestamp:value
+     * points, in the given order. Strategies that can write a group of
+     * updates to the same file more efficiently than one at a time should
+     * override this.
+     *
+     * @param rrd
+     *            an rrd object created using openFile
+     * @param owner
+     *            the owner of the rrd
+     * @param data
+     *            strings of the form <timestamp>: <datavalue>
+     * @throws java.lang.Exception
+     *             if an error occurs updating the file
+     */
+    public default void updateFileBatch(F rrd, String owner, List<String> data) throws Exception {
+        for (final String update : data) {
+            updateFile(rrd, owner, update);
+        }
+    }
+
     /**
      * This closes the supplied round robin database
      *
@@ -40,8 +40,10 @@ public class RrdStrategyFactory implements ApplicationContextAware {
     private static enum StrategyName {
         basicRrdStrategy,
         queuingRrdStrategy,
+        shardedRrdStrategy,
         tcpAndBasicRrdStrategy,
-        tcpAndQueuingRrdStrategy
+        tcpAndQueuingRrdStrategy,
+        tcpAndShardedRrdStrategy
     }
 
     @Override
@@ -59,9 +61,16 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         RrdStrategy<D, F> rrdStrategy = null;
         boolean useQueue = m_context.getBean("useQueue", Boolean.class);
         boolean useTcp = m_context.getBean("useTcp", Boolean.class);
+        boolean useShardedQueue = m_context.containsBean("useShardedQueue") && m_context.getBean("useShardedQueue", Boolean.class);
 
         try {
-            if (useQueue) {
+            if (useQueue && useShardedQueue) {
+                if (useTcp) {
+                    rrdStrategy = m_context.getBean(StrategyName.tcpAndShardedRrdStrategy.toString(), RrdStrategy.class);
+                } else {
+                    rrdStrategy = m_context.getBean(StrategyName.shardedRrdStrategy.toString(), RrdStrategy.class);
+                }
+            } else if (useQueue) {
                 if (useTcp) {
                     rrdStrategy = m_context.getBean(StrategyName.tcpAndQueuingRrdStrategy.toString(), RrdStrategy.class);
                 } else {
@@ -75,7 +84,7 @@ public class RrdStrategyFactory implements ApplicationContextAware {
                 }
             }
         } catch (final BeansException e) {
-            throw new IllegalStateException(String.format("Invalid RRD configuration useQueue: %s, useTcp: %s", useQueue, useTcp), e);
+            throw new IllegalStateException(String.format("Invalid RRD configuration useQueue: %s, useShardedQueue: %s, useTcp: %s", useQueue, useShardedQueue, useTcp), e);
         }
 
         return rrdStrategy;
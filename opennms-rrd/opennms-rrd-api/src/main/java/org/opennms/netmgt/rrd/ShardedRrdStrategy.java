@@ -0,0 +1,746 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.logging.Logging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queuing implementation of RrdStrategy that splits the files over a number
+ * of shards, each one written by its own thread.
+ *
+ * The updates are cached per file in a concurrent map of the shard, so the
+ * collectors never wait for each other or for the write thread. Every pass
+ * the write thread takes all of the files that have pending updates, sorts
+ * them by path so files of the same resource directory are written together,
+ * and writes all of the updates of a file at once. The more the writes fall
+ * behind, the more updates are written per file.
+ *
+ * The files are not closed after every batch. Each shard keeps the files it
+ * wrote last open, up to org.opennms.rrd.queuing.maxOpenFiles divided by the
+ * number of shards, and closes the least recently used one when it needs to
+ * open another. Files that weren't written for org.opennms.rrd.queuing.openFileIdleTime
+ * milliseconds are closed as well, and so are the files that are about to be
+ * read by {@link #promoteEnqueuedFiles(Collection)}.
+ *
+ * This implementation delegates all the actual writing to another RrdStrategy
+ * implementation.
+ *
+ * System properties effecting the operation:
+ *
+ * org.opennms.rrd.queuing.writethreads: (default 2) the number of shards
+ *
+ * org.opennms.rrd.queuing.queuecreates: (default false) indicates whether rrd
+ * file creates should be queued or processed synchronously
+ *
+ * org.opennms.rrd.queuing.queueHighWaterMark: (default 0) the number of pending
+ * updates after which new updates are discarded, zero means no limit
+ *
+ * org.opennms.rrd.queuing.maxOpenFiles: (default 1024) the number of files kept open
+ *
+ * org.opennms.rrd.queuing.openFileIdleTime: (default 600000) the milliseconds after
+ * which an open file that wasn't written is closed
+ *
+ * org.opennms.rrd.queuing.modulus: (default 10000) the number of updates written
+ * between statistics output
+ */
+public class ShardedRrdStrategy implements RrdStrategy<ShardedRrdStrategy.Definition, String>, QueuingRrdStatistics {
+
+    private Logger m_log = LoggerFactory.getLogger(ShardedRrdStrategy.class);
+
+    private final RrdStrategy<Object, Object> m_delegate;
+
+    private Properties m_configurationProperties;
+
+    private String m_category = "queued";
+
+    private int m_writeThreads = 2;
+
+    private boolean m_queueCreates = false;
+
+    private long m_queueHighWaterMark = 0;
+
+    private int m_maxOpenFiles = 1024;
+
+    private long m_openFileIdleTime = 600000;
+
+    private long m_modulus = 10000;
+
+    private long m_writeThreadSleepTime = 50;
+
+    private volatile Shard[] m_shards;
+
+    private final AtomicLong m_pending = new AtomicLong();
+    private final LongAdder m_enqueued = new LongAdder();
+    private final LongAdder m_dequeued = new LongAdder();
+    private final LongAdder m_filesWritten = new LongAdder();
+    private final LongAdder m_createsCompleted = new LongAdder();
+    private final LongAdder m_updatesCompleted = new LongAdder();
+    private final LongAdder m_opens = new LongAdder();
+    private final LongAdder m_errors = new LongAdder();
+    private final LongAdder m_discarded = new LongAdder();
+    private final LongAdder m_promotions = new LongAdder();
+    private volatile long m_startTime = 0;
+
+    private long m_lastRateTime = System.currentTimeMillis();
+    private long m_lastRateUpdates = 0;
+    private double m_updatesPerSecond = 0;
+
+    /**
+     * The definition of a file to create.
+     */
+    public static class Definition {
+        private final String m_fileName;
+        private final Object m_definition;
+
+        Definition(String fileName, Object definition) {
+            m_fileName = fileName;
+            m_definition = definition;
+        }
+
+        public String getFileName() {
+            return m_fileName;
+        }
+
+        public Object getDefinition() {
+            return m_definition;
+        }
+    }
+
+    /**
+     * The operations waiting to be written to a file. Only changed inside of
+     * {@link ConcurrentHashMap#compute} until the write thread removes it.
+     */
+    private static class PendingFile {
+        private final String m_fileName;
+        private final long m_firstEnqueued = System.nanoTime();
+        private Object m_definition;
+        private final List<String> m_updates = new ArrayList<>(2);
+        private int m_count = 0;
+
+        private PendingFile(String fileName) {
+            m_fileName = fileName;
+        }
+    }
+
+    private static class OpenFile {
+        private final Object m_rrd;
+        private long m_lastUsed;
+
+        private OpenFile(Object rrd) {
+            m_rrd = rrd;
+        }
+    }
+
+    private class Shard implements Runnable {
+        private final int m_index;
+        private final ConcurrentHashMap<String, PendingFile> m_pendingFiles = new ConcurrentHashMap<>();
+        private final ConcurrentLinkedQueue<String> m_promoted = new ConcurrentLinkedQueue<>();
+        private final LinkedHashMap<String, OpenFile> m_openFiles;
+        private volatile long m_oldestPendingNanos = 0;
+        private volatile boolean m_running = true;
+        private Thread m_thread;
+
+        private Shard(int index, int maxOpenFiles) {
+            m_index = index;
+            m_openFiles = new LinkedHashMap<String, OpenFile>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, OpenFile> eldest) {
+                    if (size() > maxOpenFiles) {
+                        close(eldest.getKey(), eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private void start() {
+            m_thread = new Thread(() -> Logging.withPrefix(m_category, this), ShardedRrdStrategy.class.getSimpleName() + "-" + m_index);
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+
+        private void add(String fileName, Object definition, String update) {
+            m_pendingFiles.compute(fileName, (k, pending) -> {
+                if (pending == null) {
+                    pending = new PendingFile(fileName);
+                }
+                pending.m_count++;
+                if (definition != null) {
+                    pending.m_definition = definition;
+                } else {
+                    pending.m_updates.add(update);
+                }
+                return pending;
+            });
+        }
+
+        @Override
+        public void run() {
+            while (m_running) {
+                try {
+                    if (!writePending()) {
+                        closeIdleFiles();
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(m_writeThreadSleepTime));
+                    }
+                } catch (final Throwable e) {
+                    m_log.error("Unexpected error writing RRD files", e);
+                }
+            }
+            writePending();
+            closeAll();
+        }
+
+        /**
+         * Writes the pending updates of all files in the shard.
+         *
+         * @return false if nothing was pending
+         */
+        private boolean writePending() {
+            // Files that are about to be read go first
+            String promoted;
+            while ((promoted = m_promoted.poll()) != null) {
+                final PendingFile pending = m_pendingFiles.remove(promoted);
+                if (pending != null) {
+                    write(pending);
+                }
+                final OpenFile openFile = m_openFiles.remove(promoted);
+                if (openFile != null) {
+                    close(promoted, openFile);
+                }
+            }
+
+            if (m_pendingFiles.isEmpty()) {
+                m_oldestPendingNanos = 0;
+                return false;
+            }
+
+            final List<PendingFile> batch = new ArrayList<>(m_pendingFiles.size());
+            for (final String fileName : m_pendingFiles.keySet()) {
+                final PendingFile pending = m_pendingFiles.remove(fileName);
+                if (pending != null) {
+                    batch.add(pending);
+                }
+            }
+            if (batch.isEmpty()) {
+                return false;
+            }
+            batch.sort(Comparator.comparing(p -> p.m_fileName));
+
+            final long now = System.nanoTime();
+            long oldest = 0;
+            for (final PendingFile pending : batch) {
+                oldest = Math.max(oldest, now - pending.m_firstEnqueued);
+            }
+            m_oldestPendingNanos = oldest;
+
+            for (final PendingFile pending : batch) {
+                write(pending);
+            }
+            return true;
+        }
+
+        private void write(PendingFile pending) {
+            final int count = pending.m_count;
+            m_pending.addAndGet(-count);
+            m_dequeued.add(count);
+            m_filesWritten.increment();
+
+            OpenFile openFile = null;
+            try {
+                if (pending.m_definition != null) {
+                    // never update a file through a handle from before it was (re)created
+                    openFile = m_openFiles.remove(pending.m_fileName);
+                    if (openFile != null) {
+                        close(pending.m_fileName, openFile);
+                        openFile = null;
+                    }
+                    m_delegate.createFile(pending.m_definition);
+                    m_createsCompleted.increment();
+                }
+                if (pending.m_updates.isEmpty()) {
+                    return;
+                }
+
+                openFile = m_openFiles.get(pending.m_fileName);
+                if (openFile == null) {
+                    openFile = new OpenFile(m_delegate.openFile(pending.m_fileName));
+                    m_opens.increment();
+                    m_openFiles.put(pending.m_fileName, openFile);
+                }
+                openFile.m_lastUsed = System.currentTimeMillis();
+
+                // hand all of the updates of the file over at once so the
+                // delegate can write time-aligned samples together
+                try {
+                    m_delegate.updateFileBatch(openFile.m_rrd, "", pending.m_updates);
+                } catch (final Throwable e) {
+                    throw new Exception(String.format("Error processing %d updates for file %s", pending.m_updates.size(), pending.m_fileName), e);
+                }
+                final long before = m_updatesCompleted.sum();
+                m_updatesCompleted.add(pending.m_updates.size());
+                if (m_modulus > 0 && before / m_modulus != (before + pending.m_updates.size()) / m_modulus) {
+                    logStats();
+                }
+            } catch (final Throwable e) {
+                m_errors.increment();
+                m_log.debug("Error updating file {}: {}", pending.m_fileName, e.getMessage(), e);
+                // the file may be in a bad state, don't keep it open
+                final OpenFile failed = m_openFiles.remove(pending.m_fileName);
+                if (failed != null) {
+                    close(pending.m_fileName, failed);
+                }
+            }
+        }
+
+        private void closeIdleFiles() {
+            if (m_openFileIdleTime <= 0) {
+                return;
+            }
+            final long idleSince = System.currentTimeMillis() - m_openFileIdleTime;
+            // access ordered, the least recently written files come first
+            for (final Iterator<Map.Entry<String, OpenFile>> it = m_openFiles.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry<String, OpenFile> entry = it.next();
+                if (entry.getValue().m_lastUsed > idleSince) {
+                    break;
+                }
+                it.remove();
+                close(entry.getKey(), entry.getValue());
+            }
+        }
+
+        private void closeAll() {
+            for (final Map.Entry<String, OpenFile> entry : m_openFiles.entrySet()) {
+                close(entry.getKey(), entry.getValue());
+            }
+            m_openFiles.clear();
+        }
+
+        private void close(String fileName, OpenFile openFile) {
+            try {
+                m_delegate.closeFile(openFile.m_rrd);
+            } catch (final Throwable e) {
+                m_errors.increment();
+                m_log.debug("Error closing rrd {}: {}", fileName, e.getMessage(), e);
+            }
+        }
+
+        private void stop() {
+            m_running = false;
+            final Thread thread = m_thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+                try {
+                    thread.join(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Constructor for ShardedRrdStrategy.</p>
+     *
+     * @param delegate the strategy that writes the files
+     */
+    public ShardedRrdStrategy(RrdStrategy<Object, Object> delegate) {
+        m_delegate = delegate;
+    }
+
+    public RrdStrategy<Object, Object> getDelegate() {
+        return m_delegate;
+    }
+
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    @Override
+    public void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+    }
+
+    public int getWriteThreads() {
+        return m_writeThreads;
+    }
+
+    public void setWriteThreads(int writeThreads) {
+        m_writeThreads = writeThreads;
+    }
+
+    public boolean queueCreates() {
+        return m_queueCreates;
+    }
+
+    public void setQueueCreates(boolean queueCreates) {
+        m_queueCreates = queueCreates;
+    }
+
+    public long getQueueHighWaterMark() {
+        return m_queueHighWaterMark;
+    }
+
+    public void setQueueHighWaterMark(long queueHighWaterMark) {
+        m_queueHighWaterMark = queueHighWaterMark;
+    }
+
+    public int getMaxOpenFiles() {
+        return m_maxOpenFiles;
+    }
+
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        m_maxOpenFiles = maxOpenFiles;
+    }
+
+    public long getOpenFileIdleTime() {
+        return m_openFileIdleTime;
+    }
+
+    public void setOpenFileIdleTime(long openFileIdleTime) {
+        m_openFileIdleTime = openFileIdleTime;
+    }
+
+    public long getModulus() {
+        return m_modulus;
+    }
+
+    public void setModulus(long modulus) {
+        m_modulus = modulus;
+    }
+
+    public long getWriteThreadSleepTime() {
+        return m_writeThreadSleepTime;
+    }
+
+    public void setWriteThreadSleepTime(long writeThreadSleepTime) {
+        m_writeThreadSleepTime = writeThreadSleepTime;
+    }
+
+    public String getCategory() {
+        return m_category;
+    }
+
+    public void setCategory(final String category) {
+        m_category = category;
+        m_log = LoggerFactory.getLogger(m_category);
+    }
+
+    private Shard[] getShards() {
+        Shard[] shards = m_shards;
+        if (shards == null) {
+            synchronized (this) {
+                shards = m_shards;
+                if (shards == null) {
+                    final int count = Math.max(1, m_writeThreads);
+                    shards = new Shard[count];
+                    for (int i = 0; i < count; i++) {
+                        shards[i] = new Shard(i + 1, Math.max(1, m_maxOpenFiles / count));
+                        shards[i].start();
+                    }
+                    m_startTime = System.currentTimeMillis();
+                    m_shards = shards;
+                }
+            }
+        }
+        return shards;
+    }
+
+    private Shard getShard(String fileName) {
+        final Shard[] shards = getShards();
+        return shards[Math.floorMod(fileName.hashCode(), shards.length)];
+    }
+
+    private void enqueue(String fileName, Object definition, String update) {
+        if (m_queueHighWaterMark > 0 && m_pending.get() >= m_queueHighWaterMark) {
+            m_discarded.increment();
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", fileName);
+            return;
+        }
+        m_pending.incrementAndGet();
+        m_enqueued.increment();
+        getShard(fileName).add(fileName, definition, update);
+    }
+
+    /**
+     * Writes everything that is pending and closes all files.
+     */
+    public void destroy() {
+        final Shard[] shards;
+        synchronized (this) {
+            shards = m_shards;
+            m_shards = null;
+        }
+        if (shards != null) {
+            for (final Shard shard : shards) {
+                shard.stop();
+            }
+        }
+    }
+
+    @Override
+    public Definition createDefinition(String creator, String directory, String rrdName, int step, List<RrdDataSource> dataSources, List<String> rraList) throws Exception {
+        final String fileName = directory + File.separator + rrdName + m_delegate.getDefaultFileExtension();
+        final Object def = m_delegate.createDefinition(creator, directory, rrdName, step, dataSources, rraList);
+        return new Definition(fileName, def);
+    }
+
+    @Override
+    public void createFile(Definition def) throws Exception {
+        if (def == null || def.getDefinition() == null) {
+            return;
+        }
+        if (m_queueCreates) {
+            enqueue(def.getFileName(), def.getDefinition(), null);
+        } else {
+            m_delegate.createFile(def.getDefinition());
+        }
+    }
+
+    @Override
+    public String openFile(String fileName) throws Exception {
+        return fileName;
+    }
+
+    @Override
+    public void updateFile(String rrdFile, String owner, String data) throws Exception {
+        enqueue(rrdFile, null, data);
+    }
+
+    @Override
+    public void closeFile(String rrd) throws Exception {
+        // the files are closed by the write threads
+    }
+
+    @Override
+    public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, interval);
+    }
+
+    @Override
+    public Double fetchLastValue(String rrdFile, String ds, String consolidationFunction, int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, consolidationFunction, interval);
+    }
+
+    @Override
+    public Double fetchLastValueInRange(String rrdFile, String ds, int interval, int range) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValueInRange(rrdFile, ds, interval, range);
+    }
+
+    @Override
+    public InputStream createGraph(String command, File workDir) throws IOException, RrdException {
+        return m_delegate.createGraph(command, workDir);
+    }
+
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(String command, File workDir) throws IOException, RrdException {
+        return m_delegate.createGraphReturnDetails(command, workDir);
+    }
+
+    @Override
+    public int getGraphLeftOffset() {
+        return m_delegate.getGraphLeftOffset();
+    }
+
+    @Override
+    public int getGraphRightOffset() {
+        return m_delegate.getGraphRightOffset();
+    }
+
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_delegate.getGraphTopOffsetWithText();
+    }
+
+    @Override
+    public String getDefaultFileExtension() {
+        return m_delegate.getDefaultFileExtension();
+    }
+
+    /**
+     * Writes the pending updates of the given files ahead of the others and
+     * closes them, so they can be read.
+     */
+    @Override
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        for (final String rrdFile : rrdFiles) {
+            getShard(rrdFile).m_promoted.add(rrdFile);
+            m_promotions.increment();
+        }
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
+    }
+
+    @Override
+    public long getTotalOperationsPending() {
+        return m_pending.get();
+    }
+
+    @Override
+    public long getCreatesCompleted() {
+        return m_createsCompleted.sum();
+    }
+
+    @Override
+    public long getUpdatesCompleted() {
+        return m_updatesCompleted.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return m_errors.sum();
+    }
+
+    @Override
+    public long getPromotionCount() {
+        return m_promotions.sum();
+    }
+
+    /**
+     * All operations are significant, the files are not prioritized.
+     */
+    @Override
+    public long getSignificantOpsEnqueued() {
+        return getEnqueuedOperations();
+    }
+
+    @Override
+    public long getSignificantOpsDequeued() {
+        return getDequeuedOperations();
+    }
+
+    @Override
+    public long getSignificantOpsCompleted() {
+        return getDequeuedOperations();
+    }
+
+    @Override
+    public long getEnqueuedOperations() {
+        return m_enqueued.sum();
+    }
+
+    @Override
+    public long getDequeuedOperations() {
+        return m_dequeued.sum();
+    }
+
+    @Override
+    public long getDequeuedItems() {
+        return m_filesWritten.sum();
+    }
+
+    @Override
+    public long getStartTime() {
+        return m_startTime;
+    }
+
+    /**
+     * @return the number of updates that were discarded because the queue was full
+     */
+    public long getDiscardedOperations() {
+        return m_discarded.sum();
+    }
+
+    /**
+     * @return the number of times a file was opened
+     */
+    public long getFilesOpened() {
+        return m_opens.sum();
+    }
+
+    /**
+     * @return the age in milliseconds of the oldest update taken off the queue by the last pass of the write threads
+     */
+    public long getOldestPendingAge() {
+        final Shard[] shards = m_shards;
+        long oldest = 0;
+        if (shards != null) {
+            for (final Shard shard : shards) {
+                oldest = Math.max(oldest, shard.m_oldestPendingNanos);
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(oldest);
+    }
+
+    /**
+     * @return the average number of operations written per file and pass
+     */
+    public double getCoalescingFactor() {
+        return getDequeuedOperations() / Math.max(getDequeuedItems(), 1.0);
+    }
+
+    /**
+     * @return the number of updates written per second, averaged since the previous call
+     */
+    public synchronized double getUpdatesPerSecond() {
+        final long now = System.currentTimeMillis();
+        if (now - m_lastRateTime >= 1000) {
+            final long updates = getUpdatesCompleted();
+            m_updatesPerSecond = (updates - m_lastRateUpdates) * 1000.0 / (now - m_lastRateTime);
+            m_lastRateTime = now;
+            m_lastRateUpdates = updates;
+        }
+        return m_updatesPerSecond;
+    }
+
+    @Override
+    public String getStats() {
+        return "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
+                ", oldestPendingAge=" + getOldestPendingAge() +
+                ", discarded=" + getDiscardedOperations() +
+                ", shards=" + Math.max(1, m_writeThreads)
+                + "\nQS:\t" + "createsCompleted=" + getCreatesCompleted() +
+                ", updatesCompleted=" + getUpdatesCompleted() +
+                ", errors=" + getErrors() +
+                ", filesOpened=" + getFilesOpened() +
+                ", promotionCount=" + getPromotionCount()
+                + "\nQS:\t" + "updatesPerSecond=" + getUpdatesPerSecond() +
+                ", coalescingFactor=" + getCoalescingFactor();
+    }
+
+    private void logStats() {
+        if (m_log.isDebugEnabled()) {
+            m_log.debug(getStats());
+        }
+    }
+}
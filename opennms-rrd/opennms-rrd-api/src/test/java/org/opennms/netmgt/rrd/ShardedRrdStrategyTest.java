@@ -0,0 +1,246 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedRrdStrategyTest {
+
+    private static final int FILES = 200;
+
+    private RecordingRrdStrategy m_delegate;
+
+    private ShardedRrdStrategy m_strategy;
+
+    @Before
+    public void setUp() {
+        m_delegate = new RecordingRrdStrategy();
+        m_strategy = new ShardedRrdStrategy(m_delegate);
+        m_strategy.setWriteThreads(4);
+        m_strategy.setMaxOpenFiles(40);
+        m_strategy.setWriteThreadSleepTime(10);
+    }
+
+    @After
+    public void tearDown() {
+        m_strategy.destroy();
+    }
+
+    @Test
+    public void canWriteAllUpdatesInOrder() throws Exception {
+        for (int ts = 1; ts <= 5; ts++) {
+            for (int i = 0; i < FILES; i++) {
+                m_strategy.updateFile(m_strategy.openFile(fileName(i)), "test", ts + ":" + i);
+            }
+        }
+        waitForPending();
+
+        assertEquals(FILES * 5, m_strategy.getUpdatesCompleted());
+        assertEquals(FILES * 5, m_strategy.getDequeuedOperations());
+        assertEquals(0, m_strategy.getErrors());
+        for (int i = 0; i < FILES; i++) {
+            final List<String> updates = m_delegate.m_updates.get(fileName(i));
+            assertEquals(5, updates.size());
+            for (int ts = 1; ts <= 5; ts++) {
+                assertEquals(ts + ":" + i, updates.get(ts - 1));
+            }
+        }
+        assertTrue(m_strategy.getCoalescingFactor() >= 1.0);
+    }
+
+    @Test
+    public void canBoundOpenFiles() throws Exception {
+        for (int i = 0; i < FILES; i++) {
+            m_strategy.updateFile(fileName(i), "test", "1:" + i);
+        }
+        waitForPending();
+
+        // Every shard keeps at most 10 files open
+        assertTrue(m_delegate.m_open.get() <= 40);
+        assertEquals(FILES, m_strategy.getFilesOpened());
+
+        m_strategy.destroy();
+        assertEquals(0, m_delegate.m_open.get());
+    }
+
+    @Test
+    public void canCloseFilesBeforeTheyAreRead() throws Exception {
+        m_strategy.updateFile(fileName(1), "test", "1:1");
+        waitForPending();
+        assertEquals(1, m_delegate.m_open.get());
+
+        m_strategy.promoteEnqueuedFiles(Collections.singletonList(fileName(1)));
+        final long end = System.currentTimeMillis() + 5000;
+        while (m_delegate.m_open.get() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, m_delegate.m_open.get());
+        assertEquals(1, m_strategy.getPromotionCount());
+    }
+
+    @Test
+    public void canDiscardWhenFull() throws Exception {
+        m_strategy.setQueueHighWaterMark(1);
+        m_delegate.m_blockOpen = new CountDownLatch(1);
+
+        // the write thread takes the first update and blocks while opening the file
+        m_strategy.updateFile(fileName(1), "test", "1:1");
+        assertTrue(m_delegate.m_opening.await(5, TimeUnit.SECONDS));
+
+        m_strategy.updateFile(fileName(2), "test", "1:2");
+        m_strategy.updateFile(fileName(3), "test", "1:3");
+        assertEquals(1, m_strategy.getDiscardedOperations());
+
+        m_delegate.m_blockOpen.countDown();
+        waitForPending();
+        assertEquals(2, m_strategy.getUpdatesCompleted());
+    }
+
+    private void waitForPending() throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (m_strategy.getTotalOperationsPending() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, m_strategy.getTotalOperationsPending());
+        // the counters are updated before the files are written
+        final long writeEnd = System.currentTimeMillis() + 10000;
+        while (m_strategy.getUpdatesCompleted() + m_strategy.getErrors() < m_strategy.getDequeuedOperations() && System.currentTimeMillis() < writeEnd) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static String fileName(int i) {
+        return "/tmp/rrd/" + (i % 10) + "/file" + i + ".jrb";
+    }
+
+    private static class RecordingRrdStrategy implements RrdStrategy<Object, Object> {
+        private final Map<String, List<String>> m_updates = new ConcurrentHashMap<>();
+        private final AtomicInteger m_open = new AtomicInteger();
+        private final CountDownLatch m_opening = new CountDownLatch(1);
+        private volatile CountDownLatch m_blockOpen;
+
+        @Override
+        public void setConfigurationProperties(Properties props) {
+        }
+
+        @Override
+        public String getDefaultFileExtension() {
+            return ".jrb";
+        }
+
+        @Override
+        public Object createDefinition(String creator, String directory, String rrdName, int step, List<RrdDataSource> dataSources, List<String> rraList) {
+            return directory + File.separator + rrdName;
+        }
+
+        @Override
+        public void createFile(Object rrdDef) {
+        }
+
+        @Override
+        public Object openFile(String fileName) throws InterruptedException {
+            m_opening.countDown();
+            if (m_blockOpen != null) {
+                m_blockOpen.await();
+            }
+            m_open.incrementAndGet();
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) {
+            m_updates.computeIfAbsent((String)rrd, k -> Collections.synchronizedList(new ArrayList<>())).add(data);
+        }
+
+        @Override
+        public void closeFile(Object rrd) {
+            m_open.decrementAndGet();
+        }
+
+        @Override
+        public Double fetchLastValue(String rrdFile, String ds, int interval) {
+            return null;
+        }
+
+        @Override
+        public Double fetchLastValue(String rrdFile, String ds, String consolidationFunction, int interval) {
+            return null;
+        }
+
+        @Override
+        public Double fetchLastValueInRange(String rrdFile, String ds, int interval, int range) {
+            return null;
+        }
+
+        @Override
+        public InputStream createGraph(String command, File workDir) {
+            return null;
+        }
+
+        @Override
+        public RrdGraphDetails createGraphReturnDetails(String command, File workDir) {
+            return null;
+        }
+
+        @Override
+        public int getGraphLeftOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getGraphRightOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getGraphTopOffsetWithText() {
+            return 0;
+        }
+
+        @Override
+        public String getStats() {
+            return "";
+        }
+
+        @Override
+        public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        }
+    }
+}
@@ -35,12 +35,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
 import org.jrobin.core.Sample;
+import org.jrobin.core.Util;
 import org.jrobin.data.DataProcessor;
 import org.jrobin.data.Plottable;
 import org.jrobin.graph.RrdGraph;
@@ -71,6 +74,14 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     private static boolean s_initialized = false;
 
+    static {
+        try {
+            RrdBackendFactory.registerFactory(new MappedRrdBackendFactory());
+        } catch (RrdException e) {
+            LOG.warn("Could not register the {} JRobin RRD factory", MappedRrdBackendFactory.NAME, e);
+        }
+    }
+
     private Properties m_configurationProperties;
 
     /**
@@ -219,6 +230,63 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         sample.setAndUpdate(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Updates that share a timestamp are merged into a single row, the last
+     * known value of every datasource wins, so the archives are consolidated
+     * once per row instead of once per update. The rows are stored in
+     * timestamp order through a single reused sample.
+     */
+    @Override
+    public void updateFileBatch(final RrdDb rrdFile, final String owner, final List<String> data) throws Exception {
+        if (data.size() == 1) {
+            updateFile(rrdFile, owner, data.get(0));
+            return;
+        }
+
+        final int dsCount = rrdFile.getDsCount();
+        final Map<Long, double[]> rows = new TreeMap<>();
+        for (final String update : data) {
+            final String[] tokens = update.split(":");
+            final long timestamp = "N".equalsIgnoreCase(tokens[0]) || "NOW".equalsIgnoreCase(tokens[0]) ? Util.getTime() : Long.parseLong(tokens[0]);
+            if (tokens.length - 1 > dsCount) {
+                throw new RrdException("Invalid number of values specified (found " + (tokens.length - 1) + ", " + dsCount + " allowed) in update " + update);
+            }
+            double[] row = rows.get(timestamp);
+            if (row == null) {
+                row = new double[dsCount];
+                Arrays.fill(row, Double.NaN);
+                rows.put(timestamp, row);
+            }
+            for (int i = 1; i < tokens.length; i++) {
+                final double value = Util.parseDouble(tokens[i]);
+                if (!Double.isNaN(value)) {
+                    row[i - 1] = value;
+                }
+            }
+        }
+
+        final Sample sample = rrdFile.createSample();
+        RrdException firstError = null;
+        for (final Entry<Long, double[]> row : rows.entrySet()) {
+            sample.setTime(row.getKey());
+            sample.setValues(row.getValue());
+            try {
+                sample.update();
+            } catch (RrdException e) {
+                // keep going, the remaining rows may still be valid
+                LOG.debug("updateFileBatch: failed to store row {} in {}: {}", row.getKey(), rrdFile.getPath(), e.getMessage());
+                if (firstError == null) {
+                    firstError = e;
+                }
+            }
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+    }
+
     /**
      * Initialized the RrdDb to use the FILE factory because the NIO factory
      * uses too much memory for our implementation.
@@ -0,0 +1,178 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.jrobin.core.RrdBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JRobin backend that memory-maps the whole RRD file while it is open.
+ *
+ * Reads and writes are plain memory accesses into the mapping, so updating
+ * every archive of a sample does not cost a system call per archive row. The
+ * dirty pages are written back by the operating system page cache, like the
+ * writes of the FILE backend, and the mapping is released as soon as the file
+ * is closed so thousands of files can be cycled through without pinning their
+ * mappings until the next garbage collection.
+ *
+ * @see MappedRrdBackendFactory
+ */
+public class MappedRrdBackend extends RrdBackend {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackend.class);
+
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    private final boolean m_readOnly;
+    private final RandomAccessFile m_file;
+    private final FileChannel m_channel;
+    private MappedByteBuffer m_buffer;
+
+    /**
+     * <p>Constructor for MappedRrdBackend.</p>
+     *
+     * @param path the path of the RRD file
+     * @param readOnly true if the file is only opened for fetching data
+     * @throws java.io.IOException if the file cannot be opened or mapped
+     */
+    protected MappedRrdBackend(final String path, final boolean readOnly) throws IOException {
+        super(path);
+        m_readOnly = readOnly;
+        m_file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+        m_channel = m_file.getChannel();
+        try {
+            map(m_file.length());
+        } catch (final IOException e) {
+            m_file.close();
+            throw e;
+        }
+    }
+
+    private void map(final long length) throws IOException {
+        unmap();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("RRD file " + getPath() + " is too large to be mapped: " + length + " bytes");
+        }
+        if (length > 0) {
+            m_buffer = m_channel.map(m_readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    private void unmap() {
+        if (m_buffer != null) {
+            UNMAPPER.unmap(m_buffer);
+            m_buffer = null;
+        }
+    }
+
+    private MappedByteBuffer getBuffer(final long offset, final int length) throws IOException {
+        if (m_buffer == null || offset < 0 || offset + length > m_buffer.capacity()) {
+            throw new IOException("Access outside of RRD file " + getPath() + ": offset=" + offset + ", length=" + length);
+        }
+        return m_buffer;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void write(final long offset, final byte[] b) throws IOException {
+        if (m_readOnly) {
+            throw new IOException("RRD file " + getPath() + " was opened read-only");
+        }
+        getBuffer(offset, b.length).put((int) offset, b);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void read(final long offset, final byte[] b) throws IOException {
+        getBuffer(offset, b.length).get((int) offset, b);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized long getLength() throws IOException {
+        return m_buffer == null ? 0 : m_buffer.capacity();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void setLength(final long length) throws IOException {
+        if (m_readOnly) {
+            throw new IOException("RRD file " + getPath() + " was opened read-only");
+        }
+        unmap();
+        m_file.setLength(length);
+        map(length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void close() throws IOException {
+        unmap();
+        m_file.close();
+    }
+
+    /**
+     * Releases a mapping without waiting for the buffer to be garbage
+     * collected. Falls back to leaving it to the collector when the JVM does
+     * not allow it.
+     */
+    private static class Unmapper {
+        private final Object m_unsafe;
+        private final Method m_invokeCleaner;
+
+        private Unmapper(final Object unsafe, final Method invokeCleaner) {
+            m_unsafe = unsafe;
+            m_invokeCleaner = invokeCleaner;
+        }
+
+        private static Unmapper create() {
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return new Unmapper(theUnsafe.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+            } catch (final Exception e) {
+                LOG.info("Mapped RRD files will be released by the garbage collector: {}", e.getMessage());
+                return new Unmapper(null, null);
+            }
+        }
+
+        private void unmap(final MappedByteBuffer buffer) {
+            if (m_invokeCleaner == null) {
+                return;
+            }
+            try {
+                m_invokeCleaner.invoke(m_unsafe, buffer);
+            } catch (final Exception e) {
+                LOG.debug("Failed to release mapped RRD file, leaving it to the garbage collector", e);
+            }
+        }
+    }
+}
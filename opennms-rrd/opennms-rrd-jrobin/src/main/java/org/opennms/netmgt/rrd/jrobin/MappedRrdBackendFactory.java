@@ -0,0 +1,56 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdBackendFactory;
+
+/**
+ * Factory for the {@link MappedRrdBackend}. Select it by setting the
+ * <code>org.jrobin.core.RrdBackendFactory</code> property to
+ * <code>MAPPED</code>.
+ */
+public class MappedRrdBackendFactory extends RrdBackendFactory {
+    /** Constant <code>NAME="MAPPED"</code> */
+    public static final String NAME = "MAPPED";
+
+    /** {@inheritDoc} */
+    @Override
+    protected RrdBackend open(final String path, final boolean readOnly) throws IOException {
+        return new MappedRrdBackend(path, readOnly);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean exists(final String path) throws IOException {
+        return new File(path).exists();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+}
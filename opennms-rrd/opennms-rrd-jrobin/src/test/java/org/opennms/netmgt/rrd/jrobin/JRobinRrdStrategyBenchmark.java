@@ -0,0 +1,180 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.rrd.RrdAttributeType;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure JRobin update performance.
+ * <p>
+ * A few thousand synthetic RRD files with several datasources and the default
+ * archives are updated in every benchmark method call, once through the FILE
+ * backend and once through the memory-mapped backend. Every call stores the same
+ * row in every file, either as one update carrying all datasources or as a
+ * batch of per-datasource partial updates that are merged before writing.
+ */
+public class JRobinRrdStrategyBenchmark {
+
+    private static final int STEP = 300;
+
+    // every datasource is updated separately, like the values of a group
+    // that arrive from different collections for the same interval
+    private static final int DATASOURCES = 4;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"1000", "5000"})
+        public int files;
+
+        @Param({"FILE", MappedRrdBackendFactory.NAME})
+        public String backend;
+
+        private JRobinRrdStrategy strategy;
+        private RrdBackendFactory factory;
+        private File directory;
+        private List<String> fileNames;
+        private long time;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            System.setProperty("java.awt.headless", "true");
+            strategy = new JRobinRrdStrategy();
+            factory = RrdBackendFactory.getFactory(backend);
+            directory = Files.createTempDirectory("jrobin-benchmark").toFile();
+
+            final List<RrdDataSource> dataSources = new ArrayList<>(DATASOURCES);
+            for (int i = 0; i < DATASOURCES; i++) {
+                dataSources.add(new RrdDataSource("ds" + i, RrdAttributeType.GAUGE, STEP * 2, "U", "U"));
+            }
+            final List<String> rraList = Arrays.asList(
+                    "RRA:AVERAGE:0.5:1:2016",
+                    "RRA:AVERAGE:0.5:12:1488",
+                    "RRA:AVERAGE:0.5:288:366",
+                    "RRA:MAX:0.5:288:366",
+                    "RRA:MIN:0.5:288:366");
+
+            fileNames = new ArrayList<>(files);
+            for (int i = 0; i < files; i++) {
+                final RrdDef def = strategy.createDefinition("benchmark", directory.getAbsolutePath(), "file" + i, STEP, dataSources, rraList);
+                strategy.createFile(def);
+                fileNames.add(def.getPath());
+            }
+            time = 1000 + STEP;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+
+        private long nextTime() {
+            time += STEP;
+            return time;
+        }
+
+        private static String value(long time, int ds) {
+            return Long.toString(time % 1000 + ds);
+        }
+
+        // one partial update per datasource, all for the same row
+        private static List<String> partialUpdates(long time) {
+            final List<String> updates = new ArrayList<>(DATASOURCES);
+            for (int i = 0; i < DATASOURCES; i++) {
+                final StringBuilder update = new StringBuilder().append(time);
+                for (int j = 0; j < DATASOURCES; j++) {
+                    update.append(':').append(i == j ? value(time, j) : "U");
+                }
+                updates.add(update.toString());
+            }
+            return updates;
+        }
+
+        // the same row as a single update carrying every datasource
+        private static String mergedUpdate(long time) {
+            final StringBuilder update = new StringBuilder().append(time);
+            for (int j = 0; j < DATASOURCES; j++) {
+                update.append(':').append(value(time, j));
+            }
+            return update.toString();
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void updateBatch(BState state) throws Exception {
+        final List<String> updates = BState.partialUpdates(state.nextTime());
+        for (final String fileName : state.fileNames) {
+            final RrdDb rrd = new RrdDb(fileName, state.factory);
+            try {
+                state.strategy.updateFileBatch(rrd, "benchmark", updates);
+            } finally {
+                rrd.close();
+            }
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void updateSingle(BState state) throws Exception {
+        // JRobin rejects a second update with the same timestamp, so the
+        // baseline is handed the row the batch merges the partial updates into
+        final String update = BState.mergedUpdate(state.nextTime());
+        for (final String fileName : state.fileNames) {
+            final RrdDb rrd = new RrdDb(fileName, state.factory);
+            try {
+                state.strategy.updateFile(rrd, "benchmark", update);
+            } finally {
+                rrd.close();
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.Sample;
@@ -464,6 +465,54 @@ public class JRobinRrdStrategyTest {
         assertNotNull("graph details object", graphDetails);
     }
 
+    @Test
+    public void testUpdateFileBatchMergesTimeAlignedUpdates() throws Exception {
+        File rrdFile = createMultiDsRrdFile();
+
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFileBatch(openedFile, "huh?", Arrays.asList("1300:1:U", "1600:3:U", "1300:U:2", "1600:U:4"));
+
+        assertEquals(1600, openedFile.getLastUpdateTime());
+        assertEquals(3.0, openedFile.getDatasource("a").getLastValue(), 0.0);
+        assertEquals(4.0, openedFile.getDatasource("b").getLastValue(), 0.0);
+        m_strategy.closeFile(openedFile);
+    }
+
+    @Test
+    public void testMappedBackend() throws Exception {
+        File rrdFile = createMultiDsRrdFile();
+        RrdBackendFactory mapped = RrdBackendFactory.getFactory(MappedRrdBackendFactory.NAME);
+
+        RrdDb openedFile = new RrdDb(rrdFile.getAbsolutePath(), mapped);
+        m_strategy.updateFileBatch(openedFile, "huh?", Arrays.asList("1300:1:2", "1600:3:4"));
+        m_strategy.closeFile(openedFile);
+
+        // the changes must be visible through the regular file backend
+        RrdDb reopenedFile = new RrdDb(rrdFile.getAbsolutePath(), RrdBackendFactory.getFactory("FILE"));
+        assertEquals(1600, reopenedFile.getLastUpdateTime());
+        assertEquals(3.0, reopenedFile.getDatasource("a").getLastValue(), 0.0);
+        assertEquals(4.0, reopenedFile.getDatasource("b").getLastValue(), 0.0);
+        reopenedFile.close();
+    }
+
+    public File createMultiDsRrdFile() throws Exception {
+        String rrdFileBase = "multi";
+
+        m_fileAnticipator.initialize();
+        String rrdExtension = m_strategy.getDefaultFileExtension();
+
+        List<RrdDataSource> dataSources = new ArrayList<>();
+        dataSources.add(new RrdDataSource("a", RrdAttributeType.GAUGE, 3000, "U", "U"));
+        dataSources.add(new RrdDataSource("b", RrdAttributeType.GAUGE, 3000, "U", "U"));
+        List<String> rraList = new ArrayList<>();
+        rraList.add("RRA:AVERAGE:0.5:1:2016");
+        rraList.add("RRA:MAX:0.5:12:1488");
+        RrdDef def = m_strategy.createDefinition("hello!", m_fileAnticipator.getTempDir().getAbsolutePath(), rrdFileBase, 300, dataSources, rraList);
+        m_strategy.createFile(def);
+
+        return m_fileAnticipator.expecting(rrdFileBase + rrdExtension);
+    }
+
     public File createRrdFile() throws Exception {
         String rrdFileBase = "foo";
 
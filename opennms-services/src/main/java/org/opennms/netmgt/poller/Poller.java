@@ -47,6 +47,7 @@ import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsOutage;
 import org.opennms.netmgt.poller.pollables.DbPollEvent;
+import org.opennms.netmgt.poller.pollables.LatencyPersistenceBuffer;
 import org.opennms.netmgt.poller.pollables.PollEvent;
 import org.opennms.netmgt.poller.pollables.PollableNetwork;
 import org.opennms.netmgt.poller.pollables.PollableNode;
@@ -121,6 +122,8 @@ public class Poller extends AbstractServiceDaemon {
     @Qualifier("deviceConfigMonitorAdaptor")
     private ServiceMonitorAdaptor serviceMonitorAdaptor;
 
+    private LatencyPersistenceBuffer m_latencyPersistenceBuffer;
+
     public void setPersisterFactory(PersisterFactory persisterFactory) {
         m_persisterFactory = persisterFactory;
     }
@@ -294,6 +297,11 @@ public class Poller extends AbstractServiceDaemon {
 
         createScheduler();
 
+        if (m_persisterFactory != null && LatencyPersistenceBuffer.DEFAULT_FLUSH_INTERVAL > 0) {
+            LOG.debug("init: Buffering latency samples for up to {} ms", LatencyPersistenceBuffer.DEFAULT_FLUSH_INTERVAL);
+            m_latencyPersistenceBuffer = new LatencyPersistenceBuffer(m_persisterFactory);
+        }
+
         try {
             LOG.debug("init: Closing outages for unmanaged services");
 
@@ -358,6 +366,9 @@ public class Poller extends AbstractServiceDaemon {
                 LOG.debug("start: Starting poller scheduler");
 
             getScheduler().start();
+            if (m_latencyPersistenceBuffer != null) {
+                m_latencyPersistenceBuffer.start();
+            }
         } catch (RuntimeException e) {
             LOG.error("start: Failed to start scheduler", e);
             throw e;
@@ -375,6 +386,9 @@ public class Poller extends AbstractServiceDaemon {
         if(getEventProcessor()!=null) {
             getEventProcessor().close();
         }
+        if (m_latencyPersistenceBuffer != null) {
+            m_latencyPersistenceBuffer.stop();
+        }
 
         setScheduler(null);
     }
@@ -519,7 +533,8 @@ public class Poller extends AbstractServiceDaemon {
         PollableService svc = getNetwork().createService(service.getNodeId(), iface.getNode().getLabel(), iface.getNode().getLocation().getLocationName(), addr, serviceName);
         PollableServiceConfig pollConfig = new PollableServiceConfig(svc, m_pollerConfig, pkg,
                                                                      getScheduler(), m_persisterFactory, m_thresholdingService,
-                                                                     m_locationAwarePollerClient, m_pollOutagesDao, serviceMonitorAdaptor);
+                                                                     m_locationAwarePollerClient, m_pollOutagesDao, serviceMonitorAdaptor,
+                                                                     m_latencyPersistenceBuffer);
         svc.setPollConfig(pollConfig);
         synchronized(svc) {
             if (svc.getSchedule() == null) {
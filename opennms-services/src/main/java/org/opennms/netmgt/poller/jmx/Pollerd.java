@@ -37,6 +37,7 @@ import javax.management.openmbean.TabularDataSupport;
 import javax.management.openmbean.TabularType;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.poller.pollables.PollableNode;
 import org.opennms.netmgt.poller.pollables.PollableService;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
@@ -173,6 +174,26 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
         return getDaemon().getNetwork().getContext().getAsyncPollingEngine().getNumPollsInFlight();
     }
 
+    @Override
+    public long getTreeLockAcquisitions() {
+        return PollableNode.getTreeLockAcquisitions();
+    }
+
+    @Override
+    public long getTreeLockWaitTime() {
+        return PollableNode.getTreeLockWaitTime();
+    }
+
+    @Override
+    public long getTreeLockMaxWaitTime() {
+        return PollableNode.getTreeLockMaxWaitTime();
+    }
+
+    @Override
+    public long getTreeLockUnavailable() {
+        return PollableNode.getTreeLockUnavailable();
+    }
+
     private static final String[] SCHEDULE_ITEMS = new String[]{"nodeId", "nodeLabel", "nodeLocation", "ipAddress", "service", "readyTimeMs", "readyTimeAbsoluteMs", "status", "statusChangeTimeMs"};
     private static final String[] SCHEDULE_DESCS = new String[]{"nodeId", "nodeLabel", "nodeLocation", "ipAddress", "service", "readyTimeMs", "readyTimeAbsoluteMs", "status", "statusChangeTimeMs"};
     private static final OpenType<?>[] SCHEDULE_TYPES = new OpenType<?>[]{SimpleType.INTEGER, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.STRING, SimpleType.LONG};
@@ -92,5 +92,25 @@ public interface PollerdMBean extends BaseOnmsMBean {
 
     public long getNumPollsInFlight();
 
+    /**
+     * @return the number of times a node lock was obtained (counter)
+     */
+    public long getTreeLockAcquisitions();
+
+    /**
+     * @return the total time spent waiting to obtain node locks in milliseconds (counter)
+     */
+    public long getTreeLockWaitTime();
+
+    /**
+     * @return the longest time spent waiting to obtain a node lock in milliseconds
+     */
+    public long getTreeLockMaxWaitTime();
+
+    /**
+     * @return the number of polls postponed because the node lock was unavailable (counter)
+     */
+    public long getTreeLockUnavailable();
+
     public TabularData getSchedule() throws OpenDataException;
 }
@@ -0,0 +1,376 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.pollables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.collection.api.AttributeGroup;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionSetVisitor;
+import org.opennms.netmgt.collection.api.CollectionStatus;
+import org.opennms.netmgt.collection.api.LatencyCollectionAttribute;
+import org.opennms.netmgt.collection.api.LatencyCollectionAttributeType;
+import org.opennms.netmgt.collection.api.LatencyCollectionResource;
+import org.opennms.netmgt.collection.api.PersisterFactory;
+import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.api.TimeKeeper;
+import org.opennms.netmgt.collection.support.AbstractCollectionSetVisitor;
+import org.opennms.netmgt.collection.support.CollectionSetVisitorWrapper;
+import org.opennms.netmgt.collection.support.MultiResourceCollectionSet;
+import org.opennms.netmgt.collection.support.SingleResourceCollectionSet;
+import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.threshd.api.ThresholdingSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers the latency samples gathered by the {@link LatencyStoringServiceMonitorAdaptor}
+ * of all services and hands them to the persisters in batches.
+ *
+ * The samples of a batch are grouped by repository and written through a
+ * single persister per repository. The samples of a service that share a
+ * timestamp are merged into a single resource, and all of the resources of a
+ * repository are visited as one collection set, so every attribute group is
+ * written to the backend once per timestamp. Thresholds are evaluated when the batch is
+ * flushed, in the order the samples were collected. The samples keep the
+ * timestamp of the poll so the stored data is the same as when every sample
+ * is written as soon as it is collected.
+ */
+public class LatencyPersistenceBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyPersistenceBuffer.class);
+
+    public static final long DEFAULT_FLUSH_INTERVAL = Long.getLong("org.opennms.netmgt.poller.latency.flushInterval", 5000L);
+
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("org.opennms.netmgt.poller.latency.batchSize", 1000);
+
+    private static final ServiceParameters EMPTY_SERVICE_PARAMS = new ServiceParameters(Collections.emptyMap());
+
+    private final PersisterFactory m_persisterFactory;
+    private final long m_flushInterval;
+    private final int m_batchSize;
+    private final int m_maxPending;
+
+    private final Object m_lock = new Object();
+    /**
+     * Held for the duration of a flush so batches are written one at a time and in
+     * order, and the thresholds of a service are never evaluated concurrently.
+     */
+    private final Object m_flushLock = new Object();
+    private List<Sample> m_pending = new ArrayList<>();
+
+    private final AtomicLong m_samples = new AtomicLong();
+    private final AtomicLong m_flushes = new AtomicLong();
+    private final AtomicLong m_persisters = new AtomicLong();
+    private final AtomicLong m_writes = new AtomicLong();
+
+    private ScheduledExecutorService m_executor;
+
+    private static class Sample {
+        private final CollectionSet m_collectionSet;
+        private final RrdRepository m_repository;
+        private final ThresholdingSession m_thresholdingSession;
+        private final Object m_service;
+
+        private Sample(CollectionSet collectionSet, RrdRepository repository, ThresholdingSession thresholdingSession, Object service) {
+            m_collectionSet = collectionSet;
+            m_repository = repository;
+            m_thresholdingSession = thresholdingSession;
+            m_service = service;
+        }
+    }
+
+    public LatencyPersistenceBuffer(PersisterFactory persisterFactory) {
+        this(persisterFactory, DEFAULT_FLUSH_INTERVAL, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param persisterFactory factory for the persisters the samples are written with
+     * @param flushInterval maximum time in milliseconds a sample is held before it is written
+     * @param batchSize number of pending samples that trigger a flush before the interval elapsed
+     */
+    public LatencyPersistenceBuffer(PersisterFactory persisterFactory, long flushInterval, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        m_persisterFactory = Objects.requireNonNull(persisterFactory);
+        m_flushInterval = flushInterval;
+        m_batchSize = batchSize;
+        // Bound the memory used when the flusher falls behind, once this many
+        // are pending the pollers wait for the flush to complete
+        m_maxPending = batchSize * 10;
+    }
+
+    public synchronized void start() {
+        if (m_executor != null) {
+            return;
+        }
+        m_executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "Poller-LatencyFlusher");
+            t.setDaemon(true);
+            return t;
+        });
+        if (m_flushInterval > 0) {
+            m_executor.scheduleWithFixedDelay(this::flush, m_flushInterval, m_flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background flusher and writes the samples that are still pending.
+     */
+    public void stop() {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = m_executor;
+            m_executor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(m_flushInterval + 1000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Queues a sample for persistence.
+     *
+     * @param collectionSet the latency samples, the resource must carry the poll timestamp
+     * @param repository the repository the samples are written to
+     * @param thresholdingSession session used to evaluate the thresholds or null if thresholding is disabled
+     * @param service used for logging
+     */
+    public void add(CollectionSet collectionSet, RrdRepository repository, ThresholdingSession thresholdingSession, Object service) {
+        final Sample sample = new Sample(collectionSet, repository, thresholdingSession, service);
+        final int pending;
+        synchronized (m_lock) {
+            m_pending.add(sample);
+            pending = m_pending.size();
+        }
+        m_samples.incrementAndGet();
+
+        if (pending >= m_maxPending) {
+            flush();
+        } else if (pending == m_batchSize) {
+            final ScheduledExecutorService executor = m_executor;
+            if (executor != null) {
+                executor.execute(this::flush);
+            } else {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes all of the pending samples. Blocks while another flush is in progress.
+     */
+    public void flush() {
+        synchronized (m_flushLock) {
+            final List<Sample> batch;
+            synchronized (m_lock) {
+                if (m_pending.isEmpty()) {
+                    return;
+                }
+                batch = m_pending;
+                m_pending = new ArrayList<>(Math.min(batch.size(), m_maxPending));
+            }
+            write(batch);
+        }
+    }
+
+    private void write(final List<Sample> batch) {
+        m_flushes.incrementAndGet();
+
+        // Group by repository, preserving the order in which the samples were collected
+        final Map<String, List<Sample>> samplesByRepository = new LinkedHashMap<>();
+        for (final Sample sample : batch) {
+            samplesByRepository.computeIfAbsent(sample.m_repository.toString(), k -> new ArrayList<>()).add(sample);
+        }
+
+        LOG.debug("flush: Persisting {} latency samples in {} repositories", batch.size(), samplesByRepository.size());
+        for (final List<Sample> samples : samplesByRepository.values()) {
+            final CollectionSetVisitor persister = new CollectionSetVisitorWrapper(m_persisterFactory.createPersister(EMPTY_SERVICE_PARAMS, samples.get(0).m_repository, false, true, true)) {
+                @Override
+                public void completeGroup(AttributeGroup group) {
+                    super.completeGroup(group);
+                    m_writes.incrementAndGet();
+                }
+            };
+            m_persisters.incrementAndGet();
+
+            final MergedCollectionSet merged = new MergedCollectionSet();
+            for (final Sample sample : samples) {
+                if (!merged.merge(sample.m_collectionSet)) {
+                    // Not a latency sample, write it as is
+                    try {
+                        sample.m_collectionSet.visit(persister);
+                    } catch (Throwable e) {
+                        LOG.error("Failed to persist latency data for {}", sample.m_service, e);
+                    }
+                }
+            }
+            if (!merged.complete().getCollectionResources().isEmpty()) {
+                try {
+                    merged.visit(persister);
+                } catch (Throwable e) {
+                    LOG.error("Failed to persist latency data for {} resources", merged.getCollectionResources().size(), e);
+                }
+            }
+        }
+
+        for (final Sample sample : batch) {
+            if (sample.m_thresholdingSession == null) {
+                continue;
+            }
+            try {
+                sample.m_thresholdingSession.accept(sample.m_collectionSet);
+            } catch (Throwable e) {
+                LOG.error("Failed to threshold on {} because of an exception", sample.m_service, e);
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (m_lock) {
+            return m_pending.size();
+        }
+    }
+
+    /**
+     * @return the number of samples that were queued
+     */
+    public long getSampleCount() {
+        return m_samples.get();
+    }
+
+    /**
+     * @return the number of batches that were written
+     */
+    public long getFlushCount() {
+        return m_flushes.get();
+    }
+
+    /**
+     * @return the number of persisters that were created to write the samples
+     */
+    public long getPersisterCount() {
+        return m_persisters.get();
+    }
+
+    /**
+     * @return the number of attribute groups that were written to the backend
+     */
+    public long getWriteCount() {
+        return m_writes.get();
+    }
+
+    /**
+     * Merges the latency samples of a repository into a single collection set.
+     *
+     * The attributes of the samples with the same resource and timestamp are
+     * added to a single resource, when the same attribute is sampled more than
+     * once the last value wins, as it would when written one after the other.
+     */
+    private static class MergedCollectionSet extends MultiResourceCollectionSet<LatencyCollectionResource> {
+        private final Map<String, LatencyCollectionResource> m_resources = new LinkedHashMap<>();
+        private final Map<String, Map<String, CollectionAttribute>> m_attributes = new LinkedHashMap<>();
+
+        private MergedCollectionSet() {
+            setStatus(CollectionStatus.SUCCEEDED);
+        }
+
+        /**
+         * @return false if the collection set does not hold a single latency resource with a fixed timestamp
+         */
+        private boolean merge(CollectionSet collectionSet) {
+            if (!(collectionSet instanceof SingleResourceCollectionSet)) {
+                return false;
+            }
+            final CollectionResource resource = ((SingleResourceCollectionSet) collectionSet).getCollectionResource();
+            if (!(resource instanceof LatencyCollectionResource) || resource.getTimeKeeper() == null) {
+                return false;
+            }
+            final List<CollectionAttribute> sampled = new ArrayList<>();
+            resource.visit(new AbstractCollectionSetVisitor() {
+                @Override
+                public void visitAttribute(CollectionAttribute attribute) {
+                    sampled.add(attribute);
+                }
+            });
+            if (!sampled.stream().allMatch(a -> a.getAttributeType() instanceof LatencyCollectionAttributeType)) {
+                return false;
+            }
+
+            final LatencyCollectionResource latencyResource = (LatencyCollectionResource) resource;
+            final TimeKeeper timeKeeper = latencyResource.getTimeKeeper();
+            final String key = String.format("%s|%s|%s|%s|%d", latencyResource.getPath(), latencyResource.getInstance(),
+                    new TreeMap<>(latencyResource.getTags()), new TreeMap<>(latencyResource.getServiceParams()), timeKeeper.getCurrentTime());
+            if (!m_resources.containsKey(key)) {
+                final LatencyCollectionResource mergedResource = new LatencyCollectionResource(latencyResource.getServiceName(),
+                        latencyResource.getIpAddress(), latencyResource.getLocation(), latencyResource.getTags());
+                latencyResource.getServiceParams().forEach(mergedResource::addServiceParam);
+                mergedResource.setTimeKeeper(timeKeeper);
+                m_resources.put(key, mergedResource);
+                m_attributes.put(key, new LinkedHashMap<>());
+            }
+            final Map<String, CollectionAttribute> attributes = m_attributes.get(key);
+            for (final CollectionAttribute attribute : sampled) {
+                attributes.put(attribute.getAttributeType().getGroupType().getName() + "|" + attribute.getName(), attribute);
+            }
+            if (getCollectionTimestamp() == null) {
+                setCollectionTimestamp(collectionSet.getCollectionTimestamp());
+            }
+            return true;
+        }
+
+        /**
+         * Adds the merged resources to the set, must be called once all of the samples were merged.
+         */
+        private MergedCollectionSet complete() {
+            for (final Map.Entry<String, LatencyCollectionResource> entry : m_resources.entrySet()) {
+                final LatencyCollectionResource mergedResource = entry.getValue();
+                for (final CollectionAttribute attribute : m_attributes.get(entry.getKey()).values()) {
+                    final Number value = attribute.getNumericValue();
+                    mergedResource.addAttribute(new LatencyCollectionAttribute(mergedResource, (LatencyCollectionAttributeType) attribute.getAttributeType(),
+                            attribute.getName(), value != null ? value.doubleValue() : Double.NaN));
+                }
+                getCollectionResources().add(mergedResource);
+            }
+            return this;
+        }
+    }
+}
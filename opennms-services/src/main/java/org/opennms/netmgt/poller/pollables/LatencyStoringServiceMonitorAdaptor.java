@@ -38,6 +38,7 @@ import org.opennms.netmgt.collection.api.LatencyCollectionAttributeType;
 import org.opennms.netmgt.collection.api.LatencyCollectionResource;
 import org.opennms.netmgt.collection.api.PersisterFactory;
 import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.support.ConstantTimeKeeper;
 import org.opennms.netmgt.collection.support.SingleResourceCollectionSet;
 import org.opennms.netmgt.config.PollerConfig;
 import org.opennms.netmgt.config.poller.Package;
@@ -73,13 +74,25 @@ public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitorAdapto
 
     private final ThresholdingService m_thresholdingService;
 
+    private final LatencyPersistenceBuffer m_persistenceBuffer;
+
     private ThresholdingSession m_thresholdingSession;
 
     public LatencyStoringServiceMonitorAdaptor(PollerConfig config, Package pkg, PersisterFactory persisterFactory, ThresholdingService thresholdingService) {
+        this(config, pkg, persisterFactory, thresholdingService, null);
+    }
+
+    /**
+     * @param persistenceBuffer buffer used to persist and threshold the samples in batches,
+     *  or null to persist and threshold every sample as soon as it is collected
+     */
+    public LatencyStoringServiceMonitorAdaptor(PollerConfig config, Package pkg, PersisterFactory persisterFactory, ThresholdingService thresholdingService,
+                                               LatencyPersistenceBuffer persistenceBuffer) {
         m_pollerConfig = config;
         m_pkg = pkg;
         m_persisterFactory = persisterFactory;
         m_thresholdingService = thresholdingService;
+        m_persistenceBuffer = persistenceBuffer;
     }
 
     @Override
@@ -110,6 +123,18 @@ public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitorAdapto
         CollectionSet collectionSet = getCollectionSet(svc, entries, rrdBaseName, snmpInfoInTags);
         RrdRepository repository = getRrdRepository(rrdPath);
 
+        if (m_persistenceBuffer != null) {
+            ThresholdingSession thresholdingSession = null;
+            if (thresholds.equalsIgnoreCase("true")) {
+                thresholdingSession = getThresholdingSession(svc, dsName);
+            } else {
+                LOG.debug("storeResponseTime: Thresholds processing is not enabled. Check thresholding-enabled parameter on service definition");
+            }
+            LOG.debug("storeResponseTime: Queuing latency data for {}", svc);
+            m_persistenceBuffer.add(collectionSet, repository, thresholdingSession, svc);
+            return;
+        }
+
         if (thresholds.equalsIgnoreCase("true")) {
             applyThresholds(collectionSet, svc, dsName);
         } else {
@@ -137,17 +162,29 @@ public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitorAdapto
     }
 
     private void applyThresholds(CollectionSet collectionSet, MonitoredService service, String dsName) {
+        final ThresholdingSession thresholdingSession = getThresholdingSession(service, dsName);
+        if (thresholdingSession == null) {
+            return;
+        }
+        try {
+            thresholdingSession.accept(collectionSet);
+        } catch (Throwable e) {
+            LOG.error("Failed to threshold on {} for {} because of an exception", service, dsName, e);
+        }
+    }
+
+    private ThresholdingSession getThresholdingSession(MonitoredService service, String dsName) {
         try {
             if (m_thresholdingSession == null) {
-                m_thresholdingSession = m_thresholdingService.createSession(service.getNodeId(), 
+                m_thresholdingSession = m_thresholdingService.createSession(service.getNodeId(),
                                                                             service.getIpAddr(),
                                                                             service.getSvcName(),
                                                                             EMPTY_SERVICE_PARAMS);
             }
-            m_thresholdingSession.accept(collectionSet);
         } catch (Throwable e) {
             LOG.error("Failed to threshold on {} for {} because of an exception", service, dsName, e);
         }
+        return m_thresholdingSession;
     }
 
     private CollectionSet getCollectionSet(MonitoredService service, Map<String, Number> entries, String rrdBaseName, boolean snmpInfoInTags) {
@@ -173,7 +210,12 @@ public class LatencyStoringServiceMonitorAdaptor implements ServiceMonitorAdapto
             latencyResource.addAttribute(new LatencyCollectionAttribute(latencyResource, latencyType, ds, value.doubleValue()));
         }
 
-        SingleResourceCollectionSet collectionSet = new SingleResourceCollectionSet(latencyResource, new Date());
+        Date timestamp = new Date();
+        if (m_persistenceBuffer != null) {
+            // The sample is written later on, keep the time at which it was collected
+            latencyResource.setTimeKeeper(new ConstantTimeKeeper(timestamp));
+        }
+        SingleResourceCollectionSet collectionSet = new SingleResourceCollectionSet(latencyResource, timestamp);
         collectionSet.setStatus(CollectionStatus.SUCCEEDED);
 
         return collectionSet;
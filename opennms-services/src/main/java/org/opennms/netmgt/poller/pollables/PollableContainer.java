@@ -23,10 +23,12 @@ package org.opennms.netmgt.poller.pollables;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.netmgt.poller.PollStatus;
 
@@ -42,6 +44,14 @@ abstract public class PollableContainer extends PollableElement {
 
     private final Map<Object, PollableElement> m_members = new HashMap<Object, PollableElement>();
 
+    /**
+     * Lookups go to a concurrent copy of the members and iteration goes to a
+     * read-only snapshot that is rebuilt on first use after a member was added
+     * or removed, so neither needs to synchronize on the container.
+     */
+    private final Map<Object, PollableElement> m_memberIndex = new ConcurrentHashMap<Object, PollableElement>();
+    private volatile Collection<PollableElement> m_memberSnapshot = Collections.emptyList();
+
     /**
      * <p>Constructor for PollableContainer.</p>
      *
@@ -72,8 +82,8 @@ abstract public class PollableContainer extends PollableElement {
      * @param key a {@link java.lang.Object} object.
      * @return a {@link org.opennms.netmgt.poller.pollables.PollableElement} object.
      */
-    protected synchronized PollableElement getMember(Object key) {
-        return m_members.get(key);
+    protected PollableElement getMember(Object key) {
+        return m_memberIndex.get(key);
     }
 
     /**
@@ -81,8 +91,8 @@ abstract public class PollableContainer extends PollableElement {
      *
      * @return a int.
      */
-    protected synchronized int getMemberCount() {
-        return m_members.size();
+    protected int getMemberCount() {
+        return m_memberIndex.size();
     }
     
     /**
@@ -90,8 +100,19 @@ abstract public class PollableContainer extends PollableElement {
      *
      * @return a {@link java.util.Collection} object.
      */
-    protected synchronized Collection<PollableElement> getMembers() {
-        return new ArrayList<PollableElement>(m_members.values());
+    protected Collection<PollableElement> getMembers() {
+        Collection<PollableElement> members = m_memberSnapshot;
+        if (members == null) {
+            synchronized (this) {
+                members = m_memberSnapshot;
+                if (members == null) {
+                    // keep the iteration order of the backing map
+                    members = Collections.unmodifiableList(new ArrayList<PollableElement>(m_members.values()));
+                    m_memberSnapshot = members;
+                }
+            }
+        }
+        return members;
     }
     
     /**
@@ -110,6 +131,8 @@ abstract public class PollableContainer extends PollableElement {
     protected synchronized void addMember(PollableElement member) {
         Object key = createMemberKey(member);
         m_members.put(key, member);
+        m_memberIndex.put(key, member);
+        m_memberSnapshot = null;
     }
     
     /**
@@ -120,6 +143,8 @@ abstract public class PollableContainer extends PollableElement {
     public synchronized void removeMember(PollableElement member) {
         Object key = createMemberKey(member);
         m_members.remove(key);
+        m_memberIndex.remove(key);
+        m_memberSnapshot = null;
     }
 
     
@@ -130,7 +155,7 @@ abstract public class PollableContainer extends PollableElement {
      */
     public void deleteMember(PollableElement member) {
         removeMember(member);
-        if (m_members.size() == 0)
+        if (getMemberCount() == 0)
             this.delete();
     }
     
@@ -23,6 +23,7 @@ package org.opennms.netmgt.poller.pollables;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -243,6 +244,46 @@ public class PollableInterface extends PollableContainer {
         }
             
     }
+
+    /**
+     * Returns the services that are polled while the node lock is held when
+     * the given member of this interface changes to the given status: the
+     * services polled by {@link #pollRemainingMembers(PollableElement)} and,
+     * when the status of the interface changes too, those polled on the other
+     * interfaces of the node.
+     *
+     * @param member the service that was polled
+     * @param newStatus the new status of the service
+     * @return the services, which may be polled ahead of time
+     */
+    List<PollableService> getServicesPolledOnChange(PollableService member, PollStatus newStatus) {
+        final PollableService critSvc = getCriticalService();
+        if (newStatus.isUnknown() || newStatus.isUp() == member.getStatus().isUp() || newStatus.isUp() == getStatus().isUp()) {
+            return Collections.emptyList();
+        }
+        if (critSvc != null && !getStatus().isUp() && member != critSvc) {
+            // only the critical service can bring the interface back up, see poll(PollableElement)
+            return Collections.emptyList();
+        }
+
+        final List<PollableService> services = new ArrayList<>();
+        if (critSvc != null && getStatus().isUp()) {
+            if (member != critSvc) {
+                services.add(critSvc);
+            }
+        } else if (getContext().isPollingAllIfCritServiceUndefined()) {
+            for (PollableElement elem : getMembers()) {
+                if (elem != member) {
+                    services.add((PollableService)elem);
+                }
+            }
+        }
+        // unless the member is critical, the interface only changes if the critical service changed too
+        if ((critSvc == null || member == critSvc) && newStatus.isUp() != getNode().getStatus().isUp()) {
+            services.addAll(getNode().getServicesPolledAfter(this));
+        }
+        return services;
+    }
     /** {@inheritDoc} */
     @Override
     public Event createDownEvent(Date date) {
@@ -26,6 +26,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.opennms.netmgt.events.api.EventConstants;
@@ -42,6 +44,17 @@ import org.slf4j.LoggerFactory;
 public class PollableNode extends PollableContainer {
     private static final Logger LOG = LoggerFactory.getLogger(PollableNode.class);
 
+    /**
+     * Waits longer than this are logged, they usually mean that another
+     * thread is holding the node while it processes a status change.
+     */
+    private static final long LONG_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("org.opennms.netmgt.poller.treeLockLongWaitMillis", 100));
+
+    private static final LongAdder s_lockAcquisitions = new LongAdder();
+    private static final LongAdder s_lockWaitNanos = new LongAdder();
+    private static final AtomicLong s_lockMaxWaitNanos = new AtomicLong();
+    private static final LongAdder s_lockUnavailable = new LongAdder();
+
     private final int m_nodeId;
     private String m_nodeLabel;
     private final String m_nodeLocation;
@@ -233,7 +246,9 @@ public class PollableNode extends PollableContainer {
      */
     @Override
     protected void obtainTreeLock() {
+        final long start = System.nanoTime();
         m_lock.lock();
+        recordLockWait(System.nanoTime() - start);
     }
 
     /** 
@@ -248,20 +263,81 @@ public class PollableNode extends PollableContainer {
         if (timeout < 1) {
             obtainTreeLock();
         } else {
+            final long start = System.nanoTime();
             try {
                 if (m_lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
                     // Lock was successful
+                    recordLockWait(System.nanoTime() - start);
                     return;
                 } else {
                     // Lock was unsuccessful
+                    s_lockUnavailable.increment();
                     throw new LockUnavailable("Unable to obtain lock for " + PollableNode.this + " within " + timeout + " milliseconds");
                 }
             } catch (InterruptedException e) {
+                s_lockUnavailable.increment();
                 throw new LockUnavailable("Interrupted while waiting " + timeout + " milliseconds to obtain lock for " + PollableNode.this);
             }
         }
     }
     
+    private void recordLockWait(long waitNanos) {
+        s_lockAcquisitions.increment();
+        s_lockWaitNanos.add(waitNanos);
+        s_lockMaxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        if (waitNanos > LONG_WAIT_NANOS) {
+            LOG.debug("Waited {} ms to obtain lock for {}", TimeUnit.NANOSECONDS.toMillis(waitNanos), this);
+        }
+    }
+
+    /**
+     * @return the number of times the lock of any node was obtained
+     */
+    public static long getTreeLockAcquisitions() {
+        return s_lockAcquisitions.sum();
+    }
+
+    /**
+     * @return the total time spent waiting on node locks, in milliseconds
+     */
+    public static long getTreeLockWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(s_lockWaitNanos.sum());
+    }
+
+    /**
+     * @return the longest time spent waiting on a single node lock, in milliseconds
+     */
+    public static long getTreeLockMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(s_lockMaxWaitNanos.get());
+    }
+
+    /**
+     * @return the number of times a node lock could not be obtained within the timeout
+     */
+    public static long getTreeLockUnavailable() {
+        return s_lockUnavailable.sum();
+    }
+
+    /**
+     * Returns the services that {@link #pollRemainingMembers(PollableElement)}
+     * polls on the interfaces other than the given one.
+     *
+     * @param member the interface whose status changed
+     * @return the services, which may be polled ahead of time
+     */
+    List<PollableService> getServicesPolledAfter(PollableElement member) {
+        final List<PollableService> services = new ArrayList<>();
+        for (PollableElement elem : getMembers()) {
+            if (elem != member) {
+                final PollableElement leaf = elem.selectPollElement();
+                if (leaf instanceof PollableService) {
+                    services.add((PollableService)leaf);
+                }
+            }
+        }
+        return services;
+    }
+
     /**
      * <p>releaseTreeLock</p>
      */
@@ -22,8 +22,11 @@
 package org.opennms.netmgt.poller.pollables;
 
 import java.net.InetAddress;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -46,14 +49,32 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     
     private static final Logger LOG = LoggerFactory.getLogger(PollableService.class);
 
+    /**
+     * How long a scheduled poll waits for the node lock before it is postponed,
+     * in milliseconds.
+     */
+    private static final long TREE_LOCK_TIMEOUT = Long.getLong("org.opennms.netmgt.poller.treeLockTimeoutMillis", 500);
+
     private final class PollRunner implements Runnable {
     	
+    	private final PollStatus m_preemptiveStatus;
     	private volatile PollStatus m_pollStatus;
+		PollRunner() {
+		    this(null);
+		}
+		PollRunner(PollStatus preemptiveStatus) {
+		    m_preemptiveStatus = preemptiveStatus;
+		}
             @Override
 		public void run() {
-		    doPoll();
-		    getNode().processStatusChange(new Date());
-		    m_pollStatus = getStatus();
+		    m_preemptivePollStatus = m_preemptiveStatus;
+		    try {
+		        doPoll();
+		        getNode().processStatusChange(new Date());
+		        m_pollStatus = getStatus();
+		    } finally {
+		        m_preemptivePollStatus = null;
+		    }
 		}
 		public PollStatus getPollStatus() {
 			return m_pollStatus;
@@ -67,6 +88,11 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
     private volatile PollStatus m_preemptivePollStatus;
+    // the result of a poll made before the node lock was taken, see prepollDependents()
+    private final AtomicReference<PollStatus> m_prepolledStatus = new AtomicReference<>();
+    // a completed poll that could not be applied since the node lock was unavailable
+    private volatile PollStatus m_pendingPollStatus;
+    private volatile long m_pendingPollTime;
 
     /**
      * <p>Constructor for PollableService.</p>
@@ -196,7 +222,8 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         if (m_preemptivePollStatus != null) {
             newStatus = m_preemptivePollStatus;
         } else {
-            newStatus = m_pollConfig.poll();
+            final PollStatus prepolled = m_prepolledStatus.getAndSet(null);
+            newStatus = prepolled != null ? prepolled : m_pollConfig.poll();
         }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
@@ -389,7 +416,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         if(getContext().isNodeProcessingEnabled() && getContext().isAsyncEngineEnabled()) {
             getContext().getAsyncPollingEngine().triggerScheduledPollOnService(this);
         } else {
-            doRun(500);
+            doRun();
         }
     }
 
@@ -399,21 +426,6 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      * @return a {@link org.opennms.netmgt.poller.PollStatus} object.
      */
     public PollStatus doRun() {
-    	return doRun(0);
-    }
-
-    public void doRunWithPreemptivePollStatus(PollStatus pollStatus) {
-        withTreeLock(() -> {
-            m_preemptivePollStatus = pollStatus;
-            PollRunner r = new PollRunner();
-            r.run();
-            // Track the result of the poll, do this here since we short circuit PollableServiceConfig::poll
-            getContext().trackPoll(this, pollStatus);
-            m_preemptivePollStatus = null;
-        });
-    }
-
-    private PollStatus doRun(int timeout) {
         final Map<String, String> mdc = Logging.getCopyOfContextMap();
         try {
             Logging.putThreadContext("service", m_svcName);
@@ -424,12 +436,25 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
             if (getContext().isNodeProcessingEnabled()) {
-                PollRunner r = new PollRunner();
+                // Poll the service, and the services that applying its status polls,
+                // before taking the lock so that other services on the node aren't
+                // held up for the duration of the monitors' I/O. A poll that can't be
+                // applied in time is kept for the next attempt instead of being repeated.
+                PollStatus polled = takePendingPollStatus();
+                if (polled == null) {
+                    polled = m_pollConfig.poll();
+                }
+                final Map<PollableService, PollStatus> prepolled = prepollDependents(polled);
+                PollRunner r = new PollRunner(polled);
                 try {
-                    withTreeLock(r, timeout);
+                    withTreeLock(r, TREE_LOCK_TIMEOUT);
                 } catch (LockUnavailable e) {
                     LOG.trace("Postponing poll for {}. Another service is currently holding the lock.", this);
+                    m_pendingPollTime = m_pollConfig.getCurrentTime();
+                    m_pendingPollStatus = polled;
                     throw new PostponeNecessary("LockUnavailable postpone poll");
+                } finally {
+                    prepolled.forEach((svc, svcStatus) -> svc.m_prepolledStatus.compareAndSet(svcStatus, null));
                 }
                 status = r.getPollStatus();
             }
@@ -445,6 +470,53 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         }
     }
 
+    /**
+     * Returns the poll which was kept when the node lock was unavailable, as
+     * long as it is more recent than the polling interval.
+     */
+    private PollStatus takePendingPollStatus() {
+        final PollStatus pending = m_pendingPollStatus;
+        if (pending == null) {
+            return null;
+        }
+        m_pendingPollStatus = null;
+        final Schedule schedule = getSchedule();
+        if (schedule != null && m_pollConfig.getCurrentTime() - m_pendingPollTime > schedule.getInterval().getInterval()) {
+            LOG.debug("Discarding postponed poll of {}, it is older than the polling interval", this);
+            return null;
+        }
+        return pending;
+    }
+
+    /**
+     * Polls the services that applying the given status to the tree would
+     * poll while holding the node lock. Their results are picked up by
+     * {@link #poll()}, so that the lock isn't held during their I/O.
+     *
+     * @return the services polled ahead of time, with their status
+     */
+    private Map<PollableService, PollStatus> prepollDependents(PollStatus status) {
+        final Map<PollableService, PollStatus> prepolled = new HashMap<>();
+        for (PollableService dependent : getInterface().getServicesPolledOnChange(this, status)) {
+            if (dependent == this || prepolled.containsKey(dependent)) {
+                continue;
+            }
+            final PollStatus dependentStatus = dependent.m_pollConfig.poll();
+            dependent.m_prepolledStatus.set(dependentStatus);
+            prepolled.put(dependent, dependentStatus);
+        }
+        return prepolled.isEmpty() ? Collections.emptyMap() : prepolled;
+    }
+
+    public void doRunWithPreemptivePollStatus(PollStatus pollStatus) {
+        withTreeLock(() -> {
+            PollRunner r = new PollRunner(pollStatus);
+            r.run();
+            // Track the result of the poll, do this here since we short circuit PollableServiceConfig::poll
+            getContext().trackPoll(this, pollStatus);
+        });
+    }
+
 	/**
      * <p>delete</p>
      */
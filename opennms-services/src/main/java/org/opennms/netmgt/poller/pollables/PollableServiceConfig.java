@@ -84,12 +84,21 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
     public PollableServiceConfig(PollableService svc, PollerConfig pollerConfig, Package pkg, Timer timer, PersisterFactory persisterFactory,
                                  ThresholdingService thresholdingService, LocationAwarePollerClient locationAwarePollerClient,
                                  ReadablePollOutagesDao pollOutagesDao, ServiceMonitorAdaptor serviceMonitorAdaptor) {
+        this(svc, pollerConfig, pkg, timer, persisterFactory, thresholdingService, locationAwarePollerClient, pollOutagesDao,
+             serviceMonitorAdaptor, null);
+    }
+
+    public PollableServiceConfig(PollableService svc, PollerConfig pollerConfig, Package pkg, Timer timer, PersisterFactory persisterFactory,
+                                 ThresholdingService thresholdingService, LocationAwarePollerClient locationAwarePollerClient,
+                                 ReadablePollOutagesDao pollOutagesDao, ServiceMonitorAdaptor serviceMonitorAdaptor,
+                                 LatencyPersistenceBuffer latencyPersistenceBuffer) {
         m_service = svc;
         m_pollerConfig = pollerConfig;
         m_pkg = pkg;
         m_timer = timer;
         m_locationAwarePollerClient = Objects.requireNonNull(locationAwarePollerClient);
-        m_latencyStoringServiceMonitorAdaptor = new LatencyStoringServiceMonitorAdaptor(pollerConfig, pkg, persisterFactory, thresholdingService);
+        m_latencyStoringServiceMonitorAdaptor = new LatencyStoringServiceMonitorAdaptor(pollerConfig, pkg, persisterFactory, thresholdingService,
+                                                                                        latencyPersistenceBuffer);
         m_statusStoringServiceMonitorAdaptor = new StatusStoringServiceMonitorAdaptor(pollerConfig, pkg, persisterFactory);
         m_DeviceConfigMonitorAdaptor = serviceMonitorAdaptor;
         m_pollOutagesDao = Objects.requireNonNull(pollOutagesDao);
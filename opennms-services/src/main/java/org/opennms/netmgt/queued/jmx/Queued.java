@@ -22,7 +22,8 @@
 package org.opennms.netmgt.queued.jmx;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
-import org.opennms.netmgt.rrd.QueuingRrdStrategy;
+import org.opennms.netmgt.rrd.QueuingRrdStatistics;
+import org.opennms.netmgt.rrd.ShardedRrdStrategy;
 
 /**
  * <p>Queued class.</p>
@@ -44,8 +45,8 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         return "queuedContext";
     }
 
-    private QueuingRrdStrategy getRrdStrategy() {
-        return (QueuingRrdStrategy) getDaemon().getRrdStrategy();
+    private QueuingRrdStatistics getRrdStrategy() {
+        return (QueuingRrdStatistics) getDaemon().getRrdStrategy();
     }
 
 
@@ -55,7 +56,7 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
      * @return a boolean.
      */
     public boolean getStatsStatus() {
-        if (getDaemon().getRrdStrategy() instanceof QueuingRrdStrategy) {
+        if (getDaemon().getRrdStrategy() instanceof QueuingRrdStatistics) {
             return true;
         } else {
             return false;
@@ -240,5 +241,74 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         }
     }
 
+    /**
+     * <p>getOldestPendingAge</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getOldestPendingAge() {
+        if (getDaemon().getRrdStrategy() instanceof ShardedRrdStrategy) {
+            return ((ShardedRrdStrategy) getDaemon().getRrdStrategy()).getOldestPendingAge();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getCoalescingFactor</p>
+     *
+     * @return a double.
+     */
+    @Override
+    public double getCoalescingFactor() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getDequeuedOperations() / Math.max(getRrdStrategy().getDequeuedItems(), 1.0);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getUpdatesPerSecond</p>
+     *
+     * @return a double.
+     */
+    @Override
+    public double getUpdatesPerSecond() {
+        if (getDaemon().getRrdStrategy() instanceof ShardedRrdStrategy) {
+            return ((ShardedRrdStrategy) getDaemon().getRrdStrategy()).getUpdatesPerSecond();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getFilesOpened</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getFilesOpened() {
+        if (getDaemon().getRrdStrategy() instanceof ShardedRrdStrategy) {
+            return ((ShardedRrdStrategy) getDaemon().getRrdStrategy()).getFilesOpened();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getDiscardedOperations</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getDiscardedOperations() {
+        if (getDaemon().getRrdStrategy() instanceof ShardedRrdStrategy) {
+            return ((ShardedRrdStrategy) getDaemon().getRrdStrategy()).getDiscardedOperations();
+        } else {
+            return 0;
+        }
+    }
 
 }
@@ -108,5 +108,35 @@ public interface QueuedMBean extends BaseOnmsMBean {
 	 * @return a long.
 	 */
 	public long getStartTime();
+	/**
+	 * <p>getOldestPendingAge</p>
+	 *
+	 * @return the age in milliseconds of the oldest update the write threads took off the queue last.
+	 */
+	public long getOldestPendingAge();
+	/**
+	 * <p>getCoalescingFactor</p>
+	 *
+	 * @return the average number of operations written per file.
+	 */
+	public double getCoalescingFactor();
+	/**
+	 * <p>getUpdatesPerSecond</p>
+	 *
+	 * @return the number of updates written per second.
+	 */
+	public double getUpdatesPerSecond();
+	/**
+	 * <p>getFilesOpened</p>
+	 *
+	 * @return a long.
+	 */
+	public long getFilesOpened();
+	/**
+	 * <p>getDiscardedOperations</p>
+	 *
+	 * @return a long.
+	 */
+	public long getDiscardedOperations();
 
 }
@@ -0,0 +1,300 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.SingleInstanceTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpAgentTimeoutException;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
+import org.opennms.netmgt.snmp.proxy.WalkRequest;
+import org.opennms.netmgt.snmp.proxy.WalkResponse;
+
+import com.google.common.collect.Sets;
+
+public class SnmpAgentWalkCoalescerTest {
+
+    private static final SnmpObjId SYS_NAME = SnmpObjId.get(".1.3.6.1.2.1.1.5");
+
+    private static final SnmpObjId SYS_UPTIME = SnmpObjId.get(".1.3.6.1.2.1.1.3");
+
+    private final FakeSnmpClient m_client = new FakeSnmpClient();
+
+    private final SnmpAgentWalkCoalescer m_coalescer = new SnmpAgentWalkCoalescer(100);
+
+    @After
+    public void tearDown() {
+        m_coalescer.destroy();
+    }
+
+    @Test
+    public void canMergeWalksForTheSameAgent() throws Exception {
+        final SnmpAgentConfig agent = new SnmpAgentConfig(InetAddress.getByName("192.0.2.1"));
+        final RecordingTracker sysName = new RecordingTracker(SYS_NAME);
+        final RecordingTracker sysUpTime = new RecordingTracker(SYS_UPTIME);
+
+        final CompletableFuture<RecordingTracker> first = m_coalescer.walk(m_client, agent, "Default", "first", 1000L, sysName);
+        final CompletableFuture<RecordingTracker> second = m_coalescer.walk(m_client, agent, "Default", "second", 2000L, sysUpTime);
+
+        // Each caller gets back its own tracker, fed with the results for its OIDs only
+        assertSame(sysName, first.get(10, TimeUnit.SECONDS));
+        assertSame(sysUpTime, second.get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(SYS_NAME), sysName.getBases());
+        assertEquals(Collections.singletonList(SYS_UPTIME), sysUpTime.getBases());
+
+        // Both were walked together, with the longest time to live
+        assertEquals(1, m_client.getWalks().size());
+        assertTrue(m_client.getWalks().get(0) instanceof AggregateTracker);
+        assertEquals(Long.valueOf(2000L), m_client.getTimeToLives().get(0));
+
+        // The trackers were not reparented by the merged walk
+        assertNull(sysName.getParent());
+        assertNull(sysUpTime.getParent());
+    }
+
+    @Test
+    public void canWalkAgentsSeparately() throws Exception {
+        final RecordingTracker sysName = new RecordingTracker(SYS_NAME);
+        final RecordingTracker sysUpTime = new RecordingTracker(SYS_UPTIME);
+
+        final CompletableFuture<RecordingTracker> first = m_coalescer.walk(m_client, new SnmpAgentConfig(InetAddress.getByName("192.0.2.1")),
+                "Default", "first", null, sysName);
+        final CompletableFuture<RecordingTracker> second = m_coalescer.walk(m_client, new SnmpAgentConfig(InetAddress.getByName("192.0.2.2")),
+                "Default", "second", null, sysUpTime);
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+
+        // A walk with a single member is not wrapped
+        assertEquals(Sets.newHashSet(sysName, sysUpTime), Sets.newHashSet(m_client.getWalks()));
+        assertEquals(Collections.singletonList(SYS_NAME), sysName.getBases());
+        assertEquals(Collections.singletonList(SYS_UPTIME), sysUpTime.getBases());
+    }
+
+    @Test
+    public void canFailEveryMemberOfAFailedWalk() throws Exception {
+        final SnmpAgentConfig unreachable = new SnmpAgentConfig(InetAddress.getByName("192.0.2.1"));
+        final SnmpAgentConfig reachable = new SnmpAgentConfig(InetAddress.getByName("192.0.2.2"));
+        m_client.setUnreachable(unreachable.getAddress());
+
+        final RecordingTracker sysName = new RecordingTracker(SYS_NAME);
+        final RecordingTracker sysUpTime = new RecordingTracker(SYS_UPTIME);
+        final RecordingTracker other = new RecordingTracker(SYS_NAME);
+        final List<CompletableFuture<RecordingTracker>> failing = new ArrayList<>();
+        failing.add(m_coalescer.walk(m_client, unreachable, "Default", "first", null, sysName));
+        failing.add(m_coalescer.walk(m_client, unreachable, "Default", "second", null, sysUpTime));
+        final CompletableFuture<RecordingTracker> succeeding = m_coalescer.walk(m_client, reachable, "Default", "other", null, other);
+
+        for (final CompletableFuture<RecordingTracker> future : failing) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("Expected the walk to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SnmpAgentTimeoutException);
+            }
+        }
+        assertTrue(sysName.getBases().isEmpty());
+        assertTrue(sysUpTime.getBases().isEmpty());
+
+        // The walk of another agent in the same window is not affected
+        assertSame(other, succeeding.get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(SYS_NAME), other.getBases());
+
+        // and neither is the next walk of the failed agent
+        m_client.setUnreachable(null);
+        final RecordingTracker retry = new RecordingTracker(SYS_NAME);
+        m_coalescer.walk(m_client, unreachable, "Default", "retry", null, retry).get(10, TimeUnit.SECONDS);
+        assertFalse(retry.failed());
+        assertEquals(Collections.singletonList(SYS_NAME), retry.getBases());
+    }
+
+    @Test
+    public void canWalkDirectlyWhenDisabled() throws Exception {
+        final SnmpAgentWalkCoalescer disabled = new SnmpAgentWalkCoalescer(0);
+        assertFalse(disabled.isEnabled());
+
+        final RecordingTracker sysName = new RecordingTracker(SYS_NAME);
+        assertSame(sysName, disabled.walk(m_client, new SnmpAgentConfig(InetAddress.getByName("192.0.2.1")), "Default", "direct", null, sysName).get());
+        assertEquals(Collections.singletonList(sysName), m_client.getWalks());
+    }
+
+    private static class RecordingTracker extends SingleInstanceTracker {
+        private final List<SnmpObjId> m_bases = new CopyOnWriteArrayList<>();
+
+        private RecordingTracker(SnmpObjId base) {
+            super(base, new SnmpInstId(0));
+        }
+
+        @Override
+        protected void storeResult(SnmpResult res) {
+            m_bases.add(res.getBase());
+            super.storeResult(res);
+        }
+
+        private List<SnmpObjId> getBases() {
+            return m_bases;
+        }
+    }
+
+    /**
+     * Answers the walk requests of a tracker like a Minion would, and fails the walks
+     * of the unreachable agent.
+     */
+    private static class FakeSnmpClient implements LocationAwareSnmpClient {
+        private final List<CollectionTracker> m_walks = new CopyOnWriteArrayList<>();
+        private final List<Long> m_timeToLives = new CopyOnWriteArrayList<>();
+        private volatile InetAddress m_unreachable;
+
+        private void setUnreachable(InetAddress unreachable) {
+            m_unreachable = unreachable;
+        }
+
+        private List<CollectionTracker> getWalks() {
+            return m_walks;
+        }
+
+        private List<Long> getTimeToLives() {
+            return m_timeToLives;
+        }
+
+        @Override
+        public <T extends CollectionTracker> SNMPRequestBuilder<T> walk(SnmpAgentConfig agent, T tracker) {
+            return new SNMPRequestBuilder<T>() {
+                private Long m_ttl;
+
+                @Override
+                public SNMPRequestBuilder<T> withLocation(String location) {
+                    return this;
+                }
+
+                @Override
+                public SNMPRequestBuilder<T> withSystemId(String systemId) {
+                    return this;
+                }
+
+                @Override
+                public SNMPRequestBuilder<T> withDescription(String description) {
+                    return this;
+                }
+
+                @Override
+                public SNMPRequestBuilder<T> withTimeToLive(Long ttlInMs) {
+                    m_ttl = ttlInMs;
+                    return this;
+                }
+
+                @Override
+                public SNMPRequestBuilder<T> withTimeToLive(long duration, TimeUnit unit) {
+                    return withTimeToLive(unit.toMillis(duration));
+                }
+
+                @Override
+                public CompletableFuture<T> execute() {
+                    m_walks.add(tracker);
+                    m_timeToLives.add(m_ttl);
+                    final CompletableFuture<T> future = new CompletableFuture<>();
+                    if (agent.getAddress().equals(m_unreachable)) {
+                        future.completeExceptionally(new SnmpAgentTimeoutException(agent.getAddress()));
+                        return future;
+                    }
+                    final List<WalkResponse> responses = new ArrayList<>();
+                    for (final WalkRequest request : tracker.getWalkRequests()) {
+                        final SnmpResult result = new SnmpResult(request.getBaseOid(), new SnmpInstId(request.getInstance()), (SnmpValue)null);
+                        responses.add(new WalkResponse(Collections.singletonList(result), request.getCorrelationId()));
+                    }
+                    tracker.handleWalkResponses(responses);
+                    future.complete(tracker);
+                    return future;
+                }
+            };
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpResult>> walk(SnmpAgentConfig agent, String... oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpResult>> walk(SnmpAgentConfig agent, SnmpObjId... oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpResult>> walk(SnmpAgentConfig agent, List<SnmpObjId> oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<SnmpValue> get(SnmpAgentConfig agent, String oid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<SnmpValue> get(SnmpAgentConfig agent, SnmpObjId oid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpValue>> get(SnmpAgentConfig agent, String... oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpValue>> get(SnmpAgentConfig agent, SnmpObjId... oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpValue>> get(SnmpAgentConfig agent, List<SnmpObjId> oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<SnmpValue> set(SnmpAgentConfig agent, List<SnmpObjId> oids, List<SnmpValue> values) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
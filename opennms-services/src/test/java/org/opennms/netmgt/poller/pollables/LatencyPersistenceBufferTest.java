@@ -0,0 +1,319 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.poller.pollables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.collection.api.AttributeGroup;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionStatus;
+import org.opennms.netmgt.collection.api.LatencyCollectionAttribute;
+import org.opennms.netmgt.collection.api.LatencyCollectionAttributeType;
+import org.opennms.netmgt.collection.api.LatencyCollectionResource;
+import org.opennms.netmgt.collection.api.Persister;
+import org.opennms.netmgt.collection.api.PersisterFactory;
+import org.opennms.netmgt.collection.support.AbstractCollectionSetVisitor;
+import org.opennms.netmgt.collection.support.ConstantTimeKeeper;
+import org.opennms.netmgt.collection.support.SingleResourceCollectionSet;
+import org.opennms.netmgt.config.poller.Package;
+import org.opennms.netmgt.mock.MockNetwork;
+import org.opennms.netmgt.mock.MockPollerConfig;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MockMonitoredService;
+import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.threshd.api.ThresholdingService;
+import org.opennms.netmgt.threshd.api.ThresholdingSession;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that latency samples are batched by the {@link LatencyPersistenceBuffer}
+ * and compares the number of persisters and backend writes needed with and
+ * without the buffer.
+ */
+public class LatencyPersistenceBufferTest {
+
+    private static final int NUM_SERVICES = 500;
+
+    private static final int NUM_POLLS = 4;
+
+    private PersisterFactory m_persisterFactory;
+    private ThresholdingService m_thresholdingService;
+    private ThresholdingSession m_thresholdingSession;
+    private MockPollerConfig m_pollerConfig;
+    private Package m_pkg;
+
+    private final AtomicInteger m_persisters = new AtomicInteger();
+    private final AtomicInteger m_writes = new AtomicInteger();
+    private final Map<String, Double> m_values = Maps.newConcurrentMap();
+    private final List<Long> m_timestamps = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        m_persisterFactory = mock(PersisterFactory.class);
+        when(m_persisterFactory.createPersister(any(), any(), anyBoolean(), anyBoolean(), anyBoolean())).thenAnswer(invocation -> {
+            m_persisters.incrementAndGet();
+            return new TimestampRecordingPersister();
+        });
+
+        m_thresholdingSession = mock(ThresholdingSession.class);
+        m_thresholdingService = mock(ThresholdingService.class);
+        when(m_thresholdingService.createSession(anyInt(), anyString(), anyString(), any())).thenReturn(m_thresholdingSession);
+
+        m_pkg = new Package();
+        m_pollerConfig = new MockPollerConfig(new MockNetwork().createStandardNetwork());
+        m_pollerConfig.setRRAList(m_pkg, Lists.newArrayList("RRA:AVERAGE:0.5:1:2016"));
+    }
+
+    @Test
+    public void canBatchLatencySamples() throws Exception {
+        final long unbuffered = poll(null);
+        assertEquals(NUM_SERVICES * NUM_POLLS, unbuffered);
+
+        assertEquals(NUM_SERVICES * NUM_POLLS, m_writes.get());
+
+        m_persisters.set(0);
+        m_writes.set(0);
+        m_timestamps.clear();
+
+        final LatencyPersistenceBuffer buffer = new LatencyPersistenceBuffer(m_persisterFactory, 0, 1000);
+        final long start = System.currentTimeMillis();
+        final long buffered = poll(buffer);
+        final long end = System.currentTimeMillis();
+        buffer.flush();
+
+        // Nothing may be lost, and every sample must keep the time of its poll. The polls
+        // of a service that share a timestamp are merged into a single write.
+        assertEquals(NUM_SERVICES * NUM_POLLS, buffer.getSampleCount());
+        assertTrue(m_timestamps.size() >= NUM_SERVICES && m_timestamps.size() <= NUM_SERVICES * NUM_POLLS);
+        assertEquals(m_timestamps.size(), m_writes.get());
+        assertEquals(m_writes.get(), buffer.getWriteCount());
+        assertEquals(0, buffer.getPendingCount());
+        long previous = start;
+        for (final Long timestamp : m_timestamps) {
+            assertNotNull(timestamp);
+            assertTrue("Timestamp " + timestamp + " is not within the polls", timestamp >= start && timestamp <= end);
+            // Samples are written in the order they were collected
+            assertTrue(timestamp >= previous);
+            previous = timestamp;
+        }
+
+        // One persister per batch instead of one per sample
+        assertEquals(buffer.getFlushCount(), buffer.getPersisterCount());
+        assertEquals(buffer.getPersisterCount(), m_persisters.get());
+        assertEquals((NUM_SERVICES * NUM_POLLS) / 1000, buffered);
+    }
+
+    /**
+     * Counts the writes that reach the backend when services report several
+     * samples for the same timestamp, once per sample without the buffer and
+     * once per resource, group and timestamp with it.
+     */
+    @Test
+    public void canMergeSamplesOfResource() throws Exception {
+        final RrdRepository repository = new RrdRepository();
+        final Date timestamp = new Date(1000000L);
+        final String[] dataSources = new String[] {"response-time", "loss", "response-time"};
+
+        // Without the buffer every sample is a write of its own
+        for (int i = 0; i < NUM_SERVICES; i++) {
+            for (int j = 0; j < dataSources.length; j++) {
+                getCollectionSet(i, timestamp, dataSources[j], j).visit(m_persisterFactory.createPersister(null, repository, false, true, true));
+            }
+        }
+        assertEquals(NUM_SERVICES * dataSources.length, m_writes.get());
+        m_writes.set(0);
+        m_values.clear();
+
+        final LatencyPersistenceBuffer buffer = new LatencyPersistenceBuffer(m_persisterFactory, 0, NUM_SERVICES * dataSources.length);
+        for (int i = 0; i < NUM_SERVICES; i++) {
+            for (int j = 0; j < dataSources.length; j++) {
+                buffer.add(getCollectionSet(i, timestamp, dataSources[j], j), repository, null, "svc" + i);
+            }
+        }
+        buffer.flush();
+
+        // One write per service for all of its samples, the last value of a data source wins
+        assertEquals(1, buffer.getPersisterCount());
+        assertEquals(NUM_SERVICES, buffer.getWriteCount());
+        assertEquals(NUM_SERVICES, m_writes.get());
+        assertEquals(NUM_SERVICES * 2, m_values.size());
+        for (final Long time : m_timestamps) {
+            assertEquals(Long.valueOf(timestamp.getTime()), time);
+        }
+        for (int i = 0; i < NUM_SERVICES; i++) {
+            assertEquals(Double.valueOf(2.0), m_values.get(getAddress(i) + "/response-time"));
+            assertEquals(Double.valueOf(1.0), m_values.get(getAddress(i) + "/loss"));
+        }
+    }
+
+    @Test
+    public void canSerializeFlushes() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger accepted = new AtomicInteger();
+        doAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            inFlight.decrementAndGet();
+            accepted.incrementAndGet();
+            return null;
+        }).when(m_thresholdingSession).accept(any(CollectionSet.class));
+
+        // Small batches so the pollers hit the pending limit and flush themselves
+        final LatencyPersistenceBuffer buffer = new LatencyPersistenceBuffer(m_persisterFactory, 0, 2);
+        buffer.start();
+        try {
+            final RrdRepository repository = new RrdRepository();
+            final int numThreads = 8;
+            final int samplesPerThread = 50;
+            final ExecutorService pollers = Executors.newFixedThreadPool(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                pollers.execute(() -> {
+                    for (int j = 0; j < samplesPerThread; j++) {
+                        buffer.add(mock(CollectionSet.class), repository, m_thresholdingSession, "svc");
+                    }
+                });
+            }
+            pollers.shutdown();
+            assertTrue(pollers.awaitTermination(1, TimeUnit.MINUTES));
+            buffer.stop();
+
+            assertEquals(numThreads * samplesPerThread, accepted.get());
+            assertEquals("Thresholds were evaluated by concurrent flushes", 1, maxInFlight.get());
+        } finally {
+            buffer.stop();
+        }
+    }
+
+    @Test
+    public void canDeferThresholdsToFlush() throws Exception {
+        final LatencyPersistenceBuffer buffer = new LatencyPersistenceBuffer(m_persisterFactory, 0, 10);
+        final LatencyStoringServiceMonitorAdaptor adaptor = new LatencyStoringServiceMonitorAdaptor(m_pollerConfig, m_pkg,
+                m_persisterFactory, m_thresholdingService, buffer);
+        final MonitoredService svc = new MockMonitoredService(1, "Router", null, InetAddress.getByName("192.168.1.1"), "ICMP");
+
+        final Map<String, Object> params = getParameters();
+        params.put("thresholding-enabled", "true");
+        adaptor.handlePollResult(svc, params, PollStatus.available(42.0));
+        verify(m_thresholdingSession, never()).accept(any(CollectionSet.class));
+
+        buffer.flush();
+        verify(m_thresholdingSession, times(1)).accept(any(CollectionSet.class));
+        assertEquals(1, m_persisters.get());
+    }
+
+    private long poll(LatencyPersistenceBuffer buffer) throws Exception {
+        final List<LatencyStoringServiceMonitorAdaptor> adaptors = new ArrayList<>(NUM_SERVICES);
+        final List<MonitoredService> services = new ArrayList<>(NUM_SERVICES);
+        for (int i = 0; i < NUM_SERVICES; i++) {
+            adaptors.add(new LatencyStoringServiceMonitorAdaptor(m_pollerConfig, m_pkg, m_persisterFactory, m_thresholdingService, buffer));
+            services.add(new MockMonitoredService(i + 1, "Node" + i, null,
+                    InetAddress.getByAddress(new byte[]{10, 0, (byte)(i >> 8), (byte)i}), "ICMP"));
+        }
+
+        final Map<String, Object> params = getParameters();
+        for (int poll = 0; poll < NUM_POLLS; poll++) {
+            for (int i = 0; i < NUM_SERVICES; i++) {
+                adaptors.get(i).handlePollResult(services.get(i), params, PollStatus.available(42.0 + poll));
+            }
+        }
+        return m_persisters.get();
+    }
+
+    private static String getAddress(int i) {
+        return "10.1." + (i >> 8) + "." + (i & 0xff);
+    }
+
+    private static CollectionSet getCollectionSet(int i, Date timestamp, String ds, double value) {
+        final LatencyCollectionResource resource = new LatencyCollectionResource("ICMP", getAddress(i), "Default");
+        resource.addAttribute(new LatencyCollectionAttribute(resource, new LatencyCollectionAttributeType("icmp", ds), ds, value));
+        resource.setTimeKeeper(new ConstantTimeKeeper(timestamp));
+        final SingleResourceCollectionSet collectionSet = new SingleResourceCollectionSet(resource, timestamp);
+        collectionSet.setStatus(CollectionStatus.SUCCEEDED);
+        return collectionSet;
+    }
+
+    private static Map<String, Object> getParameters() {
+        final Map<String, Object> params = Maps.newHashMap();
+        params.put("rrd-repository", "/tmp/response");
+        params.put("rrd-base-name", "icmp");
+        return params;
+    }
+
+    private class TimestampRecordingPersister extends AbstractCollectionSetVisitor implements Persister {
+        @Override
+        public void visitResource(CollectionResource resource) {
+            m_timestamps.add(resource.getTimeKeeper() != null ? resource.getTimeKeeper().getCurrentTime() : null);
+        }
+
+        @Override
+        public void visitAttribute(CollectionAttribute attribute) {
+            m_values.put(attribute.getResource().getOwnerName() + "/" + attribute.getName(), attribute.getNumericValue().doubleValue());
+        }
+
+        @Override
+        public void completeGroup(AttributeGroup group) {
+            // Each group is an update of a single file or series in the backend
+            m_writes.incrementAndGet();
+        }
+
+        @Override
+        public void persistNumericAttribute(CollectionAttribute attribute) {
+            // pass
+        }
+
+        @Override
+        public void persistStringAttribute(CollectionAttribute attribute) {
+            // pass
+        }
+    }
+}
@@ -42,6 +42,8 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -79,6 +81,7 @@ import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitorAdaptor;
 import org.opennms.netmgt.poller.mock.MockPollContext;
+import org.opennms.netmgt.scheduler.PostponeNecessary;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.scheduler.ScheduleTimer;
 import org.opennms.netmgt.scheduler.mock.MockScheduler;
@@ -2598,6 +2601,48 @@ public class PollablesIT {
 
     }
 
+    @Test
+    public void testPollKeptWhileNodeIsLocked() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> pNode1.withTreeLock(() -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        holder.start();
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        mDot1Smtp.resetPollCount();
+        mDot1Icmp.resetPollCount();
+        anticipateDown(mDot1Smtp);
+        mDot1Smtp.bringDown();
+
+        // The lock isn't available in time, the poll is postponed instead of waiting
+        try {
+            pDot1Smtp.run();
+            fail("Expected the poll to be postponed");
+        } catch (PostponeNecessary e) {
+            // expected
+        }
+        assertEquals(1, mDot1Smtp.getPollCount());
+        // The critical service, polled when the status changes, was polled before taking the lock
+        assertEquals(1, mDot1Icmp.getPollCount());
+        assertEquals(PollStatus.SERVICE_AVAILABLE, pDot1Smtp.getStatus().getStatusCode());
+
+        release.countDown();
+        holder.join();
+
+        // The kept poll is applied on the next attempt, without polling the service again
+        pDot1Smtp.run();
+        assertPoll(mDot1Smtp);
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, pDot1Smtp.getStatus().getStatusCode());
+        verifyAnticipated();
+    }
+
     private void assertTime(long time) {
         assertEquals("Unexpected time", time, m_scheduler.getCurrentTime());
     }
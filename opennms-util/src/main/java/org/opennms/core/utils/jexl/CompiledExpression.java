@@ -0,0 +1,176 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.utils.jexl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * An arithmetic expression compiled to a tree of evaluators operating
+ * directly on a <code>double[]</code>, avoiding the boxing and the context
+ * lookups performed by JEXL.
+ *
+ * Only the common subset of the JEXL syntax is supported: numeric literals,
+ * variables, arithmetic, comparisons, logical operators, ternaries and the
+ * functions of {@link Math}. Expressions outside of this subset, or whose
+ * result could differ from the one computed by JEXL, are not compiled and
+ * must be evaluated with JEXL instead.
+ */
+public final class CompiledExpression {
+
+    /**
+     * Evaluates a numeric expression.
+     */
+    @FunctionalInterface
+    interface NumericNode {
+        double evaluate(double[] values);
+    }
+
+    /**
+     * Evaluates a boolean expression.
+     */
+    @FunctionalInterface
+    interface BooleanNode {
+        boolean test(double[] values);
+    }
+
+    private final String expression;
+    private final NumericNode root;
+    private final List<String> variables;
+
+    CompiledExpression(final String expression, final NumericNode root, final List<String> variables) {
+        this.expression = Objects.requireNonNull(expression);
+        this.root = Objects.requireNonNull(root);
+        this.variables = Collections.unmodifiableList(variables);
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param values the values of the variables, indexed by the slots assigned
+     *               when compiling, or in the order of {@link #getVariables()}
+     * @throws ArithmeticException on a division by zero, like JEXL does
+     */
+    public double evaluate(final double[] values) {
+        return root.evaluate(values);
+    }
+
+    /**
+     * @return the variables referenced by the expression, in the order of their
+     *         slots when no slots were given to the compiler
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledExpression[" + expression + "]";
+    }
+
+    /**
+     * Compiles expressions using the given functions and variables.
+     */
+    public static class Compiler {
+        private Map<String, ?> functions = Collections.emptyMap();
+        private final Set<String> mathVariables = new HashSet<>();
+        private final Set<String> mapVariables = new HashSet<>();
+        private final Set<String> integerVariables = new HashSet<>();
+        private ToIntFunction<String> slots;
+
+        /**
+         * Functions namespaces, as given to {@link org.apache.commons.jexl2.JexlEngine#setFunctions(Map)}.
+         * Calls like <code>math:abs(x)</code> are compiled when the namespace maps
+         * to {@link Math} or {@link StrictMath}.
+         */
+        public Compiler withFunctions(final Map<String, ?> functions) {
+            this.functions = Objects.requireNonNull(functions);
+            return this;
+        }
+
+        /**
+         * Variables bound to an object exposing the functions of {@link Math}
+         * as methods, allowing calls like <code>math.abs(x)</code>.
+         */
+        public Compiler withMathVariable(final String name) {
+            mathVariables.add(name);
+            return this;
+        }
+
+        /**
+         * Variables bound to a map holding the values of all other variables,
+         * allowing references like <code>datasources.x</code>.
+         */
+        public Compiler withMapVariable(final String name) {
+            mapVariables.add(name);
+            return this;
+        }
+
+        /**
+         * Variables bound to integers instead of doubles. JEXL performs integer
+         * divisions on these, so the compiler needs to know about them.
+         */
+        public Compiler withIntegerVariables(final Collection<String> names) {
+            integerVariables.addAll(names);
+            return this;
+        }
+
+        /**
+         * Resolves the variables to slots in the array given to {@link CompiledExpression#evaluate(double[])}.
+         * The resolver returns a negative value for variables that are unknown or not numeric,
+         * which prevents the expression from being compiled.
+         *
+         * By default, slots are assigned in the order in which variables first appear.
+         */
+        public Compiler withSlots(final ToIntFunction<String> slots) {
+            this.slots = slots;
+            return this;
+        }
+
+        /**
+         * @return the compiled expression, or an empty optional if the expression
+         *         must be evaluated with JEXL
+         */
+        public Optional<CompiledExpression> compile(final String expression) {
+            if (expression == null) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(new CompiledExpressionParser(expression, functions, mathVariables,
+                        mapVariables, integerVariables, slots).parse());
+            } catch (final CompiledExpressionParser.UnsupportedExpressionException e) {
+                return Optional.empty();
+            }
+        }
+    }
+}
@@ -0,0 +1,649 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.utils.jexl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.ToIntFunction;
+
+import org.opennms.core.utils.jexl.CompiledExpression.BooleanNode;
+import org.opennms.core.utils.jexl.CompiledExpression.NumericNode;
+
+/**
+ * Recursive descent parser for the subset of the JEXL syntax supported by
+ * {@link CompiledExpression}. Follows the operator precedence of JEXL.
+ *
+ * Each term carries the type JEXL would give to its value, so that
+ * expressions whose result depends on it (integer divisions, equality
+ * between boxed values) are left to JEXL.
+ */
+class CompiledExpressionParser {
+
+    /**
+     * Thrown when the expression is outside of the supported subset.
+     */
+    static class UnsupportedExpressionException extends RuntimeException {
+        private static final long serialVersionUID = 3196346315389536373L;
+
+        UnsupportedExpressionException(final String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private enum Type {
+        INTEGER,
+        FLOAT,
+        DOUBLE,
+        /** Either an integer or a floating point number, depending on the branch taken by a ternary */
+        MIXED,
+        BOOLEAN;
+
+        boolean isFloatingPoint() {
+            return this == FLOAT || this == DOUBLE;
+        }
+    }
+
+    private static class Term {
+        private final Type type;
+        private final NumericNode numeric;
+        private final BooleanNode bool;
+        private final boolean constant;
+
+        private Term(final Type type, final NumericNode numeric, final boolean constant) {
+            this.type = type;
+            this.numeric = numeric;
+            this.bool = null;
+            this.constant = constant;
+        }
+
+        private Term(final BooleanNode bool, final boolean constant) {
+            this.type = Type.BOOLEAN;
+            this.numeric = null;
+            this.bool = bool;
+            this.constant = constant;
+        }
+    }
+
+    private static final Map<String, String> WORD_OPERATORS = new HashMap<>();
+    static {
+        WORD_OPERATORS.put("and", "&&");
+        WORD_OPERATORS.put("or", "||");
+        WORD_OPERATORS.put("not", "!");
+        WORD_OPERATORS.put("eq", "==");
+        WORD_OPERATORS.put("ne", "!=");
+        WORD_OPERATORS.put("lt", "<");
+        WORD_OPERATORS.put("le", "<=");
+        WORD_OPERATORS.put("gt", ">");
+        WORD_OPERATORS.put("ge", ">=");
+        WORD_OPERATORS.put("div", "/");
+        WORD_OPERATORS.put("mod", "%");
+    }
+
+    private static final Set<String> RESERVED = Set.of("null", "empty", "size", "new", "var", "if", "else",
+            "for", "foreach", "while", "in", "function", "return", "true", "false");
+
+    private final String expression;
+    private final Map<String, ?> functions;
+    private final Set<String> mathVariables;
+    private final Set<String> mapVariables;
+    private final Set<String> integerVariables;
+    private final ToIntFunction<String> slots;
+
+    private final List<String> variables = new ArrayList<>();
+    private final Map<String, Integer> variableSlots = new HashMap<>();
+
+    private final List<String> tokens;
+    private int position = 0;
+
+    CompiledExpressionParser(final String expression, final Map<String, ?> functions, final Set<String> mathVariables,
+                             final Set<String> mapVariables, final Set<String> integerVariables, final ToIntFunction<String> slots) {
+        this.expression = expression;
+        this.functions = functions;
+        this.mathVariables = mathVariables;
+        this.mapVariables = mapVariables;
+        this.integerVariables = integerVariables;
+        this.slots = slots;
+        this.tokens = tokenize(expression);
+    }
+
+    CompiledExpression parse() {
+        final Term term = ternary();
+        if (position != tokens.size()) {
+            throw unsupported("unexpected token '" + peek() + "'");
+        }
+        if (term.type == Type.BOOLEAN) {
+            throw unsupported("boolean result");
+        }
+        return new CompiledExpression(expression, term.numeric, variables);
+    }
+
+    private Term ternary() {
+        final Term condition = or();
+        if (!accept("?")) {
+            return condition;
+        }
+        final Term whenTrue = ternary();
+        expect(":");
+        final Term whenFalse = ternary();
+
+        final BooleanNode test = bool(condition);
+        final NumericNode a = numeric(whenTrue);
+        final NumericNode b = numeric(whenFalse);
+        final Type type = whenTrue.type == whenFalse.type ? whenTrue.type : Type.MIXED;
+        return fold(new Term(type, v -> test.test(v) ? a.evaluate(v) : b.evaluate(v),
+                condition.constant && whenTrue.constant && whenFalse.constant));
+    }
+
+    private Term or() {
+        Term left = and();
+        while (accept("||")) {
+            final Term right = and();
+            final BooleanNode a = bool(left);
+            final BooleanNode b = bool(right);
+            left = fold(new Term(v -> a.test(v) || b.test(v), left.constant && right.constant));
+        }
+        return left;
+    }
+
+    private Term and() {
+        Term left = equality();
+        while (accept("&&")) {
+            final Term right = equality();
+            final BooleanNode a = bool(left);
+            final BooleanNode b = bool(right);
+            left = fold(new Term(v -> a.test(v) && b.test(v), left.constant && right.constant));
+        }
+        return left;
+    }
+
+    private Term equality() {
+        final Term left = relational();
+        final Term result;
+        if (accept("==")) {
+            result = equals(left, relational());
+        } else if (accept("!=")) {
+            final Term right = relational();
+            final BooleanNode eq = equals(left, right).bool;
+            result = fold(new Term(v -> !eq.test(v), left.constant && right.constant));
+        } else {
+            return left;
+        }
+        if (peekIs("==") || peekIs("!=")) {
+            throw unsupported("chained equality");
+        }
+        return result;
+    }
+
+    private Term relational() {
+        final Term left = additive();
+        final Term result;
+        if (accept("<")) {
+            final Term right = additive();
+            final NumericNode a = numeric(left), b = numeric(right);
+            result = fold(new Term(v -> a.evaluate(v) < b.evaluate(v), left.constant && right.constant));
+        } else if (accept(">")) {
+            final Term right = additive();
+            final NumericNode a = numeric(left), b = numeric(right);
+            result = fold(new Term(v -> a.evaluate(v) > b.evaluate(v), left.constant && right.constant));
+        } else if (accept("<=")) {
+            // JEXL checks for equality before comparing
+            final Term right = additive();
+            final BooleanNode eq = equals(left, right).bool;
+            final NumericNode a = numeric(left), b = numeric(right);
+            result = fold(new Term(v -> eq.test(v) || a.evaluate(v) < b.evaluate(v), left.constant && right.constant));
+        } else if (accept(">=")) {
+            final Term right = additive();
+            final BooleanNode eq = equals(left, right).bool;
+            final NumericNode a = numeric(left), b = numeric(right);
+            result = fold(new Term(v -> eq.test(v) || a.evaluate(v) > b.evaluate(v), left.constant && right.constant));
+        } else {
+            return left;
+        }
+        if (peekIs("<") || peekIs(">") || peekIs("<=") || peekIs(">=")) {
+            throw unsupported("chained comparison");
+        }
+        return result;
+    }
+
+    private Term additive() {
+        Term left = multiplicative();
+        while (true) {
+            if (accept("+")) {
+                final Term right = multiplicative();
+                final NumericNode a = numeric(left), b = numeric(right);
+                left = fold(new Term(arithmeticType(left, right), v -> a.evaluate(v) + b.evaluate(v), left.constant && right.constant));
+            } else if (accept("-")) {
+                final Term right = multiplicative();
+                final NumericNode a = numeric(left), b = numeric(right);
+                left = fold(new Term(arithmeticType(left, right), v -> a.evaluate(v) - b.evaluate(v), left.constant && right.constant));
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Term multiplicative() {
+        Term left = unary();
+        while (true) {
+            if (accept("*")) {
+                final Term right = unary();
+                final NumericNode a = numeric(left), b = numeric(right);
+                left = fold(new Term(arithmeticType(left, right), v -> a.evaluate(v) * b.evaluate(v), left.constant && right.constant));
+            } else if (accept("/")) {
+                final Term right = unary();
+                final NumericNode a = numeric(left), b = numeric(right);
+                left = fold(new Term(divisionType(left, right), v -> {
+                    final double dividend = a.evaluate(v);
+                    final double divisor = b.evaluate(v);
+                    if (divisor == 0.0) {
+                        throw new ArithmeticException("/");
+                    }
+                    return dividend / divisor;
+                }, left.constant && right.constant));
+            } else if (accept("%")) {
+                final Term right = unary();
+                final NumericNode a = numeric(left), b = numeric(right);
+                left = fold(new Term(divisionType(left, right), v -> {
+                    final double dividend = a.evaluate(v);
+                    final double divisor = b.evaluate(v);
+                    if (divisor == 0.0) {
+                        throw new ArithmeticException("%");
+                    }
+                    return dividend % divisor;
+                }, left.constant && right.constant));
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private Term unary() {
+        if (accept("-")) {
+            final Term operand = unary();
+            final NumericNode a = numeric(operand);
+            return fold(new Term(operand.type, v -> -a.evaluate(v), operand.constant));
+        }
+        if (accept("!")) {
+            final Term operand = unary();
+            final BooleanNode a = bool(operand);
+            return fold(new Term(v -> !a.test(v), operand.constant));
+        }
+        return primary();
+    }
+
+    private Term primary() {
+        final String token = next();
+        if (token == null) {
+            throw unsupported("unexpected end of expression");
+        }
+        if ("(".equals(token)) {
+            final Term term = ternary();
+            expect(")");
+            return term;
+        }
+        if ("true".equals(token) || "false".equals(token)) {
+            final boolean value = Boolean.parseBoolean(token);
+            return new Term(v -> value, true);
+        }
+        final char first = token.charAt(0);
+        if (Character.isDigit(first)) {
+            return number(token);
+        }
+        if (!isIdentifierStart(first) || RESERVED.contains(token)) {
+            throw unsupported("unexpected token '" + token + "'");
+        }
+
+        // ns:function(...)
+        if (peekIs(":") && isIdentifier(peek(1)) && "(".equals(peek(2))) {
+            final Object namespace = functions.get(token);
+            if (namespace != Math.class && namespace != StrictMath.class) {
+                throw unsupported("unknown namespace '" + token + "'");
+            }
+            next();
+            final String function = next();
+            return call(function, namespace == StrictMath.class);
+        }
+
+        if (accept(".")) {
+            final String member = next();
+            if (!isIdentifier(member)) {
+                throw unsupported("unexpected token '" + member + "'");
+            }
+            // math.function(...)
+            if (mathVariables.contains(token) && peekIs("(")) {
+                return call(member, false);
+            }
+            // datasources.variable
+            if (mapVariables.contains(token) && !peekIs("(") && !peekIs(".")) {
+                return variable(member);
+            }
+            throw unsupported("unsupported reference '" + token + "." + member + "'");
+        }
+
+        if (mathVariables.contains(token) || mapVariables.contains(token) || functions.containsKey(token)) {
+            throw unsupported("object reference '" + token + "'");
+        }
+        return variable(token);
+    }
+
+    private Term number(final String token) {
+        final char last = token.charAt(token.length() - 1);
+        if (token.indexOf('.') < 0) {
+            final String digits = (last == 'l' || last == 'L') ? token.substring(0, token.length() - 1) : token;
+            if (digits.length() > 18 || (digits.length() > 1 && digits.charAt(0) == '0') || !isDigits(digits)) {
+                throw unsupported("integer literal '" + token + "'");
+            }
+            final double value = Long.parseLong(digits);
+            return new Term(Type.INTEGER, v -> value, true);
+        }
+
+        final String digits = Character.isLetter(last) ? token.substring(0, token.length() - 1) : token;
+        final int dot = digits.indexOf('.');
+        if (!isDigits(digits.substring(0, dot)) || !isDigits(digits.substring(dot + 1))) {
+            throw unsupported("real literal '" + token + "'");
+        }
+        final double value = Double.parseDouble(digits);
+        if (last == 'd' || last == 'D') {
+            return new Term(Type.DOUBLE, v -> value, true);
+        }
+        if (Character.isLetter(last) && last != 'f' && last != 'F') {
+            throw unsupported("real literal '" + token + "'");
+        }
+        // Reals without a suffix are floats in JEXL: only accept those that have an exact representation
+        if ((double)Float.parseFloat(digits) != value) {
+            throw unsupported("inexact float literal '" + token + "'");
+        }
+        return new Term(Type.FLOAT, v -> value, true);
+    }
+
+    private Term variable(final String name) {
+        Integer slot = variableSlots.get(name);
+        if (slot == null) {
+            slot = slots != null ? slots.applyAsInt(name) : variables.size();
+            if (slot < 0) {
+                throw unsupported("unknown variable '" + name + "'");
+            }
+            variables.add(name);
+            variableSlots.put(name, slot);
+        }
+        final int index = slot;
+        return new Term(integerVariables.contains(name) ? Type.INTEGER : Type.DOUBLE, v -> v[index], false);
+    }
+
+    private Term call(final String function, final boolean strict) {
+        expect("(");
+        final List<Term> args = new ArrayList<>();
+        if (!accept(")")) {
+            do {
+                args.add(ternary());
+            } while (accept(","));
+            expect(")");
+        }
+
+        // Mirror the overload JEXL would pick: the double variant is only certain
+        // when at least one of the arguments is a double
+        boolean hasDouble = false;
+        boolean constant = true;
+        for (final Term arg : args) {
+            numeric(arg);
+            hasDouble |= arg.type == Type.DOUBLE;
+            constant &= arg.constant;
+        }
+        if (!hasDouble) {
+            throw unsupported("call to '" + function + "' without double arguments");
+        }
+
+        if (args.size() == 1) {
+            final DoubleUnaryOperator op = unaryFunction(function, strict);
+            final NumericNode a = args.get(0).numeric;
+            final Type type = "round".equals(function) ? Type.INTEGER : Type.DOUBLE;
+            return fold(new Term(type, v -> op.applyAsDouble(a.evaluate(v)), constant));
+        } else if (args.size() == 2) {
+            final DoubleBinaryOperator op = binaryFunction(function, strict);
+            final NumericNode a = args.get(0).numeric;
+            final NumericNode b = args.get(1).numeric;
+            return fold(new Term(Type.DOUBLE, v -> op.applyAsDouble(a.evaluate(v), b.evaluate(v)), constant));
+        }
+        throw unsupported("call to '" + function + "' with " + args.size() + " arguments");
+    }
+
+    private DoubleUnaryOperator unaryFunction(final String function, final boolean strict) {
+        switch (function) {
+            case "abs": return strict ? StrictMath::abs : Math::abs;
+            case "acos": return strict ? StrictMath::acos : Math::acos;
+            case "asin": return strict ? StrictMath::asin : Math::asin;
+            case "atan": return strict ? StrictMath::atan : Math::atan;
+            case "cbrt": return strict ? StrictMath::cbrt : Math::cbrt;
+            case "ceil": return strict ? StrictMath::ceil : Math::ceil;
+            case "cos": return strict ? StrictMath::cos : Math::cos;
+            case "cosh": return strict ? StrictMath::cosh : Math::cosh;
+            case "exp": return strict ? StrictMath::exp : Math::exp;
+            case "expm1": return strict ? StrictMath::expm1 : Math::expm1;
+            case "floor": return strict ? StrictMath::floor : Math::floor;
+            case "log": return strict ? StrictMath::log : Math::log;
+            case "log10": return strict ? StrictMath::log10 : Math::log10;
+            case "log1p": return strict ? StrictMath::log1p : Math::log1p;
+            case "rint": return strict ? StrictMath::rint : Math::rint;
+            case "round": return strict ? a -> StrictMath.round(a) : a -> Math.round(a);
+            case "signum": return strict ? StrictMath::signum : Math::signum;
+            case "sin": return strict ? StrictMath::sin : Math::sin;
+            case "sinh": return strict ? StrictMath::sinh : Math::sinh;
+            case "sqrt": return strict ? StrictMath::sqrt : Math::sqrt;
+            case "tan": return strict ? StrictMath::tan : Math::tan;
+            case "tanh": return strict ? StrictMath::tanh : Math::tanh;
+            case "toDegrees": return strict ? StrictMath::toDegrees : Math::toDegrees;
+            case "toRadians": return strict ? StrictMath::toRadians : Math::toRadians;
+            case "ulp": return strict ? StrictMath::ulp : Math::ulp;
+            default: throw unsupported("unknown function '" + function + "'");
+        }
+    }
+
+    private DoubleBinaryOperator binaryFunction(final String function, final boolean strict) {
+        switch (function) {
+            case "atan2": return strict ? StrictMath::atan2 : Math::atan2;
+            case "hypot": return strict ? StrictMath::hypot : Math::hypot;
+            case "IEEEremainder": return strict ? StrictMath::IEEEremainder : Math::IEEEremainder;
+            case "max": return strict ? StrictMath::max : Math::max;
+            case "min": return strict ? StrictMath::min : Math::min;
+            case "pow": return strict ? StrictMath::pow : Math::pow;
+            default: throw unsupported("unknown function '" + function + "'");
+        }
+    }
+
+    /**
+     * JEXL compares two boxed doubles with {@link Double#equals(Object)}, under which
+     * NaN equals NaN, and any other pair of numbers by their primitive values.
+     */
+    private Term equals(final Term left, final Term right) {
+        final NumericNode a = numeric(left), b = numeric(right);
+        if (left.type == Type.MIXED || right.type == Type.MIXED) {
+            throw unsupported("equality on values of unknown type");
+        }
+        final boolean constant = left.constant && right.constant;
+        if (left.type == right.type && left.type.isFloatingPoint()) {
+            return fold(new Term(v -> Double.doubleToLongBits(a.evaluate(v)) == Double.doubleToLongBits(b.evaluate(v)), constant));
+        }
+        return fold(new Term(v -> a.evaluate(v) == b.evaluate(v), constant));
+    }
+
+    private static Type arithmeticType(final Term left, final Term right) {
+        if (left.type.isFloatingPoint() || right.type.isFloatingPoint()) {
+            return Type.DOUBLE;
+        }
+        if (left.type == Type.INTEGER && right.type == Type.INTEGER) {
+            return Type.INTEGER;
+        }
+        return Type.MIXED;
+    }
+
+    private static Type divisionType(final Term left, final Term right) {
+        final Type type = arithmeticType(left, right);
+        if (type != Type.DOUBLE) {
+            throw unsupported("integer division");
+        }
+        return type;
+    }
+
+    private static NumericNode numeric(final Term term) {
+        if (term.type == Type.BOOLEAN) {
+            throw unsupported("boolean used as a number");
+        }
+        return term.numeric;
+    }
+
+    private static BooleanNode bool(final Term term) {
+        if (term.type != Type.BOOLEAN) {
+            throw unsupported("number used as a boolean");
+        }
+        return term.bool;
+    }
+
+    /**
+     * Evaluates constant terms once.
+     */
+    private static Term fold(final Term term) {
+        if (!term.constant) {
+            return term;
+        }
+        try {
+            if (term.type == Type.BOOLEAN) {
+                final boolean value = term.bool.test(null);
+                return new Term(v -> value, true);
+            }
+            final double value = term.numeric.evaluate(null);
+            return new Term(term.type, v -> value, true);
+        } catch (final ArithmeticException e) {
+            throw unsupported("constant " + e.getMessage() + " by zero");
+        }
+    }
+
+    private boolean accept(final String token) {
+        if (peekIs(token)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(final String token) {
+        if (!accept(token)) {
+            throw unsupported("expected '" + token + "'");
+        }
+    }
+
+    private String next() {
+        return position < tokens.size() ? tokens.get(position++) : null;
+    }
+
+    private String peek() {
+        return peek(0);
+    }
+
+    private String peek(final int offset) {
+        return position + offset < tokens.size() ? tokens.get(position + offset) : null;
+    }
+
+    private boolean peekIs(final String token) {
+        return token.equals(peek());
+    }
+
+    private static List<String> tokenize(final String expression) {
+        final List<String> tokens = new ArrayList<>();
+        final int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (Character.isDigit(c)) {
+                int end = i;
+                while (end < length && (Character.isLetterOrDigit(expression.charAt(end)) || expression.charAt(end) == '.')) {
+                    end++;
+                }
+                tokens.add(expression.substring(i, end));
+                i = end;
+            } else if (isIdentifierStart(c)) {
+                int end = i;
+                while (end < length && isIdentifierPart(expression.charAt(end))) {
+                    end++;
+                }
+                final String word = expression.substring(i, end);
+                tokens.add(WORD_OPERATORS.getOrDefault(word, word));
+                i = end;
+            } else {
+                final String pair = i + 1 < length ? expression.substring(i, i + 2) : "";
+                switch (pair) {
+                    case "<=": case ">=": case "==": case "!=": case "&&": case "||":
+                        tokens.add(pair);
+                        i += 2;
+                        continue;
+                    default:
+                        break;
+                }
+                switch (c) {
+                    case '(': case ')': case ',': case '?': case ':': case '.':
+                    case '+': case '-': case '*': case '/': case '%': case '<': case '>': case '!':
+                        tokens.add(String.valueOf(c));
+                        i++;
+                        break;
+                    default:
+                        throw unsupported("unsupported character '" + c + "'");
+                }
+            }
+        }
+        return Collections.unmodifiableList(tokens);
+    }
+
+    private static boolean isDigits(final String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIdentifier(final String token) {
+        return token != null && isIdentifierStart(token.charAt(0)) && !RESERVED.contains(token);
+    }
+
+    private static boolean isIdentifierStart(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(final char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+
+    private static UnsupportedExpressionException unsupported(final String message) {
+        return new UnsupportedExpressionException(message);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.utils.jexl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.jexl2.Expression;
+import org.apache.commons.jexl2.MapContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare the evaluation of
+ * expressions by JEXL with their {@link CompiledExpression} counterparts.
+ * <p>
+ * Every benchmark method call evaluates the expression for a batch of rows,
+ * the way the measurements API evaluates a query, or the thresholding
+ * evaluates an expression for many resources.
+ */
+public class CompiledExpressionBenchmark {
+
+    // the number of rows evaluated in a single benchmark method call
+    private static final int ROWS = 1000;
+
+    private static final String[] VARIABLES = {"ifInOctets", "ifOutOctets", "ifSpeed", "ifHighSpeed"};
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({
+                "ifInOctets * 8 / 1000000",
+                "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)",
+                "( ( ifInOctets == NaN ) ? ifOutOctets : ( ( ifOutOctets == NaN ) ? ifInOctets : math:max(ifInOctets, ifOutOctets) ) )",
+                "math:sqrt(ifInOctets * ifInOctets + ifOutOctets * ifOutOctets)"
+        })
+        public String expression;
+
+        private OnmsJexlEngine jexl;
+        private Expression jexlExpression;
+        private CompiledExpression compiledExpression;
+        private int[] variableIndexes;
+        private double[][] rows;
+
+        @Setup
+        public void setup() {
+            final Map<String, Object> functions = new HashMap<>();
+            functions.put("math", Math.class);
+            jexl = new OnmsJexlEngine();
+            jexl.white(Math.class.getName());
+            jexl.setFunctions(functions);
+            jexlExpression = jexl.createExpression(expression);
+
+            compiledExpression = new CompiledExpression.Compiler()
+                    .withFunctions(functions)
+                    .compile(expression)
+                    .orElseThrow(() -> new IllegalStateException("Cannot compile " + expression));
+            final List<String> variables = compiledExpression.getVariables();
+            variableIndexes = new int[variables.size()];
+            for (int i = 0; i < variableIndexes.length; i++) {
+                variableIndexes[i] = "NaN".equals(variables.get(i)) ? -1 : indexOf(variables.get(i));
+            }
+
+            final Random random = new Random(42);
+            rows = new double[ROWS][VARIABLES.length];
+            for (int i = 0; i < ROWS; i++) {
+                rows[i][0] = random.nextInt(1000000);
+                rows[i][1] = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(1000000);
+                rows[i][2] = random.nextBoolean() ? 100000000 : 10000000;
+                rows[i][3] = rows[i][2] / 1000000;
+            }
+        }
+
+        private static int indexOf(final String variable) {
+            for (int i = 0; i < VARIABLES.length; i++) {
+                if (VARIABLES[i].equals(variable)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException(variable);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void jexl(BState state, Blackhole blackhole) {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("NaN", Double.NaN);
+        final MapContext context = new MapContext(values);
+        for (final double[] row : state.rows) {
+            for (int i = 0; i < VARIABLES.length; i++) {
+                values.put(VARIABLES[i], row[i]);
+            }
+            blackhole.consume(state.jexlExpression.evaluate(context));
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void compiled(BState state, Blackhole blackhole) {
+        final int[] indexes = state.variableIndexes;
+        final double[] values = new double[indexes.length];
+        for (final double[] row : state.rows) {
+            for (int i = 0; i < indexes.length; i++) {
+                values[i] = indexes[i] < 0 ? Double.NaN : row[indexes[i]];
+            }
+            blackhole.consume(state.compiledExpression.evaluate(values));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.utils.jexl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Test;
+
+public class CompiledExpressionTest {
+
+    private static final double DELTA = 0.000001;
+
+    @Test
+    public void canEvaluateArithmetic() {
+        assertEquals(14.0, evaluate("A + B * C", 2.0, 3.0, 4.0), DELTA);
+        assertEquals(20.0, evaluate("(A + B) * C", 2.0, 3.0, 4.0), DELTA);
+        assertEquals(-1.0, evaluate("A - B", 2.0, 3.0), DELTA);
+        assertEquals(0.5, evaluate("A / B", 2.0, 4.0), DELTA);
+        assertEquals(1.0, evaluate("A % B", 5.0, 2.0), DELTA);
+        assertEquals(1.0, evaluate("A mod B", 5.0, 2.0), DELTA);
+        assertEquals(-2.0, evaluate("-A", 2.0), DELTA);
+        assertEquals(800.0, evaluate("A * 8 / 1000", 100000.0), DELTA);
+        assertEquals(1.25, evaluate("A * 0.25", 5.0), DELTA);
+    }
+
+    @Test
+    public void canEvaluateTernariesAndComparisons() {
+        assertEquals(1.0, evaluate("A > B ? 1 : 0", 3.0, 2.0), DELTA);
+        assertEquals(0.0, evaluate("A gt B ? 1 : 0", 2.0, 3.0), DELTA);
+        assertEquals(2.0, evaluate("A == B ? 1 : (A <= B ? 2 : 3)", 1.0, 3.0), DELTA);
+        assertEquals(3.0, evaluate("A > 0 && B > 0 ? A + B : 0", 1.0, 2.0), DELTA);
+        assertEquals(0.0, evaluate("A > 0 and !(B > 0) ? A + B : 0", 1.0, 2.0), DELTA);
+        assertEquals(1.0, evaluate("A < 0 || B > 0 ? 1 : 0", 1.0, 2.0), DELTA);
+    }
+
+    @Test
+    public void canCompareNaNLikeJexl() {
+        // Boxed doubles are compared with Double.equals() by JEXL, under which NaN equals NaN
+        final String expression = "( ( A == NaN ) ? B : ( ( B == NaN ) ? A : math:min(A,B) ) )";
+        final CompiledExpression compiled = compiler().compile(expression).get();
+        assertEquals(Arrays.asList("A", "NaN", "B"), compiled.getVariables());
+        assertEquals(1.0, compiled.evaluate(new double[]{Double.NaN, Double.NaN, 1.0}), DELTA);
+        assertEquals(1.0, compiled.evaluate(new double[]{1.0, Double.NaN, Double.NaN}), DELTA);
+        assertEquals(1.0, compiled.evaluate(new double[]{2.0, Double.NaN, 1.0}), DELTA);
+    }
+
+    @Test
+    public void canCallMathFunctions() {
+        assertEquals(Math.PI / 4, evaluate("math:atan2(A, B)", 1.0, 1.0), DELTA);
+        assertEquals(3.0, evaluate("math:sqrt(A)", 9.0), DELTA);
+        assertEquals(3.0, evaluate("strictmath:abs(A)", -3.0), DELTA);
+        assertEquals(5.0, evaluate("math:max(A, 5)", 2.0), DELTA);
+
+        final CompiledExpression compiled = new CompiledExpression.Compiler()
+                .withMathVariable("math")
+                .withMapVariable("datasources")
+                .compile("math.abs(datasources.A - B)").get();
+        assertEquals(Arrays.asList("A", "B"), compiled.getVariables());
+        assertEquals(1.0, compiled.evaluate(new double[]{2.0, 3.0}), DELTA);
+    }
+
+    @Test
+    public void canUseSlots() {
+        final Map<String, Integer> slots = new HashMap<>();
+        slots.put("A", 2);
+        slots.put("B", 0);
+        final CompiledExpression compiled = compiler()
+                .withSlots(name -> slots.getOrDefault(name, -1))
+                .compile("A - B").get();
+        assertEquals(1.0, compiled.evaluate(new double[]{2.0, 42.0, 3.0}), DELTA);
+        assertFalse(compiler().withSlots(name -> slots.getOrDefault(name, -1)).compile("A - C").isPresent());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void failsOnDivisionByZero() {
+        evaluate("A / B", 1.0, 0.0);
+    }
+
+    @Test
+    public void leavesUnsupportedExpressionsToJexl() {
+        // Integer divisions, arrays, strings, functions, assignments and floats without an exact representation
+        assertUnsupported("A / (1 / 2)");
+        assertUnsupported("timestamp / 1000");
+        assertUnsupported("__A[__i - 1]");
+        assertUnsupported("A + 'x'");
+        assertUnsupported("fn:arrayStart(__A, 0)");
+        assertUnsupported("jexl:evaluate(A)");
+        assertUnsupported("A = 1");
+        assertUnsupported("A * 0.1");
+        assertUnsupported("A > 1");
+        assertUnsupported("A > 0 ? 1 : 0.5 == B");
+        assertUnsupported("A == B == C");
+        assertUnsupported("math:abs(1)");
+        assertUnsupported("A +");
+        assertUnsupported("A & B");
+        assertUnsupported("size(A)");
+        assertUnsupported("");
+
+        assertTrue(compiler().compile("A * 0.1d").isPresent());
+    }
+
+    private static CompiledExpression.Compiler compiler() {
+        final Map<String, Object> functions = new HashMap<>();
+        functions.put("math", Math.class);
+        functions.put("strictmath", StrictMath.class);
+        return new CompiledExpression.Compiler()
+                .withFunctions(functions)
+                .withIntegerVariables(Collections.singleton("timestamp"));
+    }
+
+    private static double evaluate(final String expression, final double... values) {
+        final Optional<CompiledExpression> compiled = compiler().compile(expression);
+        assertTrue("Failed to compile " + expression, compiled.isPresent());
+        return compiled.get().evaluate(values);
+    }
+
+    private static void assertUnsupported(final String expression) {
+        assertFalse(expression, compiler().compile(expression).isPresent());
+    }
+}